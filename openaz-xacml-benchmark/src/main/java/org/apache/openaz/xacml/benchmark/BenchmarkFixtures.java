@@ -0,0 +1,181 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.api.pdp.PDPEngineFactory;
+import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
+import org.apache.openaz.xacml.pdp.std.StdEvaluationContext;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.apache.openaz.xacml.std.trace.NullTraceEngine;
+
+/**
+ * BenchmarkFixtures builds the engines, policies and requests shared by the benchmarks. The synthetic policies
+ * give child <code>i</code> a target on the value <code>"resource-i"</code> (policies) or
+ * <code>"action-i"</code> (rules), and the synthetic request matches only the last child at each level, so
+ * that every combining algorithm has to look at all of the children.
+ */
+final class BenchmarkFixtures {
+    static final String DEFAULT_CONFORMANCE_DIRECTORY = "../openaz-xacml-test/src/test/resources/testsets/conformance/xacml3.0-ct-v.0.4";
+
+    private static final Pattern XML_DECLARATION = Pattern.compile("<\\?xml[^>]*\\?>");
+    private static final String NAMESPACE = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
+    private static final String STRING_EQUAL = "urn:oasis:names:tc:xacml:1.0:function:string-equal";
+    private static final String STRING = "http://www.w3.org/2001/XMLSchema#string";
+    private static final String RESOURCE_ID = "urn:oasis:names:tc:xacml:1.0:resource:resource-id";
+    private static final String RESOURCE = "urn:oasis:names:tc:xacml:3.0:attribute-category:resource";
+    private static final String ACTION_ID = "urn:oasis:names:tc:xacml:1.0:action:action-id";
+    private static final String ACTION = "urn:oasis:names:tc:xacml:3.0:attribute-category:action";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Gets the full identifier of a combining algorithm from its short form, for instance
+     * <code>3.0:deny-overrides</code>.
+     */
+    static String combiningAlgorithmId(String kind, String shortId) {
+        int colon = shortId.indexOf(':');
+        return "urn:oasis:names:tc:xacml:" + shortId.substring(0, colon) + ":" + kind
+               + "-combining-algorithm:" + shortId.substring(colon + 1);
+    }
+
+    /**
+     * Creates a <code>PDPEngine</code> with the given XACML policy file as its only root policy.
+     */
+    static PDPEngine newEngine(File policyFile) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("xacml.rootPolicies", "root");
+        properties.setProperty("root.file", policyFile.getAbsolutePath());
+        return PDPEngineFactory.newInstance().newEngine(properties);
+    }
+
+    /**
+     * Writes the given policy to a temporary file that is deleted when the JVM exits.
+     */
+    static File writePolicy(String policy) throws IOException {
+        File file = File.createTempFile("openaz-benchmark", ".xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), policy.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Copies a conformance test policy to a temporary file without its XML declarations. The files in the
+     * test set have a second declaration after the license comment, which the XML parser rejects.
+     */
+    static File conformancePolicy(File directory, String test) throws IOException {
+        String policy = new String(Files.readAllBytes(new File(directory, test + "Policy.xml").toPath()),
+                                   StandardCharsets.UTF_8);
+        return writePolicy(XML_DECLARATION.matcher(policy).replaceAll(""));
+    }
+
+    static PolicyDef loadPolicy(String policy) throws Exception {
+        return DOMPolicyDef.load(new ByteArrayInputStream(policy.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Creates an <code>EvaluationContext</code> for evaluating a <code>PolicyDef</code> directly, without
+     * tracing, policy finder or PIP engines other than the request itself.
+     */
+    static EvaluationContext newEvaluationContext(Request request) {
+        return new StdEvaluationContext(request, null, null, NullTraceEngine.newInstance());
+    }
+
+    private static void appendMatch(StringBuilder xml, String value, String category, String attributeId) {
+        xml.append("<AnyOf><AllOf><Match MatchId=\"").append(STRING_EQUAL).append("\">")
+            .append("<AttributeValue DataType=\"").append(STRING).append("\">").append(value)
+            .append("</AttributeValue>").append("<AttributeDesignator AttributeId=\"").append(attributeId)
+            .append("\" Category=\"").append(category).append("\" DataType=\"").append(STRING)
+            .append("\" MustBePresent=\"false\"/></Match></AllOf></AnyOf>");
+    }
+
+    private static void appendPolicy(StringBuilder xml, String policyId, String resource, int rules,
+                                     String ruleCombiningAlgorithmId, boolean namespace) {
+        xml.append("<Policy ");
+        if (namespace) {
+            xml.append("xmlns=\"").append(NAMESPACE).append("\" ");
+        }
+        xml.append("PolicyId=\"").append(policyId).append("\" Version=\"1.0\" RuleCombiningAlgId=\"")
+            .append(ruleCombiningAlgorithmId).append("\"><Target>");
+        if (resource != null) {
+            appendMatch(xml, resource, RESOURCE, RESOURCE_ID);
+        }
+        xml.append("</Target>");
+        for (int i = 0; i < rules; i++) {
+            xml.append("<Rule RuleId=\"").append(policyId).append(":rule-").append(i).append("\" Effect=\"")
+                .append((rules - 1 - i) % 2 == 0 ? "Permit" : "Deny").append("\"><Target>");
+            appendMatch(xml, "action-" + i, ACTION, ACTION_ID);
+            xml.append("</Target></Rule>");
+        }
+        xml.append("</Policy>");
+    }
+
+    /**
+     * Creates a <code>Policy</code> with the given number of rules, combined with the given algorithm.
+     */
+    static String syntheticPolicy(int rules, String ruleCombiningAlgorithmId) {
+        StringBuilder xml = new StringBuilder();
+        appendPolicy(xml, "urn:openaz:benchmark:policy", null, rules, ruleCombiningAlgorithmId, true);
+        return xml.toString();
+    }
+
+    /**
+     * Creates a <code>PolicySet</code> of the given number of policies, each with the given number of rules.
+     */
+    static String syntheticPolicySet(int policies, int rules, String policyCombiningAlgorithmId,
+                                     String ruleCombiningAlgorithmId) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<PolicySet xmlns=\"").append(NAMESPACE)
+            .append("\" PolicySetId=\"urn:openaz:benchmark:policyset\" Version=\"1.0\" PolicyCombiningAlgId=\"")
+            .append(policyCombiningAlgorithmId).append("\"><Target/>");
+        for (int i = 0; i < policies; i++) {
+            appendPolicy(xml, "urn:openaz:benchmark:policy-" + i, "resource-" + i, rules,
+                         ruleCombiningAlgorithmId, false);
+        }
+        xml.append("</PolicySet>");
+        return xml.toString();
+    }
+
+    /**
+     * Creates the JSON request that matches the last policy and the last rule of the synthetic policies.
+     */
+    static String syntheticRequest(int policies, int rules) {
+        return "{\"Request\":{\"Resource\":{\"Attribute\":[{\"AttributeId\":\"" + RESOURCE_ID
+               + "\",\"Value\":\"resource-" + (policies - 1) + "\"}]},\"Action\":{\"Attribute\":[{\"AttributeId\":\""
+               + ACTION_ID + "\",\"Value\":\"action-" + (rules - 1) + "\"}]}}}";
+    }
+
+    static Request loadRequest(String json) throws Exception {
+        return JSONRequest.load(json);
+    }
+}
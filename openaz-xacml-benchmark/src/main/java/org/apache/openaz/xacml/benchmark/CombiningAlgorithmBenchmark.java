@@ -0,0 +1,113 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.pdp.eval.EvaluationResult;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks each rule and policy combining algorithm by evaluating a synthetic <code>Policy</code> or
+ * <code>PolicySet</code> directly, without the engine around it. Only the last child applies to the request,
+ * so every algorithm matches all of the children's targets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CombiningAlgorithmBenchmark {
+
+    /**
+     * A <code>Policy</code> of <code>rules</code> rules combined with <code>algorithm</code>.
+     */
+    @State(Scope.Benchmark)
+    public static class RuleCombining {
+        @Param({ "3.0:deny-overrides", "3.0:permit-overrides", "3.0:ordered-deny-overrides",
+                "3.0:ordered-permit-overrides", "3.0:deny-unless-permit", "3.0:permit-unless-deny",
+                "1.0:first-applicable", "1.0:deny-overrides", "1.0:permit-overrides" })
+        public String algorithm;
+
+        @Param({ "10", "100" })
+        public int rules;
+
+        PolicyDef policyDef;
+        Request request;
+
+        @Setup
+        public void setup() throws Exception {
+            this.policyDef = BenchmarkFixtures.loadPolicy(BenchmarkFixtures.syntheticPolicy(this.rules,
+                BenchmarkFixtures.combiningAlgorithmId("rule", this.algorithm)));
+            this.request = BenchmarkFixtures.loadRequest(BenchmarkFixtures.syntheticRequest(1, this.rules));
+        }
+    }
+
+    /**
+     * A <code>PolicySet</code> of <code>policies</code> single rule policies combined with
+     * <code>algorithm</code>.
+     */
+    @State(Scope.Benchmark)
+    public static class PolicyCombining {
+        @Param({ "3.0:deny-overrides", "3.0:permit-overrides", "3.0:ordered-deny-overrides",
+                "3.0:ordered-permit-overrides", "3.0:deny-unless-permit", "3.0:permit-unless-deny",
+                "1.0:first-applicable", "1.0:only-one-applicable", "1.0:deny-overrides",
+                "1.0:permit-overrides" })
+        public String algorithm;
+
+        @Param({ "10", "100" })
+        public int policies;
+
+        PolicyDef policyDef;
+        Request request;
+
+        @Setup
+        public void setup() throws Exception {
+            this.policyDef = BenchmarkFixtures.loadPolicy(BenchmarkFixtures.syntheticPolicySet(this.policies, 1,
+                BenchmarkFixtures.combiningAlgorithmId("policy", this.algorithm),
+                BenchmarkFixtures.combiningAlgorithmId("rule", "1.0:first-applicable")));
+            this.request = BenchmarkFixtures.loadRequest(BenchmarkFixtures.syntheticRequest(this.policies, 1));
+        }
+    }
+
+    @Benchmark
+    public EvaluationResult combineRules(RuleCombining ruleCombining) throws Exception {
+        return ruleCombining.policyDef.evaluate(BenchmarkFixtures.newEvaluationContext(ruleCombining.request));
+    }
+
+    @Benchmark
+    public EvaluationResult combinePolicies(PolicyCombining policyCombining) throws Exception {
+        return policyCombining.policyDef
+            .evaluate(BenchmarkFixtures.newEvaluationContext(policyCombining.request));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.std.dom.DOMRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks <code>OpenAZPDPEngine.decide</code> end to end, from an already parsed <code>Request</code> to
+ * the <code>Response</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecideBenchmark {
+
+    /**
+     * A test case of the XACML 3.0 conformance test set, made of <code>&lt;test&gt;Policy.xml</code> and
+     * <code>&lt;test&gt;Request.xml</code>.
+     */
+    @State(Scope.Benchmark)
+    public static class Conformance {
+        @Param({ "IIA001", "IIB001", "IIC001", "IIC100", "IID001", "IIIA001", "IIIA002" })
+        public String test;
+
+        @Param(BenchmarkFixtures.DEFAULT_CONFORMANCE_DIRECTORY)
+        public String directory;
+
+        PDPEngine engine;
+        Request request;
+
+        @Setup
+        public void setup() throws Exception {
+            File directoryFile = new File(this.directory);
+            File policyFile = BenchmarkFixtures.conformancePolicy(directoryFile, this.test);
+            this.engine = BenchmarkFixtures.newEngine(policyFile);
+            this.request = DOMRequest.load(new File(directoryFile, this.test + "Request.xml"));
+        }
+    }
+
+    /**
+     * A synthetic <code>PolicySet</code> with <code>policies</code> policies of 10 rules each.
+     */
+    @State(Scope.Benchmark)
+    public static class Synthetic {
+        private static final int RULES = 10;
+
+        @Param({ "10", "100", "1000" })
+        public int policies;
+
+        PDPEngine engine;
+        Request request;
+
+        @Setup
+        public void setup() throws Exception {
+            String policySet = BenchmarkFixtures
+                .syntheticPolicySet(this.policies, RULES,
+                                    BenchmarkFixtures.combiningAlgorithmId("policy", "3.0:deny-overrides"),
+                                    BenchmarkFixtures.combiningAlgorithmId("rule", "3.0:deny-overrides"));
+            this.engine = BenchmarkFixtures.newEngine(BenchmarkFixtures.writePolicy(policySet));
+            this.request = BenchmarkFixtures.loadRequest(BenchmarkFixtures.syntheticRequest(this.policies,
+                                                                                            RULES));
+        }
+    }
+
+    @Benchmark
+    public Response conformance(Conformance conformance) throws Exception {
+        return conformance.engine.decide(conformance.request);
+    }
+
+    @Benchmark
+    public Response synthetic(Synthetic synthetic) throws Exception {
+        return synthetic.engine.decide(synthetic.request);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.openaz.xacml.api.DataType;
+import org.apache.openaz.xacml.api.DataTypeException;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.pdp.policy.Bag;
+import org.apache.openaz.xacml.pdp.policy.ExpressionResult;
+import org.apache.openaz.xacml.pdp.policy.FunctionArgument;
+import org.apache.openaz.xacml.pdp.policy.FunctionArgumentAttributeValue;
+import org.apache.openaz.xacml.pdp.policy.FunctionArgumentBag;
+import org.apache.openaz.xacml.pdp.policy.FunctionDefinition;
+import org.apache.openaz.xacml.pdp.std.StdFunctions;
+import org.apache.openaz.xacml.std.datatypes.DataTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks one representative function of each function family in
+ * {@link org.apache.openaz.xacml.pdp.std.functions}, called directly with constant arguments. The XPath
+ * functions and access-permitted are left out as they need the request content to evaluate against.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FunctionBenchmark {
+    private static final int BAG_SIZE = 10;
+
+    @Param({ "equality", "equalIgnoreCase", "arithmetic", "comparison", "logical", "string", "normalize",
+            "stringConversion", "numberConversion", "dateTimeArithmetic", "timeInRange", "regexp",
+            "oneAndOnly", "bagSize", "isIn", "bag", "set", "higherOrder", "x500NameMatch",
+            "rfc822NameMatch", "uriStringConcatenate" })
+    public String family;
+
+    private FunctionDefinition functionDefinition;
+    private final List<FunctionArgument> arguments = new ArrayList<FunctionArgument>();
+
+    private static FunctionArgument value(DataType<?> dataType, Object value) throws DataTypeException {
+        return new FunctionArgumentAttributeValue(dataType.createAttributeValue(value));
+    }
+
+    private static FunctionArgument bag(String prefix) throws DataTypeException {
+        Bag bag = new Bag();
+        for (int i = 0; i < BAG_SIZE; i++) {
+            bag.add(DataTypes.DT_STRING.createAttributeValue(prefix + i));
+        }
+        return new FunctionArgumentBag(bag);
+    }
+
+    private void setup(FunctionDefinition functionDefinitionIn, FunctionArgument... argumentsIn) {
+        this.functionDefinition = functionDefinitionIn;
+        for (FunctionArgument argument : argumentsIn) {
+            this.arguments.add(argument);
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        switch (this.family) {
+        case "equality":
+            this.setup(StdFunctions.FD_STRING_EQUAL, value(DataTypes.DT_STRING, "value"),
+                       value(DataTypes.DT_STRING, "value"));
+            break;
+        case "equalIgnoreCase":
+            this.setup(StdFunctions.FD_STRING_EQUAL_IGNORE_CASE, value(DataTypes.DT_STRING, "Value"),
+                       value(DataTypes.DT_STRING, "vALUE"));
+            break;
+        case "arithmetic":
+            this.setup(StdFunctions.FD_INTEGER_ADD, value(DataTypes.DT_INTEGER, 41),
+                       value(DataTypes.DT_INTEGER, 1));
+            break;
+        case "comparison":
+            this.setup(StdFunctions.FD_INTEGER_GREATER_THAN, value(DataTypes.DT_INTEGER, 42),
+                       value(DataTypes.DT_INTEGER, 1));
+            break;
+        case "logical":
+            this.setup(StdFunctions.FD_AND, value(DataTypes.DT_BOOLEAN, true),
+                       value(DataTypes.DT_BOOLEAN, true), value(DataTypes.DT_BOOLEAN, true));
+            break;
+        case "string":
+            this.setup(StdFunctions.FD_STRING_CONTAINS, value(DataTypes.DT_STRING, "needle"),
+                       value(DataTypes.DT_STRING, "a haystack with a needle in it"));
+            break;
+        case "normalize":
+            this.setup(StdFunctions.FD_STRING_NORMALIZE_TO_LOWER_CASE,
+                       value(DataTypes.DT_STRING, "Mixed Case Value"));
+            break;
+        case "stringConversion":
+            this.setup(StdFunctions.FD_INTEGER_FROM_STRING, value(DataTypes.DT_STRING, "123456"));
+            break;
+        case "numberConversion":
+            this.setup(StdFunctions.FD_DOUBLE_TO_INTEGER, value(DataTypes.DT_DOUBLE, 42.5));
+            break;
+        case "dateTimeArithmetic":
+            this.setup(StdFunctions.FD_DATETIME_ADD_DAYTIMEDURATION,
+                       value(DataTypes.DT_DATETIME, "2015-11-01T12:00:00Z"),
+                       value(DataTypes.DT_DAYTIMEDURATION, "P1DT2H"));
+            break;
+        case "timeInRange":
+            this.setup(StdFunctions.FD_TIME_IN_RANGE, value(DataTypes.DT_TIME, "12:00:00Z"),
+                       value(DataTypes.DT_TIME, "09:00:00Z"), value(DataTypes.DT_TIME, "17:00:00Z"));
+            break;
+        case "regexp":
+            this.setup(StdFunctions.FD_STRING_REGEXP_MATCH, value(DataTypes.DT_STRING, "^[a-z]+-[0-9]+$"),
+                       value(DataTypes.DT_STRING, "resource-42"));
+            break;
+        case "oneAndOnly":
+            Bag singleton = new Bag();
+            singleton.add(DataTypes.DT_STRING.createAttributeValue("value"));
+            this.setup(StdFunctions.FD_STRING_ONE_AND_ONLY, new FunctionArgumentBag(singleton));
+            break;
+        case "bagSize":
+            this.setup(StdFunctions.FD_STRING_BAG_SIZE, bag("value-"));
+            break;
+        case "isIn":
+            this.setup(StdFunctions.FD_STRING_IS_IN, value(DataTypes.DT_STRING, "value-" + (BAG_SIZE - 1)),
+                       bag("value-"));
+            break;
+        case "bag":
+            this.setup(StdFunctions.FD_STRING_BAG, value(DataTypes.DT_STRING, "a"),
+                       value(DataTypes.DT_STRING, "b"), value(DataTypes.DT_STRING, "c"));
+            break;
+        case "set":
+            this.setup(StdFunctions.FD_STRING_INTERSECTION, bag("value-"), bag("value-"));
+            break;
+        case "higherOrder":
+            this.setup(StdFunctions.FD_ANY_OF, value(DataTypes.DT_ANYURI, XACML3.ID_FUNCTION_STRING_EQUAL),
+                       value(DataTypes.DT_STRING, "value-" + (BAG_SIZE - 1)), bag("value-"));
+            break;
+        case "x500NameMatch":
+            this.setup(StdFunctions.FD_X500NAME_MATCH, value(DataTypes.DT_X500NAME, "O=Apache, C=US"),
+                       value(DataTypes.DT_X500NAME, "CN=OpenAZ, OU=XACML, O=Apache, C=US"));
+            break;
+        case "rfc822NameMatch":
+            this.setup(StdFunctions.FD_RFC822NAME_MATCH, value(DataTypes.DT_STRING, ".apache.org"),
+                       value(DataTypes.DT_RFC822NAME, "dev@openaz.apache.org"));
+            break;
+        case "uriStringConcatenate":
+            this.setup(StdFunctions.FD_URI_STRING_CONCATENATE,
+                       value(DataTypes.DT_ANYURI, "http://openaz.apache.org/"),
+                       value(DataTypes.DT_STRING, "policies/"), value(DataTypes.DT_STRING, "root"));
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown function family " + this.family);
+        }
+        ExpressionResult expressionResult = this.evaluate();
+        if (!expressionResult.isOk()) {
+            throw new IllegalStateException(this.family + ": " + expressionResult.getStatus());
+        }
+    }
+
+    @Benchmark
+    public ExpressionResult evaluate() {
+        return this.functionDefinition.evaluate(null, this.arguments);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.benchmark;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.api.pip.PIPEngine;
+import org.apache.openaz.xacml.api.pip.PIPFinder;
+import org.apache.openaz.xacml.api.pip.PIPRequest;
+import org.apache.openaz.xacml.api.pip.PIPResponse;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.pip.StdPIPRequest;
+import org.apache.openaz.xacml.std.pip.engines.RequestEngine;
+import org.apache.openaz.xacml.std.pip.engines.csv.CSVEngine;
+import org.apache.openaz.xacml.std.pip.engines.csv.ConfigurableCSVResolver;
+import org.apache.openaz.xacml.std.pip.engines.jdbc.ConfigurableJDBCResolver;
+import org.apache.openaz.xacml.std.pip.engines.jdbc.JDBCEngine;
+import org.apache.openaz.xacml.std.pip.finders.RequestFinder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the CSV and JDBC PIP engines resolving a subject's last name from its subject id, against a
+ * generated CSV file and an in-memory H2 database of <code>rows</code> users. The requested user is the last
+ * one, which is the worst case for the CSV engine's scan.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PIPEngineBenchmark {
+    private static final String JDBC_URL = "jdbc:h2:mem:openaz-benchmark;DB_CLOSE_DELAY=-1";
+    private static final Identifier ID_LASTNAME = new IdentifierImpl("urn:openaz:benchmark:subject:lastname");
+
+    @Param({ "100", "10000" })
+    public int rows;
+
+    private final PIPRequest pipRequest = new StdPIPRequest(XACML3.ID_SUBJECT_CATEGORY_ACCESS_SUBJECT,
+                                                            ID_LASTNAME, XACML3.ID_DATATYPE_STRING);
+    private PIPFinder pipFinder;
+    private PIPEngine csvEngine;
+    private PIPEngine jdbcEngine;
+    private Connection connection;
+
+    private static void setAttribute(Properties properties, String prefix, Identifier attributeId) {
+        properties.setProperty(prefix + ".id", attributeId.stringValue());
+        properties.setProperty(prefix + ".datatype", XACML3.ID_DATATYPE_STRING.stringValue());
+        properties.setProperty(prefix + ".category", XACML3.ID_SUBJECT_CATEGORY_ACCESS_SUBJECT.stringValue());
+    }
+
+    private static String userId(int row) {
+        return "user-" + row;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        this.pipFinder = new RequestFinder(null, new RequestEngine(BenchmarkFixtures
+            .loadRequest("{\"Request\":{\"AccessSubject\":{\"Attribute\":[{\"AttributeId\":\""
+                         + XACML3.ID_SUBJECT_SUBJECT_ID.stringValue() + "\",\"Value\":\""
+                         + userId(this.rows - 1) + "\"}]}}}")));
+        this.setupCSV();
+        this.setupJDBC();
+    }
+
+    private void setupCSV() throws Exception {
+        File file = File.createTempFile("openaz-benchmark", ".csv");
+        file.deleteOnExit();
+        try (PrintWriter printWriter = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            for (int row = 0; row < this.rows; row++) {
+                printWriter.println(userId(row) + ",First" + row + ",Last" + row);
+            }
+        }
+        Properties properties = new Properties();
+        properties.setProperty("csv.name", "csv");
+        properties.setProperty("csv.source", file.getAbsolutePath());
+        properties.setProperty("csv.delimiter", ",");
+        properties.setProperty("csv.quote", "\"");
+        properties.setProperty("csv.skip", "0");
+        properties.setProperty("csv.resolvers", "users");
+        properties.setProperty("csv.resolver.users.classname", ConfigurableCSVResolver.class.getName());
+        properties.setProperty("csv.resolver.users.fields", "lastname");
+        properties.setProperty("csv.resolver.users.field.lastname.column", "2");
+        setAttribute(properties, "csv.resolver.users.field.lastname", ID_LASTNAME);
+        properties.setProperty("csv.resolver.users.parameters", "userid");
+        properties.setProperty("csv.resolver.users.parameter.userid.column", "0");
+        setAttribute(properties, "csv.resolver.users.parameter.userid", XACML3.ID_SUBJECT_SUBJECT_ID);
+        CSVEngine engine = new CSVEngine();
+        engine.configure("csv", properties);
+        this.csvEngine = engine;
+    }
+
+    private void setupJDBC() throws Exception {
+        //
+        // Keep a connection open so the in-memory database lives as long as the benchmark
+        //
+        this.connection = DriverManager.getConnection(JDBC_URL, "sa", "");
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS users");
+            statement.execute("CREATE TABLE users (userid VARCHAR(64) PRIMARY KEY, lastname VARCHAR(64))");
+        }
+        try (PreparedStatement preparedStatement = this.connection
+            .prepareStatement("INSERT INTO users (userid, lastname) VALUES (?, ?)")) {
+            for (int row = 0; row < this.rows; row++) {
+                preparedStatement.setString(1, userId(row));
+                preparedStatement.setString(2, "Last" + row);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+        Properties properties = new Properties();
+        properties.setProperty("jdbc.name", "jdbc");
+        properties.setProperty("jdbc.jdbc.driver", "org.h2.Driver");
+        properties.setProperty("jdbc.jdbc.url", JDBC_URL);
+        properties.setProperty("jdbc.jdbc.conn.user", "sa");
+        properties.setProperty("jdbc.jdbc.conn.password", "");
+        properties.setProperty("jdbc.resolvers", "users");
+        properties.setProperty("jdbc.resolver.users.classname", ConfigurableJDBCResolver.class.getName());
+        properties.setProperty("jdbc.resolver.users.select", "SELECT lastname FROM users WHERE userid=?");
+        properties.setProperty("jdbc.resolver.users.fields", "lastname");
+        setAttribute(properties, "jdbc.resolver.users.field.lastname", ID_LASTNAME);
+        properties.setProperty("jdbc.resolver.users.parameters", "userid");
+        setAttribute(properties, "jdbc.resolver.users.parameter.userid", XACML3.ID_SUBJECT_SUBJECT_ID);
+        JDBCEngine engine = new JDBCEngine();
+        engine.configure("jdbc", properties);
+        this.jdbcEngine = engine;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.connection.close();
+    }
+
+    @Benchmark
+    public PIPResponse csv() throws Exception {
+        return this.csvEngine.getAttributes(this.pipRequest, this.pipFinder);
+    }
+
+    @Benchmark
+    public PIPResponse jdbc() throws Exception {
+        return this.jdbcEngine.getAttributes(this.pipRequest, this.pipFinder);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.benchmark;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.std.dom.DOMRequest;
+import org.apache.openaz.xacml.std.dom.DOMResponse;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.apache.openaz.xacml.std.json.JSONResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks parsing a request and serializing a response in both the XML and the JSON formats. The request
+ * and response are those of a conformance test case, converted to JSON once during setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    @Param({ "IIA001", "IIC100", "IIIA001" })
+    public String test;
+
+    @Param(BenchmarkFixtures.DEFAULT_CONFORMANCE_DIRECTORY)
+    public String directory;
+
+    private String xmlRequest;
+    private String jsonRequest;
+    private Response response;
+
+    @Setup
+    public void setup() throws Exception {
+        File directoryFile = new File(this.directory);
+        File requestFile = new File(directoryFile, this.test + "Request.xml");
+        this.xmlRequest = new String(Files.readAllBytes(requestFile.toPath()), StandardCharsets.UTF_8);
+        Request request = DOMRequest.load(this.xmlRequest);
+        this.jsonRequest = JSONRequest.toString(request);
+        File policyFile = BenchmarkFixtures.conformancePolicy(directoryFile, this.test);
+        PDPEngine engine = BenchmarkFixtures.newEngine(policyFile);
+        this.response = engine.decide(request);
+    }
+
+    @Benchmark
+    public Request parseXMLRequest() throws Exception {
+        return DOMRequest.load(this.xmlRequest);
+    }
+
+    @Benchmark
+    public Request parseJSONRequest() throws Exception {
+        return JSONRequest.load(this.jsonRequest);
+    }
+
+    @Benchmark
+    public String serializeXMLResponse() throws Exception {
+        return DOMResponse.toString(this.response);
+    }
+
+    @Benchmark
+    public String serializeJSONResponse() throws Exception {
+        return JSONResponse.toString(this.response);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+
+package org.apache.openaz.xacml.benchmark;
+
+/**
+ * org.apache.openaz.xacml.benchmark contains JMH microbenchmarks of the PDP hot paths: complete decisions over
+ * the conformance policies and synthetic policy sets, request parsing and response serialization, the
+ * function families, the combining algorithms and the CSV and JDBC PIP engines.
+ * <p>
+ * The module is only part of the build with the <code>benchmark</code> profile. Run it from the module
+ * directory so that the default location of the conformance test set resolves:
+ *
+ * <pre>
+ * mvn -Pbenchmark package -pl openaz-xacml-benchmark -am
+ * cd openaz-xacml-benchmark
+ * java -jar target/benchmarks.jar -prof gc -rf json -rff results.json
+ * </pre>
+ *
+ * Every benchmark fixes its own fork, warm-up and measurement counts so that runs in CI are comparable;
+ * <code>-prof gc</code> adds the allocation rate per operation next to the throughput.
+ */
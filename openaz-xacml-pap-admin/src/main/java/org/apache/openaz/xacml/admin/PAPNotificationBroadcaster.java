@@ -22,6 +22,7 @@ package org.apache.openaz.xacml.admin;
 
 import java.io.Serializable;
 import java.util.LinkedList;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -58,6 +59,15 @@ public class PAPNotificationBroadcaster implements Serializable {
      */
     public interface PAPNotificationBroadcastListener {
         void updateAllGroups();
+        
+        /**
+         * The PAP changed the given groups.
+         * 
+         * @param since		- the version of the PAP the notification was built from, or -1
+         * @param version	- the version the notification brings the PAP to, or -1 if unknown
+         * @param groupIds	- the ids of the changed groups, empty if the PAP did not name any
+         */
+        void updateGroups(long since, long version, Set<String> groupIds);
     }
     
     
@@ -117,4 +127,21 @@ public class PAPNotificationBroadcaster implements Serializable {
             listener.updateAllGroups();
         }
     }
+    
+    /**
+     * Tell all listeners about an update to the given groups.
+     * Listeners must not block, as for updateAllGroups.
+     * 
+     * @param since
+     * @param version
+     * @param groupIds
+     */
+    public static synchronized void updateGroups(long since, long version, Set<String> groupIds) {
+        for (final PAPNotificationBroadcastListener listener: listeners) {
+        	if (logger.isDebugEnabled()) {
+        		logger.debug("updateGroups " + groupIds + " since " + since + " version " + version);
+        	}
+            listener.updateGroups(since, version, groupIds);
+        }
+    }
 }
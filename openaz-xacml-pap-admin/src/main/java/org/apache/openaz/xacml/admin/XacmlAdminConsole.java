@@ -20,6 +20,8 @@
 
 package org.apache.openaz.xacml.admin;
 
+import java.util.Set;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -161,6 +163,10 @@ public class XacmlAdminConsole extends CustomComponent implements View {
 		this.pdp.refreshContainer();
 	}
 
+	public void refreshPDPGroups(Set<String> groupIds) {
+		this.pdp.refreshContainer(groupIds);
+	}
+
 	public TabSheet getTabSheet() { return tabSheet;}
 
 	@AutoGenerated
@@ -26,7 +26,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.LinkedHashSet;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.persistence.EntityManager;
@@ -69,6 +71,7 @@ import org.apache.openaz.xacml.api.XACML3;
 import org.apache.openaz.xacml.api.pap.PAPEngine;
 import org.apache.openaz.xacml.api.pap.PAPException;
 import org.apache.openaz.xacml.rest.XACMLRestProperties;
+import org.apache.openaz.xacml.std.pap.StdPAPChangeTracker;
 import org.apache.openaz.xacml.util.XACMLProperties;
 import com.google.gwt.thirdparty.guava.common.base.Joiner;
 import com.google.gwt.thirdparty.guava.common.base.Splitter;
@@ -370,9 +373,17 @@ public class XacmlAdminUI extends UI implements PAPNotificationBroadcaster.PAPNo
 	public static void doPAPNotification(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		try {
 			//
-			// Notify all user instances to update groups
+			// Notify all user instances to update the groups the PAP says changed
 			//
-			PAPNotificationBroadcaster.updateAllGroups();
+			Set<String> groupIds = new LinkedHashSet<String>();
+			if (request.getParameter("groups") != null) {
+				for (String groupId : Splitter.on(',').omitEmptyStrings().split(request.getParameter("groups"))) {
+					groupIds.add(groupId);
+				}
+			}
+			PAPNotificationBroadcaster.updateGroups(StdPAPChangeTracker.parseVersion(request.getParameter("since")),
+													StdPAPChangeTracker.parseVersion(request.getParameter("version")),
+													groupIds);
 		} catch (Exception e) {
 			logger.error("Unable to process PAP request: "+e, e);
 			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
@@ -779,6 +790,15 @@ public class XacmlAdminUI extends UI implements PAPNotificationBroadcaster.PAPNo
 	 * This is called once for each Vaadin instance for each PAP change Notification.
 	 */
 	public void updateAllGroups() {
+		this.updateGroups(-1, -1, null);
+	}
+
+	/**
+	 * Got a notification that the PAP changed some groups, so reload those,
+	 * or all of them if this UI cannot tell which changed.
+	 */
+	@Override
+	public void updateGroups(final long since, final long version, final Set<String> groupIds) {
 		access(new Runnable() {
 			@Override
 			public void run() {
@@ -791,7 +811,11 @@ public class XacmlAdminUI extends UI implements PAPNotificationBroadcaster.PAPNo
 					//
 					// Tell the console to refresh its PDP group information
 					//
-					console.refreshPDPGroups();
+					Set<String> changed = null;
+					if (papEngine instanceof RESTfulPAPEngine && groupIds != null) {
+						changed = ((RESTfulPAPEngine)papEngine).getChangedGroupIds(since, version, groupIds);
+					}
+					console.refreshPDPGroups(changed);
 				} finally {
 					getUI().getSession().unlock();
 				}
@@ -802,6 +802,12 @@ AdminNotification.error("Synchronize not yet implemented");
 		}
 	}
 
+	public void refreshContainer(Set<String> groupIds) {
+		if (this.container != null) {
+			this.container.refreshGroups(groupIds);
+		}
+	}
+
 	@AutoGenerated
 	private VerticalLayout buildMainLayout() {
 		// common part: create layout
@@ -24,8 +24,10 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -183,6 +185,56 @@ public class PDPGroupContainer extends ItemSetChangeNotifier implements Containe
 		this.fireItemSetChange();
 	}
 	
+	/**
+	 * Reloads only the given groups, adding those that are new and dropping those that are gone. If one of
+	 * them cannot be retrieved, which is also how the PAP answers for a group that was removed, all groups
+	 * are reloaded.
+	 * 
+	 * @param groupIds	- the ids of the groups that changed, or null to reload all groups
+	 */
+	public synchronized void refreshGroups(Set<String> groupIds) {
+		if (groupIds == null) {
+			this.refreshGroups();
+			return;
+		}
+		Map<String, PDPGroup> changed = new LinkedHashMap<String, PDPGroup>();
+		for (String groupId : groupIds) {
+			try {
+				changed.put(groupId, this.papEngine.getGroup(groupId));
+			} catch (PAPException e) {
+				logger.info("Unable to retrieve Group '" + groupId + "', reloading all groups: " + e);
+				this.refreshGroups();
+				return;
+			}
+		}
+		synchronized(this.groups) {
+			for (Map.Entry<String, PDPGroup> entry : changed.entrySet()) {
+				String groupId = entry.getKey();
+				PDPGroup group = entry.getValue();
+				int index = -1;
+				for (int i = 0; i < this.groups.size(); i++) {
+					if (this.groups.get(i).getId().equals(groupId)) {
+						index = i;
+						break;
+					}
+				}
+				if (group == null) {
+					if (index >= 0) {
+						this.groups.remove(index);
+					}
+				} else if (index >= 0) {
+					this.groups.set(index, group);
+				} else {
+					this.groups.add(group);
+				}
+			}
+		}
+		//
+		// Notify that we have changed
+		//
+		this.fireItemSetChange();
+	}
+	
 	public List<PDPGroup>	getGroups() {
 		return Collections.unmodifiableList(this.groups);
 	}
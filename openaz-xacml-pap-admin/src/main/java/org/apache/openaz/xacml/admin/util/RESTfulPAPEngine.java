@@ -31,6 +31,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
@@ -45,6 +46,8 @@ import org.apache.openaz.xacml.api.pap.PDPPolicy;
 import org.apache.openaz.xacml.api.pap.PDPStatus;
 import org.apache.openaz.xacml.rest.XACMLRestProperties;
 import org.apache.openaz.xacml.std.pap.StdPDP;
+import org.apache.openaz.xacml.std.pap.StdPAPChange;
+import org.apache.openaz.xacml.std.pap.StdPAPChangeTracker;
 import org.apache.openaz.xacml.std.pap.StdPDPGroup;
 import org.apache.openaz.xacml.std.pap.StdPDPItemSetChangeNotifier;
 import org.apache.openaz.xacml.std.pap.StdPDPPolicy;
@@ -68,6 +71,43 @@ public class RESTfulPAPEngine extends StdPDPItemSetChangeNotifier implements PAP
 	//
 	private String papServletURLString;
 	
+	//
+	// Version of the PAP's change log this Admin Console has caught up with, -1 until the first notification
+	//
+	private final StdPAPChangeTracker changeTracker = new StdPAPChangeTracker() {
+		@Override
+		protected List<StdPAPChange> getChangesSince(long since) throws PAPException {
+			PAPChanges missed = (PAPChanges)sendToPAP("GET", null, null, PAPChanges.class,
+													"groupId=", "changesSince=" + since);
+			return missed == null ? null : missed.getChanges();
+		}
+	};
+	
+	/**
+	 * The reply to a "changesSince" request: the PAP's current version and the changes after the version
+	 * asked for, or null changes if the PAP no longer has them.
+	 */
+	public static class PAPChanges {
+		private Long version;
+		private List<StdPAPChange> changes;
+		
+		public Long getVersion() {
+			return this.version;
+		}
+		
+		public void setVersion(Long version) {
+			this.version = version;
+		}
+		
+		public List<StdPAPChange> getChanges() {
+			return this.changes;
+		}
+		
+		public void setChanges(List<StdPAPChange> changes) {
+			this.changes = changes;
+		}
+	}
+	
 	/**
 	 * Set up link with PAP Servlet and get our initial set of Groups
 	 * @throws Exception 
@@ -100,6 +140,21 @@ public class RESTfulPAPEngine extends StdPDPItemSetChangeNotifier implements PAP
 	}
 	
 
+	/**
+	 * Works out which groups a change notification from the PAP affects. If the notification follows on
+	 * from the last one this Admin Console saw, the groups it names are the ones that changed. If some
+	 * notifications were missed, the changes since the last version seen are asked for.
+	 * See {@link StdPAPChangeTracker}.
+	 * 
+	 * @param since	- the version the notification was built from, or -1
+	 * @param version	- the version the notification brings the PAP to, or -1 if the PAP keeps no change log
+	 * @param groupIds	- the ids of the groups the notification names, may be empty
+	 * @return the ids of the groups to reload, or null if all groups must be reloaded
+	 */
+	public Set<String> getChangedGroupIds(long since, long version, Set<String> groupIds) {
+		return this.changeTracker.getChangedGroupIds(since, version, groupIds);
+	}
+	
 	//
 	// High-level commands used by the Admin Console code through the PAPEngine Interface
 	//
@@ -0,0 +1,294 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.rest;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * XACMLPapFanOut runs the requests the PAP servlet sends to its PDP nodes, heartbeats and configuration
+ * updates, on one bounded pool of threads shared by all PDPs. Requests never run on the submitting thread,
+ * which may be serving an Admin Console. When the pool's queue is full, a heartbeat is rejected and skipped
+ * for that cycle, and a configuration update is deferred until a pool thread finishes what it is running.
+ * <p>
+ * Configuration updates are coalesced per PDP: while an update for a PDP is waiting, deferred or running,
+ * further change notifications for it only mark it to be updated once more after the current update, since
+ * each update sends the PDP's configuration as of the time it runs.
+ * <p>
+ * PDPs that miss heartbeats are backed off: they are skipped for a time starting at the heartbeat interval
+ * and doubling with each miss, up to a maximum.
+ */
+public class XACMLPapFanOut {
+    private static final Log logger = LogFactory.getLog(XACMLPapFanOut.class);
+
+    private final ThreadPoolExecutor executor;
+    private final long backoffInterval;
+    private final long maxBackoff;
+
+    //
+    // PDP id to the update to run next, null if the one running is current. A PDP id
+    // is present as long as an update for it is waiting or running.
+    //
+    private final Map<String, Runnable> updates = new HashMap<String, Runnable>();
+
+    //
+    // PDP ids whose updates the pool had no room for, in the order they came. Guarded by updates.
+    //
+    private final Set<String> deferred = new LinkedHashSet<String>();
+
+    private final Map<String, Backoff> backoffs = new HashMap<String, Backoff>();
+
+    private static class Backoff {
+        private int failures;
+        private long nextAttempt;
+    }
+
+    /**
+     * Creates a new <code>XACMLPapFanOut</code>.
+     *
+     * @param threads the number of threads to send requests on
+     * @param queueSize the number of requests that may wait for a thread
+     * @param backoffIntervalIn the milliseconds to skip a PDP after its first missed heartbeat
+     * @param maxBackoffIn the most milliseconds to skip a PDP after missed heartbeats
+     */
+    public XACMLPapFanOut(int threads, int queueSize, long backoffIntervalIn, long maxBackoffIn) {
+        int poolSize = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                                               newThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.backoffInterval = backoffIntervalIn;
+        this.maxBackoff = maxBackoffIn;
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "XACMLPapServlet-pdp-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Submits a heartbeat or other request to run on the pool.
+     *
+     * @param task the <code>Callable</code> sending the request
+     * @return the <code>Future</code> result of the request
+     * @throws RejectedExecutionException if the pool's queue is full or the pool is shut down
+     */
+    public <T> Future<T> submit(final Callable<T> task) {
+        return this.executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return task.call();
+                } finally {
+                    XACMLPapFanOut.this.scheduleDeferred();
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules a configuration update for the given PDP, unless one is already waiting to run. If an update
+     * for the PDP is running, the given one runs after it. If the pool's queue is full, the update runs on
+     * the next pool thread that finishes what it is running.
+     *
+     * @param pdpId the <code>String</code> id of the PDP
+     * @param update the <code>Runnable</code> sending the PDP its current configuration
+     */
+    public void update(final String pdpId, Runnable update) {
+        synchronized (this.updates) {
+            boolean scheduled = this.updates.containsKey(pdpId);
+            this.updates.put(pdpId, update);
+            if (scheduled) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Coalesced update for " + pdpId);
+                }
+                return;
+            }
+        }
+        this.schedule(pdpId);
+    }
+
+    /*
+     * Runs the updates for the given PDP, or for the deferred PDPs if it is null, on the pool.
+     */
+    private void schedule(final String pdpId) {
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    XACMLPapFanOut.this.runUpdates(pdpId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (pdpId == null) {
+                return;
+            }
+            if (this.executor.isShutdown()) {
+                synchronized (this.updates) {
+                    this.updates.remove(pdpId);
+                }
+                return;
+            }
+            logger.warn("No room to update " + pdpId + " now, deferring it");
+            synchronized (this.updates) {
+                this.deferred.add(pdpId);
+            }
+        }
+    }
+
+    /*
+     * Called when a heartbeat finishes, so that deferred updates run even if no update is running.
+     */
+    private void scheduleDeferred() {
+        boolean pending;
+        synchronized (this.updates) {
+            pending = !this.deferred.isEmpty();
+        }
+        if (pending && !this.executor.isShutdown()) {
+            this.schedule(null);
+        }
+    }
+
+    private String nextDeferred() {
+        synchronized (this.updates) {
+            Iterator<String> next = this.deferred.iterator();
+            if (!next.hasNext()) {
+                return null;
+            }
+            String pdpId = next.next();
+            next.remove();
+            return pdpId;
+        }
+    }
+
+    private void runUpdates(String firstPdpId) {
+        String pdpId = (firstPdpId == null ? this.nextDeferred() : firstPdpId);
+        while (pdpId != null) {
+            Runnable update;
+            synchronized (this.updates) {
+                update = this.updates.get(pdpId);
+                if (update == null) {
+                    //
+                    // Done with this PDP, carry on with one the pool had no room for
+                    //
+                    this.updates.remove(pdpId);
+                    pdpId = this.nextDeferred();
+                    continue;
+                }
+                this.updates.put(pdpId, null);
+            }
+            try {
+                update.run();
+            } catch (RuntimeException e) {
+                logger.error("Update of PDP '" + pdpId + "' failed: " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Determines whether heartbeats to the given PDP are being skipped because it missed the last ones.
+     *
+     * @param pdpId the <code>String</code> id of the PDP
+     * @return true if the PDP should not be sent a heartbeat now
+     */
+    public boolean isBackingOff(String pdpId) {
+        synchronized (this.backoffs) {
+            Backoff backoff = this.backoffs.get(pdpId);
+            return backoff != null && System.currentTimeMillis() < backoff.nextAttempt;
+        }
+    }
+
+    /**
+     * Records that the given PDP answered, ending any backoff.
+     *
+     * @param pdpId the <code>String</code> id of the PDP
+     */
+    public void succeeded(String pdpId) {
+        synchronized (this.backoffs) {
+            if (this.backoffs.remove(pdpId) != null) {
+                logger.info("PDP '" + pdpId + "' is answering again");
+            }
+        }
+    }
+
+    /**
+     * Records that the given PDP did not answer, and backs it off.
+     *
+     * @param pdpId the <code>String</code> id of the PDP
+     * @return the number of milliseconds the PDP will be skipped
+     */
+    public long failed(String pdpId) {
+        synchronized (this.backoffs) {
+            Backoff backoff = this.backoffs.get(pdpId);
+            if (backoff == null) {
+                backoff = new Backoff();
+                this.backoffs.put(pdpId, backoff);
+            }
+            backoff.failures++;
+            long delay = this.backoffInterval << Math.min(backoff.failures - 1, 20);
+            if (delay <= 0 || delay > this.maxBackoff) {
+                delay = this.maxBackoff;
+            }
+            backoff.nextAttempt = System.currentTimeMillis() + delay;
+            return delay;
+        }
+    }
+
+    /**
+     * Forgets the backoff state of PDPs that are no longer known.
+     *
+     * @param pdpIds the <code>String</code> ids of the known PDPs
+     */
+    public void retainAll(Collection<String> pdpIds) {
+        synchronized (this.backoffs) {
+            this.backoffs.keySet().retainAll(pdpIds);
+        }
+    }
+
+    /**
+     * Stops the threads, abandoning requests that have not started.
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+}
@@ -29,15 +29,25 @@ import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -58,6 +68,10 @@ import org.apache.openaz.xacml.api.pap.PDP;
 import org.apache.openaz.xacml.api.pap.PDPGroup;
 import org.apache.openaz.xacml.api.pap.PDPPolicy;
 import org.apache.openaz.xacml.api.pap.PDPStatus;
+import org.apache.openaz.xacml.std.pap.StdEngine;
+import org.apache.openaz.xacml.std.pap.StdPAPChange;
+import org.apache.openaz.xacml.std.pap.StdPAPChangeLog;
+import org.apache.openaz.xacml.std.pap.StdPAPChangeTracker;
 import org.apache.openaz.xacml.std.pap.StdPDP;
 import org.apache.openaz.xacml.std.pap.StdPDPGroup;
 import org.apache.openaz.xacml.std.pap.StdPDPItemSetChangeNotifier.StdItemSetChangeListener;
@@ -66,6 +80,7 @@ import org.apache.openaz.xacml.util.FactoryException;
 import org.apache.openaz.xacml.util.XACMLProperties;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 
 /**
@@ -110,6 +125,22 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
     private static Heartbeat heartbeat = null;
     private static Thread heartbeatThread = null;
 
+    /*
+     * The threads sending heartbeats and configuration updates to the PDPs, and the connect and read timeout
+     * for the updates.
+     */
+    private static XACMLPapFanOut fanOut = null;
+    private static final String NOTIFY_AC = "notifyAC";
+    private static int updateTimeout = 20000;
+
+    /*
+     * The change log version last announced to the Admin Consoles, and the version of the configuration
+     * each PDP reported in its last heartbeat as loaded. These let notifications and updates carry only
+     * what changed since then.
+     */
+    private static volatile long notifiedVersion = -1;
+    private static final ConcurrentHashMap<String, Long> pdpVersions = new ConcurrentHashMap<String, Long>();
+
     /**
      * @see HttpServlet#HttpServlet()
      */
@@ -132,6 +163,18 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
             //
             XACMLRest.loadXacmlProperties(null, null);
             //
+            // Requests to the PDPs go through a bounded pool of threads. Create it before the engine, which
+            // may start notifying us of changes.
+            //
+            int heartbeatInterval = Integer.parseInt(XACMLProperties
+                .getProperty(XACMLRestProperties.PROP_PAP_HEARTBEAT_INTERVAL, "10000"));
+            XACMLPapServlet.fanOut = new XACMLPapFanOut(
+                Integer.parseInt(XACMLProperties.getProperty(XACMLRestProperties.PROP_PAP_PDP_THREADS, "16")),
+                Integer.parseInt(XACMLProperties.getProperty(XACMLRestProperties.PROP_PAP_PDP_QUEUE, "1024")),
+                heartbeatInterval,
+                Long.parseLong(XACMLProperties.getProperty(XACMLRestProperties.PROP_PAP_HEARTBEAT_MAXBACKOFF,
+                                                           "300000")));
+            //
             // Load our PAP engine, first create a factory
             //
             PAPEngineFactory factory = PAPEngineFactory.newInstance(XACMLProperties
@@ -157,6 +200,8 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                 throw new PAPException("The property " + XACMLRestProperties.PROP_PAP_URL + " is not valid: "
                                        + XACMLPapServlet.papURL);
             }
+            XACMLPapServlet.updateTimeout = Integer.parseInt(XACMLProperties
+                .getProperty(XACMLRestProperties.PROP_PAP_UPDATE_TIMEOUT, "20000"));
             //
             // Configurable - have the PAP servlet initiate sending the latest PDP policy/pip configuration
             // to all its known PDP nodes.
@@ -227,6 +272,15 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                 logger.error(e);
             }
         }
+        if (XACMLPapServlet.fanOut != null) {
+            XACMLPapServlet.fanOut.shutdown();
+        }
+        //
+        // Write out any configuration changes the engine is holding
+        //
+        if (this.papEngine instanceof StdEngine) {
+            ((StdEngine)this.papEngine).shutdown();
+        }
     }
 
     /**
@@ -334,7 +388,7 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                     // Put URL's into the properties in case the PDP needs to
                     // retrieve them.
                     //
-                    this.populatePolicyURL(request.getRequestURL(), policies);
+                    this.populatePolicyURL(request.getRequestURL(), group, policies);
                     //
                     // Copy the properties to the output stream
                     //
@@ -453,16 +507,29 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                 response.sendError(HttpServletResponse.SC_NOT_FOUND, message);
                 return;
             }
-            //
-            // Get its stream
-            //
-            try (InputStream is = policy.getStream(); OutputStream os = response.getOutputStream()) {
+            try {
+                //
+                // Send the hash of its contents as the ETag, and nothing else
+                // if the PDP says it already has those contents
+                //
+                String hash = XACMLRestPolicyHash.hash(policy);
+                response.setHeader("ETag", XACMLRestPolicyHash.toETag(hash));
+                if (XACMLRestPolicyHash.matches(request.getHeader("If-None-Match"), hash)) {
+                    logger.info("Policy " + policyId + " not modified");
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
                 //
-                // Send the policy back
+                // Get its stream
                 //
-                IOUtils.copy(is, os);
+                try (InputStream is = policy.getStream(); OutputStream os = response.getOutputStream()) {
+                    //
+                    // Send the policy back
+                    //
+                    IOUtils.copy(is, os);
 
-                response.setStatus(HttpServletResponse.SC_OK);
+                    response.setStatus(HttpServletResponse.SC_OK);
+                }
             } catch (PAPException e) {
                 String message = "Failed to open policy id " + policyId;
                 logger.error(message);
@@ -522,7 +589,7 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
         return false;
     }
 
-    private void populatePolicyURL(StringBuffer urlPath, Properties policies) {
+    private void populatePolicyURL(StringBuffer urlPath, PDPGroup group, Properties policies) {
         String lists[] = new String[2];
         lists[0] = policies.getProperty(XACMLProperties.PROP_ROOTPOLICIES);
         lists[1] = policies.getProperty(XACMLProperties.PROP_REFERENCEDPOLICIES);
@@ -532,11 +599,31 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                     String url = urlPath + "?id=" + id;
                     logger.info("Policy URL for " + id + ": " + url);
                     policies.setProperty(id + ".url", url);
+                    populatePolicyHash(group.getPolicy(id), policies);
                 }
             }
         }
     }
 
+    /**
+     * Adds the hash of the given policy's contents to the properties sent to a PDP, so that the PDP can tell
+     * whether it already has the policy without downloading it.
+     *
+     * @param policy the <code>PDPPolicy</code>, may be <code>null</code>
+     * @param policies the <code>Properties</code> to add the hash to
+     */
+    private static void populatePolicyHash(PDPPolicy policy, Properties policies) {
+        if (policy == null) {
+            return;
+        }
+        try {
+            policies.setProperty(policy.getId() + XACMLRestPolicyHash.PROP_SHA256,
+                                 XACMLRestPolicyHash.hash(policy));
+        } catch (PAPException | IOException e) {
+            logger.warn("Failed to hash policy " + policy.getId() + ": " + e.getMessage());
+        }
+    }
+
     /**
      * @see HttpServlet#doPut(HttpServletRequest request, HttpServletResponse response)
      */
@@ -628,9 +715,41 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
             String parameterDefault = request.getParameter("default");
             String pdpId = request.getParameter("pdpId");
             String pdpGroup = request.getParameter("getPDPGroup");
+            String changesSince = request.getParameter("changesSince");
             if ("".equals(groupId)) {
                 // request IS from AC but does not identify a group by name
-                if (parameterDefault != null) {
+                if (changesSince != null) {
+                    // Request is for the changes made after the version the AC last saw. A null list of
+                    // changes tells the AC to reload everything.
+                    StdPAPChangeLog changeLog = this.getChangeLog();
+                    Map<String, Object> changes = new LinkedHashMap<String, Object>();
+                    if (changeLog == null) {
+                        changes.put("version", null);
+                        changes.put("changes", null);
+                    } else {
+                        long version = changeLog.getVersion();
+                        changes.put("version", version);
+                        try {
+                            changes.put("changes", changeLog.getChangesSince(Long.parseLong(changesSince)));
+                        } catch (NumberFormatException e) {
+                            changes.put("changes", null);
+                        }
+                    }
+
+                    // convert response object to JSON and include in the response
+                    ObjectMapper mapper = new ObjectMapper();
+                    mapper.writeValue(response.getOutputStream(), changes);
+
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("GET changes since " + changesSince + " req from '"
+                                     + request.getRequestURL() + "'");
+                    }
+                    response.setStatus(HttpServletResponse.SC_OK);
+                    response.setHeader("content-type", "application/json");
+                    response.getOutputStream().close();
+                    return;
+
+                } else if (parameterDefault != null) {
                     // Request is for the Default group (whatever its id)
                     PDPGroup group = papEngine.getDefaultGroup();
 
@@ -1127,15 +1246,12 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
     //
 
     /**
-     * Heartbeat with all known PDPs. Implementation note: The PDPs are contacted Sequentially, not in
-     * Parallel. If we did this in parallel using multiple threads we would simultaneously use - 1 thread and
-     * - 1 connection for EACH PDP. This could become a resource problem since we already use multiple threads
-     * and connections for updating the PDPs when user changes occur. Using separate threads can also make it
-     * tricky dealing with timeouts on PDPs that are non-responsive. The Sequential operation does a heartbeat
-     * request to each PDP one at a time. This has the flaw that any PDPs that do not respond will hold up the
-     * entire heartbeat sequence until they timeout. If there are a lot of non-responsive PDPs and the timeout
-     * is large-ish (the default is 20 seconds) it could take a long time to cycle through all of the PDPs.
-     * That means that this may not notice a PDP being down in a predictable time.
+     * Heartbeat with all known PDPs. Implementation note: The PDPs are contacted in parallel on the threads
+     * of the {@link XACMLPapFanOut}, which are shared with the configuration updates, so the number of
+     * threads and connections stays bounded however many PDPs there are. Each heartbeat has a connect and a read
+     * timeout, so non-responsive PDPs only hold up a cycle by about the timeout rather than by the timeout
+     * for each of them. PDPs that do not respond are skipped for a growing number of cycles, so a lot of dead
+     * PDPs do not keep the threads busy.
      */
     private class Heartbeat implements Runnable {
         private PAPEngine papEngine;
@@ -1197,16 +1313,11 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                         break;
                     }
 
-                    // try to get the summary status from each PDP
-                    boolean changeSeen = false;
-                    for (PDP pdp : pdps) {
-                        //
-                        // Check for shutdown
-                        //
-                        if (!this.isRunning()) {
-                            logger.info("isRunning is false, getting out of loop.");
-                            break;
-                        }
+                    // ask all the PDPs for their summary status at once
+                    Map<PDP, Future<String>> statuses = new LinkedHashMap<PDP, Future<String>>();
+                    List<String> pdpIds = new ArrayList<String>();
+                    for (final PDP pdp : pdps) {
+                        pdpIds.add(pdp.getId());
                         // the id of the PDP is its url (though we add a query parameter)
                         URL pdpURL = idToURLMap.get(pdp.getId());
                         if (pdpURL == null) {
@@ -1221,54 +1332,48 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                                 continue;
                             }
                         }
-
-                        // Do a GET with type HeartBeat
-                        String newStatus = "";
-
-                        HttpURLConnection connection = null;
+                        // leave PDPs that missed the last heartbeats alone for a while
+                        if (fanOut.isBackingOff(pdp.getId())) {
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("Heartbeat '" + pdp.getId() + "' skipped, backing off");
+                            }
+                            continue;
+                        }
+                        final URL url = pdpURL;
                         try {
-
-                            //
-                            // Open up the connection
-                            //
-                            connection = (HttpURLConnection)pdpURL.openConnection();
-                            //
-                            // Setup our method and headers
-                            //
-                            connection.setRequestMethod("GET");
-                            connection.setConnectTimeout(heartbeatTimeout);
-                            //
-                            // Do the connect
-                            //
-                            connection.connect();
-                            if (connection.getResponseCode() == 204) {
-                                newStatus = connection
-                                    .getHeaderField(XACMLRestProperties.PROP_PDP_HTTP_HEADER_HB);
-                                if (logger.isDebugEnabled()) {
-                                    logger
-                                        .debug("Heartbeat '" + pdp.getId() + "' status='" + newStatus + "'");
+                            statuses.put(pdp, fanOut.submit(new Callable<String>() {
+                                @Override
+                                public String call() {
+                                    return Heartbeat.this.heartbeat(pdp, url);
                                 }
-                            } else {
-                                // anything else is an unexpected result
-                                newStatus = PDPStatus.Status.UNKNOWN.toString();
-                                logger.error("Heartbeat connect response code "
-                                             + connection.getResponseCode() + ": " + pdp.getId());
-                            }
-                        } catch (UnknownHostException e) {
-                            newStatus = PDPStatus.Status.NO_SUCH_HOST.toString();
-                            logger.error("Heartbeat '" + pdp.getId() + "' NO_SUCH_HOST");
-                        } catch (SocketTimeoutException e) {
-                            newStatus = PDPStatus.Status.CANNOT_CONNECT.toString();
-                            logger.error("Heartbeat '" + pdp.getId() + "' connection timeout: " + e);
-                        } catch (ConnectException e) {
-                            newStatus = PDPStatus.Status.CANNOT_CONNECT.toString();
-                            logger.error("Heartbeat '" + pdp.getId() + "' cannot connect: " + e);
-                        } catch (Exception e) {
+                            }));
+                        } catch (RejectedExecutionException e) {
+                            logger.warn("Heartbeat '" + pdp.getId()
+                                        + "' skipped, no room on the PDP threads");
+                        }
+                    }
+                    idToURLMap.keySet().retainAll(pdpIds);
+                    fanOut.retainAll(pdpIds);
+
+                    // collect the answers, each of which is bounded by the connect and read timeouts,
+                    // and give up on those still queued or running after a cycle's worth of waiting
+                    long deadline = System.currentTimeMillis() + 2L * this.heartbeatTimeout
+                                    + this.heartbeatInterval;
+                    boolean changeSeen = false;
+                    for (Map.Entry<PDP, Future<String>> entry : statuses.entrySet()) {
+                        PDP pdp = entry.getKey();
+                        String newStatus;
+                        try {
+                            long wait = Math.max(0, deadline - System.currentTimeMillis());
+                            newStatus = entry.getValue().get(wait, TimeUnit.MILLISECONDS);
+                        } catch (ExecutionException e) {
                             newStatus = PDPStatus.Status.UNKNOWN.toString();
-                            logger.error("Heartbeat '" + pdp.getId() + "' connect exception: " + e, e);
-                        } finally {
-                            // cleanup the connection
-                            connection.disconnect();
+                            logger.error("Heartbeat '" + pdp.getId() + "' failed: " + e.getCause(),
+                                         e.getCause());
+                        } catch (TimeoutException e) {
+                            entry.getValue().cancel(true);
+                            logger.warn("Heartbeat '" + pdp.getId() + "' did not finish in time, skipped");
+                            continue;
                         }
 
                         if (!pdp.getStatus().getStatus().toString().equals(newStatus)) {
@@ -1304,6 +1409,79 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                 this.terminate();
             }
         }
+
+        /**
+         * Does a GET with type HeartBeat to one PDP, backing the PDP off if it cannot be reached.
+         *
+         * @param pdp the <code>PDP</code>
+         * @param pdpURL the heartbeat <code>URL</code> of the PDP
+         * @return the <code>String</code> status of the PDP
+         */
+        private String heartbeat(PDP pdp, URL pdpURL) {
+            String newStatus = "";
+
+            HttpURLConnection connection = null;
+            try {
+
+                //
+                // Open up the connection
+                //
+                connection = (HttpURLConnection)pdpURL.openConnection();
+                //
+                // Setup our method and headers
+                //
+                connection.setRequestMethod("GET");
+                connection.setConnectTimeout(heartbeatTimeout);
+                connection.setReadTimeout(heartbeatTimeout);
+                //
+                // Do the connect
+                //
+                connection.connect();
+                if (connection.getResponseCode() == 204) {
+                    newStatus = connection.getHeaderField(XACMLRestProperties.PROP_PDP_HTTP_HEADER_HB);
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Heartbeat '" + pdp.getId() + "' status='" + newStatus + "'");
+                    }
+                    //
+                    // Remember the configuration the PDP has loaded, so the next update can be a partial one
+                    //
+                    long version = StdPAPChangeTracker.parseVersion(connection
+                        .getHeaderField(XACMLRestProperties.PROP_PDP_HTTP_HEADER_VERSION));
+                    if (version >= 0) {
+                        pdpVersions.put(pdp.getId(), version);
+                    } else {
+                        pdpVersions.remove(pdp.getId());
+                    }
+                } else {
+                    // anything else is an unexpected result
+                    newStatus = PDPStatus.Status.UNKNOWN.toString();
+                    logger.error("Heartbeat connect response code " + connection.getResponseCode() + ": "
+                                 + pdp.getId());
+                }
+                fanOut.succeeded(pdp.getId());
+            } catch (UnknownHostException e) {
+                newStatus = PDPStatus.Status.NO_SUCH_HOST.toString();
+                logger.error("Heartbeat '" + pdp.getId() + "' NO_SUCH_HOST, backing off for "
+                             + fanOut.failed(pdp.getId()) + " ms");
+            } catch (SocketTimeoutException e) {
+                newStatus = PDPStatus.Status.CANNOT_CONNECT.toString();
+                logger.error("Heartbeat '" + pdp.getId() + "' connection timeout: " + e + ", backing off for "
+                             + fanOut.failed(pdp.getId()) + " ms");
+            } catch (ConnectException e) {
+                newStatus = PDPStatus.Status.CANNOT_CONNECT.toString();
+                logger.error("Heartbeat '" + pdp.getId() + "' cannot connect: " + e + ", backing off for "
+                             + fanOut.failed(pdp.getId()) + " ms");
+            } catch (Exception e) {
+                newStatus = PDPStatus.Status.UNKNOWN.toString();
+                logger.error("Heartbeat '" + pdp.getId() + "' connect exception: " + e, e);
+            } finally {
+                // cleanup the connection
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+            return newStatus;
+        }
     }
 
     //
@@ -1361,12 +1539,54 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
 
     @Override
     public void pdpChanged(PDP pdp) {
-        // kick off a thread to do an event notification for each PDP.
+        // queue an event notification for each PDP.
         // This needs to be on a separate thread so that PDPs that do not respond (down, non-existent, etc)
         // do not block the PSP response to the AC, which would freeze the GUI until all PDPs sequentially
-        // respond or time-out.
-        Thread t = new Thread(new UpdatePDPThread(pdp));
-        t.start();
+        // respond or time-out. Repeated changes for a PDP that is still waiting for its update are
+        // coalesced into that update.
+        if (fanOut == null) {
+            logger.error("PAP not initialized, not updating PDP '" + pdp.getId() + "'");
+            return;
+        }
+        fanOut.update(pdp.getId(), new UpdatePDPThread(pdp));
+    }
+
+    /**
+     * @return the change log of the PAP engine, or null if the engine does not keep one
+     */
+    private StdPAPChangeLog getChangeLog() {
+        if (this.papEngine instanceof StdEngine) {
+            return ((StdEngine)this.papEngine).getChangeLog();
+        }
+        return null;
+    }
+
+    /**
+     * Decides which part of its configuration a PDP needs to be sent. When every change to the PDP's group
+     * since the version the PDP last accepted touches only policies, or only PIP engines, just that part is
+     * sent; otherwise, or when there is no such history, everything is.
+     *
+     * @param changes the changes since the PDP's last accepted version, or null
+     * @param group the PDP's group, or null
+     * @return the value of the "cache" parameter
+     */
+    private static String getCacheScope(List<StdPAPChange> changes, PDPGroup group) {
+        if (changes == null || group == null) {
+            return "all";
+        }
+        Set<StdPAPChange.Type> types = new HashSet<StdPAPChange.Type>();
+        for (StdPAPChange change : changes) {
+            if (group.getId().equals(change.getGroupId())) {
+                types.add(change.getType());
+            }
+        }
+        if (types.size() == 1 && types.contains(StdPAPChange.Type.POLICY)) {
+            return "policies";
+        }
+        if (types.size() == 1 && types.contains(StdPAPChange.Type.PIP)) {
+            return "pips";
+        }
+        return "all";
     }
 
     private class UpdatePDPThread implements Runnable {
@@ -1389,10 +1609,24 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                 if (logger.isDebugEnabled()) {
                     logger.debug("creating url for id '" + pdp.getId() + "'");
                 }
-                // TODO - currently always send both policies and pips. Do we care enough to add code to allow
-                // sending just one or the other?
-                // TODO (need to change "cache=", implying getting some input saying which to change)
-                URL url = new URL(pdp.getId() + "?cache=all");
+                //
+                // Send only the policies or only the PIP configuration when that is all that changed since
+                // the version the PDP last reported loaded, and tell it which version it is being brought
+                // up to. A PDP without a group gets a blank configuration, which has no version.
+                //
+                StdPAPChangeLog changeLog = getChangeLog();
+                PDPGroup group = papEngine.getPDPGroup(pdp);
+                long version = -1;
+                String cache = "all";
+                if (changeLog != null && group != null) {
+                    version = changeLog.getVersion();
+                    Long accepted = pdpVersions.get(pdp.getId());
+                    if (accepted != null) {
+                        cache = getCacheScope(changeLog.getChangesSince(accepted), group);
+                    }
+                }
+                URL url = new URL(pdp.getId() + "?cache=" + cache
+                                  + (version < 0 ? "" : "&version=" + version));
 
                 //
                 // Open up the connection
@@ -1402,6 +1636,8 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                 // Setup our method and headers
                 //
                 connection.setRequestMethod("PUT");
+                connection.setConnectTimeout(updateTimeout);
+                connection.setReadTimeout(updateTimeout);
                 // connection.setRequestProperty("Accept", "text/x-java-properties");
                 connection.setRequestProperty("Content-Type", "text/x-java-properties");
                 // connection.setUseCaches(false);
@@ -1422,7 +1658,6 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                 // connection.setDoInput(true);
                 try (OutputStream os = connection.getOutputStream()) {
 
-                    PDPGroup group = papEngine.getPDPGroup(pdp);
                     // if the PDP was just deleted, there is no group, but we want to send an update anyway
                     if (group == null) {
                         // create blank properties files
@@ -1437,14 +1672,19 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
 
                     } else {
                         // send properties from the current group
-                        group.getPolicyProperties().store(os, "");
-                        Properties policyLocations = new Properties();
-                        for (PDPPolicy policy : group.getPolicies()) {
-                            policyLocations.put(policy.getId() + ".url", XACMLPapServlet.papURL + "?id="
-                                                                         + policy.getId());
+                        if (!"pips".equals(cache)) {
+                            group.getPolicyProperties().store(os, "");
+                            Properties policyLocations = new Properties();
+                            for (PDPPolicy policy : group.getPolicies()) {
+                                policyLocations.put(policy.getId() + ".url", XACMLPapServlet.papURL + "?id="
+                                                                             + policy.getId());
+                                populatePolicyHash(policy, policyLocations);
+                            }
+                            policyLocations.store(os, "");
+                        }
+                        if (!"policies".equals(cache)) {
+                            group.getPipConfigProperties().store(os, "");
                         }
-                        policyLocations.store(os, "");
-                        group.getPipConfigProperties().store(os, "");
                     }
 
                 } catch (Exception e) {
@@ -1469,7 +1709,16 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                                 + connection.getResponseMessage());
                     setPDPSummaryStatus(pdp, PDPStatus.Status.UNKNOWN);
                 }
+                //
+                // The PDP has only queued the update, its heartbeat says when it has loaded it. Until
+                // then the next update is worked out from the version it last reported.
+                //
+                int responseCode = connection.getResponseCode();
+                if (version < 0 || responseCode != 204 && responseCode != 200) {
+                    pdpVersions.remove(pdp.getId());
+                }
             } catch (Exception e) {
+                pdpVersions.remove(pdp.getId());
                 logger.error("Unable to sync config with PDP '" + pdp.getId() + "': " + e, e);
                 try {
                     setPDPSummaryStatus(pdp, PDPStatus.Status.UNKNOWN);
@@ -1478,7 +1727,9 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
                 }
             } finally {
                 // cleanup the connection
-                connection.disconnect();
+                if (connection != null) {
+                    connection.disconnect();
+                }
 
                 // tell the AC to update it's status info
                 notifyAC();
@@ -1492,12 +1743,16 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
     //
 
     private void notifyAC() {
-        // kick off a thread to do one event notification for all registered ACs
+        // queue one event notification for all registered ACs
         // This needs to be on a separate thread so that ACs can make calls back to PAP to get the updated
         // Group data
-        // as part of processing this message on their end.
-        Thread t = new Thread(new NotifyACThread());
-        t.start();
+        // as part of processing this message on their end. Notifications asked for while one is waiting
+        // are coalesced into it, so a burst of PDP updates notifies the ACs once or twice.
+        if (fanOut == null) {
+            logger.error("PAP not initialized, not notifying the Admin Consoles");
+            return;
+        }
+        fanOut.update(NOTIFY_AC, new NotifyACThread());
     }
 
     private class NotifyACThread implements Runnable {
@@ -1507,6 +1762,17 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
             List<String> disconnectedACs = new ArrayList<String>();
             // logger.debug("LIST SIZE="+adminConsoleURLStringList.size());
 
+            //
+            // Work out what changed since the last notification
+            //
+            String changed = "&objectType=all";
+            StdPAPChangeLog changeLog = getChangeLog();
+            long version = -1;
+            if (changeLog != null) {
+                version = changeLog.getVersion();
+                changed = getChangedQuery(changeLog.getChangesSince(notifiedVersion), version);
+            }
+
             // There should be no Concurrent exception here because the list is a CopyOnWriteArrayList.
             // The "for each" loop uses the collection's iterator under the covers, so it should be correct.
             for (String acURL : adminConsoleURLStringList) {
@@ -1515,10 +1781,9 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
 
                     acURL += "?PAPNotification=true";
 
-                    // TODO - Currently we just tell AC that "Something changed" without being specific. Do we
-                    // want to tell it which group/pdp changed?
-                    // TODO - If so, put correct parameters into the Query string here
-                    acURL += "&objectType=all" + "&action=update";
+                    // Tell the AC what changed and the version it brings the repository to. An AC that has
+                    // not seen the "since" version can ask for the changes it missed with changesSince.
+                    acURL += changed + "&action=update";
 
                     if (logger.isDebugEnabled()) {
                         logger.debug("creating url for id '" + acURL + "'");
@@ -1578,8 +1843,45 @@ public class XACMLPapServlet extends HttpServlet implements StdItemSetChangeList
             if (disconnectedACs.size() > 0) {
                 adminConsoleURLStringList.removeAll(disconnectedACs);
             }
+            notifiedVersion = version;
 
         }
+
+        private String getChangedQuery(List<StdPAPChange> changes, long version) {
+            StringBuilder query = new StringBuilder();
+            if (changes == null) {
+                //
+                // We do not know what changed, so the AC should reload everything
+                //
+                query.append("&objectType=all");
+            } else {
+                Set<StdPAPChange.Type> types = new HashSet<StdPAPChange.Type>();
+                for (StdPAPChange change : changes) {
+                    types.add(change.getType());
+                }
+                query.append("&objectType=")
+                    .append(types.size() == 1 ? types.iterator().next().name().toLowerCase() : "all");
+                query.append("&since=").append(notifiedVersion);
+                appendIds(query, "groups", StdPAPChangeLog.getGroupIds(changes));
+                appendIds(query, "pdps", StdPAPChangeLog.getIds(changes, StdPAPChange.Type.PDP));
+                appendIds(query, "policies", StdPAPChangeLog.getIds(changes, StdPAPChange.Type.POLICY));
+                appendIds(query, "pips", StdPAPChangeLog.getIds(changes, StdPAPChange.Type.PIP));
+            }
+            query.append("&version=").append(version);
+            return query.toString();
+        }
+
+        private void appendIds(StringBuilder query, String name, Set<String> ids) {
+            if (ids.isEmpty()) {
+                return;
+            }
+            try {
+                query.append('&').append(name).append('=')
+                    .append(URLEncoder.encode(Joiner.on(',').join(ids), "UTF-8"));
+            } catch (IOException e) {
+                logger.error("Unable to encode " + name + ": " + e);
+            }
+        }
     }
 
 }
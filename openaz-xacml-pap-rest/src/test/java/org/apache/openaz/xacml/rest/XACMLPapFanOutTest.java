@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the coalescing, queueing and backoff of the requests the PAP sends through {@link XACMLPapFanOut}.
+ */
+public class XACMLPapFanOutTest {
+    private XACMLPapFanOut fanOut;
+
+    @After
+    public void tearDown() {
+        if (this.fanOut != null) {
+            this.fanOut.shutdown();
+        }
+    }
+
+    private static Runnable await(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static Runnable count(final AtomicInteger runs, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testUpdatesCoalesce() throws Exception {
+        this.fanOut = new XACMLPapFanOut(1, 1, 1000, 10000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        this.fanOut.update("pdp", await(started, release));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        AtomicInteger first = new AtomicInteger();
+        AtomicInteger last = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        this.fanOut.update("pdp", count(first, done));
+        this.fanOut.update("pdp", count(first, done));
+        this.fanOut.update("pdp", count(last, done));
+        release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(0, first.get());
+        assertEquals(1, last.get());
+    }
+
+    @Test
+    public void testFullQueueDoesNotRunOnCaller() throws Exception {
+        this.fanOut = new XACMLPapFanOut(1, 1, 1000, 10000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<String> blocked = new Callable<String>() {
+            @Override
+            public String call() {
+                await(started, release).run();
+                return "done";
+            }
+        };
+        this.fanOut.submit(blocked);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        this.fanOut.submit(blocked);
+
+        //
+        // The queue is full: heartbeats are rejected, updates wait for a thread
+        //
+        try {
+            this.fanOut.submit(blocked);
+            fail("Heartbeat was accepted by a full pool");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        final AtomicReference<Thread> updateThread = new AtomicReference<Thread>();
+        final CountDownLatch updated = new CountDownLatch(1);
+        this.fanOut.update("pdp", new Runnable() {
+            @Override
+            public void run() {
+                updateThread.set(Thread.currentThread());
+                updated.countDown();
+            }
+        });
+        assertEquals(1, updated.getCount());
+
+        release.countDown();
+        assertTrue(updated.await(10, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), updateThread.get());
+    }
+
+    @Test
+    public void testBackoff() {
+        this.fanOut = new XACMLPapFanOut(1, 1, 100, 250);
+        assertFalse(this.fanOut.isBackingOff("pdp"));
+        assertEquals(100, this.fanOut.failed("pdp"));
+        assertTrue(this.fanOut.isBackingOff("pdp"));
+        assertEquals(200, this.fanOut.failed("pdp"));
+        assertEquals(250, this.fanOut.failed("pdp"));
+        assertEquals(250, this.fanOut.failed("pdp"));
+
+        this.fanOut.succeeded("pdp");
+        assertFalse(this.fanOut.isBackingOff("pdp"));
+
+        this.fanOut.failed("pdp");
+        this.fanOut.retainAll(Collections.singleton("other"));
+        assertFalse(this.fanOut.isBackingOff("pdp"));
+        assertEquals(100, this.fanOut.failed("pdp"));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.rest;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * XACMLPdpAsyncRequest runs the evaluation of a POSTed request on one of the PDP servlet's asynchronous
+ * request threads. The request is answered by whichever comes first: the evaluated response, the
+ * container's timeout, or a full queue. The other two are dropped.
+ * <p>
+ * The {@link Work} is given everything it needs from the request before it is handed off, and writes to a
+ * {@link XACMLPdpBufferedResponse}. It therefore never touches the container's request or response, which
+ * the container recycles as soon as a timeout has completed the request.
+ * <p>
+ * The request body has been read on the container's thread with blocking reads by then, and the decision
+ * is made under the servlet's engine lock, one at a time, so the asynchronous threads do not add
+ * decisions in parallel; they keep the container's threads free and bound the waiting requests.
+ */
+class XACMLPdpAsyncRequest implements AsyncListener, Runnable {
+    private static final Log logger = LogFactory.getLog(XACMLPdpAsyncRequest.class);
+
+    /**
+     * Work evaluates the request and writes the response.
+     */
+    interface Work {
+        void process(HttpServletResponse response) throws ServletException, IOException;
+    }
+
+    private final AsyncContext asyncContext;
+    private final HttpServletResponse response;
+    private final Work work;
+    private final int retryAfter;
+    //
+    // Whoever sets this first, the timeout or the request thread, gets to answer
+    //
+    private final AtomicBoolean responded = new AtomicBoolean(false);
+    private volatile Future<?> future = null;
+
+    /**
+     * @param asyncContextIn the context returned by <code>startAsync</code>
+     * @param responseIn the response, as it was before <code>startAsync</code>
+     * @param workIn
+     * @param retryAfterIn the number of seconds for the Retry-After header of a 503 response
+     */
+    XACMLPdpAsyncRequest(AsyncContext asyncContextIn, HttpServletResponse responseIn, Work workIn,
+                         int retryAfterIn) {
+        this.asyncContext = asyncContextIn;
+        this.response = responseIn;
+        this.work = workIn;
+        this.retryAfter = retryAfterIn;
+    }
+
+    /**
+     * Queues the work on the given executor. If the executor does not accept it the request is answered with
+     * 503 right away.
+     *
+     * @param executor
+     * @param timeout the number of milliseconds until the request is answered with 503
+     */
+    void start(ExecutorService executor, long timeout) {
+        this.asyncContext.setTimeout(timeout);
+        this.asyncContext.addListener(this);
+        try {
+            this.future = executor.submit(this);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Request rejected, no room for more requests");
+            this.respondUnavailable();
+        }
+    }
+
+    /**
+     * Evaluates the request, unless it has already been answered while it waited in the queue.
+     */
+    @Override
+    public void run() {
+        if (this.responded.get()) {
+            return;
+        }
+        XACMLPdpBufferedResponse bufferedResponse = new XACMLPdpBufferedResponse(this.response);
+        try {
+            this.work.process(bufferedResponse);
+        } catch (ServletException | IOException | RuntimeException e) {
+            logger.error("Exception evaluating request: " + e, e);
+            bufferedResponse.reset();
+            try {
+                bufferedResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+            } catch (IOException e1) {
+                logger.error(e1);
+            }
+        }
+        if (this.responded.compareAndSet(false, true)) {
+            try {
+                bufferedResponse.commit();
+            } catch (IOException e) {
+                logger.error("Failed to send response: " + e, e);
+            } finally {
+                this.asyncContext.complete();
+            }
+        } else {
+            logger.warn("Discarding response to a request that timed out");
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        logger.warn("Request timed out");
+        //
+        // Drop it from the queue if it has not started yet; if it is running the
+        // response is discarded when it is done.
+        //
+        Future<?> queued = this.future;
+        if (queued != null) {
+            queued.cancel(false);
+        }
+        this.respondUnavailable();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        logger.error("Asynchronous request failed", event.getThrowable());
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    private void respondUnavailable() {
+        if (!this.responded.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.response.setHeader("Retry-After", Integer.toString(this.retryAfter));
+            this.response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } catch (IOException e) {
+            logger.error(e);
+        } finally {
+            this.asyncContext.complete();
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.rest;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.IdReference;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.Result;
+import org.apache.openaz.xacml.std.StdMutableResponse;
+import org.apache.openaz.xacml.std.StdMutableResult;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * XACMLPdpAuditLog writes one JSON line per decision to an audit file. It takes over from the
+ * <code>xacml.request</code> logger when {@link XACMLRestProperties#PROP_PDP_AUDIT_FILE} is set.
+ * <p>
+ * Request threads only put a record into a bounded ring buffer; they never block and never format anything.
+ * If the buffer is full the record is dropped and counted. A single background thread takes the records
+ * out, hashes the request, formats the line and writes it. The file is rolled over to
+ * <code>file.1</code>, <code>file.2</code>, ... once it reaches a size or an age. The request and response
+ * themselves are only written for requests that failed, that were not decided, or that were picked by the
+ * payload sample rate.
+ * <p>
+ * Every record lists the policies that applied, whether or not the client asked for them: the request is
+ * decided as the client sent it while a
+ * {@link org.apache.openaz.xacml.pdp.eval.PolicyIdentifierCollector} gathers the identifiers, and they are
+ * taken out of the response again for clients that did not ask for them, see {@link #asRequested}.
+ */
+class XACMLPdpAuditLog implements Runnable {
+    private static final Log logger = LogFactory.getLog(XACMLPdpAuditLog.class);
+
+    private static final JsonFactory jsonFactory = new JsonFactory()
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+        .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+    private static final long IDLE_NANOS = 1000000L;
+    private static final long PUBLISH_WAIT_NANOS = 1000L;
+
+    /**
+     * Record holds what the request thread knows about one decision. Everything that costs something to
+     * work out is left for the writer thread.
+     */
+    private static class Record {
+        private final long timestamp;
+        private final long latencyMicros;
+        private final int status;
+        private final byte[] request;
+        private final Charset requestCharset;
+        private final Response response;
+        private final String error;
+        private final boolean keepPayload;
+        private final byte[] responsePayload;
+
+        Record(long timestampIn, long latencyMicrosIn, int statusIn, byte[] requestIn,
+               Charset requestCharsetIn, Response responseIn, String errorIn, boolean keepPayloadIn,
+               byte[] responsePayloadIn) {
+            this.timestamp = timestampIn;
+            this.latencyMicros = latencyMicrosIn;
+            this.status = statusIn;
+            this.request = requestIn;
+            this.requestCharset = requestCharsetIn;
+            this.response = responseIn;
+            this.error = errorIn;
+            this.keepPayload = keepPayloadIn;
+            this.responsePayload = responsePayloadIn;
+        }
+    }
+
+    //
+    // The ring buffer. Producers claim a slot by advancing producerIndex and
+    // then publish the record into it; the writer thread is the only consumer
+    // and empties a slot before it advances consumerIndex.
+    //
+    private final AtomicReferenceArray<Record> ring;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Path file;
+    private final long maxFileSize;
+    private final long maxFileAge;
+    private final int maxFiles;
+    private final double payloadSampleRate;
+
+    private final Thread writerThread;
+    private volatile boolean terminate = false;
+    private CountingOutputStream outputStream = null;
+    private long fileOpened;
+    private long fileInitialSize;
+
+    XACMLPdpAuditLog(Path fileIn, int bufferSizeIn, long maxFileSizeIn, long maxFileAgeIn, int maxFilesIn,
+                     double payloadSampleRateIn) {
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSizeIn) - 1) << 1;
+        this.ring = new AtomicReferenceArray<Record>(capacity);
+        this.mask = capacity - 1;
+        this.file = fileIn;
+        this.maxFileSize = maxFileSizeIn;
+        this.maxFileAge = maxFileAgeIn;
+        this.maxFiles = maxFilesIn;
+        this.payloadSampleRate = payloadSampleRateIn;
+        this.writerThread = new Thread(this, "XACMLPdpAuditLog");
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * Creates and starts the audit log configured in the XACML properties.
+     *
+     * @return the audit log, or null if no audit file is configured
+     */
+    static XACMLPdpAuditLog newInstance() {
+        String fileName = XACMLProperties.getProperty(XACMLRestProperties.PROP_PDP_AUDIT_FILE);
+        if (fileName == null || fileName.isEmpty()) {
+            return null;
+        }
+        try {
+            int bufferSize = Integer.parseInt(XACMLProperties
+                .getProperty(XACMLRestProperties.PROP_PDP_AUDIT_BUFFERSIZE, "8192"));
+            long maxFileSize = Long.parseLong(XACMLProperties
+                .getProperty(XACMLRestProperties.PROP_PDP_AUDIT_MAXFILESIZE, "104857600"));
+            long maxFileAge = Long.parseLong(XACMLProperties
+                .getProperty(XACMLRestProperties.PROP_PDP_AUDIT_MAXFILEAGE, "86400000"));
+            int maxFiles = Integer.parseInt(XACMLProperties
+                .getProperty(XACMLRestProperties.PROP_PDP_AUDIT_MAXFILES, "10"));
+            double payloadSampleRate = Double.parseDouble(XACMLProperties
+                .getProperty(XACMLRestProperties.PROP_PDP_AUDIT_PAYLOADSAMPLERATE, "0"));
+            XACMLPdpAuditLog auditLog = new XACMLPdpAuditLog(Paths.get(fileName), bufferSize, maxFileSize,
+                                                             maxFileAge, maxFiles, payloadSampleRate);
+            auditLog.start();
+            logger.info("Writing decision audit log to " + fileName);
+            return auditLog;
+        } catch (NumberFormatException | IOException e) {
+            logger.error("Unable to start the decision audit log, using the request log instead: " + e, e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the audit file and starts the writer thread.
+     *
+     * @throws IOException
+     */
+    void start() throws IOException {
+        this.open();
+        this.writerThread.start();
+    }
+
+    /**
+     * Returns the response to send to the client for a request that was decided while collecting policy
+     * identifiers: they are left out unless the client asked for them.
+     *
+     * @param request the request as the client sent it
+     * @param response the response to the request that was decided
+     * @return
+     */
+    static Response asRequested(Request request, Response response) {
+        if (response == null || request.getReturnPolicyIdList()) {
+            return response;
+        }
+        StdMutableResponse responseAsRequested = new StdMutableResponse();
+        for (Result result : response.getResults()) {
+            StdMutableResult resultAsRequested = new StdMutableResult(result);
+            resultAsRequested.setPolicyIdentifiers(null);
+            resultAsRequested.setPolicySetIdentifiers(null);
+            responseAsRequested.add(resultAsRequested);
+        }
+        return responseAsRequested;
+    }
+
+    /**
+     * Decides whether the request and response of a decision are kept. They are for failed requests, for
+     * responses with a result that is not decided or not ok, and for the sampled share of the rest.
+     *
+     * @param status the HTTP status of the request
+     * @param response the response from the PDP, may be null
+     * @return true if the payloads should be passed to {@link #record}
+     */
+    boolean keepPayload(int status, Response response) {
+        if (status != 200 || response == null) {
+            return true;
+        }
+        for (Result result : response.getResults()) {
+            if (result.getDecision() == Decision.INDETERMINATE || result.getStatus() != null
+                && !result.getStatus().isOk()) {
+                return true;
+            }
+        }
+        return this.payloadSampleRate > 0
+               && ThreadLocalRandom.current().nextDouble() < this.payloadSampleRate;
+    }
+
+    /**
+     * Queues a decision for the audit log. This never blocks; if the writer has fallen behind the record is
+     * dropped.
+     *
+     * @param timestamp the time the request was received
+     * @param latencyMicros the time taken to decide
+     * @param status the HTTP status of the request
+     * @param request the request as it was received
+     * @param requestCharset the character set the request is encoded in
+     * @param response the response from the PDP, or null
+     * @param error why the request failed, or null
+     * @param keepPayload whether the request and response are written out, see {@link #keepPayload}
+     * @param responsePayload the response as it was sent, or null
+     */
+    void record(long timestamp, long latencyMicros, int status, byte[] request, Charset requestCharset,
+                Response response, String error, boolean keepPayload, byte[] responsePayload) {
+        Record record = new Record(timestamp, latencyMicros, status, request, requestCharset, response, error,
+                                   keepPayload, responsePayload);
+        long index;
+        do {
+            index = this.producerIndex.get();
+            if (index - this.consumerIndex.get() >= this.ring.length()) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+        } while (!this.producerIndex.compareAndSet(index, index + 1));
+        this.ring.lazySet((int)(index & this.mask), record);
+    }
+
+    /**
+     * @return the number of records dropped because the buffer was full
+     */
+    long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Writes out whatever is still queued and stops the writer thread.
+     */
+    void shutdown() {
+        this.terminate = true;
+        LockSupport.unpark(this.writerThread);
+        try {
+            this.writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        long reportedDropped = 0;
+        while (true) {
+            long index = this.consumerIndex.get();
+            Record record = null;
+            if (index < this.producerIndex.get()) {
+                //
+                // The slot has been claimed, wait for the record to be published. That takes a moment
+                // unless the producer was descheduled in between, so back off instead of spinning.
+                //
+                int slot = (int)(index & this.mask);
+                long waitNanos = PUBLISH_WAIT_NANOS;
+                while ((record = this.ring.get(slot)) == null) {
+                    LockSupport.parkNanos(waitNanos);
+                    waitNanos = Math.min(waitNanos * 2, IDLE_NANOS);
+                }
+                this.ring.lazySet(slot, null);
+                this.consumerIndex.lazySet(index + 1);
+            }
+            try {
+                if (record != null) {
+                    this.write(record);
+                    continue;
+                }
+                if (this.outputStream != null) {
+                    this.outputStream.flush();
+                }
+            } catch (IOException e) {
+                logger.error("Failed to write the decision audit log: " + e, e);
+            }
+            long droppedNow = this.dropped.get();
+            if (droppedNow != reportedDropped) {
+                logger.warn("Decision audit log dropped " + (droppedNow - reportedDropped) + " records");
+                reportedDropped = droppedNow;
+            }
+            if (this.terminate) {
+                break;
+            }
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+        try {
+            if (this.outputStream != null) {
+                this.outputStream.close();
+            }
+        } catch (IOException e) {
+            logger.error(e);
+        }
+    }
+
+    private void open() throws IOException {
+        Path parent = this.file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        long size = Files.exists(this.file) ? Files.size(this.file) : 0;
+        OutputStream os = Files.newOutputStream(this.file, StandardOpenOption.CREATE,
+                                                StandardOpenOption.APPEND);
+        this.outputStream = new CountingOutputStream(new BufferedOutputStream(os, 65536));
+        this.fileOpened = System.currentTimeMillis();
+        this.fileInitialSize = size;
+    }
+
+    private void rollOver() throws IOException {
+        boolean rolledOver = false;
+        try {
+            this.outputStream.close();
+            if (this.maxFiles <= 0) {
+                Files.delete(this.file);
+            } else {
+                Files.deleteIfExists(this.sibling(this.maxFiles));
+                for (int i = this.maxFiles - 1; i >= 1; i--) {
+                    Path from = this.sibling(i);
+                    if (Files.exists(from)) {
+                        Files.move(from, this.sibling(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(this.file, this.sibling(1), StandardCopyOption.REPLACE_EXISTING);
+            }
+            rolledOver = true;
+        } finally {
+            //
+            // Keep writing even if the file could not be rolled over. It is tried
+            // again once another file's worth of records has been written to it.
+            //
+            this.outputStream = null;
+            this.open();
+            if (!rolledOver) {
+                this.fileInitialSize = 0;
+            }
+        }
+    }
+
+    private Path sibling(int number) {
+        return this.file.resolveSibling(this.file.getFileName() + "." + number);
+    }
+
+    private void write(Record record) throws IOException {
+        if (this.outputStream == null) {
+            this.open();
+        }
+        long size = this.fileInitialSize + this.outputStream.getCount();
+        if (size > 0 && (size >= this.maxFileSize
+                         || System.currentTimeMillis() - this.fileOpened >= this.maxFileAge)) {
+            try {
+                this.rollOver();
+            } catch (IOException e) {
+                logger.error("Failed to roll over the decision audit log: " + e, e);
+                if (this.outputStream == null) {
+                    this.open();
+                }
+            }
+        }
+        try (JsonGenerator generator = jsonFactory.createGenerator(this.outputStream, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeNumberField("timestamp", record.timestamp);
+            if (record.request != null) {
+                generator.writeStringField("requestHash", Hashing.murmur3_128().hashBytes(record.request)
+                    .toString());
+            }
+            generator.writeNumberField("status", record.status);
+            generator.writeNumberField("latencyMicros", record.latencyMicros);
+            if (record.response != null) {
+                generator.writeArrayFieldStart("decisions");
+                for (Result result : record.response.getResults()) {
+                    generator.writeString(result.getDecision() == null
+                        ? null : result.getDecision().toString());
+                }
+                generator.writeEndArray();
+                generator.writeArrayFieldStart("policyIds");
+                for (Result result : record.response.getResults()) {
+                    writeIdReferences(generator, result.getPolicyIdentifiers());
+                    writeIdReferences(generator, result.getPolicySetIdentifiers());
+                }
+                generator.writeEndArray();
+            }
+            if (record.error != null) {
+                generator.writeStringField("error", record.error);
+            }
+            if (record.keepPayload) {
+                if (record.request != null) {
+                    generator.writeStringField("request", new String(record.request, record.requestCharset));
+                }
+                //
+                // The servlet always sends its responses in UTF-8
+                //
+                if (record.responsePayload != null) {
+                    generator.writeStringField("response", new String(record.responsePayload,
+                                                                      StandardCharsets.UTF_8));
+                }
+            }
+            generator.writeEndObject();
+        }
+        this.outputStream.write('\n');
+    }
+
+    private static void writeIdReferences(JsonGenerator generator, Iterable<IdReference> idReferences)
+        throws IOException {
+        if (idReferences == null) {
+            return;
+        }
+        for (IdReference idReference : idReferences) {
+            if (idReference.getVersion() == null) {
+                generator.writeString(idReference.getId().stringValue());
+            } else {
+                generator.writeString(idReference.getId().stringValue() + "#"
+                                      + idReference.getVersion().getVersion());
+            }
+        }
+    }
+}
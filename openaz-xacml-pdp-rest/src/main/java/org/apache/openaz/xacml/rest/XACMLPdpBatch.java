@@ -0,0 +1,511 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.api.pdp.PDPException;
+import org.apache.openaz.xacml.std.dom.DOMRequest;
+import org.apache.openaz.xacml.std.dom.DOMResponse;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.apache.openaz.xacml.std.json.JSONResponse;
+import org.apache.openaz.xacml.std.metrics.PDPMetrics;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * XACMLPdpBatch holds the pieces of the PDP servlet's batch endpoint. A batch is either a JSON array of XACML
+ * JSON requests or an XML document whose root element contains a sequence of XACML <code>Request</code>
+ * elements. The batch is split into one item per request, each item is evaluated on its own by an
+ * {@link Item}, which hands the decision to a {@link Decider}, see {@link #evaluate}, and the results are
+ * written back in the same order:
+ *
+ * <pre>
+ * [{"Status":200,"Response":{"Response":[...]}}, {"Status":400,"Error":"..."}]
+ *
+ * &lt;Responses&gt;&lt;Item Status="200"&gt;&lt;Response&gt;...&lt;/Response&gt;&lt;/Item&gt;&lt;Item Status="400" Error="..."/&gt;&lt;/Responses&gt;
+ * </pre>
+ */
+class XACMLPdpBatch {
+    private static final Log logger = LogFactory.getLog(XACMLPdpBatch.class);
+
+    private static final JsonFactory jsonFactory = new JsonFactory()
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final XMLInputFactory xmlInputFactory = newXMLInputFactory();
+    private static final XMLOutputFactory xmlOutputFactory = newXMLOutputFactory();
+    private static final XMLEventFactory xmlEventFactory = XMLEventFactory.newInstance();
+
+    private static final byte[] XML_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Responses>"
+        .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] XML_END = "</Responses>".getBytes(StandardCharsets.UTF_8);
+
+    private XACMLPdpBatch() {
+    }
+
+    private static XMLInputFactory newXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        return factory;
+    }
+
+    private static XMLOutputFactory newXMLOutputFactory() {
+        XMLOutputFactory factory = XMLOutputFactory.newInstance();
+        factory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+        return factory;
+    }
+
+    /**
+     * Splits a JSON array into the bytes of its elements.
+     *
+     * @param batchBytes
+     * @param maxItems
+     * @return
+     * @throws IOException if the batch is not a JSON array or has more than maxItems elements
+     */
+    static List<byte[]> splitJSON(byte[] batchBytes, int maxItems) throws IOException {
+        List<byte[]> items = new ArrayList<byte[]>();
+        try (JsonParser parser = jsonFactory.createParser(batchBytes)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException("Batch must be a JSON array", parser.getCurrentLocation());
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    throw new JsonParseException("Unterminated batch array", parser.getCurrentLocation());
+                }
+                if (items.size() >= maxItems) {
+                    throw new JsonParseException("Batch has more than " + maxItems + " requests",
+                                                 parser.getCurrentLocation());
+                }
+                //
+                // The token location may include the separator in front of the item
+                //
+                int start = (int)parser.getTokenLocation().getByteOffset();
+                while (batchBytes[start] == ',' || Character.isWhitespace(batchBytes[start])) {
+                    start++;
+                }
+                parser.skipChildren();
+                int end = (int)parser.getCurrentLocation().getByteOffset();
+                byte[] item = new byte[end - start];
+                System.arraycopy(batchBytes, start, item, 0, item.length);
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Splits the child elements of the root element of an XML document into standalone documents. The
+     * namespace declarations of the root element are copied onto each child so the children still resolve
+     * prefixes declared there.
+     *
+     * @param batchBytes
+     * @param maxItems
+     * @return
+     * @throws XMLStreamException if the batch is not well-formed or has more than maxItems elements
+     */
+    static List<byte[]> splitXML(byte[] batchBytes, int maxItems) throws XMLStreamException {
+        List<byte[]> items = new ArrayList<byte[]>();
+        XMLEventReader reader = xmlInputFactory.createXMLEventReader(new ByteArrayInputStream(batchBytes));
+        try {
+            Map<String, Namespace> rootNamespaces = null;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (!event.isStartElement()) {
+                    continue;
+                }
+                if (rootNamespaces == null) {
+                    rootNamespaces = new LinkedHashMap<String, Namespace>();
+                    Iterator<?> iterNamespaces = event.asStartElement().getNamespaces();
+                    while (iterNamespaces.hasNext()) {
+                        Namespace namespace = (Namespace)iterNamespaces.next();
+                        rootNamespaces.put(namespace.getPrefix(), namespace);
+                    }
+                    continue;
+                }
+                if (items.size() >= maxItems) {
+                    throw new XMLStreamException("Batch has more than " + maxItems + " requests");
+                }
+                items.add(copyElement(reader, event.asStartElement(), rootNamespaces));
+            }
+        } finally {
+            reader.close();
+        }
+        return items;
+    }
+
+    private static byte[] copyElement(XMLEventReader reader, StartElement startElement,
+                                      Map<String, Namespace> rootNamespaces) throws XMLStreamException {
+        Map<String, Namespace> namespaces = new LinkedHashMap<String, Namespace>(rootNamespaces);
+        Iterator<?> iterNamespaces = startElement.getNamespaces();
+        while (iterNamespaces.hasNext()) {
+            Namespace namespace = (Namespace)iterNamespaces.next();
+            namespaces.put(namespace.getPrefix(), namespace);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        XMLEventWriter writer = xmlOutputFactory.createXMLEventWriter(bos, StandardCharsets.UTF_8.name());
+        writer.add(xmlEventFactory.createStartElement(startElement.getName(), startElement.getAttributes(),
+                                                      namespaces.values().iterator()));
+        int depth = 1;
+        while (depth > 0) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+            writer.add(event);
+        }
+        writer.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Writes whatever comes before the first item of a batch response.
+     */
+    static void writeStart(OutputStream outputStream, boolean isJSON) throws IOException {
+        if (isJSON) {
+            outputStream.write('[');
+        } else {
+            outputStream.write(XML_START);
+        }
+    }
+
+    /**
+     * Writes an item of a batch response.
+     */
+    static void writeItem(OutputStream outputStream, boolean isJSON, int index, byte[] item)
+        throws IOException {
+        if (isJSON && index > 0) {
+            outputStream.write(',');
+        }
+        outputStream.write(item);
+    }
+
+    /**
+     * Writes whatever comes after the last item of a batch response.
+     */
+    static void writeEnd(OutputStream outputStream, boolean isJSON) throws IOException {
+        if (isJSON) {
+            outputStream.write(']');
+        } else {
+            outputStream.write(XML_END);
+        }
+    }
+
+    /**
+     * Decider decides the requests of a batch with the engine in service, the way a single POSTed request is
+     * decided. Both methods are called holding the engine lock.
+     */
+    interface Decider {
+        /**
+         * @return the engine in service, or null if none is loaded
+         */
+        PDPEngine getEngine();
+
+        /**
+         * @param engine the engine returned by {@link #getEngine()}
+         * @param request the parsed request
+         * @param requestBytes the bytes it was parsed from
+         * @return
+         * @throws PDPException
+         */
+        Response decide(PDPEngine engine, Request request, byte[] requestBytes) throws PDPException;
+    }
+
+    /**
+     * Evaluates the items of a batch. The items are parsed on the executor in parallel. Then all of them are
+     * decided in order, taking the engine lock once so the whole batch is decided by the same engine; a
+     * configuration change that arrives during the batch waits for it. Last the responses are serialized
+     * on the executor in parallel.
+     *
+     * @param items the items of the batch
+     * @param decider
+     * @param engineLock the lock held while deciding
+     * @param executor the executor to parse and serialize on, or null to do it on the current thread
+     * @return the items of the batch response, in order
+     * @throws PDPException if no engine is loaded
+     * @throws IOException
+     */
+    static List<byte[]> evaluate(List<Item> items, Decider decider, Object engineLock,
+                                 ExecutorService executor) throws PDPException, IOException {
+        List<Callable<Void>> parses = new ArrayList<Callable<Void>>(items.size());
+        List<Callable<Void>> serializations = new ArrayList<Callable<Void>>(items.size());
+        for (final Item item : items) {
+            parses.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    item.parse();
+                    return null;
+                }
+            });
+            serializations.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    item.serialize();
+                    return null;
+                }
+            });
+        }
+        runAll(parses, executor);
+        synchronized (engineLock) {
+            PDPEngine engine = decider.getEngine();
+            if (engine == null) {
+                throw new PDPException("No engine loaded.");
+            }
+            for (Item item : items) {
+                item.decide(decider, engine);
+            }
+        }
+        runAll(serializations, executor);
+        List<byte[]> results = new ArrayList<byte[]>(items.size());
+        for (Item item : items) {
+            results.add(item.getResult());
+        }
+        return results;
+    }
+
+    private static void runAll(List<Callable<Void>> tasks, ExecutorService executor) throws IOException {
+        if (executor == null || tasks.size() < 2) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            return;
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted evaluating a batch", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Item parses, decides and serializes a single request of a batch, each in its own step, see
+     * {@link XACMLPdpBatch#evaluate}. The result is the complete item of the batch response, including its
+     * status, so it can be written back as it is. An item that fails in one step gets its error result and
+     * skips the steps after it.
+     */
+    static class Item {
+        private final byte[] requestBytes;
+        private final Charset requestCharset;
+        private final boolean isJSON;
+        private final XACMLPdpAuditLog auditLog;
+        private Request request;
+        private Response response;
+        private long timeStart;
+        private long latencyMicros;
+        private byte[] result;
+
+        /**
+         * @param requestBytesIn the request as it was split off the batch
+         * @param requestCharsetIn the character set the request is encoded in, for the audit log
+         * @param isJSONIn
+         * @param auditLogIn the audit log, or null
+         */
+        Item(byte[] requestBytesIn, Charset requestCharsetIn, boolean isJSONIn, XACMLPdpAuditLog auditLogIn) {
+            this.requestBytes = requestBytesIn;
+            this.requestCharset = requestCharsetIn;
+            this.isJSON = isJSONIn;
+            this.auditLog = auditLogIn;
+        }
+
+        /**
+         * @return the item of the batch response, once it has been serialized or has failed
+         */
+        byte[] getResult() {
+            return this.result;
+        }
+
+        void parse() throws IOException {
+            PDPMetrics metrics = PDPMetrics.getInstance();
+            Request requestParsed;
+            try {
+                long startNanos = metrics.start();
+                if (this.isJSON) {
+                    requestParsed = JSONRequest.load(this.requestBytes);
+                } else {
+                    requestParsed = DOMRequest.load(new ByteArrayInputStream(this.requestBytes));
+                }
+                metrics.record(PDPMetrics.Stage.PARSE, startNanos);
+            } catch (Exception e) {
+                logger.error("Could not parse batch request", e);
+                this.result = this.error(400, e.getMessage());
+                return;
+            }
+            if (requestParsed == null || requestParsed.getRequestAttributes() == null
+                || requestParsed.getRequestAttributes().size() <= 0) {
+                this.result = this.error(400, "Zero Attributes found in the request");
+                return;
+            }
+            this.request = requestParsed;
+        }
+
+        void decide(Decider decider, PDPEngine engine) throws IOException {
+            if (this.result != null) {
+                return;
+            }
+            try {
+                this.timeStart = System.currentTimeMillis();
+                long nanosStart = System.nanoTime();
+                this.response = decider.decide(engine, this.request, this.requestBytes);
+                this.latencyMicros = (System.nanoTime() - nanosStart) / 1000;
+                if (this.response == null) {
+                    this.result = this.error(500, "Failed to get response from PDP engine.");
+                }
+            } catch (Exception e) {
+                logger.error("Exception executing batch request: " + e, e);
+                this.result = this.error(500, "Exception executing request: " + e);
+            }
+        }
+
+        void serialize() throws IOException {
+            if (this.result != null) {
+                return;
+            }
+            PDPMetrics metrics = PDPMetrics.getInstance();
+            try {
+                long startNanos = metrics.start();
+                byte[] item = this.response(this.auditLog == null ? this.response : XACMLPdpAuditLog
+                    .asRequested(this.request, this.response));
+                metrics.record(PDPMetrics.Stage.SERIALIZATION, startNanos);
+                if (this.auditLog != null) {
+                    boolean keepPayload = this.auditLog.keepPayload(200, this.response);
+                    this.auditLog.record(this.timeStart, this.latencyMicros, 200, this.requestBytes,
+                                         this.requestCharset, this.response, null, keepPayload,
+                                         keepPayload ? item : null);
+                }
+                this.result = item;
+            } catch (Exception e) {
+                logger.error("Exception serializing batch response: " + e, e);
+                this.result = this.error(500, "Exception executing request: " + e);
+            }
+        }
+
+        private byte[] response(Response response) throws Exception {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            if (this.isJSON) {
+                bos.write("{\"Status\":200,\"Response\":".getBytes(StandardCharsets.UTF_8));
+                JSONResponse.convert(response, bos);
+                bos.write('}');
+                return bos.toByteArray();
+            }
+            //
+            // Drop the XML declaration, the Response goes inside the batch document
+            //
+            ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+            DOMResponse.convert(response, responseBytes);
+            byte[] xmlBytes = responseBytes.toByteArray();
+            int start = 0;
+            if (new String(xmlBytes, 0, Math.min(5, xmlBytes.length), StandardCharsets.UTF_8).equals("<?xml")) {
+                while (start < xmlBytes.length - 1 && !(xmlBytes[start] == '?' && xmlBytes[start + 1] == '>')) {
+                    start++;
+                }
+                start += 2;
+            }
+            bos.write("<Item Status=\"200\">".getBytes(StandardCharsets.UTF_8));
+            bos.write(xmlBytes, start, xmlBytes.length - start);
+            bos.write("</Item>".getBytes(StandardCharsets.UTF_8));
+            return bos.toByteArray();
+        }
+
+        private byte[] error(int status, String message) throws IOException {
+            if (this.auditLog != null) {
+                this.auditLog.record(System.currentTimeMillis(), 0, status, this.requestBytes,
+                                     this.requestCharset, null, message, true, null);
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            String errorMessage = message == null ? "" : message;
+            if (this.isJSON) {
+                try (JsonGenerator generator = jsonFactory.createGenerator(bos, JsonEncoding.UTF8)) {
+                    generator.writeStartObject();
+                    generator.writeNumberField("Status", status);
+                    generator.writeStringField("Error", errorMessage);
+                    generator.writeEndObject();
+                }
+            } else {
+                try {
+                    XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(bos, StandardCharsets.UTF_8
+                        .name());
+                    writer.writeEmptyElement("Item");
+                    writer.writeAttribute("Status", Integer.toString(status));
+                    writer.writeAttribute("Error", errorMessage);
+                    writer.writeEndDocument();
+                    writer.close();
+                } catch (XMLStreamException e) {
+                    throw new IOException(e);
+                }
+            }
+            return bos.toByteArray();
+        }
+    }
+}
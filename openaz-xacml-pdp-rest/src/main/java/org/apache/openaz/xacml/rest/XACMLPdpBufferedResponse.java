@@ -0,0 +1,200 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * XACMLPdpBufferedResponse collects everything a request handler sends - status, error, headers and body -
+ * in memory, and only passes it on to the wrapped <code>HttpServletResponse</code> when {@link #commit()} is
+ * called. The asynchronous PDP request handling uses it so that a request that has already been answered
+ * with a timeout is not written to a second time.
+ */
+class XACMLPdpBufferedResponse extends HttpServletResponseWrapper {
+    private int status = HttpServletResponse.SC_OK;
+    private boolean isError = false;
+    private String errorMessage = null;
+    private String contentType = null;
+    private String characterEncoding = null;
+    private final List<String[]> headers = new ArrayList<String[]>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private ServletOutputStream outputStream = null;
+    private PrintWriter writer = null;
+
+    XACMLPdpBufferedResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * Sends the buffered status, headers and body to the wrapped <code>HttpServletResponse</code>.
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        HttpServletResponse response = (HttpServletResponse)this.getResponse();
+        for (String[] header : this.headers) {
+            response.addHeader(header[0], header[1]);
+        }
+        if (this.isError) {
+            if (this.errorMessage == null) {
+                response.sendError(this.status);
+            } else {
+                response.sendError(this.status, this.errorMessage);
+            }
+            return;
+        }
+        response.setStatus(this.status);
+        if (this.contentType != null) {
+            response.setContentType(this.contentType);
+        }
+        if (this.characterEncoding != null) {
+            response.setCharacterEncoding(this.characterEncoding);
+        }
+        this.flushBuffer();
+        response.setContentLength(this.body.size());
+        this.body.writeTo(response.getOutputStream());
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        this.isError = true;
+        this.status = sc;
+        this.errorMessage = msg;
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        this.sendError(sc, null);
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    public int getStatus() {
+        return this.status;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        for (int i = this.headers.size() - 1; i >= 0; i--) {
+            if (this.headers.get(i)[0].equalsIgnoreCase(name)) {
+                this.headers.remove(i);
+            }
+        }
+        this.addHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        this.headers.add(new String[] {
+            name, value
+        });
+    }
+
+    @Override
+    public void setContentType(String type) {
+        this.contentType = type;
+    }
+
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        this.characterEncoding = charset;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return this.characterEncoding == null ? StandardCharsets.ISO_8859_1.name() : this.characterEncoding;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (this.outputStream == null) {
+            this.outputStream = new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    XACMLPdpBufferedResponse.this.body.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    XACMLPdpBufferedResponse.this.body.write(b, off, len);
+                }
+            };
+        }
+        return this.outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        if (this.writer == null) {
+            this.writer = new PrintWriter(new OutputStreamWriter(this.getOutputStream(), Charset
+                .forName(this.getCharacterEncoding())));
+        }
+        return this.writer;
+    }
+
+    @Override
+    public void flushBuffer() {
+        if (this.writer != null) {
+            this.writer.flush();
+        }
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        this.resetBuffer();
+        this.status = HttpServletResponse.SC_OK;
+        this.isError = false;
+        this.errorMessage = null;
+        this.headers.clear();
+    }
+
+    @Override
+    public void resetBuffer() {
+        this.flushBuffer();
+        this.body.reset();
+    }
+}
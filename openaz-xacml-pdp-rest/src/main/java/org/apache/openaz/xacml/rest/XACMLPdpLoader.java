@@ -20,17 +20,23 @@
 
 package org.apache.openaz.xacml.rest;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
@@ -38,6 +44,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.openaz.xacml.api.pap.PAPException;
+import org.apache.openaz.xacml.api.pap.PDPPolicy;
 import org.apache.openaz.xacml.api.pap.PDPStatus;
 import org.apache.openaz.xacml.api.pap.PDPStatus.Status;
 import org.apache.openaz.xacml.api.pdp.PDPEngine;
@@ -47,16 +54,16 @@ import org.apache.openaz.xacml.api.pip.PIPException;
 import org.apache.openaz.xacml.api.pip.PIPFinder;
 import org.apache.openaz.xacml.api.pip.PIPFinderFactory;
 import org.apache.openaz.xacml.pdp.policy.PolicyDef;
-import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
+import org.apache.openaz.xacml.pdp.policy.snapshot.SnapshotPolicyDef;
+import org.apache.openaz.xacml.pdp.std.ParallelPolicyLoader;
 import org.apache.openaz.xacml.pdp.std.StdPolicyFinderFactory;
+import org.apache.openaz.xacml.rest.impl.XACMLPdpPolicyDefCache;
 import org.apache.openaz.xacml.std.pap.StdPDPPIPConfig;
 import org.apache.openaz.xacml.std.pap.StdPDPPolicy;
 import org.apache.openaz.xacml.std.pap.StdPDPStatus;
 import org.apache.openaz.xacml.util.FactoryException;
 import org.apache.openaz.xacml.util.XACMLProperties;
 
-import com.google.common.base.Splitter;
-
 /**
  * Does the work for loading policy and PIP configurations sent from the PAP servlet.
  */
@@ -160,9 +167,12 @@ public class XACMLPdpLoader {
         PDPEngineFactory factory = null;
         PDPEngine engine = null;
         try {
+            long start = System.currentTimeMillis();
             factory = PDPEngineFactory.newInstance();
             engine = factory.newEngine();
-            logger.info("Loaded new PDP engine.");
+            status.addLoadTime("engine", System.currentTimeMillis() - start);
+            logger.info("Loaded new PDP engine in " + (System.currentTimeMillis() - start) + " ms, policies: "
+                        + XACMLPdpPolicyDefCache.getStatistics());
             status.setStatus(Status.UP_TO_DATE);
         } catch (FactoryException e) {
             String error = "Failed to create new PDP Engine";
@@ -176,28 +186,91 @@ public class XACMLPdpLoader {
         throws PAPException {
         Set<String> rootPolicies = XACMLProperties.getRootPolicyIDs(properties);
         Set<String> refPolicies = XACMLProperties.getReferencedPolicyIDs(properties);
+        //
+        // Parse the policies concurrently, each into its own status so the
+        // workers never share one, then merge the results in policy order.
+        //
+        ParallelPolicyLoader loader = ParallelPolicyLoader.newInstance(properties);
+        List<String> failed = new ArrayList<String>();
 
-        for (String id : rootPolicies) {
-            loadPolicy(properties, status, id, true);
-        }
+        failed.addAll(validatePolicies(loader, properties, status, rootPolicies, true));
         // remember which policies were root policies
         status.addAllLoadedRootPolicies(status.getLoadedPolicies());
 
-        for (String id : refPolicies) {
-            loadPolicy(properties, status, id, false);
-        }
+        failed.addAll(validatePolicies(loader, properties, status, refPolicies, false));
 
         logger.info("Loaded " + status.getLoadedPolicies().size() + " policies, failed to load "
                     + status.getFailedPolicies().size() + " policies, "
                     + status.getLoadedRootPolicies().size() + " root policies");
+        //
+        // Forget the parsed policies that are no longer configured
+        //
+        Set<String> policyIds = new HashSet<String>(rootPolicies);
+        policyIds.addAll(refPolicies);
+        XACMLPdpPolicyDefCache.retainAll(policyIds);
+        if (!failed.isEmpty()) {
+            throw new PAPException("Failed to load " + failed.size() + " policies: " + failed);
+        }
         if (status.getLoadedRootPolicies().size() == 0) {
             logger.warn("NO ROOT POLICIES LOADED!!!  Cannot serve PEP Requests.");
             status.addLoadWarning("NO ROOT POLICIES LOADED!!!  Cannot serve PEP Requests.");
         }
     }
 
+    private static List<String> validatePolicies(ParallelPolicyLoader loader, final Properties properties,
+                                                 StdPDPStatus status, Set<String> ids, final boolean isRoot) {
+        ParallelPolicyLoader.Results<StdPDPStatus> results = loader
+            .load(ids, new ParallelPolicyLoader.Loader<StdPDPStatus>() {
+                @Override
+                public StdPDPStatus load(String id) {
+                    StdPDPStatus policyStatus = new StdPDPStatus();
+                    try {
+                        readPolicy(properties, policyStatus, id, isRoot);
+                    } catch (PAPException e) { // NOPMD
+                        // already logged and recorded in policyStatus
+                    }
+                    return policyStatus;
+                }
+            });
+        List<String> failed = new ArrayList<String>();
+        for (ParallelPolicyLoader.Result<StdPDPStatus> result : results.getResults()) {
+            StdPDPStatus policyStatus = result.getValue();
+            if (policyStatus == null) {
+                logger.error("Failed to load policy '" + result.getPolicyId() + "'", result.getException());
+                status.setStatus(PDPStatus.Status.LOAD_ERRORS);
+                status.addFailedPolicy(new StdPDPPolicy(result.getPolicyId(), isRoot));
+                failed.add(result.getPolicyId());
+                continue;
+            }
+            for (PDPPolicy policy : policyStatus.getLoadedPolicies()) {
+                status.addLoadedPolicy(policy);
+            }
+            for (PDPPolicy policy : policyStatus.getFailedPolicies()) {
+                status.addFailedPolicy(policy);
+            }
+            for (String error : policyStatus.getLoadErrors()) {
+                status.addLoadError(error);
+            }
+            if (policyStatus.getStatus() == PDPStatus.Status.LOAD_ERRORS) {
+                status.setStatus(PDPStatus.Status.LOAD_ERRORS);
+                failed.add(result.getPolicyId());
+            }
+        }
+        String phase = (isRoot ? XACMLProperties.PROP_ROOTPOLICIES : XACMLProperties.PROP_REFERENCEDPOLICIES);
+        status.addLoadTime(phase, results.getElapsedMillis());
+        logger.info("Validated " + (ids.size() - failed.size()) + " of " + ids.size() + " policies from "
+                    + phase + " in " + results.getElapsedMillis() + " ms"
+                    + (failed.isEmpty() ? "" : ", failed: " + failed));
+        return failed;
+    }
+
     public static synchronized void loadPolicy(Properties properties, StdPDPStatus status, String id,
                                                boolean isRoot) throws PAPException {
+        readPolicy(properties, status, id, isRoot);
+    }
+
+    private static void readPolicy(Properties properties, StdPDPStatus status, String id, boolean isRoot)
+        throws PAPException {
         PolicyDef policy = null;
         String location = null;
         URI locationURI = null;
@@ -208,42 +281,27 @@ public class XACMLPdpLoader {
                 location = properties.getProperty(id + ".url");
                 if (location != null) {
                     //
-                    // Construct the URL
+                    // Pull it into the local policy cache
                     //
                     locationURI = URI.create(location);
-                    URL url = locationURI.toURL();
-                    URLConnection urlConnection = url.openConnection();
-                    urlConnection.setRequestProperty(XACMLRestProperties.PROP_PDP_HTTP_HEADER_ID,
-                                                     XACMLProperties
-                                                         .getProperty(XACMLRestProperties.PROP_PDP_ID));
-                    //
-                    // Now construct the output file name
-                    //
-                    Path outFile = Paths.get(getPDPConfig().toAbsolutePath().toString(), id);
-                    //
-                    // Copy it to disk
-                    //
-                    try (FileOutputStream fos = new FileOutputStream(outFile.toFile())) {
-                        IOUtils.copy(urlConnection.getInputStream(), fos);
-                    }
+                    Path outFile = fetchPolicy(id, location,
+                                               properties.getProperty(id + XACMLRestPolicyHash.PROP_SHA256),
+                                               null, getPDPPolicyContentCache());
                     //
                     // Now try to load
                     //
                     isFile = true;
-                    try (InputStream fis = Files.newInputStream(outFile)) {
-                        policy = DOMPolicyDef.load(fis);
-                    }
+                    location = outFile.toAbsolutePath().toString();
+                    policy = XACMLPdpPolicyDefCache.load(id, outFile.toFile(), properties);
                     //
                     // Save it
                     //
-                    properties.setProperty(id + ".file", outFile.toAbsolutePath().toString());
+                    properties.setProperty(id + ".file", location);
                 }
             } else {
                 isFile = true;
                 locationURI = Paths.get(location).toUri();
-                try (InputStream is = Files.newInputStream(Paths.get(location))) {
-                    policy = DOMPolicyDef.load(is);
-                }
+                policy = XACMLPdpPolicyDefCache.load(id, Paths.get(location).toFile(), properties);
             }
             if (policy != null) {
                 status.addLoadedPolicy(new StdPDPPolicy(id, isRoot, locationURI, properties));
@@ -311,132 +369,212 @@ public class XACMLPdpLoader {
     }
 
     /**
-     * Iterates the policies defined in the props object to ensure they are loaded locally. Policies are
-     * searched for in the following order: - see if the current properties has a "&lt;PolicyID&gt;.file"
-     * entry and that file exists in the local directory - if not, see if the file exists in the local
-     * directory; if so create a ".file" property for it. - if not, get the "&lt;PolicyID&gt;.url" property
-     * and try to GET the policy from that location (and set the ".file" property) If the ".file" property is
-     * created, then true is returned to tell the caller that the props object changed.
+     * Iterates the policies defined in the props object to ensure they are loaded locally, setting the
+     * "&lt;PolicyID&gt;.file" property of each to its local file. Policies are searched for in the following
+     * order: - the "&lt;PolicyID&gt;.file" if that file exists and, when the PAP sent a
+     * "&lt;PolicyID&gt;.sha256" hash, has those contents - the file in the local policy cache named by the
+     * "&lt;PolicyID&gt;.sha256" hash - a conditional GET of the "&lt;PolicyID&gt;.url", which the PAP
+     * answers with "304 Not Modified" if the local copy is current, otherwise storing the downloaded policy
+     * in the cache under the hash of its contents. Policies are fetched concurrently. If a ".file" property
+     * is created or changed, then true is returned to tell the caller that the props object changed.
      *
      * @param props
      * @return true/false if anything was changed in the props object
      * @throws PAPException
      */
-    public static synchronized boolean cachePolicies(Properties props) throws PAPException {
+    public static synchronized boolean cachePolicies(final Properties props) throws PAPException {
+        Set<String> policyIds = new LinkedHashSet<String>(XACMLProperties.getRootPolicyIDs(props));
+        policyIds.addAll(XACMLProperties.getReferencedPolicyIDs(props));
+        final Path config = getPDPConfig();
+        final Path cache = getPDPPolicyContentCache();
+
+        ParallelPolicyLoader.Results<Path> results = ParallelPolicyLoader.newInstance(props)
+            .load(policyIds, new ParallelPolicyLoader.Loader<Path>() {
+                @Override
+                public Path load(String policy) throws IOException {
+                    return cachePolicy(policy, props, config, cache);
+                }
+            });
+
         boolean changed = false;
-        String[] lists = new String[2];
-        lists[0] = props.getProperty(XACMLProperties.PROP_ROOTPOLICIES);
-        lists[1] = props.getProperty(XACMLProperties.PROP_REFERENCEDPOLICIES);
-        for (String list : lists) {
-            //
-            // Check for a null or empty parameter
-            //
-            if (list == null || list.length() == 0) {
+        Set<String> cached = new HashSet<String>();
+        for (ParallelPolicyLoader.Result<Path> result : results.getResults()) {
+            String policy = result.getPolicyId();
+            Path file = result.getValue();
+            if (file == null) {
+                if (result.getException() != null) {
+                    logger.error("Error while caching policy " + policy, result.getException());
+                }
                 continue;
             }
-            Iterable<String> policies = Splitter.on(',').trimResults().omitEmptyStrings().split(list);
-            for (String policy : policies) {
-                boolean policyExists = false;
+            String location = file.toAbsolutePath().toString();
+            if (!location.equals(props.getProperty(policy + StdPolicyFinderFactory.PROP_FILE))) {
+                props.setProperty(policy + StdPolicyFinderFactory.PROP_FILE, location);
+                //
+                // Indicate that there were changes made to the properties
+                //
+                changed = true;
+            }
+            if (file.startsWith(cache)) {
+                cached.add(file.getFileName().toString());
+            }
+        }
+        logger.info("Cached " + policyIds.size() + " policies in " + results.getElapsedMillis() + " ms");
+        if (results.getFailedPolicyIds().isEmpty()) {
+            prunePolicyContentCache(cache, cached);
+        }
+        return changed;
+    }
 
-                // First look for ".file" property and verify the file exists
-                String propLocation = props.getProperty(policy + StdPolicyFinderFactory.PROP_FILE);
-                if (propLocation != null) {
-                    //
-                    // Does it exist?
-                    //
-                    policyExists = Files.exists(Paths.get(propLocation));
-                    if (!policyExists) {
-                        logger.warn("Policy file " + policy + " expected at " + propLocation
-                                    + " does NOT exist.");
-                    }
-                }
+    /**
+     * Finds or downloads the local file for one policy, as described in {@link #cachePolicies(Properties)}.
+     *
+     * @return the <code>Path</code> of the local file, or null if there is none
+     */
+    private static Path cachePolicy(String policy, Properties props, Path config, Path cache)
+        throws IOException {
+        String hash = props.getProperty(policy + XACMLRestPolicyHash.PROP_SHA256);
+        Path current = null;
 
-                // If ".file" property does not exist, try looking for the local file anyway
-                // (it might exist without having a ".file" property set for it)
-                if (!policyExists) {
-                    //
-                    // Now construct the output file name
-                    //
-                    Path outFile = Paths.get(getPDPConfig().toAbsolutePath().toString(), policy);
-                    //
-                    // Double check to see if we pulled it at some point
-                    //
-                    policyExists = Files.exists(outFile);
-                    if (policyExists) {
-                        //
-                        // Set the property so the PDP engine doesn't have
-                        // to pull it from the URL but rather the FILE.
-                        //
-                        logger.info("Policy does exist: " + outFile.toAbsolutePath().toString());
-                        props.setProperty(policy + StdPolicyFinderFactory.PROP_FILE, outFile.toAbsolutePath()
-                            .toString());
-                        //
-                        // Indicate that there were changes made to the properties
-                        //
-                        changed = true;
-                    } else {
+        // First look for ".file" property and verify the file exists with the right contents
+        String propLocation = props.getProperty(policy + StdPolicyFinderFactory.PROP_FILE);
+        if (propLocation != null) {
+            current = Paths.get(propLocation);
+            if (Files.notExists(current)) {
+                logger.warn("Policy file " + policy + " expected at " + propLocation + " does NOT exist.");
+                current = null;
+            } else if (hash == null || hash.equals(XACMLRestPolicyHash.hash(current))) {
+                return current;
+            }
+        }
+
+        // Then look for the contents in the local policy cache
+        if (hash != null) {
+            Path cachedFile = cache.resolve(hash);
+            if (Files.exists(cachedFile)) {
+                logger.info("Policy " + policy + " is cached: " + cachedFile);
+                return cachedFile;
+            }
+        }
 
-                        // File does not exist locally, so we need to get it from the location given in the
-                        // ".url" property (which MUST exist)
+        // Fall back on a file named by the policy id, as pulled by earlier versions
+        if (current == null) {
+            Path outFile = config.resolve(policy);
+            if (Files.exists(outFile)) {
+                current = outFile;
+            }
+        }
 
-                        //
-                        // There better be a URL to retrieve it
-                        //
-                        propLocation = props.getProperty(policy + StdPolicyFinderFactory.PROP_URL);
-                        if (propLocation != null) {
-                            //
-                            // Get it
-                            //
-                            URL url = null;
-                            try {
-                                //
-                                // Create the URL
-                                //
-                                url = new URL(propLocation);
-                                logger.info("Pulling " + url.toString());
-                                //
-                                // Open the connection
-                                //
-                                URLConnection urlConnection = url.openConnection();
-                                urlConnection
-                                    .setRequestProperty(XACMLRestProperties.PROP_PDP_HTTP_HEADER_ID,
-                                                        XACMLProperties
-                                                            .getProperty(XACMLRestProperties.PROP_PDP_ID));
-                                //
-                                // Copy it to disk
-                                //
-                                try (InputStream is = urlConnection.getInputStream();
-                                    OutputStream os = new FileOutputStream(outFile.toFile())) {
-                                    IOUtils.copy(is, os);
-                                }
-                                //
-                                // Now save it in the properties as a .file
-                                //
-                                logger.info("Pulled policy: " + outFile.toAbsolutePath().toString());
-                                props.setProperty(policy + StdPolicyFinderFactory.PROP_FILE, outFile
-                                    .toAbsolutePath().toString());
-                                //
-                                // Indicate that there were changes made to the properties
-                                //
-                                changed = true;
-                            } catch (Exception e) {
-                                if (e instanceof MalformedURLException) {
-                                    logger.error("Policy '" + policy
-                                                 + "' had bad URL in new configuration, URL='" + propLocation
-                                                 + "'");
-                                } else {
-                                    logger.error("Error while retrieving policy " + policy + " from URL "
-                                                 + url.toString() + ", e=" + e);
-                                }
-                            }
-                        } else {
-                            logger.error("Policy " + policy + " does NOT exist and does NOT have a URL");
-                        }
-                    }
+        // Get it from the location given in the ".url" property, unless the current file is up-to-date
+        propLocation = props.getProperty(policy + StdPolicyFinderFactory.PROP_URL);
+        if (propLocation == null) {
+            if (current != null) {
+                logger.info("Policy does exist: " + current.toAbsolutePath().toString());
+                return current;
+            }
+            logger.error("Policy " + policy + " does NOT exist and does NOT have a URL");
+            return null;
+        }
+        try {
+            return fetchPolicy(policy, propLocation, hash, current, cache);
+        } catch (IOException e) {
+            if (e instanceof MalformedURLException) {
+                logger.error("Policy '" + policy + "' had bad URL in new configuration, URL='"
+                             + propLocation + "'");
+            } else {
+                logger.error("Error while retrieving policy " + policy + " from URL " + propLocation
+                             + ", e=" + e);
+            }
+            if (current != null) {
+                logger.warn("Using the existing copy of policy " + policy + ": " + current);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Downloads a policy into the local policy cache, unless the PAP answers that the given current file is
+     * up-to-date.
+     *
+     * @param policy the policy id
+     * @param location the URL of the policy
+     * @param hash the hash the PAP sent for the policy, or null
+     * @param current the <code>Path</code> of the current local copy of the policy, or null
+     * @param cache the <code>Path</code> of the local policy cache
+     * @return the <code>Path</code> of the up-to-date local copy of the policy
+     * @throws IOException if the policy cannot be downloaded or stored
+     */
+    private static Path fetchPolicy(String policy, String location, String hash, Path current, Path cache)
+        throws IOException {
+        URL url = new URL(location);
+        logger.info("Pulling " + url.toString());
+        //
+        // Open the connection
+        //
+        URLConnection urlConnection = url.openConnection();
+        urlConnection.setRequestProperty(XACMLRestProperties.PROP_PDP_HTTP_HEADER_ID,
+                                         XACMLProperties.getProperty(XACMLRestProperties.PROP_PDP_ID));
+        if (current != null) {
+            urlConnection.setRequestProperty("If-None-Match",
+                                             XACMLRestPolicyHash.toETag(XACMLRestPolicyHash.hash(current)));
+        }
+        if (urlConnection instanceof HttpURLConnection
+            && ((HttpURLConnection)urlConnection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            logger.info("Policy " + policy + " not modified: " + current);
+            return current;
+        }
+        byte[] contents;
+        try (InputStream is = urlConnection.getInputStream()) {
+            contents = IOUtils.toByteArray(is);
+        }
+        String contentHash = XACMLRestPolicyHash.hash(contents);
+        if (hash != null && !hash.equals(contentHash)) {
+            logger.warn("Policy " + policy + " changed on the PAP while pulling it, expected " + hash
+                        + " got " + contentHash);
+        }
+        //
+        // Store it in the cache under its hash
+        //
+        Path outFile = cache.resolve(contentHash);
+        if (Files.notExists(outFile)) {
+            Path temp = Files.createTempFile(cache, contentHash, ".tmp");
+            try {
+                Files.write(temp, contents);
+                try {
+                    Files.move(temp, outFile, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, outFile, StandardCopyOption.REPLACE_EXISTING);
                 }
+            } finally {
+                Files.deleteIfExists(temp);
             }
         }
-        return changed;
+        logger.info("Pulled policy: " + outFile.toAbsolutePath().toString());
+        return outFile;
+    }
+
+    /**
+     * Deletes the files in the local policy cache that are no longer used by any policy, along with their
+     * snapshots.
+     *
+     * @param cache the <code>Path</code> of the local policy cache
+     * @param keep the names of the files still in use
+     */
+    private static void prunePolicyContentCache(Path cache, Set<String> keep) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cache)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SnapshotPolicyDef.SNAPSHOT_SUFFIX)) {
+                    name = name.substring(0, name.length() - SnapshotPolicyDef.SNAPSHOT_SUFFIX.length());
+                }
+                if (!keep.contains(name) && !name.endsWith(".tmp")) {
+                    logger.info("Removing unused policy " + file);
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to prune policy cache " + cache + ": " + e.getMessage());
+        }
     }
 
     public static synchronized Path getPDPPolicyCache() throws PAPException {
@@ -459,6 +597,21 @@ public class XACMLPdpLoader {
         return policyProperties;
     }
 
+    public static synchronized Path getPDPPolicyContentCache() throws PAPException {
+        Path cache = Paths.get(getPDPConfig().toAbsolutePath().toString(), "policies");
+        if (Files.notExists(cache)) {
+            try {
+                Files.createDirectories(cache);
+            } catch (IOException e) {
+                logger.error("Failed to create policy cache directory: " + cache.toAbsolutePath().toString(),
+                             e);
+                throw new PAPException("Failed to create policy cache directory: "
+                                       + cache.toAbsolutePath().toString());
+            }
+        }
+        return cache;
+    }
+
     public static synchronized Path getPIPConfig() throws PAPException {
         Path config = getPDPConfig();
         Path pipConfigProperties = Paths.get(config.toAbsolutePath().toString(), "xacml.pip.properties");
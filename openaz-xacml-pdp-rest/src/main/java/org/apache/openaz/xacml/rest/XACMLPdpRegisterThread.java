@@ -152,7 +152,7 @@ public class XACMLPdpRegisterThread implements Runnable {
                         PutRequest req = new PutRequest(
                                                         XACMLProperties
                                                             .getPolicyProperties(properties, false),
-                                                        XACMLProperties.getPipProperties(properties));
+                                                        XACMLProperties.getPipProperties(properties), -1);
                         XACMLPdpServlet.queue.offer(req);
                         //
                         // We are now registered
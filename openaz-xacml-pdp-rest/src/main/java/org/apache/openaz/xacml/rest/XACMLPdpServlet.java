@@ -20,16 +20,29 @@
 
 package org.apache.openaz.xacml.rest;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -41,6 +54,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.entity.ContentType;
@@ -49,11 +63,23 @@ import org.apache.openaz.xacml.api.Response;
 import org.apache.openaz.xacml.api.pap.PDPStatus.Status;
 import org.apache.openaz.xacml.api.pdp.PDPEngine;
 import org.apache.openaz.xacml.api.pdp.PDPException;
+import org.apache.openaz.xacml.api.trace.TraceEngineFactory;
+import org.apache.openaz.xacml.pdp.eval.PolicyIdentifierCollector;
+import org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics;
+import org.apache.openaz.xacml.pdp.std.JDBCPolicyFinderFactory;
+import org.apache.openaz.xacml.rest.impl.XACMLPdpPIPEngineFinder;
+import org.apache.openaz.xacml.std.capture.CaptureFileWriter;
+import org.apache.openaz.xacml.std.capture.CaptureRecord;
+import org.apache.openaz.xacml.std.capture.CapturingFinder;
 import org.apache.openaz.xacml.std.dom.DOMRequest;
 import org.apache.openaz.xacml.std.dom.DOMResponse;
 import org.apache.openaz.xacml.std.json.JSONRequest;
 import org.apache.openaz.xacml.std.json.JSONResponse;
+import org.apache.openaz.xacml.std.metrics.PDPMetrics;
+import org.apache.openaz.xacml.std.pap.StdPAPChangeTracker;
 import org.apache.openaz.xacml.std.pap.StdPDPStatus;
+import org.apache.openaz.xacml.std.trace.SampledTraceEngine;
+import org.apache.openaz.xacml.util.FactoryException;
 import org.apache.openaz.xacml.util.XACMLProperties;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -73,7 +99,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 @WebServlet(description = "Implements the XACML PDP RESTful API and client PAP API.", urlPatterns = {
     "/"
-}, loadOnStartup = 1, initParams = {
+}, loadOnStartup = 1, asyncSupported = true, initParams = {
                           @WebInitParam(name = "XACML_PROPERTIES_NAME", value = "xacml.pdp.properties", description = "The location of the PDP xacml.pdp.properties file holding configuration information.")
             })
 public class XACMLPdpServlet extends HttpServlet implements Runnable {
@@ -114,20 +140,91 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
     public static class PutRequest {
         public Properties policyProperties = null;
         public Properties pipConfigProperties = null;
+        public long version = -1;
 
-        PutRequest(Properties policies, Properties pips) {
+        PutRequest(Properties policies, Properties pips, long versionIn) {
             this.policyProperties = policies;
             this.pipConfigProperties = pips;
+            this.version = versionIn;
         }
     }
 
     public static volatile BlockingQueue<PutRequest> queue = new LinkedBlockingQueue<PutRequest>(2);
+    //
+    // The version of the PAP configuration the engine in service was loaded
+    // from, -1 if it was not sent one. The heartbeat reports it so the PAP
+    // knows what the PDP actually loaded, not just what it queued.
+    //
+    private static volatile long loadedVersion = -1;
+    //
+    // A POSTed request, copied off the container's request so that it can be
+    // evaluated on another thread.
+    //
+    private static class PostRequest {
+        final ContentType contentType;
+        final Charset charset;
+        final boolean isJSON;
+        final boolean isBatch;
+        final boolean trace;
+        final byte[] bytes;
+
+        PostRequest(ContentType contentTypeIn, boolean isJSONIn, boolean isBatchIn, boolean traceIn,
+                    byte[] bytesIn) {
+            this.contentType = contentTypeIn;
+            this.charset = contentTypeIn.getCharset() == null ? StandardCharsets.UTF_8 : contentTypeIn
+                .getCharset();
+            this.isJSON = isJSONIn;
+            this.isBatch = isBatchIn;
+            this.trace = traceIn;
+            this.bytes = bytesIn;
+        }
+    }
+
     //
     // This is our configuration thread that attempts to load
     // a new configuration request.
     //
     private Thread configThread = null;
     private volatile boolean configThreadTerminate = false;
+    //
+    // When asynchronous request handling is configured, POSTed requests are
+    // evaluated by these threads instead of the container's thread, once the
+    // container's thread has read their body. The decisions are still made
+    // one at a time under the engine lock. The queue in front of them is
+    // bounded so an overloaded PDP answers 503 right away rather than letting
+    // requests pile up.
+    //
+    private ExecutorService asyncExecutor = null;
+    private long asyncTimeout = 5000;
+    private int asyncRetryAfter = 1;
+    //
+    // Limits on batch requests.
+    //
+    private int batchMaxItems = 1000;
+    private int batchMaxContentLength = 1048576;
+    //
+    // The threads the requests of a batch are parsed and serialized on, null
+    // to do it on the request's own thread.
+    //
+    private ExecutorService batchExecutor = null;
+    //
+    // The decision audit log, if one is configured it replaces the requestLogger
+    //
+    private XACMLPdpAuditLog auditLog = null;
+    //
+    // Replays requests against a newly loaded engine before it is put in
+    // service, if configured.
+    //
+    private XACMLPdpWarmup warmup = null;
+    //
+    // Captures the decided requests for offline replay, if configured.
+    //
+    private CaptureFileWriter captureWriter = null;
+    //
+    // Whether the engines trace with the SampledTraceEngine, which lets a
+    // client ask for its request to be traced.
+    //
+    private boolean sampledTracing = false;
 
     /**
      * Default constructor.
@@ -144,12 +241,25 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
         // Initialize
         //
         XACMLRest.xacmlInit(config);
+        this.warmup = XACMLPdpWarmup.newInstance();
+        try {
+            this.sampledTracing = TraceEngineFactory.newInstance()
+                .getTraceEngine() instanceof SampledTraceEngine;
+        } catch (FactoryException e) {
+            logger.warn("Unable to create the TraceEngine: " + e);
+        }
         //
         // Load our engine - this will use the latest configuration
         // that was saved to disk and set our initial status object.
+        // Every decision is made holding pdpEngineLock, which lets
+        // the PIP engines be carried over from one engine to the next.
         //
+        XACMLPdpPIPEngineFinder.setEngineLock(pdpEngineLock);
         PDPEngine engine = XACMLPdpLoader.loadEngine(XACMLPdpServlet.status, null, null);
         if (engine != null) {
+            if (this.warmup != null) {
+                this.warmup.warmUp(engine, pdpEngineLock);
+            }
             synchronized (pdpEngineLock) {
                 pdpEngine = engine;
             }
@@ -168,6 +278,75 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
         //
         this.configThread = new Thread(this);
         this.configThread.start();
+        //
+        // Start the threads for asynchronous request handling, if configured.
+        //
+        int asyncThreads = getIntProperty(XACMLRestProperties.PROP_PDP_ASYNC_THREADS, 0);
+        if (asyncThreads > 0) {
+            int asyncQueue = getIntProperty(XACMLRestProperties.PROP_PDP_ASYNC_QUEUE, 100);
+            this.asyncTimeout = getIntProperty(XACMLRestProperties.PROP_PDP_ASYNC_TIMEOUT, 5000);
+            this.asyncRetryAfter = getIntProperty(XACMLRestProperties.PROP_PDP_ASYNC_RETRYAFTER, 1);
+            this.asyncExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 0L, TimeUnit.MILLISECONDS,
+                                                        new ArrayBlockingQueue<Runnable>(Math.max(1, asyncQueue)),
+                                                        newThreadFactory("XACMLPdpServlet-decide-"));
+            logger.info("Asynchronous request handling with " + asyncThreads + " threads, queue " + asyncQueue
+                        + ", timeout " + this.asyncTimeout + "ms");
+        }
+        //
+        // Start the decision audit log, if configured.
+        //
+        this.auditLog = XACMLPdpAuditLog.newInstance();
+        //
+        // Start capturing requests, if configured.
+        //
+        String captureFile = XACMLProperties.getProperty(XACMLRestProperties.PROP_PDP_CAPTURE_FILE);
+        if (captureFile != null && !captureFile.isEmpty()) {
+            try {
+                this.captureWriter = new CaptureFileWriter(Paths.get(captureFile),
+                                                           getIntProperty(XACMLRestProperties.PROP_PDP_CAPTURE_BUFFERSIZE,
+                                                                          8192));
+                logger.info("Capturing requests to " + captureFile);
+            } catch (IOException e) {
+                logger.error("Unable to capture requests to " + captureFile + ": " + e, e);
+            }
+        }
+        //
+        // Limit the batch requests
+        //
+        this.batchMaxItems = getIntProperty(XACMLRestProperties.PROP_PDP_BATCH_MAXITEMS, 1000);
+        this.batchMaxContentLength = getIntProperty(XACMLRestProperties.PROP_PDP_BATCH_MAXCONTENTLENGTH,
+                                                    1048576);
+        int batchThreads = getIntProperty(XACMLRestProperties.PROP_PDP_BATCH_THREADS,
+                                          Runtime.getRuntime().availableProcessors());
+        if (batchThreads > 1) {
+            this.batchExecutor = Executors.newFixedThreadPool(batchThreads,
+                                                              newThreadFactory("XACMLPdpServlet-batch-"));
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(final String namePrefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static int getIntProperty(String propertyName, int defaultValue) {
+        String value = XACMLProperties.getProperty(propertyName);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.error("Invalid value for " + propertyName + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
     }
 
     /**
@@ -201,6 +380,24 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
         } catch (InterruptedException e) {
             logger.error(e);
         }
+        //
+        // Stop the asynchronous request threads
+        //
+        if (this.asyncExecutor != null) {
+            this.asyncExecutor.shutdownNow();
+        }
+        if (this.batchExecutor != null) {
+            this.batchExecutor.shutdownNow();
+        }
+        if (this.auditLog != null) {
+            this.auditLog.shutdown();
+        }
+        if (this.captureWriter != null) {
+            this.captureWriter.close();
+        }
+        XACMLPdpPIPEngineFinder.shutdown();
+        XACMLPdpPIPEngineFinder.setEngineLock(null);
+        JDBCPolicyFinderFactory.shutdown();
         logger.info("Destroyed.");
     }
 
@@ -220,6 +417,10 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
      * xacml.pip.engines In addition, any relevant information needed by the PDP to load and configure the
      * PIPs. EXAMPLE: xacml.pip.engines=foo,bar foo.classname=com.foo foo.sample=abc foo.example=xyz ......
      * bar.classname=com.bar ...... all - Expect ALL new configuration properties for the PDP
+     * <p>
+     * An optional version parameter gives the version of the PAP configuration being sent. Once the new
+     * engine is in service the heartbeat reports it, see
+     * {@link XACMLRestProperties#PROP_PDP_HTTP_HEADER_VERSION}.
      *
      * @see HttpServlet#doPut(HttpServletRequest request, HttpServletResponse response)
      */
@@ -283,6 +484,8 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
             // Which set of properties are they sending us? Whatever they send gets
             // put on the queue (if there is room).
             //
+            long version = StdPAPChangeTracker.parseVersion(request.getParameter("version"));
+            PutRequest putRequest;
             if (config.equals("policies")) {
                 newProperties = XACMLProperties.getPolicyProperties(newProperties, true);
                 if (newProperties.size() == 0) {
@@ -291,7 +494,7 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
                                        "PUT with cache=policies must contain at least one policy property");
                     return;
                 }
-                XACMLPdpServlet.queue.offer(new PutRequest(newProperties, null));
+                putRequest = new PutRequest(newProperties, null, version);
             } else if (config.equals("pips")) {
                 newProperties = XACMLProperties.getPipProperties(newProperties);
                 if (newProperties.size() == 0) {
@@ -300,7 +503,7 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
                                        "PUT with cache=pips must contain at least one pip property");
                     return;
                 }
-                XACMLPdpServlet.queue.offer(new PutRequest(null, newProperties));
+                putRequest = new PutRequest(null, newProperties, version);
             } else if (config.equals("all")) {
                 Properties newPolicyProperties = XACMLProperties.getPolicyProperties(newProperties, true);
                 if (newPolicyProperties.size() == 0) {
@@ -316,7 +519,7 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
                                        "PUT with cache=all must contain at least one pip property");
                     return;
                 }
-                XACMLPdpServlet.queue.offer(new PutRequest(newPolicyProperties, newPipProperties));
+                putRequest = new PutRequest(newPolicyProperties, newPipProperties, version);
             } else {
                 //
                 // Invalid value
@@ -326,6 +529,15 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
                                    "Config must be one of 'policies', 'pips', 'all'");
                 return;
             }
+            //
+            // Another update may have taken the last place on the queue since it was checked
+            //
+            if (!XACMLPdpServlet.queue.offer(putRequest)) {
+                logger.error("Queue capacity reached");
+                response.sendError(HttpServletResponse.SC_CONFLICT,
+                                   "Multiple configuration changes waiting processing.");
+                return;
+            }
         } catch (Exception e) {
             logger.error("Failed to process new configuration.", e);
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
@@ -384,26 +596,101 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
             }
             response.setStatus(HttpServletResponse.SC_OK);
 
+        } else if ("metrics".equals(type)) {
+            // timings and decision counters in the Prometheus text format
+            response.setContentType("text/plain; version=0.0.4");
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            Writer writer = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+            PDPMetrics.getInstance().writePrometheus(writer);
+            writer.flush();
+            response.setStatus(HttpServletResponse.SC_OK);
+
+        } else if ("statistics".equals(type)) {
+            // the policy elements that took the most time, optionally limited by top=N
+            int top = 20;
+            if (request.getParameter("top") != null) {
+                try {
+                    top = Integer.parseInt(request.getParameter("top"));
+                } catch (NumberFormatException e) {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST, "top is not a number");
+                    return;
+                }
+            }
+            response.setContentType(ContentType.APPLICATION_JSON.getMimeType());
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            EvaluationStatistics.getInstance().writeJSON(response.getOutputStream(), top);
+            response.setStatus(HttpServletResponse.SC_OK);
+
         } else {
-            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "type not 'config' or 'hb'");
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                               "type not 'config', 'hb', 'Status', 'metrics' or 'statistics'");
         }
         if (returnHB) {
             synchronized (pdpStatusLock) {
                 response
                     .addHeader(XACMLRestProperties.PROP_PDP_HTTP_HEADER_HB, status.getStatus().toString());
             }
+            long version = loadedVersion;
+            if (version >= 0) {
+                response.addHeader(XACMLRestProperties.PROP_PDP_HTTP_HEADER_VERSION, Long.toString(version));
+            }
         }
     }
 
+    /**
+     * Decode the bytes of an incoming request for the loggers. Line breaks are dropped so each request stays
+     * on a single line of the request log.
+     *
+     * @param requestBytes
+     * @param charset
+     * @return
+     */
+    private static String toLogString(byte[] requestBytes, Charset charset) {
+        return new String(requestBytes, charset).replaceAll("\\r?\\n|\\r", "");
+    }
+
     /**
      * POST - We expect XACML requests to be posted by PEP applications. They can be in the form of XML or
-     * JSON according to the XACML 3.0 Specifications for both.
+     * JSON according to the XACML 3.0 Specifications for both. With the parameter batch=true the body holds
+     * a batch of independent requests instead, see {@link XACMLPdpBatch}.
      *
      * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
      */
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException,
         IOException {
+        final PostRequest postRequest = this.readPost(request, response);
+        if (postRequest == null) {
+            return;
+        }
+        if (this.asyncExecutor != null && request.isAsyncSupported()) {
+            //
+            // Hand it off to the asynchronous request threads. Only the response is
+            // buffered, the request has been read in full already with blocking
+            // reads; the Servlet 3.0 API has no non-blocking reads. The decision
+            // itself still waits for the engine lock like any other.
+            //
+            XACMLPdpAsyncRequest.Work work = new XACMLPdpAsyncRequest.Work() {
+                @Override
+                public void process(HttpServletResponse asyncResponse) throws ServletException, IOException {
+                    XACMLPdpServlet.this.processPost(postRequest, asyncResponse);
+                }
+            };
+            new XACMLPdpAsyncRequest(request.startAsync(request, response), response, work,
+                                     this.asyncRetryAfter).start(this.asyncExecutor, this.asyncTimeout);
+        } else {
+            this.processPost(postRequest, response);
+        }
+    }
+
+    /**
+     * Checks a POSTed request and reads its body. Everything needed from the request is copied into the
+     * returned PostRequest, so the request is not touched again once this returns.
+     *
+     * @return the request, or null if it has been answered with an error
+     */
+    private PostRequest readPost(HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
         //
         // no point in doing any work if we know from the get-go that we cannot do anything with the request
         //
@@ -411,7 +698,7 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
             logger.warn("Request from PEP at " + request.getRequestURI()
                         + " for service when PDP has No Root Policies loaded");
             response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-            return;
+            return null;
         }
 
         XACMLRest.dumpRequest(request);
@@ -425,23 +712,25 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
         if (request.getContentType() == null) {
             logger.warn("Must specify a Content-Type");
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, "no content-type given");
-            return;
+            return null;
         }
         //
         // Limit the Content-Length to something reasonable
         //
-        if (request.getContentLength() > Integer.parseInt(XACMLProperties.getProperty("MAX_CONTENT_LENGTH",
-                                                                                      "32767"))) {
+        boolean isBatch = Boolean.parseBoolean(request.getParameter("batch"));
+        int maxContentLength = isBatch ? this.batchMaxContentLength : Integer.parseInt(XACMLProperties
+            .getProperty("MAX_CONTENT_LENGTH", "32767"));
+        if (request.getContentLength() > maxContentLength) {
             String message = "Content-Length larger than server will accept.";
             logger.info(message);
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, message);
-            return;
+            return null;
         }
         if (request.getContentLength() <= 0) {
             String message = "Content-Length is negative";
             logger.info(message);
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, message);
-            return;
+            return null;
         }
         ContentType contentType = null;
         try {
@@ -451,48 +740,75 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
                              + e.getMessage();
             logger.error(message, e);
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, message);
-            return;
+            return null;
         }
         //
         // What exactly did they send us?
         //
+        boolean isJSON;
+        if (contentType.getMimeType().equalsIgnoreCase(ContentType.APPLICATION_JSON.getMimeType())) {
+            isJSON = true;
+        } else if (contentType.getMimeType().equalsIgnoreCase(ContentType.APPLICATION_XML.getMimeType())
+                   || contentType.getMimeType().equalsIgnoreCase("application/xacml+xml")) {
+            isJSON = false;
+        } else {
+            String message = "unsupported content type" + request.getContentType();
+            logger.error(message);
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, message);
+            return null;
+        }
+        //
+        // Read in the bytes, the parsers decode them directly
+        //
+        byte[] requestBytes;
+        try (InputStream is = request.getInputStream()) {
+            requestBytes = IOUtils.toByteArray(is);
+        }
+        return new PostRequest(contentType, isJSON, isBatch, Boolean.parseBoolean(request
+            .getHeader(XACMLRestProperties.PROP_PDP_HTTP_HEADER_TRACE)), requestBytes);
+    }
+
+    /**
+     * Evaluates a POSTed request and writes the response.
+     */
+    private void processPost(PostRequest postRequest, HttpServletResponse response)
+        throws ServletException, IOException {
+        ContentType contentType = postRequest.contentType;
+        if (postRequest.isBatch) {
+            this.processBatch(postRequest, response);
+            return;
+        }
         String incomingRequestString = null;
+        byte[] incomingRequestBytes = postRequest.bytes;
         Request pdpRequest = null;
-        if (contentType.getMimeType().equalsIgnoreCase(ContentType.APPLICATION_JSON.getMimeType())
-            || contentType.getMimeType().equalsIgnoreCase(ContentType.APPLICATION_XML.getMimeType())
-            || contentType.getMimeType().equalsIgnoreCase("application/xacml+xml")) {
-            //
-            // Read in the string
-            //
-            StringBuilder buffer = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    buffer.append(line);
-                }
-                incomingRequestString = buffer.toString();
+        //
+        // Only build the String when it is going to be logged. The audit log
+        // takes care of the request itself.
+        //
+        if (this.auditLog != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug(toLogString(incomingRequestBytes, postRequest.charset));
             }
+        } else if (logger.isInfoEnabled() || requestLogger.isInfoEnabled()) {
+            incomingRequestString = toLogString(incomingRequestBytes, postRequest.charset);
             logger.info(incomingRequestString);
-            //
-            // Parse into a request
-            //
-            try {
-                if (contentType.getMimeType().equalsIgnoreCase(ContentType.APPLICATION_JSON.getMimeType())) {
-                    pdpRequest = JSONRequest.load(incomingRequestString);
-                } else if (contentType.getMimeType().equalsIgnoreCase(ContentType.APPLICATION_XML
-                                                                          .getMimeType())
-                           || contentType.getMimeType().equalsIgnoreCase("application/xacml+xml")) {
-                    pdpRequest = DOMRequest.load(incomingRequestString);
-                }
-            } catch (Exception e) {
-                logger.error("Could not parse request", e);
-                response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
-                return;
+        }
+        //
+        // Parse into a request
+        //
+        PDPMetrics metrics = PDPMetrics.getInstance();
+        long startNanos = metrics.start();
+        try {
+            if (postRequest.isJSON) {
+                pdpRequest = JSONRequest.load(incomingRequestBytes);
+            } else {
+                pdpRequest = DOMRequest.load(new ByteArrayInputStream(incomingRequestBytes));
             }
-        } else {
-            String message = "unsupported content type" + request.getContentType();
-            logger.error(message);
-            response.sendError(HttpServletResponse.SC_BAD_REQUEST, message);
+            metrics.record(PDPMetrics.Stage.PARSE, startNanos);
+        } catch (Exception e) {
+            logger.error("Could not parse request", e);
+            this.auditFailure(postRequest, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
             return;
         }
         //
@@ -502,9 +818,13 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
             || pdpRequest.getRequestAttributes().size() <= 0) {
             String message = "Zero Attributes found in the request";
             logger.error(message);
+            this.auditFailure(postRequest, HttpServletResponse.SC_BAD_REQUEST, message);
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, message);
             return;
         }
+        if (this.warmup != null) {
+            this.warmup.record(pdpRequest);
+        }
         //
         // Run it
         //
@@ -525,41 +845,24 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
             //
             // Send the request and save the response
             //
-            long lTimeStart, lTimeEnd;
+            long lTimeStart, lTimeEnd, lNanosStart, lNanosEnd;
             Response pdpResponse = null;
-
-            // TODO - Make this unnecessary
-            // TODO It seems that the PDP Engine is not thread-safe, so when a configuration change occurs in
-            // the middle of processing
-            // TODO a PEP Request, that Request fails (it throws a NullPointerException in the decide()
-            // method).
-            // TODO Using synchronize will slow down processing of PEP requests, possibly by a significant
-            // amount.
-            // TODO Since configuration changes are rare, it would be A Very Good Thing if we could eliminate
-            // this sychronized block.
-            // TODO
-            // TODO This problem was found by starting one PDP then
-            // TODO RestLoadTest switching between 2 configurations, 1 second apart
-            // TODO both configurations contain the datarouter policy
-            // TODO both configurations already have all policies cached in the PDPs config directory
-            // TODO RestLoadTest started with the Datarouter test requests, 5 threads, no interval
-            // TODO With that configuration this code (without the synchronized) throws a NullPointerException
-            // TODO within a few seconds.
-            //
-            synchronized (pdpEngineLock) {
-                myEngine = this.pdpEngine;
-                try {
-                    lTimeStart = System.currentTimeMillis();
-                    pdpResponse = myEngine.decide(pdpRequest);
-                    lTimeEnd = System.currentTimeMillis();
-                } catch (PDPException e) {
-                    String message = "Exception during decide: " + e.getMessage();
-                    logger.error(message);
-                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, message);
-                    return;
-                }
+            lTimeStart = System.currentTimeMillis();
+            lNanosStart = System.nanoTime();
+            try {
+                pdpResponse = this.decide(pdpRequest, postRequest, incomingRequestBytes);
+            } catch (PDPException e) {
+                String message = "Exception during decide: " + e.getMessage();
+                logger.error(message);
+                this.auditFailure(postRequest, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, message);
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, message);
+                return;
+            }
+            lNanosEnd = System.nanoTime();
+            lTimeEnd = System.currentTimeMillis();
+            if (this.auditLog == null) {
+                requestLogger.info(lTimeStart + "=" + incomingRequestString);
             }
-            requestLogger.info(lTimeStart + "=" + incomingRequestString);
             if (logger.isDebugEnabled()) {
                 logger.debug("Request time: " + (lTimeEnd - lTimeStart) + "ms");
             }
@@ -567,59 +870,247 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
             // Convert Response to appropriate Content-Type
             //
             if (pdpResponse == null) {
-                requestLogger.info(lTimeStart + "=" + "{}");
+                if (this.auditLog == null) {
+                    requestLogger.info(lTimeStart + "=" + "{}");
+                }
                 throw new Exception("Failed to get response from PDP engine.");
             }
+            Response clientResponse = this.auditLog == null ? pdpResponse : XACMLPdpAuditLog
+                .asRequested(pdpRequest, pdpResponse);
             //
             // Set our content-type
             //
             response.setContentType(contentType.getMimeType());
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
             //
-            // Convert the PDP response object to a String to
-            // return to our caller as well as dump to our loggers.
+            // Stream the PDP response straight to our caller. When the loggers
+            // want a copy for auditing it is captured on the way out, so the
+            // response is only serialized once.
             //
-            String outgoingResponseString = "";
+            boolean auditPayload = this.auditLog != null
+                                   && this.auditLog.keepPayload(HttpServletResponse.SC_OK, pdpResponse);
+            ByteArrayOutputStream loggedResponse = null;
+            OutputStream outputStream = response.getOutputStream();
+            boolean captureResponse = this.auditLog == null ? requestLogger.isInfoEnabled() : auditPayload;
+            if (logger.isDebugEnabled() || captureResponse) {
+                loggedResponse = new ByteArrayOutputStream();
+                outputStream = new TeeOutputStream(outputStream, loggedResponse);
+            }
+            startNanos = metrics.start();
             if (contentType.getMimeType().equalsIgnoreCase(ContentType.APPLICATION_JSON.getMimeType())) {
-                //
-                // Get it as a String. This is not very efficient but we need to log our
-                // results for auditing.
-                //
-                outgoingResponseString = JSONResponse.toString(pdpResponse, logger.isDebugEnabled());
+                JSONResponse.convert(clientResponse, outputStream);
+            } else if (contentType.getMimeType().equalsIgnoreCase(ContentType.APPLICATION_XML.getMimeType())
+                       || contentType.getMimeType().equalsIgnoreCase("application/xacml+xml")) {
+                DOMResponse.convert(clientResponse, outputStream);
+            }
+            outputStream.flush();
+            metrics.record(PDPMetrics.Stage.SERIALIZATION, startNanos);
+            if (loggedResponse != null) {
+                String outgoingResponseString = new String(loggedResponse.toByteArray(),
+                                                           StandardCharsets.UTF_8);
                 if (logger.isDebugEnabled()) {
                     logger.debug(outgoingResponseString);
-                    //
-                    // Get rid of whitespace
-                    //
-                    outgoingResponseString = JSONResponse.toString(pdpResponse, false);
                 }
-            } else if (contentType.getMimeType().equalsIgnoreCase(ContentType.APPLICATION_XML.getMimeType())
-                       || contentType.getMimeType().equalsIgnoreCase("application/xacml+xml")) {
                 //
-                // Get it as a String. This is not very efficient but we need to log our
-                // results for auditing.
+                // lTimeStart is used as an ID within the requestLogger to match up
+                // request's with responses.
                 //
-                outgoingResponseString = DOMResponse.toString(pdpResponse, logger.isDebugEnabled());
-                if (logger.isDebugEnabled()) {
-                    logger.debug(outgoingResponseString);
-                    //
-                    // Get rid of whitespace
-                    //
-                    outgoingResponseString = DOMResponse.toString(pdpResponse, false);
+                if (this.auditLog == null) {
+                    requestLogger.info(lTimeStart + "=" + outgoingResponseString);
                 }
             }
-            //
-            // lTimeStart is used as an ID within the requestLogger to match up
-            // request's with responses.
-            //
-            requestLogger.info(lTimeStart + "=" + outgoingResponseString);
-            response.getWriter().print(outgoingResponseString);
+            if (this.auditLog != null) {
+                this.auditLog.record(lTimeStart, (lNanosEnd - lNanosStart) / 1000, HttpServletResponse.SC_OK,
+                                     incomingRequestBytes, postRequest.charset, pdpResponse, null,
+                                     auditPayload, auditPayload ? loggedResponse.toByteArray() : null);
+            }
         } catch (Exception e) {
             String message = "Exception executing request: " + e;
             logger.error(message, e);
+            this.auditFailure(postRequest, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, message);
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, message);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    /**
+     * Decides a request on the current PDP engine, holding the engine lock for the duration of the decision,
+     * see {@link #decide(PDPEngine, Request, PostRequest, byte[])}.
+     *
+     * @param pdpRequest
+     * @param postRequest the POSTed request it came from
+     * @param requestBytes the bytes of the request, for the capture
+     * @return
+     * @throws PDPException
+     */
+    private Response decide(Request pdpRequest, PostRequest postRequest, byte[] requestBytes)
+        throws PDPException {
+        // TODO - Make this unnecessary
+        // TODO It seems that the PDP Engine is not thread-safe, so when a configuration change occurs in
+        // the middle of processing
+        // TODO a PEP Request, that Request fails (it throws a NullPointerException in the decide()
+        // method).
+        // TODO Using synchronize will slow down processing of PEP requests, possibly by a significant
+        // amount.
+        // TODO Since configuration changes are rare, it would be A Very Good Thing if we could eliminate
+        // this sychronized block.
+        // TODO
+        // TODO This problem was found by starting one PDP then
+        // TODO RestLoadTest switching between 2 configurations, 1 second apart
+        // TODO both configurations contain the datarouter policy
+        // TODO both configurations already have all policies cached in the PDPs config directory
+        // TODO RestLoadTest started with the Datarouter test requests, 5 threads, no interval
+        // TODO With that configuration this code (without the synchronized) throws a NullPointerException
+        // TODO within a few seconds.
+        //
+        synchronized (pdpEngineLock) {
+            PDPEngine myEngine = this.pdpEngine;
+            if (myEngine == null) {
+                throw new PDPException("No engine loaded.");
+            }
+            return this.decide(myEngine, pdpRequest, postRequest, requestBytes);
+        }
+    }
+
+    /**
+     * Decides a request on the given engine and captures the decision if capturing is configured. With the
+     * audit log the response always lists the policies that applied, see
+     * {@link XACMLPdpAuditLog#asRequested}. The caller must hold the engine lock.
+     *
+     * @param myEngine the engine in service
+     * @param pdpRequest
+     * @param postRequest the POSTed request it came from
+     * @param requestBytes the bytes of the request, for the capture
+     * @return
+     * @throws PDPException
+     */
+    private Response decide(PDPEngine myEngine, Request pdpRequest, PostRequest postRequest,
+                            byte[] requestBytes) throws PDPException {
+        long timeStart;
+        Response pdpResponse = null;
+        Request capturedAttributes = null;
+        //
+        // Let the client ask for this request to be traced by a sampling trace engine
+        //
+        boolean sampleNext = postRequest.trace && this.sampledTracing;
+        if (this.captureWriter != null) {
+            CapturingFinder.begin();
+        }
+        if (this.auditLog != null) {
+            PolicyIdentifierCollector.begin();
+        }
+        try {
+            if (sampleNext) {
+                SampledTraceEngine.sampleNextRequest();
+            }
+            timeStart = System.currentTimeMillis();
+            pdpResponse = myEngine.decide(pdpRequest);
+        } finally {
+            if (sampleNext) {
+                SampledTraceEngine.clearSampleNextRequest();
+            }
+            if (this.auditLog != null) {
+                PolicyIdentifierCollector.end();
+            }
+            if (this.captureWriter != null) {
+                capturedAttributes = CapturingFinder.end();
+            }
+        }
+        if (this.captureWriter != null) {
+            this.captureWriter.offer(new CaptureRecord(timeStart, postRequest.contentType.getMimeType(),
+                                                       requestBytes, CaptureRecord.getDecisions(pdpResponse),
+                                                       capturedAttributes));
+        }
+        return pdpResponse;
+    }
+
+    private void auditFailure(PostRequest postRequest, int status, String message) {
+        if (this.auditLog != null) {
+            this.auditLog.record(System.currentTimeMillis(), 0, status, postRequest.bytes,
+                                 postRequest.charset, null, message, true, null);
+        }
+    }
+
+    /**
+     * Evaluates a batch of requests, see {@link XACMLPdpBatch#evaluate}. The requests are parsed and
+     * serialized in parallel, and all of them are decided by the same engine under a single acquisition of
+     * the engine lock; a configuration change that arrives during the batch waits for it. Each request gets
+     * its own status in the response, a request that cannot be parsed or evaluated does not fail the rest of
+     * the batch.
+     */
+    private void processBatch(final PostRequest postRequest, HttpServletResponse response) throws IOException {
+        ContentType contentType = postRequest.contentType;
+        boolean isJSON = postRequest.isJSON;
+        byte[] batchBytes = postRequest.bytes;
+        if (logger.isInfoEnabled() || requestLogger.isInfoEnabled()) {
+            logger.info(toLogString(batchBytes, postRequest.charset));
+        }
+        //
+        // Split it into the individual requests
+        //
+        List<byte[]> items;
+        try {
+            if (isJSON) {
+                items = XACMLPdpBatch.splitJSON(batchBytes, this.batchMaxItems);
+            } else {
+                items = XACMLPdpBatch.splitXML(batchBytes, this.batchMaxItems);
+            }
+        } catch (Exception e) {
+            logger.error("Could not parse batch", e);
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        XACMLPdpBatch.Decider decider = new XACMLPdpBatch.Decider() {
+            @Override
+            public PDPEngine getEngine() {
+                return XACMLPdpServlet.this.pdpEngine;
+            }
+
+            @Override
+            public Response decide(PDPEngine engine, Request request, byte[] requestBytes)
+                throws PDPException {
+                return XACMLPdpServlet.this.decide(engine, request, postRequest, requestBytes);
+            }
+        };
+        //
+        // Run them
+        //
+        long lTimeStart = System.currentTimeMillis();
+        //
+        // XML requests are split off the batch in UTF-8, JSON ones as they are
+        //
+        Charset itemCharset = isJSON ? postRequest.charset : StandardCharsets.UTF_8;
+        List<XACMLPdpBatch.Item> batchItems = new ArrayList<XACMLPdpBatch.Item>(items.size());
+        for (byte[] item : items) {
+            batchItems.add(new XACMLPdpBatch.Item(item, itemCharset, isJSON, this.auditLog));
+        }
+        List<byte[]> results;
+        try {
+            results = XACMLPdpBatch.evaluate(batchItems, decider, pdpEngineLock, this.batchExecutor);
+        } catch (PDPException e) {
+            String message = e.getMessage();
+            logger.error(message);
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, message);
             return;
         }
+        //
+        // Send back the results in the order of the requests
+        //
         response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(contentType.getMimeType());
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        OutputStream outputStream = response.getOutputStream();
+        XACMLPdpBatch.writeStart(outputStream, isJSON);
+        for (int i = 0; i < results.size(); i++) {
+            XACMLPdpBatch.writeItem(outputStream, isJSON, i, results.get(i));
+        }
+        XACMLPdpBatch.writeEnd(outputStream, isJSON);
+        outputStream.flush();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Batch of " + items.size() + " requests time: "
+                         + (System.currentTimeMillis() - lTimeStart) + "ms");
+        }
     }
 
     @Override
@@ -648,8 +1139,18 @@ public class XACMLPdpServlet extends HttpServlet implements Runnable {
                 // PDPEngine newEngine = XACMLPdpLoader.loadEngine(newStatus, request.policyProperties,
                 // request.pipConfigProperties);
                 if (newEngine != null) {
+                    //
+                    // Warm it up before it takes over, while the old engine is
+                    // still serving requests. The two share PIP engines, so the
+                    // warm-up takes the engine lock for each of its requests.
+                    //
+                    if (this.warmup != null) {
+                        this.warmup.warmUp(newEngine, XACMLPdpServlet.pdpEngineLock);
+                    }
                     synchronized (XACMLPdpServlet.pdpEngineLock) {
                         this.pdpEngine = newEngine;
+                        XACMLPdpServlet.loadedVersion = request.version;
+                        XACMLPdpPIPEngineFinder.closeRetired();
                         try {
                             logger.info("Saving configuration.");
                             if (request.policyProperties != null) {
@@ -0,0 +1,254 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.rest;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.api.pdp.PDPException;
+import org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics;
+import org.apache.openaz.xacml.std.dom.DOMRequest;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.apache.openaz.xacml.std.metrics.PDPMetrics;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+/**
+ * XACMLPdpWarmup replays requests against a newly loaded PDP engine before the servlet puts it in service,
+ * so the first PEP requests after a policy push do not pay for class loading, lazy initialization of the
+ * policies, JIT compilation and empty PIP caches.
+ * <p>
+ * The requests replayed are the recorded request files configured with
+ * {@link XACMLRestProperties#PROP_PDP_WARMUP_REQUESTS}, which are read once, followed by the most recent
+ * requests the servlet has decided. They are replayed a number of passes or until the time budget runs out,
+ * whichever comes first, and the latency of each pass is logged so the warm-up curve can be checked.
+ * <p>
+ * The new engine carries over the PIP engines of the one in service, see
+ * {@link org.apache.openaz.xacml.rest.impl.XACMLPdpPIPEngineFinder}, and those are not thread-safe. Each
+ * request is therefore replayed holding the lock the servlet decides under, so warm-up requests take turns
+ * with the ones being served instead of running alongside them.
+ */
+class XACMLPdpWarmup {
+    private static final Log logger = LogFactory.getLog(XACMLPdpWarmup.class);
+
+    private final List<Request> recordedRequests;
+    //
+    // The most recent requests. Request threads overwrite the oldest slot,
+    // there is no need for anything stronger than that.
+    //
+    private final AtomicReferenceArray<Request> recentRequests;
+    private final AtomicLong recentIndex = new AtomicLong();
+
+    private final int passes;
+    private final long timeBudget;
+
+    XACMLPdpWarmup(List<Request> recordedRequestsIn, int recentIn, int passesIn, long timeBudgetIn) {
+        this.recordedRequests = recordedRequestsIn;
+        this.recentRequests = recentIn > 0 ? new AtomicReferenceArray<Request>(recentIn) : null;
+        this.passes = passesIn;
+        this.timeBudget = timeBudgetIn;
+    }
+
+    /**
+     * Creates the warm-up configured in the XACML properties.
+     *
+     * @return the warm-up, or null if neither recent nor recorded requests are configured
+     */
+    static XACMLPdpWarmup newInstance() {
+        try {
+            int recent = Integer.parseInt(XACMLProperties
+                .getProperty(XACMLRestProperties.PROP_PDP_WARMUP_RECENT, "0"));
+            int passes = Integer.parseInt(XACMLProperties
+                .getProperty(XACMLRestProperties.PROP_PDP_WARMUP_PASSES, "5"));
+            long timeBudget = Long.parseLong(XACMLProperties
+                .getProperty(XACMLRestProperties.PROP_PDP_WARMUP_TIMEBUDGET, "10000"));
+            List<Request> recorded = Collections.emptyList();
+            String directory = XACMLProperties.getProperty(XACMLRestProperties.PROP_PDP_WARMUP_REQUESTS);
+            if (directory != null && !directory.isEmpty()) {
+                recorded = loadRequests(Paths.get(directory));
+            }
+            if (recent <= 0 && recorded.isEmpty()) {
+                return null;
+            }
+            logger.info("Warming up new engines with " + recorded.size() + " recorded and up to " + recent
+                        + " recent requests, " + passes + " passes, time budget " + timeBudget + "ms");
+            return new XACMLPdpWarmup(recorded, recent, passes, timeBudget);
+        } catch (NumberFormatException | IOException e) {
+            logger.error("Unable to configure the engine warm-up, new engines will not be warmed up: " + e, e);
+            return null;
+        }
+    }
+
+    /**
+     * Loads the .json and .xml request files of a directory, in the order of their names. Files that cannot
+     * be loaded are logged and skipped.
+     *
+     * @param directory the directory holding the request files
+     * @return the requests
+     * @throws IOException if the directory cannot be read
+     */
+    static List<Request> loadRequests(Path directory) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{json,xml}")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        List<Request> requests = new ArrayList<Request>(files.size());
+        for (Path file : files) {
+            try {
+                Request request;
+                if (file.getFileName().toString().endsWith(".json")) {
+                    request = JSONRequest.load(file.toFile());
+                } else {
+                    request = DOMRequest.load(file.toFile());
+                }
+                if (request != null) {
+                    requests.add(request);
+                }
+            } catch (Exception e) {
+                logger.warn("Skipping warm-up request " + file + ": " + e.getMessage());
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Remembers a request the servlet has parsed so it can be replayed against the next engine. This never
+     * blocks.
+     *
+     * @param request the request
+     */
+    void record(Request request) {
+        if (this.recentRequests != null) {
+            int slot = (int)(this.recentIndex.getAndIncrement() % this.recentRequests.length());
+            this.recentRequests.set(slot, request);
+        }
+    }
+
+    /**
+     * @return the requests to replay, the recorded ones followed by the recent ones
+     */
+    List<Request> getRequests() {
+        List<Request> requests = new ArrayList<Request>(this.recordedRequests);
+        if (this.recentRequests != null) {
+            for (int i = 0; i < this.recentRequests.length(); i++) {
+                Request request = this.recentRequests.get(i);
+                if (request != null) {
+                    requests.add(request);
+                }
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Replays the warm-up requests against the given engine and logs the latency of each pass. The decisions
+     * are thrown away; errors are counted but do not stop the warm-up. Nothing the warm-up requests do is
+     * recorded in the {@link org.apache.openaz.xacml.std.metrics.PDPMetrics} or the
+     * {@link org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics}.
+     *
+     * @param engine the engine that is about to be put in service
+     * @param engineLock the lock held while deciding with the engine in service
+     */
+    void warmUp(PDPEngine engine, Object engineLock) {
+        List<Request> requests = this.getRequests();
+        if (requests.isEmpty()) {
+            return;
+        }
+        PDPMetrics.getInstance().beginSuppress();
+        EvaluationStatistics.getInstance().beginSuppress();
+        try {
+            this.replay(engine, engineLock, requests);
+        } finally {
+            EvaluationStatistics.getInstance().endSuppress();
+            PDPMetrics.getInstance().endSuppress();
+        }
+    }
+
+    private void replay(PDPEngine engine, Object engineLock, List<Request> requests) {
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(this.timeBudget);
+        long[] latencies = new long[requests.size()];
+        StringBuilder report = new StringBuilder("Engine warm-up with " + requests.size() + " requests:");
+        int pass = 0;
+        boolean outOfTime = false;
+        while (pass < this.passes && !outOfTime) {
+            int count = 0;
+            int errors = 0;
+            for (Request request : requests) {
+                long requestStart = System.nanoTime();
+                if (requestStart >= deadline) {
+                    outOfTime = true;
+                    break;
+                }
+                synchronized (engineLock) {
+                    try {
+                        engine.decide(request);
+                    } catch (PDPException | RuntimeException e) {
+                        errors++;
+                    }
+                }
+                latencies[count++] = System.nanoTime() - requestStart;
+            }
+            if (count == 0) {
+                break;
+            }
+            pass++;
+            report.append(System.lineSeparator()).append(summarize(pass, latencies, count, errors));
+        }
+        report.append(System.lineSeparator()).append(pass).append(" passes in ")
+            .append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).append("ms")
+            .append(outOfTime ? ", time budget of " + this.timeBudget + "ms used up" : "");
+        logger.info(report.toString());
+    }
+
+    private static String summarize(int pass, long[] latencies, int count, int errors) {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long latency : sorted) {
+            sum += latency;
+        }
+        return "pass " + pass + ": " + count + " requests, " + errors + " errors, mean " + micros(sum / count)
+               + "us, p50 " + micros(sorted[(count - 1) / 2]) + "us, p99 "
+               + micros(sorted[(int)Math.ceil(count * 0.99) - 1]) + "us, max " + micros(sorted[count - 1])
+               + "us, first " + micros(latencies[0]) + "us";
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.rest.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.pip.PIPEngine;
+import org.apache.openaz.xacml.api.pip.PIPException;
+import org.apache.openaz.xacml.api.pip.PIPFinder;
+import org.apache.openaz.xacml.api.pip.PIPRequest;
+import org.apache.openaz.xacml.api.pip.PIPResponse;
+import org.apache.openaz.xacml.rest.XACMLRestProperties;
+import org.apache.openaz.xacml.std.pip.engines.ConfigurableEngine;
+import org.apache.openaz.xacml.std.pip.finders.ConfigurableEngineFinder;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+/**
+ * XACMLPdpPIPEngineFinder extends {@link org.apache.openaz.xacml.std.pip.finders.ConfigurableEngineFinder}
+ * to carry configured <code>PIPEngine</code>s over from one PDP engine to the next. An engine is reused as
+ * long as the properties it could see are unchanged: the properties starting with its id, and the shared
+ * properties that belong neither to another PIP engine nor to the policy configuration. Its connection
+ * pools and caches therefore survive a policy update from the PAP. Engines whose properties changed are
+ * configured again, and engines no longer listed in <code>xacml.pip.engines</code> are dropped.
+ * <p>
+ * An engine that is replaced or dropped may still be serving the PDP engine being replaced, so it is
+ * retired rather than closed. Retired engines that implement <code>AutoCloseable</code> are closed by
+ * {@link #closeRetired()}, once the new PDP engine has taken over.
+ * <p>
+ * A reused engine serves the PDP engine in service and the one replacing it at the same time, and PIP
+ * engines are not thread-safe. Reuse is therefore only safe while every caller of every PDP engine
+ * configured with this finder holds the same lock, the one set with {@link #setEngineLock(Object)}.
+ * Engines are only carried over once that lock is set, and a finder that shares engines refuses calls
+ * made without holding it.
+ */
+public class XACMLPdpPIPEngineFinder extends ConfigurableEngineFinder {
+    private static final Log logger = LogFactory.getLog(XACMLPdpPIPEngineFinder.class);
+
+    private static final Map<String, ConfiguredEngine> engines = new HashMap<String, ConfiguredEngine>();
+    private static final List<ConfigurableEngine> retired = new ArrayList<ConfigurableEngine>();
+    private static volatile Object engineLock = null;
+
+    private ConfigurableEngine newEngine;
+    //
+    // The engine lock when this finder was configured, if its engines are
+    // shared with other finders
+    //
+    private Object sharedLock = null;
+
+    private static class ConfiguredEngine {
+        private final Properties properties;
+        private final ConfigurableEngine engine;
+
+        ConfiguredEngine(Properties propertiesIn, ConfigurableEngine engineIn) {
+            this.properties = propertiesIn;
+            this.engine = engineIn;
+        }
+    }
+
+    public XACMLPdpPIPEngineFinder() {
+    }
+
+    private static boolean isEnabled() {
+        return engineLock != null
+               && Boolean.parseBoolean(XACMLProperties.getProperty(XACMLRestProperties.PROP_PDP_INCREMENTAL,
+                                                                   "true"));
+    }
+
+    /**
+     * Sets the lock held by every caller of the PDP engines configured with this finder, for as long as
+     * they are in use. PIP engines are only carried over from one PDP engine to the next while it is set.
+     *
+     * @param engineLockIn the lock, or null to stop carrying engines over
+     */
+    public static void setEngineLock(Object engineLockIn) {
+        engineLock = engineLockIn;
+    }
+
+    private static void addPrefixes(Set<String> prefixes, String ids) {
+        if (ids != null) {
+            for (String id : ids.split("[,]", 0)) {
+                if (id.trim().length() > 0) {
+                    prefixes.add(id.trim() + ".");
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the properties the given engine's configuration depends on: its own properties, and every
+     * property that does not belong to another engine or to a policy, since the engine may read those too.
+     */
+    private static Properties getEngineProperties(String engineId, Properties properties) {
+        String prefix = engineId + ".";
+        Set<String> otherPrefixes = new HashSet<String>();
+        addPrefixes(otherPrefixes, properties.getProperty(XACMLProperties.PROP_PIP_ENGINES));
+        addPrefixes(otherPrefixes, properties.getProperty(XACMLProperties.PROP_ROOTPOLICIES));
+        addPrefixes(otherPrefixes, properties.getProperty(XACMLProperties.PROP_REFERENCEDPOLICIES));
+        otherPrefixes.remove(prefix);
+
+        Properties engineProperties = new Properties();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(prefix) || isShared(name, otherPrefixes)) {
+                engineProperties.setProperty(name, properties.getProperty(name));
+            }
+        }
+        return engineProperties;
+    }
+
+    private static boolean isShared(String name, Set<String> otherPrefixes) {
+        if (XACMLProperties.PROP_PIP_ENGINES.equals(name) || XACMLProperties.PROP_ROOTPOLICIES.equals(name)
+            || XACMLProperties.PROP_REFERENCEDPOLICIES.equals(name)) {
+            return false;
+        }
+        for (String otherPrefix : otherPrefixes) {
+            if (name.startsWith(otherPrefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the given engine to the retired list. Must be called holding the lock on {@link #engines}.
+     */
+    private static void retire(ConfiguredEngine configured) {
+        if (configured != null) {
+            synchronized (retired) {
+                retired.add(configured.engine);
+            }
+        }
+    }
+
+    /**
+     * Closes the PIP engines that were replaced or dropped by earlier configurations and that implement
+     * <code>AutoCloseable</code>. Call this once the PDP engine they served is no longer in use.
+     */
+    public static void closeRetired() {
+        List<ConfigurableEngine> closing;
+        synchronized (retired) {
+            closing = new ArrayList<ConfigurableEngine>(retired);
+            retired.clear();
+        }
+        for (ConfigurableEngine engine : closing) {
+            close(engine);
+        }
+    }
+
+    /**
+     * Closes all PIP engines, current and retired, for shutting the PDP down.
+     */
+    public static void shutdown() {
+        synchronized (engines) {
+            for (ConfiguredEngine configured : engines.values()) {
+                retire(configured);
+            }
+            engines.clear();
+        }
+        closeRetired();
+    }
+
+    private static void close(ConfigurableEngine engine) {
+        if (engine instanceof AutoCloseable) {
+            logger.info("Closing PIP engine " + engine.getName());
+            try {
+                ((AutoCloseable)engine).close();
+            } catch (Exception ex) {
+                logger.warn("Failed to close PIP engine " + engine.getName() + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    @Override
+    protected ConfigurableEngine newEngine(String className) throws PIPException {
+        this.newEngine = super.newEngine(className);
+        return this.newEngine;
+    }
+
+    @Override
+    protected void configureEngine(String engineId, Properties properties) throws PIPException {
+        if (this.sharedLock == null) {
+            super.configureEngine(engineId, properties);
+            return;
+        }
+        Properties engineProperties = getEngineProperties(engineId, properties);
+        synchronized (engines) {
+            ConfiguredEngine configured = engines.get(engineId);
+            if (configured != null && configured.properties.equals(engineProperties)) {
+                logger.info("Reusing unchanged PIP engine " + engineId);
+                this.register(configured.engine);
+                return;
+            }
+            this.newEngine = null;
+            try {
+                super.configureEngine(engineId, properties);
+            } catch (PIPException ex) {
+                retire(engines.remove(engineId));
+                throw ex;
+            }
+            if (this.newEngine != null) {
+                retire(engines.put(engineId, new ConfiguredEngine(engineProperties, this.newEngine)));
+            }
+        }
+    }
+
+    @Override
+    public void configure(Properties properties) throws PIPException {
+        this.sharedLock = isEnabled() ? engineLock : null;
+        super.configure(properties);
+        Set<String> engineIds = new HashSet<String>();
+        String engineIdList = properties.getProperty(XACMLProperties.PROP_PIP_ENGINES);
+        if (engineIdList != null) {
+            for (String engineId : engineIdList.split("[,]", 0)) {
+                engineIds.add(engineId);
+            }
+        }
+        synchronized (engines) {
+            Iterator<Map.Entry<String, ConfiguredEngine>> entries = engines.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, ConfiguredEngine> entry = entries.next();
+                if (!engineIds.contains(entry.getKey())) {
+                    retire(entry.getValue());
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public PIPResponse getAttributes(PIPRequest pipRequest, PIPEngine exclude, PIPFinder pipFinderParent)
+        throws PIPException {
+        Object lock = this.sharedLock;
+        if (lock != null && !Thread.holdsLock(lock)) {
+            throw new PIPException("PIP engines shared between PDP engines must be called holding the "
+                                   + "engine lock");
+        }
+        return super.getAttributes(pipRequest, exclude, pipFinderParent);
+    }
+}
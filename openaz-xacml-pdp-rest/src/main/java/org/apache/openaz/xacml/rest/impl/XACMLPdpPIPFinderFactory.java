@@ -49,7 +49,7 @@ public class XACMLPdpPIPFinderFactory extends PIPFinderFactory {
                     if (logger.isDebugEnabled()) {
                         logger.debug("Creating default configurable engine finder");
                     }
-                    pipFinder = new ConfigurableEngineFinder();
+                    pipFinder = new XACMLPdpPIPEngineFinder();
                     Properties xacmlProperties = null;
                     try {
                         xacmlProperties = XACMLProperties.getProperties();
@@ -74,7 +74,7 @@ public class XACMLPdpPIPFinderFactory extends PIPFinderFactory {
                     if (logger.isDebugEnabled()) {
                         logger.debug("Creating configurable engine finder using: " + properties);
                     }
-                    pipFinder = new ConfigurableEngineFinder();
+                    pipFinder = new XACMLPdpPIPEngineFinder();
                     pipFinder.configure(properties);
                 }
             }
@@ -0,0 +1,189 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.rest.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.PolicyIdReferenceBase;
+import org.apache.openaz.xacml.pdp.policy.PolicySet;
+import org.apache.openaz.xacml.pdp.policy.PolicySetChild;
+import org.apache.openaz.xacml.pdp.policy.snapshot.SnapshotPolicyDef;
+import org.apache.openaz.xacml.rest.XACMLRestProperties;
+import org.apache.openaz.xacml.std.dom.DOMStructureException;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+/**
+ * XACMLPdpPolicyDefCache keeps the <code>PolicyDef</code>s the PDP servlet has parsed, by policy id and the
+ * SHA-256 hash of the policy file contents, so that a configuration update from the PAP only parses the
+ * policies that changed. The same <code>PolicyDef</code> is then shared by the old and the new
+ * <code>PDPEngine</code>.
+ * <p>
+ * <code>PolicySet</code>s that contain <code>PolicyIdReference</code>s or <code>PolicySetIdReference</code>s
+ * are never shared, because a reference remembers the policy it resolved to in the engine that first
+ * evaluated it. They are parsed again on every load.
+ */
+public class XACMLPdpPolicyDefCache {
+    private static final Log logger = LogFactory.getLog(XACMLPdpPolicyDefCache.class);
+
+    private static final Map<String, CachedPolicyDef> cache = new HashMap<String, CachedPolicyDef>();
+
+    private static long hits;
+    private static long misses;
+
+    private static class CachedPolicyDef {
+        private final byte[] hash;
+        private final PolicyDef policyDef;
+
+        CachedPolicyDef(byte[] hashIn, PolicyDef policyDefIn) {
+            this.hash = hashIn;
+            this.policyDef = policyDefIn;
+        }
+    }
+
+    protected XACMLPdpPolicyDefCache() {
+    }
+
+    /**
+     * Determines whether unchanged policies are reused, from the
+     * {@link XACMLRestProperties#PROP_PDP_INCREMENTAL} property.
+     *
+     * @return true if the cache is used
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(XACMLProperties.getProperty(XACMLRestProperties.PROP_PDP_INCREMENTAL,
+                                                                "true"));
+    }
+
+    /**
+     * Loads the <code>PolicyDef</code> for the given policy id from the given file, returning the cached
+     * <code>PolicyDef</code> if the file has not changed since it was last loaded.
+     *
+     * @param policyId the <code>String</code> policy id the file is configured under
+     * @param policyFile the XACML policy <code>File</code>
+     * @param properties the <code>Properties</code> passed on to {@link SnapshotPolicyDef}, may be
+     *            <code>null</code>
+     * @return the <code>PolicyDef</code>
+     * @throws DOMStructureException if the file cannot be read or parsed
+     */
+    public static PolicyDef load(String policyId, File policyFile, Properties properties)
+        throws DOMStructureException {
+        if (!isEnabled()) {
+            return SnapshotPolicyDef.load(policyFile, properties);
+        }
+        byte[] xml;
+        try {
+            xml = Files.readAllBytes(policyFile.toPath());
+        } catch (IOException ex) {
+            throw new DOMStructureException("Exception loading Policy file \"" + policyFile.getAbsolutePath()
+                                            + "\": " + ex.getMessage(), ex);
+        }
+        byte[] hash = SnapshotPolicyDef.hash(xml);
+
+        synchronized (cache) {
+            CachedPolicyDef cached = cache.get(policyId);
+            if (cached != null && Arrays.equals(cached.hash, hash)) {
+                hits++;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Reusing unchanged policy " + policyId);
+                }
+                return cached.policyDef;
+            }
+            misses++;
+        }
+
+        PolicyDef policyDef = SnapshotPolicyDef.load(policyFile, xml, properties);
+        synchronized (cache) {
+            if (policyDef != null && (policyDef.getStatusCode() == null || policyDef.isOk())
+                && isShareable(policyDef)) {
+                cache.put(policyId, new CachedPolicyDef(hash, policyDef));
+            } else {
+                cache.remove(policyId);
+            }
+        }
+        return policyDef;
+    }
+
+    /**
+     * Drops the cached <code>PolicyDef</code>s of policies that are no longer configured.
+     *
+     * @param policyIds the <code>String</code> ids of the policies in the current configuration
+     */
+    public static void retainAll(Collection<String> policyIds) {
+        synchronized (cache) {
+            int size = cache.size();
+            cache.keySet().retainAll(policyIds);
+            if (logger.isDebugEnabled() && cache.size() != size) {
+                logger.debug("Dropped " + (size - cache.size()) + " removed policies");
+            }
+        }
+    }
+
+    /**
+     * Drops all cached <code>PolicyDef</code>s.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Gets a summary of the cache for logging: the number of cached policies and the number of loads that
+     * reused a cached policy or had to parse the file.
+     *
+     * @return the <code>String</code> summary
+     */
+    public static String getStatistics() {
+        synchronized (cache) {
+            return "cached=" + cache.size() + " reused=" + hits + " parsed=" + misses;
+        }
+    }
+
+    private static boolean isShareable(PolicyDef policyDef) {
+        if (policyDef instanceof Policy) {
+            return true;
+        }
+        if (!(policyDef instanceof PolicySet)) {
+            return false;
+        }
+        Iterator<PolicySetChild> children = ((PolicySet)policyDef).getChildren();
+        while (children != null && children.hasNext()) {
+            PolicySetChild child = children.next();
+            if (child instanceof PolicyIdReferenceBase || child instanceof PolicySet
+                && !isShareable((PolicySet)child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -26,7 +26,6 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
@@ -37,7 +36,9 @@ import org.apache.openaz.xacml.pdp.policy.PolicyDef;
 import org.apache.openaz.xacml.pdp.policy.PolicyFinder;
 import org.apache.openaz.xacml.pdp.policy.PolicyFinderFactory;
 import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
+import org.apache.openaz.xacml.pdp.std.ParallelPolicyLoader;
 import org.apache.openaz.xacml.pdp.std.StdPolicyFinder;
+import org.apache.openaz.xacml.pdp.std.StdPolicyFinderFactory;
 import org.apache.openaz.xacml.std.StdStatusCode;
 import org.apache.openaz.xacml.std.dom.DOMStructureException;
 import org.apache.openaz.xacml.util.FactoryException;
@@ -102,7 +103,8 @@ public class XACMLPdpPolicyFinderFactory extends PolicyFinderFactory {
             } else {
                 try {
                     XACMLPdpPolicyFinderFactory.logger.info("Loading policy file " + fileLocation);
-                    PolicyDef policyDef = DOMPolicyDef.load(fileLocation);
+                    PolicyDef policyDef = XACMLPdpPolicyDefCache.load(policyId, fileLocation,
+                                                                        this.properties);
                     if (policyDef != null) {
                         return policyDef;
                     }
@@ -159,7 +161,7 @@ public class XACMLPdpPolicyFinderFactory extends PolicyFinderFactory {
 
     /**
      * Finds the identifiers for all of the policies referenced by the given property name in the
-     * <code>XACMLProperties</code> and loads them using the requested loading method.
+     * <code>XACMLProperties</code> and loads them concurrently, keeping the order of the identifiers.
      *
      * @param propertyName the <code>String</code> name of the property containing the list of policy
      *            identifiers
@@ -176,14 +178,15 @@ public class XACMLPdpPolicyFinderFactory extends PolicyFinderFactory {
             return null;
         }
 
-        List<PolicyDef> listPolicyDefs = new ArrayList<PolicyDef>();
-        for (String policyId : policyIdArray) {
-            PolicyDef policyDef = this.loadPolicyDef(policyId);
-            if (policyDef != null) {
-                listPolicyDefs.add(policyDef);
-            }
-        }
-        return listPolicyDefs;
+        ParallelPolicyLoader.Results<PolicyDef> results = ParallelPolicyLoader.newInstance(this.properties)
+            .load(policyIdArray, new ParallelPolicyLoader.Loader<PolicyDef>() {
+                @Override
+                public PolicyDef load(String policyId) {
+                    return XACMLPdpPolicyFinderFactory.this.loadPolicyDef(policyId);
+                }
+            });
+        StdPolicyFinderFactory.logLoadResults(XACMLPdpPolicyFinderFactory.logger, propertyName, results);
+        return results.getValues();
     }
 
     protected synchronized void init() {
@@ -206,14 +209,12 @@ public class XACMLPdpPolicyFinderFactory extends PolicyFinderFactory {
         //
         // Force using any properties that were passed upon construction
         //
-        // TODO properties are not used in StdPolicyFinder
-        return new StdPolicyFinder(this.rootPolicies, this.referencedPolicies);
+        return new StdPolicyFinder(this.rootPolicies, this.referencedPolicies, this.properties);
     }
 
     @Override
     public PolicyFinder getPolicyFinder(Properties properties) throws FactoryException {
-        // TODO properties are not used in StdPolicyFinder
-        return new StdPolicyFinder(this.rootPolicies, this.referencedPolicies);
+        return new StdPolicyFinder(this.rootPolicies, this.referencedPolicies, properties);
     }
 
 }
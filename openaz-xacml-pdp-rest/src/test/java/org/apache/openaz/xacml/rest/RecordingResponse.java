@@ -0,0 +1,95 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * RecordingResponse stands in for the container's <code>HttpServletResponse</code> and records what is sent
+ * to it.
+ */
+class RecordingResponse implements InvocationHandler {
+    final List<String> calls = new ArrayList<String>();
+    final Map<String, String> headers = new LinkedHashMap<String, String>();
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    int status = HttpServletResponse.SC_OK;
+    String errorMessage = null;
+    String contentType = null;
+    int contentLength = -1;
+
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+        @Override
+        public void write(int b) {
+            RecordingResponse.this.body.write(b);
+        }
+    };
+
+    HttpServletResponse newResponse() {
+        return (HttpServletResponse)Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class<?>[] {
+            HttpServletResponse.class
+        }, this);
+    }
+
+    @Override
+    public synchronized Object invoke(Object proxy, Method method, Object[] args) {
+        this.calls.add(method.getName());
+        switch (method.getName()) {
+        case "setStatus":
+            this.status = (Integer)args[0];
+            return null;
+        case "sendError":
+            this.status = (Integer)args[0];
+            this.errorMessage = args.length > 1 ? (String)args[1] : null;
+            return null;
+        case "setHeader":
+        case "addHeader":
+            this.headers.put((String)args[0], (String)args[1]);
+            return null;
+        case "setContentType":
+            this.contentType = (String)args[0];
+            return null;
+        case "setContentLength":
+            this.contentLength = (Integer)args[0];
+            return null;
+        case "getOutputStream":
+            return this.outputStream;
+        case "isCommitted":
+            return Boolean.FALSE;
+        default:
+            return null;
+        }
+    }
+
+    synchronized String getBody() {
+        return new String(this.body.toByteArray());
+    }
+}
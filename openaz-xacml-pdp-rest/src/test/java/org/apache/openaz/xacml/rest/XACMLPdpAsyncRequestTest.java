@@ -0,0 +1,203 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs {@link XACMLPdpAsyncRequest}s through the timeout, full queue and failure paths.
+ */
+public class XACMLPdpAsyncRequestTest {
+    private ExecutorService executor;
+    private RecordingResponse recording;
+    private AsyncListener listener;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final CountDownLatch completion = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newSingleThreadExecutor();
+        this.recording = new RecordingResponse();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    private AsyncContext newAsyncContext() {
+        return (AsyncContext)Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class<?>[] {
+            AsyncContext.class
+        }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("addListener")) {
+                    XACMLPdpAsyncRequestTest.this.listener = (AsyncListener)args[0];
+                } else if (method.getName().equals("complete")) {
+                    XACMLPdpAsyncRequestTest.this.completed.incrementAndGet();
+                    XACMLPdpAsyncRequestTest.this.completion.countDown();
+                }
+                return null;
+            }
+        });
+    }
+
+    private XACMLPdpAsyncRequest newRequest(XACMLPdpAsyncRequest.Work work) {
+        return new XACMLPdpAsyncRequest(this.newAsyncContext(), this.recording.newResponse(), work, 7);
+    }
+
+    private void drain() throws InterruptedException {
+        this.executor.shutdown();
+        assertTrue(this.executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testResponse() throws Exception {
+        this.newRequest(new XACMLPdpAsyncRequest.Work() {
+            @Override
+            public void process(HttpServletResponse response) throws IOException {
+                response.setContentType("application/json");
+                response.getOutputStream().write("{}".getBytes(StandardCharsets.UTF_8));
+            }
+        }).start(this.executor, 5000);
+        assertTrue(this.completion.await(10, TimeUnit.SECONDS));
+        this.drain();
+        assertEquals(HttpServletResponse.SC_OK, this.recording.status);
+        assertEquals("{}", this.recording.getBody());
+        assertNull(this.recording.headers.get("Retry-After"));
+        assertEquals(1, this.completed.get());
+    }
+
+    @Test
+    public void testTimeoutWhileEvaluating() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.newRequest(new XACMLPdpAsyncRequest.Work() {
+            @Override
+            public void process(HttpServletResponse response) throws IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                response.getOutputStream().write("late".getBytes(StandardCharsets.UTF_8));
+            }
+        }).start(this.executor, 5000);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        this.listener.onTimeout(null);
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, this.recording.status);
+        assertEquals("7", this.recording.headers.get("Retry-After"));
+        assertEquals(1, this.completed.get());
+        //
+        // The late response must not reach the recycled response
+        //
+        int calls = this.recording.calls.size();
+        release.countDown();
+        this.drain();
+        assertEquals(calls, this.recording.calls.size());
+        assertEquals("", this.recording.getBody());
+        assertEquals(1, this.completed.get());
+    }
+
+    @Test
+    public void testTimeoutWhileQueued() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        this.newRequest(new XACMLPdpAsyncRequest.Work() {
+            @Override
+            public void process(HttpServletResponse response) {
+                ran.set(true);
+            }
+        }).start(this.executor, 5000);
+        this.listener.onTimeout(null);
+        release.countDown();
+        this.drain();
+        assertFalse(ran.get());
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, this.recording.status);
+        assertEquals(1, this.completed.get());
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        this.executor.shutdown();
+        this.newRequest(new XACMLPdpAsyncRequest.Work() {
+            @Override
+            public void process(HttpServletResponse response) {
+            }
+        }).start(this.executor, 5000);
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, this.recording.status);
+        assertEquals("7", this.recording.headers.get("Retry-After"));
+        assertEquals(1, this.completed.get());
+    }
+
+    @Test
+    public void testWorkFails() throws Exception {
+        this.newRequest(new XACMLPdpAsyncRequest.Work() {
+            @Override
+            public void process(HttpServletResponse response) throws ServletException, IOException {
+                response.setHeader("X-Partial", "true");
+                response.getOutputStream().write("partial".getBytes(StandardCharsets.UTF_8));
+                throw new ServletException("failed");
+            }
+        }).start(this.executor, 5000);
+        assertTrue(this.completion.await(10, TimeUnit.SECONDS));
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, this.recording.status);
+        assertEquals("failed", this.recording.errorMessage);
+        assertNull(this.recording.headers.get("X-Partial"));
+        assertEquals("", this.recording.getBody());
+    }
+}
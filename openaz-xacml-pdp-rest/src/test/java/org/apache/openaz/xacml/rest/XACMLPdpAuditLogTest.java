@@ -0,0 +1,200 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.Result;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdIdReference;
+import org.apache.openaz.xacml.std.StdMutableRequest;
+import org.apache.openaz.xacml.std.StdMutableResponse;
+import org.apache.openaz.xacml.std.StdMutableResult;
+import org.apache.openaz.xacml.std.StdVersion;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes decisions to a {@link XACMLPdpAuditLog} and reads them back.
+ */
+public class XACMLPdpAuditLogTest {
+    private static final byte[] REQUEST = "{\"Request\":{}}".getBytes(StandardCharsets.UTF_8);
+
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("XACMLPdpAuditLogTest");
+        this.file = this.directory.resolve("audit.log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.directory.toFile());
+    }
+
+    private static Response newResponse(Decision decision) throws Exception {
+        StdMutableResult result = new StdMutableResult(decision);
+        result.addPolicyIdentifier(new StdIdReference(new IdentifierImpl("urn:policy:one"), StdVersion
+            .newInstance("1.0")));
+        result.addPolicySetIdentifier(new StdIdReference(new IdentifierImpl("urn:policyset:root"), null));
+        return new StdMutableResponse(result);
+    }
+
+    private List<JsonNode> read(Path path) throws IOException {
+        List<JsonNode> records = new ArrayList<JsonNode>();
+        ObjectMapper mapper = new ObjectMapper();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            records.add(mapper.readTree(line));
+        }
+        return records;
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        XACMLPdpAuditLog auditLog = new XACMLPdpAuditLog(this.file, 16, 1000000, 60000, 2, 0);
+        auditLog.start();
+        auditLog.record(1000, 42, 200, REQUEST, StandardCharsets.UTF_8, newResponse(Decision.PERMIT), null,
+                        false, null);
+        auditLog.record(2000, 0, 400, REQUEST, StandardCharsets.UTF_8, null, "Zero Attributes", true, null);
+        auditLog.shutdown();
+
+        List<JsonNode> records = this.read(this.file);
+        assertEquals(2, records.size());
+        JsonNode record = records.get(0);
+        assertEquals(1000, record.get("timestamp").asLong());
+        assertEquals(200, record.get("status").asInt());
+        assertEquals(42, record.get("latencyMicros").asLong());
+        assertEquals("Permit", record.get("decisions").get(0).asText());
+        assertEquals("urn:policy:one#1.0", record.get("policyIds").get(0).asText());
+        assertEquals("urn:policyset:root", record.get("policyIds").get(1).asText());
+        assertFalse(record.has("request"));
+        record = records.get(1);
+        assertEquals(400, record.get("status").asInt());
+        assertEquals("Zero Attributes", record.get("error").asText());
+        assertEquals("{\"Request\":{}}", record.get("request").asText());
+        assertEquals(record.get("requestHash"), records.get(0).get("requestHash"));
+    }
+
+    @Test
+    public void testRequestCharset() throws Exception {
+        String request = "{\"Request\":{\"AccessSubject\":{\"Attribute\":[{\"Value\":\"Jürgen\"}]}}}";
+        XACMLPdpAuditLog auditLog = new XACMLPdpAuditLog(this.file, 16, 1000000, 60000, 2, 0);
+        auditLog.start();
+        auditLog.record(1000, 0, 400, request.getBytes(StandardCharsets.ISO_8859_1),
+                        StandardCharsets.ISO_8859_1, null, "failed", true, null);
+        auditLog.shutdown();
+        assertEquals(request, this.read(this.file).get(0).get("request").asText());
+    }
+
+    @Test
+    public void testRollOver() throws Exception {
+        XACMLPdpAuditLog auditLog = new XACMLPdpAuditLog(this.file, 16, 1, 60000, 2, 0);
+        auditLog.start();
+        for (int i = 0; i < 4; i++) {
+            auditLog.record(i, 0, 200, REQUEST, StandardCharsets.UTF_8, newResponse(Decision.PERMIT), null,
+                            false, null);
+        }
+        auditLog.shutdown();
+        //
+        // One record per file, the oldest one is gone
+        //
+        assertEquals(3, this.read(this.file).get(0).get("timestamp").asLong());
+        assertEquals(2, this.read(this.directory.resolve("audit.log.1")).get(0).get("timestamp").asLong());
+        assertEquals(1, this.read(this.directory.resolve("audit.log.2")).get(0).get("timestamp").asLong());
+        assertFalse(Files.exists(this.directory.resolve("audit.log.3")));
+    }
+
+    @Test
+    public void testRollOverFails() throws Exception {
+        //
+        // The file cannot be moved onto a directory that is not empty
+        //
+        Files.createDirectories(this.directory.resolve("audit.log.1").resolve("blocked"));
+        XACMLPdpAuditLog auditLog = new XACMLPdpAuditLog(this.file, 16, 1, 60000, 1, 0);
+        auditLog.start();
+        for (int i = 0; i < 4; i++) {
+            auditLog.record(i, 0, 200, REQUEST, StandardCharsets.UTF_8, newResponse(Decision.PERMIT), null,
+                            false, null);
+        }
+        auditLog.shutdown();
+        List<JsonNode> records = this.read(this.file);
+        assertEquals(4, records.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, records.get(i).get("timestamp").asLong());
+        }
+    }
+
+    @Test
+    public void testDropped() {
+        XACMLPdpAuditLog auditLog = new XACMLPdpAuditLog(this.file, 2, 1000000, 60000, 2, 0);
+        for (int i = 0; i < 3; i++) {
+            auditLog.record(i, 0, 200, REQUEST, StandardCharsets.UTF_8, null, null, false, null);
+        }
+        assertEquals(1, auditLog.getDropped());
+    }
+
+    @Test
+    public void testKeepPayload() throws Exception {
+        XACMLPdpAuditLog auditLog = new XACMLPdpAuditLog(this.file, 16, 1000000, 60000, 2, 0);
+        assertTrue(auditLog.keepPayload(500, null));
+        assertTrue(auditLog.keepPayload(200, newResponse(Decision.INDETERMINATE)));
+        assertFalse(auditLog.keepPayload(200, newResponse(Decision.PERMIT)));
+        auditLog = new XACMLPdpAuditLog(this.file, 16, 1000000, 60000, 2, 1);
+        assertTrue(auditLog.keepPayload(200, newResponse(Decision.PERMIT)));
+    }
+
+    @Test
+    public void testPolicyIdList() throws Exception {
+        StdMutableRequest request = new StdMutableRequest();
+        Response response = newResponse(Decision.PERMIT);
+        Response sent = XACMLPdpAuditLog.asRequested(request, response);
+        Result result = sent.getResults().iterator().next();
+        assertEquals(Decision.PERMIT, result.getDecision());
+        assertTrue(result.getPolicyIdentifiers().isEmpty());
+        assertTrue(result.getPolicySetIdentifiers().isEmpty());
+        assertEquals(1, response.getResults().iterator().next().getPolicyIdentifiers().size());
+        //
+        // Clients that ask for the list get it
+        //
+        request.setReturnPolicyIdList(true);
+        assertSame(response, XACMLPdpAuditLog.asRequested(request, response));
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.api.pdp.PDPException;
+import org.apache.openaz.xacml.std.StdMutableResponse;
+import org.apache.openaz.xacml.std.StdMutableResult;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+/**
+ * Splits batches with {@link XACMLPdpBatch} and evaluates their items.
+ */
+public class XACMLPdpBatchTest {
+    private static final String XACML_NAMESPACE = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
+
+    private static final String JSON_REQUEST = "{\"Request\":{\"AccessSubject\":{\"Attribute\":[{"
+                                               + "\"AttributeId\":\"urn:oasis:names:tc:xacml:1.0:subject:subject-id\","
+                                               + "\"Value\":\"Julius Hibbert\"}]}}}";
+
+    private static List<byte[]> splitJSON(String batch, int maxItems) throws IOException {
+        return XACMLPdpBatch.splitJSON(batch.getBytes(StandardCharsets.UTF_8), maxItems);
+    }
+
+    private static List<byte[]> splitXML(String batch, int maxItems) throws XMLStreamException {
+        return XACMLPdpBatch.splitXML(batch.getBytes(StandardCharsets.UTF_8), maxItems);
+    }
+
+    private static String toString(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Element parse(byte[] bytes) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(bytes)).getDocumentElement();
+    }
+
+    private static void assertSplitJSONFails(String batch, int maxItems) {
+        try {
+            splitJSON(batch, maxItems);
+            fail("Expected " + batch + " to be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void assertSplitXMLFails(String batch, int maxItems) {
+        try {
+            splitXML(batch, maxItems);
+            fail("Expected " + batch + " to be rejected");
+        } catch (XMLStreamException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSplitJSON() throws Exception {
+        List<byte[]> items = splitJSON(" [ {\"a\":1} ,\n{\"b\":[1,{\"c\":\"]\"}]},{}]", 10);
+        assertEquals(3, items.size());
+        assertEquals("{\"a\":1}", toString(items.get(0)));
+        assertEquals("{\"b\":[1,{\"c\":\"]\"}]}", toString(items.get(1)));
+        assertEquals("{}", toString(items.get(2)));
+        assertTrue(splitJSON("[]", 10).isEmpty());
+    }
+
+    @Test
+    public void testSplitJSONMalformed() {
+        assertSplitJSONFails("", 10);
+        assertSplitJSONFails(JSON_REQUEST, 10);
+        assertSplitJSONFails("[{\"a\":1},", 10);
+        assertSplitJSONFails("[{\"a\":1}", 10);
+        assertSplitJSONFails("[{\"a\":", 10);
+        assertSplitJSONFails("[{\"a\":1}}]", 10);
+        assertSplitJSONFails("[{\"a\" 1}]", 10);
+    }
+
+    @Test
+    public void testSplitJSONLimit() throws Exception {
+        assertEquals(3, splitJSON("[{},{},{}]", 3).size());
+        assertSplitJSONFails("[{},{},{}]", 2);
+        assertSplitJSONFails("[{}]", 0);
+    }
+
+    @Test
+    public void testSplitXML() throws Exception {
+        List<byte[]> items = splitXML("<?xml version=\"1.0\"?><Requests xmlns=\"" + XACML_NAMESPACE + "\""
+                                      + " xmlns:x=\"urn:example\"><Request ReturnPolicyIdList=\"false\"/>"
+                                      + "<!-- comment --><Request><x:Extra>]]&gt;</x:Extra></Request></Requests>",
+                                      10);
+        assertEquals(2, items.size());
+        //
+        // Each item stands on its own, with the namespaces declared on the root
+        //
+        Element request = parse(items.get(0));
+        assertEquals(XACML_NAMESPACE, request.getNamespaceURI());
+        assertEquals("Request", request.getLocalName());
+        assertEquals("false", request.getAttribute("ReturnPolicyIdList"));
+        request = parse(items.get(1));
+        assertEquals(XACML_NAMESPACE, request.getNamespaceURI());
+        Element extra = (Element)request.getFirstChild();
+        assertEquals("urn:example", extra.getNamespaceURI());
+        assertEquals("]]>", extra.getTextContent());
+        assertFalse(toString(items.get(1)).contains("comment"));
+        assertTrue(splitXML("<Requests/>", 10).isEmpty());
+    }
+
+    @Test
+    public void testSplitXMLMalformed() {
+        assertSplitXMLFails("", 10);
+        assertSplitXMLFails("<Requests><Request></Requests>", 10);
+        assertSplitXMLFails("<Requests><Request/>", 10);
+        assertSplitXMLFails("<Requests><Request/></Requests><Requests/>", 10);
+        assertSplitXMLFails("<!DOCTYPE Requests [<!ENTITY e SYSTEM \"file:///etc/passwd\">]>"
+                            + "<Requests><Request>&e;</Request></Requests>", 10);
+    }
+
+    @Test
+    public void testSplitXMLLimit() throws Exception {
+        assertEquals(3, splitXML("<Requests><Request/><Request/><Request/></Requests>", 3).size());
+        assertSplitXMLFails("<Requests><Request/><Request/><Request/></Requests>", 2);
+        assertSplitXMLFails("<Requests><Request/></Requests>", 0);
+    }
+
+    private static PDPEngine newEngine(final Decision decision) {
+        return (PDPEngine)Proxy.newProxyInstance(PDPEngine.class.getClassLoader(), new Class<?>[] {
+            PDPEngine.class
+        }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("decide".equals(method.getName())) {
+                    return new StdMutableResponse(new StdMutableResult(decision));
+                }
+                return null;
+            }
+        });
+    }
+
+    private static List<byte[]> evaluate(XACMLPdpBatch.Decider decider, Object engineLock,
+                                         ExecutorService executor, byte[]... requests) throws Exception {
+        List<XACMLPdpBatch.Item> items = new ArrayList<XACMLPdpBatch.Item>();
+        for (byte[] request : requests) {
+            items.add(new XACMLPdpBatch.Item(request, StandardCharsets.UTF_8, request[0] == '{', null));
+        }
+        return XACMLPdpBatch.evaluate(items, decider, engineLock, executor);
+    }
+
+    @Test
+    public void testItemDecided() throws Exception {
+        final PDPEngine engine = newEngine(Decision.PERMIT);
+        final AtomicReference<byte[]> decided = new AtomicReference<byte[]>();
+        byte[] requestBytes = JSON_REQUEST.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> items = evaluate(new XACMLPdpBatch.Decider() {
+            @Override
+            public PDPEngine getEngine() {
+                return engine;
+            }
+
+            @Override
+            public Response decide(PDPEngine engineIn, Request request, byte[] bytes) throws PDPException {
+                decided.set(bytes);
+                return engineIn.decide(request);
+            }
+        }, new Object(), null, requestBytes);
+        assertArrayEquals(requestBytes, decided.get());
+        String json = toString(items.get(0));
+        assertTrue(json, json.startsWith("{\"Status\":200,\"Response\":"));
+        assertTrue(json, json.contains("Permit"));
+    }
+
+    @Test
+    public void testItemFailures() throws Exception {
+        XACMLPdpBatch.Decider failing = new XACMLPdpBatch.Decider() {
+            @Override
+            public PDPEngine getEngine() {
+                return newEngine(Decision.PERMIT);
+            }
+
+            @Override
+            public Response decide(PDPEngine engine, Request request, byte[] bytes) throws PDPException {
+                throw new PDPException("Decide failed.");
+            }
+        };
+        List<byte[]> items = evaluate(failing, new Object(), null,
+                                      "{\"Request\":".getBytes(StandardCharsets.UTF_8),
+                                      JSON_REQUEST.getBytes(StandardCharsets.UTF_8),
+                                      "<Request".getBytes(StandardCharsets.UTF_8));
+        String json = toString(items.get(0));
+        assertTrue(json, json.startsWith("{\"Status\":400,"));
+        json = toString(items.get(1));
+        assertTrue(json, json.startsWith("{\"Status\":500,"));
+        assertTrue(json, json.contains("Decide failed."));
+        String xml = toString(items.get(2));
+        assertTrue(xml, xml.startsWith("<Item Status=\"400\""));
+    }
+
+    @Test
+    public void testNoEngine() throws Exception {
+        try {
+            evaluate(new XACMLPdpBatch.Decider() {
+                @Override
+                public PDPEngine getEngine() {
+                    return null;
+                }
+
+                @Override
+                public Response decide(PDPEngine engine, Request request, byte[] bytes) {
+                    throw new IllegalStateException();
+                }
+            }, new Object(), null, JSON_REQUEST.getBytes(StandardCharsets.UTF_8));
+            fail("Expected the batch to fail without an engine");
+        } catch (PDPException e) {
+            assertEquals("No engine loaded.", e.getMessage());
+        }
+    }
+
+    /**
+     * A configuration change that arrives in the middle of a batch waits for it, so every request of the
+     * batch is decided by the engine it started with.
+     */
+    @Test
+    public void testReloadDuringBatch() throws Exception {
+        final Object engineLock = new Object();
+        final AtomicReference<PDPEngine> current = new AtomicReference<PDPEngine>(newEngine(Decision.PERMIT));
+        final PDPEngine reloaded = newEngine(Decision.DENY);
+        final AtomicReference<Thread> reload = new AtomicReference<Thread>();
+        XACMLPdpBatch.Decider decider = new XACMLPdpBatch.Decider() {
+            @Override
+            public PDPEngine getEngine() {
+                return current.get();
+            }
+
+            @Override
+            public Response decide(PDPEngine engine, Request request, byte[] bytes) throws PDPException {
+                if (reload.get() == null) {
+                    //
+                    // Load the new configuration the way the servlet's configuration thread does
+                    //
+                    Thread thread = new Thread() {
+                        @Override
+                        public void run() {
+                            synchronized (engineLock) {
+                                current.set(reloaded);
+                            }
+                        }
+                    };
+                    reload.set(thread);
+                    thread.start();
+                    while (thread.getState() != Thread.State.BLOCKED) {
+                        Thread.yield();
+                    }
+                }
+                return engine.decide(request);
+            }
+        };
+        byte[][] requests = new byte[8][];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = JSON_REQUEST.getBytes(StandardCharsets.UTF_8);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (byte[] item : evaluate(decider, engineLock, executor, requests)) {
+                String json = toString(item);
+                assertTrue(json, json.startsWith("{\"Status\":200,"));
+                assertTrue(json, json.contains("Permit"));
+            }
+            reload.get().join();
+            assertSame(reloaded, current.get());
+            for (byte[] item : evaluate(decider, engineLock, executor, requests)) {
+                String json = toString(item);
+                assertTrue(json, json.contains("Deny"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link XACMLPdpBufferedResponse} holds everything back until it is committed.
+ */
+public class XACMLPdpBufferedResponseTest {
+
+    @Test
+    public void testNothingSentUntilCommit() throws Exception {
+        RecordingResponse recording = new RecordingResponse();
+        XACMLPdpBufferedResponse response = new XACMLPdpBufferedResponse(recording.newResponse());
+        response.setHeader("Cache-Control", "no-cache");
+        response.setContentType("application/json");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getOutputStream().write("{\"Response\":".getBytes(StandardCharsets.UTF_8));
+        PrintWriter writer = response.getWriter();
+        writer.print("[]}");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.flushBuffer();
+        assertTrue(recording.calls.toString(), recording.calls.isEmpty());
+
+        response.commit();
+        assertEquals(HttpServletResponse.SC_OK, recording.status);
+        assertEquals("no-cache", recording.headers.get("Cache-Control"));
+        assertEquals("application/json", recording.contentType);
+        assertEquals("{\"Response\":[]}", recording.getBody());
+        assertEquals(recording.body.size(), recording.contentLength);
+    }
+
+    @Test
+    public void testSendError() throws Exception {
+        RecordingResponse recording = new RecordingResponse();
+        XACMLPdpBufferedResponse response = new XACMLPdpBufferedResponse(recording.newResponse());
+        response.setHeader("Cache-Control", "no-cache");
+        response.getOutputStream().write('x');
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "no content-type given");
+        assertTrue(recording.calls.isEmpty());
+
+        response.commit();
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, recording.status);
+        assertEquals("no content-type given", recording.errorMessage);
+        assertEquals("no-cache", recording.headers.get("Cache-Control"));
+        assertEquals("", recording.getBody());
+    }
+
+    @Test
+    public void testSetHeaderReplaces() throws Exception {
+        RecordingResponse recording = new RecordingResponse();
+        XACMLPdpBufferedResponse response = new XACMLPdpBufferedResponse(recording.newResponse());
+        response.addHeader("Retry-After", "1");
+        response.setHeader("retry-after", "5");
+        response.commit();
+        assertEquals(1, recording.headers.size());
+        assertEquals("5", recording.headers.get("retry-after"));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        RecordingResponse recording = new RecordingResponse();
+        XACMLPdpBufferedResponse response = new XACMLPdpBufferedResponse(recording.newResponse());
+        response.setHeader("X-Partial", "true");
+        response.getOutputStream().write("partial".getBytes(StandardCharsets.UTF_8));
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        response.reset();
+        response.getWriter().print("complete");
+
+        response.commit();
+        assertEquals(HttpServletResponse.SC_OK, recording.status);
+        assertNull(recording.headers.get("X-Partial"));
+        assertEquals("complete", recording.getBody());
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics;
+import org.apache.openaz.xacml.std.StdMutableRequest;
+import org.apache.openaz.xacml.std.StdMutableResponse;
+import org.apache.openaz.xacml.std.StdMutableResult;
+import org.apache.openaz.xacml.std.metrics.PDPMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Replays requests with a {@link XACMLPdpWarmup} against a stub engine.
+ */
+public class XACMLPdpWarmupTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("XACMLPdpWarmupTest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.directory.toFile());
+        PDPMetrics.getInstance().setEnabled(false);
+        PDPMetrics.getInstance().reset();
+        EvaluationStatistics.getInstance().setSampleInterval(0);
+    }
+
+    /*
+     * An engine that counts its decisions, and records a Permit in the metrics and the sampling of its
+     * request in sampled the way the OpenAZPDPEngine would.
+     */
+    private static PDPEngine newEngine(final AtomicInteger decisions, final AtomicInteger sampled) {
+        return (PDPEngine)Proxy.newProxyInstance(PDPEngine.class.getClassLoader(), new Class<?>[] {
+            PDPEngine.class
+        }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (!method.getName().equals("decide")) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                decisions.incrementAndGet();
+                PDPMetrics.getInstance().recordDecision(Decision.PERMIT);
+                EvaluationStatistics evaluationStatistics = EvaluationStatistics.getInstance();
+                evaluationStatistics.startRequest();
+                if (evaluationStatistics.isSampled()) {
+                    sampled.incrementAndGet();
+                }
+                evaluationStatistics.endRequest();
+                return new StdMutableResponse(new StdMutableResult(Decision.PERMIT));
+            }
+        });
+    }
+
+    private static List<Request> newRequests(int count) {
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new StdMutableRequest());
+        }
+        return requests;
+    }
+
+    @Test
+    public void testLoadRequests() throws Exception {
+        String xml = "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\""
+                     + " CombinedDecision=\"false\" ReturnPolicyIdList=\"false\">"
+                     + "<Attributes Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:action\"/>"
+                     + "</Request>";
+        Files.write(this.directory.resolve("b.xml"), xml.getBytes(StandardCharsets.UTF_8));
+        Files.write(this.directory.resolve("a.json"), "{\"Request\":{}}".getBytes(StandardCharsets.UTF_8));
+        Files.write(this.directory.resolve("c.json"), "not json".getBytes(StandardCharsets.UTF_8));
+        Files.write(this.directory.resolve("d.txt"), "{\"Request\":{}}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, XACMLPdpWarmup.loadRequests(this.directory).size());
+    }
+
+    @Test
+    public void testRecentRequests() {
+        List<Request> recorded = newRequests(1);
+        XACMLPdpWarmup warmup = new XACMLPdpWarmup(recorded, 2, 1, 10000);
+        assertEquals(recorded, warmup.getRequests());
+        List<Request> recent = newRequests(3);
+        for (Request request : recent) {
+            warmup.record(request);
+        }
+        //
+        // The oldest recent request has been overwritten
+        //
+        List<Request> requests = warmup.getRequests();
+        assertEquals(3, requests.size());
+        assertSame(recorded.get(0), requests.get(0));
+        assertTrue(containsSame(requests, recent.get(1)));
+        assertTrue(containsSame(requests, recent.get(2)));
+        assertFalse(containsSame(requests, recent.get(0)));
+    }
+
+    private static boolean containsSame(List<Request> requests, Request request) {
+        for (Request requestElement : requests) {
+            if (requestElement == request) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testPasses() {
+        AtomicInteger decisions = new AtomicInteger();
+        PDPEngine engine = newEngine(decisions, new AtomicInteger());
+        new XACMLPdpWarmup(newRequests(2), 0, 3, 10000).warmUp(engine, new Object());
+        assertEquals(6, decisions.get());
+
+        decisions.set(0);
+        new XACMLPdpWarmup(newRequests(2), 0, 3, 0).warmUp(engine, new Object());
+        assertEquals(0, decisions.get());
+    }
+
+    @Test
+    public void testHoldsEngineLock() {
+        //
+        // The engine being warmed up shares PIP engines with the one in service
+        //
+        final Object engineLock = new Object();
+        final AtomicInteger unlocked = new AtomicInteger();
+        ClassLoader classLoader = PDPEngine.class.getClassLoader();
+        PDPEngine engine = (PDPEngine)Proxy.newProxyInstance(classLoader, new Class<?>[] {
+            PDPEngine.class
+        }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (!Thread.holdsLock(engineLock)) {
+                    unlocked.incrementAndGet();
+                }
+                return new StdMutableResponse(new StdMutableResult(Decision.PERMIT));
+            }
+        });
+        new XACMLPdpWarmup(newRequests(2), 0, 2, 10000).warmUp(engine, engineLock);
+        assertEquals(0, unlocked.get());
+        assertFalse(Thread.holdsLock(engineLock));
+    }
+
+    @Test
+    public void testNotRecorded() throws Exception {
+        PDPMetrics metrics = PDPMetrics.getInstance();
+        metrics.reset();
+        metrics.setEnabled(true);
+        EvaluationStatistics.getInstance().setSampleInterval(1);
+        AtomicInteger decisions = new AtomicInteger();
+        AtomicInteger sampled = new AtomicInteger();
+        PDPEngine engine = newEngine(decisions, sampled);
+        new XACMLPdpWarmup(newRequests(2), 0, 1, 10000).warmUp(engine, new Object());
+        assertEquals(2, decisions.get());
+        assertEquals(0, sampled.get());
+        assertEquals(0, metrics.getDecisionCount(Decision.PERMIT));
+        //
+        // Requests after the warm-up are recorded again
+        //
+        engine.decide(new StdMutableRequest());
+        assertEquals(1, sampled.get());
+        assertEquals(1, metrics.getDecisionCount(Decision.PERMIT));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.rest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.api.pip.PIPEngine;
+import org.apache.openaz.xacml.api.pip.PIPException;
+import org.apache.openaz.xacml.api.pip.PIPFinder;
+import org.apache.openaz.xacml.api.pip.PIPRequest;
+import org.apache.openaz.xacml.api.pip.PIPResponse;
+import org.apache.openaz.xacml.std.pip.StdPIPRequest;
+import org.apache.openaz.xacml.std.pip.engines.StdConfigurableEngine;
+import org.apache.openaz.xacml.util.XACMLProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests carrying PIP engines over from one configuration to the next with {@link XACMLPdpPIPEngineFinder}.
+ */
+public class XACMLPdpPIPEngineFinderTest {
+
+    /*
+     * An engine that remembers whether it was closed.
+     */
+    public static class ClosingEngine extends StdConfigurableEngine implements AutoCloseable {
+        private boolean closed;
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+
+        public boolean isClosed() {
+            return this.closed;
+        }
+
+        @Override
+        public Collection<PIPRequest> attributesRequired() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Collection<PIPRequest> attributesProvided() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public PIPResponse getAttributes(PIPRequest pipRequest, PIPFinder pipFinder) throws PIPException {
+            return null;
+        }
+    }
+
+    private static final Object ENGINE_LOCK = new Object();
+
+    @Before
+    public void setUp() {
+        XACMLPdpPIPEngineFinder.shutdown();
+        XACMLPdpPIPEngineFinder.setEngineLock(ENGINE_LOCK);
+    }
+
+    @After
+    public void tearDown() {
+        XACMLPdpPIPEngineFinder.shutdown();
+        XACMLPdpPIPEngineFinder.setEngineLock(null);
+    }
+
+    private static Properties newProperties() {
+        Properties properties = new Properties();
+        properties.setProperty(XACMLProperties.PROP_PIP_ENGINES, "a,b");
+        properties.setProperty("a.classname", ClosingEngine.class.getName());
+        properties.setProperty("b.classname", ClosingEngine.class.getName());
+        properties.setProperty(XACMLProperties.PROP_ROOTPOLICIES, "root");
+        properties.setProperty("root.file", "root-1.xml");
+        properties.setProperty("shared.url", "jdbc:one");
+        return properties;
+    }
+
+    private static ClosingEngine getEngine(Properties properties, String name) throws PIPException {
+        XACMLPdpPIPEngineFinder finder = new XACMLPdpPIPEngineFinder();
+        finder.configure(properties);
+        for (PIPEngine engine : finder.getPIPEngines()) {
+            if (name.equals(engine.getName())) {
+                return (ClosingEngine)engine;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testUnchangedEngineIsReused() throws Exception {
+        Properties properties = newProperties();
+        ClosingEngine a = getEngine(properties, "a");
+        ClosingEngine b = getEngine(properties, "b");
+
+        properties.setProperty("root.file", "root-2.xml");
+        properties.setProperty("b.description", "changed");
+        assertSame(a, getEngine(properties, "a"));
+        ClosingEngine newB = getEngine(properties, "b");
+        assertNotSame(b, newB);
+
+        assertFalse(b.isClosed());
+        XACMLPdpPIPEngineFinder.closeRetired();
+        assertTrue(b.isClosed());
+        assertFalse(a.isClosed());
+        assertFalse(newB.isClosed());
+    }
+
+    @Test
+    public void testSharedPropertyChangeReconfigures() throws Exception {
+        Properties properties = newProperties();
+        ClosingEngine a = getEngine(properties, "a");
+
+        properties.setProperty("shared.url", "jdbc:two");
+        ClosingEngine newA = getEngine(properties, "a");
+        assertNotSame(a, newA);
+        XACMLPdpPIPEngineFinder.closeRetired();
+        assertTrue(a.isClosed());
+    }
+
+    @Test
+    public void testDroppedEngineIsClosed() throws Exception {
+        Properties properties = newProperties();
+        ClosingEngine a = getEngine(properties, "a");
+        ClosingEngine b = getEngine(properties, "b");
+
+        properties.setProperty(XACMLProperties.PROP_PIP_ENGINES, "a");
+        properties.remove("b.classname");
+        assertSame(a, getEngine(properties, "a"));
+        XACMLPdpPIPEngineFinder.closeRetired();
+        assertTrue(b.isClosed());
+        assertFalse(a.isClosed());
+
+        XACMLPdpPIPEngineFinder.shutdown();
+        assertTrue(a.isClosed());
+        assertEquals(null, getEngine(new Properties(), "a"));
+    }
+
+    @Test
+    public void testCalledHoldingEngineLock() throws Exception {
+        XACMLPdpPIPEngineFinder finder = new XACMLPdpPIPEngineFinder();
+        finder.configure(newProperties());
+        PIPRequest pipRequest = new StdPIPRequest(XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE,
+                                                  XACML3.ID_RESOURCE_RESOURCE_ID, XACML3.ID_DATATYPE_STRING);
+        try {
+            finder.getAttributes(pipRequest, null);
+            fail("Shared PIP engines were called without the engine lock");
+        } catch (PIPException e) {
+            //
+            // Expected
+            //
+        }
+        synchronized (ENGINE_LOCK) {
+            assertTrue(finder.getAttributes(pipRequest, null).getAttributes().isEmpty());
+        }
+    }
+
+    @Test
+    public void testNotReusedWithoutEngineLock() throws Exception {
+        XACMLPdpPIPEngineFinder.setEngineLock(null);
+        Properties properties = newProperties();
+        ClosingEngine a = getEngine(properties, "a");
+        assertNotSame(a, getEngine(properties, "a"));
+
+        XACMLPdpPIPEngineFinder finder = new XACMLPdpPIPEngineFinder();
+        finder.configure(properties);
+        PIPRequest pipRequest = new StdPIPRequest(XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE,
+                                                  XACML3.ID_RESOURCE_RESOURCE_ID, XACML3.ID_DATATYPE_STRING);
+        assertTrue(finder.getAttributes(pipRequest, null).getAttributes().isEmpty());
+    }
+}
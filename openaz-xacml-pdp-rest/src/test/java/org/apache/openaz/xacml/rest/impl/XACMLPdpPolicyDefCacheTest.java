@@ -0,0 +1,109 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.rest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reusing unchanged policies across loads with {@link XACMLPdpPolicyDefCache}.
+ */
+public class XACMLPdpPolicyDefCacheTest {
+    private static final String POLICY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicyId=\"urn:test:policy\""
+        + " Version=\"1.0\""
+        + " RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:permit-overrides\">\n"
+        + "  <Description>DESCRIPTION</Description>\n"
+        + "  <Target/>\n"
+        + "  <Rule RuleId=\"urn:test:rule\" Effect=\"Permit\"/>\n"
+        + "</Policy>\n";
+
+    private static final String POLICYSET = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<PolicySet xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicySetId=\"urn:test:set\""
+        + " Version=\"1.0\""
+        + " PolicyCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:deny-overrides\">\n"
+        + "  <Target/>\n"
+        + "  <PolicyIdReference>urn:test:policy</PolicyIdReference>\n"
+        + "</PolicySet>\n";
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("XACMLPdpPolicyDefCacheTest");
+        XACMLPdpPolicyDefCache.clear();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.directory.toFile());
+        XACMLPdpPolicyDefCache.clear();
+    }
+
+    private File write(String name, String xml) throws IOException {
+        Path file = this.directory.resolve(name);
+        Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+        return file.toFile();
+    }
+
+    @Test
+    public void testUnchangedPolicyIsReused() throws Exception {
+        File file = write("policy.xml", POLICY);
+        PolicyDef first = XACMLPdpPolicyDefCache.load("policy", file, null);
+        assertSame(first, XACMLPdpPolicyDefCache.load("policy", file, null));
+
+        write("policy.xml", POLICY.replace("DESCRIPTION", "CHANGED"));
+        PolicyDef changed = XACMLPdpPolicyDefCache.load("policy", file, null);
+        assertNotSame(first, changed);
+        assertEquals("CHANGED", changed.getDescription());
+        assertSame(changed, XACMLPdpPolicyDefCache.load("policy", file, null));
+    }
+
+    @Test
+    public void testRemovedPolicyIsDropped() throws Exception {
+        File file = write("policy.xml", POLICY);
+        PolicyDef first = XACMLPdpPolicyDefCache.load("policy", file, null);
+
+        XACMLPdpPolicyDefCache.retainAll(Collections.singleton("other"));
+        assertNotSame(first, XACMLPdpPolicyDefCache.load("policy", file, null));
+    }
+
+    @Test
+    public void testPolicySetWithReferenceIsNotShared() throws Exception {
+        File file = write("set.xml", POLICYSET);
+        PolicyDef first = XACMLPdpPolicyDefCache.load("set", file, null);
+        assertNotSame(first, XACMLPdpPolicyDefCache.load("set", file, null));
+    }
+}
@@ -39,23 +39,29 @@ import org.apache.openaz.xacml.api.XACML3;
 import org.apache.openaz.xacml.api.pdp.PDPEngine;
 import org.apache.openaz.xacml.api.pdp.PDPException;
 import org.apache.openaz.xacml.api.pdp.ScopeResolver;
+import org.apache.openaz.xacml.api.trace.ScopedTraceEngine;
 import org.apache.openaz.xacml.api.trace.TraceEngine;
 import org.apache.openaz.xacml.api.trace.TraceEngineFactory;
 import org.apache.openaz.xacml.api.trace.Traceable;
+import org.apache.openaz.xacml.pdp.cache.DecisionCache;
 import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
 import org.apache.openaz.xacml.pdp.eval.EvaluationContextFactory;
 import org.apache.openaz.xacml.pdp.eval.EvaluationException;
 import org.apache.openaz.xacml.pdp.policy.PolicyDef;
 import org.apache.openaz.xacml.pdp.policy.PolicyFinderResult;
+import org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics;
 import org.apache.openaz.xacml.std.StdIndividualDecisionRequestGenerator;
 import org.apache.openaz.xacml.std.StdMutableResponse;
 import org.apache.openaz.xacml.std.StdMutableResult;
 import org.apache.openaz.xacml.std.StdResult;
 import org.apache.openaz.xacml.std.StdStatus;
 import org.apache.openaz.xacml.std.StdStatusCode;
+import org.apache.openaz.xacml.std.metrics.PDPMetrics;
 import org.apache.openaz.xacml.std.trace.StdTraceEvent;
 import org.apache.openaz.xacml.util.FactoryException;
 
+import com.google.common.hash.HashCode;
+
 /**
  * ATTPDPEngine implements the {@link org.apache.openaz.xacml.api.pdp.PDPEngine} interface using the XACML 3.0
  * specification.
@@ -90,6 +96,7 @@ public class OpenAZPDPEngine implements PDPEngine, Traceable {
     private Decision defaultDecision = Decision.INDETERMINATE;
     private ScopeResolver scopeResolver;
     private TraceEngine traceEngine;
+    private DecisionCache decisionCache;
     private Log logger = LogFactory.getLog(this.getClass());
 
     protected TraceEngine getTraceEngine() {
@@ -120,9 +127,25 @@ public class OpenAZPDPEngine implements PDPEngine, Traceable {
         this.defaultDecision = defaultDecisionIn;
     }
 
+    /**
+     * Gets the {@link org.apache.openaz.xacml.pdp.cache.DecisionCache} in front of this engine, if any.
+     *
+     * @return the <code>DecisionCache</code> or null if decisions are not cached
+     */
+    public DecisionCache getDecisionCache() {
+        return this.decisionCache;
+    }
+
+    public void setDecisionCache(DecisionCache decisionCacheIn) {
+        this.decisionCache = decisionCacheIn;
+    }
+
     protected Result processRequest(EvaluationContext evaluationContext) {
+        PDPMetrics metrics = PDPMetrics.getInstance();
         try {
+            long startNanos = metrics.start();
             PolicyFinderResult<PolicyDef> policyFinderResult = evaluationContext.getRootPolicyDef();
+            metrics.record(PDPMetrics.Stage.ROOT_POLICY, startNanos);
             if (policyFinderResult.getStatus() != null && !policyFinderResult.getStatus().isOk()) {
                 return new StdMutableResult(policyFinderResult.getStatus());
             }
@@ -144,7 +167,9 @@ public class OpenAZPDPEngine implements PDPEngine, Traceable {
                                                               "No applicable policy"));
                 }
             }
-            Result result = policyDefRoot.evaluate(evaluationContext);
+            startNanos = metrics.start();
+            Result result = EvaluationStatistics.evaluate(policyDefRoot, evaluationContext);
+            metrics.record(PDPMetrics.Stage.COMBINING, startNanos);
             if (result.getStatus().isOk()) {
                 Collection<AttributeCategory> listRequestAttributesIncludeInResult = evaluationContext
                     .getRequest().getRequestAttributesIncludedInResult();
@@ -164,6 +189,46 @@ public class OpenAZPDPEngine implements PDPEngine, Traceable {
 
     @Override
     public Response decide(Request pepRequest) throws PDPException {
+        PDPMetrics metrics = PDPMetrics.getInstance();
+        long startNanos = metrics.start();
+        TraceEngine traceEngineThis = this.getTraceEngine();
+        ScopedTraceEngine scopedTraceEngine = traceEngineThis instanceof ScopedTraceEngine
+            ? (ScopedTraceEngine)traceEngineThis : null;
+        if (scopedTraceEngine != null) {
+            scopedTraceEngine.startRequest();
+        }
+        EvaluationStatistics evaluationStatistics = EvaluationStatistics.getInstance();
+        evaluationStatistics.startRequest();
+        Response response = null;
+        boolean failed = true;
+        try {
+            response = this.decideRequest(pepRequest);
+            if (traceEngineThis.isTracing()) {
+                traceEngineThis.trace(new StdTraceEvent<Response>("Output Response", this, response));
+            }
+            failed = false;
+        } finally {
+            evaluationStatistics.endRequest();
+            if (scopedTraceEngine != null) {
+                scopedTraceEngine.endRequest();
+            }
+            //
+            // Decisions that throw are timed too, and counted apart from the decisions of the results
+            //
+            metrics.record(PDPMetrics.Stage.DECIDE, startNanos);
+            if (failed) {
+                metrics.recordFailure();
+            }
+        }
+        if (metrics.isEnabled() && response != null && response.getResults() != null) {
+            for (Result result : response.getResults()) {
+                metrics.recordDecision(result.getDecision());
+            }
+        }
+        return response;
+    }
+
+    private Response decideRequest(Request pepRequest) throws PDPException {
         /*
          * Validate the request
          */
@@ -176,9 +241,48 @@ public class OpenAZPDPEngine implements PDPEngine, Traceable {
             return new StdMutableResponse(statusRequest);
         }
 
+        /*
+         * If there is a decision cache, see if we have already answered this request
+         */
+        DecisionCache decisionCacheThis = this.decisionCache;
+        if (decisionCacheThis == null) {
+            return this.evaluateRequest(pepRequest, null);
+        }
+        HashCode cacheKey = decisionCacheThis.getKey(pepRequest,
+                                                     this.evaluationContextFactory.getPolicyGeneration());
+        Response responseCached = decisionCacheThis.get(cacheKey);
+        if (responseCached != null) {
+            if (traceEngineThis.isTracing()) {
+                traceEngineThis.trace(new StdTraceEvent<Response>("Cached Response", this, responseCached));
+            }
+            return responseCached;
+        }
+        if (cacheKey == null) {
+            return this.evaluateRequest(pepRequest, null);
+        }
+        DecisionCache.Recording recording = decisionCacheThis.newRecording();
+        return decisionCacheThis.put(cacheKey, this.evaluateRequest(pepRequest, recording), recording);
+    }
+
+    /**
+     * Evaluates the given <code>Request</code> against the policies without consulting the
+     * {@link org.apache.openaz.xacml.pdp.cache.DecisionCache}.
+     *
+     * @param pepRequest the <code>Request</code> to evaluate
+     * @param recording the <code>DecisionCache.Recording</code> to wrap each <code>EvaluationContext</code>
+     *            in, or null if the result will not be cached
+     * @return the <code>Response</code> for the <code>Request</code>
+     * @throws PDPException if there is an error evaluating the <code>Request</code>
+     */
+    protected Response evaluateRequest(Request pepRequest, DecisionCache.Recording recording)
+        throws PDPException {
+        TraceEngine traceEngineThis = this.getTraceEngine();
+        PDPMetrics metrics = PDPMetrics.getInstance();
+
         /*
          * Split the original request up into individual decision requests
          */
+        long startNanos = metrics.start();
         StdIndividualDecisionRequestGenerator stdIndividualDecisionRequestGenerator = new StdIndividualDecisionRequestGenerator(
                                                                                                                                 this.scopeResolver,
                                                                                                                                 pepRequest);
@@ -195,6 +299,7 @@ public class OpenAZPDPEngine implements PDPEngine, Traceable {
         StdMutableResponse stdResponse = new StdMutableResponse();
         Iterator<Request> iterRequestsIndividualDecision = stdIndividualDecisionRequestGenerator
             .getIndividualDecisionRequests();
+        metrics.record(PDPMetrics.Stage.REQUEST_GENERATION, startNanos);
         if (iterRequestsIndividualDecision == null || !iterRequestsIndividualDecision.hasNext()) {
             return new StdMutableResponse(new StdStatus(StdStatusCode.STATUS_CODE_PROCESSING_ERROR,
                                                         "No individual decision requests"));
@@ -216,6 +321,9 @@ public class OpenAZPDPEngine implements PDPEngine, Traceable {
                 if (evaluationContext == null) {
                     resultIndividualDecision = RESULT_ECTX_NULL;
                 } else {
+                    if (recording != null) {
+                        evaluationContext = recording.wrap(evaluationContext);
+                    }
                     resultIndividualDecision = this.processRequest(evaluationContext);
                 }
             }
@@ -26,8 +26,13 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.openaz.xacml.api.pdp.PDPEngine;
 import org.apache.openaz.xacml.api.pdp.PDPEngineFactory;
+import org.apache.openaz.xacml.pdp.cache.DecisionCache;
 import org.apache.openaz.xacml.pdp.eval.EvaluationContextFactory;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
 import org.apache.openaz.xacml.util.FactoryException;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+import com.google.common.base.Splitter;
 
 /**
  * OpenAZPDPEngineFactory extends {@link org.apache.openaz.xacml.api.pdp.PDPEngineFactory} by implementing the
@@ -35,6 +40,9 @@ import org.apache.openaz.xacml.util.FactoryException;
  * policies and PIP instances based on configuration information provided to the factory.
  */
 public class OpenAZPDPEngineFactory extends PDPEngineFactory {
+    private static final String DEFAULT_DECISIONCACHE_MAXSIZE = "10000";
+    private static final String DEFAULT_DECISIONCACHE_TTL = "60000";
+
     private Log logger = LogFactory.getLog(this.getClass());
 
     public OpenAZPDPEngineFactory() {
@@ -47,7 +55,10 @@ public class OpenAZPDPEngineFactory extends PDPEngineFactory {
             this.logger.error("Null EvaluationContextFactory");
             throw new FactoryException("Null EvaluationContextFactory");
         }
-        return new OpenAZPDPEngine(evaluationContextFactory, this.getDefaultBehavior(), this.getScopeResolver());
+        OpenAZPDPEngine engine = new OpenAZPDPEngine(evaluationContextFactory, this.getDefaultBehavior(),
+                                                     this.getScopeResolver());
+        engine.setDecisionCache(this.newDecisionCache(null));
+        return engine;
     }
 
     @Override
@@ -57,6 +68,49 @@ public class OpenAZPDPEngineFactory extends PDPEngineFactory {
             this.logger.error("Null EvaluationContextFactory");
             throw new FactoryException("Null EvaluationContextFactory");
         }
-        return new OpenAZPDPEngine(evaluationContextFactory, this.getDefaultBehavior(), this.getScopeResolver());
+        OpenAZPDPEngine engine = new OpenAZPDPEngine(evaluationContextFactory, this.getDefaultBehavior(),
+                                                     this.getScopeResolver());
+        engine.setDecisionCache(this.newDecisionCache(properties));
+        return engine;
+    }
+
+    private static String getProperty(Properties properties, String propertyName, String defaultValue) {
+        if (properties == null) {
+            return XACMLProperties.getProperty(propertyName, defaultValue);
+        }
+        return properties.getProperty(propertyName, defaultValue);
+    }
+
+    /**
+     * Creates the {@link org.apache.openaz.xacml.pdp.cache.DecisionCache} for a new engine if one is enabled
+     * by the <code>xacml.openaz.decisionCache</code> property.
+     *
+     * @param properties the <code>Properties</code> to configure from, or null to use the
+     *            <code>XACMLProperties</code>
+     * @return a new <code>DecisionCache</code> or null if decision caching is disabled
+     * @throws FactoryException if the decision cache properties are invalid
+     */
+    protected DecisionCache newDecisionCache(Properties properties) throws FactoryException {
+        if (!Boolean.parseBoolean(getProperty(properties, OpenAZPDPProperties.PROP_DECISIONCACHE, "false"))) {
+            return null;
+        }
+        try {
+            long maxSize = Long.parseLong(getProperty(properties, OpenAZPDPProperties.PROP_DECISIONCACHE_MAXSIZE,
+                                                      DEFAULT_DECISIONCACHE_MAXSIZE));
+            long ttl = Long.parseLong(getProperty(properties, OpenAZPDPProperties.PROP_DECISIONCACHE_TTL,
+                                                  DEFAULT_DECISIONCACHE_TTL));
+            long volatileTtl = Long.parseLong(getProperty(properties,
+                                                          OpenAZPDPProperties.PROP_DECISIONCACHE_VOLATILETTL,
+                                                          "0"));
+            String volatileEngines = getProperty(properties,
+                                                 OpenAZPDPProperties.PROP_DECISIONCACHE_VOLATILEENGINES, "");
+            this.logger.info("Decision cache enabled, maxSize=" + maxSize + " ttl=" + ttl + " volatileTtl="
+                             + volatileTtl + " volatileEngines=" + volatileEngines);
+            return new DecisionCache(maxSize, ttl, volatileTtl, Splitter.on(',').trimResults()
+                .omitEmptyStrings().splitToList(volatileEngines));
+        } catch (IllegalArgumentException ex) {
+            this.logger.error("Invalid decision cache configuration: " + ex.getMessage(), ex);
+            throw new FactoryException("Invalid decision cache configuration", ex);
+        }
     }
 }
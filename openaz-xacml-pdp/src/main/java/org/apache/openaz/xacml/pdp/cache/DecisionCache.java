@@ -0,0 +1,371 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.pdp.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.openaz.xacml.api.Attribute;
+import org.apache.openaz.xacml.api.AttributeValue;
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.RequestAttributes;
+import org.apache.openaz.xacml.api.RequestAttributesReference;
+import org.apache.openaz.xacml.api.RequestReference;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.Result;
+import org.apache.openaz.xacml.api.pip.PIPEngine;
+import org.apache.openaz.xacml.api.pip.PIPRequest;
+import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
+import org.apache.openaz.xacml.pdp.eval.PolicyIdentifierCollector;
+import org.apache.openaz.xacml.std.StdContent;
+import org.apache.openaz.xacml.std.StdResponse;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * DecisionCache holds complete {@link org.apache.openaz.xacml.api.Response}s keyed on a canonical hash of the
+ * {@link org.apache.openaz.xacml.api.Request} that produced them. A <code>DecisionCache</code> belongs to a
+ * single {@link org.apache.openaz.xacml.pdp.OpenAZPDPEngine}; loading a new engine starts with an empty
+ * cache. Policies that the engine's policy finder replaces in place, see
+ * {@link org.apache.openaz.xacml.pdp.policy.ReplaceablePolicyFinder}, are told apart by their generation,
+ * which is part of the key, and the cache is emptied when a newer generation shows up.
+ * <p>
+ * Requests are canonicalized by sorting their categories, attributes and values, so two requests that only
+ * differ in ordering share an entry. Requests carrying <code>Content</code> are never cached. Decisions that
+ * looked up the current date or time from the environment are never cached, and decisions that retrieved
+ * attributes from a <code>PIPEngine</code> configured as volatile are cached with the shorter volatile time
+ * to live (or not at all if that time to live is zero).
+ */
+public class DecisionCache {
+    /**
+     * Volatility describes how long the decision for a request may be reused.
+     */
+    public enum Volatility {
+        STABLE,
+        VOLATILE,
+        UNCACHEABLE
+    }
+
+    private static final char SEPARATOR = '\u0000';
+    private static final String ANY_ATTRIBUTE = String.valueOf(SEPARATOR);
+
+    private Cache<HashCode, Entry> cache;
+    private long ttl;
+    private long volatileTtl;
+    private Set<String> volatileEngineNames;
+    private volatile Set<String> volatileAttributes;
+
+    private AtomicLong policyGeneration = new AtomicLong();
+    private AtomicLong hitCount = new AtomicLong();
+    private AtomicLong missCount = new AtomicLong();
+    private AtomicLong bypassCount = new AtomicLong();
+
+    private static class Entry {
+        private final Response response;
+        private final long expires;
+
+        Entry(Response responseIn, long expiresIn) {
+            this.response = responseIn;
+            this.expires = expiresIn;
+        }
+    }
+
+    /**
+     * Records the {@link Volatility} of the attributes retrieved while a single decision is being evaluated.
+     * A new <code>Recording</code> is obtained for each call to <code>decide</code>, and every
+     * {@link org.apache.openaz.xacml.pdp.eval.EvaluationContext} used for that decision is wrapped by it.
+     */
+    public class Recording {
+        private Volatility volatility = Volatility.STABLE;
+
+        protected Recording() {
+        }
+
+        public EvaluationContext wrap(EvaluationContext evaluationContext) {
+            return new RecordingEvaluationContext(evaluationContext, this);
+        }
+
+        public Volatility getVolatility() {
+            return this.volatility;
+        }
+
+        protected void record(Volatility volatilityIn) {
+            if (volatilityIn.compareTo(this.volatility) > 0) {
+                this.volatility = volatilityIn;
+            }
+        }
+
+        protected boolean isVolatileAttribute(PIPRequest pipRequest, Collection<PIPEngine> pipEngines) {
+            Set<String> attributes = DecisionCache.this.getVolatileAttributes(pipEngines);
+            return attributes.contains(ANY_ATTRIBUTE)
+                   || attributes.contains(attributeKey(pipRequest.getCategory(), pipRequest.getAttributeId()));
+        }
+    }
+
+    /**
+     * Creates a new <code>DecisionCache</code>.
+     *
+     * @param maximumSize the maximum number of decisions held
+     * @param ttlMillis the number of milliseconds a stable decision may be reused
+     * @param volatileTtlMillis the number of milliseconds a decision depending on a volatile
+     *            <code>PIPEngine</code> may be reused, zero to never cache such decisions
+     * @param volatileEngineNamesIn the names of the <code>PIPEngine</code>s whose attributes are volatile
+     */
+    public DecisionCache(long maximumSize, long ttlMillis, long volatileTtlMillis,
+                         Collection<String> volatileEngineNamesIn) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+            .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS).build();
+        this.ttl = ttlMillis;
+        this.volatileTtl = Math.min(volatileTtlMillis, ttlMillis);
+        this.volatileEngineNames = new HashSet<String>();
+        if (volatileEngineNamesIn != null) {
+            this.volatileEngineNames.addAll(volatileEngineNamesIn);
+        }
+    }
+
+    /**
+     * Gets the canonical key for the given <code>Request</code> against policies that are never replaced.
+     *
+     * @param request the <code>Request</code> to compute the key for
+     * @return the <code>HashCode</code> key or null if the <code>Request</code> may not be cached
+     */
+    public HashCode getKey(Request request) {
+        return this.getKey(request, 0);
+    }
+
+    /**
+     * Gets the canonical key for the given <code>Request</code> against the given generation of the policies.
+     * The first key for a newer generation empties the cache, the decisions in it were made against older
+     * policies.
+     *
+     * @param request the <code>Request</code> to compute the key for
+     * @param policyGenerationIn the generation of the policies the <code>Request</code> is evaluated against
+     * @return the <code>HashCode</code> key or null if the <code>Request</code> may not be cached
+     */
+    public HashCode getKey(Request request, long policyGenerationIn) {
+        long policyGenerationLast = this.policyGeneration.get();
+        while (policyGenerationIn > policyGenerationLast) {
+            if (this.policyGeneration.compareAndSet(policyGenerationLast, policyGenerationIn)) {
+                this.cache.invalidateAll();
+                break;
+            }
+            policyGenerationLast = this.policyGeneration.get();
+        }
+        if (request == null || request.getStatus() != null && !request.getStatus().isOk()) {
+            return null;
+        }
+        Collection<RequestAttributes> listRequestAttributes = request.getRequestAttributes();
+        List<String> listCanonical = new ArrayList<String>();
+        if (listRequestAttributes != null) {
+            for (RequestAttributes requestAttributes : listRequestAttributes) {
+                if (StdContent.getContent(requestAttributes) != null) {
+                    return null;
+                }
+                listCanonical.add(canonicalize(requestAttributes));
+            }
+        }
+        Collections.sort(listCanonical);
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putLong(policyGenerationIn);
+        hasher.putBoolean(PolicyIdentifierCollector.includePolicyIdentifiers(request));
+        hasher.putBoolean(request.getCombinedDecision());
+        if (request.getRequestDefaults() != null && request.getRequestDefaults().getXPathVersion() != null) {
+            hasher.putUnencodedChars(request.getRequestDefaults().getXPathVersion().toString());
+        }
+        hasher.putChar(SEPARATOR);
+        for (String canonical : listCanonical) {
+            hasher.putUnencodedChars(canonical).putChar(SEPARATOR);
+        }
+        Collection<RequestReference> listRequestReferences = request.getMultiRequests();
+        if (listRequestReferences != null) {
+            for (RequestReference requestReference : listRequestReferences) {
+                hasher.putChar(SEPARATOR);
+                for (RequestAttributesReference reference : requestReference.getAttributesReferences()) {
+                    hasher.putUnencodedChars(String.valueOf(reference.getReferenceId())).putChar(SEPARATOR);
+                }
+            }
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Gets the cached <code>Response</code> for the given key.
+     *
+     * @param key the <code>HashCode</code> key from <code>getKey</code>
+     * @return the cached <code>Response</code> or null if there is no current entry
+     */
+    public Response get(HashCode key) {
+        if (key == null) {
+            this.bypassCount.incrementAndGet();
+            return null;
+        }
+        Entry entry = this.cache.getIfPresent(key);
+        if (entry != null) {
+            if (entry.expires > System.currentTimeMillis()) {
+                this.hitCount.incrementAndGet();
+                return entry.response;
+            }
+            this.cache.invalidate(key);
+        }
+        this.missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the given <code>Response</code> if the <code>Recording</code> made while computing it allows.
+     * Responses containing a <code>Result</code> with a non-OK status are not cached.
+     *
+     * @param key the <code>HashCode</code> key from <code>getKey</code>
+     * @param response the <code>Response</code> to cache
+     * @param recording the <code>Recording</code> made while computing the <code>Response</code>
+     * @return the <code>Response</code> to return to the caller
+     */
+    public Response put(HashCode key, Response response, Recording recording) {
+        if (key == null || response == null) {
+            return response;
+        }
+        for (Result result : response.getResults()) {
+            if (result.getStatus() != null && !result.getStatus().isOk()) {
+                return response;
+            }
+        }
+        long entryTtl;
+        switch (recording.getVolatility()) {
+        case STABLE:
+            entryTtl = this.ttl;
+            break;
+        case VOLATILE:
+            entryTtl = this.volatileTtl;
+            break;
+        default:
+            entryTtl = 0;
+            break;
+        }
+        if (entryTtl <= 0) {
+            return response;
+        }
+        Response responseCached = new StdResponse(response);
+        this.cache.put(key, new Entry(responseCached, System.currentTimeMillis() + entryTtl));
+        return responseCached;
+    }
+
+    public Recording newRecording() {
+        return new Recording();
+    }
+
+    public void invalidateAll() {
+        this.cache.invalidateAll();
+    }
+
+    public long size() {
+        return this.cache.size();
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getBypassCount() {
+        return this.bypassCount.get();
+    }
+
+    protected Set<String> getVolatileAttributes(Collection<PIPEngine> pipEngines) {
+        if (this.volatileAttributes == null) {
+            synchronized (this) {
+                if (this.volatileAttributes == null) {
+                    Set<String> attributes = new HashSet<String>();
+                    if (pipEngines != null) {
+                        for (PIPEngine pipEngine : pipEngines) {
+                            if (!this.volatileEngineNames.contains(pipEngine.getName())) {
+                                continue;
+                            }
+                            //
+                            // An engine that does not say what it provides may provide anything
+                            //
+                            Collection<PIPRequest> provided = pipEngine.attributesProvided();
+                            if (provided == null || provided.isEmpty()) {
+                                attributes.add(ANY_ATTRIBUTE);
+                                continue;
+                            }
+                            for (PIPRequest pipRequest : provided) {
+                                attributes.add(attributeKey(pipRequest.getCategory(),
+                                                            pipRequest.getAttributeId()));
+                            }
+                        }
+                    }
+                    this.volatileAttributes = attributes;
+                }
+            }
+        }
+        return this.volatileAttributes;
+    }
+
+    private static String attributeKey(Identifier category, Identifier attributeId) {
+        return String.valueOf(category) + SEPARATOR + String.valueOf(attributeId);
+    }
+
+    private static String canonicalize(RequestAttributes requestAttributes) {
+        List<String> listAttributes = new ArrayList<String>();
+        for (Attribute attribute : requestAttributes.getAttributes()) {
+            List<String> listValues = new ArrayList<String>();
+            for (AttributeValue<?> attributeValue : attribute.getValues()) {
+                listValues.add(String.valueOf(attributeValue.getDataTypeId()) + SEPARATOR
+                               + String.valueOf(attributeValue.getXPathCategory()) + SEPARATOR
+                               + String.valueOf(attributeValue.getValue()));
+            }
+            Collections.sort(listValues);
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append(attribute.getAttributeId()).append(SEPARATOR);
+            stringBuilder.append(attribute.getIssuer()).append(SEPARATOR);
+            stringBuilder.append(attribute.getIncludeInResults());
+            for (String value : listValues) {
+                stringBuilder.append(SEPARATOR).append(value);
+            }
+            listAttributes.add(stringBuilder.toString());
+        }
+        Collections.sort(listAttributes);
+
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(requestAttributes.getCategory()).append(SEPARATOR);
+        stringBuilder.append(requestAttributes.getXmlId());
+        for (String attribute : listAttributes) {
+            stringBuilder.append(SEPARATOR).append(SEPARATOR).append(attribute);
+        }
+        return stringBuilder.toString();
+    }
+}
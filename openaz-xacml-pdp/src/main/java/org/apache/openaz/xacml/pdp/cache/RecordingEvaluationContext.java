@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.pdp.cache;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.apache.openaz.xacml.api.IdReferenceMatch;
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.RequestAttributes;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.api.pip.PIPEngine;
+import org.apache.openaz.xacml.api.pip.PIPException;
+import org.apache.openaz.xacml.api.pip.PIPFinder;
+import org.apache.openaz.xacml.api.pip.PIPRequest;
+import org.apache.openaz.xacml.api.pip.PIPResponse;
+import org.apache.openaz.xacml.api.trace.TraceEvent;
+import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.PolicySet;
+
+/**
+ * RecordingEvaluationContext wraps an {@link org.apache.openaz.xacml.pdp.eval.EvaluationContext} and records
+ * into a {@link DecisionCache.Recording} whether the attributes retrieved through it make the decision
+ * volatile or uncacheable.
+ */
+class RecordingEvaluationContext implements EvaluationContext {
+    private EvaluationContext evaluationContext;
+    private DecisionCache.Recording recording;
+
+    RecordingEvaluationContext(EvaluationContext evaluationContextIn, DecisionCache.Recording recordingIn) {
+        this.evaluationContext = evaluationContextIn;
+        this.recording = recordingIn;
+    }
+
+    protected void record(PIPRequest pipRequest) {
+        Identifier category = pipRequest.getCategory();
+        Identifier attributeId = pipRequest.getAttributeId();
+        if (isCurrentDateOrTime(category, attributeId) && !this.isInRequest(category, attributeId)) {
+            this.recording.record(DecisionCache.Volatility.UNCACHEABLE);
+        } else if (this.recording.isVolatileAttribute(pipRequest, this.evaluationContext.getPIPEngines())) {
+            this.recording.record(DecisionCache.Volatility.VOLATILE);
+        }
+    }
+
+    private static boolean isCurrentDateOrTime(Identifier category, Identifier attributeId) {
+        return XACML3.ID_ATTRIBUTE_CATEGORY_ENVIRONMENT.equals(category)
+               && (XACML3.ID_ENVIRONMENT_CURRENT_DATE.equals(attributeId)
+                   || XACML3.ID_ENVIRONMENT_CURRENT_TIME.equals(attributeId) || XACML3.ID_ENVIRONMENT_CURRENT_DATETIME
+                       .equals(attributeId));
+    }
+
+    private boolean isInRequest(Identifier category, Identifier attributeId) {
+        Request request = this.evaluationContext.getRequest();
+        if (request == null) {
+            return false;
+        }
+        Iterator<RequestAttributes> iterRequestAttributes = request.getRequestAttributes(category);
+        while (iterRequestAttributes != null && iterRequestAttributes.hasNext()) {
+            if (iterRequestAttributes.next().hasAttributes(attributeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Request getRequest() {
+        return this.evaluationContext.getRequest();
+    }
+
+    @Override
+    public PolicyFinderResult<PolicyDef> getRootPolicyDef() {
+        return this.evaluationContext.getRootPolicyDef();
+    }
+
+    @Override
+    public PolicyFinderResult<Policy> getPolicy(IdReferenceMatch idReferenceMatch) {
+        return this.evaluationContext.getPolicy(idReferenceMatch);
+    }
+
+    @Override
+    public PolicyFinderResult<PolicySet> getPolicySet(IdReferenceMatch idReferenceMatch) {
+        return this.evaluationContext.getPolicySet(idReferenceMatch);
+    }
+
+    @Override
+    public PIPResponse getAttributes(PIPRequest pipRequest) throws PIPException {
+        this.record(pipRequest);
+        return this.evaluationContext.getAttributes(pipRequest);
+    }
+
+    @Override
+    public PIPResponse getAttributes(PIPRequest pipRequest, PIPEngine exclude) throws PIPException {
+        this.record(pipRequest);
+        return this.evaluationContext.getAttributes(pipRequest, exclude);
+    }
+
+    @Override
+    public PIPResponse getMatchingAttributes(PIPRequest pipRequest, PIPEngine exclude) throws PIPException {
+        this.record(pipRequest);
+        return this.evaluationContext.getMatchingAttributes(pipRequest, exclude);
+    }
+
+    @Override
+    public PIPResponse getAttributes(PIPRequest pipRequest, PIPEngine exclude, PIPFinder pipFinderParent)
+        throws PIPException {
+        this.record(pipRequest);
+        return this.evaluationContext.getAttributes(pipRequest, exclude, pipFinderParent);
+    }
+
+    @Override
+    public PIPResponse getMatchingAttributes(PIPRequest pipRequest, PIPEngine exclude,
+                                             PIPFinder pipFinderParent) throws PIPException {
+        this.record(pipRequest);
+        return this.evaluationContext.getMatchingAttributes(pipRequest, exclude, pipFinderParent);
+    }
+
+    @Override
+    public Collection<PIPEngine> getPIPEngines() {
+        return this.evaluationContext.getPIPEngines();
+    }
+
+    @Override
+    public void trace(TraceEvent<?> traceEvent) {
+        this.evaluationContext.trace(traceEvent);
+    }
+
+    @Override
+    public boolean isTracing() {
+        return this.evaluationContext.isTracing();
+    }
+}
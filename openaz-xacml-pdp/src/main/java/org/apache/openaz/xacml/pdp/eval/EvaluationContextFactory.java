@@ -86,4 +86,15 @@ public abstract class EvaluationContextFactory {
      */
     public abstract void setPIPFinder(PIPFinder pipFinder);
 
+    /**
+     * Gets the generation of the policies new <code>EvaluationContext</code>s are evaluated against. It goes
+     * up each time the policies are replaced, see
+     * {@link org.apache.openaz.xacml.pdp.policy.ReplaceablePolicyFinder#getGeneration()}.
+     *
+     * @return the generation of the current policies, always 0 if they are never replaced
+     */
+    public long getPolicyGeneration() {
+        return 0;
+    }
+
 }
@@ -0,0 +1,70 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.pdp.eval;
+
+import org.apache.openaz.xacml.api.Request;
+
+/**
+ * PolicyIdentifierCollector lets the caller of a PDP find out which policies applied to a request without
+ * changing the request. While it is collecting on the current thread, Policies and PolicySets add their
+ * identifiers to the <code>Result</code>s as if the request had ReturnPolicyIdList set. The caller takes them
+ * out again before the <code>Response</code> goes to a client that did not ask for them.
+ */
+public final class PolicyIdentifierCollector {
+    private static final ThreadLocal<Boolean> collecting = new ThreadLocal<Boolean>();
+
+    private PolicyIdentifierCollector() {
+    }
+
+    /**
+     * Starts collecting policy identifiers for the requests decided on the current thread. Must be followed
+     * by a call to {@link #end()} on the same thread.
+     */
+    public static void begin() {
+        collecting.set(Boolean.TRUE);
+    }
+
+    /**
+     * Stops collecting policy identifiers on the current thread.
+     */
+    public static void end() {
+        collecting.remove();
+    }
+
+    /**
+     * @return true if policy identifiers are being collected on the current thread
+     */
+    public static boolean isCollecting() {
+        return collecting.get() != null;
+    }
+
+    /**
+     * Determines whether the <code>Result</code>s for the given <code>Request</code> list the policies that
+     * applied, either because it asked for them or because they are being collected.
+     *
+     * @param request the <code>Request</code> being decided
+     * @return true if policy identifiers are added to the <code>Result</code>s
+     */
+    public static boolean includePolicyIdentifiers(Request request) {
+        return request.getReturnPolicyIdList() || isCollecting();
+    }
+}
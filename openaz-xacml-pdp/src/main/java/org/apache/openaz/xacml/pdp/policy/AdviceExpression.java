@@ -94,6 +94,9 @@ public class AdviceExpression extends PolicyComponent {
 
     public void setAttributeAssignmentExpressions(Collection<AttributeAssignmentExpression> attributeAssignmentExpressions) {
         this.clearAttributeAssignmentExpressionList();
+        if (attributeAssignmentExpressions != null) {
+            this.addAttributeAssignmentExpressions(attributeAssignmentExpressions);
+        }
     }
 
     public void addAttributeAssignmentExpression(AttributeAssignmentExpression attributeAssignmentExpression) {
@@ -29,6 +29,7 @@ import org.apache.openaz.xacml.pdp.eval.Evaluatable;
 import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
 import org.apache.openaz.xacml.pdp.eval.EvaluationException;
 import org.apache.openaz.xacml.pdp.eval.EvaluationResult;
+import org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics;
 
 /**
  * CombiningElement wraps an {@link org.apache.openaz.xacml.pdp.evl.Evaluatable} with a set of
@@ -88,7 +89,7 @@ public class CombiningElement<T extends Evaluatable> {
      *             <code>evaluate</code> method of the <code>Evaluatable</code>
      */
     public EvaluationResult evaluate(EvaluationContext evaluationContext) throws EvaluationException {
-        return this.getEvaluatable().evaluate(evaluationContext);
+        return EvaluationStatistics.evaluate(this.getEvaluatable(), evaluationContext);
     }
 
 }
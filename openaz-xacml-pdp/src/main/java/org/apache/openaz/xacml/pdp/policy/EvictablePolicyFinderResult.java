@@ -0,0 +1,32 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.policy;
+
+/**
+ * EvictablePolicyFinderResult marks a {@link PolicyFinderResult} whose {@link PolicyDef} the
+ * {@link PolicyFinder} may later drop from memory. Policy references do not hold on to such a
+ * <code>PolicyDef</code>; they ask the <code>PolicyFinder</code> for it again on each evaluation.
+ *
+ * @param <T> the class extending {@link PolicyDef} contained as a result in this
+ *            <code>EvictablePolicyFinderResult</code>
+ */
+public interface EvictablePolicyFinderResult<T extends PolicyDef> extends PolicyFinderResult<T> {
+}
@@ -33,6 +33,7 @@ import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
 import org.apache.openaz.xacml.pdp.eval.EvaluationException;
 import org.apache.openaz.xacml.pdp.eval.EvaluationResult;
 import org.apache.openaz.xacml.pdp.eval.MatchResult;
+import org.apache.openaz.xacml.pdp.eval.PolicyIdentifierCollector;
 import org.apache.openaz.xacml.std.StdStatus;
 import org.apache.openaz.xacml.std.StdStatusCode;
 import org.apache.openaz.xacml.std.trace.StdTraceEvent;
@@ -307,7 +308,7 @@ public class Policy extends PolicyDef {
             /*
              * Add my id to the policy identifiers
              */
-            if (evaluationContext.getRequest().getReturnPolicyIdList()) {
+            if (PolicyIdentifierCollector.includePolicyIdentifiers(evaluationContext.getRequest())) {
                 evaluationResultCombined.addPolicyIdentifier(this.getIdReference());
             }
         }
@@ -27,7 +27,7 @@ import org.apache.openaz.xacml.std.StdStatusCode;
  * PolicyComponent is the base class for all pieces of a XACML Policy or PolicySet that could potentially have
  * errors associated with them by the policy loader.
  */
-abstract class PolicyComponent {
+public abstract class PolicyComponent {
     private StatusCode statusCode;
     private String statusMessage;
 
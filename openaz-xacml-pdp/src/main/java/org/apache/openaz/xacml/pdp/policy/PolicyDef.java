@@ -37,6 +37,8 @@ import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
 import org.apache.openaz.xacml.pdp.eval.EvaluationException;
 import org.apache.openaz.xacml.pdp.eval.EvaluationResult;
 import org.apache.openaz.xacml.pdp.eval.MatchResult;
+import org.apache.openaz.xacml.pdp.statistics.ElementStatistics;
+import org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics;
 import org.apache.openaz.xacml.std.StdIdReference;
 import org.apache.openaz.xacml.std.StdStatus;
 import org.apache.openaz.xacml.std.StdStatusCode;
@@ -57,6 +59,7 @@ public abstract class PolicyDef extends PolicySetChild {
     private Integer maxDelegationDepth;
 
     private IdReference idReference;
+    private volatile ElementStatistics statistics;
 
     private void ensureCombinerParameters() {
         if (this.combinerParameters == null) {
@@ -383,8 +386,47 @@ public abstract class PolicyDef extends PolicySetChild {
         return this.idReference;
     }
 
+    /**
+     * Gets the id this <code>PolicyDef</code> is known by in the
+     * {@link org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics}: its identifier, followed by its
+     * version if it has one.
+     *
+     * @return the statistics id for this <code>PolicyDef</code>
+     */
+    public String getStatisticsId() {
+        Version thisVersion = this.getVersion();
+        String identifier = this.getIdentifier() == null ? "" : this.getIdentifier().stringValue();
+        return thisVersion == null ? identifier : identifier + "#" + thisVersion.getVersion();
+    }
+
+    /**
+     * Gets the {@link org.apache.openaz.xacml.pdp.statistics.ElementStatistics} for this
+     * <code>PolicyDef</code>.
+     *
+     * @return the <code>ElementStatistics</code> for this <code>PolicyDef</code>
+     */
+    public ElementStatistics getStatistics() {
+        if (this.statistics == null) {
+            ElementStatistics.Kind kind = this instanceof PolicySet
+                ? ElementStatistics.Kind.POLICYSET : ElementStatistics.Kind.POLICY;
+            this.statistics = EvaluationStatistics.getInstance().getStatistics(kind, this.getStatisticsId());
+        }
+        return this.statistics;
+    }
+
     public boolean matches(IdReferenceMatch idReferenceRequest) {
-        IdReference thisIdReference = this.getIdReference();
+        return matches(this.getIdReference(), idReferenceRequest);
+    }
+
+    /**
+     * Determines whether the given {@link org.apache.openaz.xacml.api.IdReference} satisfies the id and
+     * version constraints of an {@link org.apache.openaz.xacml.api.IdReferenceMatch}.
+     *
+     * @param thisIdReference the <code>IdReference</code> of a policy or policy set
+     * @param idReferenceRequest the <code>IdReferenceMatch</code> to test against
+     * @return true if the id is the same and the version is within the requested bounds
+     */
+    public static boolean matches(IdReference thisIdReference, IdReferenceMatch idReferenceRequest) {
         if (thisIdReference == null || thisIdReference.getId() == null || idReferenceRequest == null
             || idReferenceRequest.getId() == null) {
             return false;
@@ -56,6 +56,12 @@ public class PolicyIdReference extends PolicyIdReferenceBase<Policy> {
             PolicyFinderResult<Policy> policyFactoryResult = evaluationContext.getPolicy(this
                 .getIdReferenceMatch());
             if (policyFactoryResult.getStatus() == null || policyFactoryResult.getStatus().isOk()) {
+                if (policyFactoryResult instanceof EvictablePolicyFinderResult) {
+                    //
+                    // The finder may drop this policy from memory, so look it up again next time
+                    //
+                    return policyFactoryResult.getPolicyDef();
+                }
                 this.setReferencee(policyFactoryResult.getPolicyDef());
             }
         }
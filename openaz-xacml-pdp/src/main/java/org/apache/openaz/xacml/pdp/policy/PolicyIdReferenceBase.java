@@ -27,6 +27,7 @@ import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
 import org.apache.openaz.xacml.pdp.eval.EvaluationException;
 import org.apache.openaz.xacml.pdp.eval.EvaluationResult;
 import org.apache.openaz.xacml.pdp.eval.MatchResult;
+import org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics;
 import org.apache.openaz.xacml.std.StdStatus;
 import org.apache.openaz.xacml.std.StdStatusCode;
 
@@ -117,7 +118,7 @@ public abstract class PolicyIdReferenceBase<T extends PolicyDef> extends PolicyS
                                                       "Could not find referencee for "
                                                           + this.getIdReferenceMatch().toString()));
         } else {
-            return thisReferencee.evaluate(evaluationContext);
+            return EvaluationStatistics.evaluate(thisReferencee, evaluationContext);
         }
     }
 
@@ -56,6 +56,12 @@ public class PolicySetIdReference extends PolicyIdReferenceBase<PolicySet> {
             PolicyFinderResult<PolicySet> policyFactoryResult = evaluationContext.getPolicySet(this
                 .getIdReferenceMatch());
             if (policyFactoryResult.getStatus() == null || policyFactoryResult.getStatus().isOk()) {
+                if (policyFactoryResult instanceof EvictablePolicyFinderResult) {
+                    //
+                    // The finder may drop this policy set from memory, so look it up again next time
+                    //
+                    return policyFactoryResult.getPolicyDef();
+                }
                 this.setReferencee(policyFactoryResult.getPolicyDef());
             }
         }
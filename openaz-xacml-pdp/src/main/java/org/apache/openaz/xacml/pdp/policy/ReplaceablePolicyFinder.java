@@ -0,0 +1,46 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.policy;
+
+/**
+ * ReplaceablePolicyFinder marks a {@link PolicyFinder} whose policies may be replaced while requests are
+ * being evaluated. An evaluation context takes the current policies once, with
+ * {@link #getCurrentPolicyFinder()}, and evaluates the whole request against them, so the root policy and
+ * the policies it references come from the same set.
+ */
+public interface ReplaceablePolicyFinder extends PolicyFinder {
+
+    /**
+     * Gets a <code>PolicyFinder</code> over the current policies that is not affected when they are later
+     * replaced.
+     *
+     * @return the <code>PolicyFinder</code> over the current policies
+     */
+    PolicyFinder getCurrentPolicyFinder();
+
+    /**
+     * Gets the generation of the current policies. It goes up each time the policies are replaced, so
+     * anything derived from the policies, such as cached decisions, can tell whether it is still current.
+     *
+     * @return the generation of the current policies
+     */
+    long getGeneration();
+}
@@ -37,6 +37,8 @@ import org.apache.openaz.xacml.pdp.eval.EvaluationException;
 import org.apache.openaz.xacml.pdp.eval.EvaluationResult;
 import org.apache.openaz.xacml.pdp.eval.MatchResult;
 import org.apache.openaz.xacml.pdp.eval.Matchable;
+import org.apache.openaz.xacml.pdp.statistics.ElementStatistics;
+import org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics;
 import org.apache.openaz.xacml.std.StdStatus;
 import org.apache.openaz.xacml.std.StdStatusCode;
 import org.apache.openaz.xacml.std.trace.StdTraceEvent;
@@ -56,6 +58,8 @@ public class Rule extends PolicyComponent implements Matchable, Evaluatable, Tra
     private Condition condition;
     private List<ObligationExpression> obligationExpressions = new ArrayList<ObligationExpression>();
     private List<AdviceExpression> adviceExpressions = new ArrayList<AdviceExpression>();
+    private volatile ElementStatistics statistics;
+    private volatile ElementStatistics conditionStatistics;
 
     protected List<ObligationExpression> getObligationExpressionList() {
         return this.obligationExpressions;
@@ -170,6 +174,33 @@ public class Rule extends PolicyComponent implements Matchable, Evaluatable, Tra
         this.getAdviceExpressionList().addAll(adviceExpressionsIn);
     }
 
+    /**
+     * Gets the id this <code>Rule</code> and its <code>Condition</code> are known by in the
+     * {@link org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics}: the statistics id of its
+     * <code>Policy</code> and its rule id.
+     *
+     * @return the statistics id for this <code>Rule</code>
+     */
+    public String getStatisticsId() {
+        return (this.getPolicy() == null ? "" : this.getPolicy().getStatisticsId()) + "/" + this.getRuleId();
+    }
+
+    public ElementStatistics getStatistics() {
+        if (this.statistics == null) {
+            this.statistics = EvaluationStatistics.getInstance().getStatistics(ElementStatistics.Kind.RULE,
+                                                                               this.getStatisticsId());
+        }
+        return this.statistics;
+    }
+
+    protected ElementStatistics getConditionStatistics() {
+        if (this.conditionStatistics == null) {
+            this.conditionStatistics = EvaluationStatistics.getInstance()
+                .getStatistics(ElementStatistics.Kind.CONDITION, this.getStatisticsId());
+        }
+        return this.conditionStatistics;
+    }
+
     @Override
     public EvaluationResult evaluate(EvaluationContext evaluationContext) throws EvaluationException {
         if (!this.validate()) {
@@ -197,8 +228,24 @@ public class Rule extends PolicyComponent implements Matchable, Evaluatable, Tra
          */
         Condition thisCondition = this.getCondition();
         if (thisCondition != null) {
-            ExpressionResultBoolean expressionResultCondition = thisCondition
-                .evaluate(evaluationContext, this.getPolicy().getPolicyDefaults());
+            ExpressionResultBoolean expressionResultCondition;
+            if (EvaluationStatistics.getInstance().isSampled()) {
+                long startNanos = System.nanoTime();
+                expressionResultCondition = thisCondition.evaluate(evaluationContext, this.getPolicy()
+                    .getPolicyDefaults());
+                MatchResult.MatchCode matchCode;
+                if (!expressionResultCondition.isOk()) {
+                    matchCode = MatchResult.MatchCode.INDETERMINATE;
+                } else if (expressionResultCondition.isTrue()) {
+                    matchCode = MatchResult.MatchCode.MATCH;
+                } else {
+                    matchCode = MatchResult.MatchCode.NOMATCH;
+                }
+                this.getConditionStatistics().record(matchCode, System.nanoTime() - startNanos);
+            } else {
+                expressionResultCondition = thisCondition.evaluate(evaluationContext, this.getPolicy()
+                    .getPolicyDefaults());
+            }
             assert expressionResultCondition != null;
 
             if (evaluationContext.isTracing()) {
@@ -0,0 +1,96 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.policy.snapshot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Constants shared by the {@link SnapshotWriter} and {@link SnapshotReader}.
+ * <p>
+ * A snapshot starts with a header: the magic number, the format version, the length and bytes of the
+ * {@link #CODE_VERSION} that wrote it, the length and bytes of the hash of the XML the policy was compiled
+ * from, and a table of every distinct string in the policy. The body that
+ * follows refers to strings by their position in that table, so each identifier is stored and converted
+ * once. Counts and string references are written as unsigned variable-length integers, and a string
+ * reference of zero stands for <code>null</code>.
+ */
+final class SnapshotFormat {
+    static final int MAGIC = 0x58505331; // "XPS1"
+    static final int VERSION = 2;
+
+    /**
+     * Identifies the code that reads and writes snapshots: the implementation version of this package,
+     * if known, and a digest of the reader and writer classes. A snapshot written under a different code
+     * version is treated as stale, so a change to the policy classes that the format version does not
+     * capture cannot resurrect a snapshot from an earlier build.
+     */
+    static final String CODE_VERSION = codeVersion();
+
+    static final int TAG_NULL = 0;
+    static final int TAG_POLICY = 1;
+    static final int TAG_POLICYSET = 2;
+    static final int TAG_POLICYIDREFERENCE = 3;
+    static final int TAG_POLICYSETIDREFERENCE = 4;
+
+    static final int TAG_APPLY = 10;
+    static final int TAG_ATTRIBUTEDESIGNATOR = 11;
+    static final int TAG_ATTRIBUTESELECTOR = 12;
+    static final int TAG_ATTRIBUTEVALUE = 13;
+    static final int TAG_FUNCTION = 14;
+    static final int TAG_VARIABLEREFERENCE = 15;
+
+    private SnapshotFormat() {
+    }
+
+    private static String codeVersion() {
+        Package pkg = SnapshotFormat.class.getPackage();
+        String implementationVersion = (pkg == null ? null : pkg.getImplementationVersion());
+        StringBuilder codeVersion = new StringBuilder();
+        if (implementationVersion != null) {
+            codeVersion.append(implementationVersion);
+        }
+        codeVersion.append('/');
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            for (Class<?> clazz : new Class<?>[] {
+                SnapshotReader.class, SnapshotWriter.class
+            }) {
+                try (InputStream in = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) {
+                    int read;
+                    while (in != null && (read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            }
+            byte[] hash = digest.digest();
+            for (int i = 0; i < 8; i++) {
+                codeVersion.append(String.format("%02x", hash[i]));
+            }
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            codeVersion.append("unknown");
+        }
+        return codeVersion.toString();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.policy.snapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.std.dom.DOMStructureException;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+/**
+ * SnapshotPolicyDef loads a {@link org.apache.openaz.xacml.pdp.policy.PolicyDef} from its XACML XML file by
+ * way of a binary snapshot. When a snapshot written from the same XML exists it is memory-mapped and read
+ * instead of the XML; otherwise the XML is parsed as usual and a new snapshot is written for next time.
+ * Snapshots are matched to the XML by a SHA-256 hash of its contents, so a changed policy file is always
+ * parsed again.
+ */
+public class SnapshotPolicyDef {
+    private static final Log logger = LogFactory.getLog(SnapshotPolicyDef.class);
+
+    public static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    protected SnapshotPolicyDef() {
+    }
+
+    /**
+     * Computes the hash snapshots use to recognize the XML they were written from.
+     *
+     * @param xml the bytes of the XACML XML
+     * @return the SHA-256 hash of the bytes
+     */
+    public static byte[] hash(byte[] xml) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(xml);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    /**
+     * Gets the snapshot file for the given policy file: the policy file name with {@link #SNAPSHOT_SUFFIX}
+     * added, next to the policy file if the directory is <code>null</code>. In a shared snapshot directory
+     * the name also carries a hash of the directory holding the policy file, so policy files with the same
+     * name in different directories get different snapshots.
+     *
+     * @param policyFile the XACML policy <code>File</code>
+     * @param directory the directory to keep snapshots in, or <code>null</code>
+     * @return the snapshot <code>File</code>
+     */
+    public static File getSnapshotFile(File policyFile, File directory) {
+        File parent = policyFile.getAbsoluteFile().getParentFile();
+        if (directory == null) {
+            return new File(parent, policyFile.getName() + SNAPSHOT_SUFFIX);
+        }
+        byte[] parentHash = hash(String.valueOf(parent).getBytes(StandardCharsets.UTF_8));
+        StringBuilder name = new StringBuilder(policyFile.getName()).append('-');
+        for (int i = 0; i < 8; i++) {
+            name.append(String.format("%02x", parentHash[i]));
+        }
+        return new File(directory, name.append(SNAPSHOT_SUFFIX).toString());
+    }
+
+    /**
+     * Loads the <code>PolicyDef</code> in the given XACML policy file, going through a snapshot if
+     * {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_SNAPSHOT} is "true". The properties are looked up
+     * first in the given <code>Properties</code> and then in the global <code>XACMLProperties</code>.
+     *
+     * @param policyFile the XACML policy <code>File</code>
+     * @param properties the <code>Properties</code> to look in, may be <code>null</code>
+     * @return the <code>PolicyDef</code>
+     * @throws DOMStructureException if the XML cannot be parsed
+     */
+    public static PolicyDef load(File policyFile, Properties properties) throws DOMStructureException {
+        if (!isEnabled(properties)) {
+            return DOMPolicyDef.load(policyFile);
+        }
+        return load(policyFile, getSnapshotFile(policyFile, properties));
+    }
+
+    /**
+     * Loads the <code>PolicyDef</code> from the given contents of a XACML policy file, the same way as
+     * {@link #load(File, Properties)}, for callers that have already read the file.
+     *
+     * @param policyFile the XACML policy <code>File</code> the contents were read from
+     * @param xml the contents of the policy file
+     * @param properties the <code>Properties</code> to look in, may be <code>null</code>
+     * @return the <code>PolicyDef</code>
+     * @throws DOMStructureException if the XML cannot be parsed
+     */
+    public static PolicyDef load(File policyFile, byte[] xml, Properties properties)
+        throws DOMStructureException {
+        if (!isEnabled(properties)) {
+            return parse(policyFile, xml);
+        }
+        return load(policyFile, xml, getSnapshotFile(policyFile, properties));
+    }
+
+    private static boolean isEnabled(Properties properties) {
+        return Boolean.parseBoolean(getProperty(properties,
+                                                OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_SNAPSHOT));
+    }
+
+    private static File getSnapshotFile(File policyFile, Properties properties) {
+        String directory = getProperty(properties,
+                                       OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_SNAPSHOTDIRECTORY);
+        return getSnapshotFile(policyFile, directory == null ? null : new File(directory));
+    }
+
+    private static String getProperty(Properties properties, String propertyName) {
+        String value = (properties == null ? null : properties.getProperty(propertyName));
+        return (value == null ? XACMLProperties.getProperty(propertyName) : value);
+    }
+
+    /**
+     * Loads the <code>PolicyDef</code> in the given XACML policy file, using the snapshot file if it was
+     * written from the current contents of the policy file, and otherwise parsing the XML and replacing the
+     * snapshot.
+     *
+     * @param policyFile the XACML policy <code>File</code>
+     * @param snapshotFile the snapshot <code>File</code>
+     * @return the <code>PolicyDef</code>
+     * @throws DOMStructureException if the snapshot cannot be used and the XML cannot be parsed
+     */
+    public static PolicyDef load(File policyFile, File snapshotFile) throws DOMStructureException {
+        byte[] xml;
+        try {
+            xml = Files.readAllBytes(policyFile.toPath());
+        } catch (IOException ex) {
+            throw new DOMStructureException("Exception loading Policy file \"" + policyFile.getAbsolutePath()
+                                            + "\": " + ex.getMessage(), ex);
+        }
+        return load(policyFile, xml, snapshotFile);
+    }
+
+    private static PolicyDef load(File policyFile, byte[] xml, File snapshotFile)
+        throws DOMStructureException {
+        byte[] sourceHash = hash(xml);
+
+        if (snapshotFile.exists()) {
+            try {
+                PolicyDef policyDef = SnapshotReader.read(map(snapshotFile.toPath()), sourceHash);
+                if (policyDef != null) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Loaded " + policyFile + " from snapshot " + snapshotFile);
+                    }
+                    return policyDef;
+                }
+                logger.info("Snapshot " + snapshotFile + " is stale, parsing " + policyFile);
+            } catch (IOException | SnapshotException ex) {
+                logger.warn("Cannot use snapshot " + snapshotFile + ": " + ex.getMessage());
+            }
+        }
+
+        PolicyDef policyDef = parse(policyFile, xml);
+        if (policyDef != null && (policyDef.getStatusCode() == null || policyDef.isOk())) {
+            store(policyDef, sourceHash, snapshotFile);
+        }
+        return policyDef;
+    }
+
+    private static PolicyDef parse(File policyFile, byte[] xml) throws DOMStructureException {
+        try {
+            return DOMPolicyDef.load(new ByteArrayInputStream(xml));
+        } catch (DOMStructureException ex) {
+            throw new DOMStructureException("Exception loading Policy file \"" + policyFile.getAbsolutePath()
+                                            + "\": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given <code>PolicyDef</code>, replacing any existing snapshot atomically.
+     * Failures are logged and otherwise ignored, since the XML remains usable.
+     *
+     * @param policyDef the <code>PolicyDef</code> to write
+     * @param sourceHash the hash of the XML the <code>PolicyDef</code> was parsed from
+     * @param snapshotFile the snapshot <code>File</code> to write
+     * @return true if the snapshot was written
+     */
+    public static boolean store(PolicyDef policyDef, byte[] sourceHash, File snapshotFile) {
+        byte[] snapshot;
+        try {
+            snapshot = SnapshotWriter.write(policyDef, sourceHash);
+        } catch (SnapshotException ex) {
+            logger.info("Not writing snapshot " + snapshotFile + ": " + ex.getMessage());
+            return false;
+        }
+        Path target = snapshotFile.toPath();
+        Path temp = null;
+        try {
+            Path directory = target.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, snapshotFile.getName(), ".tmp");
+            Files.write(temp, snapshot);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException ex) {
+            logger.warn("Failed to write snapshot " + snapshotFile + ": " + ex.getMessage());
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete " + temp + ": " + e.getMessage());
+                }
+            }
+            return false;
+        }
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
@@ -0,0 +1,621 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.policy.snapshot;
+
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.openaz.xacml.api.AttributeValue;
+import org.apache.openaz.xacml.api.DataType;
+import org.apache.openaz.xacml.api.DataTypeException;
+import org.apache.openaz.xacml.api.DataTypeFactory;
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.StatusCode;
+import org.apache.openaz.xacml.api.VersionMatch;
+import org.apache.openaz.xacml.pdp.policy.AdviceExpression;
+import org.apache.openaz.xacml.pdp.policy.AllOf;
+import org.apache.openaz.xacml.pdp.policy.AnyOf;
+import org.apache.openaz.xacml.pdp.policy.AttributeAssignmentExpression;
+import org.apache.openaz.xacml.pdp.policy.CombinerParameter;
+import org.apache.openaz.xacml.pdp.policy.CombiningAlgorithm;
+import org.apache.openaz.xacml.pdp.policy.CombiningAlgorithmFactory;
+import org.apache.openaz.xacml.pdp.policy.Condition;
+import org.apache.openaz.xacml.pdp.policy.Expression;
+import org.apache.openaz.xacml.pdp.policy.Match;
+import org.apache.openaz.xacml.pdp.policy.ObligationExpression;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.pdp.policy.PolicyComponent;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.PolicyDefaults;
+import org.apache.openaz.xacml.pdp.policy.PolicyIdReference;
+import org.apache.openaz.xacml.pdp.policy.PolicyIdReferenceBase;
+import org.apache.openaz.xacml.pdp.policy.PolicySet;
+import org.apache.openaz.xacml.pdp.policy.PolicySetChild;
+import org.apache.openaz.xacml.pdp.policy.PolicySetIdReference;
+import org.apache.openaz.xacml.pdp.policy.Rule;
+import org.apache.openaz.xacml.pdp.policy.RuleEffect;
+import org.apache.openaz.xacml.pdp.policy.Target;
+import org.apache.openaz.xacml.pdp.policy.TargetedCombinerParameter;
+import org.apache.openaz.xacml.pdp.policy.VariableDefinition;
+import org.apache.openaz.xacml.pdp.policy.expressions.Apply;
+import org.apache.openaz.xacml.pdp.policy.expressions.AttributeDesignator;
+import org.apache.openaz.xacml.pdp.policy.expressions.AttributeRetrievalBase;
+import org.apache.openaz.xacml.pdp.policy.expressions.AttributeSelector;
+import org.apache.openaz.xacml.pdp.policy.expressions.AttributeValueExpression;
+import org.apache.openaz.xacml.pdp.policy.expressions.Function;
+import org.apache.openaz.xacml.pdp.policy.expressions.VariableReference;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdIdReferenceMatch;
+import org.apache.openaz.xacml.std.StdStatusCode;
+import org.apache.openaz.xacml.std.StdVersion;
+import org.apache.openaz.xacml.std.StdVersionMatch;
+import org.apache.openaz.xacml.util.FactoryException;
+
+/**
+ * SnapshotReader rebuilds a {@link org.apache.openaz.xacml.pdp.policy.PolicyDef} graph from a snapshot
+ * written by {@link SnapshotWriter}. Each string in the snapshot is converted to an <code>Identifier</code>
+ * at most once, so every reference to the same identifier shares one instance, and combining algorithms are
+ * looked up once per identifier.
+ */
+public class SnapshotReader {
+    private final ByteBuffer buffer;
+    private final DataTypeFactory dataTypeFactory;
+    private final CombiningAlgorithmFactory combiningAlgorithmFactory;
+    private String[] strings;
+    private Identifier[] identifiers;
+    private final Map<String, AttributeValue<?>> attributeValues = new HashMap<String, AttributeValue<?>>();
+
+    protected SnapshotReader(ByteBuffer bufferIn) throws SnapshotException {
+        this.buffer = bufferIn;
+        try {
+            this.dataTypeFactory = DataTypeFactory.newInstance();
+            this.combiningAlgorithmFactory = CombiningAlgorithmFactory.newInstance();
+        } catch (FactoryException ex) {
+            throw new SnapshotException("Failed to get factories", ex);
+        }
+    }
+
+    /**
+     * Reads the source hash recorded in the given snapshot without reading the policy. The position of the
+     * buffer is left unchanged.
+     *
+     * @param buffer the <code>ByteBuffer</code> holding the snapshot
+     * @return the hash of the XML the snapshot was written from
+     * @throws SnapshotException if the buffer does not hold a snapshot this reader understands
+     */
+    public static byte[] readSourceHash(ByteBuffer buffer) throws SnapshotException {
+        ByteBuffer header = buffer.duplicate();
+        try {
+            readCodeVersion(header);
+            return readBytes(header, header.getShort() & 0xFFFF);
+        } catch (BufferUnderflowException ex) {
+            throw new SnapshotException("Truncated snapshot", ex);
+        }
+    }
+
+    /**
+     * Checks the magic number and format version at the position of the given buffer and reads the code
+     * version that follows them, leaving the buffer positioned at the source hash.
+     */
+    private static String readCodeVersion(ByteBuffer header) throws SnapshotException {
+        if (header.getInt() != SnapshotFormat.MAGIC) {
+            throw new SnapshotException("Not a policy snapshot");
+        }
+        int version = header.getShort();
+        if (version != SnapshotFormat.VERSION) {
+            throw new SnapshotException("Unsupported snapshot version " + version);
+        }
+        return new String(readBytes(header, header.getShort() & 0xFFFF), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer source, int length) throws SnapshotException {
+        if (length < 0 || length > source.remaining()) {
+            throw new SnapshotException("Bad length " + length + " with " + source.remaining()
+                                        + " bytes left");
+        }
+        byte[] bytes = new byte[length];
+        source.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads the <code>PolicyDef</code> from the given snapshot if it was written by the current code from XML
+     * with the given hash.
+     *
+     * @param buffer the <code>ByteBuffer</code> holding the snapshot
+     * @param sourceHash the hash of the current XML, or <code>null</code> to skip the check
+     * @return the <code>PolicyDef</code>, or <code>null</code> if the snapshot is stale
+     * @throws SnapshotException if the snapshot is corrupt or cannot be read
+     */
+    public static PolicyDef read(ByteBuffer buffer, byte[] sourceHash) throws SnapshotException {
+        ByteBuffer body = buffer.duplicate();
+        try {
+            String codeVersion = readCodeVersion(body);
+            byte[] snapshotHash = readBytes(body, body.getShort() & 0xFFFF);
+            if (!SnapshotFormat.CODE_VERSION.equals(codeVersion)
+                || sourceHash != null && !Arrays.equals(sourceHash, snapshotHash)) {
+                return null;
+            }
+            SnapshotReader reader = new SnapshotReader(body);
+            reader.readStrings();
+            PolicySetChild policySetChild = reader.readPolicySetChild(null);
+            if (!(policySetChild instanceof PolicyDef)) {
+                throw new SnapshotException("Snapshot does not hold a Policy or PolicySet");
+            }
+            return (PolicyDef)policySetChild;
+        } catch (RuntimeException ex) {
+            //
+            // Counts and references are checked as they are read, but a damaged body can still trip over
+            // the policy classes themselves, and the caller must be able to fall back to the XML.
+            //
+            throw new SnapshotException("Corrupt snapshot", ex);
+        }
+    }
+
+    private void readStrings() throws SnapshotException {
+        //
+        // Each string takes at least the four bytes of its length
+        //
+        int count = this.buffer.getInt();
+        if (count < 0 || count > this.buffer.remaining() / 4) {
+            throw new SnapshotException("Bad string count " + count);
+        }
+        this.strings = new String[count + 1];
+        this.identifiers = new Identifier[count + 1];
+        for (int i = 1; i <= count; i++) {
+            byte[] utf8 = readBytes(this.buffer, this.buffer.getInt());
+            this.strings[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Reads the number of elements that follow. Every element takes at least one byte, so a count larger
+     * than what is left of the buffer can only come from a damaged snapshot.
+     */
+    private int readCount() throws SnapshotException {
+        int count = this.readVarInt();
+        if (count < 0 || count > this.buffer.remaining()) {
+            throw new SnapshotException("Bad count " + count + " with " + this.buffer.remaining()
+                                        + " bytes left");
+        }
+        return count;
+    }
+
+    private int readVarInt() {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = this.buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        return value;
+    }
+
+    private String readString() throws SnapshotException {
+        int index = this.readVarInt();
+        if (index < 0 || index >= this.strings.length) {
+            throw new SnapshotException("Bad string reference " + index);
+        }
+        return this.strings[index];
+    }
+
+    private Identifier readIdentifier() throws SnapshotException {
+        int index = this.readVarInt();
+        if (index < 0 || index >= this.strings.length) {
+            throw new SnapshotException("Bad string reference " + index);
+        }
+        if (index == 0) {
+            return null;
+        }
+        Identifier identifier = this.identifiers[index];
+        if (identifier == null) {
+            identifier = new IdentifierImpl(this.strings[index]);
+            this.identifiers[index] = identifier;
+        }
+        return identifier;
+    }
+
+    private Boolean readBoolean() {
+        switch (this.buffer.get()) {
+        case 1:
+            return Boolean.TRUE;
+        case 2:
+            return Boolean.FALSE;
+        default:
+            return null;
+        }
+    }
+
+    private RuleEffect readRuleEffect() throws SnapshotException {
+        String name = this.readString();
+        return name == null ? null : RuleEffect.getRuleEffect(name);
+    }
+
+    private void readStatus(PolicyComponent component) throws SnapshotException {
+        if (this.readVarInt() != 0) {
+            StatusCode statusCode = new StdStatusCode(this.readIdentifier());
+            component.setStatus(statusCode, this.readString());
+        }
+    }
+
+    private AttributeValue<?> readAttributeValue() throws SnapshotException {
+        if (this.readVarInt() == 0) {
+            return null;
+        }
+        Identifier dataTypeId = this.readIdentifier();
+        Identifier xpathCategory = this.readIdentifier();
+        String stringValue = this.readString();
+        DataType<?> dataType = this.dataTypeFactory.getDataType(dataTypeId);
+        if (dataType == null) {
+            throw new SnapshotException("Unknown data type " + dataTypeId);
+        }
+        try {
+            if (xpathCategory == null) {
+                //
+                // Literals repeat a lot across a policy, and AttributeValues are immutable, so share them
+                //
+                String key = dataTypeId.stringValue() + '\n' + stringValue;
+                AttributeValue<?> attributeValue = this.attributeValues.get(key);
+                if (attributeValue == null) {
+                    attributeValue = dataType.createAttributeValue(stringValue);
+                    this.attributeValues.put(key, attributeValue);
+                }
+                return attributeValue;
+            }
+            return dataType.createAttributeValue(stringValue, xpathCategory);
+        } catch (DataTypeException ex) {
+            throw new SnapshotException("Cannot convert value of type " + dataTypeId, ex);
+        }
+    }
+
+    private PolicySetChild readPolicySetChild(PolicySet parent) throws SnapshotException {
+        int tag = this.readVarInt();
+        switch (tag) {
+        case SnapshotFormat.TAG_POLICY:
+            return this.readPolicy(parent);
+        case SnapshotFormat.TAG_POLICYSET:
+            return this.readPolicySet(parent);
+        case SnapshotFormat.TAG_POLICYIDREFERENCE:
+            return this.readPolicyIdReference(new PolicyIdReference(parent));
+        case SnapshotFormat.TAG_POLICYSETIDREFERENCE:
+            return this.readPolicyIdReference(new PolicySetIdReference(parent));
+        default:
+            throw new SnapshotException("Unknown policy element tag " + tag);
+        }
+    }
+
+    private void readPolicyDef(PolicyDef policyDef, Policy policy) throws SnapshotException {
+        this.readStatus(policyDef);
+        PolicySet parent = policyDef.getParent();
+        PolicyDefaults parentDefaults = (parent == null ? null : parent.getPolicyDefaults());
+        if (this.readVarInt() == 0) {
+            policyDef.setPolicyDefaults(parentDefaults);
+        } else {
+            String xpathVersion = this.readString();
+            policyDef.setPolicyDefaults(new PolicyDefaults(xpathVersion == null ? null : URI
+                .create(xpathVersion), parentDefaults));
+        }
+        policyDef.setIdentifier(this.readIdentifier());
+        String version = this.readString();
+        if (version != null) {
+            try {
+                policyDef.setVersion(StdVersion.newInstance(version));
+            } catch (ParseException ex) {
+                throw new SnapshotException("Bad version " + version, ex);
+            }
+        }
+        policyDef.setDescription(this.readString());
+        if (this.readVarInt() != 0) {
+            policyDef.setMaxDelegationDepth(this.buffer.getInt());
+        }
+        policyDef.setTarget(this.readTarget());
+        int count = this.readCount();
+        if (count > 0) {
+            List<CombinerParameter> combinerParameters = new ArrayList<CombinerParameter>(count);
+            for (int i = 0; i < count; i++) {
+                CombinerParameter combinerParameter = new CombinerParameter();
+                this.readCombinerParameter(combinerParameter);
+                combinerParameters.add(combinerParameter);
+            }
+            policyDef.setCombinerParameters(combinerParameters);
+        }
+        List<ObligationExpression> obligationExpressions = this.readObligationExpressions(policy);
+        if (!obligationExpressions.isEmpty()) {
+            policyDef.setObligationExpressions(obligationExpressions);
+        }
+        List<AdviceExpression> adviceExpressions = this.readAdviceExpressions(policy);
+        if (!adviceExpressions.isEmpty()) {
+            policyDef.setAdviceExpressions(adviceExpressions);
+        }
+    }
+
+    private Policy readPolicy(PolicySet parent) throws SnapshotException {
+        Policy policy = new Policy(parent);
+        this.readPolicyDef(policy, policy);
+        Identifier algorithmId = this.readIdentifier();
+        if (algorithmId != null) {
+            CombiningAlgorithm<Rule> algorithm = this.combiningAlgorithmFactory
+                .getRuleCombiningAlgorithm(algorithmId);
+            if (algorithm == null) {
+                throw new SnapshotException("Unknown rule combining algorithm " + algorithmId);
+            }
+            policy.setRuleCombiningAlgorithm(algorithm);
+        }
+
+        int count = this.readCount();
+        for (int i = 0; i < count; i++) {
+            VariableDefinition variableDefinition = new VariableDefinition();
+            this.readStatus(variableDefinition);
+            variableDefinition.setId(this.readString());
+            variableDefinition.setExpression(this.readExpression(policy));
+            policy.addVariableDefinition(variableDefinition);
+        }
+
+        count = this.readCount();
+        for (int i = 0; i < count; i++) {
+            policy.addRule(this.readRule(policy));
+        }
+
+        count = this.readCount();
+        for (int i = 0; i < count; i++) {
+            TargetedCombinerParameter<String, Rule> ruleCombinerParameter = new TargetedCombinerParameter<String, Rule>();
+            this.readCombinerParameter(ruleCombinerParameter);
+            ruleCombinerParameter.setTargetId(this.readString());
+            policy.addRuleCombinerParameter(ruleCombinerParameter);
+        }
+        return policy;
+    }
+
+    private PolicySet readPolicySet(PolicySet parent) throws SnapshotException {
+        PolicySet policySet = new PolicySet(parent);
+        this.readPolicyDef(policySet, null);
+        Identifier algorithmId = this.readIdentifier();
+        if (algorithmId != null) {
+            CombiningAlgorithm<PolicySetChild> algorithm = this.combiningAlgorithmFactory
+                .getPolicyCombiningAlgorithm(algorithmId);
+            if (algorithm == null) {
+                throw new SnapshotException("Unknown policy combining algorithm " + algorithmId);
+            }
+            policySet.setPolicyCombiningAlgorithm(algorithm);
+        }
+
+        int count = this.readCount();
+        for (int i = 0; i < count; i++) {
+            policySet.addChild(this.readPolicySetChild(policySet));
+        }
+
+        count = this.readCount();
+        for (int i = 0; i < count; i++) {
+            TargetedCombinerParameter<Identifier, PolicySetChild> policyCombinerParameter = new TargetedCombinerParameter<Identifier, PolicySetChild>();
+            this.readCombinerParameter(policyCombinerParameter);
+            policyCombinerParameter.setTargetId(this.readIdentifier());
+            policySet.addPolicyCombinerParameter(policyCombinerParameter);
+        }
+        return policySet;
+    }
+
+    private PolicySetChild readPolicyIdReference(PolicyIdReferenceBase<?> reference) throws SnapshotException {
+        this.readStatus(reference);
+        if (this.readVarInt() != 0) {
+            Identifier id = this.readIdentifier();
+            VersionMatch version = this.readVersionMatch();
+            VersionMatch earliestVersion = this.readVersionMatch();
+            VersionMatch latestVersion = this.readVersionMatch();
+            reference.setIdReferenceMatch(new StdIdReferenceMatch(id, version, earliestVersion, latestVersion));
+        }
+        return reference;
+    }
+
+    private VersionMatch readVersionMatch() throws SnapshotException {
+        String versionMatch = this.readString();
+        if (versionMatch == null) {
+            return null;
+        }
+        try {
+            return StdVersionMatch.newInstance(versionMatch);
+        } catch (ParseException ex) {
+            throw new SnapshotException("Bad version match " + versionMatch, ex);
+        }
+    }
+
+    private Rule readRule(Policy policy) throws SnapshotException {
+        Rule rule = new Rule();
+        rule.setPolicy(policy);
+        this.readStatus(rule);
+        rule.setRuleId(this.readString());
+        rule.setRuleEffect(this.readRuleEffect());
+        rule.setDescription(this.readString());
+        rule.setTarget(this.readTarget());
+        if (this.readVarInt() != 0) {
+            Condition condition = new Condition();
+            this.readStatus(condition);
+            condition.setExpression(this.readExpression(policy));
+            rule.setCondition(condition);
+        }
+        rule.setObligationExpressions(this.readObligationExpressions(policy));
+        rule.setAdviceExpressions(this.readAdviceExpressions(policy));
+        return rule;
+    }
+
+    private Target readTarget() throws SnapshotException {
+        if (this.readVarInt() == 0) {
+            return null;
+        }
+        Target target = new Target();
+        this.readStatus(target);
+        int anyOfCount = this.readCount();
+        for (int i = 0; i < anyOfCount; i++) {
+            AnyOf anyOf = new AnyOf();
+            this.readStatus(anyOf);
+            int allOfCount = this.readCount();
+            for (int j = 0; j < allOfCount; j++) {
+                AllOf allOf = new AllOf();
+                this.readStatus(allOf);
+                int matchCount = this.readCount();
+                for (int k = 0; k < matchCount; k++) {
+                    allOf.addMatch(this.readMatch());
+                }
+                anyOf.addAllOf(allOf);
+            }
+            target.addAnyOf(anyOf);
+        }
+        return target;
+    }
+
+    private Match readMatch() throws SnapshotException {
+        Match match = new Match();
+        this.readStatus(match);
+        match.setMatchId(this.readIdentifier());
+        match.setAttributeValue(this.readAttributeValue());
+        Expression expression = this.readExpression(null);
+        if (expression != null && !(expression instanceof AttributeRetrievalBase)) {
+            throw new SnapshotException("Match does not hold an attribute designator or selector");
+        }
+        match.setAttributeRetrievalBase((AttributeRetrievalBase)expression);
+        return match;
+    }
+
+    private void readCombinerParameter(CombinerParameter combinerParameter) throws SnapshotException {
+        this.readStatus(combinerParameter);
+        combinerParameter.setName(this.readString());
+        combinerParameter.setAttributeValue(this.readAttributeValue());
+    }
+
+    private List<ObligationExpression> readObligationExpressions(Policy policy) throws SnapshotException {
+        int count = this.readCount();
+        List<ObligationExpression> obligationExpressions = new ArrayList<ObligationExpression>(count);
+        for (int i = 0; i < count; i++) {
+            ObligationExpression obligationExpression = new ObligationExpression();
+            this.readStatus(obligationExpression);
+            obligationExpression.setObligationId(this.readIdentifier());
+            obligationExpression.setRuleEffect(this.readRuleEffect());
+            obligationExpression.setAttributeAssignmentExpressions(this
+                .readAttributeAssignmentExpressions(policy));
+            obligationExpressions.add(obligationExpression);
+        }
+        return obligationExpressions;
+    }
+
+    private List<AdviceExpression> readAdviceExpressions(Policy policy) throws SnapshotException {
+        int count = this.readCount();
+        List<AdviceExpression> adviceExpressions = new ArrayList<AdviceExpression>(count);
+        for (int i = 0; i < count; i++) {
+            AdviceExpression adviceExpression = new AdviceExpression();
+            this.readStatus(adviceExpression);
+            adviceExpression.setAdviceId(this.readIdentifier());
+            adviceExpression.setAppliesTo(this.readRuleEffect());
+            adviceExpression.setAttributeAssignmentExpressions(this.readAttributeAssignmentExpressions(policy));
+            adviceExpressions.add(adviceExpression);
+        }
+        return adviceExpressions;
+    }
+
+    private List<AttributeAssignmentExpression> readAttributeAssignmentExpressions(Policy policy)
+        throws SnapshotException {
+        int count = this.readCount();
+        List<AttributeAssignmentExpression> expressions = new ArrayList<AttributeAssignmentExpression>(count);
+        for (int i = 0; i < count; i++) {
+            AttributeAssignmentExpression expression = new AttributeAssignmentExpression();
+            this.readStatus(expression);
+            expression.setAttributeId(this.readIdentifier());
+            expression.setCategory(this.readIdentifier());
+            expression.setIssuer(this.readString());
+            expression.setExpression(this.readExpression(policy));
+            expressions.add(expression);
+        }
+        return expressions;
+    }
+
+    private void readAttributeRetrievalBase(AttributeRetrievalBase attributeRetrievalBase)
+        throws SnapshotException {
+        this.readStatus(attributeRetrievalBase);
+        attributeRetrievalBase.setCategory(this.readIdentifier());
+        attributeRetrievalBase.setDataTypeId(this.readIdentifier());
+        Boolean mustBePresent = this.readBoolean();
+        if (mustBePresent != null) {
+            attributeRetrievalBase.setMustBePresent(mustBePresent);
+        }
+    }
+
+    private Expression readExpression(Policy policy) throws SnapshotException {
+        int tag = this.readVarInt();
+        switch (tag) {
+        case SnapshotFormat.TAG_NULL:
+            return null;
+        case SnapshotFormat.TAG_APPLY: {
+            Apply apply = new Apply();
+            this.readStatus(apply);
+            apply.setFunctionId(this.readIdentifier());
+            apply.setDescription(this.readString());
+            int count = this.readCount();
+            for (int i = 0; i < count; i++) {
+                apply.addArgument(this.readExpression(policy));
+            }
+            return apply;
+        }
+        case SnapshotFormat.TAG_ATTRIBUTEDESIGNATOR: {
+            AttributeDesignator attributeDesignator = new AttributeDesignator();
+            this.readAttributeRetrievalBase(attributeDesignator);
+            attributeDesignator.setAttributeId(this.readIdentifier());
+            attributeDesignator.setIssuer(this.readString());
+            return attributeDesignator;
+        }
+        case SnapshotFormat.TAG_ATTRIBUTESELECTOR: {
+            AttributeSelector attributeSelector = new AttributeSelector();
+            this.readAttributeRetrievalBase(attributeSelector);
+            attributeSelector.setContextSelectorId(this.readIdentifier());
+            attributeSelector.setPath(this.readString());
+            return attributeSelector;
+        }
+        case SnapshotFormat.TAG_ATTRIBUTEVALUE: {
+            AttributeValueExpression attributeValueExpression = new AttributeValueExpression();
+            this.readStatus(attributeValueExpression);
+            attributeValueExpression.setAttributeValue(this.readAttributeValue());
+            return attributeValueExpression;
+        }
+        case SnapshotFormat.TAG_FUNCTION: {
+            Function function = new Function();
+            this.readStatus(function);
+            function.setFunctionId(this.readIdentifier());
+            return function;
+        }
+        case SnapshotFormat.TAG_VARIABLEREFERENCE: {
+            VariableReference variableReference = new VariableReference();
+            this.readStatus(variableReference);
+            variableReference.setPolicy(policy);
+            variableReference.setVariableId(this.readString());
+            return variableReference;
+        }
+        default:
+            throw new SnapshotException("Unknown expression tag " + tag);
+        }
+    }
+}
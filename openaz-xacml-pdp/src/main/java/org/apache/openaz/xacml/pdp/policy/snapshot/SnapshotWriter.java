@@ -0,0 +1,489 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.policy.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.openaz.xacml.api.AttributeValue;
+import org.apache.openaz.xacml.api.DataType;
+import org.apache.openaz.xacml.api.DataTypeException;
+import org.apache.openaz.xacml.api.DataTypeFactory;
+import org.apache.openaz.xacml.api.IdReferenceMatch;
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.StatusCode;
+import org.apache.openaz.xacml.api.Version;
+import org.apache.openaz.xacml.api.VersionMatch;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.pdp.policy.AdviceExpression;
+import org.apache.openaz.xacml.pdp.policy.AllOf;
+import org.apache.openaz.xacml.pdp.policy.AnyOf;
+import org.apache.openaz.xacml.pdp.policy.AttributeAssignmentExpression;
+import org.apache.openaz.xacml.pdp.policy.CombinerParameter;
+import org.apache.openaz.xacml.pdp.policy.CombiningAlgorithm;
+import org.apache.openaz.xacml.pdp.policy.Condition;
+import org.apache.openaz.xacml.pdp.policy.Expression;
+import org.apache.openaz.xacml.pdp.policy.Match;
+import org.apache.openaz.xacml.pdp.policy.ObligationExpression;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.pdp.policy.PolicyComponent;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.PolicyDefaults;
+import org.apache.openaz.xacml.pdp.policy.PolicyIdReference;
+import org.apache.openaz.xacml.pdp.policy.PolicyIdReferenceBase;
+import org.apache.openaz.xacml.pdp.policy.PolicySet;
+import org.apache.openaz.xacml.pdp.policy.PolicySetChild;
+import org.apache.openaz.xacml.pdp.policy.PolicySetIdReference;
+import org.apache.openaz.xacml.pdp.policy.Rule;
+import org.apache.openaz.xacml.pdp.policy.RuleEffect;
+import org.apache.openaz.xacml.pdp.policy.Target;
+import org.apache.openaz.xacml.pdp.policy.TargetedCombinerParameter;
+import org.apache.openaz.xacml.pdp.policy.VariableDefinition;
+import org.apache.openaz.xacml.pdp.policy.expressions.Apply;
+import org.apache.openaz.xacml.pdp.policy.expressions.AttributeDesignator;
+import org.apache.openaz.xacml.pdp.policy.expressions.AttributeRetrievalBase;
+import org.apache.openaz.xacml.pdp.policy.expressions.AttributeSelector;
+import org.apache.openaz.xacml.pdp.policy.expressions.AttributeValueExpression;
+import org.apache.openaz.xacml.pdp.policy.expressions.Function;
+import org.apache.openaz.xacml.pdp.policy.expressions.VariableReference;
+import org.apache.openaz.xacml.util.FactoryException;
+
+/**
+ * SnapshotWriter converts a compiled {@link org.apache.openaz.xacml.pdp.policy.PolicyDef} graph into the
+ * binary form described in {@link SnapshotFormat}. Constructs the format does not cover, such as a
+ * <code>PolicyIssuer</code> or XPath-valued attributes, cause a {@link SnapshotException} so the caller keeps
+ * using the XML.
+ */
+public class SnapshotWriter {
+    private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(this.body);
+    private final DataTypeFactory dataTypeFactory;
+
+    protected SnapshotWriter() throws SnapshotException {
+        try {
+            this.dataTypeFactory = DataTypeFactory.newInstance();
+        } catch (FactoryException ex) {
+            throw new SnapshotException("Failed to get DataTypeFactory", ex);
+        }
+    }
+
+    /**
+     * Writes the given <code>PolicyDef</code> as a snapshot.
+     *
+     * @param policyDef the <code>PolicyDef</code> to write
+     * @param sourceHash the hash of the XML the <code>PolicyDef</code> was compiled from
+     * @return the bytes of the snapshot
+     * @throws SnapshotException if the <code>PolicyDef</code> cannot be represented in a snapshot
+     */
+    public static byte[] write(PolicyDef policyDef, byte[] sourceHash) throws SnapshotException {
+        SnapshotWriter writer = new SnapshotWriter();
+        try {
+            writer.writePolicySetChild(policyDef, null);
+            writer.out.flush();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(writer.body.size() + 1024);
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(SnapshotFormat.MAGIC);
+            header.writeShort(SnapshotFormat.VERSION);
+            byte[] codeVersion = SnapshotFormat.CODE_VERSION.getBytes(StandardCharsets.UTF_8);
+            header.writeShort(codeVersion.length);
+            header.write(codeVersion);
+            header.writeShort(sourceHash.length);
+            header.write(sourceHash);
+            header.writeInt(writer.strings.size());
+            for (String string : writer.strings.keySet()) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                header.writeInt(utf8.length);
+                header.write(utf8);
+            }
+            header.flush();
+            writer.body.writeTo(bytes);
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new SnapshotException("Failed to write snapshot: " + ex.getMessage(), ex);
+        }
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            this.out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        this.out.writeByte(v);
+    }
+
+    private void writeString(String string) throws IOException {
+        if (string == null) {
+            this.writeVarInt(0);
+            return;
+        }
+        Integer index = this.strings.get(string);
+        if (index == null) {
+            index = this.strings.size() + 1;
+            this.strings.put(string, index);
+        }
+        this.writeVarInt(index);
+    }
+
+    private void writeIdentifier(Identifier identifier) throws IOException {
+        this.writeString(identifier == null ? null : identifier.stringValue());
+    }
+
+    private void writeBoolean(Boolean value) throws IOException {
+        this.out.writeByte(value == null ? 0 : value ? 1 : 2);
+    }
+
+    private void writeRuleEffect(RuleEffect ruleEffect) throws IOException {
+        this.writeString(ruleEffect == null ? null : ruleEffect.getName());
+    }
+
+    private static <T> List<T> toList(Iterator<T> iterator) {
+        List<T> list = new ArrayList<T>();
+        if (iterator != null) {
+            while (iterator.hasNext()) {
+                list.add(iterator.next());
+            }
+        }
+        return list;
+    }
+
+    private void writeStatus(PolicyComponent component) throws IOException {
+        StatusCode statusCode = component.getStatusCode();
+        if (statusCode == null) {
+            this.writeVarInt(0);
+        } else {
+            this.writeVarInt(1);
+            this.writeIdentifier(statusCode.getStatusCodeValue());
+            this.writeString(component.getStatusMessage());
+        }
+    }
+
+    private static <T> String toStringValue(DataType<T> dataType, Object value) throws DataTypeException {
+        return dataType.toStringValue(dataType.convert(value));
+    }
+
+    private void writeAttributeValue(AttributeValue<?> attributeValue) throws IOException, SnapshotException {
+        if (attributeValue == null) {
+            this.writeVarInt(0);
+            return;
+        }
+        Identifier dataTypeId = attributeValue.getDataTypeId();
+        DataType<?> dataType = this.dataTypeFactory.getDataType(dataTypeId);
+        if (dataType == null || XACML3.ID_DATATYPE_XPATHEXPRESSION.equals(dataTypeId)) {
+            throw new SnapshotException("Unsupported data type " + dataTypeId);
+        }
+        String stringValue;
+        try {
+            stringValue = toStringValue(dataType, attributeValue.getValue());
+            //
+            // Only keep values that read back exactly as they were
+            //
+            if (!attributeValue.equals(dataType.createAttributeValue(stringValue, attributeValue
+                .getXPathCategory()))) {
+                throw new SnapshotException("Value of type " + dataTypeId + " does not round trip");
+            }
+        } catch (DataTypeException ex) {
+            throw new SnapshotException("Cannot convert value of type " + dataTypeId, ex);
+        }
+        this.writeVarInt(1);
+        this.writeIdentifier(dataTypeId);
+        this.writeIdentifier(attributeValue.getXPathCategory());
+        this.writeString(stringValue);
+    }
+
+    private void writePolicySetChild(PolicySetChild child, PolicyDefaults parentDefaults) throws IOException,
+        SnapshotException {
+        if (child instanceof Policy) {
+            this.writeVarInt(SnapshotFormat.TAG_POLICY);
+            this.writePolicy((Policy)child, parentDefaults);
+        } else if (child instanceof PolicySet) {
+            this.writeVarInt(SnapshotFormat.TAG_POLICYSET);
+            this.writePolicySet((PolicySet)child, parentDefaults);
+        } else if (child instanceof PolicyIdReference) {
+            this.writeVarInt(SnapshotFormat.TAG_POLICYIDREFERENCE);
+            this.writePolicyIdReference((PolicyIdReference)child);
+        } else if (child instanceof PolicySetIdReference) {
+            this.writeVarInt(SnapshotFormat.TAG_POLICYSETIDREFERENCE);
+            this.writePolicyIdReference((PolicySetIdReference)child);
+        } else {
+            throw new SnapshotException("Unsupported policy element " + child);
+        }
+    }
+
+    private void writePolicyDef(PolicyDef policyDef, PolicyDefaults parentDefaults) throws IOException,
+        SnapshotException {
+        this.writeStatus(policyDef);
+        if (policyDef.getPolicyIssuer() != null) {
+            throw new SnapshotException("PolicyIssuer is not supported");
+        }
+        PolicyDefaults policyDefaults = policyDef.getPolicyDefaults();
+        if (policyDefaults == null || policyDefaults == parentDefaults) {
+            this.writeVarInt(0);
+        } else {
+            URI xpathVersion = policyDefaults.getXPathVersion();
+            this.writeVarInt(1);
+            this.writeString(xpathVersion == null ? null : xpathVersion.toString());
+        }
+        this.writeIdentifier(policyDef.getIdentifier());
+        Version version = policyDef.getVersion();
+        this.writeString(version == null ? null : version.getVersion());
+        this.writeString(policyDef.getDescription());
+        Integer maxDelegationDepth = policyDef.getMaxDelegationDepth();
+        if (maxDelegationDepth == null) {
+            this.writeVarInt(0);
+        } else {
+            this.writeVarInt(1);
+            this.out.writeInt(maxDelegationDepth);
+        }
+        this.writeTarget(policyDef.getTarget());
+        List<CombinerParameter> combinerParameters = toList(policyDef.getCombinerParameters());
+        this.writeVarInt(combinerParameters.size());
+        for (CombinerParameter combinerParameter : combinerParameters) {
+            this.writeCombinerParameter(combinerParameter);
+        }
+        this.writeObligationExpressions(toList(policyDef.getObligationExpressions()));
+        this.writeAdviceExpressions(toList(policyDef.getAdviceExpressions()));
+    }
+
+    private void writePolicy(Policy policy, PolicyDefaults parentDefaults) throws IOException,
+        SnapshotException {
+        this.writePolicyDef(policy, parentDefaults);
+        CombiningAlgorithm<Rule> algorithm = policy.getRuleCombiningAlgorithm();
+        this.writeIdentifier(algorithm == null ? null : algorithm.getId());
+
+        List<VariableDefinition> variableDefinitions = toList(policy.getVariableDefinitions());
+        this.writeVarInt(variableDefinitions.size());
+        for (VariableDefinition variableDefinition : variableDefinitions) {
+            this.writeStatus(variableDefinition);
+            this.writeString(variableDefinition.getId());
+            this.writeExpression(variableDefinition.getExpression());
+        }
+
+        List<Rule> rules = toList(policy.getRules());
+        this.writeVarInt(rules.size());
+        for (Rule rule : rules) {
+            this.writeRule(rule);
+        }
+
+        List<TargetedCombinerParameter<String, Rule>> ruleCombinerParameters = toList(policy
+            .getRuleCombinerParameters());
+        this.writeVarInt(ruleCombinerParameters.size());
+        for (TargetedCombinerParameter<String, Rule> ruleCombinerParameter : ruleCombinerParameters) {
+            this.writeCombinerParameter(ruleCombinerParameter);
+            this.writeString(ruleCombinerParameter.getTargetId());
+        }
+    }
+
+    private void writePolicySet(PolicySet policySet, PolicyDefaults parentDefaults) throws IOException,
+        SnapshotException {
+        this.writePolicyDef(policySet, parentDefaults);
+        CombiningAlgorithm<PolicySetChild> algorithm = policySet.getPolicyCombiningAlgorithm();
+        this.writeIdentifier(algorithm == null ? null : algorithm.getId());
+
+        List<PolicySetChild> children = toList(policySet.getChildren());
+        this.writeVarInt(children.size());
+        for (PolicySetChild child : children) {
+            this.writePolicySetChild(child, policySet.getPolicyDefaults());
+        }
+
+        List<TargetedCombinerParameter<Identifier, PolicySetChild>> policyCombinerParameters = toList(policySet
+            .getPolicyCombinerParameters());
+        this.writeVarInt(policyCombinerParameters.size());
+        for (TargetedCombinerParameter<Identifier, PolicySetChild> policyCombinerParameter : policyCombinerParameters) {
+            this.writeCombinerParameter(policyCombinerParameter);
+            this.writeIdentifier(policyCombinerParameter.getTargetId());
+        }
+    }
+
+    private void writePolicyIdReference(PolicyIdReferenceBase<?> reference) throws IOException {
+        this.writeStatus(reference);
+        IdReferenceMatch idReferenceMatch = reference.getIdReferenceMatch();
+        if (idReferenceMatch == null) {
+            this.writeVarInt(0);
+            return;
+        }
+        this.writeVarInt(1);
+        this.writeIdentifier(idReferenceMatch.getId());
+        this.writeVersionMatch(idReferenceMatch.getVersion());
+        this.writeVersionMatch(idReferenceMatch.getEarliestVersion());
+        this.writeVersionMatch(idReferenceMatch.getLatestVersion());
+    }
+
+    private void writeVersionMatch(VersionMatch versionMatch) throws IOException {
+        this.writeString(versionMatch == null ? null : versionMatch.getVersionMatch());
+    }
+
+    private void writeRule(Rule rule) throws IOException, SnapshotException {
+        this.writeStatus(rule);
+        this.writeString(rule.getRuleId());
+        this.writeRuleEffect(rule.getRuleEffect());
+        this.writeString(rule.getDescription());
+        this.writeTarget(rule.getTarget());
+        Condition condition = rule.getCondition();
+        if (condition == null) {
+            this.writeVarInt(0);
+        } else {
+            this.writeVarInt(1);
+            this.writeStatus(condition);
+            this.writeExpression(condition.getExpression());
+        }
+        this.writeObligationExpressions(toList(rule.getObligationExpressions()));
+        this.writeAdviceExpressions(toList(rule.getAdviceExpressions()));
+    }
+
+    private void writeTarget(Target target) throws IOException, SnapshotException {
+        if (target == null) {
+            this.writeVarInt(0);
+            return;
+        }
+        this.writeVarInt(1);
+        this.writeStatus(target);
+        List<AnyOf> anyOfs = toList(target.getAnyOfs());
+        this.writeVarInt(anyOfs.size());
+        for (AnyOf anyOf : anyOfs) {
+            this.writeStatus(anyOf);
+            List<AllOf> allOfs = toList(anyOf.getAllOfs());
+            this.writeVarInt(allOfs.size());
+            for (AllOf allOf : allOfs) {
+                this.writeStatus(allOf);
+                List<Match> matches = toList(allOf.getMatches());
+                this.writeVarInt(matches.size());
+                for (Match match : matches) {
+                    this.writeMatch(match);
+                }
+            }
+        }
+    }
+
+    private void writeMatch(Match match) throws IOException, SnapshotException {
+        if (match.getPolicyDefaults() != null) {
+            throw new SnapshotException("Match PolicyDefaults are not supported");
+        }
+        this.writeStatus(match);
+        this.writeIdentifier(match.getMatchId());
+        this.writeAttributeValue(match.getAttributeValue());
+        this.writeExpression(match.getAttributeRetrievalBase());
+    }
+
+    private void writeCombinerParameter(CombinerParameter combinerParameter) throws IOException,
+        SnapshotException {
+        this.writeStatus(combinerParameter);
+        this.writeString(combinerParameter.getName());
+        this.writeAttributeValue(combinerParameter.getAttributeValue());
+    }
+
+    private void writeObligationExpressions(List<ObligationExpression> obligationExpressions)
+        throws IOException, SnapshotException {
+        this.writeVarInt(obligationExpressions.size());
+        for (ObligationExpression obligationExpression : obligationExpressions) {
+            this.writeStatus(obligationExpression);
+            this.writeIdentifier(obligationExpression.getObligationId());
+            this.writeRuleEffect(obligationExpression.getRuleEffect());
+            this.writeAttributeAssignmentExpressions(toList(obligationExpression
+                .getAttributeAssignmentExpressions()));
+        }
+    }
+
+    private void writeAdviceExpressions(List<AdviceExpression> adviceExpressions) throws IOException,
+        SnapshotException {
+        this.writeVarInt(adviceExpressions.size());
+        for (AdviceExpression adviceExpression : adviceExpressions) {
+            this.writeStatus(adviceExpression);
+            this.writeIdentifier(adviceExpression.getAdviceId());
+            this.writeRuleEffect(adviceExpression.getAppliesTo());
+            this.writeAttributeAssignmentExpressions(toList(adviceExpression
+                .getAttributeAssignmentExpressions()));
+        }
+    }
+
+    private void writeAttributeAssignmentExpressions(List<AttributeAssignmentExpression> expressions)
+        throws IOException, SnapshotException {
+        this.writeVarInt(expressions.size());
+        for (AttributeAssignmentExpression expression : expressions) {
+            this.writeStatus(expression);
+            this.writeIdentifier(expression.getAttributeId());
+            this.writeIdentifier(expression.getCategory());
+            this.writeString(expression.getIssuer());
+            this.writeExpression(expression.getExpression());
+        }
+    }
+
+    private void writeAttributeRetrievalBase(AttributeRetrievalBase attributeRetrievalBase)
+        throws IOException {
+        this.writeStatus(attributeRetrievalBase);
+        this.writeIdentifier(attributeRetrievalBase.getCategory());
+        this.writeIdentifier(attributeRetrievalBase.getDataTypeId());
+        this.writeBoolean(attributeRetrievalBase.getMustBePresent());
+    }
+
+    private void writeExpression(Expression expression) throws IOException, SnapshotException {
+        if (expression == null) {
+            this.writeVarInt(SnapshotFormat.TAG_NULL);
+        } else if (expression instanceof Apply) {
+            Apply apply = (Apply)expression;
+            this.writeVarInt(SnapshotFormat.TAG_APPLY);
+            this.writeStatus(apply);
+            this.writeIdentifier(apply.getFunctionId());
+            this.writeString(apply.getDescription());
+            List<Expression> arguments = toList(apply.getArguments());
+            this.writeVarInt(arguments.size());
+            for (Expression argument : arguments) {
+                this.writeExpression(argument);
+            }
+        } else if (expression instanceof AttributeDesignator) {
+            AttributeDesignator attributeDesignator = (AttributeDesignator)expression;
+            this.writeVarInt(SnapshotFormat.TAG_ATTRIBUTEDESIGNATOR);
+            this.writeAttributeRetrievalBase(attributeDesignator);
+            this.writeIdentifier(attributeDesignator.getAttributeId());
+            this.writeString(attributeDesignator.getIssuer());
+        } else if (expression instanceof AttributeSelector) {
+            AttributeSelector attributeSelector = (AttributeSelector)expression;
+            this.writeVarInt(SnapshotFormat.TAG_ATTRIBUTESELECTOR);
+            this.writeAttributeRetrievalBase(attributeSelector);
+            this.writeIdentifier(attributeSelector.getContextSelectorId());
+            this.writeString(attributeSelector.getPath());
+        } else if (expression instanceof AttributeValueExpression) {
+            this.writeVarInt(SnapshotFormat.TAG_ATTRIBUTEVALUE);
+            this.writeStatus(expression);
+            this.writeAttributeValue(((AttributeValueExpression)expression).getAttributeValue());
+        } else if (expression instanceof Function) {
+            this.writeVarInt(SnapshotFormat.TAG_FUNCTION);
+            this.writeStatus(expression);
+            this.writeIdentifier(((Function)expression).getFunctionId());
+        } else if (expression instanceof VariableReference) {
+            this.writeVarInt(SnapshotFormat.TAG_VARIABLEREFERENCE);
+            this.writeStatus(expression);
+            this.writeString(((VariableReference)expression).getVariableId());
+        } else {
+            throw new SnapshotException("Unsupported expression " + expression.getClass().getName());
+        }
+    }
+}
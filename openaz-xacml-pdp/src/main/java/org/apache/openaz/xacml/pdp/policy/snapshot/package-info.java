@@ -0,0 +1,29 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+
+/**
+ * Provides a compact binary snapshot of a compiled {@link org.apache.openaz.xacml.pdp.policy.PolicyDef} graph
+ * so a PDP can restore its policies without parsing and repairing the XACML XML again. Each snapshot records
+ * a hash of the XML it was compiled from and is ignored once that XML changes.
+ *
+ */
+package org.apache.openaz.xacml.pdp.policy.snapshot;
@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.pdp.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.pdp.eval.MatchResult;
+
+/**
+ * ElementStatistics holds the counters for one PolicySet, Policy, Rule or Condition: how often it was
+ * evaluated, how often it matched, did not match or was indeterminate, and the time spent evaluating it.
+ * The time includes the time spent in the elements it contains.
+ */
+public class ElementStatistics {
+    /**
+     * The kinds of policy elements that statistics are kept for.
+     */
+    public enum Kind {
+        POLICYSET("PolicySet"),
+        POLICY("Policy"),
+        RULE("Rule"),
+        CONDITION("Condition");
+
+        private final String label;
+
+        private Kind(String labelIn) {
+            this.label = labelIn;
+        }
+
+        @Override
+        public String toString() {
+            return this.label;
+        }
+    }
+
+    private final Kind kind;
+    private final String id;
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong matches = new AtomicLong();
+    private final AtomicLong noMatches = new AtomicLong();
+    private final AtomicLong indeterminates = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    public ElementStatistics(Kind kindIn, String idIn) {
+        this.kind = kindIn;
+        this.id = idIn;
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * Records one evaluation.
+     *
+     * @param matchCode whether the element matched
+     * @param elapsedNanos the time the evaluation took
+     */
+    public void record(MatchResult.MatchCode matchCode, long elapsedNanos) {
+        this.evaluations.incrementAndGet();
+        switch (matchCode) {
+        case MATCH:
+            this.matches.incrementAndGet();
+            break;
+        case NOMATCH:
+            this.noMatches.incrementAndGet();
+            break;
+        default:
+            this.indeterminates.incrementAndGet();
+            break;
+        }
+        this.nanos.addAndGet(elapsedNanos);
+    }
+
+    /**
+     * Records one evaluation of a PolicySet, Policy or Rule. Permit and Deny count as a match, NotApplicable
+     * as no match and anything else as indeterminate.
+     *
+     * @param decision the <code>Decision</code> of the evaluation
+     * @param elapsedNanos the time the evaluation took
+     */
+    public void record(Decision decision, long elapsedNanos) {
+        MatchResult.MatchCode matchCode;
+        if (decision == Decision.PERMIT || decision == Decision.DENY) {
+            matchCode = MatchResult.MatchCode.MATCH;
+        } else if (decision == Decision.NOTAPPLICABLE) {
+            matchCode = MatchResult.MatchCode.NOMATCH;
+        } else {
+            matchCode = MatchResult.MatchCode.INDETERMINATE;
+        }
+        this.record(matchCode, elapsedNanos);
+    }
+
+    /**
+     * Sets all counters back to zero.
+     */
+    void reset() {
+        this.evaluations.set(0);
+        this.matches.set(0);
+        this.noMatches.set(0);
+        this.indeterminates.set(0);
+        this.nanos.set(0);
+    }
+
+    public long getEvaluations() {
+        return this.evaluations.get();
+    }
+
+    public long getMatches() {
+        return this.matches.get();
+    }
+
+    public long getNoMatches() {
+        return this.noMatches.get();
+    }
+
+    public long getIndeterminates() {
+        return this.indeterminates.get();
+    }
+
+    public long getNanos() {
+        return this.nanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.kind + " " + this.id + ": evaluations=" + this.getEvaluations() + ",matches="
+               + this.getMatches() + ",noMatches=" + this.getNoMatches() + ",indeterminates="
+               + this.getIndeterminates() + ",nanos=" + this.getNanos();
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.pdp.statistics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.pdp.eval.Evaluatable;
+import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
+import org.apache.openaz.xacml.pdp.eval.EvaluationException;
+import org.apache.openaz.xacml.pdp.eval.EvaluationResult;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.Rule;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * EvaluationStatistics collects the {@link ElementStatistics} of all PolicySets, Policies, Rules and
+ * Conditions in the JVM. The elements are keyed by their ids, so the counters of a policy carry over when the
+ * same policy is loaded again.
+ * <p>
+ * Only one in every {@link #getSampleInterval()} requests is measured, which keeps the cost of timing it
+ * down. All elements evaluated for a sampled request are measured, so the counters of a policy and its rules
+ * are counts over the same requests; multiply by the sample interval for an estimate of the totals. The
+ * sample interval is read from
+ * {@link org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties#PROP_STATISTICS_SAMPLEINTERVAL}; the default
+ * of 0 keeps no statistics at all.
+ */
+public class EvaluationStatistics {
+    private static final Log logger = LogFactory.getLog(EvaluationStatistics.class);
+
+    private static final JsonFactory jsonFactory = new JsonFactory()
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final Comparator<ElementStatistics> COMPARATOR_NANOS = new Comparator<ElementStatistics>() {
+        @Override
+        public int compare(ElementStatistics elementStatistics1, ElementStatistics elementStatistics2) {
+            return Long.compare(elementStatistics2.getNanos(), elementStatistics1.getNanos());
+        }
+    };
+
+    private static final EvaluationStatistics instance = new EvaluationStatistics(getSampleIntervalProperty());
+
+    private final ThreadLocal<Boolean> sampledRequest = new ThreadLocal<Boolean>();
+    private final ThreadLocal<Boolean> suppressed = new ThreadLocal<Boolean>();
+    private volatile int sampleInterval;
+    private final ConcurrentMap<String, ElementStatistics> elements = new ConcurrentHashMap<String, ElementStatistics>();
+
+    protected EvaluationStatistics(int sampleIntervalIn) {
+        this.sampleInterval = sampleIntervalIn;
+    }
+
+    private static int getSampleIntervalProperty() {
+        try {
+            return Integer.parseInt(XACMLProperties
+                .getProperty(OpenAZPDPProperties.PROP_STATISTICS_SAMPLEINTERVAL, "0"));
+        } catch (Exception e) {
+            logger.warn("Unable to read " + OpenAZPDPProperties.PROP_STATISTICS_SAMPLEINTERVAL
+                        + ", evaluation statistics are disabled: " + e);
+            return 0;
+        }
+    }
+
+    /**
+     * @return the <code>EvaluationStatistics</code> shared by the JVM
+     */
+    public static EvaluationStatistics getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return one in how many evaluations is measured, 0 if none are
+     */
+    public int getSampleInterval() {
+        return this.sampleInterval;
+    }
+
+    public void setSampleInterval(int sampleIntervalIn) {
+        this.sampleInterval = sampleIntervalIn;
+    }
+
+    /**
+     * Decides whether the request about to be evaluated on this thread is measured. Must be followed by a
+     * call to {@link #endRequest()} on the same thread.
+     */
+    public void startRequest() {
+        int sampleIntervalThis = this.sampleInterval;
+        if (this.suppressed.get() != null) {
+            return;
+        }
+        if (sampleIntervalThis == 1 || sampleIntervalThis > 1
+                                       && ThreadLocalRandom.current().nextInt(sampleIntervalThis) == 0) {
+            this.sampledRequest.set(Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Ends the request started with {@link #startRequest()} on this thread.
+     */
+    public void endRequest() {
+        this.sampledRequest.remove();
+    }
+
+    /**
+     * Keeps the requests started on the current thread from being sampled until {@link #endSuppress()}, for
+     * work such as an engine warm-up that should not show up in the statistics.
+     */
+    public void beginSuppress() {
+        this.suppressed.set(Boolean.TRUE);
+    }
+
+    /**
+     * Lets the requests started on the current thread be sampled again after {@link #beginSuppress()}.
+     */
+    public void endSuppress() {
+        this.suppressed.remove();
+    }
+
+    /**
+     * @return true if the request being evaluated on this thread is timed and recorded
+     */
+    public boolean isSampled() {
+        return this.sampledRequest.get() != null;
+    }
+
+    /**
+     * Evaluates the given <code>Evaluatable</code>, recording the outcome and time taken if it is a
+     * <code>PolicyDef</code> or a <code>Rule</code> and the current request is sampled.
+     *
+     * @param evaluatable the <code>Evaluatable</code> to evaluate
+     * @param evaluationContext the <code>EvaluationContext</code> to evaluate in
+     * @return the <code>EvaluationResult</code> of the <code>Evaluatable</code>
+     * @throws EvaluationException
+     */
+    public static EvaluationResult evaluate(Evaluatable evaluatable, EvaluationContext evaluationContext)
+        throws EvaluationException {
+        ElementStatistics elementStatistics = null;
+        if (instance.isSampled()) {
+            if (evaluatable instanceof PolicyDef) {
+                elementStatistics = ((PolicyDef)evaluatable).getStatistics();
+            } else if (evaluatable instanceof Rule) {
+                elementStatistics = ((Rule)evaluatable).getStatistics();
+            }
+        }
+        if (elementStatistics == null) {
+            return evaluatable.evaluate(evaluationContext);
+        }
+        long startNanos = System.nanoTime();
+        EvaluationResult evaluationResult = evaluatable.evaluate(evaluationContext);
+        elementStatistics.record(evaluationResult.getDecision(), System.nanoTime() - startNanos);
+        return evaluationResult;
+    }
+
+    /**
+     * Gets the <code>ElementStatistics</code> for an element, creating them if needed.
+     *
+     * @param kind the kind of element
+     * @param id the id of the element, unique among elements of its kind
+     * @return the <code>ElementStatistics</code>
+     */
+    public ElementStatistics getStatistics(ElementStatistics.Kind kind, String id) {
+        String key = kind + ":" + id;
+        ElementStatistics elementStatistics = this.elements.get(key);
+        if (elementStatistics == null) {
+            ElementStatistics elementStatisticsNew = new ElementStatistics(kind, id);
+            elementStatistics = this.elements.putIfAbsent(key, elementStatisticsNew);
+            if (elementStatistics == null) {
+                elementStatistics = elementStatisticsNew;
+            }
+        }
+        return elementStatistics;
+    }
+
+    /**
+     * Gets the elements that took the most time in total.
+     *
+     * @param count the maximum number of elements to return
+     * @return the elements ordered by the time spent in them, most first
+     */
+    public List<ElementStatistics> getTop(int count) {
+        List<ElementStatistics> listElements = new ArrayList<ElementStatistics>();
+        for (ElementStatistics elementStatistics : this.elements.values()) {
+            if (elementStatistics.getEvaluations() > 0) {
+                listElements.add(elementStatistics);
+            }
+        }
+        Collections.sort(listElements, COMPARATOR_NANOS);
+        return listElements.size() > count ? listElements.subList(0, count) : listElements;
+    }
+
+    /**
+     * Clears the statistics of all elements. The elements themselves are kept, since loaded policies hold on
+     * to theirs.
+     */
+    public void reset() {
+        for (ElementStatistics elementStatistics : this.elements.values()) {
+            elementStatistics.reset();
+        }
+    }
+
+    /**
+     * Writes the elements that took the most time in total as JSON.
+     *
+     * @param outputStream where to write the JSON, it is not closed
+     * @param count the maximum number of elements to write
+     * @throws IOException
+     */
+    public void writeJSON(OutputStream outputStream, int count) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeNumberField("sampleInterval", this.getSampleInterval());
+            generator.writeArrayFieldStart("elements");
+            for (ElementStatistics elementStatistics : this.getTop(count)) {
+                generator.writeStartObject();
+                generator.writeStringField("kind", elementStatistics.getKind().toString());
+                generator.writeStringField("id", elementStatistics.getId());
+                generator.writeNumberField("evaluations", elementStatistics.getEvaluations());
+                generator.writeNumberField("matches", elementStatistics.getMatches());
+                generator.writeNumberField("noMatches", elementStatistics.getNoMatches());
+                generator.writeNumberField("indeterminates", elementStatistics.getIndeterminates());
+                generator.writeNumberField("nanos", elementStatistics.getNanos());
+                generator.writeNumberField("averageNanos", elementStatistics.getNanos()
+                                                           / elementStatistics.getEvaluations());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+}
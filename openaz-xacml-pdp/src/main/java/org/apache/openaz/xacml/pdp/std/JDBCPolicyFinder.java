@@ -0,0 +1,451 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.IdReferenceMatch;
+import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
+import org.apache.openaz.xacml.pdp.policy.EvictablePolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinder;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.PolicySet;
+import org.apache.openaz.xacml.pdp.policy.ReplaceablePolicyFinder;
+import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
+import org.apache.openaz.xacml.pdp.policy.snapshot.SnapshotException;
+import org.apache.openaz.xacml.pdp.policy.snapshot.SnapshotPolicyDef;
+import org.apache.openaz.xacml.pdp.policy.snapshot.SnapshotReader;
+import org.apache.openaz.xacml.std.dom.DOMStructureException;
+
+/**
+ * JDBCPolicyFinder implements the {@link org.apache.openaz.xacml.pdp.policy.PolicyFinder} interface over
+ * policies kept in a database table with the columns:
+ * <ul>
+ * <li>POLICY_ID: the id of the policy or policy set</li>
+ * <li>VERSION: its version, which together with POLICY_ID identifies the row</li>
+ * <li>ROOT: true if it is a root policy</li>
+ * <li>POLICY: its XACML XML, may be null if SNAPSHOT is set</li>
+ * <li>SNAPSHOT: a binary snapshot of the XML written by
+ * {@link org.apache.openaz.xacml.pdp.policy.snapshot.SnapshotWriter}, or null</li>
+ * <li>UPDATED: a number that increases whenever the row changes, such as the time it was changed</li>
+ * </ul>
+ * Each {@link #refresh()} reads the POLICY_ID, VERSION and UPDATED columns of the table, loads the rows
+ * that are new or changed with one query, and swaps in a new {@link StdPolicyFinder} over the result in one
+ * step. The evaluation contexts of {@link StdEvaluationContextFactory} take the current policies when they
+ * are created, with {@link #getCurrentPolicyFinder()}, so a request's root policy and the policies it
+ * references come from the same refresh. References are resolved again on each evaluation, so a changed
+ * referenced policy takes effect even when the policy referring to it has not changed. Lookups made
+ * directly on the <code>JDBCPolicyFinder</code> always use the latest policies.
+ */
+public class JDBCPolicyFinder implements ReplaceablePolicyFinder {
+    public static final int VALIDATION_TIMEOUT = 5;
+
+    private static final Log logger = LogFactory.getLog(JDBCPolicyFinder.class);
+
+    private final DataSource dataSource;
+    private final String url;
+    private final Properties connectionProperties;
+    private final String table;
+    private final Properties properties;
+    private Connection connection;
+    private Map<String, Row> rows = Collections.emptyMap();
+    private volatile Policies policies;
+    private ScheduledExecutorService poller;
+    private boolean isShutdown;
+
+    /**
+     * A row of the policy table as last loaded.
+     */
+    private static class Row {
+        private final long updated;
+        private final boolean root;
+        private final PolicyDef policyDef;
+
+        Row(long updatedIn, boolean rootIn, PolicyDef policyDefIn) {
+            this.updated = updatedIn;
+            this.root = rootIn;
+            this.policyDef = policyDefIn;
+        }
+    }
+
+    /**
+     * The policies loaded by one refresh.
+     */
+    private static class Policies implements PolicyFinder {
+        private final StdPolicyFinder policyFinder;
+        private final long generation;
+
+        Policies(StdPolicyFinder policyFinderIn, long generationIn) {
+            this.policyFinder = policyFinderIn;
+            this.generation = generationIn;
+        }
+
+        @Override
+        public PolicyFinderResult<PolicyDef> getRootPolicyDef(EvaluationContext evaluationContext) {
+            return this.policyFinder.getRootPolicyDef(evaluationContext);
+        }
+
+        @Override
+        public PolicyFinderResult<Policy> getPolicy(IdReferenceMatch idReferenceMatch) {
+            return evictable(this.policyFinder.getPolicy(idReferenceMatch));
+        }
+
+        @Override
+        public PolicyFinderResult<PolicySet> getPolicySet(IdReferenceMatch idReferenceMatch) {
+            return evictable(this.policyFinder.getPolicySet(idReferenceMatch));
+        }
+    }
+
+    /**
+     * The result of a lookup, which references must not hold on to since the policies may be replaced.
+     */
+    private static class JDBCPolicyFinderResult<T extends PolicyDef> extends StdPolicyFinderResult<T>
+        implements EvictablePolicyFinderResult<T> {
+        JDBCPolicyFinderResult(T policyDefIn) {
+            super(policyDefIn);
+        }
+    }
+
+    private JDBCPolicyFinder(DataSource dataSourceIn, String urlIn, Properties connectionPropertiesIn,
+                             String tableIn, Properties propertiesIn) {
+        this.dataSource = dataSourceIn;
+        this.url = urlIn;
+        this.connectionProperties = connectionPropertiesIn;
+        this.table = tableIn;
+        this.properties = propertiesIn;
+        this.policies = new Policies(new StdPolicyFinder(null, null, propertiesIn), 0);
+    }
+
+    /**
+     * Creates a new <code>JDBCPolicyFinder</code> that borrows a connection from the given
+     * <code>DataSource</code> for each refresh.
+     *
+     * @param dataSourceIn the (usually pooled) <code>DataSource</code> of the database
+     * @param tableIn the name of the policy table
+     * @param propertiesIn the <code>Properties</code> to configure the underlying finders with
+     */
+    public JDBCPolicyFinder(DataSource dataSourceIn, String tableIn, Properties propertiesIn) {
+        this(dataSourceIn, null, null, tableIn, propertiesIn);
+    }
+
+    /**
+     * Creates a new <code>JDBCPolicyFinder</code> that keeps one connection to the given URL open and
+     * reuses it for each refresh.
+     *
+     * @param urlIn the JDBC URL of the database
+     * @param connectionPropertiesIn the <code>Properties</code> to connect with, such as user and password
+     * @param tableIn the name of the policy table
+     * @param propertiesIn the <code>Properties</code> to configure the underlying finders with
+     */
+    public JDBCPolicyFinder(String urlIn, Properties connectionPropertiesIn, String tableIn,
+                            Properties propertiesIn) {
+        this(null, urlIn, connectionPropertiesIn, tableIn, propertiesIn);
+    }
+
+    private Connection getConnection() throws SQLException {
+        if (this.dataSource != null) {
+            return this.dataSource.getConnection();
+        }
+        if (this.connection != null) {
+            try {
+                if (this.connection.isValid(VALIDATION_TIMEOUT)) {
+                    return this.connection;
+                }
+            } catch (SQLException ex) {
+                logger.warn("Failed to validate connection: " + ex.getMessage());
+            }
+            this.closeConnection();
+        }
+        this.connection = DriverManager.getConnection(this.url, this.connectionProperties);
+        return this.connection;
+    }
+
+    private void releaseConnection(Connection connectionIn) {
+        if (this.dataSource != null) {
+            try {
+                connectionIn.close();
+            } catch (SQLException ex) {
+                logger.warn("Failed to return connection: " + ex.getMessage());
+            }
+        }
+    }
+
+    private void closeConnection() {
+        if (this.connection != null) {
+            try {
+                this.connection.close();
+            } catch (SQLException ex) {
+                logger.warn("Failed to close connection: " + ex.getMessage());
+            }
+            this.connection = null;
+        }
+    }
+
+    private static String getKey(String policyId, String version) {
+        return policyId + "\n" + version;
+    }
+
+    /**
+     * Loads any rows of the policy table that were added or changed since the last refresh and, if anything
+     * was added, changed or removed, replaces the current policies with the new ones.
+     *
+     * @return true if the policies were replaced
+     * @throws SQLException if the table cannot be read
+     */
+    public synchronized boolean refresh() throws SQLException {
+        long start = System.currentTimeMillis();
+        Map<String, Row> rowsNew = new HashMap<String, Row>();
+        int loaded = 0;
+        Connection connectionRefresh = this.getConnection();
+        try {
+            //
+            // Find the rows and when each last changed, keeping the ones that have not changed
+            //
+            Set<String> changed = new HashSet<String>();
+            long since = Long.MAX_VALUE;
+            try (Statement statement = connectionRefresh.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT POLICY_ID, VERSION, UPDATED FROM "
+                                                             + this.table)) {
+                while (resultSet.next()) {
+                    String key = getKey(resultSet.getString(1), resultSet.getString(2));
+                    long updated = resultSet.getLong(3);
+                    Row row = this.rows.get(key);
+                    if (row != null && row.updated == updated) {
+                        rowsNew.put(key, row);
+                    } else {
+                        changed.add(key);
+                        since = Math.min(since, updated);
+                    }
+                }
+            }
+            //
+            // Load the rest in one query, which may also return some unchanged rows changed later than them
+            //
+            if (!changed.isEmpty()) {
+                try (PreparedStatement statement = connectionRefresh
+                    .prepareStatement("SELECT POLICY_ID, VERSION, ROOT, POLICY, SNAPSHOT, UPDATED FROM "
+                                      + this.table + " WHERE UPDATED >= ?")) {
+                    statement.setLong(1, since);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            String key = getKey(resultSet.getString(1), resultSet.getString(2));
+                            if (changed.remove(key)) {
+                                rowsNew.put(key, this.loadRow(resultSet));
+                                loaded++;
+                            }
+                        }
+                    }
+                }
+                //
+                // A row the query did not return was removed, or its UPDATED went down, since it was listed;
+                // keep what we had for it until the next refresh sorts it out
+                //
+                for (String key : changed) {
+                    Row row = this.rows.get(key);
+                    if (row != null) {
+                        rowsNew.put(key, row);
+                    }
+                }
+            }
+        } finally {
+            this.releaseConnection(connectionRefresh);
+        }
+        if (loaded == 0 && rowsNew.size() == this.rows.size()) {
+            return false;
+        }
+        //
+        // Swap in a finder over the new set of policies
+        //
+        List<PolicyDef> roots = new ArrayList<PolicyDef>();
+        List<PolicyDef> referenced = new ArrayList<PolicyDef>();
+        for (Row row : rowsNew.values()) {
+            if (row.policyDef != null) {
+                (row.root ? roots : referenced).add(row.policyDef);
+            }
+        }
+        this.policies = new Policies(new StdPolicyFinder(roots, referenced, this.properties),
+                                     this.policies.generation + 1);
+        this.rows = rowsNew;
+        logger.info("Loaded " + loaded + " changed policies of " + rowsNew.size() + " from " + this.table
+                    + " in " + (System.currentTimeMillis() - start) + " ms");
+        return true;
+    }
+
+    private Row loadRow(ResultSet resultSet) throws SQLException {
+        String policyId = resultSet.getString(1);
+        String version = resultSet.getString(2);
+        String xml = resultSet.getString(4);
+        PolicyDef policyDef = this.parse(policyId, version,
+                                         xml == null ? null : xml.getBytes(StandardCharsets.UTF_8),
+                                         resultSet.getBytes(5));
+        return new Row(resultSet.getLong(6), resultSet.getBoolean(3), policyDef);
+    }
+
+    /**
+     * Gets the <code>PolicyDef</code> of a row from its snapshot if it has a current one, and otherwise from
+     * its XML. Failures, including unexpected ones from a damaged row, are logged and the row is skipped
+     * until it changes again rather than stopping the refresh.
+     */
+    private PolicyDef parse(String policyId, String version, byte[] xml, byte[] snapshot) {
+        if (snapshot != null) {
+            try {
+                PolicyDef policyDef = SnapshotReader.read(ByteBuffer.wrap(snapshot),
+                                                          xml == null ? null : SnapshotPolicyDef.hash(xml));
+                if (policyDef != null) {
+                    return policyDef;
+                }
+                logger.info("Snapshot of " + policyId + " " + version + " is stale, parsing its XML");
+            } catch (SnapshotException | RuntimeException ex) {
+                logger.warn("Cannot use snapshot of " + policyId + " " + version + ": " + ex.getMessage());
+            }
+        }
+        if (xml == null) {
+            logger.error("No XML for " + policyId + " " + version);
+            return null;
+        }
+        try {
+            return DOMPolicyDef.load(new ByteArrayInputStream(xml));
+        } catch (DOMStructureException | RuntimeException ex) {
+            logger.error("Exception loading " + policyId + " " + version + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Refreshes the policies every given number of milliseconds on a background thread until
+     * {@link #shutdown()} is called.
+     *
+     * @param interval the number of milliseconds between refreshes
+     */
+    public synchronized void startPolling(long interval) {
+        if (this.poller != null || this.isShutdown) {
+            return;
+        }
+        this.poller = Executors.newSingleThreadScheduledExecutor(newThreadFactory());
+        this.poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                JDBCPolicyFinder.this.poll();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll() {
+        try {
+            this.refresh();
+        } catch (SQLException | RuntimeException ex) {
+            logger.error("Failed to refresh policies from " + this.table + ": " + ex.getMessage());
+            synchronized (this) {
+                this.closeConnection();
+            }
+        }
+    }
+
+    /**
+     * Stops polling and closes the connection to the database.
+     */
+    public synchronized void shutdown() {
+        this.isShutdown = true;
+        if (this.poller != null) {
+            this.poller.shutdownNow();
+            this.poller = null;
+        }
+        this.closeConnection();
+    }
+
+    /**
+     * @return true if {@link #shutdown()} has been called
+     */
+    public synchronized boolean isShutdown() {
+        return this.isShutdown;
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "JDBCPolicyFinder-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static <T extends PolicyDef> PolicyFinderResult<T> evictable(PolicyFinderResult<T> result) {
+        if (result.getStatus().isOk() && result.getPolicyDef() != null) {
+            return new JDBCPolicyFinderResult<T>(result.getPolicyDef());
+        }
+        return result;
+    }
+
+    @Override
+    public PolicyFinder getCurrentPolicyFinder() {
+        return this.policies;
+    }
+
+    @Override
+    public long getGeneration() {
+        return this.policies.generation;
+    }
+
+    @Override
+    public PolicyFinderResult<PolicyDef> getRootPolicyDef(EvaluationContext evaluationContext) {
+        return this.policies.getRootPolicyDef(evaluationContext);
+    }
+
+    @Override
+    public PolicyFinderResult<Policy> getPolicy(IdReferenceMatch idReferenceMatch) {
+        return this.policies.getPolicy(idReferenceMatch);
+    }
+
+    @Override
+    public PolicyFinderResult<PolicySet> getPolicySet(IdReferenceMatch idReferenceMatch) {
+        return this.policies.getPolicySet(idReferenceMatch);
+    }
+}
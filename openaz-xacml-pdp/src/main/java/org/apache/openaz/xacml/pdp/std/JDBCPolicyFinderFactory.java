@@ -0,0 +1,185 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinder;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinderFactory;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.util.FactoryException;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+import com.google.common.base.Joiner;
+
+/**
+ * JDBCPolicyFinderFactory creates a {@link JDBCPolicyFinder} over the policy table named by
+ * {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_JDBC_TABLE} and keeps it up to date by polling the
+ * table every {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_JDBC_POLLINTERVAL} milliseconds. If
+ * {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_JDBC_DATASOURCE} is set the database is reached
+ * through that JNDI <code>DataSource</code>, so the container's connection pool is used; otherwise one
+ * connection to {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_JDBC_URL} is kept open.
+ * <p>
+ * <code>PolicyFinderFactory.newInstance</code> creates a new factory each time a PDP engine is built, so the
+ * finders are shared by all factories: every request for the same data source or URL, user and table gets
+ * the same <code>JDBCPolicyFinder</code>, with a single poller and connection, until it is shut down. The
+ * other properties are those of the first request. {@link #shutdown()} stops them all.
+ */
+public class JDBCPolicyFinderFactory extends PolicyFinderFactory {
+    public static final String DEFAULT_TABLE = "POLICIES";
+    public static final long DEFAULT_POLL_INTERVAL = 30000;
+
+    private static final Pattern TABLE_NAME = Pattern
+        .compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    private static final Map<String, JDBCPolicyFinder> POLICY_FINDERS =
+        new HashMap<String, JDBCPolicyFinder>();
+
+    private Log logger = LogFactory.getLog(this.getClass());
+
+    public JDBCPolicyFinderFactory() {
+    }
+
+    /**
+     * Creates the <code>JDBCPolicyFinder</code>, loads the policies and starts polling for changes.
+     *
+     * @param properties the <code>Properties</code> to configure from
+     * @return the new <code>JDBCPolicyFinder</code>
+     * @throws FactoryException if the database cannot be reached or the properties are invalid
+     */
+    protected JDBCPolicyFinder newPolicyFinder(Properties properties) throws FactoryException {
+        String table = properties.getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_TABLE,
+                                              DEFAULT_TABLE);
+        if (!TABLE_NAME.matcher(table).matches()) {
+            throw new FactoryException("Invalid " + OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_TABLE
+                                       + ": " + table);
+        }
+        JDBCPolicyFinder jdbcPolicyFinder;
+        String dataSourceName = properties
+            .getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_DATASOURCE);
+        if (dataSourceName != null) {
+            try {
+                DataSource dataSource = (DataSource)new InitialContext().lookup(dataSourceName);
+                jdbcPolicyFinder = new JDBCPolicyFinder(dataSource, table, properties);
+            } catch (NamingException ex) {
+                throw new FactoryException("Failed to look up " + dataSourceName, ex);
+            }
+        } else {
+            String url = properties.getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_URL);
+            if (url == null) {
+                throw new FactoryException("No '" + OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_URL
+                                           + "' property");
+            }
+            String driver = properties.getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_DRIVER);
+            if (driver != null) {
+                try {
+                    Class.forName(driver);
+                } catch (ClassNotFoundException ex) {
+                    throw new FactoryException("JDBC driver " + driver + " not found", ex);
+                }
+            }
+            Properties connectionProperties = new Properties();
+            String value;
+            if ((value = properties
+                .getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_USER)) != null) {
+                connectionProperties.setProperty("user", value);
+            }
+            if ((value = properties
+                .getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_PASSWORD)) != null) {
+                connectionProperties.setProperty("password", value);
+            }
+            jdbcPolicyFinder = new JDBCPolicyFinder(url, connectionProperties, table, properties);
+        }
+
+        try {
+            jdbcPolicyFinder.refresh();
+        } catch (SQLException ex) {
+            jdbcPolicyFinder.shutdown();
+            throw new FactoryException("Failed to load policies from " + table, ex);
+        }
+
+        long pollInterval = DEFAULT_POLL_INTERVAL;
+        String interval = properties
+            .getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_POLLINTERVAL);
+        if (interval != null) {
+            try {
+                pollInterval = Long.parseLong(interval);
+            } catch (NumberFormatException ex) {
+                this.logger.error("Invalid " + OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_POLLINTERVAL
+                                  + ": " + interval);
+            }
+        }
+        if (pollInterval > 0) {
+            jdbcPolicyFinder.startPolling(pollInterval);
+        }
+        return jdbcPolicyFinder;
+    }
+
+    @Override
+    public PolicyFinder getPolicyFinder() throws FactoryException {
+        try {
+            return this.getPolicyFinder(XACMLProperties.getProperties());
+        } catch (IOException e) {
+            throw new FactoryException(e);
+        }
+    }
+
+    @Override
+    public PolicyFinder getPolicyFinder(Properties properties) throws FactoryException {
+        String key = Joiner.on('\n').useForNull("")
+            .join(properties.getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_DATASOURCE),
+                  properties.getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_URL),
+                  properties.getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_USER),
+                  properties.getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_TABLE,
+                                         DEFAULT_TABLE));
+        synchronized (POLICY_FINDERS) {
+            JDBCPolicyFinder jdbcPolicyFinder = POLICY_FINDERS.get(key);
+            if (jdbcPolicyFinder == null || jdbcPolicyFinder.isShutdown()) {
+                jdbcPolicyFinder = this.newPolicyFinder(properties);
+                POLICY_FINDERS.put(key, jdbcPolicyFinder);
+            }
+            return jdbcPolicyFinder;
+        }
+    }
+
+    /**
+     * Stops polling and closes the connections of all of the <code>JDBCPolicyFinder</code>s created so far.
+     */
+    public static void shutdown() {
+        synchronized (POLICY_FINDERS) {
+            for (JDBCPolicyFinder jdbcPolicyFinder : POLICY_FINDERS.values()) {
+                jdbcPolicyFinder.shutdown();
+            }
+            POLICY_FINDERS.clear();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.IdReference;
+import org.apache.openaz.xacml.api.IdReferenceMatch;
+import org.apache.openaz.xacml.api.Status;
+import org.apache.openaz.xacml.api.Version;
+import org.apache.openaz.xacml.pdp.policy.EvictablePolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.PolicySet;
+import org.apache.openaz.xacml.pdp.policy.snapshot.SnapshotPolicyDef;
+import org.apache.openaz.xacml.std.StdStatus;
+import org.apache.openaz.xacml.std.StdStatusCode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * LazyPolicyFinder extends {@link StdPolicyFinder} for policy stores with many referenced policies, most of
+ * them rarely used. Root policies are held in memory as before, but referenced policies listed in a
+ * {@link PolicyDefIndex} are only parsed the first time a reference to them is evaluated, and are then kept
+ * in a cache of bounded size. Concurrent lookups of a policy that is not cached wait for a single load.
+ * References not found in the index are looked up by the <code>StdPolicyFinder</code>.
+ */
+public class LazyPolicyFinder extends StdPolicyFinder {
+    private static final Log logger = LogFactory.getLog(LazyPolicyFinder.class);
+
+    private final PolicyDefIndex index;
+    private final Properties properties;
+    private final Cache<File, PolicyDef> cache;
+
+    /**
+     * The result of a lookup in the cache, which references must not hold on to.
+     */
+    private static class LazyPolicyFinderResult<T extends PolicyDef> extends StdPolicyFinderResult<T>
+        implements EvictablePolicyFinderResult<T> {
+        LazyPolicyFinderResult(T policyDefIn) {
+            super(policyDefIn);
+        }
+    }
+
+    /**
+     * Creates a new <code>LazyPolicyFinder</code>.
+     *
+     * @param listRootPolicies the root <code>PolicyDef</code>s
+     * @param referencedPolicyDefs the referenced <code>PolicyDef</code>s that are not in the index
+     * @param indexIn the <code>PolicyDefIndex</code> of the referenced policy files
+     * @param maximumSize the maximum number of referenced <code>PolicyDef</code>s held in memory
+     * @param propertiesIn the <code>Properties</code> used to load policy files
+     */
+    public LazyPolicyFinder(Collection<PolicyDef> listRootPolicies,
+                            Collection<PolicyDef> referencedPolicyDefs, PolicyDefIndex indexIn,
+                            long maximumSize, Properties propertiesIn) {
+        super(listRootPolicies, referencedPolicyDefs, propertiesIn);
+        this.index = indexIn;
+        this.properties = propertiesIn;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /**
+     * @return the hit, miss, load and eviction counts of the referenced policy cache
+     */
+    public CacheStats getCacheStats() {
+        return this.cache.stats();
+    }
+
+    @Override
+    public PolicyFinderResult<Policy> getPolicy(IdReferenceMatch idReferenceMatch) {
+        PolicyFinderResult<Policy> result = this.lookup(idReferenceMatch, Policy.class, false);
+        return result == null ? super.getPolicy(idReferenceMatch) : result;
+    }
+
+    @Override
+    public PolicyFinderResult<PolicySet> getPolicySet(IdReferenceMatch idReferenceMatch) {
+        PolicyFinderResult<PolicySet> result = this.lookup(idReferenceMatch, PolicySet.class, true);
+        return result == null ? super.getPolicySet(idReferenceMatch) : result;
+    }
+
+    /**
+     * Finds the latest version in the index matching the reference and gets its <code>PolicyDef</code> from
+     * the cache, loading it if needed.
+     *
+     * @return the <code>PolicyFinderResult</code>, or null if the index has no match
+     */
+    private <T extends PolicyDef> PolicyFinderResult<T> lookup(IdReferenceMatch idReferenceMatch,
+                                                               Class<T> classPolicyDef, boolean isPolicySet) {
+        if (this.index == null || idReferenceMatch == null || idReferenceMatch.getId() == null) {
+            return null;
+        }
+        PolicyDefIndex.Entry bestMatch = null;
+        for (PolicyDefIndex.Entry entry : this.index.getEntries(idReferenceMatch.getId())) {
+            if (entry.isPolicySet() != isPolicySet || !PolicyDef.matches(entry.getIdReference(),
+                                                                          idReferenceMatch)) {
+                continue;
+            }
+            if (bestMatch == null
+                || isNewer(entry.getIdReference().getVersion(), bestMatch.getIdReference().getVersion())) {
+                bestMatch = entry;
+            }
+        }
+        if (bestMatch == null) {
+            return null;
+        }
+        final File file = bestMatch.getFile();
+        final IdReference indexed = bestMatch.getIdReference();
+        try {
+            PolicyDef policyDef = this.cache.get(file, new Callable<PolicyDef>() {
+                @Override
+                public PolicyDef call() throws Exception {
+                    logger.info("Loading referenced policy file " + file);
+                    PolicyDef loaded = SnapshotPolicyDef.load(file, LazyPolicyFinder.this.properties);
+                    if (loaded == null) {
+                        throw new StdPolicyFinderException("No policy in " + file);
+                    }
+                    //
+                    // The file may have been rewritten since it was indexed without its size or time changing
+                    //
+                    if (!Objects.equals(indexed.getId(), loaded.getIdentifier())
+                        || !Objects.equals(indexed.getVersion(), loaded.getVersion())) {
+                        throw new StdPolicyFinderException(file + " holds " + loaded.getIdReference()
+                                                           + ", not " + indexed + " as indexed");
+                    }
+                    return loaded;
+                }
+            });
+            if (!classPolicyDef.isInstance(policyDef)) {
+                return new StdPolicyFinderResult<T>(newError(file + " does not hold a "
+                                                             + classPolicyDef.getSimpleName()));
+            }
+            return new LazyPolicyFinderResult<T>(classPolicyDef.cast(policyDef));
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            logger.error("Exception loading policy file " + file, ex.getCause());
+            return new StdPolicyFinderResult<T>(newError("Exception loading policy def from \"" + file
+                                                         + "\": " + ex.getCause().getMessage()));
+        }
+    }
+
+    /**
+     * Any version is newer than none, as with no version a policy can only match references that do not ask
+     * for one.
+     */
+    private static boolean isNewer(Version version, Version than) {
+        if (version == null) {
+            return false;
+        }
+        return than == null || version.compareTo(than) > 0;
+    }
+
+    private static Status newError(String message) {
+        return new StdStatus(StdStatusCode.STATUS_CODE_PROCESSING_ERROR, message);
+    }
+}
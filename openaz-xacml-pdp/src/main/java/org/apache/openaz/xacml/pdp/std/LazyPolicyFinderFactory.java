@@ -0,0 +1,110 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinder;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+import com.google.common.base.Splitter;
+
+/**
+ * LazyPolicyFinderFactory extends {@link StdPolicyFinderFactory} to create {@link LazyPolicyFinder}s.
+ * Root policies are loaded as usual. Referenced policies with a ".file" property are only indexed by
+ * {@link PolicyDefIndex}, and parsed when first referenced; those with only a ".url" are loaded up front.
+ * <p>
+ * The number of referenced policies held in memory is set by
+ * {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_CACHESIZE}, and the index is kept in the file named
+ * by {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_INDEXFILE} if that property is set.
+ */
+public class LazyPolicyFinderFactory extends StdPolicyFinderFactory {
+    public static final long DEFAULT_CACHE_SIZE = 1000;
+
+    private Log logger = LogFactory.getLog(this.getClass());
+    private PolicyDefIndex index;
+    private Properties properties;
+
+    public LazyPolicyFinderFactory() {
+    }
+
+    @Override
+    protected List<PolicyDef> loadReferencedPolicies(Properties propertiesIn) {
+        this.properties = propertiesIn;
+        String policyIds = propertiesIn.getProperty(XACMLProperties.PROP_REFERENCEDPOLICIES);
+        if (policyIds == null || policyIds.length() == 0) {
+            return null;
+        }
+        //
+        // Index the referenced policies that are in files, and load the rest
+        //
+        List<File> files = new ArrayList<File>();
+        List<String> unindexed = new ArrayList<String>();
+        for (String policyId : Splitter.on(',').trimResults().omitEmptyStrings().split(policyIds)) {
+            String location = propertiesIn.getProperty(policyId + PROP_FILE);
+            if (location != null && new File(location).canRead()) {
+                files.add(new File(location));
+            } else {
+                unindexed.add(policyId);
+            }
+        }
+        String indexFile = propertiesIn.getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_INDEXFILE);
+        this.index = PolicyDefIndex.build(files, indexFile == null ? null : new File(indexFile),
+                                          propertiesIn);
+        for (File file : files) {
+            if (!this.index.contains(file)) {
+                this.logger.warn("Unable to index " + file + ", loading it now");
+                for (String policyId : Splitter.on(',').trimResults().omitEmptyStrings().split(policyIds)) {
+                    if (file.getPath().equals(propertiesIn.getProperty(policyId + PROP_FILE))) {
+                        unindexed.add(policyId);
+                    }
+                }
+            }
+        }
+        if (unindexed.isEmpty()) {
+            return null;
+        }
+        return this.getPolicyDefs(XACMLProperties.PROP_REFERENCEDPOLICIES, unindexed, propertiesIn);
+    }
+
+    @Override
+    protected PolicyFinder newPolicyFinder(List<PolicyDef> rootPolicies, List<PolicyDef> referencedPolicies) {
+        long cacheSize = DEFAULT_CACHE_SIZE;
+        String value = this.properties == null
+            ? null : this.properties.getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_CACHESIZE);
+        if (value != null) {
+            try {
+                cacheSize = Long.parseLong(value);
+            } catch (NumberFormatException ex) {
+                this.logger.error("Invalid " + OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_CACHESIZE + ": "
+                                  + value);
+            }
+        }
+        return new LazyPolicyFinder(rootPolicies, referencedPolicies, this.index, cacheSize, this.properties);
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+/**
+ * ParallelPolicyLoader runs a per-policy load task for a list of policy identifiers on a bounded pool of
+ * threads and hands back one {@link Result} per identifier, in the order the identifiers were given, so
+ * callers see the same root policy ordering no matter which file finished parsing first. Failures do not
+ * stop the other loads; they are collected so the caller can report them all at once.
+ * <p>
+ * Parsing is thread-safe because {@link org.apache.openaz.xacml.std.dom.DOMUtil} keeps one
+ * <code>DocumentBuilder</code> per thread. The pool only lives for the duration of a single
+ * {@link #load(Iterable, Loader)} call.
+ */
+public class ParallelPolicyLoader {
+    private static final Log logger = LogFactory.getLog(ParallelPolicyLoader.class);
+
+    /**
+     * Loads a single policy. Implementations are called concurrently and must not touch shared mutable state.
+     *
+     * @param <T> the type of object produced for each policy
+     */
+    public interface Loader<T> {
+        T load(String policyId) throws Exception;
+    }
+
+    /**
+     * The outcome of loading a single policy: either a value (which may be <code>null</code> if the loader
+     * returned nothing) or the exception the loader threw.
+     *
+     * @param <T> the type of object produced for each policy
+     */
+    public static class Result<T> {
+        private final String policyId;
+        private final T value;
+        private final Exception exception;
+
+        protected Result(String policyIdIn, T valueIn, Exception exceptionIn) {
+            this.policyId = policyIdIn;
+            this.value = valueIn;
+            this.exception = exceptionIn;
+        }
+
+        public String getPolicyId() {
+            return this.policyId;
+        }
+
+        public T getValue() {
+            return this.value;
+        }
+
+        public Exception getException() {
+            return this.exception;
+        }
+    }
+
+    /**
+     * The ordered results of a {@link ParallelPolicyLoader#load(Iterable, Loader)} call together with how
+     * long it took.
+     *
+     * @param <T> the type of object produced for each policy
+     */
+    public static class Results<T> {
+        private final List<Result<T>> results;
+        private final long elapsedMillis;
+
+        protected Results(List<Result<T>> resultsIn, long elapsedMillisIn) {
+            this.results = Collections.unmodifiableList(resultsIn);
+            this.elapsedMillis = elapsedMillisIn;
+        }
+
+        public List<Result<T>> getResults() {
+            return this.results;
+        }
+
+        public long getElapsedMillis() {
+            return this.elapsedMillis;
+        }
+
+        /**
+         * Gets the values that were loaded, in identifier order, skipping failures and <code>null</code>
+         * values.
+         *
+         * @return a <code>List</code> of the loaded values
+         */
+        public List<T> getValues() {
+            List<T> values = new ArrayList<T>(this.results.size());
+            for (Result<T> result : this.results) {
+                if (result.getValue() != null) {
+                    values.add(result.getValue());
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Gets the identifiers of the policies whose loader threw or returned <code>null</code>.
+         *
+         * @return a <code>List</code> of failed policy identifiers, in identifier order
+         */
+        public List<String> getFailedPolicyIds() {
+            List<String> failed = new ArrayList<String>();
+            for (Result<T> result : this.results) {
+                if (result.getException() != null || result.getValue() == null) {
+                    failed.add(result.getPolicyId());
+                }
+            }
+            return failed;
+        }
+    }
+
+    private final int threads;
+
+    public ParallelPolicyLoader(int threadsIn) {
+        this.threads = Math.max(1, threadsIn);
+    }
+
+    /**
+     * Creates a <code>ParallelPolicyLoader</code> sized by the
+     * {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_LOADTHREADS} property, looked up first in the given
+     * <code>Properties</code> and then in the global <code>XACMLProperties</code>. The default is the number
+     * of available processors.
+     *
+     * @param properties the <code>Properties</code> to look in, may be <code>null</code>
+     * @return a new <code>ParallelPolicyLoader</code>
+     */
+    public static ParallelPolicyLoader newInstance(Properties properties) {
+        String value = (properties == null ? null : properties
+            .getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_LOADTHREADS));
+        if (value == null) {
+            value = XACMLProperties.getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_LOADTHREADS);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (value != null && value.trim().length() > 0) {
+            try {
+                threads = Integer.parseInt(value.trim());
+            } catch (NumberFormatException ex) {
+                logger.warn("Invalid " + OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_LOADTHREADS + ": "
+                            + value);
+            }
+        }
+        return new ParallelPolicyLoader(threads);
+    }
+
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Runs the given <code>Loader</code> for each of the policy identifiers and waits for all of them to
+     * finish.
+     *
+     * @param policyIds the identifiers of the policies to load
+     * @param loader the <code>Loader</code> to run for each identifier
+     * @return the <code>Results</code>, one per identifier in the order given
+     */
+    public <T> Results<T> load(Iterable<String> policyIds, final Loader<T> loader) {
+        long start = System.nanoTime();
+        List<String> ids = new ArrayList<String>();
+        for (String policyId : policyIds) {
+            ids.add(policyId);
+        }
+        List<Result<T>> results = new ArrayList<Result<T>>(ids.size());
+        int poolSize = Math.min(this.threads, ids.size());
+        if (poolSize <= 1) {
+            for (String policyId : ids) {
+                results.add(loadOne(loader, policyId));
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(poolSize, newThreadFactory());
+            try {
+                List<Future<Result<T>>> futures = new ArrayList<Future<Result<T>>>(ids.size());
+                for (final String policyId : ids) {
+                    futures.add(executor.submit(new Callable<Result<T>>() {
+                        @Override
+                        public Result<T> call() {
+                            return loadOne(loader, policyId);
+                        }
+                    }));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    results.add(waitFor(futures.get(i), ids.get(i)));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        return new Results<T>(results, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static <T> Result<T> loadOne(Loader<T> loader, String policyId) {
+        try {
+            return new Result<T>(policyId, loader.load(policyId), null);
+        } catch (Exception ex) {
+            return new Result<T>(policyId, null, ex);
+        }
+    }
+
+    private static <T> Result<T> waitFor(Future<Result<T>> future, String policyId) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new Result<T>(policyId, null, ex);
+        } catch (ExecutionException ex) {
+            return new Result<T>(policyId, null, ex);
+        }
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ParallelPolicyLoader-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
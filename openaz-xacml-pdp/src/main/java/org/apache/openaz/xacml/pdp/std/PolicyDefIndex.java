@@ -0,0 +1,289 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.IdReference;
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.Version;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdIdReference;
+import org.apache.openaz.xacml.std.StdVersion;
+
+/**
+ * PolicyDefIndex maps policy and policy set identifiers to the files that declare them, along with the
+ * version each file declares, so that a {@link org.apache.openaz.xacml.pdp.policy.PolicyFinder} can find the
+ * file for a reference without parsing every policy up front. Only the root element of each file is read.
+ * <p>
+ * The index may be kept in a file. Entries for policy files whose length and modification time have not
+ * changed since it was written are reused without reading the policy file again.
+ */
+public class PolicyDefIndex {
+    private static final Log logger = LogFactory.getLog(PolicyDefIndex.class);
+    private static final char SEPARATOR = '\t';
+
+    /**
+     * The identifier, version and kind of the policy in one file.
+     */
+    public static class Entry {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private final boolean isPolicySet;
+        private final IdReference idReference;
+
+        public Entry(File fileIn, long lengthIn, long lastModifiedIn, boolean isPolicySetIn,
+                     Identifier identifier, Version version) {
+            this.file = fileIn;
+            this.length = lengthIn;
+            this.lastModified = lastModifiedIn;
+            this.isPolicySet = isPolicySetIn;
+            this.idReference = new StdIdReference(identifier, version);
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        public boolean isPolicySet() {
+            return this.isPolicySet;
+        }
+
+        public IdReference getIdReference() {
+            return this.idReference;
+        }
+
+        protected boolean isCurrent(File fileIn) {
+            return fileIn.length() == this.length && fileIn.lastModified() == this.lastModified;
+        }
+    }
+
+    private final Map<Identifier, List<Entry>> entries = new HashMap<Identifier, List<Entry>>();
+    private final Set<File> files = new HashSet<File>();
+
+    protected PolicyDefIndex() {
+    }
+
+    protected void add(Entry entry) {
+        List<Entry> list = this.entries.get(entry.getIdReference().getId());
+        if (list == null) {
+            list = new ArrayList<Entry>();
+            this.entries.put(entry.getIdReference().getId(), list);
+        }
+        list.add(entry);
+        this.files.add(entry.getFile());
+    }
+
+    /**
+     * Gets the entries for every file declaring the given identifier, in any version.
+     *
+     * @param identifier the policy or policy set identifier
+     * @return the <code>Entry</code>s, empty if none
+     */
+    public List<Entry> getEntries(Identifier identifier) {
+        List<Entry> list = this.entries.get(identifier);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @param file a policy file
+     * @return true if the file was indexed, false if it was missing or its root element could not be read
+     */
+    public boolean contains(File file) {
+        return this.files.contains(file);
+    }
+
+    public int size() {
+        return this.files.size();
+    }
+
+    /**
+     * Indexes a set of policy files, reading them concurrently with a {@link ParallelPolicyLoader}. Files
+     * that cannot be read, or whose root element is not a Policy or PolicySet, are left out.
+     *
+     * @param policyFiles the policy files
+     * @param indexFile the file the index is kept in, or null to keep it only in memory
+     * @param properties the <code>Properties</code> configuring the <code>ParallelPolicyLoader</code>
+     * @return the new <code>PolicyDefIndex</code>
+     */
+    public static PolicyDefIndex build(Iterable<File> policyFiles, File indexFile, Properties properties) {
+        final Map<String, Entry> previous = indexFile == null
+            ? new HashMap<String, Entry>() : read(indexFile);
+        final Map<String, File> byPath = new LinkedHashMap<String, File>();
+        for (File file : policyFiles) {
+            byPath.put(file.getAbsolutePath(), file);
+        }
+        ParallelPolicyLoader.Results<Entry> results = ParallelPolicyLoader.newInstance(properties)
+            .load(byPath.keySet(), new ParallelPolicyLoader.Loader<Entry>() {
+                @Override
+                public Entry load(String path) throws Exception {
+                    File file = byPath.get(path);
+                    Entry entry = previous.get(path);
+                    if (entry != null && entry.isCurrent(file)) {
+                        return new Entry(file, entry.length, entry.lastModified, entry.isPolicySet,
+                                         entry.getIdReference().getId(), entry.getIdReference().getVersion());
+                    }
+                    return scan(file);
+                }
+            });
+        PolicyDefIndex index = new PolicyDefIndex();
+        List<Entry> indexed = new ArrayList<Entry>();
+        for (ParallelPolicyLoader.Result<Entry> result : results.getResults()) {
+            if (result.getException() != null) {
+                logger.warn("Unable to index " + result.getPolicyId() + ": " + result.getException());
+            } else if (result.getValue() != null) {
+                index.add(result.getValue());
+                indexed.add(result.getValue());
+            }
+        }
+        if (indexFile != null) {
+            write(indexed, indexFile);
+        }
+        logger.info("Indexed " + index.size() + " of " + byPath.size() + " policy files in "
+                    + results.getElapsedMillis() + " ms");
+        return index;
+    }
+
+    /**
+     * Reads the identifier and version from the root element of a policy file.
+     *
+     * @param file the policy file
+     * @return the <code>Entry</code> for the file, or null if the root element is not a Policy or PolicySet
+     * @throws IOException
+     * @throws XMLStreamException
+     * @throws ParseException if the version is malformed
+     */
+    public static Entry scan(File file) throws IOException, XMLStreamException, ParseException {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            XMLStreamReader reader = factory.createXMLStreamReader(is);
+            try {
+                //
+                // Skip the prolog to the root element
+                //
+                if (reader.nextTag() != XMLStreamConstants.START_ELEMENT) {
+                    return null;
+                }
+                String idAttribute;
+                if (XACML3.ELEMENT_POLICY.equals(reader.getLocalName())) {
+                    idAttribute = XACML3.ATTRIBUTE_POLICYID;
+                } else if (XACML3.ELEMENT_POLICYSET.equals(reader.getLocalName())) {
+                    idAttribute = XACML3.ATTRIBUTE_POLICYSETID;
+                } else {
+                    return null;
+                }
+                String id = reader.getAttributeValue(null, idAttribute);
+                if (id == null) {
+                    return null;
+                }
+                String version = reader.getAttributeValue(null, XACML3.ATTRIBUTE_VERSION);
+                return new Entry(file, length, lastModified,
+                                 XACML3.ELEMENT_POLICYSET.equals(reader.getLocalName()), new IdentifierImpl(id),
+                                 version == null ? null : StdVersion.newInstance(version));
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private static Map<String, Entry> read(File indexFile) {
+        Map<String, Entry> map = new HashMap<String, Entry>();
+        if (!indexFile.exists()) {
+            return map;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+                if (fields.length != 6) {
+                    continue;
+                }
+                try {
+                    map.put(fields[0], new Entry(new File(fields[0]), Long.parseLong(fields[1]), Long
+                        .parseLong(fields[2]), "S".equals(fields[3]), new IdentifierImpl(fields[4]), fields[5]
+                        .length() == 0 ? null : StdVersion.newInstance(fields[5])));
+                } catch (NumberFormatException | ParseException e) {
+                    logger.warn("Ignoring bad index line in " + indexFile + ": " + line);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to read policy index " + indexFile + ": " + e);
+        }
+        return map;
+    }
+
+    private static void write(List<Entry> indexed, File indexFile) {
+        try {
+            File directory = indexFile.getAbsoluteFile().getParentFile();
+            File temp = File.createTempFile(indexFile.getName(), ".tmp", directory);
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                    for (Entry entry : indexed) {
+                        Version version = entry.getIdReference().getVersion();
+                        writer.write(entry.getFile().getAbsolutePath() + SEPARATOR + entry.length + SEPARATOR
+                                     + entry.lastModified + SEPARATOR + (entry.isPolicySet ? "S" : "P")
+                                     + SEPARATOR + entry.getIdReference().getId().stringValue() + SEPARATOR
+                                     + (version == null ? "" : version.stringValue()));
+                        writer.newLine();
+                    }
+                }
+                Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write policy index " + indexFile + ": " + e);
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
 import org.apache.openaz.xacml.pdp.eval.EvaluationContextFactory;
 import org.apache.openaz.xacml.pdp.policy.PolicyFinder;
 import org.apache.openaz.xacml.pdp.policy.PolicyFinderFactory;
+import org.apache.openaz.xacml.pdp.policy.ReplaceablePolicyFinder;
 
 /**
  * StdEvaluationContextFactory extends {@link org.apache.openaz.xacml.pdp.eval.EvaluationContextFactory} to
@@ -139,10 +140,26 @@ public class StdEvaluationContextFactory extends EvaluationContextFactory {
 
     @Override
     public EvaluationContext getEvaluationContext(Request request) {
-        return new StdEvaluationContext(request, this.getPolicyFinder(), this.getPIPFinder(),
+        PolicyFinder policyFinderRequest = this.getPolicyFinder();
+        if (policyFinderRequest instanceof ReplaceablePolicyFinder) {
+            //
+            // Evaluate the whole request against the policies current now
+            //
+            policyFinderRequest = ((ReplaceablePolicyFinder)policyFinderRequest).getCurrentPolicyFinder();
+        }
+        return new StdEvaluationContext(request, policyFinderRequest, this.getPIPFinder(),
                                         this.getTraceEngine());
     }
 
+    @Override
+    public long getPolicyGeneration() {
+        PolicyFinder policyFinderThis = this.getPolicyFinder();
+        if (policyFinderThis instanceof ReplaceablePolicyFinder) {
+            return ((ReplaceablePolicyFinder)policyFinderThis).getGeneration();
+        }
+        return 0;
+    }
+
     @Override
     public void setPolicyFinder(PolicyFinder policyFinderIn) {
         this.policyFinder = policyFinderIn;
@@ -24,12 +24,26 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,17 +57,32 @@ import org.apache.openaz.xacml.pdp.policy.Policy;
 import org.apache.openaz.xacml.pdp.policy.PolicyDef;
 import org.apache.openaz.xacml.pdp.policy.PolicyFinder;
 import org.apache.openaz.xacml.pdp.policy.PolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.PolicyIdReferenceBase;
 import org.apache.openaz.xacml.pdp.policy.PolicySet;
 import org.apache.openaz.xacml.pdp.policy.PolicySetChild;
 import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
 import org.apache.openaz.xacml.std.StdStatus;
 import org.apache.openaz.xacml.std.StdStatusCode;
 
 /**
  * StdPolicyFinder implements the {@link org.apache.openaz.xacml.pdp.policy.PolicyFinder} interface to look
  * up policies by their internal ID or an externally visible ID.
+ * <p>
+ * References to absolute URIs that are not already loaded are fetched at most once at a time, however many
+ * requests are waiting on them, and failed fetches are remembered for
+ * {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_REMOTENEGATIVETTL} milliseconds. Fetches run in the
+ * background and a request waits at most {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_REMOTEWAIT}
+ * milliseconds (one second by default) for one before returning an error; a negative wait fetches on the
+ * requesting thread instead. If {@link OpenAZPDPProperties#PROP_POLICYFINDERFACTORY_REMOTEPREFETCH} is true
+ * every remote reference reachable from the loaded policies is fetched in the background as soon as the
+ * finder is created.
  */
 public class StdPolicyFinder implements PolicyFinder {
+    public static final long DEFAULT_REMOTE_NEGATIVE_TTL = 60000;
+    public static final long DEFAULT_REMOTE_WAIT = 1000;
+    public static final int DEFAULT_REMOTE_TIMEOUT = 30000;
+
     private static final PolicyFinderResult<PolicyDef> PFR_MULTIPLE = new StdPolicyFinderResult<PolicyDef>(
                                                                                                            new StdStatus(
                                                                                                                          StdStatusCode.STATUS_CODE_PROCESSING_ERROR,
@@ -80,9 +109,18 @@ public class StdPolicyFinder implements PolicyFinder {
                                                                                                                                 StdStatusCode.STATUS_CODE_PROCESSING_ERROR,
                                                                                                                                 "Not a policy set"));
 
+    private static final int FETCH_THREADS = 4;
+    private static final ThreadPoolExecutor FETCH_EXECUTOR = newFetchExecutor();
+
     private Log logger = LogFactory.getLog(this.getClass());
     private List<PolicyDef> listRoots = new ArrayList<PolicyDef>();
-    private Map<Identifier, List<PolicyDef>> mapPolicies = new HashMap<Identifier, List<PolicyDef>>();
+    private ConcurrentMap<Identifier, List<PolicyDef>> mapPolicies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<URI, Future<PolicyDef>> remoteFetches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<URI, RemoteFailure> remoteFailures = new ConcurrentHashMap<>();
+    private final long remoteNegativeTtl;
+    private final long remoteWait;
+    private final int remoteTimeout;
+    private final boolean remotePrefetch;
 
     public static class StdPolicyFinderException extends Exception {
         private static final long serialVersionUID = -8969282995787463288L;
@@ -96,11 +134,31 @@ public class StdPolicyFinder implements PolicyFinder {
         }
     }
 
+    /**
+     * A failed fetch of a remote policy, remembered until it expires.
+     */
+    private static class RemoteFailure {
+        private final long expires;
+        private final String message;
+
+        RemoteFailure(long expiresIn, String messageIn) {
+            this.expires = expiresIn;
+            this.message = messageIn;
+        }
+    }
+
     private void storeInPolicyMap(PolicyDef policyDef) {
-        List<PolicyDef> listPolicyDefs = this.mapPolicies.get(policyDef.getIdentifier());
+        this.storeInPolicyMap(policyDef.getIdentifier(), policyDef);
+    }
+
+    private void storeInPolicyMap(Identifier identifier, PolicyDef policyDef) {
+        List<PolicyDef> listPolicyDefs = this.mapPolicies.get(identifier);
         if (listPolicyDefs == null) {
-            listPolicyDefs = new ArrayList<PolicyDef>();
-            this.mapPolicies.put(policyDef.getIdentifier(), listPolicyDefs);
+            List<PolicyDef> listNew = new CopyOnWriteArrayList<PolicyDef>();
+            listPolicyDefs = this.mapPolicies.putIfAbsent(identifier, listNew);
+            if (listPolicyDefs == null) {
+                listPolicyDefs = listNew;
+            }
         }
         listPolicyDefs.add(policyDef);
     }
@@ -166,7 +224,15 @@ public class StdPolicyFinder implements PolicyFinder {
         }
     }
 
-    private PolicyDef loadPolicyDefFromURI(URI uri) throws StdPolicyFinderException {
+    /**
+     * Loads the <code>PolicyDef</code> at the given absolute <code>URI</code>.
+     *
+     * @param uri the <code>URI</code> to load from
+     * @return the <code>PolicyDef</code>, or null if the <code>URI</code> cannot be turned into a
+     *         <code>URL</code>
+     * @throws StdPolicyFinderException if the document cannot be read or parsed
+     */
+    protected PolicyDef loadPolicyDefFromURI(URI uri) throws StdPolicyFinderException {
         this.logger.info("Loading policy from URI " + uri.toString());
         URL url = null;
         try {
@@ -177,8 +243,13 @@ public class StdPolicyFinder implements PolicyFinder {
             return null;
         } 
         
-        try (InputStream inputStream = url.openStream()) {
-            return DOMPolicyDef.load(inputStream);
+        try {
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(this.remoteTimeout);
+            connection.setReadTimeout(this.remoteTimeout);
+            try (InputStream inputStream = connection.getInputStream()) {
+                return DOMPolicyDef.load(inputStream);
+            }
         } catch (Exception ex) {
             this.logger.error("Exception loading policy definition", ex);
             throw new StdPolicyFinderException("Exception loading policy def from \"" + uri.toString()
@@ -187,50 +258,109 @@ public class StdPolicyFinder implements PolicyFinder {
     }
 
     /**
-     * Looks up the given {@link org.apache.openaz.xacml.api.Identifier} in the map first. If not found, and
-     * the <code>Identifier</code> contains a URL, then attempts to retrieve the document from the URL and
-     * caches it.
+     * Gets the absolute <code>URI</code> a reference may be fetched from.
      *
-     * @param idReferenceMatch the <code>IdReferenceMatch</code> to look up
-     * @return a <code>PolicyFinderResult</code> with the requested <code>Policy</code> or an error status
+     * @param idReferenceMatch the <code>IdReferenceMatch</code> of the reference
+     * @return the absolute <code>URI</code> or null if the reference is not to one
      */
-    private PolicyFinderResult<Policy> lookupPolicyByIdentifier(IdReferenceMatch idReferenceMatch) {
-        List<Policy> listCachedPolicies = this.getFromPolicyMap(idReferenceMatch, Policy.class);
-        if (listCachedPolicies == null) {
-            Identifier id = idReferenceMatch.getId();
-            if (id != null) {
-                URI uri = id.getUri();
-                if (uri != null && uri.isAbsolute()) {
-                    PolicyDef policyDef = null;
-                    try {
-                        policyDef = this.loadPolicyDefFromURI(uri);
-                    } catch (StdPolicyFinderException ex) {
-                        return new StdPolicyFinderResult<Policy>(
-                                                                 new StdStatus(
-                                                                               StdStatusCode.STATUS_CODE_PROCESSING_ERROR,
-                                                                               ex.getMessage()));
-                    }
-                    if (policyDef != null) {
-                        if (policyDef instanceof Policy) {
-                            List<PolicyDef> listPolicyDefs = new ArrayList<PolicyDef>();
-                            listPolicyDefs.add(policyDef);
-                            this.mapPolicies.put(id, listPolicyDefs);
-                            this.mapPolicies.put(policyDef.getIdentifier(), listPolicyDefs);
-                            return new StdPolicyFinderResult<Policy>((Policy)policyDef);
-                        } else {
-                            return PFR_NOT_A_POLICY;
-                        }
-                    } else {
-                        return PFR_POLICY_NOT_FOUND;
-                    }
-                }
+    private static URI getRemoteURI(IdReferenceMatch idReferenceMatch) {
+        Identifier id = idReferenceMatch == null ? null : idReferenceMatch.getId();
+        URI uri = id == null ? null : id.getUri();
+        return uri != null && uri.isAbsolute() ? uri : null;
+    }
+
+    /**
+     * Starts fetching the <code>PolicyDef</code> at the given <code>URI</code> unless it is already being
+     * or has already been fetched.
+     *
+     * @param id the <code>Identifier</code> of the reference
+     * @param uri the absolute <code>URI</code> to fetch
+     * @param inBackground true to fetch on the shared fetch threads, false to fetch on the calling thread
+     * @return the <code>Future</code> of the fetch
+     */
+    private Future<PolicyDef> fetch(final Identifier id, final URI uri, boolean inBackground) {
+        Future<PolicyDef> future = this.remoteFetches.get(uri);
+        if (future != null) {
+            return future;
+        }
+        FutureTask<PolicyDef> task = new FutureTask<PolicyDef>(new Callable<PolicyDef>() {
+            @Override
+            public PolicyDef call() throws StdPolicyFinderException {
+                return StdPolicyFinder.this.fetchNow(id, uri);
             }
+        });
+        future = this.remoteFetches.putIfAbsent(uri, task);
+        if (future != null) {
+            return future;
         }
-        if (listCachedPolicies != null) {
-            return new StdPolicyFinderResult<Policy>(this.getBestMatch(listCachedPolicies));
+        if (inBackground) {
+            FETCH_EXECUTOR.execute(task);
         } else {
-            return PFR_POLICY_NOT_FOUND;
+            task.run();
         }
+        return task;
+    }
+
+    private PolicyDef fetchNow(Identifier id, URI uri) throws StdPolicyFinderException {
+        PolicyDef policyDef;
+        try {
+            policyDef = this.loadPolicyDefFromURI(uri);
+        } catch (StdPolicyFinderException | RuntimeException ex) {
+            //
+            // Remember the failure and let the next request after it expires try again
+            //
+            long expires = System.currentTimeMillis() + this.remoteNegativeTtl;
+            this.remoteFailures.put(uri, new RemoteFailure(expires, ex.getMessage()));
+            this.remoteFetches.remove(uri);
+            throw ex;
+        }
+        if (policyDef != null) {
+            //
+            // Keep it under the reference's URI as well as its own id, as references use the URI
+            //
+            this.storeInPolicyMap(policyDef);
+            if (!id.equals(policyDef.getIdentifier())) {
+                this.storeInPolicyMap(id, policyDef);
+            }
+            if (this.remotePrefetch) {
+                this.prefetch(policyDef);
+            }
+        }
+        return policyDef;
+    }
+
+    /**
+     * Gets the <code>PolicyDef</code> at the given absolute <code>URI</code>, fetching it if needed.
+     *
+     * @param id the <code>Identifier</code> of the reference
+     * @param uri the absolute <code>URI</code> of the <code>PolicyDef</code>
+     * @return a <code>PolicyFinderResult</code> with the <code>PolicyDef</code>, which is null if there is no
+     *         document at the <code>URI</code>, or an error status
+     */
+    private PolicyFinderResult<PolicyDef> lookupRemote(Identifier id, URI uri) {
+        RemoteFailure remoteFailure = this.remoteFailures.get(uri);
+        if (remoteFailure != null) {
+            if (remoteFailure.expires > System.currentTimeMillis()) {
+                return new StdPolicyFinderResult<PolicyDef>(
+                    new StdStatus(StdStatusCode.STATUS_CODE_PROCESSING_ERROR, remoteFailure.message));
+            }
+            this.remoteFailures.remove(uri, remoteFailure);
+        }
+        String message;
+        try {
+            Future<PolicyDef> future = this.fetch(id, uri, this.remoteWait >= 0);
+            return new StdPolicyFinderResult<PolicyDef>(this.remoteWait >= 0
+                ? future.get(this.remoteWait, TimeUnit.MILLISECONDS) : future.get());
+        } catch (TimeoutException ex) {
+            message = "Policy \"" + uri.toString() + "\" is still being fetched";
+        } catch (ExecutionException ex) {
+            message = ex.getCause().getMessage();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            message = "Interrupted fetching policy \"" + uri.toString() + "\"";
+        }
+        return new StdPolicyFinderResult<PolicyDef>(new StdStatus(StdStatusCode.STATUS_CODE_PROCESSING_ERROR,
+                                                                  message));
     }
 
     /**
@@ -239,44 +369,64 @@ public class StdPolicyFinder implements PolicyFinder {
      * caches it.
      *
      * @param idReferenceMatch the <code>IdReferenceMatch</code> to look up
-     * @return a <code>PolicyFinderResult</code> with the requested <code>PolicySet</code> or an error status
+     * @param classPolicyDef the <code>Class</code> of <code>PolicyDef</code> requested
+     * @param pfrNotFound the result if there is no matching <code>PolicyDef</code>
+     * @param pfrNotA the result if the document at the URL is not of the requested class
+     * @return a <code>PolicyFinderResult</code> with the requested <code>PolicyDef</code> or an error status
      */
-    private PolicyFinderResult<PolicySet> lookupPolicySetByIdentifier(IdReferenceMatch idReferenceMatch) {
-        List<PolicySet> listCachedPolicySets = this.getFromPolicyMap(idReferenceMatch, PolicySet.class);
-        if (listCachedPolicySets == null) {
-            Identifier id = idReferenceMatch.getId();
-            if (id != null) {
-                URI uri = id.getUri();
-                if (uri != null && uri.isAbsolute()) {
-                    PolicyDef policyDef = null;
-                    try {
-                        policyDef = this.loadPolicyDefFromURI(uri);
-                    } catch (StdPolicyFinderException ex) {
-                        return new StdPolicyFinderResult<PolicySet>(
-                                                                    new StdStatus(
-                                                                                  StdStatusCode.STATUS_CODE_PROCESSING_ERROR,
-                                                                                  ex.getMessage()));
-                    }
-                    if (policyDef != null) {
-                        if (policyDef instanceof PolicySet) {
-                            List<PolicyDef> listPolicyDefs = new ArrayList<PolicyDef>();
-                            listPolicyDefs.add(policyDef);
-                            this.mapPolicies.put(id, listPolicyDefs);
-                            this.mapPolicies.put(policyDef.getIdentifier(), listPolicyDefs);
-                            return new StdPolicyFinderResult<PolicySet>((PolicySet)policyDef);
-                        } else {
-                            return PFR_NOT_A_POLICYSET;
-                        }
-                    } else {
-                        return PFR_POLICYSET_NOT_FOUND;
-                    }
-                }
-            }
+    private <T extends PolicyDef> PolicyFinderResult<T> lookupByIdentifier(IdReferenceMatch idReferenceMatch,
+                                                                         Class<T> classPolicyDef,
+                                                                         PolicyFinderResult<T> pfrNotFound,
+                                                                         PolicyFinderResult<T> pfrNotA) {
+        List<T> listCachedPolicyDefs = this.getFromPolicyMap(idReferenceMatch, classPolicyDef);
+        if (listCachedPolicyDefs != null) {
+            return new StdPolicyFinderResult<T>(this.getBestMatch(listCachedPolicyDefs));
+        }
+        URI uri = getRemoteURI(idReferenceMatch);
+        if (uri == null) {
+            return pfrNotFound;
+        }
+        PolicyFinderResult<PolicyDef> result = this.lookupRemote(idReferenceMatch.getId(), uri);
+        if (!result.getStatus().isOk()) {
+            return new StdPolicyFinderResult<T>(result.getStatus());
         }
-        if (listCachedPolicySets != null) {
-            return new StdPolicyFinderResult<PolicySet>(this.getBestMatch(listCachedPolicySets));
+        PolicyDef policyDef = result.getPolicyDef();
+        if (policyDef == null) {
+            return pfrNotFound;
+        } else if (classPolicyDef.isInstance(policyDef)) {
+            return new StdPolicyFinderResult<T>(classPolicyDef.cast(policyDef));
         } else {
-            return PFR_POLICYSET_NOT_FOUND;
+            return pfrNotA;
+        }
+    }
+
+    /**
+     * Starts fetching in the background every remote reference in the given <code>PolicyDef</code> and its
+     * children that is not already loaded.
+     *
+     * @param policyDef the <code>PolicyDef</code> to search
+     */
+    private void prefetch(PolicyDef policyDef) {
+        if (!(policyDef instanceof PolicySet)) {
+            return;
+        }
+        Iterator<PolicySetChild> iterChildren = ((PolicySet)policyDef).getChildren();
+        if (iterChildren == null) {
+            return;
+        }
+        while (iterChildren.hasNext()) {
+            PolicySetChild policySetChild = iterChildren.next();
+            if (policySetChild instanceof PolicyDef) {
+                this.prefetch((PolicyDef)policySetChild);
+            } else if (policySetChild instanceof PolicyIdReferenceBase) {
+                IdReferenceMatch idReferenceMatch = ((PolicyIdReferenceBase<?>)policySetChild)
+                    .getIdReferenceMatch();
+                URI uri = getRemoteURI(idReferenceMatch);
+                if (uri != null && !this.mapPolicies.containsKey(idReferenceMatch.getId())
+                    && !this.remoteFetches.containsKey(uri)) {
+                    this.fetch(idReferenceMatch.getId(), uri, true);
+                }
+            }
         }
     }
 
@@ -302,6 +452,30 @@ public class StdPolicyFinder implements PolicyFinder {
     }
 
     public StdPolicyFinder(Collection<PolicyDef> listRootPolicies, Collection<PolicyDef> referencedPolicyDefs) {
+        this(listRootPolicies, referencedPolicyDefs, null);
+    }
+
+    /**
+     * Creates a new <code>StdPolicyFinder</code> with the given root <code>PolicyDef</code>s, configuring the
+     * fetching of remote references from the given <code>Properties</code>.
+     *
+     * @param listRootPolicies the root <code>PolicyDef</code>s
+     * @param referencedPolicyDefs the referenced <code>PolicyDef</code>s
+     * @param properties the <code>Properties</code> to configure from, or null for the defaults
+     */
+    public StdPolicyFinder(Collection<PolicyDef> listRootPolicies, Collection<PolicyDef> referencedPolicyDefs,
+                           Properties properties) {
+        this.remoteNegativeTtl = getLong(properties,
+                                         OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_REMOTENEGATIVETTL,
+                                         DEFAULT_REMOTE_NEGATIVE_TTL);
+        this.remoteWait = getLong(properties, OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_REMOTEWAIT,
+                                  DEFAULT_REMOTE_WAIT);
+        this.remoteTimeout = (int)getLong(properties,
+                                          OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_REMOTETIMEOUT,
+                                          DEFAULT_REMOTE_TIMEOUT);
+        this.remotePrefetch = properties != null
+                              && Boolean.parseBoolean(properties
+                                  .getProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_REMOTEPREFETCH));
         if (listRootPolicies != null) {
             for (PolicyDef policyDef : listRootPolicies) {
                 this.listRoots.add(policyDef);
@@ -313,6 +487,16 @@ public class StdPolicyFinder implements PolicyFinder {
                 this.storeInPolicyMap(policyDef);
             }
         }
+        if (this.remotePrefetch) {
+            for (PolicyDef policyDef : this.listRoots) {
+                this.prefetch(policyDef);
+            }
+            for (List<PolicyDef> listPolicyDefs : this.mapPolicies.values()) {
+                for (PolicyDef policyDef : listPolicyDefs) {
+                    this.prefetch(policyDef);
+                }
+            }
+        }
     }
 
     /**
@@ -321,16 +505,42 @@ public class StdPolicyFinder implements PolicyFinder {
      * @param rootPolicyDef the <code>PolicyDef</code> acting as the root element
      */
     public StdPolicyFinder(PolicyDef rootPolicyDef, Collection<PolicyDef> referencedPolicyDefs) {
-        if (rootPolicyDef != null) {
-            this.listRoots.add(rootPolicyDef);
-            this.updatePolicyMap(rootPolicyDef);
+        this(rootPolicyDef == null ? null : Collections.singletonList(rootPolicyDef),
+             referencedPolicyDefs, null);
+    }
+
+    private static long getLong(Properties properties, String propertyName, long defaultValue) {
+        String value = properties == null ? null : properties.getProperty(propertyName);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            LogFactory.getLog(StdPolicyFinder.class).error("Invalid " + propertyName + ": " + value);
+            return defaultValue;
         }
+    }
 
-        if (referencedPolicyDefs != null) {
-            for (PolicyDef policyDef : referencedPolicyDefs) {
-                this.storeInPolicyMap(policyDef);
+    private static ThreadPoolExecutor newFetchExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 60,
+                                                             TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<Runnable>(),
+                                                             newThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "StdPolicyFinder-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
             }
-        }
+        };
     }
 
     @Override
@@ -382,12 +592,14 @@ public class StdPolicyFinder implements PolicyFinder {
 
     @Override
     public PolicyFinderResult<Policy> getPolicy(IdReferenceMatch idReferenceMatch) {
-        return this.lookupPolicyByIdentifier(idReferenceMatch);
+        return this.lookupByIdentifier(idReferenceMatch, Policy.class, PFR_POLICY_NOT_FOUND,
+                                       PFR_NOT_A_POLICY);
     }
 
     @Override
     public PolicyFinderResult<PolicySet> getPolicySet(IdReferenceMatch idReferenceMatch) {
-        return this.lookupPolicySetByIdentifier(idReferenceMatch);
+        return this.lookupByIdentifier(idReferenceMatch, PolicySet.class, PFR_POLICYSET_NOT_FOUND,
+                                       PFR_NOT_A_POLICYSET);
     }
 
     public void addReferencedPolicy(PolicyDef policyDef) {
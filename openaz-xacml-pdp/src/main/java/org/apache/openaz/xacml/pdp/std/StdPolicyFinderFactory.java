@@ -44,6 +44,7 @@ import org.apache.openaz.xacml.pdp.policy.PolicySet;
 import org.apache.openaz.xacml.pdp.policy.PolicySetChild;
 import org.apache.openaz.xacml.pdp.policy.Target;
 import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
+import org.apache.openaz.xacml.pdp.policy.snapshot.SnapshotPolicyDef;
 import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
 import org.apache.openaz.xacml.std.IdentifierImpl;
 import org.apache.openaz.xacml.std.StdStatusCode;
@@ -68,6 +69,7 @@ public class StdPolicyFinderFactory extends PolicyFinderFactory {
     private List<PolicyDef> rootPolicies;
     private List<PolicyDef> referencedPolicies;
     private boolean needsInit = true;
+    private Properties properties;
 
     /**
      * Loads the <code>PolicyDef</code> for the given <code>String</code> identifier by looking first for a
@@ -88,7 +90,7 @@ public class StdPolicyFinderFactory extends PolicyFinderFactory {
             } else {
                 try {
                     this.logger.info("Loading policy file " + fileLocation);
-                    PolicyDef policyDef = DOMPolicyDef.load(fileLocation);
+                    PolicyDef policyDef = SnapshotPolicyDef.load(fileLocation, properties);
                     if (policyDef != null) {
                         return policyDef;
                     }
@@ -133,13 +135,15 @@ public class StdPolicyFinderFactory extends PolicyFinderFactory {
 
     /**
      * Finds the identifiers for all of the policies referenced by the given property name in the
-     * <code>XACMLProperties</code> and loads them using the requested loading method.
+     * <code>XACMLProperties</code> and loads them using the requested loading method. The policies are
+     * parsed concurrently by a {@link ParallelPolicyLoader}, but the returned list keeps the order of the
+     * identifiers in the property.
      *
      * @param propertyName the <code>String</code> name of the property containing the list of policy
      *            identifiers
      * @return a <code>List</code> of <code>PolicyDef</code>s loaded from the given property name
      */
-    protected List<PolicyDef> getPolicyDefs(String propertyName, Properties properties) {
+    protected List<PolicyDef> getPolicyDefs(String propertyName, final Properties properties) {
         String policyIds = properties.getProperty(propertyName);
         if (policyIds == null || policyIds.length() == 0) {
             return null;
@@ -149,19 +153,64 @@ public class StdPolicyFinderFactory extends PolicyFinderFactory {
         if (policyIdArray == null) {
             return null;
         }
+        return this.getPolicyDefs(propertyName, policyIdArray, properties);
+    }
 
-        List<PolicyDef> listPolicyDefs = new ArrayList<PolicyDef>();
-        for (String policyId : policyIdArray) {
-            PolicyDef policyDef = this.loadPolicyDef(policyId, properties);
-            if (policyDef != null) {
-                listPolicyDefs.add(policyDef);
+    /**
+     * Loads the policies with the given identifiers concurrently with a {@link ParallelPolicyLoader}, keeping
+     * the order of the identifiers.
+     *
+     * @param propertyName the <code>String</code> name of the property the identifiers came from, for logging
+     * @param policyIdArray the policy identifiers
+     * @return a <code>List</code> of <code>PolicyDef</code>s loaded from the given identifiers
+     */
+    protected List<PolicyDef> getPolicyDefs(String propertyName, Iterable<String> policyIdArray,
+                                            final Properties properties) {
+        ParallelPolicyLoader.Results<PolicyDef> results = ParallelPolicyLoader.newInstance(properties)
+            .load(policyIdArray, new ParallelPolicyLoader.Loader<PolicyDef>() {
+                @Override
+                public PolicyDef load(String policyId) {
+                    return StdPolicyFinderFactory.this.loadPolicyDef(policyId, properties);
+                }
+            });
+        logLoadResults(this.logger, propertyName, results);
+        return results.getValues();
+    }
+
+    /**
+     * Logs a single summary line for a set of policies loaded by a {@link ParallelPolicyLoader}, listing
+     * every policy that failed to load or loaded with a syntax error.
+     *
+     * @param logger the <code>Log</code> to write to
+     * @param propertyName the name of the property the policy identifiers came from
+     * @param results the <code>Results</code> of the load
+     */
+    public static void logLoadResults(Log logger, String propertyName,
+                                      ParallelPolicyLoader.Results<PolicyDef> results) {
+        List<String> failed = new ArrayList<String>();
+        for (ParallelPolicyLoader.Result<PolicyDef> result : results.getResults()) {
+            if (result.getException() != null) {
+                logger.error("Exception loading policy " + result.getPolicyId() + ": "
+                             + result.getException().getMessage(), result.getException());
+                failed.add(result.getPolicyId());
+            } else if (result.getValue() == null
+                       || StdStatusCode.STATUS_CODE_SYNTAX_ERROR.equals(result.getValue().getStatusCode())) {
+                failed.add(result.getPolicyId());
             }
         }
-        return listPolicyDefs;
+        String summary = "Loaded " + (results.getResults().size() - failed.size()) + " of "
+                         + results.getResults().size() + " policies from " + propertyName + " in "
+                         + results.getElapsedMillis() + " ms";
+        if (failed.isEmpty()) {
+            logger.info(summary);
+        } else {
+            logger.error(summary + ", failed: " + failed);
+        }
     }
 
     protected synchronized void init(Properties properties) {
         if (this.needsInit) {
+            this.properties = properties;
             //
             // Check for property that combines root policies into one policyset
             //
@@ -204,11 +253,32 @@ public class StdPolicyFinderFactory extends PolicyFinderFactory {
                 this.rootPolicies = this.getPolicyDefs(XACMLProperties.PROP_ROOTPOLICIES, properties);
             }
 
-            this.referencedPolicies = this.getPolicyDefs(XACMLProperties.PROP_REFERENCEDPOLICIES, properties);
+            this.referencedPolicies = this.loadReferencedPolicies(properties);
             this.needsInit = false;
         }
     }
 
+    /**
+     * Loads the policies listed in the referenced policies property.
+     *
+     * @param properties the <code>Properties</code> to load from
+     * @return a <code>List</code> of the referenced <code>PolicyDef</code>s
+     */
+    protected List<PolicyDef> loadReferencedPolicies(Properties properties) {
+        return this.getPolicyDefs(XACMLProperties.PROP_REFERENCEDPOLICIES, properties);
+    }
+
+    /**
+     * Creates the <code>PolicyFinder</code> over the loaded policies.
+     *
+     * @param rootPolicies the root <code>PolicyDef</code>s
+     * @param referencedPolicies the referenced <code>PolicyDef</code>s
+     * @return a new <code>PolicyFinder</code>
+     */
+    protected PolicyFinder newPolicyFinder(List<PolicyDef> rootPolicies, List<PolicyDef> referencedPolicies) {
+        return new StdPolicyFinder(rootPolicies, referencedPolicies, this.properties);
+    }
+
     public StdPolicyFinderFactory() {
     }
 
@@ -219,12 +289,12 @@ public class StdPolicyFinderFactory extends PolicyFinderFactory {
         } catch (IOException e) {
             throw new FactoryException(e);
         }
-        return new StdPolicyFinder(this.rootPolicies, this.referencedPolicies);
+        return this.newPolicyFinder(this.rootPolicies, this.referencedPolicies);
     }
 
     @Override
     public PolicyFinder getPolicyFinder(Properties properties) throws FactoryException {
         this.init(properties);
-        return new StdPolicyFinder(this.rootPolicies, this.referencedPolicies);
+        return this.newPolicyFinder(this.rootPolicies, this.referencedPolicies);
     }
 }
@@ -32,6 +32,7 @@ import org.apache.openaz.xacml.pdp.eval.MatchResult;
 import org.apache.openaz.xacml.pdp.policy.CombinerParameter;
 import org.apache.openaz.xacml.pdp.policy.CombiningElement;
 import org.apache.openaz.xacml.pdp.policy.PolicySetChild;
+import org.apache.openaz.xacml.pdp.statistics.EvaluationStatistics;
 import org.apache.openaz.xacml.std.StdStatus;
 import org.apache.openaz.xacml.std.StdStatusCode;
 
@@ -78,7 +79,7 @@ public class OnlyOneApplicable extends CombiningAlgorithmBase<PolicySetChild> {
         }
 
         if (policySetChildApplicable != null) {
-            return policySetChildApplicable.evaluate(evaluationContext);
+            return EvaluationStatistics.evaluate(policySetChildApplicable, evaluationContext);
         } else {
             return new EvaluationResult(Decision.NOTAPPLICABLE);
         }
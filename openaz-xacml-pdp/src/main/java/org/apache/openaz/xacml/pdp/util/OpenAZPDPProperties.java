@@ -30,6 +30,30 @@ public class OpenAZPDPProperties extends XACMLProperties {
     public static final String PROP_FUNCTIONDEFINITIONFACTORY = "xacml.openaz.functionDefinitionFactory";
     public static final String PROP_POLICYFINDERFACTORY = "xacml.openaz.policyFinderFactory";
     public static final String PROP_POLICYFINDERFACTORY_COMBINEROOTPOLICIES = "xacml.openaz.policyFinderFactory.combineRootPolicies";
+    public static final String PROP_POLICYFINDERFACTORY_LOADTHREADS = "xacml.openaz.policyFinderFactory.loadThreads";
+    public static final String PROP_POLICYFINDERFACTORY_SNAPSHOT = "xacml.openaz.policyFinderFactory.snapshot";
+    public static final String PROP_POLICYFINDERFACTORY_SNAPSHOTDIRECTORY = "xacml.openaz.policyFinderFactory.snapshotDirectory";
+    public static final String PROP_POLICYFINDERFACTORY_CACHESIZE = "xacml.openaz.policyFinderFactory.cacheSize";
+    public static final String PROP_POLICYFINDERFACTORY_INDEXFILE = "xacml.openaz.policyFinderFactory.indexFile";
+    public static final String PROP_POLICYFINDERFACTORY_REMOTENEGATIVETTL = "xacml.openaz.policyFinderFactory.remoteNegativeTtl";
+    public static final String PROP_POLICYFINDERFACTORY_REMOTEWAIT = "xacml.openaz.policyFinderFactory.remoteWait";
+    public static final String PROP_POLICYFINDERFACTORY_REMOTETIMEOUT = "xacml.openaz.policyFinderFactory.remoteTimeout";
+    public static final String PROP_POLICYFINDERFACTORY_REMOTEPREFETCH = "xacml.openaz.policyFinderFactory.remotePrefetch";
+    public static final String PROP_POLICYFINDERFACTORY_JDBC_DRIVER = "xacml.openaz.policyFinderFactory.jdbc.driver";
+    public static final String PROP_POLICYFINDERFACTORY_JDBC_URL = "xacml.openaz.policyFinderFactory.jdbc.url";
+    public static final String PROP_POLICYFINDERFACTORY_JDBC_USER = "xacml.openaz.policyFinderFactory.jdbc.user";
+    public static final String PROP_POLICYFINDERFACTORY_JDBC_PASSWORD = "xacml.openaz.policyFinderFactory.jdbc.password";
+    public static final String PROP_POLICYFINDERFACTORY_JDBC_DATASOURCE = "xacml.openaz.policyFinderFactory.jdbc.dataSource";
+    public static final String PROP_POLICYFINDERFACTORY_JDBC_TABLE = "xacml.openaz.policyFinderFactory.jdbc.table";
+    public static final String PROP_POLICYFINDERFACTORY_JDBC_POLLINTERVAL = "xacml.openaz.policyFinderFactory.jdbc.pollInterval";
+
+    public static final String PROP_DECISIONCACHE = "xacml.openaz.decisionCache";
+    public static final String PROP_DECISIONCACHE_MAXSIZE = "xacml.openaz.decisionCache.maxSize";
+    public static final String PROP_DECISIONCACHE_TTL = "xacml.openaz.decisionCache.ttl";
+    public static final String PROP_DECISIONCACHE_VOLATILETTL = "xacml.openaz.decisionCache.volatileTtl";
+    public static final String PROP_DECISIONCACHE_VOLATILEENGINES = "xacml.openaz.decisionCache.volatileEngines";
+
+    public static final String PROP_STATISTICS_SAMPLEINTERVAL = "xacml.openaz.statistics.sampleInterval";
 
     public static final Identifier ID_POLICY_COMBINEDPERMITOVERRIDES = new IdentifierImpl("urn:org:apache:openaz:xacml:3.0:policy-combining-algorithm:combined-permit-overrides");
 
@@ -0,0 +1,219 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.openaz.xacml.api.pap.PAPException;
+import org.apache.openaz.xacml.api.pap.PDPPolicy;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Computes the content hashes the PAP and PDP servlets use to tell whether a policy changed: the SHA-256 of
+ * the policy file in lower case hex. The PAP serves the hash as the ETag of a policy and sends it to the PDPs
+ * in the "&lt;PolicyId&gt;.sha256" property, and the PDP keeps downloaded policies in files named by their
+ * hash so that a policy is only downloaded when its contents changed.
+ */
+public class XACMLRestPolicyHash {
+    /**
+     * Suffix of the property giving the hash of a policy, after the policy id, like ".file" and ".url".
+     */
+    public static final String PROP_SHA256 = ".sha256";
+
+    private static final int MAX_CACHED_FILES = 4096;
+
+    //
+    // The coarsest modification time resolution of the file systems we expect (FAT has two seconds)
+    //
+    private static final long MTIME_RESOLUTION = 2000;
+
+    //
+    // The hashes of files, remembered as long as the size, modification time and file key are unchanged
+    //
+    private static final Map<Path, FileHash> fileHashes = new LinkedHashMap<Path, FileHash>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, FileHash> eldest) {
+            return this.size() > MAX_CACHED_FILES;
+        }
+    };
+
+    private static class FileHash {
+        private final long size;
+        private final long lastModified;
+        private final Object fileKey;
+        private final long hashedAt;
+        private final String hash;
+
+        FileHash(BasicFileAttributes attributes, long hashedAtIn, String hashIn) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey();
+            this.hashedAt = hashedAtIn;
+            this.hash = hashIn;
+        }
+
+        /*
+         * A file rewritten with the same size within the resolution of its modification time looks
+         * unchanged, so the hash is only trusted if the file had not been modified for a while when it was
+         * read.
+         */
+        boolean isValidFor(BasicFileAttributes attributes) {
+            return this.size == attributes.size()
+                   && this.lastModified == attributes.lastModifiedTime().toMillis()
+                   && Objects.equals(this.fileKey, attributes.fileKey())
+                   && this.lastModified + MTIME_RESOLUTION < this.hashedAt;
+        }
+    }
+
+    protected XACMLRestPolicyHash() {
+    }
+
+    /**
+     * Computes the hash of the given bytes.
+     *
+     * @param bytes the policy contents
+     * @return the <code>String</code> hash
+     */
+    public static String hash(byte[] bytes) {
+        return Hashing.sha256().hashBytes(bytes).toString();
+    }
+
+    /**
+     * Computes the hash of the contents of the given <code>InputStream</code>, reading it to the end.
+     *
+     * @param is the <code>InputStream</code> to read
+     * @return the <code>String</code> hash
+     * @throws IOException if the stream cannot be read
+     */
+    public static String hash(InputStream is) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            hasher.putBytes(buffer, 0, read);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Computes the hash of the given file. The hash is remembered until the size, modification time or
+     * identity of the file changes. A file modified shortly before it was hashed is hashed again every
+     * time, since a rewrite within the resolution of the modification time would not change it.
+     *
+     * @param file the <code>Path</code> of the file
+     * @return the <code>String</code> hash
+     * @throws IOException if the file cannot be read
+     */
+    public static String hash(Path file) throws IOException {
+        Path key = file.toAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        synchronized (fileHashes) {
+            FileHash fileHash = fileHashes.get(key);
+            if (fileHash != null && fileHash.isValidFor(attributes)) {
+                return fileHash.hash;
+            }
+        }
+        long hashedAt = System.currentTimeMillis();
+        String hash;
+        try (InputStream is = Files.newInputStream(key)) {
+            hash = hash(is);
+        }
+        synchronized (fileHashes) {
+            fileHashes.put(key, new FileHash(attributes, hashedAt, hash));
+        }
+        return hash;
+    }
+
+    /**
+     * Computes the hash of the given policy, from its file if it is stored in one and otherwise from its
+     * stream.
+     *
+     * @param policy the <code>PDPPolicy</code>
+     * @return the <code>String</code> hash
+     * @throws PAPException if the policy has no contents
+     * @throws IOException if the policy cannot be read
+     */
+    public static String hash(PDPPolicy policy) throws PAPException, IOException {
+        URI location = policy.getLocation();
+        if (location != null && "file".equalsIgnoreCase(location.getScheme())) {
+            return hash(Paths.get(location));
+        }
+        try (InputStream is = policy.getStream()) {
+            if (is == null) {
+                throw new PAPException("Policy " + policy.getId() + " has no contents");
+            }
+            return hash(is);
+        }
+    }
+
+    /**
+     * Gets the ETag header value for the given hash.
+     *
+     * @param hash the <code>String</code> hash
+     * @return the quoted hash
+     */
+    public static String toETag(String hash) {
+        return "\"" + hash + "\"";
+    }
+
+    /**
+     * Determines whether an If-None-Match header value matches the given hash, that is whether the client
+     * already has the contents with that hash.
+     *
+     * @param ifNoneMatch the If-None-Match header value, may be <code>null</code>
+     * @param hash the <code>String</code> hash of the current contents
+     * @return true if one of the entity tags in the header is the hash, or is "*"
+     */
+    public static boolean matches(String ifNoneMatch, String hash) {
+        if (ifNoneMatch == null || hash == null) {
+            return false;
+        }
+        for (String tag : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+            if ("*".equals(tag)) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+                tag = tag.substring(1, tag.length() - 1);
+            }
+            if (tag.equalsIgnoreCase(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
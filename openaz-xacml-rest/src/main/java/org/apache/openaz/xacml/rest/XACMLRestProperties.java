@@ -55,6 +55,107 @@ public class XACMLRestProperties extends XACMLProperties {
      * Max content length accepted for an incoming POST XML/JSON request. Default is 32767 bytes.
      */
     public static final String PROP_PDP_MAX_CONTENT = "xacml.rest.pdp.maxcontent";
+    /**
+     * Number of threads the PDP servlet uses to evaluate POSTed requests asynchronously. When set to a value
+     * greater than 0 requests are taken off the container's thread using the Servlet 3.0 AsyncContext. The
+     * body is still read with blocking reads on the container's thread before the hand-off, and the decisions
+     * are still made one at a time under the engine lock, so more threads do not make more decisions. What
+     * the threads give is a bound on the number of waiting requests, a timeout, and container threads that
+     * are not held while a decision waits on a slow PIP. Default is 0, which evaluates requests on the
+     * container's thread.
+     */
+    public static final String PROP_PDP_ASYNC_THREADS = "xacml.rest.pdp.async.threads";
+    /**
+     * Number of asynchronous requests that may wait for an evaluation thread. Requests beyond that are
+     * answered with 503 Service Unavailable. Default is 100.
+     */
+    public static final String PROP_PDP_ASYNC_QUEUE = "xacml.rest.pdp.async.queue";
+    /**
+     * Number of milliseconds an asynchronous request may take, including the time it waits for an evaluation
+     * thread, before it is answered with 503 Service Unavailable. Default is 5000.
+     */
+    public static final String PROP_PDP_ASYNC_TIMEOUT = "xacml.rest.pdp.async.timeout";
+    /**
+     * Number of seconds sent in the Retry-After header of a 503 response to an asynchronous request. Default
+     * is 1.
+     */
+    public static final String PROP_PDP_ASYNC_RETRYAFTER = "xacml.rest.pdp.async.retryAfter";
+    /**
+     * Maximum number of requests in a batch. Default is 1000.
+     */
+    public static final String PROP_PDP_BATCH_MAXITEMS = "xacml.rest.pdp.batch.maxItems";
+    /**
+     * Maximum Content-Length of a batch. Default is 1048576.
+     */
+    public static final String PROP_PDP_BATCH_MAXCONTENTLENGTH = "xacml.rest.pdp.batch.maxContentLength";
+    /**
+     * Number of threads the PDP servlet uses to parse and serialize the requests of a batch in parallel. The
+     * decisions are made one at a time regardless. 0 parses and serializes them on the request's own thread.
+     * Default is the number of available processors.
+     */
+    public static final String PROP_PDP_BATCH_THREADS = "xacml.rest.pdp.batch.threads";
+    /**
+     * File the PDP servlet writes its decision audit log to, one JSON line per decision. When set it replaces
+     * the xacml.request logger. Default is not set.
+     */
+    public static final String PROP_PDP_AUDIT_FILE = "xacml.rest.pdp.audit.file";
+    /**
+     * Number of audit records that may wait to be written before new ones are dropped. Default is 8192.
+     */
+    public static final String PROP_PDP_AUDIT_BUFFERSIZE = "xacml.rest.pdp.audit.bufferSize";
+    /**
+     * Size in bytes at which the audit file is rolled over. Default is 104857600.
+     */
+    public static final String PROP_PDP_AUDIT_MAXFILESIZE = "xacml.rest.pdp.audit.maxFileSize";
+    /**
+     * Age in milliseconds at which the audit file is rolled over. Default is 86400000.
+     */
+    public static final String PROP_PDP_AUDIT_MAXFILEAGE = "xacml.rest.pdp.audit.maxFileAge";
+    /**
+     * Number of rolled over audit files that are kept. Default is 10.
+     */
+    public static final String PROP_PDP_AUDIT_MAXFILES = "xacml.rest.pdp.audit.maxFiles";
+    /**
+     * Share, between 0 and 1, of successful decisions whose request and response are written to the audit
+     * log. Those of failed or indeterminate decisions are always written. Default is 0.
+     */
+    public static final String PROP_PDP_AUDIT_PAYLOADSAMPLERATE = "xacml.rest.pdp.audit.payloadSampleRate";
+    /**
+     * Number of recent requests the PDP servlet keeps to replay against a newly loaded engine before it is
+     * put in service. Default is 0, which keeps none.
+     */
+    public static final String PROP_PDP_WARMUP_RECENT = "xacml.rest.pdp.warmup.recent";
+    /**
+     * Directory of recorded request files, .json or .xml, that are replayed against a newly loaded engine
+     * before it is put in service, in addition to the recent requests. Default is not set.
+     */
+    public static final String PROP_PDP_WARMUP_REQUESTS = "xacml.rest.pdp.warmup.requests";
+    /**
+     * Number of times the warm-up requests are replayed. Default is 5.
+     */
+    public static final String PROP_PDP_WARMUP_PASSES = "xacml.rest.pdp.warmup.passes";
+    /**
+     * Number of milliseconds the warm-up of a new engine may take, after which the engine is put in service
+     * regardless. Default is 10000.
+     */
+    public static final String PROP_PDP_WARMUP_TIMEBUDGET = "xacml.rest.pdp.warmup.timeBudget";
+    /**
+     * File the PDP servlet appends the requests it decides to, with their decisions, for replay with
+     * TestReplay. The PIP attributes resolved for each request are captured as well when the
+     * xacml.pipFinderFactory is the CapturingPIPFinderFactory, with the factory it replaces, normally the
+     * XACMLPdpPIPFinderFactory, as the xacml.capture.pipFinderFactory. Default is not set.
+     */
+    public static final String PROP_PDP_CAPTURE_FILE = "xacml.rest.pdp.capture.file";
+    /**
+     * Number of captured requests that may wait to be written before new ones are dropped. Default is 8192.
+     */
+    public static final String PROP_PDP_CAPTURE_BUFFERSIZE = "xacml.rest.pdp.capture.bufferSize";
+    /**
+     * Set this property to false to have the PDP servlet parse every policy and configure every PIP engine
+     * again on each configuration update. By default policies whose contents did not change and PIP engines
+     * whose properties did not change are carried over to the new engine. Default is true.
+     */
+    public static final String PROP_PDP_INCREMENTAL = "xacml.rest.pdp.incremental";
     /**
      * Custom HTTP header used by PDP to send the value of the PROP_PDP_ID
      */
@@ -63,6 +164,17 @@ public class XACMLRestProperties extends XACMLProperties {
      * Custom HHTP header used by PDP to send its heartbeat value.
      */
     public static final String PROP_PDP_HTTP_HEADER_HB = "X-XACML-PDP-HB";
+    /**
+     * Custom HTTP header used by PDP in its heartbeat reply to send the version of the PAP configuration
+     * it has loaded, as given by the version parameter of the configuration PUT. Not sent if the PDP has
+     * not loaded a versioned configuration.
+     */
+    public static final String PROP_PDP_HTTP_HEADER_VERSION = "X-XACML-PDP-VERSION";
+    /**
+     * Custom HTTP header a PEP can set to true to have its request traced when the PDP uses the
+     * SampledTraceEngine, regardless of the configured sample rate.
+     */
+    public static final String PROP_PDP_HTTP_HEADER_TRACE = "X-XACML-TRACE";
     /**
      * The URL of the PAP servlet. Used by PDP servlet's to communicate. Because administrators can set
      * whatever context they want to run the PAP servlet, it isn't easy to determine a return URL for the PAP
@@ -82,6 +194,27 @@ public class XACMLRestProperties extends XACMLProperties {
      * Timeout value used by the PAP servlet when trying to check the heartbeat of a PDP node.
      */
     public static final String PROP_PAP_HEARTBEAT_TIMEOUT = "xacml.rest.pap.heartbeat.timeout";
+    /**
+     * Longest time in milliseconds the PAP servlet waits before sending another heartbeat to a PDP node that
+     * did not answer. The wait starts at the heartbeat interval and doubles with each missed heartbeat.
+     * Default is 300000.
+     */
+    public static final String PROP_PAP_HEARTBEAT_MAXBACKOFF = "xacml.rest.pap.heartbeat.maxBackoff";
+    /**
+     * Timeout in milliseconds used by the PAP servlet when connecting to a PDP node to send it a new
+     * configuration, and again when waiting for its answer. Default is 20000.
+     */
+    public static final String PROP_PAP_UPDATE_TIMEOUT = "xacml.rest.pap.update.timeout";
+    /**
+     * Number of threads the PAP servlet uses to send heartbeats and configuration updates to the PDP nodes.
+     * Default is 16.
+     */
+    public static final String PROP_PAP_PDP_THREADS = "xacml.rest.pap.pdp.threads";
+    /**
+     * Number of heartbeats and configuration updates that may wait for one of those threads. Beyond that,
+     * heartbeats are skipped for the cycle and updates wait for a thread to finish. Default is 1024.
+     */
+    public static final String PROP_PAP_PDP_QUEUE = "xacml.rest.pap.pdp.queue";
     /*
      * Local path to where the GIT repository exists. Eg. /opt/app/xacml/repository
      */
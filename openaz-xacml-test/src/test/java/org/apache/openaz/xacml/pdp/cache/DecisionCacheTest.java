@@ -0,0 +1,227 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.Result;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.api.pdp.PDPEngineFactory;
+import org.apache.openaz.xacml.api.pip.PIPEngine;
+import org.apache.openaz.xacml.api.pip.PIPFinder;
+import org.apache.openaz.xacml.api.pip.PIPRequest;
+import org.apache.openaz.xacml.api.pip.PIPResponse;
+import org.apache.openaz.xacml.pdp.OpenAZPDPEngine;
+import org.apache.openaz.xacml.pdp.eval.PolicyIdentifierCollector;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdAttributeValue;
+import org.apache.openaz.xacml.std.StdMutableAttribute;
+import org.apache.openaz.xacml.std.StdMutableRequest;
+import org.apache.openaz.xacml.std.StdMutableRequestAttributes;
+import org.apache.openaz.xacml.std.pip.StdPIPRequest;
+import org.junit.Test;
+
+/**
+ * Evaluates requests through an engine with a {@link DecisionCache} enabled.
+ */
+public class DecisionCacheTest {
+
+    private static OpenAZPDPEngine newEngine(String policyId, String policyFile) throws Exception {
+        Properties properties = new Properties();
+        properties.put(OpenAZPDPProperties.PROP_DECISIONCACHE, "true");
+        properties.put("xacml.rootPolicies", policyId);
+        properties.put("xacml.referencedPolicies", "doubleit");
+        properties.put(policyId + ".file", policyFile);
+        properties.put("doubleit.file",
+                       "src/test/resources/org/apache/openaz/pdp/std/json/manager_permission_policy.xml");
+        return (OpenAZPDPEngine)PDPEngineFactory.newInstance().newEngine(properties);
+    }
+
+    @Test
+    public void testCacheHit() throws Exception {
+        OpenAZPDPEngine engine = newEngine("manager",
+                                           "src/test/resources/org/apache/openaz/pdp/std/json/manager_role_policy.xml");
+        DecisionCache decisionCache = engine.getDecisionCache();
+        assertNotNull(decisionCache);
+
+        Response response = engine.decide(createRequest("manager", false));
+        assertEquals(Decision.PERMIT, response.getResults().iterator().next().getDecision());
+        assertEquals(0, decisionCache.getHitCount());
+        assertEquals(1, decisionCache.size());
+
+        //
+        // The same request with its categories in a different order is a hit
+        //
+        Response responseCached = engine.decide(createRequest("manager", true));
+        assertEquals(1, decisionCache.getHitCount());
+        assertSame(decisionCache.get(decisionCache.getKey(createRequest("manager", false))), responseCached);
+
+        //
+        // A different subject is a miss, and its error result is not cached
+        //
+        response = engine.decide(createRequest("employee", false));
+        assertTrue(response.getResults().iterator().next().getDecision() != Decision.PERMIT);
+        assertEquals(2, decisionCache.getMissCount());
+        assertEquals(1, decisionCache.size());
+    }
+
+    @Test
+    public void testCollectedPolicyIdentifiers() throws Exception {
+        String policyFile = "src/test/resources/org/apache/openaz/pdp/std/json/manager_role_policy.xml";
+        OpenAZPDPEngine engine = newEngine("manager", policyFile);
+        DecisionCache decisionCache = engine.getDecisionCache();
+        Request request = createRequest("manager", false);
+        Result result = engine.decide(request).getResults().iterator().next();
+        assertEquals(Decision.PERMIT, result.getDecision());
+        assertEquals(0, countPolicyIdentifiers(result));
+
+        //
+        // The request is decided as it is, but the policies that applied are listed, in a separate entry
+        //
+        PolicyIdentifierCollector.begin();
+        try {
+            result = engine.decide(request).getResults().iterator().next();
+        } finally {
+            PolicyIdentifierCollector.end();
+        }
+        assertFalse(request.getReturnPolicyIdList());
+        assertEquals(Decision.PERMIT, result.getDecision());
+        assertTrue(countPolicyIdentifiers(result) > 0);
+        assertEquals(0, decisionCache.getHitCount());
+        assertEquals(2, decisionCache.size());
+
+        result = engine.decide(request).getResults().iterator().next();
+        assertEquals(1, decisionCache.getHitCount());
+        assertEquals(0, countPolicyIdentifiers(result));
+    }
+
+    private static int countPolicyIdentifiers(Result result) {
+        return result.getPolicyIdentifiers().size() + result.getPolicySetIdentifiers().size();
+    }
+
+    @Test
+    public void testCurrentTimeNotCached() throws Exception {
+        OpenAZPDPEngine engine = newEngine("currenttime",
+                                           "src/test/resources/org/apache/openaz/pdp/cache/current_time_policy.xml");
+        DecisionCache decisionCache = engine.getDecisionCache();
+
+        Response response = engine.decide(createRequest("manager", false));
+        assertEquals(Decision.PERMIT, response.getResults().iterator().next().getDecision());
+        engine.decide(createRequest("manager", false));
+        assertEquals(0, decisionCache.getHitCount());
+        assertEquals(0, decisionCache.size());
+    }
+
+    @Test
+    public void testUndeclaredEngineIsVolatile() throws Exception {
+        PIPRequest declared = new StdPIPRequest(XACML3.ID_SUBJECT_CATEGORY_ACCESS_SUBJECT,
+                                                XACML3.ID_SUBJECT_SUBJECT_ID, XACML3.ID_DATATYPE_STRING);
+        PIPRequest other = new StdPIPRequest(XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE,
+                                             XACML3.ID_RESOURCE_RESOURCE_ID, XACML3.ID_DATATYPE_STRING);
+
+        DecisionCache decisionCache = new DecisionCache(10, 1000, 100, Arrays.asList("declared"));
+        Collection<PIPEngine> engines = Arrays.asList(newPIPEngine("declared", Arrays.asList(declared)));
+        assertTrue(decisionCache.newRecording().isVolatileAttribute(declared, engines));
+        assertFalse(decisionCache.newRecording().isVolatileAttribute(other, engines));
+
+        decisionCache = new DecisionCache(10, 1000, 100, Arrays.asList("undeclared"));
+        engines = Arrays.asList(newPIPEngine("undeclared", Collections.<PIPRequest> emptyList()));
+        assertTrue(decisionCache.newRecording().isVolatileAttribute(other, engines));
+    }
+
+    private static PIPEngine newPIPEngine(final String name, final Collection<PIPRequest> provided) {
+        return new PIPEngine() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public String getDescription() {
+                return name;
+            }
+
+            @Override
+            public Collection<PIPRequest> attributesRequired() {
+                return null;
+            }
+
+            @Override
+            public Collection<PIPRequest> attributesProvided() {
+                return provided;
+            }
+
+            @Override
+            public PIPResponse getAttributes(PIPRequest pipRequest, PIPFinder pipFinder) {
+                return null;
+            }
+        };
+    }
+
+    private static StdMutableRequestAttributes createAttributes(String category, String attributeId,
+                                                                String dataType, String value) {
+        StdMutableRequestAttributes requestAttributes = new StdMutableRequestAttributes();
+        requestAttributes.setCategory(new IdentifierImpl(category));
+        StdMutableAttribute attribute = new StdMutableAttribute();
+        attribute.setCategory(new IdentifierImpl(category));
+        attribute.setAttributeId(new IdentifierImpl(attributeId));
+        attribute.addValue(new StdAttributeValue<String>(new IdentifierImpl(dataType), value));
+        requestAttributes.add(attribute);
+        return requestAttributes;
+    }
+
+    private static Request createRequest(String roleName, boolean reversed) {
+        StdMutableRequestAttributes subject = createAttributes(XACML3.ID_SUBJECT_CATEGORY_ACCESS_SUBJECT
+            .stringValue(), "urn:oasis:names:tc:xacml:2.0:subject:role", XACML3.ID_DATATYPE_ANYURI.stringValue(),
+                                                               roleName);
+        StdMutableRequestAttributes resource = createAttributes(XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE
+            .stringValue(), XACML3.ID_RESOURCE_RESOURCE_ID.stringValue(), XACML3.ID_DATATYPE_STRING
+            .stringValue(), "{http://www.example.org/contract/DoubleIt}DoubleItService#DoubleIt");
+        StdMutableRequestAttributes action = createAttributes(XACML3.ID_ATTRIBUTE_CATEGORY_ACTION.stringValue(),
+                                                              XACML3.ID_ACTION_ACTION_ID.stringValue(),
+                                                              XACML3.ID_DATATYPE_STRING.stringValue(),
+                                                              "execute");
+        StdMutableRequest request = new StdMutableRequest();
+        if (reversed) {
+            request.add(action);
+            request.add(resource);
+            request.add(subject);
+        } else {
+            request.add(subject);
+            request.add(resource);
+            request.add(action);
+        }
+        return request;
+    }
+}
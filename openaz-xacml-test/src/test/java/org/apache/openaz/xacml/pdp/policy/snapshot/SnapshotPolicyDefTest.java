@@ -0,0 +1,261 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.policy.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests writing compiled policies to snapshots and reading them back with {@link SnapshotPolicyDef}.
+ */
+public class SnapshotPolicyDefTest {
+    private static final String POLICIES = "src/test/resources/testsets/algorithms/combinedPermitOverrides/";
+
+    private static final String POLICYSET = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<PolicySet xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicySetId=\"urn:test:policyset\""
+        + " Version=\"1.2\" PolicyCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:deny-overrides\">\n"
+        + "  <Description>DESCRIPTION</Description>\n"
+        + "  <Target/>\n"
+        + "  <Policy PolicyId=\"urn:test:policy\" Version=\"1.0\""
+        + " RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:rule-combining-algorithm:permit-overrides\">\n"
+        + "    <Target>\n"
+        + "      <AnyOf><AllOf>\n"
+        + "        <Match MatchId=\"urn:oasis:names:tc:xacml:1.0:function:string-equal\">\n"
+        + "          <AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">read</AttributeValue>\n"
+        + "          <AttributeDesignator Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:action\""
+        + " AttributeId=\"urn:oasis:names:tc:xacml:1.0:action:action-id\""
+        + " DataType=\"http://www.w3.org/2001/XMLSchema#string\" MustBePresent=\"false\"/>\n"
+        + "        </Match>\n"
+        + "      </AllOf></AnyOf>\n"
+        + "    </Target>\n"
+        + "    <VariableDefinition VariableId=\"limit\">\n"
+        + "      <AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#integer\">42</AttributeValue>\n"
+        + "    </VariableDefinition>\n"
+        + "    <Rule RuleId=\"urn:test:rule\" Effect=\"Permit\">\n"
+        + "      <Condition>\n"
+        + "        <Apply FunctionId=\"urn:oasis:names:tc:xacml:1.0:function:integer-less-than\">\n"
+        + "          <Apply FunctionId=\"urn:oasis:names:tc:xacml:1.0:function:integer-one-and-only\">\n"
+        + "            <AttributeDesignator Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:resource\""
+        + " AttributeId=\"urn:test:size\" DataType=\"http://www.w3.org/2001/XMLSchema#integer\""
+        + " MustBePresent=\"true\" Issuer=\"test\"/>\n"
+        + "          </Apply>\n"
+        + "          <VariableReference VariableId=\"limit\"/>\n"
+        + "        </Apply>\n"
+        + "      </Condition>\n"
+        + "      <ObligationExpressions>\n"
+        + "        <ObligationExpression ObligationId=\"urn:test:obligation\" FulfillOn=\"Permit\">\n"
+        + "          <AttributeAssignmentExpression AttributeId=\"urn:test:assignment\">\n"
+        + "            <VariableReference VariableId=\"limit\"/>\n"
+        + "          </AttributeAssignmentExpression>\n"
+        + "        </ObligationExpression>\n"
+        + "      </ObligationExpressions>\n"
+        + "    </Rule>\n"
+        + "    <Rule RuleId=\"urn:test:deny\" Effect=\"Deny\">\n"
+        + "      <AdviceExpressions>\n"
+        + "        <AdviceExpression AdviceId=\"urn:test:advice\" AppliesTo=\"Deny\">\n"
+        + "          <AttributeAssignmentExpression AttributeId=\"urn:test:reason\""
+        + " Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:resource\">\n"
+        + "            <AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">too big</AttributeValue>\n"
+        + "          </AttributeAssignmentExpression>\n"
+        + "        </AdviceExpression>\n"
+        + "      </AdviceExpressions>\n"
+        + "    </Rule>\n"
+        + "  </Policy>\n"
+        + "  <PolicyIdReference Version=\"1.*\">urn:test:referenced</PolicyIdReference>\n"
+        + "</PolicySet>\n";
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.directory.toFile());
+    }
+
+    private static PolicyDef roundTrip(PolicyDef policyDef) throws SnapshotException {
+        byte[] hash = SnapshotPolicyDef.hash(new byte[] {
+            1, 2, 3
+        });
+        byte[] snapshot = SnapshotWriter.write(policyDef, hash);
+        return SnapshotReader.read(ByteBuffer.wrap(snapshot), hash);
+    }
+
+    @Test
+    public void testRoundTripPolicyFiles() throws Exception {
+        for (String name : Arrays.asList("policy_deny_D1.xml", "policy_deny_D2.xml", "policy_na.xml",
+                                         "policy_no_match.xml", "policy_permit_P1.xml", "policy_permit_P2.xml")) {
+            PolicyDef policyDef = DOMPolicyDef.load(new File(POLICIES + name));
+            PolicyDef restored = roundTrip(policyDef);
+            assertNotNull(name, restored);
+            assertEquals(name, policyDef.toString(), restored.toString());
+        }
+    }
+
+    @Test
+    public void testRoundTripPolicySet() throws Exception {
+        Path xml = this.directory.resolve("policyset.xml");
+        Files.write(xml, POLICYSET.getBytes(StandardCharsets.UTF_8));
+        PolicyDef policyDef = DOMPolicyDef.load(xml.toFile());
+        PolicyDef restored = roundTrip(policyDef);
+        assertEquals(policyDef.toString(), restored.toString());
+        assertEquals("DESCRIPTION", restored.getDescription());
+        assertEquals("1.2", restored.getVersion().getVersion());
+    }
+
+    @Test
+    public void testStaleSnapshotIsReplaced() throws Exception {
+        File xml = this.directory.resolve("policyset.xml").toFile();
+        File snapshot = SnapshotPolicyDef.getSnapshotFile(xml, null);
+        Files.write(xml.toPath(), POLICYSET.getBytes(StandardCharsets.UTF_8));
+
+        PolicyDef first = SnapshotPolicyDef.load(xml, snapshot);
+        assertTrue(snapshot.exists());
+        assertEquals("DESCRIPTION", first.getDescription());
+        byte[] firstSnapshot = Files.readAllBytes(snapshot.toPath());
+
+        PolicyDef second = SnapshotPolicyDef.load(xml, snapshot);
+        assertEquals(first.toString(), second.toString());
+
+        Files.write(xml.toPath(), POLICYSET.replace("DESCRIPTION", "CHANGED").getBytes(StandardCharsets.UTF_8));
+        PolicyDef third = SnapshotPolicyDef.load(xml, snapshot);
+        assertEquals("CHANGED", third.getDescription());
+        assertFalse(Arrays.equals(firstSnapshot, Files.readAllBytes(snapshot.toPath())));
+        assertNull(SnapshotReader.read(ByteBuffer.wrap(firstSnapshot),
+                                       SnapshotPolicyDef.hash(Files.readAllBytes(xml.toPath()))));
+    }
+
+    @Test
+    public void testCorruptSnapshotFallsBackToXml() throws Exception {
+        File xml = Paths.get(POLICIES, "policy_permit_P1.xml").toFile();
+        File snapshot = this.directory.resolve("policy_permit_P1.xml.snapshot").toFile();
+        PolicyDef policyDef = SnapshotPolicyDef.load(xml, snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot.toPath());
+        Files.write(snapshot.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+
+        try {
+            SnapshotReader.read(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length / 2)), null);
+            fail("Truncated snapshot was read");
+        } catch (SnapshotException ex) {
+            // expected
+        }
+        assertEquals(policyDef.toString(), SnapshotPolicyDef.load(xml, snapshot).toString());
+        assertTrue(Arrays.equals(bytes, Files.readAllBytes(snapshot.toPath())));
+    }
+
+    @Test
+    public void testCorruptBodyFallsBackToXml() throws Exception {
+        File xml = Paths.get(POLICIES, "policy_permit_P1.xml").toFile();
+        File snapshot = this.directory.resolve("policy_permit_P1.xml.snapshot").toFile();
+        PolicyDef policyDef = SnapshotPolicyDef.load(xml, snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot.toPath());
+
+        //
+        // A negative string count, and a body whose counts run past the end of the snapshot
+        //
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        header.position(6);
+        header.position(header.getShort() + header.position());
+        header.position(header.getShort() + header.position());
+        int stringsOffset = header.position();
+        for (int count = header.getInt(); count > 0; count--) {
+            header.position(header.getInt() + header.position());
+        }
+        byte[] badStrings = bytes.clone();
+        ByteBuffer.wrap(badStrings).putInt(stringsOffset, -1);
+        byte[] badBody = bytes.clone();
+        Arrays.fill(badBody, header.position() + 1, badBody.length, (byte)0xFF);
+
+        for (byte[] corrupt : Arrays.asList(badStrings, badBody)) {
+            try {
+                SnapshotReader.read(ByteBuffer.wrap(corrupt), null);
+                fail("Corrupt snapshot was read");
+            } catch (SnapshotException ex) {
+                // expected
+            }
+            Files.write(snapshot.toPath(), corrupt);
+            assertEquals(policyDef.toString(), SnapshotPolicyDef.load(xml, snapshot).toString());
+            assertTrue(Arrays.equals(bytes, Files.readAllBytes(snapshot.toPath())));
+        }
+    }
+
+    @Test
+    public void testOtherCodeVersionIsStale() throws Exception {
+        byte[] hash = SnapshotPolicyDef.hash(new byte[] {
+            1, 2, 3
+        });
+        byte[] bytes = SnapshotWriter.write(DOMPolicyDef.load(new File(POLICIES + "policy_na.xml")), hash);
+        assertNotNull(SnapshotReader.read(ByteBuffer.wrap(bytes), hash));
+
+        bytes[8] ^= 1;
+        assertNull(SnapshotReader.read(ByteBuffer.wrap(bytes), hash));
+    }
+
+    @Test
+    public void testSnapshotDirectoryKeepsSameNamesApart() throws Exception {
+        Path first = Files.createDirectories(this.directory.resolve("first"));
+        Path second = Files.createDirectories(this.directory.resolve("second"));
+        File firstXml = first.resolve("policyset.xml").toFile();
+        File secondXml = second.resolve("policyset.xml").toFile();
+        Files.write(firstXml.toPath(), POLICYSET.getBytes(StandardCharsets.UTF_8));
+        Files.write(secondXml.toPath(),
+                    POLICYSET.replace("DESCRIPTION", "SECOND").getBytes(StandardCharsets.UTF_8));
+
+        File snapshots = this.directory.resolve("snapshots").toFile();
+        Properties properties = new Properties();
+        properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_SNAPSHOT, "true");
+        properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_SNAPSHOTDIRECTORY,
+                               snapshots.getAbsolutePath());
+        assertFalse(SnapshotPolicyDef.getSnapshotFile(firstXml, snapshots)
+            .equals(SnapshotPolicyDef.getSnapshotFile(secondXml, snapshots)));
+
+        assertEquals("DESCRIPTION", SnapshotPolicyDef.load(firstXml, properties).getDescription());
+        assertEquals("SECOND", SnapshotPolicyDef.load(secondXml, properties).getDescription());
+        assertTrue(SnapshotPolicyDef.getSnapshotFile(secondXml, snapshots).exists());
+        assertEquals("DESCRIPTION", SnapshotPolicyDef.load(firstXml, properties).getDescription());
+        assertEquals("SECOND", SnapshotPolicyDef.load(secondXml, properties).getDescription());
+    }
+}
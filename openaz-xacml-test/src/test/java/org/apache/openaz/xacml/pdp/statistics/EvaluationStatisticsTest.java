@@ -0,0 +1,164 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.pdp.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.api.pdp.PDPEngineFactory;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.junit.After;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Evaluates requests with {@link EvaluationStatistics} enabled.
+ */
+public class EvaluationStatisticsTest {
+    private static final String REQUEST = "{\"Request\":{"
+                                          + "\"AccessSubject\":{\"Attribute\":[{\"AttributeId\":"
+                                          + "\"urn:oasis:names:tc:xacml:2.0:subject:role\",\"DataType\":\"anyURI\","
+                                          + "\"Value\":\"manager\"}]},"
+                                          + "\"Resource\":{\"Attribute\":[{\"AttributeId\":"
+                                          + "\"urn:oasis:names:tc:xacml:1.0:resource:resource-id\",\"Value\":"
+                                          + "\"{http://www.example.org/contract/DoubleIt}DoubleItService#DoubleIt\"}]},"
+                                          + "\"Action\":{\"Attribute\":[{\"AttributeId\":"
+                                          + "\"urn:oasis:names:tc:xacml:1.0:action:action-id\",\"Value\":\"execute\"}]}}}";
+
+    @After
+    public void tearDown() {
+        EvaluationStatistics.getInstance().setSampleInterval(0);
+        EvaluationStatistics.getInstance().reset();
+    }
+
+    private static PDPEngine newEngine() throws Exception {
+        Properties properties = new Properties();
+        properties.put("xacml.rootPolicies", "manager");
+        properties.put("xacml.referencedPolicies", "doubleit");
+        properties.put("manager.file",
+                       "src/test/resources/org/apache/openaz/pdp/std/json/manager_role_policy.xml");
+        properties.put("doubleit.file",
+                       "src/test/resources/org/apache/openaz/pdp/std/json/manager_permission_policy.xml");
+        return PDPEngineFactory.newInstance().newEngine(properties);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        EvaluationStatistics evaluationStatistics = EvaluationStatistics.getInstance();
+        evaluationStatistics.reset();
+        evaluationStatistics.setSampleInterval(0);
+        newEngine().decide(JSONRequest.load(REQUEST));
+        assertTrue(evaluationStatistics.getTop(10).isEmpty());
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        EvaluationStatistics evaluationStatistics = EvaluationStatistics.getInstance();
+        evaluationStatistics.reset();
+        evaluationStatistics.setSampleInterval(1);
+        PDPEngine engine = newEngine();
+        for (int i = 0; i < 3; i++) {
+            Response response = engine.decide(JSONRequest.load(REQUEST));
+            assertEquals(Decision.PERMIT, response.getResults().iterator().next().getDecision());
+        }
+
+        List<ElementStatistics> listTop = evaluationStatistics.getTop(100);
+        assertTrue(listTop.size() >= 2);
+        for (int i = 1; i < listTop.size(); i++) {
+            assertTrue(listTop.get(i - 1).getNanos() >= listTop.get(i).getNanos());
+        }
+        boolean foundPolicySet = false;
+        boolean foundRule = false;
+        for (ElementStatistics elementStatistics : listTop) {
+            assertEquals(elementStatistics.getEvaluations(), elementStatistics.getMatches()
+                                                             + elementStatistics.getNoMatches()
+                                                             + elementStatistics.getIndeterminates());
+            if (elementStatistics.getKind() == ElementStatistics.Kind.POLICYSET) {
+                foundPolicySet = true;
+                assertEquals(3, elementStatistics.getEvaluations());
+                assertEquals(3, elementStatistics.getMatches());
+            } else if (elementStatistics.getKind() == ElementStatistics.Kind.RULE) {
+                foundRule = true;
+            }
+        }
+        assertTrue(foundPolicySet);
+        assertTrue(foundRule);
+        assertEquals(1, evaluationStatistics.getTop(1).size());
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        evaluationStatistics.writeJSON(bos, 2);
+        Map<?, ?> json = new ObjectMapper().readValue(bos.toByteArray(), Map.class);
+        assertEquals(1, json.get("sampleInterval"));
+        assertEquals(2, ((List<?>)json.get("elements")).size());
+        Map<?, ?> first = (Map<?, ?>)((List<?>)json.get("elements")).get(0);
+        assertEquals(listTop.get(0).getId(), first.get("id"));
+    }
+
+    @Test
+    public void testSampledPerRequest() throws Exception {
+        EvaluationStatistics evaluationStatistics = EvaluationStatistics.getInstance();
+        evaluationStatistics.reset();
+        evaluationStatistics.setSampleInterval(1);
+        PDPEngine engine = newEngine();
+        engine.decide(JSONRequest.load(REQUEST));
+        Map<String, Long> perRequest = new HashMap<String, Long>();
+        for (ElementStatistics elementStatistics : evaluationStatistics.getTop(100)) {
+            perRequest.put(elementStatistics.getKind() + ":" + elementStatistics.getId(),
+                           elementStatistics.getEvaluations());
+        }
+
+        //
+        // Either every element of a request is measured or none is
+        //
+        evaluationStatistics.reset();
+        evaluationStatistics.setSampleInterval(3);
+        for (int i = 0; i < 60; i++) {
+            engine.decide(JSONRequest.load(REQUEST));
+        }
+        List<ElementStatistics> listTop = evaluationStatistics.getTop(100);
+        assertEquals(perRequest.size(), listTop.size());
+        long sampledRequests = -1;
+        for (ElementStatistics elementStatistics : listTop) {
+            long evaluations = elementStatistics.getEvaluations();
+            long perRequestEvaluations = perRequest.get(elementStatistics.getKind() + ":"
+                                                        + elementStatistics.getId());
+            assertEquals(0, evaluations % perRequestEvaluations);
+            if (sampledRequests == -1) {
+                sampledRequests = evaluations / perRequestEvaluations;
+            }
+            assertEquals(sampledRequests, evaluations / perRequestEvaluations);
+        }
+        assertTrue(sampledRequests > 0 && sampledRequests < 60);
+        assertFalse(evaluationStatistics.isSampled());
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.IdReferenceMatch;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.pdp.PDPEngineFactory;
+import org.apache.openaz.xacml.pdp.OpenAZPDPEngine;
+import org.apache.openaz.xacml.pdp.policy.EvictablePolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinder;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
+import org.apache.openaz.xacml.pdp.policy.snapshot.SnapshotPolicyDef;
+import org.apache.openaz.xacml.pdp.policy.snapshot.SnapshotWriter;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdIdReferenceMatch;
+import org.apache.openaz.xacml.std.StdVersionMatch;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests loading policies from a database with {@link JDBCPolicyFinder}.
+ */
+public class JDBCPolicyFinderTest {
+    private static final String URL = "jdbc:h2:mem:policies;DB_CLOSE_DELAY=-1";
+
+    private static final String POLICY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicyId=\"urn:test:policy\""
+        + " Version=\"%s\" RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable\">\n"
+        + "  <Target/>\n"
+        + "  <Rule RuleId=\"urn:test:rule\" Effect=\"%s\"/>\n"
+        + "</Policy>\n";
+
+    private static final String POLICYSET = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<PolicySet xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicySetId=\"urn:test:root\""
+        + " Version=\"1.0\" PolicyCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:deny-overrides\">\n"
+        + "  <Target/>\n"
+        + "  <PolicyIdReference>urn:test:policy</PolicyIdReference>\n"
+        + "</PolicySet>\n";
+
+    private Connection connection;
+    private Properties properties;
+    private JDBCPolicyFinder finder;
+
+    @Before
+    public void setUp() throws Exception {
+        this.connection = DriverManager.getConnection(URL);
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("CREATE TABLE POLICIES (POLICY_ID VARCHAR(255), VERSION VARCHAR(64),"
+                              + " ROOT BOOLEAN, POLICY CLOB, SNAPSHOT BLOB, UPDATED BIGINT,"
+                              + " PRIMARY KEY (POLICY_ID, VERSION))");
+        }
+        this.insert("urn:test:root", "1.0", true, POLICYSET, null);
+        this.insert("urn:test:policy", "1.0", false, String.format(POLICY, "1.0", "Permit"), null);
+        this.properties = new Properties();
+        this.properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_URL, URL);
+        this.properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_POLLINTERVAL, "0");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        if (this.finder != null) {
+            this.finder.shutdown();
+        }
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("DROP TABLE POLICIES");
+        }
+        this.connection.close();
+    }
+
+    private void insert(String policyId, String version, boolean root, String xml, byte[] snapshot)
+        throws SQLException {
+        try (PreparedStatement statement = this.connection
+            .prepareStatement("INSERT INTO POLICIES VALUES (?, ?, ?, ?, ?, ?)")) {
+            statement.setString(1, policyId);
+            statement.setString(2, version);
+            statement.setBoolean(3, root);
+            statement.setString(4, xml);
+            statement.setBytes(5, snapshot);
+            statement.setLong(6, System.nanoTime());
+            statement.executeUpdate();
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private JDBCPolicyFinder newPolicyFinder() throws Exception {
+        this.finder = (JDBCPolicyFinder)new JDBCPolicyFinderFactory().getPolicyFinder(this.properties);
+        return this.finder;
+    }
+
+    private static IdReferenceMatch match(String id, String version) throws Exception {
+        return new StdIdReferenceMatch(new IdentifierImpl(id), version == null
+            ? null : StdVersionMatch.newInstance(version), null, null);
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        JDBCPolicyFinder policyFinder = this.newPolicyFinder();
+        PolicyFinderResult<Policy> policy = policyFinder.getPolicy(match("urn:test:policy", null));
+        assertTrue(policy.getStatus().isOk());
+        assertTrue(policy instanceof EvictablePolicyFinderResult);
+        assertEquals("1.0", policy.getPolicyDef().getVersion().stringValue());
+        assertTrue(policyFinder.getPolicySet(match("urn:test:root", null)).getStatus().isOk());
+        assertFalse(policyFinder.refresh());
+
+        //
+        // Changed, added and removed rows are picked up
+        //
+        this.execute("UPDATE POLICIES SET POLICY = '" + String.format(POLICY, "1.0", "Deny")
+                     + "', UPDATED = UPDATED + 1 WHERE POLICY_ID = 'urn:test:policy'");
+        assertTrue(policyFinder.refresh());
+        assertNotSame(policy.getPolicyDef(), policyFinder.getPolicy(match("urn:test:policy", null))
+            .getPolicyDef());
+
+        this.insert("urn:test:policy", "2.0", false, String.format(POLICY, "2.0", "Permit"), null);
+        assertTrue(policyFinder.refresh());
+        assertEquals("2.0", policyFinder.getPolicy(match("urn:test:policy", null)).getPolicyDef().getVersion()
+            .stringValue());
+
+        this.execute("DELETE FROM POLICIES WHERE VERSION = '2.0'");
+        assertTrue(policyFinder.refresh());
+        assertEquals("1.0", policyFinder.getPolicy(match("urn:test:policy", null)).getPolicyDef().getVersion()
+            .stringValue());
+
+        //
+        // A row that cannot be parsed is skipped and not parsed again until it changes
+        //
+        this.insert("urn:test:bad", "1.0", false, "<Policy", null);
+        assertTrue(policyFinder.refresh());
+        assertFalse(policyFinder.refresh());
+        assertFalse(policyFinder.getPolicy(match("urn:test:bad", null)).getStatus().isOk());
+    }
+
+    @Test
+    public void testDecisionCache() throws Exception {
+        JDBCPolicyFinder policyFinder = this.newPolicyFinder();
+        this.properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY,
+                                    JDBCPolicyFinderFactory.class.getName());
+        this.properties.setProperty(OpenAZPDPProperties.PROP_DECISIONCACHE, "true");
+        OpenAZPDPEngine engine = (OpenAZPDPEngine)PDPEngineFactory.newInstance().newEngine(this.properties);
+        Request request = JSONRequest.load("{\"Request\":{\"AccessSubject\":{\"Attribute\":[{\"AttributeId\":"
+                                           + "\"urn:oasis:names:tc:xacml:1.0:subject:subject-id\","
+                                           + "\"Value\":\"Julius Hibbert\"}]}}}");
+        assertEquals(Decision.PERMIT, engine.decide(request).getResults().iterator().next().getDecision());
+        assertEquals(Decision.PERMIT, engine.decide(request).getResults().iterator().next().getDecision());
+        assertEquals(1, engine.getDecisionCache().getHitCount());
+
+        //
+        // Replacing the policies empties the cache, the decision follows the changed row
+        //
+        this.execute("UPDATE POLICIES SET POLICY = '" + String.format(POLICY, "1.0", "Deny")
+                     + "', UPDATED = UPDATED + 1 WHERE POLICY_ID = 'urn:test:policy'");
+        assertTrue(policyFinder.refresh());
+        assertEquals(Decision.DENY, engine.decide(request).getResults().iterator().next().getDecision());
+        assertEquals(1, engine.getDecisionCache().getHitCount());
+        assertEquals(1, engine.getDecisionCache().size());
+    }
+
+    @Test
+    public void testSharedPolicyFinder() throws Exception {
+        //
+        // Engines are rebuilt with new factories, which must not start more pollers
+        //
+        JDBCPolicyFinder policyFinder = this.newPolicyFinder();
+        assertSame(policyFinder, new JDBCPolicyFinderFactory().getPolicyFinder(this.properties));
+        policyFinder.shutdown();
+        assertNotSame(policyFinder, this.newPolicyFinder());
+    }
+
+    @Test
+    public void testCurrentPolicies() throws Exception {
+        JDBCPolicyFinder policyFinder = this.newPolicyFinder();
+        PolicyFinder current = policyFinder.getCurrentPolicyFinder();
+        this.insert("urn:test:policy", "2.0", false, String.format(POLICY, "2.0", "Permit"), null);
+        assertTrue(policyFinder.refresh());
+        //
+        // A request that started before the refresh keeps seeing the policies it started with
+        //
+        PolicyFinderResult<Policy> policy = current.getPolicy(match("urn:test:policy", null));
+        assertTrue(policy instanceof EvictablePolicyFinderResult);
+        assertEquals("1.0", policy.getPolicyDef().getVersion().stringValue());
+        assertEquals("2.0", policyFinder.getCurrentPolicyFinder().getPolicy(match("urn:test:policy", null))
+            .getPolicyDef().getVersion().stringValue());
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        String xml = String.format(POLICY, "3.0", "Permit");
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        byte[] snapshot = SnapshotWriter.write(DOMPolicyDef.load(new ByteArrayInputStream(bytes)),
+                                               SnapshotPolicyDef.hash(bytes));
+        this.insert("urn:test:policy", "3.0", false, null, snapshot);
+        assertEquals("3.0", this.newPolicyFinder().getPolicy(match("urn:test:policy", "3.0")).getPolicyDef()
+            .getVersion().stringValue());
+    }
+
+    @Test
+    public void testPolling() throws Exception {
+        this.properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_JDBC_POLLINTERVAL, "20");
+        JDBCPolicyFinder policyFinder = this.newPolicyFinder();
+        this.insert("urn:test:policy", "2.0", false, String.format(POLICY, "2.0", "Permit"), null);
+        String version = null;
+        for (int i = 0; i < 100 && !"2.0".equals(version); i++) {
+            Thread.sleep(20);
+            version = policyFinder.getPolicy(match("urn:test:policy", null)).getPolicyDef().getVersion()
+                .stringValue();
+        }
+        assertEquals("2.0", version);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.openaz.xacml.api.IdReferenceMatch;
+import org.apache.openaz.xacml.pdp.policy.EvictablePolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.PolicySet;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdIdReferenceMatch;
+import org.apache.openaz.xacml.std.StdVersionMatch;
+import org.apache.openaz.xacml.util.XACMLProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests loading referenced policies on demand with {@link LazyPolicyFinder}.
+ */
+public class LazyPolicyFinderTest {
+    private static final String POLICY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<!-- a referenced policy -->\n"
+        + "<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicyId=\"urn:test:policy\""
+        + " Version=\"%s\" RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable\">\n"
+        + "  <Target/>\n"
+        + "  <Rule RuleId=\"urn:test:rule\" Effect=\"Permit\"/>\n"
+        + "</Policy>\n";
+
+    private static final String POLICYSET = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<PolicySet xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicySetId=\"urn:test:policyset\""
+        + " Version=\"1.0\" PolicyCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:deny-overrides\">\n"
+        + "  <Target/>\n"
+        + "  <PolicyIdReference>urn:test:policy</PolicyIdReference>\n"
+        + "</PolicySet>\n";
+
+    private Path directory;
+    private Properties properties;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("lazy");
+        this.properties = new Properties();
+        this.properties.setProperty(XACMLProperties.PROP_ROOTPOLICIES, "");
+        this.properties.setProperty(XACMLProperties.PROP_REFERENCEDPOLICIES, "p1,p2,ps");
+        this.properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_CACHESIZE, "1");
+        this.properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_INDEXFILE,
+                                    this.directory.resolve("policy.index").toString());
+        this.write("p1", String.format(POLICY, "1.0"));
+        this.write("p2", String.format(POLICY, "2.0"));
+        this.write("ps", POLICYSET);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.directory.toFile());
+    }
+
+    private void write(String policyId, String xml) throws IOException {
+        Path file = this.directory.resolve(policyId + ".xml");
+        Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+        this.properties.setProperty(policyId + StdPolicyFinderFactory.PROP_FILE, file.toString());
+    }
+
+    private static IdReferenceMatch match(String id, String version) throws Exception {
+        return new StdIdReferenceMatch(new IdentifierImpl(id), version == null
+            ? null : StdVersionMatch.newInstance(version), null, null);
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        LazyPolicyFinder finder = (LazyPolicyFinder)new LazyPolicyFinderFactory()
+            .getPolicyFinder(this.properties);
+        assertEquals(0, finder.getCacheStats().loadCount());
+
+        PolicyFinderResult<Policy> policy = finder.getPolicy(match("urn:test:policy", null));
+        assertTrue(policy.getStatus().isOk());
+        assertTrue(policy instanceof EvictablePolicyFinderResult);
+        assertEquals("2.0", policy.getPolicyDef().getVersion().stringValue());
+
+        policy = finder.getPolicy(match("urn:test:policy", "1.*"));
+        assertEquals("1.0", policy.getPolicyDef().getVersion().stringValue());
+
+        PolicyFinderResult<PolicySet> policySet = finder.getPolicySet(match("urn:test:policyset", null));
+        assertTrue(policySet.getStatus().isOk());
+        assertFalse(finder.getPolicySet(match("urn:test:policy", null)).getStatus().isOk());
+        assertFalse(finder.getPolicy(match("urn:test:unknown", null)).getStatus().isOk());
+
+        //
+        // Only one policy is held at a time
+        //
+        assertEquals(3, finder.getCacheStats().loadCount());
+        assertEquals(2, finder.getCacheStats().evictionCount());
+        assertEquals(3, Files.readAllLines(this.directory.resolve("policy.index"), StandardCharsets.UTF_8)
+            .size());
+    }
+
+    @Test
+    public void testUnversionedEntry() throws Exception {
+        //
+        // A policy without a version is indexed first, and must lose to the versioned ones
+        //
+        this.properties.setProperty(XACMLProperties.PROP_REFERENCEDPOLICIES, "p0,p1,p2,ps");
+        this.write("p0", String.format(POLICY, "1.0").replace(" Version=\"1.0\"", ""));
+        LazyPolicyFinder finder = (LazyPolicyFinder)new LazyPolicyFinderFactory()
+            .getPolicyFinder(this.properties);
+        PolicyFinderResult<Policy> policy = finder.getPolicy(match("urn:test:policy", null));
+        assertTrue(policy.getStatus().isOk());
+        assertEquals("2.0", policy.getPolicyDef().getVersion().stringValue());
+    }
+
+    @Test
+    public void testRewrittenFileIsRejected() throws Exception {
+        LazyPolicyFinder finder = (LazyPolicyFinder)new LazyPolicyFinderFactory()
+            .getPolicyFinder(this.properties);
+        //
+        // Rewrite the latest version in place, keeping its size and time so the index still trusts it
+        //
+        Path file = this.directory.resolve("p2.xml");
+        long lastModified = file.toFile().lastModified();
+        Files.write(file, String.format(POLICY, "3.0").getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.toFile().setLastModified(lastModified));
+
+        PolicyFinderResult<Policy> policy = finder.getPolicy(match("urn:test:policy", null));
+        assertFalse(policy.getStatus().isOk());
+        assertTrue(policy.getStatus().getStatusMessage().contains("as indexed"));
+    }
+
+    @Test
+    public void testSingleLoad() throws Exception {
+        final LazyPolicyFinder finder = (LazyPolicyFinder)new LazyPolicyFinderFactory()
+            .getPolicyFinder(this.properties);
+        final IdReferenceMatch match = match("urn:test:policyset", null);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return finder.getPolicySet(match).getStatus().isOk();
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, finder.getCacheStats().loadCount());
+    }
+}
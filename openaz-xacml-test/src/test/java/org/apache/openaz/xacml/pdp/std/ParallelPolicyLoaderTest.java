@@ -0,0 +1,116 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.std.StdStatusCode;
+import org.apache.openaz.xacml.util.XACMLProperties;
+import org.junit.Test;
+
+/**
+ * Tests loading policies concurrently with the {@link ParallelPolicyLoader}.
+ */
+public class ParallelPolicyLoaderTest {
+    private static final String POLICIES = "src/test/resources/testsets/algorithms/combinedPermitOverrides/";
+
+    @Test
+    public void testResultsKeepIdentifierOrder() {
+        List<String> ids = Arrays.asList("5", "40", "1", "25", "10", "0", "15", "30");
+        ParallelPolicyLoader.Results<String> results = new ParallelPolicyLoader(4)
+            .load(ids, new ParallelPolicyLoader.Loader<String>() {
+                @Override
+                public String load(String policyId) throws Exception {
+                    //
+                    // Make the later identifiers finish first
+                    //
+                    Thread.sleep(Integer.parseInt(policyId));
+                    return "policy-" + policyId;
+                }
+            });
+        assertEquals(ids.size(), results.getResults().size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(ids.get(i), results.getResults().get(i).getPolicyId());
+            assertEquals("policy-" + ids.get(i), results.getResults().get(i).getValue());
+        }
+        assertTrue(results.getFailedPolicyIds().isEmpty());
+    }
+
+    @Test
+    public void testFailuresAreCollected() {
+        List<String> ids = Arrays.asList("a", "bad", "b", "missing", "c");
+        ParallelPolicyLoader.Results<String> results = new ParallelPolicyLoader(3)
+            .load(ids, new ParallelPolicyLoader.Loader<String>() {
+                @Override
+                public String load(String policyId) throws Exception {
+                    if ("bad".equals(policyId)) {
+                        throw new IOException("cannot parse " + policyId);
+                    }
+                    return "missing".equals(policyId) ? null : policyId;
+                }
+            });
+        assertEquals(Arrays.asList("a", "b", "c"), results.getValues());
+        assertEquals(Arrays.asList("bad", "missing"), results.getFailedPolicyIds());
+        assertTrue(results.getResults().get(1).getException() instanceof IOException);
+        assertNull(results.getResults().get(3).getException());
+    }
+
+    @Test
+    public void testFinderFactoryLoadsInPropertyOrder() throws IOException {
+        Path broken = Files.createTempFile("broken", ".xml");
+        Files.write(broken, "<Policy".getBytes(StandardCharsets.UTF_8));
+        broken.toFile().deleteOnExit();
+
+        Properties properties = new Properties();
+        properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_LOADTHREADS, "3");
+        properties.setProperty(XACMLProperties.PROP_ROOTPOLICIES, "d2,p1,broken,nm,p2");
+        properties.setProperty("d2.file", POLICIES + "policy_deny_D2.xml");
+        properties.setProperty("p1.file", POLICIES + "policy_permit_P1.xml");
+        properties.setProperty("broken.file", broken.toString());
+        properties.setProperty("nm.file", POLICIES + "policy_no_match.xml");
+        properties.setProperty("p2.file", POLICIES + "policy_permit_P2.xml");
+
+        List<PolicyDef> policyDefs = new StdPolicyFinderFactory()
+            .getPolicyDefs(XACMLProperties.PROP_ROOTPOLICIES, properties);
+        assertEquals(5, policyDefs.size());
+        assertEquals("urn:com:xacml:policy:id:eb9ea623-f64f-4cb6-a8c0-9c2b934bf11e", policyDefs.get(0)
+            .getIdentifier().stringValue());
+        assertEquals("urn:com:xacml:policy:id:4a897a3a-d874-4eb7-b351-5075c093bb8b", policyDefs.get(1)
+            .getIdentifier().stringValue());
+        assertEquals(StdStatusCode.STATUS_CODE_SYNTAX_ERROR, policyDefs.get(2).getStatusCode());
+        assertEquals("urn:com:xacml:policy:id:7df0ff38-76e6-4eb5-bf17-e1f54e94b0e7", policyDefs.get(3)
+            .getIdentifier().stringValue());
+        assertEquals("urn:com:xacml:policy:id:4cb8e62f-62a0-43bd-a43d-311d4451536f", policyDefs.get(4)
+            .getIdentifier().stringValue());
+    }
+}
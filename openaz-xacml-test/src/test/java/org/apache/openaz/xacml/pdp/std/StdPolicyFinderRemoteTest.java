@@ -0,0 +1,213 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.openaz.xacml.api.IdReferenceMatch;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.pdp.policy.PolicyDef;
+import org.apache.openaz.xacml.pdp.policy.PolicyFinderResult;
+import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdIdReferenceMatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests fetching policies referenced by absolute URI in {@link StdPolicyFinder}.
+ */
+public class StdPolicyFinderRemoteTest {
+    private static final String POLICY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<Policy xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicyId=\"%s\""
+        + " Version=\"1.0\" RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable\">\n"
+        + "  <Target/>\n"
+        + "  <Rule RuleId=\"urn:test:rule\" Effect=\"Permit\"/>\n"
+        + "</Policy>\n";
+
+    private static final String POLICYSET = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<PolicySet xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\" PolicySetId=\"urn:test:root\""
+        + " Version=\"1.0\" PolicyCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:deny-overrides\">\n"
+        + "  <Target/>\n"
+        + "  <PolicyIdReference>%s</PolicyIdReference>\n"
+        + "</PolicySet>\n";
+
+    /**
+     * Counts the fetches and slows them down so that concurrent lookups overlap.
+     */
+    private static class CountingPolicyFinder extends StdPolicyFinder {
+        private final AtomicInteger fetches = new AtomicInteger();
+        private volatile Thread fetchThread;
+
+        CountingPolicyFinder(List<PolicyDef> roots, Properties properties) {
+            super(roots, null, properties);
+        }
+
+        @Override
+        protected PolicyDef loadPolicyDefFromURI(URI uri) throws StdPolicyFinderException {
+            this.fetches.incrementAndGet();
+            this.fetchThread = Thread.currentThread();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return super.loadPolicyDefFromURI(uri);
+        }
+    }
+
+    private Path directory;
+    private URI remote;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("remote");
+        this.remote = this.directory.resolve("remote.xml").toUri();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.directory.toFile());
+    }
+
+    private void writeRemote() throws IOException {
+        Files.write(this.directory.resolve("remote.xml"),
+                    String.format(POLICY, "urn:test:remote").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private IdReferenceMatch remoteMatch() {
+        return new StdIdReferenceMatch(new IdentifierImpl(this.remote), null, null, null);
+    }
+
+    @Test
+    public void testSingleFetch() throws Exception {
+        this.writeRemote();
+        final CountingPolicyFinder finder = new CountingPolicyFinder(null, new Properties());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return finder.getPolicy(StdPolicyFinderRemoteTest.this.remoteMatch()).getStatus()
+                            .isOk();
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, finder.fetches.get());
+        assertFalse(finder.getPolicySet(this.remoteMatch()).getStatus().isOk());
+        assertEquals(1, finder.fetches.get());
+    }
+
+    @Test
+    public void testBoundedWait() throws Exception {
+        this.writeRemote();
+        CountingPolicyFinder finder = new CountingPolicyFinder(null, new Properties());
+        assertTrue(finder.getPolicy(this.remoteMatch()).getStatus().isOk());
+        assertNotSame(Thread.currentThread(), finder.fetchThread);
+
+        //
+        // A request gives up on a slow fetch, which carries on for the requests after it
+        //
+        Properties properties = new Properties();
+        properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_REMOTEWAIT, "10");
+        finder = new CountingPolicyFinder(null, properties);
+        PolicyFinderResult<Policy> result = finder.getPolicy(this.remoteMatch());
+        assertFalse(result.getStatus().isOk());
+        for (int i = 0; i < 100 && !result.getStatus().isOk(); i++) {
+            Thread.sleep(20);
+            result = finder.getPolicy(this.remoteMatch());
+        }
+        assertTrue(result.getStatus().isOk());
+        assertEquals(1, finder.fetches.get());
+    }
+
+    @Test
+    public void testNegativeCache() throws Exception {
+        CountingPolicyFinder finder = new CountingPolicyFinder(null, new Properties());
+        assertFalse(finder.getPolicy(this.remoteMatch()).getStatus().isOk());
+        this.writeRemote();
+        assertFalse(finder.getPolicy(this.remoteMatch()).getStatus().isOk());
+        assertEquals(1, finder.fetches.get());
+
+        Properties properties = new Properties();
+        properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_REMOTENEGATIVETTL, "0");
+        Files.delete(this.directory.resolve("remote.xml"));
+        finder = new CountingPolicyFinder(null, properties);
+        assertFalse(finder.getPolicy(this.remoteMatch()).getStatus().isOk());
+        this.writeRemote();
+        Thread.sleep(5);
+        assertTrue(finder.getPolicy(this.remoteMatch()).getStatus().isOk());
+        assertEquals(2, finder.fetches.get());
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        this.writeRemote();
+        PolicyDef root = DOMPolicyDef.load(new ByteArrayInputStream(String
+            .format(POLICYSET, this.remote).getBytes(StandardCharsets.UTF_8)));
+        Properties properties = new Properties();
+        properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_REMOTEPREFETCH, "true");
+        properties.setProperty(OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_REMOTEWAIT, "0");
+        CountingPolicyFinder finder = new CountingPolicyFinder(Collections.singletonList(root), properties);
+
+        //
+        // Lookups never wait for the fetch, and find the policy once it has arrived
+        //
+        PolicyFinderResult<Policy> result = finder.getPolicy(this.remoteMatch());
+        for (int i = 0; i < 100 && !result.getStatus().isOk(); i++) {
+            Thread.sleep(20);
+            result = finder.getPolicy(this.remoteMatch());
+        }
+        assertTrue(result.getStatus().isOk());
+        assertEquals("urn:test:remote", result.getPolicyDef().getIdentifier().stringValue());
+        assertEquals(1, finder.fetches.get());
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std.capture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.openaz.xacml.api.Attribute;
+import org.apache.openaz.xacml.api.AttributeValue;
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.api.pip.PIPEngine;
+import org.apache.openaz.xacml.api.pip.PIPException;
+import org.apache.openaz.xacml.api.pip.PIPFinder;
+import org.apache.openaz.xacml.api.pip.PIPFinderFactory;
+import org.apache.openaz.xacml.api.pip.PIPRequest;
+import org.apache.openaz.xacml.api.pip.PIPResponse;
+import org.apache.openaz.xacml.std.StdAttribute;
+import org.apache.openaz.xacml.std.capture.CaptureFileReader;
+import org.apache.openaz.xacml.std.capture.CaptureFileWriter;
+import org.apache.openaz.xacml.std.capture.CaptureRecord;
+import org.apache.openaz.xacml.std.capture.CapturingFinder;
+import org.apache.openaz.xacml.std.capture.CapturingPIPFinderFactory;
+import org.apache.openaz.xacml.std.capture.ReplayFinder;
+import org.apache.openaz.xacml.std.datatypes.DataTypes;
+import org.apache.openaz.xacml.std.pip.StdPIPRequest;
+import org.apache.openaz.xacml.std.pip.StdPIPResponse;
+import org.apache.openaz.xacml.std.pip.finders.WrappingFinder;
+import org.apache.openaz.xacml.util.XACMLProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests capturing resolved attributes with the {@link CapturingFinder}, writing and reading capture files, and
+ * serving the captured attributes with the {@link ReplayFinder}.
+ */
+public class CaptureFileTest {
+    private static final byte[] REQUEST = "{\"Request\":{}}".getBytes(StandardCharsets.UTF_8);
+
+    private static final PIPRequest PIP_REQUEST = new StdPIPRequest(XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE,
+                                                                     XACML3.ID_RESOURCE_RESOURCE_ID,
+                                                                     XACML3.ID_DATATYPE_STRING);
+
+    private Path file;
+
+    /*
+     * Answers every request with the resource-id "document".
+     */
+    private static class FixedFinder extends WrappingFinder {
+        FixedFinder() {
+            super(null);
+        }
+
+        @Override
+        protected PIPResponse getAttributesInternal(PIPRequest pipRequest, PIPEngine exclude,
+                                                    PIPFinder pipFinderParent) throws PIPException {
+            try {
+                AttributeValue<String> value = DataTypes.DT_STRING.createAttributeValue("document");
+                return new StdPIPResponse(new StdAttribute(pipRequest.getCategory(), pipRequest
+                    .getAttributeId(), value, pipRequest.getIssuer(), false));
+            } catch (Exception ex) {
+                throw new PIPException(ex);
+            }
+        }
+
+        @Override
+        public Collection<PIPEngine> getPIPEngines() {
+            return Collections.emptyList();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        this.file = Files.createTempFile("capture", ".bin");
+        Files.delete(this.file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+        ReplayFinder.setAttributes(null);
+    }
+
+    private Request captureAttributes() throws PIPException {
+        CapturingFinder finder = new CapturingFinder(new FixedFinder());
+        CapturingFinder.begin();
+        finder.getAttributes(PIP_REQUEST, null);
+        finder.getAttributes(PIP_REQUEST, null);
+        return CapturingFinder.end();
+    }
+
+    private void write(CaptureRecord... records) throws IOException {
+        CaptureFileWriter writer = new CaptureFileWriter(this.file, 16);
+        for (CaptureRecord record : records) {
+            assertTrue(writer.offer(record));
+        }
+        writer.close();
+    }
+
+    @Test
+    public void testCapturingFinder() throws PIPException {
+        Request attributes = this.captureAttributes();
+        assertNotNull(attributes);
+        assertEquals(1, attributes.getRequestAttributes().size());
+        assertEquals(1, attributes.getRequestAttributes().iterator().next().getAttributes().size());
+        //
+        // Nothing is captured once the capture has ended
+        //
+        new CapturingFinder(new FixedFinder()).getAttributes(PIP_REQUEST, null);
+        assertNull(CapturingFinder.end());
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Request attributes = this.captureAttributes();
+        this.write(new CaptureRecord(1000, "application/json", REQUEST, Arrays.asList(Decision.PERMIT),
+                                     attributes));
+        //
+        // A second writer appends to the same file
+        //
+        this.write(new CaptureRecord(2000, "application/xml", REQUEST, Arrays.asList(Decision.DENY,
+                                                                                     Decision.NOTAPPLICABLE),
+                                     null));
+        try (CaptureFileReader reader = new CaptureFileReader(this.file)) {
+            CaptureRecord first = reader.next();
+            assertEquals(1000, first.getTimestamp());
+            assertEquals("application/json", first.getContentType());
+            assertArrayEquals(REQUEST, first.getRequest());
+            assertEquals(Arrays.asList(Decision.PERMIT), first.getDecisions());
+            assertNotNull(first.getAttributes());
+
+            CaptureRecord second = reader.next();
+            assertEquals(2000, second.getTimestamp());
+            assertEquals(Arrays.asList(Decision.DENY, Decision.NOTAPPLICABLE), second.getDecisions());
+            assertNull(second.getAttributes());
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testTruncatedRecordIgnored() throws Exception {
+        this.write(new CaptureRecord(1000, "application/json", REQUEST, Arrays.asList(Decision.PERMIT), null));
+        try (OutputStream os = Files.newOutputStream(this.file, StandardOpenOption.APPEND)) {
+            os.write(new byte[] {
+                0, 0, 0, 0, 0, 0, 7
+            });
+        }
+        try (CaptureFileReader reader = new CaptureFileReader(this.file)) {
+            assertNotNull(reader.next());
+            assertNull(reader.next());
+        }
+    }
+
+    /*
+     * Gets the offsets of the records in the capture file.
+     */
+    private List<Integer> getRecordOffsets() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(this.file));
+        List<Integer> offsets = new ArrayList<Integer>();
+        int offset = 8;
+        while (offset < buffer.limit()) {
+            offsets.add(offset);
+            offset += 12 + buffer.getInt(offset + 4);
+        }
+        return offsets;
+    }
+
+    private void writeThree() throws IOException {
+        this.write(new CaptureRecord(1000, "application/json", REQUEST, Arrays.asList(Decision.PERMIT), null),
+                   new CaptureRecord(2000, "application/json", REQUEST, Arrays.asList(Decision.DENY), null),
+                   new CaptureRecord(3000, "application/json", REQUEST, Arrays.asList(Decision.DENY), null));
+    }
+
+    private void assertTimestamps(long skipped, long... timestamps) throws IOException {
+        try (CaptureFileReader reader = new CaptureFileReader(this.file)) {
+            for (long timestamp : timestamps) {
+                CaptureRecord record = reader.next();
+                assertNotNull(record);
+                assertEquals(timestamp, record.getTimestamp());
+            }
+            assertNull(reader.next());
+            assertEquals(skipped, reader.getSkipped());
+        }
+    }
+
+    @Test
+    public void testCorruptRecordSkipped() throws Exception {
+        this.writeThree();
+        int second = this.getRecordOffsets().get(1);
+        byte[] bytes = Files.readAllBytes(this.file);
+        bytes[second + 12 + 20] ^= 0x55;
+        Files.write(this.file, bytes);
+        this.assertTimestamps(1, 1000, 3000);
+    }
+
+    @Test
+    public void testBadLengthSkipped() throws Exception {
+        this.writeThree();
+        List<Integer> offsets = this.getRecordOffsets();
+        byte[] bytes = Files.readAllBytes(this.file);
+        ByteBuffer.wrap(bytes).putInt(offsets.get(0) + 4, Integer.MAX_VALUE);
+        ByteBuffer.wrap(bytes).putInt(offsets.get(1) + 4, -5);
+        Files.write(this.file, bytes);
+        this.assertTimestamps(2, 3000);
+    }
+
+    @Test
+    public void testAppendAfterTornRecord() throws Exception {
+        this.writeThree();
+        //
+        // Cut the last record short, as a crash would, and restart
+        //
+        int third = this.getRecordOffsets().get(2);
+        byte[] bytes = Files.readAllBytes(this.file);
+        Files.write(this.file, Arrays.copyOf(bytes, third + 20));
+        this.write(new CaptureRecord(4000, "application/json", REQUEST, Arrays.asList(Decision.DENY), null));
+        this.assertTimestamps(1, 1000, 2000, 4000);
+    }
+
+    @Test(expected = IOException.class)
+    public void testAppendToOtherVersion() throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(0x58434150).putInt(1);
+        Files.write(this.file, header.array());
+        new CaptureFileWriter(this.file, 16).close();
+    }
+
+    /**
+     * A factory for the {@link FixedFinder}, for the {@link CapturingPIPFinderFactory} to wrap.
+     */
+    public static class FixedFinderFactory extends PIPFinderFactory {
+        @Override
+        public PIPFinder getFinder() {
+            return new FixedFinder();
+        }
+
+        @Override
+        public PIPFinder getFinder(Properties properties) {
+            return new FixedFinder();
+        }
+    }
+
+    @Test
+    public void testCapturingPIPFinderFactory() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(XACMLProperties.PROP_CAPTURE_PIPFINDERFACTORY,
+                               FixedFinderFactory.class.getName());
+        PIPFinder finder = new CapturingPIPFinderFactory().getFinder(properties);
+        assertTrue(finder instanceof CapturingFinder);
+        CapturingFinder.begin();
+        PIPResponse pipResponse = finder.getAttributes(PIP_REQUEST, null);
+        Request attributes = CapturingFinder.end();
+        assertEquals("document", pipResponse.getAttributes().iterator().next().getValues().iterator().next()
+            .getValue());
+        assertEquals(1, attributes.getRequestAttributes().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotACaptureFile() throws IOException {
+        Files.write(this.file, REQUEST);
+        new CaptureFileReader(this.file).close();
+    }
+
+    @Test
+    public void testReplayFinder() throws Exception {
+        ReplayFinder finder = new ReplayFinder();
+        assertTrue(finder.getAttributes(PIP_REQUEST, null).getAttributes().isEmpty());
+
+        this.write(new CaptureRecord(1000, "application/json", REQUEST, Arrays.asList(Decision.PERMIT),
+                                     this.captureAttributes()));
+        CaptureRecord record;
+        try (CaptureFileReader reader = new CaptureFileReader(this.file)) {
+            record = reader.next();
+        }
+        ReplayFinder.setAttributes(record.getAttributes());
+        Collection<Attribute> replayed = finder.getAttributes(PIP_REQUEST, null).getAttributes();
+        assertEquals(1, replayed.size());
+        Attribute attribute = replayed.iterator().next();
+        assertEquals(XACML3.ID_RESOURCE_RESOURCE_ID, attribute.getAttributeId());
+        assertEquals("document", attribute.getValues().iterator().next().getValue());
+        //
+        // Attributes that were not captured are not there
+        //
+        PIPRequest other = new StdPIPRequest(XACML3.ID_SUBJECT_CATEGORY_ACCESS_SUBJECT,
+                                             XACML3.ID_SUBJECT_SUBJECT_ID, XACML3.ID_DATATYPE_STRING);
+        assertTrue(finder.getAttributes(other, null).getAttributes().isEmpty());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.pdp.std.dom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+
+import org.apache.openaz.xacml.api.Attribute;
+import org.apache.openaz.xacml.api.AttributeValue;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.RequestAttributes;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.std.StdContent;
+import org.apache.openaz.xacml.std.datatypes.XPathExpressionWrapper;
+import org.apache.openaz.xacml.std.dom.DOMRequest;
+import org.apache.openaz.xacml.std.dom.DOMStructureException;
+import org.apache.openaz.xacml.std.dom.DOMUtil;
+import org.apache.openaz.xacml.std.dom.StAXRequest;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Test the StAX XML Request parser against the DOM one. Every conformance Request is loaded both ways and the
+ * resulting Request objects must be equal, including the <code>Content</code> trees.
+ */
+public class StAXRequestTest {
+
+    // where to find the conformance test XML files
+    private final String CONFORMANCE_DIRECTORY_PATH = "src/test/resources/testsets/conformance/xacml3.0-ct-v.0.4";
+
+    private static final String REQUEST_START = "<Request xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\""
+                                                + " xmlns:md=\"urn:example:med:schemas:record\""
+                                                + " ReturnPolicyIdList=\"false\" CombinedDecision=\"false\">";
+
+    private static Request load(String xml) throws DOMStructureException {
+        return StAXRequest.load(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testConformanceRequests() throws Exception {
+        File conformanceDirectory = new File(CONFORMANCE_DIRECTORY_PATH);
+        List<File> requestFiles = new ArrayList<File>();
+        for (File file : conformanceDirectory.listFiles()) {
+            if (file.getName().endsWith("Request.xml")) {
+                requestFiles.add(file);
+            }
+        }
+        assertFalse(requestFiles.isEmpty());
+
+        int compared = 0;
+        for (File file : requestFiles) {
+            Request domRequest;
+            try {
+                Document document = DOMUtil.loadDocument(file);
+                domRequest = DOMRequest.newInstance(DOMUtil.getFirstChildElement(document));
+            } catch (Exception e) {
+                // the DOM parser rejects it, so the StAX parser must too
+                try {
+                    try (InputStream is = new java.io.FileInputStream(file)) {
+                        StAXRequest.load(is);
+                    }
+                    fail("StAX parser accepted " + file.getName() + " rejected by DOM parser: " + e);
+                } catch (DOMStructureException ex) {
+                    // correct response
+                }
+                continue;
+            }
+            Request staxRequest = DOMRequest.load(file);
+            assertEquals(file.getName(), domRequest, staxRequest);
+            compared++;
+        }
+        assertTrue(compared > 0);
+    }
+
+    @Test
+    public void testContent() throws Exception {
+        Request request = load(REQUEST_START
+                               + "<Attributes Category=\"urn:oasis:names:tc:xacml:3.0:attribute-category:resource\""
+                               + " xml:id=\"res1\"><Content><!-- comment --><md:record><md:patient>"
+                               + "<md:name>Bart</md:name></md:patient><![CDATA[<x>]]></md:record></Content>"
+                               + "<Attribute IncludeInResult=\"false\" AttributeId=\"urn:example:xpath\">"
+                               + "<AttributeValue DataType=\"urn:oasis:names:tc:xacml:3.0:data-type:xpathExpression\""
+                               + " XPathCategory=\"urn:oasis:names:tc:xacml:3.0:attribute-category:resource\">"
+                               + "md:record/md:patient/md:name</AttributeValue></Attribute></Attributes></Request>");
+
+        Iterator<RequestAttributes> iterRequestAttributes = request.getRequestAttributes().iterator();
+        RequestAttributes requestAttributes = iterRequestAttributes.next();
+        assertFalse(iterRequestAttributes.hasNext());
+        assertEquals("res1", requestAttributes.getXmlId());
+
+        // the Content is only parsed when it is first asked for
+        StdContent content = StdContent.getContent(requestAttributes);
+        assertNotNull(content);
+        assertFalse(content.isMaterialized());
+        long materializedCount = StdContent.getMaterializedCount();
+        Node contentRoot = requestAttributes.getContentRoot();
+        assertTrue(content.isMaterialized());
+        assertEquals(materializedCount + 1, StdContent.getMaterializedCount());
+        assertTrue(contentRoot == requestAttributes.getContentRoot());
+        assertNotNull(contentRoot);
+        assertEquals("urn:example:med:schemas:record", contentRoot.getNamespaceURI());
+        assertEquals("record", contentRoot.getLocalName());
+        assertEquals(contentRoot, contentRoot.getOwnerDocument().getDocumentElement());
+        assertEquals("Bart<x>", contentRoot.getTextContent());
+
+        // the XPathExpression resolves its prefixes against the Request element, as with the DOM parser
+        Attribute attribute = requestAttributes.getAttributes().iterator().next();
+        AttributeValue<?> attributeValue = attribute.getValues().iterator().next();
+        assertEquals(XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE, attributeValue.getXPathCategory());
+        XPathExpression xpathExpression = ((XPathExpressionWrapper)attributeValue.getValue())
+            .getXpathExpressionWrapped();
+        assertEquals("Bart", xpathExpression.evaluate(contentRoot.getOwnerDocument(), XPathConstants.STRING));
+    }
+
+    @Test
+    public void testMultiRequestsAndDefaults() throws Exception {
+        Request request = load(REQUEST_START
+                               + "<RequestDefaults><XPathVersion>http://www.w3.org/TR/1999/REC-xpath-19991116"
+                               + "</XPathVersion></RequestDefaults>"
+                               + "<Attributes Category=\"urn:oasis:names:tc:xacml:1.0:subject-category:access-subject\""
+                               + " xml:id=\"s1\"><Attribute IncludeInResult=\"true\" Issuer=\"me\""
+                               + " AttributeId=\"urn:oasis:names:tc:xacml:1.0:subject:subject-id\">"
+                               + "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#integer\">42</AttributeValue>"
+                               + "</Attribute></Attributes>"
+                               + "<MultiRequests><RequestReference><AttributesReference ReferenceId=\"s1\"/>"
+                               + "</RequestReference></MultiRequests></Request>");
+        assertEquals("http://www.w3.org/TR/1999/REC-xpath-19991116", request.getRequestDefaults()
+            .getXPathVersion().toString());
+        assertEquals("s1", request.getMultiRequests().iterator().next().getAttributesReferences().iterator()
+            .next().getReferenceId());
+        Attribute attribute = request.getRequestAttributes().iterator().next().getAttributes().iterator()
+            .next();
+        assertTrue(attribute.getIncludeInResults());
+        assertEquals("me", attribute.getIssuer());
+        assertEquals("42", attribute.getValues().iterator().next().getValue().toString());
+    }
+
+    @Test
+    public void testErrors() {
+        String[] badRequests = {
+            "<NotARequest xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\"/>",
+            REQUEST_START + "</Request>",
+            REQUEST_START + "<Unknown/><Attributes Category=\"urn:c\"/></Request>",
+            REQUEST_START + "<Attributes Category=\"urn:c\"><Attribute AttributeId=\"urn:a\""
+                + " IncludeInResult=\"maybe\"><AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">"
+                + "x</AttributeValue></Attribute></Attributes></Request>",
+            REQUEST_START + "<Attributes Category=\"urn:c\"><Attribute AttributeId=\"urn:a\""
+                + " IncludeInResult=\"false\"><AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#integer\">"
+                + "abc</AttributeValue></Attribute></Attributes></Request>",
+            REQUEST_START + "<Attributes Category=\"urn:c\"><Content></Content></Attributes></Request>",
+            REQUEST_START + "<Attributes Category=\"urn:c\">",
+            ""
+        };
+        for (String badRequest : badRequests) {
+            try {
+                load(badRequest);
+                fail("Operation should throw exception for " + badRequest);
+            } catch (DOMStructureException e) {
+                // correct response
+            }
+        }
+    }
+}
@@ -23,6 +23,9 @@ package org.apache.openaz.xacml.pdp.std.json;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
 import org.apache.openaz.xacml.api.Request;
 import org.apache.openaz.xacml.std.json.JSONRequest;
 import org.apache.openaz.xacml.std.json.JSONStructureException;
@@ -927,4 +930,34 @@ public class RequestMainTest {
         }
     }
 
+    // the byte array and InputStream forms must give the same Request as the String form,
+    // with the members of the Request in a different order
+    @Test
+    public void testLoadBytesAndStream() {
+        try {
+            String expected = JSONRequest.load(allFieldsRequest).toString();
+
+            byte[] bytes = allFieldsRequest.getBytes(StandardCharsets.UTF_8);
+            request = JSONRequest.load(bytes);
+            assertEquals(expected, request.toString());
+
+            request = JSONRequest.load(new ByteArrayInputStream(bytes));
+            assertEquals(expected, request.toString());
+
+            request = JSONRequest.load("{\"Request\" : {\"Resource\" : {\"Attribute\": {\"Id\" : \"document-id\", "
+                                       + "\"Value\" : 123}}, \"Category\": [{\"Attribute\": {\"Id\" : \"doc\", "
+                                       + "\"Value\" : true}, \"CategoryId\" : \"custom-category\"}], "
+                                       + "\"AccessSubject\" : {\"Attribute\": {\"Id\" : \"subject\", "
+                                       + "\"Value\" : \"Julius Hibbert\"}}}}");
+            Request reordered = JSONRequest.load("{\"Request\" : {\"Category\": [{\"CategoryId\" : \"custom-category\", "
+                                                 + "\"Attribute\": {\"Id\" : \"doc\", \"Value\" : true}}], "
+                                                 + "\"AccessSubject\" : {\"Attribute\": {\"Id\" : \"subject\", "
+                                                 + "\"Value\" : \"Julius Hibbert\"}}, \"Resource\" : {\"Attribute\": "
+                                                 + "{\"Id\" : \"document-id\", \"Value\" : 123}}}}");
+            assertEquals(reordered.toString(), request.toString());
+        } catch (Exception e) {
+            fail("Failed convert from JSON to object: " + e);
+        }
+    }
+
 }
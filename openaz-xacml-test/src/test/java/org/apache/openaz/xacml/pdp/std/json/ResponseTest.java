@@ -28,6 +28,7 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.math.BigInteger;
 
@@ -2715,4 +2716,65 @@ public class ResponseTest {
 
     // order does not matter??
 
+    @Test
+    public void testMemberOrder() throws Exception {
+        //
+        // The members of each object are written in a fixed order that clients comparing text rely on
+        //
+        StdMutableResponse response = new StdMutableResponse();
+        StdMutableResult result = new StdMutableResult(new StdMutableStatus(StdStatusCode.STATUS_CODE_OK));
+        result.setDecision(Decision.PERMIT);
+        StdMutableObligation obligation = new StdMutableObligation();
+        obligation.setId(XACML3.ID_ACTION_IMPLIED_ACTION);
+        obligation.addAttributeAssignment(new StdMutableAttributeAssignment(
+                                              XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE, XACML3.ID_SUBJECT,
+                                              "obligation-issuer",
+                                              new StdAttributeValue<String>(DataTypes.DT_STRING.getId(),
+                                                                            "Bart")));
+        result.addObligation(obligation);
+        StdMutableAdvice advice = new StdMutableAdvice();
+        advice.setId(XACML3.ID_ACTION_IMPLIED_ACTION);
+        advice.addAttributeAssignment(new StdMutableAttributeAssignment(
+                                          XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE, XACML3.ID_SUBJECT,
+                                          "advice-issuer",
+                                          new StdAttributeValue<String>(DataTypes.DT_STRING.getId(), "Apu")));
+        result.addAdvice(advice);
+        Identifier categoryIdentifier = new IdentifierImpl("firstCategory");
+        Attribute[] attrList = {
+            new StdAttribute(categoryIdentifier, new IdentifierImpl("attrIdent1"),
+                             new StdAttributeValue<String>(DataTypes.DT_STRING.getId(), "Apu"), "AIssue",
+                             true)
+        };
+        result.addAttributeCategory(new StdAttributeCategory(categoryIdentifier, Arrays.asList(attrList)));
+        result.addPolicyIdentifier(new StdIdReference(new IdentifierImpl("idRef1"),
+                                                      StdVersion.newInstance("1.2.3")));
+        result.addPolicySetIdentifier(new StdIdReference(new IdentifierImpl("idSetRef1"),
+                                                         StdVersion.newInstance("4.5.6")));
+        response.add(result);
+
+        JsonNode tree = new ObjectMapper().readTree(JSONResponse.toString(response, false));
+        JsonNode resultNode = tree.get("Response").get(0);
+        assertEquals(Arrays.asList("Status", "Obligations", "Category", "AssociatedAdvice",
+                                   "PolicyIdentifier", "Decision"), getFieldNames(resultNode));
+        JsonNode obligationNode = resultNode.get("Obligations").get(0);
+        assertEquals(Arrays.asList("AttributeAssignment", "Id"), getFieldNames(obligationNode));
+        assertEquals(Arrays.asList("AttributeAssignment", "Id"),
+                     getFieldNames(resultNode.get("AssociatedAdvice").get(0)));
+        assertEquals(Arrays.asList("Category", "Issuer", "AttributeId", "Value", "DataType"),
+                     getFieldNames(obligationNode.get("AttributeAssignment").get(0)));
+        JsonNode policyIdentifierNode = resultNode.get("PolicyIdentifier");
+        assertEquals(Arrays.asList("PolicySetIdReference", "PolicyIdReference"),
+                     getFieldNames(policyIdentifierNode));
+        assertEquals(Arrays.asList("Version", "Id"),
+                     getFieldNames(policyIdentifierNode.get("PolicyIdReference").get(0)));
+    }
+
+    private static List<String> getFieldNames(JsonNode node) {
+        List<String> fieldNames = new ArrayList<String>();
+        Iterator<String> iterator = node.fieldNames();
+        while (iterator.hasNext()) {
+            fieldNames.add(iterator.next());
+        }
+        return fieldNames;
+    }
 }
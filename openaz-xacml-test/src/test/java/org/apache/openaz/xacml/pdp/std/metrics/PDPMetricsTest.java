@@ -0,0 +1,187 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.pdp.std.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.api.pdp.PDPEngineFactory;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.apache.openaz.xacml.std.metrics.LatencyHistogram;
+import org.apache.openaz.xacml.std.metrics.PDPMetrics;
+import org.junit.Test;
+
+/**
+ * Tests the {@link LatencyHistogram} buckets and the {@link PDPMetrics} recorded by an engine.
+ */
+public class PDPMetricsTest {
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500000L, histogram.getSum());
+        //
+        // Values are accurate to within 1/8th
+        //
+        long median = histogram.getValueAtQuantile(0.5);
+        assertTrue(median >= 500000 && median <= 500000 * 9 / 8);
+        long max = histogram.getValueAtQuantile(1.0);
+        assertTrue(max >= 1000000 && max <= 1000000 * 9 / 8);
+        //
+        // 2^20 = 1048576, so everything is below it and only 1..16 (thousand) below 2^14 = 16384
+        //
+        assertEquals(1000, histogram.getCountBelowPowerOfTwo(20));
+        assertEquals(16, histogram.getCountBelowPowerOfTwo(14));
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1002, histogram.getCount());
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void testEngineMetrics() throws Exception {
+        Properties properties = new Properties();
+        properties.put("xacml.rootPolicies", "manager");
+        properties.put("xacml.referencedPolicies", "doubleit");
+        properties.put("manager.file",
+                       "src/test/resources/org/apache/openaz/pdp/std/json/manager_role_policy.xml");
+        properties.put("doubleit.file",
+                       "src/test/resources/org/apache/openaz/pdp/std/json/manager_permission_policy.xml");
+        PDPEngine engine = PDPEngineFactory.newInstance().newEngine(properties);
+
+        PDPMetrics metrics = PDPMetrics.getInstance();
+        assertFalse(metrics.isEnabled());
+        metrics.reset();
+        engine.decide(createRequest("manager"));
+        assertEquals(0, metrics.getHistogram(PDPMetrics.Stage.DECIDE).getCount());
+
+        metrics.setEnabled(true);
+        try {
+            Response response = engine.decide(createRequest("manager"));
+            assertEquals(Decision.PERMIT, response.getResults().iterator().next().getDecision());
+            engine.decide(createRequest("employee"));
+        } finally {
+            metrics.setEnabled(false);
+        }
+
+        assertEquals(1, metrics.getDecisionCount(Decision.PERMIT));
+        assertEquals(2, metrics.getHistogram(PDPMetrics.Stage.DECIDE).getCount());
+        assertEquals(2, metrics.getHistogram(PDPMetrics.Stage.REQUEST_GENERATION).getCount());
+        assertEquals(2, metrics.getHistogram(PDPMetrics.Stage.ROOT_POLICY).getCount());
+        //
+        // No root policy applies to the employee, so there is nothing to combine
+        //
+        assertEquals(1, metrics.getHistogram(PDPMetrics.Stage.COMBINING).getCount());
+
+        StringBuilder prometheus = new StringBuilder();
+        metrics.writePrometheus(prometheus);
+        String text = prometheus.toString();
+        assertTrue(text.contains("# TYPE xacml_pdp_stage_seconds histogram\n"));
+        assertTrue(text.contains("xacml_pdp_stage_seconds_count{stage=\"decide\"} 2\n"));
+        assertTrue(text.contains("xacml_pdp_stage_seconds_bucket{stage=\"decide\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("xacml_pdp_decisions_total{decision=\"Permit\"} 1\n"));
+        for (String line : text.split("\n")) {
+            assertTrue(line, line.startsWith("#") || line.matches("[a-z_]+(\\{.*\\})? [0-9.E+-]+"));
+        }
+    }
+
+    @Test
+    public void testFailedDecision() throws Exception {
+        Properties properties = new Properties();
+        properties.put("xacml.rootPolicies", "manager");
+        properties.put("manager.file",
+                       "src/test/resources/org/apache/openaz/pdp/std/json/manager_role_policy.xml");
+        PDPEngine engine = PDPEngineFactory.newInstance().newEngine(properties);
+
+        PDPMetrics metrics = PDPMetrics.getInstance();
+        metrics.reset();
+        metrics.setEnabled(true);
+        try {
+            engine.decide(null);
+            fail("A null request should not be decided");
+        } catch (RuntimeException e) {
+            //
+            // Expected
+            //
+        } finally {
+            metrics.setEnabled(false);
+        }
+        assertEquals(1, metrics.getHistogram(PDPMetrics.Stage.DECIDE).getCount());
+        assertEquals(1, metrics.getFailureCount());
+        for (Decision decision : Decision.values()) {
+            assertEquals(0, metrics.getDecisionCount(decision));
+        }
+
+        StringBuilder prometheus = new StringBuilder();
+        metrics.writePrometheus(prometheus);
+        metrics.reset();
+        assertTrue(prometheus.toString().contains("xacml_pdp_decide_failures_total 1\n"));
+        assertEquals(0, metrics.getFailureCount());
+    }
+
+    @Test
+    public void testPrometheusBuckets() throws Exception {
+        PDPMetrics metrics = PDPMetrics.getInstance();
+        metrics.reset();
+        LatencyHistogram histogram = metrics.getHistogram(PDPMetrics.Stage.PARSE);
+        histogram.record(1023);
+        histogram.record(1024);
+        histogram.record(2047);
+        StringBuilder prometheus = new StringBuilder();
+        metrics.writePrometheus(prometheus);
+        String text = prometheus.toString();
+        metrics.reset();
+        //
+        // le is inclusive: 2^10 - 1 and 2^11 - 1 nanoseconds are on the bound
+        //
+        String bucket = "xacml_pdp_stage_seconds_bucket{stage=\"parse\",le=";
+        assertTrue(text, text.contains(bucket + "\"1.023E-6\"} 1\n"));
+        assertTrue(text, text.contains(bucket + "\"2.047E-6\"} 3\n"));
+        assertTrue(text, text.contains(bucket + "\"+Inf\"} 3\n"));
+    }
+
+    private static Request createRequest(String roleName) throws Exception {
+        return JSONRequest.load("{\"Request\":{"
+                                + "\"AccessSubject\":{\"Attribute\":[{\"AttributeId\":"
+                                + "\"urn:oasis:names:tc:xacml:2.0:subject:role\",\"DataType\":\"anyURI\","
+                                + "\"Value\":\"" + roleName + "\"}]},"
+                                + "\"Resource\":{\"Attribute\":[{\"AttributeId\":"
+                                + "\"urn:oasis:names:tc:xacml:1.0:resource:resource-id\",\"Value\":"
+                                + "\"{http://www.example.org/contract/DoubleIt}DoubleItService#DoubleIt\"}]},"
+                                + "\"Action\":{\"Attribute\":[{\"AttributeId\":"
+                                + "\"urn:oasis:names:tc:xacml:1.0:action:action-id\",\"Value\":\"execute\"}]}}}");
+    }
+}
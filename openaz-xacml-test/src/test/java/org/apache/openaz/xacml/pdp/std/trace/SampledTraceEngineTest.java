@@ -0,0 +1,184 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.std.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.trace.Traceable;
+import org.apache.openaz.xacml.std.StdMutableResult;
+import org.apache.openaz.xacml.std.trace.SampledTraceEngine;
+import org.apache.openaz.xacml.std.trace.StdTraceEvent;
+import org.apache.openaz.xacml.util.XACMLProperties;
+import org.junit.After;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests the sampling and the records written by the {@link SampledTraceEngine}.
+ */
+public class SampledTraceEngineTest {
+    private final BlockingQueue<String> records = new LinkedBlockingQueue<String>();
+    private SampledTraceEngine engine;
+
+    private static final Traceable POLICY = new Traceable() {
+        @Override
+        public String getTraceId() {
+            return "policy";
+        }
+
+        @Override
+        public Traceable getCause() {
+            return null;
+        }
+    };
+
+    private static final Traceable RULE = new Traceable() {
+        @Override
+        public String getTraceId() {
+            return "rule";
+        }
+
+        @Override
+        public Traceable getCause() {
+            return POLICY;
+        }
+    };
+
+    private SampledTraceEngine newEngine(String sampleRate, String bufferSize) {
+        Properties properties = new Properties();
+        properties.setProperty(XACMLProperties.PROP_TRACE_SAMPLERATE, sampleRate);
+        properties.setProperty(XACMLProperties.PROP_TRACE_BUFFERSIZE, bufferSize);
+        return new SampledTraceEngine(properties) {
+            @Override
+            protected void write(String traceRecord) {
+                SampledTraceEngineTest.this.records.add(traceRecord);
+            }
+        };
+    }
+
+    @After
+    public void shutdown() {
+        if (this.engine != null) {
+            this.engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testNotSampled() throws Exception {
+        this.engine = this.newEngine("0", "16");
+        assertFalse(this.engine.isTracing());
+        this.engine.startRequest();
+        assertFalse(this.engine.isTracing());
+        this.engine.trace(new StdTraceEvent<String>("Match", RULE, "ignored"));
+        this.engine.endRequest();
+        assertNull(this.records.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testForcedRecord() throws Exception {
+        this.engine = this.newEngine("0", "16");
+        SampledTraceEngine.sampleNextRequest();
+        this.engine.startRequest();
+        assertTrue(this.engine.isTracing());
+        //
+        // A nested request belongs to the outer one
+        //
+        this.engine.startRequest();
+        this.engine.trace(new StdTraceEvent<String>("Match", RULE, "match"));
+        this.engine.endRequest();
+        assertTrue(this.engine.isTracing());
+        this.engine.trace(new StdTraceEvent<StdMutableResult>("Result", POLICY,
+                                                              new StdMutableResult(Decision.PERMIT)));
+        this.engine.endRequest();
+        assertFalse(this.engine.isTracing());
+
+        String record = this.records.poll(5, TimeUnit.SECONDS);
+        assertNotNull(record);
+        JsonNode root = new ObjectMapper().readTree(record);
+        assertTrue(root.get("forced").asBoolean());
+        assertTrue(root.get("durationMicros").asLong() >= 0);
+        JsonNode events = root.get("events");
+        assertEquals(2, events.size());
+        assertEquals("Match", events.get(0).get("message").asText());
+        assertEquals("rule", events.get(0).get("cause").asText());
+        assertEquals("policy", events.get(0).get("parent").asText());
+        assertEquals("match", events.get(0).get("value").asText());
+        assertEquals("Permit", events.get(1).get("value").asText());
+        assertNull(events.get(1).get("parent"));
+        assertTrue(events.get(1).get("offsetMicros").asLong() >= events.get(0).get("offsetMicros").asLong());
+
+        //
+        // The next request is back to the sample rate
+        //
+        this.engine.startRequest();
+        assertFalse(this.engine.isTracing());
+        this.engine.endRequest();
+    }
+
+    @Test
+    public void testBufferFull() throws Exception {
+        this.engine = this.newEngine("1", "2");
+        this.engine.startRequest();
+        for (int i = 0; i < 5; i++) {
+            this.engine.trace(new StdTraceEvent<Integer>("Event", POLICY, i));
+        }
+        this.engine.endRequest();
+        JsonNode root = new ObjectMapper().readTree(this.records.poll(5, TimeUnit.SECONDS));
+        assertFalse(root.get("forced").asBoolean());
+        assertEquals(3, root.get("droppedEvents").asInt());
+        assertEquals(2, root.get("events").size());
+        assertEquals("1", root.get("events").get(1).get("value").asText());
+    }
+
+    @Test
+    public void testValueTakenWhenTraced() throws Exception {
+        this.engine = this.newEngine("1", "16");
+        StdMutableResult result = new StdMutableResult(Decision.PERMIT);
+        this.engine.startRequest();
+        this.engine.trace(new StdTraceEvent<StdMutableResult>("Result", POLICY, result));
+        result.setDecision(Decision.DENY);
+        this.engine.endRequest();
+        JsonNode root = new ObjectMapper().readTree(this.records.poll(5, TimeUnit.SECONDS));
+        assertEquals("Permit", root.get("events").get(0).get("value").asText());
+    }
+
+    @Test
+    public void testClearSampleNextRequest() throws Exception {
+        this.engine = this.newEngine("0", "16");
+        SampledTraceEngine.sampleNextRequest();
+        SampledTraceEngine.clearSampleNextRequest();
+        this.engine.startRequest();
+        assertFalse(this.engine.isTracing());
+        this.engine.endRequest();
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.test.load;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.Result;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.api.pdp.PDPEngineFactory;
+import org.apache.openaz.xacml.api.pdp.PDPException;
+import org.apache.openaz.xacml.pdp.test.TestBase;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.apache.openaz.xacml.std.metrics.LatencyHistogram;
+import org.apache.openaz.xacml.util.FactoryException;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * TestLoad is a load generator for the embedded PDP engine or a running RESTful PDP. It reads the request
+ * files of a test directory the same way {@link org.apache.openaz.xacml.pdp.test.TestBase} does, expanding
+ * "Generate" requests with the configured generators, and then replays them round-robin from several worker
+ * threads. Either each worker sends its next request as soon as the previous one returns (closed loop), or
+ * the workers share a fixed schedule of <code>-rate</code> requests per second (open loop). Against the
+ * embedded PDP each worker has an engine of its own, since a PDPEngine is not safe for concurrent use.
+ * <p>
+ * Latencies are recorded in two histograms. The service histogram measures each call from the moment it was
+ * sent. The corrected histogram accounts for coordinated omission: with a fixed rate each call is measured
+ * from the time it was scheduled to be sent, so a stalled PDP is charged for the requests queued behind the
+ * stall; in a closed loop the missing samples are back-filled using the median service time observed during
+ * the warm-up as the expected interval between requests, which is why a closed loop needs a warm-up. If
+ * nothing completed during the warm-up the correction is off, and the summary says so. Percentiles are
+ * accurate to the bucket width of {@link org.apache.openaz.xacml.std.metrics.LatencyHistogram}, one eighth of
+ * a power of two.
+ * <p>
+ * The summary is logged and, with <code>-results</code>, written as JSON so the numbers of two builds can be
+ * compared by a script.
+ */
+public class TestLoad extends TestBase {
+    private static final Log logger = LogFactory.getLog(TestLoad.class);
+
+    public static final String OPTION_WORKERS = "workers";
+    public static final String OPTION_RATE = "rate";
+    public static final String OPTION_DURATION = "duration";
+    public static final String OPTION_WARMUP = "warmup";
+    public static final String OPTION_MAXREQUESTS = "maxRequests";
+    public static final String OPTION_RESULTS = "results";
+
+    public static final int DEFAULT_WORKERS = 1;
+    public static final int DEFAULT_DURATION = 30;
+    public static final int DEFAULT_WARMUP = 5;
+    public static final int DEFAULT_MAXREQUESTS = 100000;
+
+    private static final double[] QUANTILES = {
+        0.5, 0.75, 0.9, 0.95, 0.99, 0.999, 0.9999
+    };
+    private static final String[] QUANTILE_NAMES = {
+        "p50", "p75", "p90", "p95", "p99", "p999", "p9999"
+    };
+
+    static {
+        options.addOption(new Option(OPTION_WORKERS, true, "Number of concurrent worker threads. Default is "
+                                                           + DEFAULT_WORKERS));
+        options.addOption(new Option(OPTION_RATE, true,
+                                     "Fixed request rate in requests per second shared by all the workers. "
+                                         + "By default each worker sends as fast as the PDP answers."));
+        options.addOption(new Option(OPTION_DURATION, true, "Measured duration in seconds. Default is "
+                                                            + DEFAULT_DURATION));
+        options.addOption(new Option(OPTION_WARMUP, true,
+                                     "Warm-up in seconds before measuring starts. Default is "
+                                         + DEFAULT_WARMUP));
+        options.addOption(new Option(OPTION_MAXREQUESTS, true,
+                                     "Maximum number of distinct requests read and generated. Default is "
+                                         + DEFAULT_MAXREQUESTS));
+        options.addOption(new Option(OPTION_RESULTS, true,
+                                     "File the results are written to as JSON for comparing runs."));
+    }
+
+    //
+    // Our command line parameters. These are set by parseCommands() which
+    // our super's constructor calls, so they must not have initializers.
+    //
+    protected int workers;
+    protected double rate;
+    protected int duration;
+    protected int warmup;
+    protected int maxRequests;
+    protected Path results;
+    //
+    // The workload, either as Request objects for the embedded engine or
+    // pre-serialized for the RESTful PDP so serialization is not measured.
+    //
+    protected List<Request> requests = new ArrayList<Request>();
+    protected List<byte[]> requestBodies = new ArrayList<byte[]>();
+    //
+    // Measurements
+    //
+    private final LatencyHistogram serviceHistogram = new LatencyHistogram();
+    private final LatencyHistogram correctedHistogram = new LatencyHistogram();
+    private final AtomicLong serviceMax = new AtomicLong();
+    private final AtomicLong correctedMax = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLongArray decisions = new AtomicLongArray(Decision.values().length);
+    private final LatencyHistogram warmupHistogram = new LatencyHistogram();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public TestLoad(String[] args) throws ParseException, MalformedURLException, HelpException {
+        super(args);
+    }
+
+    @Override
+    protected void parseCommands(String[] args) throws ParseException, MalformedURLException, HelpException {
+        //
+        // Have our super do its job
+        //
+        super.parseCommands(args);
+        //
+        // Look for our options
+        //
+        CommandLine cl = new DefaultParser().parse(options, args);
+        this.workers = Integer.parseInt(cl.getOptionValue(OPTION_WORKERS, Integer.toString(DEFAULT_WORKERS)));
+        this.rate = Double.parseDouble(cl.getOptionValue(OPTION_RATE, "0"));
+        this.duration = Integer.parseInt(cl.getOptionValue(OPTION_DURATION,
+                                                           Integer.toString(DEFAULT_DURATION)));
+        this.warmup = Integer.parseInt(cl.getOptionValue(OPTION_WARMUP, Integer.toString(DEFAULT_WARMUP)));
+        this.maxRequests = Integer.parseInt(cl.getOptionValue(OPTION_MAXREQUESTS,
+                                                              Integer.toString(DEFAULT_MAXREQUESTS)));
+        if (cl.hasOption(OPTION_RESULTS)) {
+            this.results = Paths.get(cl.getOptionValue(OPTION_RESULTS));
+        }
+        if (this.workers < 1 || this.duration < 1 || this.warmup < 0 || this.rate < 0) {
+            throw new IllegalArgumentException("workers and duration must be positive, "
+                                               + "warmup and rate must not be negative");
+        }
+        if (this.rate == 0 && this.warmup == 0) {
+            throw new IllegalArgumentException("a closed loop needs a warm-up to estimate the interval "
+                                               + "for the coordinated omission correction, "
+                                               + "give -warmup or -rate");
+        }
+    }
+
+    @Override
+    public void run() throws IOException, FactoryException {
+        //
+        // Configure ourselves
+        //
+        this.configure();
+        //
+        // Collect the workload
+        //
+        Files.walkFileTree(Paths.get(this.directory, "requests"), this);
+        if (this.requests.isEmpty()) {
+            throw new IllegalArgumentException("No requests found in " + Paths.get(this.directory, "requests"));
+        }
+        logger.info("Loaded " + this.requests.size() + " requests, " + this.workers + " workers, "
+                    + (this.rate > 0 ? this.rate + " requests/s" : "closed loop") + ", warm-up "
+                    + this.warmup + "s, duration " + this.duration + "s");
+        //
+        // Each worker gets its own engine
+        //
+        List<PDPEngine> engines = new ArrayList<PDPEngine>(this.workers);
+        if (!this.isREST) {
+            engines.add(this.engine);
+            PDPEngineFactory factory = PDPEngineFactory.newInstance();
+            while (engines.size() < this.workers) {
+                engines.add(factory.newEngine());
+            }
+        }
+        //
+        // Start the workers together
+        //
+        final long startNanos = System.nanoTime();
+        final long measureNanos = startNanos + TimeUnit.SECONDS.toNanos(this.warmup);
+        final long endNanos = measureNanos + TimeUnit.SECONDS.toNanos(this.duration);
+        List<Thread> threads = new ArrayList<Thread>(this.workers);
+        for (int i = 0; i < this.workers; i++) {
+            final PDPEngine workerEngine = this.isREST ? null : engines.get(i);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TestLoad.this.work(workerEngine, startNanos, measureNanos, endNanos);
+                }
+            }, "TestLoad-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted waiting for the workers");
+        }
+        double elapsed = (double)(System.nanoTime() - measureNanos) / TimeUnit.SECONDS.toNanos(1);
+        //
+        // Report
+        //
+        this.dumpLoadStats(elapsed);
+        if (this.results != null) {
+            this.writeResults(elapsed);
+        }
+    }
+
+    /*
+     * (non-Javadoc) Instead of sending the request, collect it for the workers. Generated requests are
+     * expanded until the generators are exhausted or we have enough.
+     */
+    @Override
+    protected void sendRequest(Path file, String group) throws Exception {
+        do {
+            if (this.requests.size() >= this.maxRequests) {
+                break;
+            }
+            Request request = this.generateRequest(file, group);
+            if (request == null) {
+                break;
+            }
+            this.requests.add(request);
+            if (this.isREST) {
+                this.requestBodies.add(JSONRequest.toString(request, false).getBytes(StandardCharsets.UTF_8));
+            }
+        } while (group.equals("Generate"));
+    }
+
+    /**
+     * The worker loop. Runs until the end of the measured duration, recording only the calls that were sent
+     * after the warm-up.
+     *
+     * @param workerEngine the engine of this worker, null for the RESTful PDP
+     * @param startNanos when the run started
+     * @param measureNanos when the warm-up ends and measuring starts
+     * @param endNanos when the run ends
+     */
+    protected void work(PDPEngine workerEngine, long startNanos, long measureNanos, long endNanos) {
+        double intervalNanos = this.rate > 0 ? TimeUnit.SECONDS.toNanos(1) / this.rate : 0;
+        long expectedInterval = -1;
+        while (true) {
+            long index = this.sequence.getAndIncrement();
+            long sendNanos = System.nanoTime();
+            long intendedNanos = sendNanos;
+            if (intervalNanos > 0) {
+                //
+                // Open loop, wait for our slot in the schedule. If we are
+                // late we send right away and the delay shows up in the
+                // corrected histogram.
+                //
+                intendedNanos = startNanos + (long)(index * intervalNanos);
+                if (intendedNanos >= endNanos) {
+                    break;
+                }
+                while ((sendNanos = System.nanoTime()) < intendedNanos) {
+                    LockSupport.parkNanos(intendedNanos - sendNanos);
+                }
+            } else if (sendNanos >= endNanos) {
+                break;
+            }
+            Response response = this.call(workerEngine, (int)(index % this.requests.size()));
+            long doneNanos = System.nanoTime();
+            long service = doneNanos - sendNanos;
+            if (intendedNanos < measureNanos) {
+                this.warmupHistogram.record(service);
+                continue;
+            }
+            //
+            // Record the response
+            //
+            if (response == null) {
+                this.errors.incrementAndGet();
+            } else {
+                for (Result result : response.getResults()) {
+                    this.decisions.incrementAndGet(result.getDecision().ordinal());
+                }
+            }
+            record(this.serviceHistogram, this.serviceMax, service);
+            if (intervalNanos > 0) {
+                record(this.correctedHistogram, this.correctedMax, doneNanos - intendedNanos);
+            } else {
+                if (expectedInterval < 0) {
+                    expectedInterval = this.getExpectedInterval();
+                }
+                recordCorrected(this.correctedHistogram, this.correctedMax, service, expectedInterval);
+            }
+        }
+    }
+
+    /**
+     * Sends one request of the workload to the PDP.
+     *
+     * @param workerEngine the engine of the calling worker, null for the RESTful PDP
+     * @param index the index of the request
+     * @return the Response, or null if the call failed
+     */
+    protected Response call(PDPEngine workerEngine, int index) {
+        if (this.isREST) {
+            return this.callRESTfulPDP(new ByteArrayInputStream(this.requestBodies.get(index)));
+        }
+        try {
+            return workerEngine.decide(this.requests.get(index));
+        } catch (PDPException e) {
+            logger.error(e);
+            return null;
+        }
+    }
+
+    /**
+     * The median rather than the mean is used so the first calls, which load the policies and configure the
+     * PIP engines, do not inflate the interval.
+     *
+     * @return the median service time during warm-up in nanoseconds, or 0 if nothing was sent during warm-up
+     */
+    protected long getExpectedInterval() {
+        return this.warmupHistogram.getValueAtQuantile(0.5);
+    }
+
+    /**
+     * @return true if the corrected histogram accounts for coordinated omission
+     */
+    protected boolean isCorrected() {
+        return this.rate > 0 || this.getExpectedInterval() > 0;
+    }
+
+    private static void record(LatencyHistogram histogram, AtomicLong max, long value) {
+        histogram.record(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            continue;
+        }
+    }
+
+    /**
+     * Records a value along with the samples a closed loop failed to send while it was waiting, one for each
+     * expected interval the value exceeds, each one interval shorter than the last.
+     *
+     * @param histogram the histogram to record into
+     * @param max the maximum to update
+     * @param value the measured value
+     * @param expectedInterval the expected interval between samples, 0 to only record the value
+     */
+    static void recordCorrected(LatencyHistogram histogram, AtomicLong max, long value, long expectedInterval) {
+        record(histogram, max, value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+            histogram.record(missing);
+        }
+    }
+
+    protected void dumpLoadStats(double elapsed) {
+        long completed = this.serviceHistogram.getCount();
+        StringBuilder dump = new StringBuilder();
+        dump.append(System.lineSeparator());
+        dump.append("Target: " + (this.isREST ? this.restURL.toString() : "embedded"));
+        dump.append(System.lineSeparator());
+        dump.append("Completed: " + completed + " Errors: " + this.errors.get() + " in "
+                    + String.format("%.3f", elapsed) + "s");
+        dump.append(System.lineSeparator());
+        dump.append("Throughput: " + String.format("%.1f", completed / elapsed) + " requests/s");
+        dump.append(System.lineSeparator());
+        for (Decision decision : Decision.values()) {
+            if (this.decisions.get(decision.ordinal()) > 0) {
+                dump.append(decision + ": " + this.decisions.get(decision.ordinal()) + " ");
+            }
+        }
+        dump.append(System.lineSeparator());
+        dump.append("Service latency (us): " + summarize(this.serviceHistogram, this.serviceMax));
+        dump.append(System.lineSeparator());
+        dump.append("Corrected latency (us): " + summarize(this.correctedHistogram, this.correctedMax));
+        if (!this.isCorrected()) {
+            dump.append(" (no correction, nothing completed during the warm-up)");
+        }
+        logger.info(dump.toString());
+    }
+
+    private static String summarize(LatencyHistogram histogram, AtomicLong max) {
+        return "p50=" + quantile(histogram, max, 0.5) + " p99=" + quantile(histogram, max, 0.99) + " p999="
+               + quantile(histogram, max, 0.999) + " max=" + micros(max.get());
+    }
+
+    /*
+     * The histogram gives the upper bound of a bucket, which may be above the largest value seen.
+     */
+    private static long quantile(LatencyHistogram histogram, AtomicLong max, double quantile) {
+        return micros(Math.min(histogram.getValueAtQuantile(quantile), max.get()));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Writes the results as JSON. Latencies are in microseconds.
+     *
+     * @param elapsed the measured duration in seconds
+     * @throws IOException
+     */
+    protected void writeResults(double elapsed) throws IOException {
+        long completed = this.serviceHistogram.getCount();
+        try (OutputStream os = Files.newOutputStream(this.results);
+            JsonGenerator json = new JsonFactory().createGenerator(os, JsonEncoding.UTF8)) {
+            json.useDefaultPrettyPrinter();
+            json.writeStartObject();
+            json.writeStringField("target", this.isREST ? this.restURL.toString() : "embedded");
+            json.writeStringField("directory", this.directory);
+            json.writeStringField("mode", this.rate > 0 ? "fixed-rate" : "closed-loop");
+            json.writeNumberField("workers", this.workers);
+            json.writeNumberField("rate", this.rate);
+            json.writeNumberField("warmupSeconds", this.warmup);
+            json.writeNumberField("durationSeconds", elapsed);
+            json.writeNumberField("requests", this.requests.size());
+            json.writeNumberField("completed", completed);
+            json.writeNumberField("errors", this.errors.get());
+            json.writeNumberField("throughput", completed / elapsed);
+            if (this.rate <= 0) {
+                json.writeNumberField("expectedIntervalMicros", micros(this.getExpectedInterval()));
+            }
+            json.writeBooleanField("corrected", this.isCorrected());
+            json.writeObjectFieldStart("decisions");
+            for (Decision decision : Decision.values()) {
+                json.writeNumberField(decision.toString(), this.decisions.get(decision.ordinal()));
+            }
+            json.writeEndObject();
+            writeHistogram(json, "serviceMicros", this.serviceHistogram, this.serviceMax);
+            writeHistogram(json, "correctedMicros", this.correctedHistogram, this.correctedMax);
+            json.writeEndObject();
+        }
+        logger.info("Results written to " + this.results);
+    }
+
+    private static void writeHistogram(JsonGenerator json, String name, LatencyHistogram histogram,
+                                       AtomicLong max) throws IOException {
+        json.writeObjectFieldStart(name);
+        json.writeNumberField("count", histogram.getCount());
+        json.writeNumberField("mean", histogram.getCount() == 0
+            ? 0 : (double)histogram.getSum() / histogram.getCount() / 1000);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            json.writeNumberField(QUANTILE_NAMES[i], quantile(histogram, max, QUANTILES[i]));
+        }
+        json.writeNumberField("max", micros(max.get()));
+        json.writeEndObject();
+    }
+
+    public static void main(String[] args) {
+        try {
+            new TestLoad(args).run();
+        } catch (ParseException | IOException | FactoryException e) {
+            logger.error(e);
+        } catch (HelpException e) {
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.pdp.test.replay;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.api.pdp.PDPEngineFactory;
+import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
+import org.apache.openaz.xacml.std.capture.CaptureFileReader;
+import org.apache.openaz.xacml.std.capture.CaptureRecord;
+import org.apache.openaz.xacml.std.capture.ReplayFinder;
+import org.apache.openaz.xacml.std.capture.ReplayPIPFinderFactory;
+import org.apache.openaz.xacml.std.dom.DOMRequest;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.apache.openaz.xacml.std.metrics.LatencyHistogram;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+/**
+ * TestReplay feeds a capture file written by the PDP servlet (see
+ * <code>xacml.rest.pdp.capture.file</code>) into an embedded PDP engine configured from the given
+ * xacml.properties, and checks that every request gets the decisions it got when it was captured. It is
+ * meant for benchmarking policy and engine changes on a real workload without the live PIP backends.
+ * <p>
+ * Unless <code>-liveAttributes</code> is given, the engine's PIP finder is replaced by a
+ * {@link org.apache.openaz.xacml.std.capture.ReplayFinder} that answers from the attributes captured with
+ * each request, so those must have been captured with the CapturingPIPFinderFactory. The decision cache is
+ * turned off. Attributes the environment supplies, like the current time, are not captured and take their
+ * value at replay time.
+ * <p>
+ * Requests are replayed one at a time, either as fast as the engine answers or, with
+ * <code>-speed original</code>, with the same spacing they were captured with.
+ */
+public class TestReplay {
+    private static final Log logger = LogFactory.getLog(TestReplay.class);
+
+    public static class HelpException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static final String OPTION_HELP = "help";
+    public static final String OPTION_CAPTURE = "capture";
+    public static final String OPTION_PROPERTIES = "properties";
+    public static final String OPTION_SPEED = "speed";
+    public static final String OPTION_LIVEATTRIBUTES = "liveAttributes";
+    public static final String OPTION_MAXMISMATCHES = "maxMismatches";
+
+    public static final String SPEED_ORIGINAL = "original";
+    public static final String SPEED_MAX = "max";
+
+    public static Options options = new Options();
+    static {
+        options.addOption(new Option(OPTION_HELP, false, "Prints help."));
+        options.addOption(new Option(OPTION_CAPTURE, true, "The capture file to replay."));
+        options.addOption(new Option(OPTION_PROPERTIES, true,
+                                     "The xacml.properties that configure the policies to replay against."));
+        options.addOption(new Option(OPTION_SPEED, true, "Replay speed, " + SPEED_ORIGINAL + " or "
+                                                         + SPEED_MAX + ". Default is " + SPEED_MAX));
+        options.addOption(new Option(OPTION_LIVEATTRIBUTES, false,
+                                     "Use the configured PIP engines instead of the captured attributes."));
+        options.addOption(new Option(OPTION_MAXMISMATCHES, true,
+                                     "Number of mismatched decisions that are logged in full. Default is 10"));
+    }
+
+    private Path capture;
+    private String properties;
+    private boolean originalSpeed = false;
+    private boolean liveAttributes = false;
+    private int maxMismatches = 10;
+
+    private long replayed = 0;
+    private long matched = 0;
+    private long mismatched = 0;
+    private long errors = 0;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long maxLatency = 0;
+
+    public TestReplay(String[] args) throws ParseException, HelpException {
+        CommandLine cl = new DefaultParser().parse(options, args);
+        if (cl.hasOption(OPTION_HELP)) {
+            new HelpFormatter().printHelp("Usage: -capture file -properties xacml.properties OPTIONS", options);
+            throw new HelpException();
+        }
+        if (!cl.hasOption(OPTION_CAPTURE) || !cl.hasOption(OPTION_PROPERTIES)) {
+            throw new IllegalArgumentException("You must specify -capture and -properties");
+        }
+        this.capture = Paths.get(cl.getOptionValue(OPTION_CAPTURE));
+        this.properties = cl.getOptionValue(OPTION_PROPERTIES);
+        String speed = cl.getOptionValue(OPTION_SPEED, SPEED_MAX);
+        if (SPEED_ORIGINAL.equals(speed)) {
+            this.originalSpeed = true;
+        } else if (!SPEED_MAX.equals(speed)) {
+            throw new IllegalArgumentException("Unknown speed " + speed);
+        }
+        this.liveAttributes = cl.hasOption(OPTION_LIVEATTRIBUTES);
+        if (cl.hasOption(OPTION_MAXMISMATCHES)) {
+            this.maxMismatches = Integer.parseInt(cl.getOptionValue(OPTION_MAXMISMATCHES));
+        }
+    }
+
+    /**
+     * Creates the engine the capture is replayed against.
+     *
+     * @return the <code>PDPEngine</code>
+     * @throws Exception if the engine cannot be created
+     */
+    protected PDPEngine newEngine() throws Exception {
+        System.setProperty(XACMLProperties.XACML_PROPERTIES_NAME, this.properties);
+        Properties xacmlProperties = XACMLProperties.getProperties();
+        if (!this.liveAttributes) {
+            xacmlProperties.setProperty(XACMLProperties.PROP_PIPFINDERFACTORY,
+                                        ReplayPIPFinderFactory.class.getName());
+        }
+        xacmlProperties.setProperty(OpenAZPDPProperties.PROP_DECISIONCACHE, "false");
+        return PDPEngineFactory.newInstance().newEngine();
+    }
+
+    public void run() throws Exception {
+        PDPEngine engine = this.newEngine();
+        long startNanos = System.nanoTime();
+        long firstTimestamp = -1;
+        try (CaptureFileReader reader = new CaptureFileReader(this.capture)) {
+            CaptureRecord record;
+            while ((record = reader.next()) != null) {
+                if (this.originalSpeed) {
+                    if (firstTimestamp < 0) {
+                        firstTimestamp = record.getTimestamp();
+                    }
+                    long dueNanos = startNanos
+                                    + TimeUnit.MILLISECONDS.toNanos(record.getTimestamp() - firstTimestamp);
+                    long now;
+                    while ((now = System.nanoTime()) < dueNanos) {
+                        LockSupport.parkNanos(dueNanos - now);
+                    }
+                }
+                this.replay(engine, record);
+            }
+            if (reader.getSkipped() > 0) {
+                logger.warn("Skipped " + reader.getSkipped() + " bad records in " + this.capture);
+            }
+        }
+        this.dumpStats(System.nanoTime() - startNanos);
+    }
+
+    protected void replay(PDPEngine engine, CaptureRecord record) {
+        this.replayed++;
+        List<Decision> decisions = null;
+        try {
+            Request request;
+            if (record.getContentType().toLowerCase().contains("json")) {
+                request = JSONRequest.load(record.getRequest());
+            } else {
+                request = DOMRequest.load(new ByteArrayInputStream(record.getRequest()));
+            }
+            if (!this.liveAttributes) {
+                ReplayFinder.setAttributes(record.getAttributes());
+            }
+            long start = System.nanoTime();
+            Response response = engine.decide(request);
+            long latency = System.nanoTime() - start;
+            this.latencies.record(latency);
+            this.maxLatency = Math.max(this.maxLatency, latency);
+            decisions = CaptureRecord.getDecisions(response);
+        } catch (Exception e) {
+            this.errors++;
+            logger.error("Failed to replay request " + this.replayed + ": " + e, e);
+            return;
+        } finally {
+            ReplayFinder.setAttributes(null);
+        }
+        if (decisions.equals(record.getDecisions())) {
+            this.matched++;
+        } else {
+            this.mismatched++;
+            if (this.mismatched <= this.maxMismatches) {
+                logger.warn("Request " + this.replayed + " captured at " + record.getTimestamp() + " was "
+                            + record.getDecisions() + ", now " + decisions + ": "
+                            + new String(record.getRequest(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    protected void dumpStats(long elapsedNanos) {
+        double seconds = (double)elapsedNanos / TimeUnit.SECONDS.toNanos(1);
+        StringBuilder dump = new StringBuilder();
+        dump.append(System.lineSeparator());
+        dump.append("Replayed: " + this.replayed + " in " + String.format("%.3f", seconds) + "s ("
+                    + String.format("%.1f", this.replayed / seconds) + " requests/s)");
+        dump.append(System.lineSeparator());
+        dump.append("Matched: " + this.matched + " Mismatched: " + this.mismatched + " Errors: " + this.errors);
+        dump.append(System.lineSeparator());
+        dump.append("Decide latency (us): p50="
+                    + TimeUnit.NANOSECONDS.toMicros(Math.min(this.latencies.getValueAtQuantile(0.5),
+                                                             this.maxLatency))
+                    + " p99="
+                    + TimeUnit.NANOSECONDS.toMicros(Math.min(this.latencies.getValueAtQuantile(0.99),
+                                                             this.maxLatency)) + " max="
+                    + TimeUnit.NANOSECONDS.toMicros(this.maxLatency));
+        if (this.mismatched > 0 || this.errors > 0) {
+            logger.fatal(dump.toString());
+        } else {
+            logger.info(dump.toString());
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            new TestReplay(args).run();
+        } catch (ParseException | IOException e) {
+            logger.error(e);
+        } catch (HelpException e) {
+        } catch (Exception e) {
+            logger.error(e, e);
+        }
+    }
+}
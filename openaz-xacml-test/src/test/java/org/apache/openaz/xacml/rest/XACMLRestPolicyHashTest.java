@@ -0,0 +1,96 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Test;
+
+/**
+ * Tests the content hashes and ETags computed by {@link XACMLRestPolicyHash}.
+ */
+public class XACMLRestPolicyHashTest {
+    private static final byte[] POLICY = "<Policy/>".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testHash() throws Exception {
+        String hash = XACMLRestPolicyHash.hash(POLICY);
+        assertEquals(64, hash.length());
+        assertEquals(hash, XACMLRestPolicyHash.hash(new ByteArrayInputStream(POLICY)));
+        assertNotEquals(hash, XACMLRestPolicyHash.hash("<PolicySet/>".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testHashFile() throws Exception {
+        Path file = Files.createTempFile("policy", ".xml");
+        try {
+            Files.write(file, POLICY);
+            String hash = XACMLRestPolicyHash.hash(file);
+            assertEquals(XACMLRestPolicyHash.hash(POLICY), hash);
+
+            byte[] changed = "<PolicySet/>".getBytes(StandardCharsets.UTF_8);
+            Files.write(file, changed);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis()
+                                                                + 2000));
+            assertEquals(XACMLRestPolicyHash.hash(changed), XACMLRestPolicyHash.hash(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSameSizeRewriteIsHashedAgain() throws Exception {
+        Path file = Files.createTempFile("policy", ".xml");
+        try {
+            Files.write(file, POLICY);
+            FileTime lastModified = Files.getLastModifiedTime(file);
+            assertEquals(XACMLRestPolicyHash.hash(POLICY), XACMLRestPolicyHash.hash(file));
+
+            byte[] changed = "<Polisy/>".getBytes(StandardCharsets.UTF_8);
+            Files.write(file, changed);
+            Files.setLastModifiedTime(file, lastModified);
+            assertEquals(XACMLRestPolicyHash.hash(changed), XACMLRestPolicyHash.hash(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMatches() {
+        String hash = XACMLRestPolicyHash.hash(POLICY);
+        String etag = XACMLRestPolicyHash.toETag(hash);
+        assertTrue(XACMLRestPolicyHash.matches(etag, hash));
+        assertTrue(XACMLRestPolicyHash.matches("\"other\", W/" + etag, hash));
+        assertTrue(XACMLRestPolicyHash.matches("*", hash));
+        assertFalse(XACMLRestPolicyHash.matches("\"other\"", hash));
+        assertFalse(XACMLRestPolicyHash.matches(null, hash));
+        assertFalse(XACMLRestPolicyHash.matches("", hash));
+    }
+}
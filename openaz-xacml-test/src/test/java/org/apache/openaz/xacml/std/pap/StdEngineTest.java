@@ -0,0 +1,198 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.pap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.openaz.xacml.api.pap.PDP;
+import org.apache.openaz.xacml.api.pap.PDPGroup;
+import org.apache.openaz.xacml.api.pap.PDPPIPConfig;
+import org.apache.openaz.xacml.util.XACMLProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the indexes and the write-behind journal kept by {@link StdEngine}.
+ */
+public class StdEngineTest {
+    private Path repository;
+
+    @Before
+    public void setUp() throws Exception {
+        this.repository = Files.createTempDirectory("pap");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.walkFileTree(this.repository, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private StdEngine newWriteBehindEngine() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(StdEngine.PROP_PAP_REPO, this.repository.toString());
+        properties.setProperty(StdEngine.PROP_PAP_WRITEBEHIND_DELAY, "600000");
+        return new StdEngine(properties);
+    }
+
+    private Properties load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(file)) {
+            properties.load(is);
+        }
+        return properties;
+    }
+
+    private void setTestPIP(StdPDPGroup group) {
+        Properties configuration = new Properties();
+        configuration.setProperty("test.classname", "org.example.TestEngine");
+        group.setPipConfigs(Collections.<PDPPIPConfig> singleton(new StdPDPPIPConfig("test", configuration)));
+    }
+
+    @Test
+    public void testJournalRecovery() throws Exception {
+        StdEngine engine = this.newWriteBehindEngine();
+        try {
+            engine.newPDP("http://localhost:8080/pdp/", engine.getDefaultGroup(), "pdp", "a test pdp");
+            assertEquals(engine.getDefaultGroup(), engine.getPDPGroup("http://localhost:8080/pdp/"));
+            assertTrue(Files.exists(this.repository.resolve("xacml.journal")));
+            //
+            // The change is only in the journal; a second engine on the same repository replays it
+            //
+            StdEngine recovered = new StdEngine(this.repository);
+            assertTrue(Files.notExists(this.repository.resolve("xacml.journal")));
+            PDP pdp = recovered.getPDP("http://localhost:8080/pdp/");
+            assertNotNull(pdp);
+            assertEquals("pdp", pdp.getName());
+            assertEquals(recovered.getDefaultGroup(), recovered.getPDPGroup(pdp));
+            assertNull(recovered.getPDP("http://localhost:8080/other/"));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testGroupFilesAreWrittenBehind() throws Exception {
+        StdEngine engine = this.newWriteBehindEngine();
+        try {
+            StdPDPGroup group = (StdPDPGroup)engine.getDefaultGroup();
+            Path pipFile = group.getDirectory().resolve("xacml.pip.properties");
+            this.setTestPIP(group);
+            group.saveGroupConfiguration();
+            //
+            // Only the journal has the change so far
+            //
+            assertEquals("", load(pipFile).getProperty(XACMLProperties.PROP_PIP_ENGINES));
+            assertTrue(Files.exists(this.repository.resolve("xacml.journal")));
+            //
+            // Recovery writes it to the group's file
+            //
+            new StdEngine(this.repository);
+            assertTrue(Files.notExists(this.repository.resolve("xacml.journal")));
+            assertEquals("test", load(pipFile).getProperty(XACMLProperties.PROP_PIP_ENGINES));
+            assertEquals("org.example.TestEngine", load(pipFile).getProperty("test.classname"));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testFlushWritesGroupFiles() throws Exception {
+        StdEngine engine = this.newWriteBehindEngine();
+        try {
+            StdPDPGroup group = (StdPDPGroup)engine.getDefaultGroup();
+            Path pipFile = group.getDirectory().resolve("xacml.pip.properties");
+            this.setTestPIP(group);
+            group.saveGroupConfiguration();
+            engine.flush();
+            assertTrue(Files.notExists(this.repository.resolve("xacml.journal")));
+            assertEquals("test", load(pipFile).getProperty(XACMLProperties.PROP_PIP_ENGINES));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndexes() throws Exception {
+        StdEngine engine = new StdEngine(this.repository);
+        try {
+            engine.newGroup("test", "a test group");
+            PDPGroup group = null;
+            for (PDPGroup g : engine.getPDPGroups()) {
+                if ("test".equals(g.getName())) {
+                    group = g;
+                }
+            }
+            assertNotNull(group);
+            PDPGroup defaultGroup = engine.getDefaultGroup();
+            engine.newPDP("http://localhost:8080/pdp/", defaultGroup, "pdp", "a test pdp");
+            PDP pdp = engine.getPDP("http://localhost:8080/pdp/");
+            assertNotNull(pdp);
+            assertEquals(defaultGroup, engine.getPDPGroup(pdp));
+
+            engine.movePDP(pdp, group);
+            assertEquals(group, engine.getPDPGroup("http://localhost:8080/pdp/"));
+            assertFalse(defaultGroup.getPdps().contains(pdp));
+
+            engine.removePDP(pdp);
+            assertNull(engine.getPDP("http://localhost:8080/pdp/"));
+            assertNull(engine.getPDPGroup("http://localhost:8080/pdp/"));
+
+            //
+            // Removing a group drops its PDPs from the index along with it
+            //
+            engine.newPDP("http://localhost:8080/other/", group, "other", "another test pdp");
+            assertEquals(group, engine.getPDPGroup("http://localhost:8080/other/"));
+            engine.removeGroup(group, defaultGroup);
+            assertEquals(defaultGroup, engine.getPDPGroup("http://localhost:8080/other/"));
+            assertNull(engine.getPDPGroup((PDP)null));
+            assertNull(engine.getPDP(null));
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
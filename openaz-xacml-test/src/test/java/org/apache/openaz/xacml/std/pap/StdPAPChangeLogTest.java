@@ -0,0 +1,131 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.pap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+import org.apache.openaz.xacml.api.pap.PDP;
+import org.apache.openaz.xacml.api.pap.PDPGroup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the versioned change log kept by {@link StdEngine}.
+ */
+public class StdPAPChangeLogTest {
+    private Path repository;
+
+    @Before
+    public void setUp() throws Exception {
+        this.repository = Files.createTempDirectory("pap");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.walkFileTree(this.repository, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void testEngineChanges() throws Exception {
+        StdEngine engine = new StdEngine(this.repository);
+        StdPAPChangeLog changeLog = engine.getChangeLog();
+        long start = changeLog.getVersion();
+        assertEquals(0, changeLog.getChangesSince(start).size());
+
+        engine.newGroup("test", "a test group");
+        PDPGroup group = null;
+        for (PDPGroup g : engine.getPDPGroups()) {
+            if ("test".equals(g.getName())) {
+                group = g;
+            }
+        }
+        assertNotNull(group);
+        engine.newPDP("http://localhost:8080/pdp/", engine.getDefaultGroup(), "pdp", "a test pdp");
+        long beforeMove = changeLog.getVersion();
+        PDP pdp = engine.getPDP("http://localhost:8080/pdp/");
+        engine.movePDP(pdp, group);
+
+        List<StdPAPChange> changes = changeLog.getChangesSince(start);
+        assertEquals(4, changes.size());
+        assertEquals(StdPAPChange.Type.GROUP, changes.get(0).getType());
+        assertEquals(StdPAPChange.Action.ADD, changes.get(0).getAction());
+        assertEquals(group.getId(), changes.get(0).getGroupId());
+        assertEquals(StdPAPChange.Type.PDP, changes.get(1).getType());
+        assertEquals(engine.getDefaultGroup().getId(), changes.get(1).getGroupId());
+        for (int i = 1; i < changes.size(); i++) {
+            assertTrue(changes.get(i).getVersion() > changes.get(i - 1).getVersion());
+        }
+        assertEquals(changeLog.getVersion(), changes.get(changes.size() - 1).getVersion());
+
+        //
+        // Only the move is newer than the version seen before it
+        //
+        changes = changeLog.getChangesSince(beforeMove);
+        assertEquals(2, changes.size());
+        assertEquals(StdPAPChange.Action.REMOVE, changes.get(0).getAction());
+        assertEquals(StdPAPChange.Action.ADD, changes.get(1).getAction());
+        assertEquals(group.getId(), changes.get(1).getGroupId());
+        assertEquals(pdp.getId(), changes.get(1).getId());
+        assertEquals(1, StdPAPChangeLog.getIds(changes, StdPAPChange.Type.PDP).size());
+        assertEquals(2, StdPAPChangeLog.getGroupIds(changes).size());
+        engine.shutdown();
+    }
+
+    @Test
+    public void testOutOfRange() {
+        StdPAPChangeLog changeLog = new StdPAPChangeLog(2);
+        long start = changeLog.getVersion();
+        changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.ADD, "a", null);
+        assertEquals(1, changeLog.getChangesSince(start).size());
+        changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.ADD, "b", null);
+        changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.ADD, "c", null);
+        //
+        // The first change has been dropped, so a consumer that has not seen it must reload everything
+        //
+        assertNull(changeLog.getChangesSince(start));
+        assertEquals(2, changeLog.getChangesSince(start + 1).size());
+        assertNull(changeLog.getChangesSince(changeLog.getVersion() + 1));
+    }
+}
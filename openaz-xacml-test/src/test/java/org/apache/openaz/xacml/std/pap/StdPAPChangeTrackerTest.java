@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.std.pap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.openaz.xacml.api.pap.PAPException;
+import org.junit.Test;
+
+/**
+ * Tests working out the groups to reload from the PAP's change notifications with
+ * {@link StdPAPChangeTracker}.
+ */
+public class StdPAPChangeTrackerTest {
+
+    private static Set<String> groups(String... ids) {
+        return new LinkedHashSet<String>(Arrays.asList(ids));
+    }
+
+    private static StdPAPChangeTracker newTracker(final StdPAPChangeLog changeLog) {
+        return new StdPAPChangeTracker() {
+            @Override
+            protected List<StdPAPChange> getChangesSince(long since) throws PAPException {
+                if (changeLog == null) {
+                    throw new PAPException("PAP is down");
+                }
+                return changeLog.getChangesSince(since);
+            }
+        };
+    }
+
+    @Test
+    public void testParseVersion() {
+        assertEquals(42, StdPAPChangeTracker.parseVersion("42"));
+        assertEquals(-1, StdPAPChangeTracker.parseVersion("-1"));
+        assertEquals(-1, StdPAPChangeTracker.parseVersion(null));
+        assertEquals(-1, StdPAPChangeTracker.parseVersion(""));
+        assertEquals(-1, StdPAPChangeTracker.parseVersion("12a"));
+    }
+
+    @Test
+    public void testConsecutiveNotifications() {
+        StdPAPChangeTracker tracker = newTracker(null);
+        //
+        // The first notification cannot tell what was missed before it
+        //
+        assertNull(tracker.getChangedGroupIds(10, 11, groups("a")));
+        assertEquals(11, tracker.getSeenVersion());
+        assertEquals(groups("b"), tracker.getChangedGroupIds(11, 12, groups("b")));
+        assertEquals(groups("a", "b"), tracker.getChangedGroupIds(12, 14, groups("a", "b")));
+        //
+        // Status only notifications and a PAP without a change log reload everything
+        //
+        assertNull(tracker.getChangedGroupIds(14, 14, Collections.<String> emptySet()));
+        assertNull(tracker.getChangedGroupIds(14, 15, null));
+        assertNull(tracker.getChangedGroupIds(-1, -1, groups("a")));
+        assertEquals(-1, tracker.getSeenVersion());
+        assertNull(tracker.getChangedGroupIds(15, 16, groups("a")));
+    }
+
+    @Test
+    public void testMissedNotifications() {
+        StdPAPChangeLog changeLog = new StdPAPChangeLog();
+        long start = changeLog.getVersion();
+        StdPAPChangeTracker tracker = newTracker(changeLog);
+        long version = changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.UPDATE, "a", null);
+        assertNull(tracker.getChangedGroupIds(start, version, groups("a")));
+        //
+        // The notification for b never arrived, the one for c asks for it
+        //
+        changeLog.record(StdPAPChange.Type.POLICY, StdPAPChange.Action.ADD, "b", "policy");
+        long since = changeLog.getVersion();
+        version = changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.UPDATE, "c", null);
+        assertEquals(groups("b", "c"), tracker.getChangedGroupIds(since, version, groups("c")));
+        assertEquals(version, tracker.getSeenVersion());
+    }
+
+    @Test
+    public void testChangesUnavailable() {
+        //
+        // A change log that no longer goes back far enough reloads everything
+        //
+        StdPAPChangeLog changeLog = new StdPAPChangeLog(1);
+        StdPAPChangeTracker tracker = newTracker(changeLog);
+        assertNull(tracker.getChangedGroupIds(-1, changeLog.getVersion(), groups("a")));
+        changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.UPDATE, "a", null);
+        long since = changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.UPDATE, "b", null);
+        long version = changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.UPDATE, "c", null);
+        assertNull(tracker.getChangedGroupIds(since, version, groups("c")));
+        //
+        // So does a PAP that cannot be asked
+        //
+        tracker = newTracker(null);
+        assertNull(tracker.getChangedGroupIds(-1, 10, groups("a")));
+        assertNull(tracker.getChangedGroupIds(11, 12, groups("b")));
+        assertEquals(12, tracker.getSeenVersion());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.pap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the load times of a {@link StdPDPStatus}.
+ */
+public class StdPDPStatusTest {
+
+    @Test
+    public void testSetLoadTimesCopies() {
+        Map<String, Long> times = new LinkedHashMap<String, Long>();
+        times.put("root", 10L);
+        StdPDPStatus status = new StdPDPStatus();
+        status.setLoadTimes(times);
+        times.put("referenced", 20L);
+        assertEquals(1, status.getLoadTimes().size());
+        status.addLoadTime("engine", 30L);
+        assertEquals(2, times.size());
+        assertFalse(times.containsKey("engine"));
+    }
+
+    @Test
+    public void testEqualsLoadTimes() {
+        StdPDPStatus status1 = new StdPDPStatus();
+        StdPDPStatus status2 = new StdPDPStatus();
+        status1.addLoadTime("engine", 30L);
+        assertFalse(status1.equals(status2));
+        status2.addLoadTime("engine", 30L);
+        assertTrue(status1.equals(status2));
+        assertEquals(status1.hashCode(), status2.hashCode());
+
+        StdPDPStatus status3 = new StdPDPStatus();
+        status3.set(status1);
+        assertEquals(status1, status3);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.api.trace;
+
+/**
+ * Extends {@link TraceEngine} for engines that need to know where the evaluation of a single decision request
+ * begins and ends, for instance to decide per request whether it is traced at all. Callers bracket each
+ * request with <code>startRequest</code> and <code>endRequest</code> on the thread that evaluates it.
+ */
+public interface ScopedTraceEngine extends TraceEngine {
+    /**
+     * Marks the start of the evaluation of a decision request on the current thread. Calls may nest, in which
+     * case only the outermost pair delimits the request.
+     */
+    void startRequest();
+
+    /**
+     * Marks the end of the evaluation of the decision request started by the matching call to
+     * <code>startRequest</code> on the current thread.
+     */
+    void endRequest();
+}
@@ -0,0 +1,159 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.std;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.RequestAttributes;
+import org.apache.openaz.xacml.std.dom.DOMUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * StdContent holds the XACML Content of a {@link org.apache.openaz.xacml.api.RequestAttributes}. The content
+ * is either an already parsed DOM {@link org.w3c.dom.Node} or the serialized XML of the content root element,
+ * which is only parsed into a DOM tree the first time {@link #getContentRoot()} is called. Most decisions
+ * never select into the Content, so deferring the parse means those requests never pay for it.
+ * <p>
+ * Two counters are kept for all instances: the number of <code>StdContent</code>s created from serialized
+ * XML and the number of those that were actually parsed.
+ */
+public class StdContent {
+    private static final Log logger = LogFactory.getLog(StdContent.class);
+
+    private static final AtomicLong deferredCount = new AtomicLong();
+    private static final AtomicLong materializedCount = new AtomicLong();
+
+    private byte[] xmlContent;
+    private volatile Node contentRoot;
+
+    /**
+     * Creates a new <code>StdContent</code> for an already parsed content root.
+     *
+     * @param nodeContentRoot the <code>Node</code> for the root element of the Content
+     */
+    public StdContent(Node nodeContentRoot) {
+        if (nodeContentRoot == null) {
+            throw new NullPointerException("Null content root");
+        }
+        this.contentRoot = nodeContentRoot;
+    }
+
+    /**
+     * Creates a new <code>StdContent</code> that parses the given XML when the content root is first
+     * requested.
+     *
+     * @param xmlContentIn the serialized content root element, which must be a well-formed XML document
+     */
+    public StdContent(byte[] xmlContentIn) {
+        if (xmlContentIn == null) {
+            throw new NullPointerException("Null XML content");
+        }
+        this.xmlContent = xmlContentIn;
+        deferredCount.incrementAndGet();
+    }
+
+    /**
+     * Gets the <code>StdContent</code> of the given <code>RequestAttributes</code> without parsing it, if it
+     * is one of the standard implementations, otherwise wraps its content root.
+     *
+     * @param requestAttributes the <code>RequestAttributes</code> to get the content from
+     * @return the <code>StdContent</code> or null if there is no content
+     */
+    public static StdContent getContent(RequestAttributes requestAttributes) {
+        if (requestAttributes == null) {
+            return null;
+        } else if (requestAttributes instanceof StdRequestAttributes) {
+            return ((StdRequestAttributes)requestAttributes).getContent();
+        } else if (requestAttributes instanceof StdMutableRequestAttributes) {
+            return ((StdMutableRequestAttributes)requestAttributes).getContent();
+        } else {
+            Node nodeContentRoot = requestAttributes.getContentRoot();
+            return nodeContentRoot == null ? null : new StdContent(nodeContentRoot);
+        }
+    }
+
+    /**
+     * Gets the root <code>Node</code> of the content, parsing the serialized XML on the first call. If the
+     * XML cannot be parsed a warning is logged and null is returned.
+     *
+     * @return the root <code>Node</code> of the content or null
+     */
+    public Node getContentRoot() {
+        Node nodeContentRoot = this.contentRoot;
+        if (nodeContentRoot == null) {
+            synchronized (this) {
+                if (this.contentRoot == null && this.xmlContent != null) {
+                    try {
+                        Document document = DOMUtil.loadDocument(new ByteArrayInputStream(this.xmlContent));
+                        this.contentRoot = document.getDocumentElement();
+                        materializedCount.incrementAndGet();
+                    } catch (Exception ex) {
+                        logger.warn("Unable to parse Content: " + ex.getMessage(), ex);
+                    }
+                    //
+                    // Only try once
+                    //
+                    this.xmlContent = null;
+                }
+                nodeContentRoot = this.contentRoot;
+            }
+        }
+        return nodeContentRoot;
+    }
+
+    /**
+     * Determines whether the content has been parsed into a DOM tree.
+     *
+     * @return true if {@link #getContentRoot()} would return without parsing
+     */
+    public boolean isMaterialized() {
+        return this.contentRoot != null;
+    }
+
+    /**
+     * Gets the number of <code>StdContent</code>s created from serialized XML.
+     *
+     * @return the number of deferred contents
+     */
+    public static long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * Gets the number of deferred <code>StdContent</code>s that have been parsed into a DOM tree.
+     *
+     * @return the number of materialized contents
+     */
+    public static long getMaterializedCount() {
+        return materializedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        Node nodeContentRoot = this.getContentRoot();
+        return nodeContentRoot == null ? "null" : nodeContentRoot.toString();
+    }
+}
@@ -34,7 +34,7 @@ import org.apache.openaz.xacml.std.datatypes.DataTypes;
  */
 public class StdDataTypeFactory extends DataTypeFactory {
     private static final Map<Identifier, DataType<?>> mapIdentifiersToDataTypes = new HashMap<Identifier, DataType<?>>();
-    private static boolean mapNeedsInit = true;
+    private static volatile boolean mapNeedsInit = true;
 
     private static void registerDataType(DataType<?> dataType) {
         if (dataType != null && dataType.getId() != null) {
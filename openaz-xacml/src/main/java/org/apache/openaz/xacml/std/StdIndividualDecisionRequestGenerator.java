@@ -75,7 +75,7 @@ public class StdIndividualDecisionRequestGenerator {
     private static StdMutableRequestAttributes removeMultipleContentSelector(RequestAttributes requestAttributes) {
         StdMutableRequestAttributes stdRequestAttributes = new StdMutableRequestAttributes();
         stdRequestAttributes.setCategory(requestAttributes.getCategory());
-        stdRequestAttributes.setContentRoot(requestAttributes.getContentRoot());
+        stdRequestAttributes.setContent(StdContent.getContent(requestAttributes));
         stdRequestAttributes.setXmlId(requestAttributes.getXmlId());
         for (Attribute attribute : requestAttributes.getAttributes()) {
             if (!attribute.getAttributeId().equals(XACML3.ID_MULTIPLE_CONTENT_SELECTOR)) {
@@ -310,7 +310,7 @@ public class StdIndividualDecisionRequestGenerator {
     private static StdMutableRequestAttributes removeScopeAttributes(RequestAttributes requestAttributes) {
         StdMutableRequestAttributes stdRequestAttributes = new StdMutableRequestAttributes();
         stdRequestAttributes.setCategory(requestAttributes.getCategory());
-        stdRequestAttributes.setContentRoot(requestAttributes.getContentRoot());
+        stdRequestAttributes.setContent(StdContent.getContent(requestAttributes));
         stdRequestAttributes.setXmlId(requestAttributes.getXmlId());
 
         for (Attribute attribute : requestAttributes.getAttributes()) {
@@ -37,7 +37,7 @@ import org.w3c.dom.NodeList;
  * Mutable implementation of the {@link org.apache.openaz.xacml.api.RequestAttributes} interface.
  */
 public class StdMutableRequestAttributes extends StdMutableAttributeCategory implements RequestAttributes {
-    private Node contentRoot;
+    private StdContent content;
     private String xmlId;
 
     /**
@@ -65,8 +65,29 @@ public class StdMutableRequestAttributes extends StdMutableAttributeCategory imp
      */
     public StdMutableRequestAttributes(Identifier identifierCategory, Collection<Attribute> listAttributes,
                                        Node nodeContentRoot, String xmlIdIn) {
+        this(identifierCategory, listAttributes, nodeContentRoot == null ? null
+            : new StdContent(nodeContentRoot), xmlIdIn);
+    }
+
+    /**
+     * Creates a new <code>StdMutableRequestAttributes</code> with the given
+     * {@link org.apache.openaz.xacml.api.Identifier} representing its XACML Category, the given
+     * <code>Collection</code> of {@link org.apache.openaz.xacml.api.Attribute}s, the given
+     * {@link StdContent} holding the XACML Content, which may not have been parsed yet, and the given
+     * <code>String</code> as the optional xml:Id.
+     *
+     * @param identifierCategory the <code>Identifier</code> representing the XACML Category for the new
+     *            <code>StdMutableRequestAttributes</code>
+     * @param listAttributes the <code>Collection</code> of <code>Attribute</code>s included in the new
+     *            <code>StdMutableRequestAttributes</code>
+     * @param contentIn the <code>StdContent</code> for the XACML Content element or null
+     * @param xmlIdIn the <code>String</code> representing the xml:Id of the XACML Attributes element
+     *            represented by this <code>StdMutableRequestAttributes</code>
+     */
+    public StdMutableRequestAttributes(Identifier identifierCategory, Collection<Attribute> listAttributes,
+                                       StdContent contentIn, String xmlIdIn) {
         super(identifierCategory, listAttributes);
-        this.contentRoot = nodeContentRoot;
+        this.content = contentIn;
         this.xmlId = xmlIdIn;
     }
 
@@ -78,7 +99,7 @@ public class StdMutableRequestAttributes extends StdMutableAttributeCategory imp
      */
     public StdMutableRequestAttributes(RequestAttributes requestAttributes) {
         super(requestAttributes);
-        this.contentRoot = requestAttributes.getContentRoot();
+        this.content = StdContent.getContent(requestAttributes);
         this.xmlId = requestAttributes.getXmlId();
     }
 
@@ -100,7 +121,17 @@ public class StdMutableRequestAttributes extends StdMutableAttributeCategory imp
 
     @Override
     public Node getContentRoot() {
-        return this.contentRoot;
+        return this.content == null ? null : this.content.getContentRoot();
+    }
+
+    /**
+     * Gets the {@link StdContent} holding the XACML Content of this
+     * <code>StdMutableRequestAttributes</code> without parsing it.
+     *
+     * @return the <code>StdContent</code> or null if there is no Content
+     */
+    public StdContent getContent() {
+        return this.content;
     }
 
     /**
@@ -111,7 +142,17 @@ public class StdMutableRequestAttributes extends StdMutableAttributeCategory imp
      *            <code>StdMutableRequestAttributes</code>.
      */
     public void setContentRoot(Node nodeContentRoot) {
-        this.contentRoot = nodeContentRoot;
+        this.content = nodeContentRoot == null ? null : new StdContent(nodeContentRoot);
+    }
+
+    /**
+     * Sets the {@link StdContent} holding the XACML Content element for this
+     * <code>StdMutableRequestAttributes</code>.
+     *
+     * @param contentIn the <code>StdContent</code> for the XACML Content element or null
+     */
+    public void setContent(StdContent contentIn) {
+        this.content = contentIn;
     }
 
     @Override
@@ -158,18 +199,21 @@ public class StdMutableRequestAttributes extends StdMutableAttributeCategory imp
             return false;
         } else {
             RequestAttributes objRequestAttributes = (RequestAttributes)obj;
+            //
+            // Content nodes are compared as XML, as in StdRequestAttributes, which wraps this class
+            //
             return super.equals(objRequestAttributes)
-                   && ObjUtil.equalsAllowNull(this.getContentRoot(), objRequestAttributes.getContentRoot())
-                   && ObjUtil.equalsAllowNull(this.getXmlId(), objRequestAttributes.getXmlId());
+                   && ObjUtil.equalsAllowNull(this.getXmlId(), objRequestAttributes.getXmlId())
+                   && ObjUtil.xmlEqualsAllowNull(this.getContentRoot(), objRequestAttributes.getContentRoot());
         }
     }
     
     @Override
     public int hashCode() {
+        //
+        // The Content is left out so that hashing does not parse a deferred Content
+        //
         int result = 17;
-        if (getContentRoot() != null) {
-            result = 31 * result + getContentRoot().hashCode();
-        }
         if (getXmlId() != null) {
             result = 31 * result + getXmlId().hashCode();
         }
@@ -41,7 +41,7 @@ import org.w3c.dom.NodeList;
 public class StdRequestAttributes extends StdAttributeCategory implements RequestAttributes {
     private Log logger = LogFactory.getLog(this.getClass());
 
-    private Node contentRoot;
+    private StdContent content;
     private String xmlId;
 
     /**
@@ -62,9 +62,28 @@ public class StdRequestAttributes extends StdAttributeCategory implements Reques
      */
     public StdRequestAttributes(Identifier identifierCategory, Collection<Attribute> listAttributes,
                                 Node nodeContentRoot, String xmlIdIn) {
-        super(identifierCategory, listAttributes);
-        this.contentRoot = nodeContentRoot;
-        this.xmlId = xmlIdIn;
+        this(identifierCategory, listAttributes, nodeContentRoot == null ? null
+            : new StdContent(nodeContentRoot), xmlIdIn);
+    }
+
+    /**
+     * Creates a new <code>StdRequestAttributes</code> with the given
+     * {@link org.apache.openaz.xacml.api.Identifier} representing its XACML Category, the given
+     * <code>Collection</code> of {@link org.apache.openaz.xacml.api.Attribute}s, the given
+     * {@link StdContent} holding the XACML Content, which may not have been parsed yet, and the given
+     * <code>String</code> as the optional xml:Id.
+     *
+     * @param identifierCategory the <code>Identifier</code> representing the XACML Category for the new
+     *            <code>StdRequestAttributes</code>
+     * @param listAttributes the <code>Collection</code> of <code>Attribute</code>s included in the new
+     *            <code>StdRequestAttributes</code>
+     * @param contentIn the <code>StdContent</code> for the XACML Content element or null
+     * @param xmlIdIn the <code>String</code> representing the xml:Id of the XACML Attributes element
+     *            represented by this <code>StdRequestAttributes</code>
+     */
+    public StdRequestAttributes(Identifier identifierCategory, Collection<Attribute> listAttributes,
+                                StdContent contentIn, String xmlIdIn) {
+        this(new StdMutableRequestAttributes(identifierCategory, listAttributes, contentIn, xmlIdIn));
     }
 
     /**
@@ -75,7 +94,7 @@ public class StdRequestAttributes extends StdAttributeCategory implements Reques
      */
     public StdRequestAttributes(RequestAttributes requestAttributes) {
         super(requestAttributes);
-        this.contentRoot = requestAttributes.getContentRoot();
+        this.content = StdContent.getContent(requestAttributes);
         this.xmlId = requestAttributes.getXmlId();
     }
 
@@ -86,7 +105,17 @@ public class StdRequestAttributes extends StdAttributeCategory implements Reques
 
     @Override
     public Node getContentRoot() {
-        return this.contentRoot;
+        return this.content == null ? null : this.content.getContentRoot();
+    }
+
+    /**
+     * Gets the {@link StdContent} holding the XACML Content of this
+     * <code>StdRequestAttributes</code> without parsing it.
+     *
+     * @return the <code>StdContent</code> or null if there is no Content
+     */
+    public StdContent getContent() {
+        return this.content;
     }
 
     @Override
@@ -147,10 +176,10 @@ public class StdRequestAttributes extends StdAttributeCategory implements Reques
     }
     
     public int hashCode() {
+        //
+        // The Content is left out so that hashing does not parse a deferred Content
+        //
         int result = 17;
-        if (getContentRoot() != null) {
-            result = 31 * result + getContentRoot().hashCode();
-        }
         if (getXmlId() != null) {
             result = 31 * result + getXmlId().hashCode();
         }
@@ -0,0 +1,175 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * CaptureFileReader reads the {@link CaptureRecord}s of a capture file written by {@link CaptureFileWriter}
+ * in the order they were written.
+ * <p>
+ * A record whose length or checksum is wrong, or that cannot be parsed, is skipped: the reader searches for
+ * the next record marker from the byte after the start of the bad record and carries on from there. A record
+ * cut short at the end of the file ends the file. No more than the maximum record length is ever allocated
+ * for a record.
+ */
+public class CaptureFileReader implements Closeable {
+    private static final Log logger = LogFactory.getLog(CaptureFileReader.class);
+
+    private final Path file;
+    private final FileChannel channel;
+    private DataInputStream inputStream;
+    private long position;
+    private long skipped;
+
+    /**
+     * Opens a capture file.
+     *
+     * @param fileIn the capture file
+     * @throws IOException if the file cannot be read or is not a capture file
+     */
+    public CaptureFileReader(Path fileIn) throws IOException {
+        this.file = fileIn;
+        this.channel = FileChannel.open(fileIn, StandardOpenOption.READ);
+        try {
+            this.seek(0);
+            if (this.readInt() != CaptureFileWriter.MAGIC) {
+                throw new IOException(fileIn + " is not a capture file");
+            }
+            int version = this.readInt();
+            if (version != CaptureFileWriter.VERSION) {
+                throw new IOException(fileIn + " has unsupported capture file version " + version);
+            }
+        } catch (EOFException e) {
+            this.channel.close();
+            throw new IOException(fileIn + " is not a capture file", e);
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    private void seek(long positionIn) throws IOException {
+        this.channel.position(positionIn);
+        this.inputStream = new DataInputStream(new BufferedInputStream(Channels
+            .newInputStream(this.channel)));
+        this.position = positionIn;
+    }
+
+    private int readInt() throws IOException {
+        int value = this.inputStream.readInt();
+        this.position += 4;
+        return value;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the next <code>CaptureRecord</code>, or null at the end of the file or at a record that was cut
+     *         short
+     * @throws IOException if the file cannot be read
+     */
+    public CaptureRecord next() throws IOException {
+        try {
+            while (true) {
+                long recordPosition = this.position;
+                if (this.readInt() != CaptureFileWriter.RECORD_MARKER) {
+                    this.skip(recordPosition, "no record marker");
+                    continue;
+                }
+                int length = this.readInt();
+                int checksum = this.readInt();
+                if (length < 0 || length > CaptureFileWriter.MAX_RECORD_LENGTH
+                    || length > this.channel.size() - this.position) {
+                    //
+                    // The length is damaged, or the record was cut short at
+                    // the end of the file
+                    //
+                    this.skip(recordPosition, "invalid length " + length);
+                    continue;
+                }
+                byte[] bytes = new byte[length];
+                this.inputStream.readFully(bytes);
+                this.position += length;
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int)crc.getValue() != checksum) {
+                    this.skip(recordPosition, "checksum mismatch");
+                    continue;
+                }
+                try {
+                    return CaptureRecord.fromBytes(bytes);
+                } catch (IOException e) {
+                    this.skip(recordPosition, e.getMessage());
+                }
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Searches for the next record marker after the start of a bad record and positions the reader on it.
+     */
+    private void skip(long recordPosition, String reason) throws IOException {
+        logger.warn("Skipping a bad record at " + recordPosition + " in " + this.file + ": " + reason);
+        this.skipped++;
+        this.seek(recordPosition + 1);
+        int window = 0;
+        for (int i = 0; i < 4; i++) {
+            window = window << 8 | this.readByte();
+        }
+        while (window != CaptureFileWriter.RECORD_MARKER) {
+            window = window << 8 | this.readByte();
+        }
+        this.seek(this.position - 4);
+    }
+
+    private int readByte() throws IOException {
+        int value = this.inputStream.readUnsignedByte();
+        this.position++;
+        return value;
+    }
+
+    /**
+     * @return the number of bad records skipped so far
+     */
+    public long getSkipped() {
+        return this.skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * CaptureFileWriter appends {@link CaptureRecord}s to a capture file. Request threads only offer a record to
+ * a bounded queue and never block; if the queue is full the record is dropped and counted. A single
+ * background thread writes the records and flushes whenever the queue runs empty.
+ * <p>
+ * A new file starts with a header; an existing file with the same header is appended to, so a capture can
+ * span restarts. Each record is framed by a marker, its length and a CRC32 checksum of its bytes, so that
+ * {@link CaptureFileReader} can tell a record cut short by a crash or otherwise damaged from a good one and
+ * carry on with the next record after it.
+ */
+public class CaptureFileWriter implements Runnable {
+    static final int MAGIC = 0x58434150;
+    static final int VERSION = 2;
+    static final int RECORD_MARKER = 0x58435224;
+    static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    private static final Log logger = LogFactory.getLog(CaptureFileWriter.class);
+
+    private final Path file;
+    private final BlockingQueue<CaptureRecord> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean terminate = false;
+    private DataOutputStream outputStream;
+
+    /**
+     * Creates a new <code>CaptureFileWriter</code> and starts its writer thread.
+     *
+     * @param fileIn the capture file
+     * @param queueSizeIn the number of records that may wait to be written
+     * @throws IOException if the file cannot be opened
+     */
+    public CaptureFileWriter(Path fileIn, int queueSizeIn) throws IOException {
+        this.file = fileIn;
+        this.queue = new ArrayBlockingQueue<CaptureRecord>(Math.max(1, queueSizeIn));
+        boolean isNew = Files.notExists(fileIn) || Files.size(fileIn) == 0;
+        if (!isNew) {
+            //
+            // Records of another version must not end up behind its header
+            //
+            try (DataInputStream dis = new DataInputStream(Files.newInputStream(fileIn))) {
+                if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                    throw new IOException(fileIn + " is not a version " + VERSION
+                                          + " capture file, cannot append to it");
+                }
+            } catch (EOFException e) {
+                throw new IOException(fileIn + " is not a capture file, cannot append to it", e);
+            }
+        }
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(Files
+            .newOutputStream(fileIn, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        if (isNew) {
+            this.outputStream.writeInt(MAGIC);
+            this.outputStream.writeInt(VERSION);
+            this.outputStream.flush();
+        }
+        this.writerThread = new Thread(this, "CaptureFileWriter");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a record to be written. This never blocks.
+     *
+     * @param record the <code>CaptureRecord</code>
+     * @return true if the record was queued, false if it was dropped
+     */
+    public boolean offer(CaptureRecord record) {
+        if (this.queue.offer(record)) {
+            return true;
+        }
+        this.dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return the number of records dropped because the writer had fallen behind
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return the number of records written
+     */
+    public long getWritten() {
+        return this.written.get();
+    }
+
+    /**
+     * Writes the records still queued, then stops the writer thread and closes the file.
+     */
+    public void close() {
+        this.terminate = true;
+        try {
+            this.writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Captured " + this.written.get() + " decisions to " + this.file + ", dropped "
+                    + this.dropped.get());
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                CaptureRecord record = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (record == null) {
+                    this.outputStream.flush();
+                    if (this.terminate) {
+                        break;
+                    }
+                    continue;
+                }
+                byte[] bytes;
+                try {
+                    bytes = record.toBytes();
+                } catch (IOException e) {
+                    logger.error("Failed to capture a decision: " + e.getMessage());
+                    continue;
+                }
+                if (bytes.length > MAX_RECORD_LENGTH) {
+                    logger.error("Not capturing a decision of " + bytes.length + " bytes");
+                    continue;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                this.outputStream.writeInt(RECORD_MARKER);
+                this.outputStream.writeInt(bytes.length);
+                this.outputStream.writeInt((int)crc.getValue());
+                this.outputStream.write(bytes);
+                this.written.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Capture writer interrupted");
+        } catch (IOException e) {
+            logger.error("Failed writing capture file " + this.file + ", capture stopped: " + e, e);
+        } finally {
+            try {
+                this.outputStream.close();
+            } catch (IOException e) {
+                logger.error("Failed to close capture file " + this.file + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.capture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.Result;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.apache.openaz.xacml.std.json.JSONStructureException;
+
+/**
+ * CaptureRecord is one decision in a capture file: the request exactly as the PDP received it, the decisions
+ * it answered with and, if they were captured, the attributes the PIP engines resolved for it.
+ * <p>
+ * On disk a record is the timestamp, a flags byte, the content type, the length-prefixed request bytes, the
+ * decisions by name and, if present, the length-prefixed resolved attributes as a JSON XACML request. The
+ * {@link CaptureFileWriter} frames each record with a length and a checksum.
+ */
+public class CaptureRecord {
+    private static final int FLAG_ATTRIBUTES = 0x01;
+
+    private final long timestamp;
+    private final String contentType;
+    private final byte[] request;
+    private final List<Decision> decisions;
+    private final Request attributes;
+
+    /**
+     * Creates a new <code>CaptureRecord</code>.
+     *
+     * @param timestampIn the time the request was received, in milliseconds since the epoch
+     * @param contentTypeIn the MIME type of the request
+     * @param requestIn the request as it was received
+     * @param decisionsIn the decisions of the results of the response
+     * @param attributesIn the attributes resolved by the PIP engines as a <code>Request</code>, or null if
+     *            they were not captured
+     */
+    public CaptureRecord(long timestampIn, String contentTypeIn, byte[] requestIn, List<Decision> decisionsIn,
+                         Request attributesIn) {
+        this.timestamp = timestampIn;
+        this.contentType = contentTypeIn;
+        this.request = requestIn;
+        this.decisions = Collections.unmodifiableList(decisionsIn);
+        this.attributes = attributesIn;
+    }
+
+    /**
+     * Gets the decisions of the results of a <code>Response</code> in order.
+     *
+     * @param response the <code>Response</code>, may be null
+     * @return the list of decisions, empty if there is no response
+     */
+    public static List<Decision> getDecisions(Response response) {
+        List<Decision> decisions = new ArrayList<Decision>();
+        if (response != null && response.getResults() != null) {
+            for (Result result : response.getResults()) {
+                decisions.add(result.getDecision());
+            }
+        }
+        return decisions;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    public byte[] getRequest() {
+        return this.request;
+    }
+
+    public List<Decision> getDecisions() {
+        return this.decisions;
+    }
+
+    /**
+     * @return the attributes resolved by the PIP engines, or null if they were not captured
+     */
+    public Request getAttributes() {
+        return this.attributes;
+    }
+
+    /**
+     * Serializes this record.
+     *
+     * @return the bytes of the record
+     * @throws IOException if the captured attributes cannot be serialized
+     */
+    byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(this.request.length + 64);
+        DataOutputStream dos = new DataOutputStream(bos);
+        this.write(dos);
+        dos.flush();
+        return bos.toByteArray();
+    }
+
+    private void write(DataOutputStream dos) throws IOException {
+        byte[] attributesBytes = null;
+        if (this.attributes != null) {
+            try {
+                attributesBytes = JSONRequest.toString(this.attributes, false).getBytes(StandardCharsets.UTF_8);
+            } catch (Exception ex) {
+                throw new IOException("Unable to serialize the captured attributes: " + ex.getMessage(), ex);
+            }
+        }
+        dos.writeLong(this.timestamp);
+        dos.writeByte(attributesBytes == null ? 0 : FLAG_ATTRIBUTES);
+        dos.writeUTF(this.contentType);
+        dos.writeInt(this.request.length);
+        dos.write(this.request);
+        dos.writeInt(this.decisions.size());
+        for (Decision decision : this.decisions) {
+            dos.writeUTF(decision == null ? "" : decision.toString());
+        }
+        if (attributesBytes != null) {
+            dos.writeInt(attributesBytes.length);
+            dos.write(attributesBytes);
+        }
+    }
+
+    /**
+     * Deserializes a record written by {@link #toBytes()}.
+     *
+     * @param bytes the bytes of the record
+     * @return the <code>CaptureRecord</code>
+     * @throws IOException if the bytes are not a valid record
+     */
+    static CaptureRecord fromBytes(byte[] bytes) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+        long timestamp = dis.readLong();
+        int flags = dis.readUnsignedByte();
+        String contentType = dis.readUTF();
+        byte[] request = new byte[readLength(dis, 1)];
+        dis.readFully(request);
+        int decisionCount = readLength(dis, 2);
+        List<Decision> decisions = new ArrayList<Decision>(decisionCount);
+        for (int i = 0; i < decisionCount; i++) {
+            decisions.add(Decision.get(dis.readUTF()));
+        }
+        Request attributes = null;
+        if ((flags & FLAG_ATTRIBUTES) != 0) {
+            byte[] attributesBytes = new byte[readLength(dis, 1)];
+            dis.readFully(attributesBytes);
+            try {
+                attributes = JSONRequest.load(attributesBytes);
+            } catch (JSONStructureException ex) {
+                throw new IOException("Unable to parse the captured attributes: " + ex.getMessage(), ex);
+            }
+        }
+        if (dis.available() > 0) {
+            throw new IOException("Unexpected bytes at the end of the record");
+        }
+        return new CaptureRecord(timestamp, contentType, request, decisions, attributes);
+    }
+
+    /*
+     * Reads a count of items of at least the given size each, which must fit in what is left of the record.
+     */
+    private static int readLength(DataInputStream dis, int itemSize) throws IOException {
+        int length = dis.readInt();
+        if (length < 0 || (long)length * itemSize > dis.available()) {
+            throw new IOException("Invalid length " + length + " in record");
+        }
+        return length;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.capture;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.openaz.xacml.api.Attribute;
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.pip.PIPEngine;
+import org.apache.openaz.xacml.api.pip.PIPException;
+import org.apache.openaz.xacml.api.pip.PIPFinder;
+import org.apache.openaz.xacml.api.pip.PIPRequest;
+import org.apache.openaz.xacml.api.pip.PIPResponse;
+import org.apache.openaz.xacml.std.StdMutableRequest;
+import org.apache.openaz.xacml.std.StdMutableRequestAttributes;
+import org.apache.openaz.xacml.std.pip.finders.WrappingFinder;
+import org.w3c.dom.Node;
+
+/**
+ * CapturingFinder wraps the configured {@link org.apache.openaz.xacml.api.pip.PIPFinder} and, while a capture
+ * is in progress on the calling thread, records the attributes it resolves. A capture is started with
+ * {@link #begin()} before the request is decided and collected with {@link #end()} afterwards, on the same
+ * thread. Outside of a capture it only passes calls through.
+ * <p>
+ * Attributes answered from a decision cache, from the request itself or by the environment engine are not
+ * seen by the PIP finder and so are not captured.
+ */
+public class CapturingFinder extends WrappingFinder {
+    private static final ThreadLocal<Map<Identifier, List<Attribute>>> capture = new ThreadLocal<Map<Identifier, List<Attribute>>>();
+
+    public CapturingFinder(PIPFinder wrappedFinderIn) {
+        super(wrappedFinderIn);
+    }
+
+    /**
+     * Starts capturing the attributes resolved on the calling thread.
+     */
+    public static void begin() {
+        capture.set(new LinkedHashMap<Identifier, List<Attribute>>());
+    }
+
+    /**
+     * Ends the capture on the calling thread.
+     *
+     * @return the attributes resolved since {@link #begin()} grouped by category into a <code>Request</code>,
+     *         or null if no capture was in progress
+     */
+    public static Request end() {
+        Map<Identifier, List<Attribute>> attributes = capture.get();
+        if (attributes == null) {
+            return null;
+        }
+        capture.remove();
+        StdMutableRequest request = new StdMutableRequest();
+        for (Map.Entry<Identifier, List<Attribute>> entry : attributes.entrySet()) {
+            request.add(new StdMutableRequestAttributes(entry.getKey(), entry.getValue(), (Node)null, null));
+        }
+        return request;
+    }
+
+    @Override
+    protected PIPResponse getAttributesInternal(PIPRequest pipRequest, PIPEngine exclude,
+                                                PIPFinder pipFinderParent) throws PIPException {
+        PIPResponse pipResponse = this.getAttributesWrapped(pipRequest, exclude, pipFinderParent);
+        Map<Identifier, List<Attribute>> attributes = capture.get();
+        if (attributes != null && pipResponse != null
+            && (pipResponse.getStatus() == null || pipResponse.getStatus().isOk())) {
+            for (Attribute attribute : pipResponse.getAttributes()) {
+                List<Attribute> category = attributes.get(attribute.getCategory());
+                if (category == null) {
+                    category = new ArrayList<Attribute>();
+                    attributes.put(attribute.getCategory(), category);
+                }
+                //
+                // Attribute.hashCode() is not consistent with equals(), so
+                // look for duplicates the slow way. There are only a few.
+                //
+                if (!category.contains(attribute)) {
+                    category.add(attribute);
+                }
+            }
+        }
+        return pipResponse;
+    }
+
+    @Override
+    public Collection<PIPEngine> getPIPEngines() {
+        PIPFinder wrappedFinder = this.getWrappedFinder();
+        if (wrappedFinder == null) {
+            return Collections.emptyList();
+        }
+        return wrappedFinder.getPIPEngines();
+    }
+}
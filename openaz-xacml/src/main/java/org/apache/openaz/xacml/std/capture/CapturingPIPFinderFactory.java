@@ -0,0 +1,89 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.capture;
+
+import java.util.Properties;
+
+import org.apache.openaz.xacml.api.pip.PIPException;
+import org.apache.openaz.xacml.api.pip.PIPFinder;
+import org.apache.openaz.xacml.api.pip.PIPFinderFactory;
+import org.apache.openaz.xacml.util.FactoryException;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+/**
+ * CapturingPIPFinderFactory wraps the <code>PIPFinder</code> of another
+ * {@link org.apache.openaz.xacml.api.pip.PIPFinderFactory} in a {@link CapturingFinder}. Configure it as the
+ * <code>xacml.pipFinderFactory</code> to capture the resolved attributes along with the requests, and the
+ * factory that would otherwise be used, for instance the REST PDP's
+ * <code>org.apache.openaz.xacml.rest.impl.XACMLPdpPIPFinderFactory</code>, as the
+ * <code>xacml.capture.pipFinderFactory</code>. The default for the latter is the
+ * {@link org.apache.openaz.xacml.std.pip.StdPIPFinderFactory}.
+ */
+public class CapturingPIPFinderFactory extends PIPFinderFactory {
+    private static final String DEFAULT_FACTORY_CLASSNAME = "org.apache.openaz.xacml.std.pip."
+                                                            + "StdPIPFinderFactory";
+
+    private volatile PIPFinderFactory wrappedFactory;
+
+    public CapturingPIPFinderFactory() {
+    }
+
+    private static String getFactoryClassName(Properties properties) {
+        String factoryClassName = properties == null
+            ? null : properties.getProperty(XACMLProperties.PROP_CAPTURE_PIPFINDERFACTORY);
+        if (factoryClassName == null) {
+            factoryClassName = XACMLProperties.getProperty(XACMLProperties.PROP_CAPTURE_PIPFINDERFACTORY,
+                                                           DEFAULT_FACTORY_CLASSNAME);
+        }
+        return factoryClassName;
+    }
+
+    private PIPFinderFactory getWrappedFactory(String factoryClassName) throws PIPException {
+        if (this.wrappedFactory == null) {
+            synchronized (this) {
+                if (this.wrappedFactory == null) {
+                    if (factoryClassName.equals(this.getClass().getName())) {
+                        throw new PIPException(XACMLProperties.PROP_CAPTURE_PIPFINDERFACTORY
+                                               + " cannot be the CapturingPIPFinderFactory itself");
+                    }
+                    try {
+                        this.wrappedFactory = PIPFinderFactory.newInstance(factoryClassName);
+                    } catch (FactoryException ex) {
+                        throw new PIPException("Unable to create the PIPFinderFactory " + factoryClassName
+                                               + ": " + ex.getMessage(), ex);
+                    }
+                }
+            }
+        }
+        return this.wrappedFactory;
+    }
+
+    @Override
+    public PIPFinder getFinder() throws PIPException {
+        return new CapturingFinder(this.getWrappedFactory(getFactoryClassName(null)).getFinder());
+    }
+
+    @Override
+    public PIPFinder getFinder(Properties properties) throws PIPException {
+        String factoryClassName = getFactoryClassName(properties);
+        return new CapturingFinder(this.getWrappedFactory(factoryClassName).getFinder(properties));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.capture;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.pip.PIPEngine;
+import org.apache.openaz.xacml.api.pip.PIPException;
+import org.apache.openaz.xacml.api.pip.PIPFinder;
+import org.apache.openaz.xacml.api.pip.PIPRequest;
+import org.apache.openaz.xacml.api.pip.PIPResponse;
+import org.apache.openaz.xacml.std.pip.StdPIPResponse;
+import org.apache.openaz.xacml.std.pip.engines.RequestEngine;
+import org.apache.openaz.xacml.std.pip.finders.WrappingFinder;
+
+/**
+ * ReplayFinder implements {@link org.apache.openaz.xacml.api.pip.PIPFinder} by answering from the attributes
+ * captured with a request instead of asking the PIP engines. The replaying thread sets the attributes of the
+ * record it is about to decide with {@link #setAttributes(Request)}; attributes that were not captured are
+ * answered with an empty response.
+ */
+public class ReplayFinder extends WrappingFinder {
+    private static final ThreadLocal<RequestEngine> replay = new ThreadLocal<RequestEngine>();
+
+    public ReplayFinder() {
+        super(null);
+    }
+
+    /**
+     * Sets the captured attributes served to the calling thread.
+     *
+     * @param attributes the attributes of a {@link CaptureRecord}, or null to serve none
+     */
+    public static void setAttributes(Request attributes) {
+        if (attributes == null) {
+            replay.remove();
+        } else {
+            replay.set(new RequestEngine(attributes));
+        }
+    }
+
+    @Override
+    protected PIPResponse getAttributesInternal(PIPRequest pipRequest, PIPEngine exclude,
+                                                PIPFinder pipFinderParent) throws PIPException {
+        RequestEngine requestEngine = replay.get();
+        if (requestEngine == null) {
+            return StdPIPResponse.PIP_RESPONSE_EMPTY;
+        }
+        return requestEngine.getAttributes(pipRequest, pipFinderParent == null ? this : pipFinderParent);
+    }
+
+    @Override
+    public Collection<PIPEngine> getPIPEngines() {
+        return Collections.emptyList();
+    }
+}
@@ -87,41 +87,15 @@ public class DOMRequest {
 
     /**
      * Read characters from the given <code>InputStream</code> and parse them into an XACML
-     * {@link org.apache.openaz.xacml.api.Request} object.
+     * {@link org.apache.openaz.xacml.api.Request} object. The stream is parsed with {@link StAXRequest}, so no
+     * DOM <code>Document</code> is built for the Request itself, only for any <code>Content</code> elements.
      *
      * @param is
      * @return
      * @throws DOMStructureException
      */
     public static Request load(InputStream is) throws DOMStructureException {
-        Request request = null;
-        try {
-            Document document = DOMUtil.loadDocument(is);
-            if (document == null) {
-                throw new DOMStructureException("Null document returned");
-            }
-
-            Node rootNode = DOMUtil.getFirstChildElement(document);
-            if (rootNode == null) {
-                throw new DOMStructureException("No child in document");
-            }
-
-            if (DOMUtil.isInNamespace(rootNode, XACML3.XMLNS)) {
-                if (XACML3.ELEMENT_REQUEST.equals(rootNode.getLocalName())) {
-                    request = DOMRequest.newInstance(rootNode);
-                    if (request == null) {
-                        throw new DOMStructureException("Failed to parse Request");
-                    }
-                } else {
-                    throw DOMUtil.newUnexpectedElementException(rootNode);
-                }
-            } else {
-                throw DOMUtil.newUnexpectedElementException(rootNode);
-            }
-        } catch (Exception ex) {
-            throw new DOMStructureException("Exception loading Request: " + ex.getMessage(), ex);
-        }
-        return request;
+        return StAXRequest.load(is);
     }
 
     /**
@@ -27,7 +27,6 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.math.BigInteger;
 import java.net.URI;
 import java.nio.file.Files;
@@ -37,6 +36,9 @@ import java.util.Iterator;
 
 import javax.security.auth.x500.X500Principal;
 import javax.xml.XMLConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -82,6 +84,11 @@ import org.w3c.dom.NodeList;
 public class DOMResponse {
     private static final Log logger = LogFactory.getLog(DOMResponse.class);
 
+    /*
+     * XMLOutputFactory instances are thread-safe once configured, so one is shared by all conversions.
+     */
+    private static final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+
     protected DOMResponse() {
     }
 
@@ -277,42 +284,55 @@ public class DOMResponse {
     }
 
     /**
-     * Helper - recursively output StatusCode objects as XML.
+     * Helper - write the line break and indentation for pretty-printing.
      *
-     * @param sb
-     * @param statusCode
+     * @param writer
      * @param tabCount
      * @param prettyPrint
+     * @throws XMLStreamException
      */
-    private static void outputStatusCode(StringBuilder sb, StatusCode statusCode, int tabCount,
-                                         boolean prettyPrint) {
-        String prettyPrintString = "";
+    private static void writeIndent(XMLStreamWriter writer, int tabCount, boolean prettyPrint)
+        throws XMLStreamException {
         if (prettyPrint) {
-            prettyPrintString = "\n";
+            StringBuilder sb = new StringBuilder("\n");
             for (int i = 0; i < tabCount; i++) {
-                prettyPrintString += "\t";
+                sb.append('\t');
             }
+            writer.writeCharacters(sb.toString());
         }
+    }
 
-        sb.append(prettyPrintString);
-        sb.append("<StatusCode");
-
-        if (statusCode.getStatusCodeValue() != null) {
-            sb.append(" Value=\"" + statusCode.getStatusCodeValue().stringValue() + "\"");
-        }
+    /**
+     * Helper - recursively output StatusCode objects as XML.
+     *
+     * @param writer
+     * @param statusCode
+     * @param tabCount
+     * @param prettyPrint
+     * @throws XMLStreamException
+     */
+    private static void outputStatusCode(XMLStreamWriter writer, StatusCode statusCode, int tabCount,
+                                         boolean prettyPrint) throws XMLStreamException {
+        writeIndent(writer, tabCount, prettyPrint);
 
         if (statusCode.getChild() == null) {
-            // no child code, so finish off the StatusCode element now
-            sb.append("/>");
+            // no child code, so the StatusCode element is empty
+            writer.writeEmptyElement("StatusCode");
         } else {
             // there is a child, so need to use the two-part notation for this StatusCode
-            sb.append(">");
-            outputStatusCode(sb, statusCode.getChild(), tabCount + 1, prettyPrint);
-            sb.append(prettyPrintString);
-            sb.append("</StatusCode>");
+            writer.writeStartElement("StatusCode");
+        }
+
+        if (statusCode.getStatusCodeValue() != null) {
+            writer.writeAttribute("Value", statusCode.getStatusCodeValue().stringValue());
         }
-    }
 
+        if (statusCode.getChild() != null) {
+            outputStatusCode(writer, statusCode.getChild(), tabCount + 1, prettyPrint);
+            writeIndent(writer, tabCount, prettyPrint);
+            writer.writeEndElement();
+        }
+    }
     /**
      * Helper: When outputting as XML string, get the value of a Value (within an AttributeValue) object as a
      * String. Most of these objects are SemanticStrings, but some are not and we cannot assume that in the
@@ -354,18 +374,18 @@ public class DOMResponse {
     }
 
     /**
-     * Helper: When outputting as XML string, extract any Namespace info from an AttributeValue.Value.Value
-     * object. This must be done separately from getting the Value as a String because this info is put as an
+     * Helper: When outputting as XML, write any Namespace info from an AttributeValue.Value.Value object.
+     * This must be done separately from getting the Value as a String because this info is put as an
      * attribute in the surrounding element. Currently only applies to XPathExpressionWrappers.
      *
+     * @param writer
      * @param valueObject
-     * @return
+     * @throws XMLStreamException
      */
-    private static String getNamespaces(Object valueObject) {
-        String returnString = "";
+    private static void writeNamespaces(XMLStreamWriter writer, Object valueObject) throws XMLStreamException {
         if (!(valueObject instanceof XPathExpressionWrapper)) {
             // value is not XPathExpression, so has no Namespace info in it
-            return returnString;
+            return;
         }
         XPathExpressionWrapper xw = (XPathExpressionWrapper)valueObject;
 
@@ -377,14 +397,43 @@ public class DOMResponse {
                 String prefix = prefixIt.next();
                 String namespaceURI = namespaceContext.getNamespaceURI(prefix);
                 if (prefix == null || prefix.equals(XMLConstants.DEFAULT_NS_PREFIX)) {
-                    returnString += " xmlns=\"" + namespaceURI + "\"";
+                    writer.writeDefaultNamespace(namespaceURI);
                 } else {
-                    returnString += " xmlns:" + prefix + "=\"" + namespaceURI + "\"";
+                    writer.writeNamespace(prefix, namespaceURI);
                 }
             }
 
         }
-        return returnString;
+    }
+
+    /**
+     * Helper: write one AttributeAssignment of an Obligation or Advice.
+     *
+     * @param writer
+     * @param kind either "Obligation" or "Advice", used in error messages
+     * @param aa
+     * @param prettyPrint
+     * @throws XMLStreamException
+     * @throws DOMStructureException
+     */
+    private static void writeAttributeAssignment(XMLStreamWriter writer, String kind, AttributeAssignment aa,
+                                                 boolean prettyPrint) throws XMLStreamException,
+        DOMStructureException {
+        writeIndent(writer, 4, prettyPrint);
+        if (aa.getAttributeId() == null) {
+            throw new DOMStructureException(kind + " AttributeAssignment must have AttributeId");
+        }
+        if (aa.getDataTypeId() == null || aa.getAttributeValue() == null
+            || aa.getAttributeValue().getValue() == null) {
+            throw new DOMStructureException(kind + " AttributeAssignment '" + aa.getAttributeId().stringValue()
+                                            + "' must have DataType and Value");
+        }
+        writer.writeStartElement("AttributeAssignment");
+        writer.writeAttribute("AttributeId", aa.getAttributeId().stringValue());
+        writer.writeAttribute("DataType", aa.getDataTypeId().stringValue());
+        writeNamespaces(writer, aa.getAttributeValue().getValue());
+        writer.writeCharacters(outputValueValue(aa.getAttributeValue().getValue()));
+        writer.writeEndElement();
     }
 
     /**
@@ -403,8 +452,9 @@ public class DOMResponse {
     }
 
     /**
-     * Do the work of converting the {@link org.apache.openaz.xacml.api.Response} object to a string, allowing
-     * for pretty-printing if desired.
+     * Do the work of converting the {@link org.apache.openaz.xacml.api.Response} object to UTF-8 encoded XML,
+     * allowing for pretty-printing if desired. The XML is written to the OutputStream as the Response is
+     * traversed. This method does NOT close the outputStream.
      *
      * @param response
      * @param outputStream
@@ -415,8 +465,6 @@ public class DOMResponse {
     public static void convert(Response response, OutputStream outputStream, boolean prettyPrint)
         throws IOException, DOMStructureException {
 
-        OutputStreamWriter osw = new OutputStreamWriter(outputStream);
-
         if (response == null) {
             throw new DOMStructureException("No Request in convert");
         }
@@ -426,50 +474,70 @@ public class DOMResponse {
             throw new DOMStructureException("No Result in Response");
         }
 
-        StringBuilder sb = new StringBuilder();
+        try {
+            XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(outputStream, "UTF-8");
+            try {
+                convert(response, writer, prettyPrint);
+            } finally {
+                // force output; closing an XMLStreamWriter does not close the underlying OutputStream
+                writer.close();
+            }
+        } catch (XMLStreamException ex) {
+            if (ex.getNestedException() instanceof IOException) {
+                throw (IOException)ex.getNestedException();
+            }
+            throw new IOException("Unable to write Response: " + ex.getMessage(), ex);
+        }
+    }
 
-        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    /**
+     * Write the {@link org.apache.openaz.xacml.api.Response} to the given <code>XMLStreamWriter</code>.
+     *
+     * @param response
+     * @param writer
+     * @param prettyPrint
+     * @throws XMLStreamException
+     * @throws DOMStructureException
+     */
+    private static void convert(Response response, XMLStreamWriter writer, boolean prettyPrint)
+        throws XMLStreamException, DOMStructureException {
 
-        if (prettyPrint)
-            sb.append("\n");
+        writer.writeStartDocument("UTF-8", "1.0");
 
         // response with attributes
-        sb.append("<Response");
+        writeIndent(writer, 0, prettyPrint);
+        writer.writeStartElement("Response");
 
         // TODO include all Namespace info
         // Currently this is hard-coded for just the standard XACML namespaces, but ideally should use
         // Namespaces from incoming Request to get non-standard ones.
-        sb.append(" xmlns=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17\"");
-        sb.append(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
-        sb.append(" xsi:schemaLocation=\"urn:oasis:names:tc:xacml:3.0:core:schema:wd-17");
-        sb.append(" http://docs.oasis-open.org/xacml/3.0/xacml-core-v3-schema-wd-17.xsd\"");
-
-        // end of <Response>
-        sb.append(">");
+        writer.writeDefaultNamespace("urn:oasis:names:tc:xacml:3.0:core:schema:wd-17");
+        writer.writeNamespace("xsi", XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+        writer.writeAttribute("xsi", XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation",
+                              "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17"
+                                  + " http://docs.oasis-open.org/xacml/3.0/xacml-core-v3-schema-wd-17.xsd");
 
         // for each Result...
         for (Result result : response.getResults()) {
 
-            if (prettyPrint)
-                sb.append("\n\t");
-
-            sb.append("<Result>");
+            writeIndent(writer, 1, prettyPrint);
+            writer.writeStartElement("Result");
 
             // Decision
-            if (prettyPrint)
-                sb.append("\n\t\t");
+            writeIndent(writer, 2, prettyPrint);
 
             if (result.getDecision() == null) {
                 throw new DOMStructureException("Result missing Decision");
             }
-            sb.append("<Decision>" + result.getDecision().toString() + "</Decision>");
+            writer.writeStartElement("Decision");
+            writer.writeCharacters(result.getDecision().toString());
+            writer.writeEndElement();
 
             // Status
             Status status = result.getStatus();
             if (status != null) {
-                if (prettyPrint)
-                    sb.append("\n\t\t");
-                sb.append("<Status>");
+                writeIndent(writer, 2, prettyPrint);
+                writer.writeStartElement("Status");
 
                 // status code
                 StatusCode statusCode = status.getStatusCode();
@@ -494,16 +562,15 @@ public class DOMResponse {
                                                         + result.getDecision().toString());
                     }
 
-                    outputStatusCode(sb, statusCode, 3, prettyPrint);
+                    outputStatusCode(writer, statusCode, 3, prettyPrint);
                 }
 
                 // status message
                 if (status.getStatusMessage() != null) {
-
-                    if (prettyPrint)
-                        sb.append("\n\t\t\t");
-                    sb.append("<StatusMessage>" + status.getStatusMessage() + "</StatusMessage>");
-
+                    writeIndent(writer, 3, prettyPrint);
+                    writer.writeStartElement("StatusMessage");
+                    writer.writeCharacters(status.getStatusMessage());
+                    writer.writeEndElement();
                 }
 
                 // status detail
@@ -532,9 +599,8 @@ public class DOMResponse {
                     // the contents are formatted into escaped XML rather than objects
 
                     if (result.getStatus().getStatusDetail().getMissingAttributeDetails() != null) {
-                        if (prettyPrint)
-                            sb.append("\n\t\t\t");
-                        sb.append("<StatusDetail>");
+                        writeIndent(writer, 3, prettyPrint);
+                        writer.writeStartElement("StatusDetail");
 
                         for (MissingAttributeDetail mad : statusDetail.getMissingAttributeDetails()) {
                             if (mad.getAttributeId() == null || mad.getCategory() == null
@@ -542,135 +608,84 @@ public class DOMResponse {
                                 throw new DOMStructureException(
                                                                 "MissingAttributeDetail is missing required AttributeId, Category or DataTypeId");
                             }
-                            if (prettyPrint)
-                                sb.append("\n\t\t\t\t");
-                            sb.append("<MissingAttributeDetail");
-                            sb.append(" Category=\"" + mad.getCategory().stringValue() + "\"");
-                            sb.append(" AttributeId=\"" + mad.getAttributeId().stringValue() + "\"");
-                            sb.append(" DataTypeId=\"" + mad.getDataTypeId().stringValue() + "\"");
+                            writeIndent(writer, 4, prettyPrint);
+                            writer.writeStartElement("MissingAttributeDetail");
+                            writer.writeAttribute("Category", mad.getCategory().stringValue());
+                            writer.writeAttribute("AttributeId", mad.getAttributeId().stringValue());
+                            writer.writeAttribute("DataTypeId", mad.getDataTypeId().stringValue());
                             if (mad.getIssuer() != null) {
-                                sb.append(" Issuer=\"" + mad.getIssuer() + "\"");
+                                writer.writeAttribute("Issuer", mad.getIssuer());
                             }
-                            sb.append(">");
                             if (mad.getAttributeValues() != null) {
                                 for (AttributeValue<?> value : mad.getAttributeValues()) {
-                                    if (prettyPrint) {
-                                        sb.append("\n\t\t\t\t\t");
-                                    }
-                                    sb.append("<AttributeValue" + getNamespaces(value.getValue()) + ">"
-                                              + outputValueValue(value.getValue()) + "</AttributeValue>");
+                                    writeIndent(writer, 5, prettyPrint);
+                                    writer.writeStartElement("AttributeValue");
+                                    writeNamespaces(writer, value.getValue());
+                                    writer.writeCharacters(outputValueValue(value.getValue()));
+                                    writer.writeEndElement();
                                 }
                             }
-                            if (prettyPrint) {
-                                sb.append("\n\t\t\t\t");
-                            }
-                            sb.append("</MissingAttributeDetail>");
+                            writeIndent(writer, 4, prettyPrint);
+                            writer.writeEndElement();
                         }
 
-                        if (prettyPrint) {
-                            sb.append("\n\t\t\t");
-                        }
-                        sb.append("</StatusDetail>");
+                        writeIndent(writer, 3, prettyPrint);
+                        writer.writeEndElement();
                     }
                 }
 
-                if (prettyPrint)
-                    sb.append("\n\t\t");
-                sb.append("</Status>");
+                writeIndent(writer, 2, prettyPrint);
+                writer.writeEndElement();
             }
 
             // Obligations
             if (result.getObligations() != null && result.getObligations().size() > 0) {
-                if (prettyPrint)
-                    sb.append("\n\t\t");
-                sb.append("<Obligations>");
+                writeIndent(writer, 2, prettyPrint);
+                writer.writeStartElement("Obligations");
 
                 for (Obligation obligation : result.getObligations()) {
                     if (obligation.getId() == null) {
                         throw new DOMStructureException("Obligation must have ObligationId");
                     }
-                    if (prettyPrint)
-                        sb.append("\n\t\t\t");
-                    sb.append("<Obligation ObligationId=\"" + obligation.getId().stringValue() + "\">");
+                    writeIndent(writer, 3, prettyPrint);
+                    writer.writeStartElement("Obligation");
+                    writer.writeAttribute("ObligationId", obligation.getId().stringValue());
 
                     for (AttributeAssignment aa : obligation.getAttributeAssignments()) {
-                        if (prettyPrint)
-                            sb.append("\n\t\t\t\t");
-                        sb.append("<AttributeAssignment");
-
-                        if (aa.getAttributeId() == null) {
-                            throw new DOMStructureException(
-                                                            "Obligation AttributeAssignment must have AttributeId");
-                        }
-                        sb.append(" AttributeId=\"" + aa.getAttributeId().stringValue() + "\"");
-                        if (aa.getDataTypeId() == null || aa.getAttributeValue() == null
-                            || aa.getAttributeValue().getValue() == null) {
-                            throw new DOMStructureException("Obligation AttributeAssignment '"
-                                                            + aa.getAttributeId().stringValue()
-                                                            + "' must have DataType and Value");
-                        }
-                        sb.append(" DataType=\"" + aa.getDataTypeId().stringValue() + "\""
-                                  + getNamespaces(aa.getAttributeValue().getValue()) + ">");
-                        sb.append(outputValueValue(aa.getAttributeValue().getValue()));
-
-                        sb.append("</AttributeAssignment>");
+                        writeAttributeAssignment(writer, "Obligation", aa, prettyPrint);
                     }
 
-                    if (prettyPrint)
-                        sb.append("\n\t\t\t");
-                    sb.append("</Obligation>");
+                    writeIndent(writer, 3, prettyPrint);
+                    writer.writeEndElement();
                 }
 
-                if (prettyPrint)
-                    sb.append("\n\t\t");
-                sb.append("</Obligations>");
+                writeIndent(writer, 2, prettyPrint);
+                writer.writeEndElement();
             }
 
             // AssociatedAdvice
             if (result.getAssociatedAdvice() != null && result.getAssociatedAdvice().size() > 0) {
-                if (prettyPrint)
-                    sb.append("\n\t\t");
-                sb.append("<AssociatedAdvice>");
+                writeIndent(writer, 2, prettyPrint);
+                writer.writeStartElement("AssociatedAdvice");
 
                 for (Advice advice : result.getAssociatedAdvice()) {
                     if (advice.getId() == null) {
                         throw new DOMStructureException("Advice must have AdviceId");
                     }
-                    if (prettyPrint)
-                        sb.append("\n\t\t\t");
-                    sb.append("<Advice AdviceId=\"" + advice.getId().stringValue() + "\">");
+                    writeIndent(writer, 3, prettyPrint);
+                    writer.writeStartElement("Advice");
+                    writer.writeAttribute("AdviceId", advice.getId().stringValue());
 
                     for (AttributeAssignment aa : advice.getAttributeAssignments()) {
-                        if (prettyPrint)
-                            sb.append("\n\t\t\t\t");
-                        sb.append("<AttributeAssignment");
-
-                        if (aa.getAttributeId() == null) {
-                            throw new DOMStructureException(
-                                                            "Advice AttributeAssignment must have AttributeId");
-                        }
-                        sb.append(" AttributeId=\"" + aa.getAttributeId().stringValue() + "\"");
-                        if (aa.getDataTypeId() == null || aa.getAttributeValue() == null
-                            || aa.getAttributeValue().getValue() == null) {
-                            throw new DOMStructureException("Advice AttributeAssignment '"
-                                                            + aa.getAttributeId().stringValue()
-                                                            + "' must have DataType and Value");
-                        }
-                        sb.append(" DataType=\"" + aa.getDataTypeId().stringValue() + "\""
-                                  + getNamespaces(aa.getAttributeValue().getValue()) + ">");
-                        sb.append(outputValueValue(aa.getAttributeValue().getValue()));
-
-                        sb.append("</AttributeAssignment>");
+                        writeAttributeAssignment(writer, "Advice", aa, prettyPrint);
                     }
 
-                    if (prettyPrint)
-                        sb.append("\n\t\t\t");
-                    sb.append("</Advice>");
+                    writeIndent(writer, 3, prettyPrint);
+                    writer.writeEndElement();
                 }
 
-                if (prettyPrint)
-                    sb.append("\n\t\t");
-                sb.append("</AssociatedAdvice>");
+                writeIndent(writer, 2, prettyPrint);
+                writer.writeEndElement();
             }
 
             // Attributes
@@ -678,37 +693,35 @@ public class DOMResponse {
                 // this may include attributes with IncludeInResult=false!
 
                 for (AttributeCategory category : result.getAttributes()) {
-                    if (prettyPrint)
-                        sb.append("\n\t\t");
+                    writeIndent(writer, 2, prettyPrint);
                     if (category.getCategory() == null) {
                         throw new DOMStructureException("Attributes must have Category");
                     }
-                    sb.append("<Attributes Category=\"" + category.getCategory().stringValue() + "\">");
+                    writer.writeStartElement("Attributes");
+                    writer.writeAttribute("Category", category.getCategory().stringValue());
 
                     for (Attribute attr : category.getAttributes()) {
                         if (!attr.getIncludeInResults()) {
                             // skip this one - do not include in results
                             continue;
                         }
-                        if (prettyPrint)
-                            sb.append("\n\t\t\t");
-                        sb.append("<Attribute IncludeInResult=\"" + attr.getIncludeInResults() + "\"");
                         if (attr.getAttributeId() == null) {
                             throw new DOMStructureException("Attribute inf Category '"
                                                             + category.getCategory().stringValue()
                                                             + "' must have AttributeId");
                         }
-                        sb.append(" AttributeId=\"" + attr.getAttributeId().stringValue() + "\"");
-                        if (attr.getIssuer() == null) {
-                            sb.append(">");
-                        } else {
-                            sb.append(" Issuer=\"" + attr.getIssuer() + "\">");
-                        }
-
                         if (attr.getValues().size() == 0) {
                             throw new DOMStructureException("Attribute '" + attr.getAttributeId()
                                                             + "' must have at least one value");
                         }
+                        writeIndent(writer, 3, prettyPrint);
+                        writer.writeStartElement("Attribute");
+                        writer.writeAttribute("IncludeInResult", String.valueOf(attr.getIncludeInResults()));
+                        writer.writeAttribute("AttributeId", attr.getAttributeId().stringValue());
+                        if (attr.getIssuer() != null) {
+                            writer.writeAttribute("Issuer", attr.getIssuer());
+                        }
+
                         for (AttributeValue<?> value : attr.getValues()) {
                             if (value.getDataTypeId() == null || value.getValue() == null) {
                                 throw new DOMStructureException(
@@ -716,28 +729,22 @@ public class DOMResponse {
                                                                     + attr.getAttributeId()
                                                                     + "' has AttributeValue missing either DataType or Value");
                             }
-                            if (prettyPrint)
-                                sb.append("\n\t\t\t\t");
-                            sb.append("<AttributeValue DataType=\"" + value.getDataTypeId().stringValue()
-                                      + "\"");
+                            writeIndent(writer, 4, prettyPrint);
+                            writer.writeStartElement("AttributeValue");
+                            writer.writeAttribute("DataType", value.getDataTypeId().stringValue());
                             if (value.getXPathCategory() != null) {
-                                sb.append(" XPathCategory=\"" + value.getXPathCategory().stringValue() + "\"");
+                                writer.writeAttribute("XPathCategory", value.getXPathCategory().stringValue());
                             }
-                            sb.append(">");
-
-                            sb.append(outputValueValue(value.getValue()));
-
-                            sb.append("</AttributeValue>");
+                            writer.writeCharacters(outputValueValue(value.getValue()));
+                            writer.writeEndElement();
                         }
 
-                        if (prettyPrint)
-                            sb.append("\n\t\t\t");
-                        sb.append("</Attribute>");
+                        writeIndent(writer, 3, prettyPrint);
+                        writer.writeEndElement();
                     }
 
-                    if (prettyPrint)
-                        sb.append("\n\t\t");
-                    sb.append("</Attributes>");
+                    writeIndent(writer, 2, prettyPrint);
+                    writer.writeEndElement();
                 }
 
             }
@@ -746,66 +753,48 @@ public class DOMResponse {
             Collection<IdReference> policyIds = result.getPolicyIdentifiers();
             Collection<IdReference> policySetIds = result.getPolicySetIdentifiers();
             if (policyIds != null && policyIds.size() > 0 || policySetIds != null && policySetIds.size() > 0) {
-                if (prettyPrint)
-                    sb.append("\n\t\t\t");
-                sb.append("<PolicyIdentifierList>");
+                writeIndent(writer, 3, prettyPrint);
+                writer.writeStartElement("PolicyIdentifierList");
 
                 // individual Ids
                 for (IdReference idReference : policyIds) {
                     if (idReference == null) {
                         throw new DOMStructureException("PolicyIdentifiers has null IdReference");
                     }
-                    if (prettyPrint)
-                        sb.append("\n\t\t\t\t");
-                    sb.append("<PolicyIdReference");
+                    writeIndent(writer, 4, prettyPrint);
+                    writer.writeStartElement("PolicyIdReference");
                     if (idReference.getVersion() != null) {
-                        sb.append(" Version=\"" + idReference.getVersion().stringValue() + "\">");
-                    } else {
-                        sb.append(">");
+                        writer.writeAttribute("Version", idReference.getVersion().stringValue());
                     }
-                    sb.append(idReference.getId().stringValue());
-                    sb.append("</PolicyIdReference>");
+                    writer.writeCharacters(idReference.getId().stringValue());
+                    writer.writeEndElement();
                 }
                 // Set Ids
                 for (IdReference idReference : policySetIds) {
                     if (idReference == null) {
                         throw new DOMStructureException("PolicySetIdentifiers has null IdReference");
                     }
-                    if (prettyPrint)
-                        sb.append("\n\t\t\t\t");
-                    sb.append("<PolicySetIdReference");
+                    writeIndent(writer, 4, prettyPrint);
+                    writer.writeStartElement("PolicySetIdReference");
                     if (idReference.getVersion() != null) {
-                        sb.append(" Version=\"" + idReference.getVersion().stringValue() + "\">");
-                    } else {
-                        sb.append(">");
+                        writer.writeAttribute("Version", idReference.getVersion().stringValue());
                     }
-                    sb.append(idReference.getId().stringValue());
-                    sb.append("</PolicySetIdReference>");
+                    writer.writeCharacters(idReference.getId().stringValue());
+                    writer.writeEndElement();
                 }
 
-                if (prettyPrint)
-                    sb.append("\n\t\t\t");
-                sb.append("</PolicyIdentifierList>");
+                writeIndent(writer, 3, prettyPrint);
+                writer.writeEndElement();
             }
 
             // end of Result
-            if (prettyPrint)
-                sb.append("\n\t");
-            sb.append("</Result>");
+            writeIndent(writer, 1, prettyPrint);
+            writer.writeEndElement();
         }
 
-        if (prettyPrint)
-            sb.append("\n");
-
-        sb.append("</Response>");
-
-        // all done
-
-        osw.write(sb.toString());
-
-        // force output
-        osw.flush();
-
+        writeIndent(writer, 0, prettyPrint);
+        writer.writeEndElement();
+        writer.writeEndDocument();
     }
 
     /**
@@ -26,6 +26,8 @@ import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.ParseException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -63,6 +65,16 @@ public class DOMUtil {
      */
     private static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
 
+    /*
+     * DocumentBuilders are not thread-safe, so each caller borrows one from a small pool filled from a single
+     * shared factory. A pool rather than a ThreadLocal keeps container threads from holding on to the
+     * builders, and through them this class loader, after the application is undeployed.
+     */
+    private static final int DOCUMENT_BUILDER_POOL_SIZE = 16;
+    private static DocumentBuilderFactory documentBuilderFactory;
+    private static final BlockingQueue<DocumentBuilder> documentBuilderPool = new ArrayBlockingQueue<>(
+        DOCUMENT_BUILDER_POOL_SIZE);
+
     protected DOMUtil() {
     }
 
@@ -75,8 +87,8 @@ public class DOMUtil {
      */
     public static Node getDirectDocumentChild(Node node) throws DOMStructureException {
         Node nodeResult = null;
+        DocumentBuilder documentBuilder = getDocumentBuilder();
         try {
-            DocumentBuilder documentBuilder = getDocumentBuilder();
             Document documentRoot = documentBuilder.newDocument();
             Node nodeTopRoot = documentRoot.importNode(node, true);
             documentRoot.appendChild(nodeTopRoot);
@@ -84,6 +96,8 @@ public class DOMUtil {
         } catch (Exception ex) {
             throw new DOMStructureException("Exception generating Document root Node from Node: "
                                             + ex.getMessage(), ex);
+        } finally {
+            releaseDocumentBuilder(documentBuilder);
         }
         return nodeResult;
     }
@@ -701,24 +715,63 @@ public class DOMUtil {
         return false;
     }
     
+    /**
+     * Gets a namespace-aware <code>DocumentBuilder</code> for use by the calling thread. Creating the
+     * <code>DocumentBuilderFactory</code> involves a service lookup, so the factory is created once and
+     * builders are reused through a small pool. The returned builder must not be shared with other threads,
+     * and should be handed back with {@link #releaseDocumentBuilder(DocumentBuilder)} when done; builders
+     * that are not handed back are simply garbage collected.
+     *
+     * @return a <code>DocumentBuilder</code> for the caller's exclusive use
+     * @throws DOMStructureException if no <code>DocumentBuilder</code> can be created
+     */
     public static DocumentBuilder getDocumentBuilder() throws DOMStructureException {
+        DocumentBuilder documentBuilder = documentBuilderPool.poll();
+        if (documentBuilder != null) {
+            return documentBuilder;
+        }
+
         /*
          * Get the DocumentBuilderFactory
          */
-        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        if (documentBuilderFactory == null) {
-            throw new DOMStructureException("No XML DocumentBuilderFactory configured");
-        }
-        documentBuilderFactory.setNamespaceAware(true);
+        DocumentBuilderFactory documentBuilderFactory = getDocumentBuilderFactory();
 
         /*
          * Get the DocumentBuilder
          */
         try {
-            return documentBuilderFactory.newDocumentBuilder();
+            synchronized (documentBuilderFactory) {
+                documentBuilder = documentBuilderFactory.newDocumentBuilder();
+            }
         } catch (Exception ex) {
             throw new DOMStructureException("Exception creating DocumentBuilder: " + ex.getMessage(), ex);
         }
+        return documentBuilder;
+    }
+
+    /**
+     * Returns a <code>DocumentBuilder</code> obtained from {@link #getDocumentBuilder()} to the pool. It is
+     * reset first, and dropped if the pool is full.
+     *
+     * @param documentBuilder the <code>DocumentBuilder</code> that is no longer in use, may be null
+     */
+    public static void releaseDocumentBuilder(DocumentBuilder documentBuilder) {
+        if (documentBuilder != null) {
+            documentBuilder.reset();
+            documentBuilderPool.offer(documentBuilder);
+        }
+    }
+
+    private static synchronized DocumentBuilderFactory getDocumentBuilderFactory() throws DOMStructureException {
+        if (documentBuilderFactory == null) {
+            DocumentBuilderFactory newDocumentBuilderFactory = DocumentBuilderFactory.newInstance();
+            if (newDocumentBuilderFactory == null) {
+                throw new DOMStructureException("No XML DocumentBuilderFactory configured");
+            }
+            newDocumentBuilderFactory.setNamespaceAware(true);
+            documentBuilderFactory = newDocumentBuilderFactory;
+        }
+        return documentBuilderFactory;
     }
 
     public static Document loadDocument(File fileDocument) throws DOMStructureException {
@@ -736,6 +789,8 @@ public class DOMUtil {
         } catch (Exception ex) {
             throw new DOMStructureException("Exception loading file \"" + fileDocument.getAbsolutePath()
                                             + "\": " + ex.getMessage(), ex);
+        } finally {
+            releaseDocumentBuilder(documentBuilder);
         }
         return document;
 
@@ -755,6 +810,8 @@ public class DOMUtil {
             }
         } catch (Exception ex) {
             throw new DOMStructureException("Exception loading file from stream: " + ex.getMessage(), ex);
+        } finally {
+            releaseDocumentBuilder(documentBuilder);
         }
         return document;
 
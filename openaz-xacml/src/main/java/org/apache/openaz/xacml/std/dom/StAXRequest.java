@@ -0,0 +1,612 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.std.dom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.Attribute;
+import org.apache.openaz.xacml.api.AttributeValue;
+import org.apache.openaz.xacml.api.DataType;
+import org.apache.openaz.xacml.api.DataTypeException;
+import org.apache.openaz.xacml.api.DataTypeFactory;
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.RequestAttributes;
+import org.apache.openaz.xacml.api.RequestDefaults;
+import org.apache.openaz.xacml.api.RequestReference;
+import org.apache.openaz.xacml.api.XACML;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdAttribute;
+import org.apache.openaz.xacml.std.StdContent;
+import org.apache.openaz.xacml.std.StdMutableAttribute;
+import org.apache.openaz.xacml.std.StdMutableRequest;
+import org.apache.openaz.xacml.std.StdMutableRequestReference;
+import org.apache.openaz.xacml.std.StdRequest;
+import org.apache.openaz.xacml.std.StdRequestAttributes;
+import org.apache.openaz.xacml.std.StdRequestAttributesReference;
+import org.apache.openaz.xacml.std.StdRequestDefaults;
+import org.apache.openaz.xacml.std.StdRequestReference;
+import org.apache.openaz.xacml.std.datatypes.DataTypes;
+import org.apache.openaz.xacml.std.datatypes.XPathExpressionWrapper;
+import org.apache.openaz.xacml.util.FactoryException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * StAXRequest converts XML into {@link org.apache.openaz.xacml.api.Request} objects using a StAX pull parser,
+ * building the {@link org.apache.openaz.xacml.std.StdMutableRequest} directly instead of loading a DOM
+ * <code>Document</code> and walking it. The children of <code>Content</code> elements are kept as serialized
+ * XML in a {@link org.apache.openaz.xacml.std.StdContent}, which builds the DOM tree that
+ * <code>AttributeSelector</code>s evaluate XPath expressions against only when it is first asked for. The
+ * resulting {@link org.apache.openaz.xacml.api.Request} is the same as the one produced by
+ * {@link DOMRequest#newInstance(Node)}, and the same {@link DOMProperties#isLenient()} rules apply.
+ * <p>
+ * An instance holds the state for parsing one document and is confined to the thread doing the parse.
+ */
+public class StAXRequest {
+    private static final Log logger = LogFactory.getLog(StAXRequest.class);
+
+    /*
+     * XMLInputFactory instances are thread-safe once configured, so one is shared by all parses.
+     */
+    private static final XMLInputFactory xmlInputFactory = newXMLInputFactory();
+    private static final XMLOutputFactory xmlOutputFactory = newXMLOutputFactory();
+
+    private final XMLStreamReader reader;
+    private final boolean bLenient;
+    private DataTypeFactory dataTypeFactory;
+
+    /*
+     * The namespace declarations on the Request element and, built only when an XPathExpression value needs
+     * it, a Document holding a copy of the Request element with those declarations.
+     */
+    private final List<String[]> requestNamespaces = new ArrayList<String[]>();
+    private Document documentRequestNamespaces;
+
+    protected StAXRequest(XMLStreamReader readerIn) {
+        this.reader = readerIn;
+        this.bLenient = DOMProperties.isLenient();
+    }
+
+    private static XMLInputFactory newXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    private static XMLOutputFactory newXMLOutputFactory() {
+        XMLOutputFactory factory = XMLOutputFactory.newInstance();
+        factory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+        return factory;
+    }
+
+    /**
+     * Read characters from the given <code>InputStream</code> and parse them into an XACML
+     * {@link org.apache.openaz.xacml.api.Request} object.
+     *
+     * @param is
+     * @return
+     * @throws DOMStructureException
+     */
+    public static Request load(InputStream is) throws DOMStructureException {
+        XMLStreamReader xmlStreamReader = null;
+        try {
+            xmlStreamReader = xmlInputFactory.createXMLStreamReader(is);
+            return new StAXRequest(xmlStreamReader).parseDocument();
+        } catch (Exception ex) {
+            throw new DOMStructureException("Exception loading Request: " + ex.getMessage(), ex);
+        } finally {
+            if (xmlStreamReader != null) {
+                try {
+                    xmlStreamReader.close();
+                } catch (XMLStreamException ex) {
+                    logger.warn("Failed to close XMLStreamReader: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /*
+     * Helpers for the element the reader is positioned on
+     */
+
+    private String getLabel() {
+        String namespaceURI = this.reader.getNamespaceURI();
+        return namespaceURI == null ? this.reader.getLocalName() : namespaceURI + ":"
+                                                                   + this.reader.getLocalName();
+    }
+
+    private boolean isXACMLElement(String localName) {
+        return XACML3.XMLNS.equals(this.reader.getNamespaceURI()) && localName.equals(this.reader.getLocalName());
+    }
+
+    private DOMStructureException newUnexpectedElementException(String parentLabel) {
+        return new DOMStructureException("Unexpected element \"" + this.getLabel() + "\" in \"" + parentLabel
+                                         + "\"");
+    }
+
+    private static DOMStructureException newMissingElementException(String parentLabel, String elementName) {
+        return new DOMStructureException("Missing element \"" + XACML3.XMLNS + ":" + elementName + "\" in \""
+                                         + parentLabel);
+    }
+
+    /**
+     * Handles an element that is not expected at the current position: in lenient mode it is skipped,
+     * otherwise a <code>DOMStructureException</code> is thrown.
+     */
+    private void unexpectedElement(String parentLabel) throws DOMStructureException, XMLStreamException {
+        if (!this.bLenient) {
+            throw this.newUnexpectedElementException(parentLabel);
+        }
+        this.skipElement();
+    }
+
+    private String getAttribute(String localName, boolean bRequired) throws DOMStructureException {
+        String value = this.reader.getAttributeValue(null, localName);
+        if (bRequired && value == null) {
+            throw new DOMStructureException("Missing attribute \"" + localName + "\" in \"" + this.getLabel()
+                                            + "\"");
+        }
+        return value;
+    }
+
+    private Identifier getIdentifierAttribute(String localName, boolean bRequired)
+        throws DOMStructureException {
+        String value = this.getAttribute(localName, bRequired);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return new IdentifierImpl(value);
+        } catch (IllegalArgumentException ex) {
+            throw new DOMStructureException("Invalid Identifier \"" + value + "\" in \"" + this.getLabel()
+                                            + "\"", ex);
+        }
+    }
+
+    private boolean getBooleanAttribute(String localName, boolean bRequired) throws DOMStructureException {
+        String value = this.getAttribute(localName, bRequired);
+        if (value == null) {
+            return false;
+        } else if (value.equals("0") || value.equalsIgnoreCase("false")) {
+            return false;
+        } else if (value.equals("1") || value.equalsIgnoreCase("true")) {
+            return true;
+        } else {
+            throw new DOMStructureException("Illegal Boolean value \"" + value + "\" in \"" + this.getLabel()
+                                            + "\"");
+        }
+    }
+
+    /*
+     * Cursor movement
+     */
+
+    /**
+     * Advances to the next child element of the current element, skipping text, comments and processing
+     * instructions.
+     *
+     * @return <code>true</code> if positioned on a child element, <code>false</code> if positioned on the end
+     *         of the current element
+     */
+    private boolean nextChildElement() throws XMLStreamException {
+        while (true) {
+            int eventType = this.reader.next();
+            if (eventType == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Skips the current element and all of its children, leaving the reader on its end tag.
+     */
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int eventType = this.reader.next();
+            if (eventType == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Gets the concatenated text of the current element and all of its descendants, the same as
+     * {@link org.w3c.dom.Node#getTextContent()}, leaving the reader on its end tag.
+     */
+    private String readTextContent() throws XMLStreamException {
+        StringBuilder stringBuilder = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            switch (this.reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                stringBuilder.append(this.reader.getText());
+                break;
+            default:
+                break;
+            }
+        }
+        return stringBuilder.toString();
+    }
+
+    /*
+     * XACML elements
+     */
+
+    protected Request parseDocument() throws DOMStructureException, XMLStreamException {
+        while (this.reader.hasNext()) {
+            if (this.reader.next() == XMLStreamConstants.START_ELEMENT) {
+                if (!this.isXACMLElement(XACML3.ELEMENT_REQUEST)) {
+                    throw new DOMStructureException("Unexpected element \"" + this.getLabel() + "\"");
+                }
+                return this.parseRequest();
+            }
+        }
+        throw new DOMStructureException("No child in document");
+    }
+
+    protected Request parseRequest() throws DOMStructureException, XMLStreamException {
+        String label = this.getLabel();
+        for (int i = 0; i < this.reader.getNamespaceCount(); i++) {
+            this.requestNamespaces.add(new String[] {
+                this.reader.getNamespacePrefix(i), this.reader.getNamespaceURI(i)
+            });
+        }
+
+        StdMutableRequest stdMutableRequest = new StdMutableRequest();
+        stdMutableRequest.setReturnPolicyIdList(this.getBooleanAttribute(XACML3.ATTRIBUTE_RETURNPOLICYIDLIST,
+                                                                         !this.bLenient));
+        stdMutableRequest.setCombinedDecision(this.getBooleanAttribute(XACML3.ATTRIBUTE_COMBINEDDECISION,
+                                                                       !this.bLenient));
+
+        boolean sawAttributes = false;
+        while (this.nextChildElement()) {
+            if (this.isXACMLElement(XACML3.ELEMENT_ATTRIBUTES)) {
+                stdMutableRequest.add(this.parseRequestAttributes());
+                sawAttributes = true;
+            } else if (this.isXACMLElement(XACML3.ELEMENT_REQUESTDEFAULTS)) {
+                stdMutableRequest.setRequestDefaults(this.parseRequestDefaults());
+            } else if (this.isXACMLElement(XACML3.ELEMENT_MULTIREQUESTS)) {
+                String labelMultiRequests = this.getLabel();
+                while (this.nextChildElement()) {
+                    if (this.isXACMLElement(XACML3.ELEMENT_REQUESTREFERENCE)) {
+                        stdMutableRequest.add(this.parseRequestReference());
+                    } else {
+                        this.unexpectedElement(labelMultiRequests);
+                    }
+                }
+            } else {
+                this.unexpectedElement(label);
+            }
+        }
+        if (!sawAttributes && !this.bLenient) {
+            throw newMissingElementException(label, XACML3.ELEMENT_ATTRIBUTES);
+        }
+
+        return new StdRequest(stdMutableRequest);
+    }
+
+    protected RequestDefaults parseRequestDefaults() throws DOMStructureException, XMLStreamException {
+        String label = this.getLabel();
+        URI uriXPathVersion = null;
+        while (this.nextChildElement()) {
+            if (this.isXACMLElement(XACML3.ELEMENT_XPATHVERSION)) {
+                String labelXPathVersion = this.getLabel();
+                String value = this.readTextContent();
+                try {
+                    uriXPathVersion = new URI(value);
+                } catch (URISyntaxException ex) {
+                    throw new DOMStructureException("Illegal URI value \"" + value + "\" in \""
+                                                    + labelXPathVersion + "\"", ex);
+                }
+            } else {
+                this.unexpectedElement(label);
+            }
+        }
+        return new StdRequestDefaults(uriXPathVersion);
+    }
+
+    protected RequestReference parseRequestReference() throws DOMStructureException, XMLStreamException {
+        String label = this.getLabel();
+        StdMutableRequestReference stdRequestReference = new StdMutableRequestReference();
+        boolean sawAttributesReference = false;
+        while (this.nextChildElement()) {
+            if (this.isXACMLElement(XACML3.ELEMENT_ATTRIBUTESREFERENCE)) {
+                stdRequestReference.add(new StdRequestAttributesReference(this
+                    .getAttribute(XACML3.ATTRIBUTE_REFERENCEID, !this.bLenient)));
+                this.skipElement();
+                sawAttributesReference = true;
+            } else {
+                this.unexpectedElement(label);
+            }
+        }
+        if (!sawAttributesReference && !this.bLenient) {
+            throw newMissingElementException(label, XACML3.ELEMENT_ATTRIBUTESREFERENCE);
+        }
+        return new StdRequestReference(stdRequestReference);
+    }
+
+    protected RequestAttributes parseRequestAttributes() throws DOMStructureException, XMLStreamException {
+        String label = this.getLabel();
+        Identifier identifierCategory = this.getIdentifierAttribute(XACML3.ATTRIBUTE_CATEGORY, !this.bLenient);
+        String xmlId = this.reader.getAttributeValue(XMLConstants.XML_NS_URI, "id");
+        StdContent content = null;
+        List<Attribute> listAttributes = new ArrayList<Attribute>();
+        boolean sawContent = false;
+
+        while (this.nextChildElement()) {
+            if (this.isXACMLElement(XACML3.ELEMENT_CONTENT)) {
+                if (sawContent && !this.bLenient) {
+                    throw this.newUnexpectedElementException(label);
+                }
+                sawContent = true;
+                content = this.parseContent(content);
+            } else if (this.isXACMLElement(XACML3.ELEMENT_ATTRIBUTE)) {
+                listAttributes.add(this.parseAttribute(identifierCategory));
+            } else {
+                this.unexpectedElement(label);
+            }
+        }
+
+        return new StdRequestAttributes(identifierCategory, listAttributes, content, xmlId);
+    }
+
+    /**
+     * Parses a <code>Content</code> element. The single child element is only serialized here; it is parsed
+     * into a DOM tree by {@link org.apache.openaz.xacml.std.StdContent} if and when it is needed.
+     *
+     * @param contentPrevious the content from an earlier <code>Content</code> element (lenient mode only)
+     * @return the <code>StdContent</code> for the content root
+     */
+    protected StdContent parseContent(StdContent contentPrevious) throws DOMStructureException,
+        XMLStreamException {
+        String label = this.getLabel();
+        StdContent content = contentPrevious;
+        while (this.nextChildElement()) {
+            if (content != null) {
+                this.unexpectedElement(label);
+            } else {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(outputStream, "UTF-8");
+                this.copyElement(writer);
+                writer.close();
+                content = new StdContent(outputStream.toByteArray());
+            }
+        }
+        if (content == null && !this.bLenient) {
+            throw new DOMStructureException("Missing content for \"" + label + "\"");
+        }
+        return content;
+    }
+
+    /**
+     * Copies the current element and all of its children to the given <code>XMLStreamWriter</code>, leaving
+     * the reader on the end tag of the element. The writer repairs namespaces, so prefixes declared outside
+     * of the element are declared again where they are used.
+     */
+    private void copyElement(XMLStreamWriter writer) throws XMLStreamException {
+        int depth = 0;
+        do {
+            switch (this.reader.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                writer.writeStartElement(nullToEmpty(this.reader.getPrefix()), this.reader.getLocalName(),
+                                         nullToEmpty(this.reader.getNamespaceURI()));
+                for (int i = 0; i < this.reader.getNamespaceCount(); i++) {
+                    writer.writeNamespace(nullToEmpty(this.reader.getNamespacePrefix(i)),
+                                          nullToEmpty(this.reader.getNamespaceURI(i)));
+                }
+                for (int i = 0; i < this.reader.getAttributeCount(); i++) {
+                    writer.writeAttribute(nullToEmpty(this.reader.getAttributePrefix(i)),
+                                          nullToEmpty(this.reader.getAttributeNamespace(i)),
+                                          this.reader.getAttributeLocalName(i),
+                                          this.reader.getAttributeValue(i));
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                writer.writeEndElement();
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                writer.writeCharacters(this.reader.getText());
+                break;
+            case XMLStreamConstants.CDATA:
+                writer.writeCData(this.reader.getText());
+                break;
+            case XMLStreamConstants.COMMENT:
+                writer.writeComment(this.reader.getText());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                writer.writeProcessingInstruction(this.reader.getPITarget(), this.reader.getPIData());
+                break;
+            default:
+                break;
+            }
+        } while (depth > 0 && this.reader.next() != XMLStreamConstants.END_DOCUMENT);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) {
+            return localName;
+        } else if (localName == null || localName.length() == 0) {
+            return prefix;
+        } else {
+            return prefix + ":" + localName;
+        }
+    }
+
+    protected Attribute parseAttribute(Identifier category) throws DOMStructureException, XMLStreamException {
+        String label = this.getLabel();
+        StdMutableAttribute mutableAttribute = new StdMutableAttribute();
+
+        mutableAttribute.setCategory(category);
+        mutableAttribute.setAttributeId(this.getIdentifierAttribute(XACML3.ATTRIBUTE_ATTRIBUTEID,
+                                                                    !this.bLenient));
+        mutableAttribute.setIssuer(this.getAttribute(XACML3.ATTRIBUTE_ISSUER, false));
+        mutableAttribute.setIncludeInResults(this.getBooleanAttribute(XACML3.ATTRIBUTE_INCLUDEINRESULT,
+                                                                      !this.bLenient));
+
+        boolean sawAttributeValue = false;
+        while (this.nextChildElement()) {
+            if (this.isXACMLElement(XACML3.ELEMENT_ATTRIBUTEVALUE)) {
+                mutableAttribute.addValue(this.parseAttributeValue(category));
+                sawAttributeValue = true;
+            } else {
+                this.unexpectedElement(label);
+            }
+        }
+        if (!sawAttributeValue && !this.bLenient) {
+            throw newMissingElementException(label, XACML3.ELEMENT_ATTRIBUTEVALUE);
+        }
+
+        return new StdAttribute(mutableAttribute);
+    }
+
+    /**
+     * Parses an <code>AttributeValue</code>. As with {@link DOMAttributeValue}, a missing or unknown
+     * <code>DataType</code> is replaced with a known one and a warning is logged.
+     */
+    protected AttributeValue<?> parseAttributeValue(Identifier category) throws DOMStructureException,
+        XMLStreamException {
+        String label = this.getLabel();
+        Identifier identifierDataTypeId = this.getIdentifierAttribute(XACML3.ATTRIBUTE_DATATYPE, false);
+        Identifier identifierXPathCategory = null;
+        try {
+            identifierXPathCategory = this.getIdentifierAttribute(XACML3.ATTRIBUTE_XPATHCATEGORY, false);
+        } catch (DOMStructureException ex) { //NOPMD
+            // ignored, as in DataTypeBase.createAttributeValue
+        }
+        String value = this.readTextContent();
+
+        DataType<?> dataTypeExtended = this.getDataType(identifierDataTypeId);
+        AttributeValue<?> attributeValue = null;
+        try {
+            if (dataTypeExtended.getId().equals(XACML3.ID_DATATYPE_XPATHEXPRESSION)) {
+                attributeValue = dataTypeExtended
+                    .createAttributeValue(new XPathExpressionWrapper(this.getDocumentRequestNamespaces(), value),
+                                          identifierXPathCategory);
+            } else {
+                attributeValue = dataTypeExtended.createAttributeValue(value, identifierXPathCategory);
+            }
+        } catch (DataTypeException ex) {
+            throw new DOMStructureException("Unable to convert \"" + label + "\" to \""
+                                            + dataTypeExtended.getId().toString() + "\"");
+        }
+        if (!this.bLenient && attributeValue != null && attributeValue.getXPathCategory() != null
+            && category != null && !category.equals(attributeValue.getXPathCategory())) {
+            throw new DOMStructureException("AttributeValue XPathCategory does not match "
+                                            + category.stringValue());
+        }
+        return attributeValue;
+    }
+
+    private DataType<?> getDataType(Identifier identifierDataTypeId) throws DOMStructureException {
+        if (this.dataTypeFactory == null) {
+            try {
+                this.dataTypeFactory = DataTypeFactory.newInstance();
+            } catch (FactoryException ex) {
+                throw new DOMStructureException("FactoryException loading DataTypeFactory: "
+                                                + ex.getMessage(), ex);
+            }
+            if (this.dataTypeFactory == null) {
+                throw new DOMStructureException("Failed to get DataTypeFactory");
+            }
+        }
+        DataType<?> dataTypeExtended = identifierDataTypeId == null ? null : this.dataTypeFactory
+            .getDataType(identifierDataTypeId);
+        if (dataTypeExtended == null) {
+            if (XACML.ID_DATATYPE_WD_DAYTIMEDURATION.equals(identifierDataTypeId)) {
+                dataTypeExtended = DataTypes.DT_DAYTIMEDURATION;
+            } else if (XACML.ID_DATATYPE_WD_YEARMONTHDURATION.equals(identifierDataTypeId)) {
+                dataTypeExtended = DataTypes.DT_YEARMONTHDURATION;
+            } else {
+                dataTypeExtended = DataTypes.DT_STRING;
+            }
+            logger.warn("Changing unknown DataType "
+                        + (identifierDataTypeId == null ? "(missing)" : identifierDataTypeId.stringValue())
+                        + " to " + dataTypeExtended.getId().stringValue());
+        }
+        return dataTypeExtended;
+    }
+
+    /**
+     * Gets a <code>Document</code> whose document element carries the namespace declarations of the Request
+     * element, which is what XPathExpression values resolve their prefixes against when the Request is
+     * loaded as a DOM tree.
+     */
+    private Document getDocumentRequestNamespaces() throws DOMStructureException {
+        if (this.documentRequestNamespaces == null) {
+            DocumentBuilder documentBuilder = DOMUtil.getDocumentBuilder();
+            Document document = documentBuilder.newDocument();
+            DOMUtil.releaseDocumentBuilder(documentBuilder);
+            Element elementRequest = document.createElementNS(XACML3.XMLNS, XACML3.ELEMENT_REQUEST);
+            for (String[] namespace : this.requestNamespaces) {
+                elementRequest.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                                              qualifiedName(XMLConstants.XMLNS_ATTRIBUTE, namespace[0]),
+                                              nullToEmpty(namespace[1]));
+            }
+            document.appendChild(elementRequest);
+            this.documentRequestNamespaces = document;
+        }
+        return this.documentRequestNamespaces;
+    }
+
+}
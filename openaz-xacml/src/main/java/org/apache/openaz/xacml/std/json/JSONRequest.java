@@ -34,6 +34,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.math.BigInteger;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -43,6 +44,9 @@ import java.util.Map;
 
 import javax.security.auth.x500.X500Principal;
 import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -65,6 +69,7 @@ import org.apache.openaz.xacml.api.XACML3;
 import org.apache.openaz.xacml.std.IdentifierImpl;
 import org.apache.openaz.xacml.std.StdAttribute;
 import org.apache.openaz.xacml.std.StdAttributeValue;
+import org.apache.openaz.xacml.std.StdContent;
 import org.apache.openaz.xacml.std.StdMutableRequest;
 import org.apache.openaz.xacml.std.StdMutableRequestAttributes;
 import org.apache.openaz.xacml.std.StdMutableRequestReference;
@@ -85,13 +90,14 @@ import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonLocation;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
 /**
  * JSONRequest is used to convert JSON into {@link org.apache.openaz.xacml.api.Request} objects. Instances are
- * only generated by loading a file, string, or InputStream representing the Request.
+ * only generated by loading a file, string, byte array or InputStream representing the Request.
  */
 public class JSONRequest {
     private static final Log logger = LogFactory.getLog(JSONRequest.class);
@@ -151,12 +157,20 @@ public class JSONRequest {
      * used). If anything remains, throw an exception based on the component and the keys left in the map
      */
     private static void checkUnknown(String component, Map<?, ?> map) throws JSONStructureException {
-        if (map.size() == 0) {
+        checkUnknown(component, map.keySet());
+    }
+
+    /**
+     * Check the given collection of member names that were not recognized. If there are any, throw an
+     * exception based on the component and the names.
+     */
+    private static void checkUnknown(String component, Collection<?> names) throws JSONStructureException {
+        if (names.size() == 0) {
             return;
         }
 
         String keys = null;
-        Iterator<?> it = map.keySet().iterator();
+        Iterator<?> it = names.iterator();
         while (it.hasNext()) {
             if (keys == null) {
                 keys = "'" + it.next().toString() + "'";
@@ -165,7 +179,7 @@ public class JSONRequest {
             }
         }
 
-        String message = component + " contains unknown element" + ((map.size() == 1) ? " " : "s ") + keys;
+        String message = component + " contains unknown element" + ((names.size() == 1) ? " " : "s ") + keys;
         throw new JSONStructureException(message);
     }
 
@@ -298,32 +312,87 @@ public class JSONRequest {
     // MAIN PARSING CODE
     //
 
-    /**
-     * Handle a List of Attributes for a Category
-     *
-     * @param categoryID
-     * @param attributes
-     * @param stdMutableRequest
-     * @throws JSONStructureException
+    /*
+     * The shorthand names of the default Categories with their CategoryId. The order of this table is the
+     * order in which the default Categories are added to the Request.
      */
-    private static List<Attribute> parseAttribute(Identifier categoryID, ArrayList<?> attributes)
-        throws JSONStructureException {
-        Iterator<?> iterAttributes = attributes.iterator();
+    private static final String[][] DEFAULT_CATEGORIES = {
+        {
+            "AccessSubject", "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject"
+        },
+        //
+        // Provide backward compatibility for our PEP's
+        //
+        {
+            "Subject", "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject"
+        }, {
+            "Action", "urn:oasis:names:tc:xacml:3.0:attribute-category:action"
+        }, {
+            "Resource", "urn:oasis:names:tc:xacml:3.0:attribute-category:resource"
+        }, {
+            "Environment", "urn:oasis:names:tc:xacml:3.0:attribute-category:environment"
+        }, {
+            "RecipientSubject", "urn:oasis:names:tc:xacml:1.0:subject-category:recipient-subject"
+        }, {
+            "IntermediarySubject", "urn:oasis:names:tc:xacml:1.0:subject-category:intermediary-subject"
+        }, {
+            "Codebase", "urn:oasis:names:tc:xacml:1.0:subject-category:codebase"
+        }, {
+            "RequestingMachine", "urn:oasis:names:tc:xacml:1.0:subject-category:requesting-machine"
+        }
+    };
 
-        List<Attribute> collectedAttributes = new ArrayList<Attribute>();
+    /*
+     * The ObjectMapper is thread-safe once configured, so a single instance is shared by all parses. It is
+     * only used to create JsonParsers and to bind the small objects (Attribute, MultiRequests, XPathExpression
+     * values) that are easier to check as Maps.
+     */
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
 
-        while (iterAttributes.hasNext()) {
-            Map<?, ?> attributeMap = (Map<?, ?>)iterAttributes.next();
-            if (!(attributeMap instanceof Map)) {
-                throw new JSONStructureException("Expect Attribute content to be Map got "
-                                                 + attributeMap.getClass());
+    /*
+     * Used to check that Content is well-formed XML. XMLInputFactory instances are thread-safe once configured.
+     */
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+    static {
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        // TODO - ASSUME that any duplicated component is a bad thing (probably indicating an error in the
+        // incoming JSON)
+        jsonMapper.configure(JsonParser.Feature.STRICT_DUPLICATE_DETECTION, true);
+    }
+
+    /**
+     * Read the JSON value at the current token of the given <code>JsonParser</code>. Simple values are
+     * returned as the same Java types that Jackson uses when binding untyped values, arrays as Lists and
+     * objects as Maps.
+     *
+     * @param parser
+     * @return
+     * @throws IOException
+     */
+    private static Object readValue(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+        case VALUE_STRING:
+            return parser.getText();
+        case VALUE_NUMBER_INT:
+            return parser.getNumberValue();
+        case VALUE_NUMBER_FLOAT:
+            return parser.getDoubleValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case START_ARRAY:
+            List<Object> list = new ArrayList<Object>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                list.add(readValue(parser));
             }
-            Attribute attribute = parseAttribute(categoryID, attributeMap);
-            collectedAttributes.add(attribute);
+            return list;
+        case START_OBJECT:
+            return jsonMapper.readValue(parser, Map.class);
+        default:
+            return null;
         }
-
-        // return list of all attributes for this Category
-        return collectedAttributes;
     }
 
     /**
@@ -331,7 +400,6 @@ public class JSONRequest {
      *
      * @param categoryID
      * @param attributeMap
-     * @param stdMutableRequest
      * @return
      * @throws JSONStructureException
      */
@@ -373,7 +441,11 @@ public class JSONRequest {
             throw new JSONStructureException("Attribute missing Value");
         }
 
-        String Issuer = (String)attributeMap.remove("Issuer");
+        Object issuerObject = attributeMap.remove("Issuer");
+        if (issuerObject != null && !(issuerObject instanceof String)) {
+            throw new JSONStructureException("Issuer must be String, got " + issuerObject.getClass());
+        }
+        String Issuer = (String)issuerObject;
 
         Object includeInResultObject = attributeMap.remove("IncludeInResult");
         Boolean includeInResult = makeBoolean(includeInResultObject, "IncludeInResult");
@@ -560,18 +632,12 @@ public class JSONRequest {
     }
 
     /**
-     * Convert the contents of a Content element from XML into XML Node
+     * Undo the escaping of the contents of a Content element and encode them as UTF-8.
      *
      * @param xmlContent
-     * @return Node
-     * @throws Exception
+     * @return the bytes of the XML
      */
-    public static Node parseXML(String xmlContent) throws JSONStructureException {
-
-        if (xmlContent == null || xmlContent.length() == 0) {
-            return null;
-        }
-
+    private static byte[] unescapeXML(String xmlContent) {
         //
         // First of all, the String is possible escaped.
         //
@@ -579,10 +645,58 @@ public class JSONRequest {
         //
         String unescapedContent = xmlContent.replace("\\\"", "\"");
         unescapedContent = unescapedContent.replace("\\\\", "\\");
+        return unescapedContent.getBytes(StandardCharsets.UTF_8);
+    }
 
-        // logger.info("Escaped content: \n" + unescapedContent);
+    /**
+     * Check that the contents of a Content element are well-formed XML, without building a DOM, and keep
+     * them to be parsed into an XML Node when they are first used.
+     *
+     * @param xmlContent
+     * @return StdContent
+     * @throws JSONStructureException
+     */
+    private static StdContent deferXML(String xmlContent) throws JSONStructureException {
+
+        if (xmlContent == null || xmlContent.length() == 0) {
+            return null;
+        }
 
-        try (InputStream is = new ByteArrayInputStream(unescapedContent.getBytes("UTF-8"))) {
+        byte[] xmlBytes = unescapeXML(xmlContent);
+        XMLStreamReader xmlStreamReader = null;
+        try {
+            xmlStreamReader = xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(xmlBytes));
+            while (xmlStreamReader.hasNext()) {
+                xmlStreamReader.next();
+            }
+        } catch (XMLStreamException ex) {
+            throw new JSONStructureException("Unable to parse Content '" + xmlContent + "'");
+        } finally {
+            if (xmlStreamReader != null) {
+                try {
+                    xmlStreamReader.close();
+                } catch (XMLStreamException ex) {
+                    logger.warn("Failed to close XMLStreamReader: " + ex.getMessage());
+                }
+            }
+        }
+        return new StdContent(xmlBytes);
+    }
+
+    /**
+     * Convert the contents of a Content element from XML into XML Node
+     *
+     * @param xmlContent
+     * @return Node
+     * @throws Exception
+     */
+    public static Node parseXML(String xmlContent) throws JSONStructureException {
+
+        if (xmlContent == null || xmlContent.length() == 0) {
+            return null;
+        }
+
+        try (InputStream is = new ByteArrayInputStream(unescapeXML(xmlContent))) {
             Document doc = DOMUtil.loadDocument(is);
             if (doc != null) {
                 return doc.getDocumentElement();
@@ -594,17 +708,113 @@ public class JSONRequest {
     }
 
     /**
-     * Helper to parse all components of one Category or default Category
+     * Convert the value of a Content member into a {@link org.apache.openaz.xacml.std.StdContent}. The
+     * Content is either Base64 encoded or escaped XML. It is checked here for being well-formed, but is only
+     * parsed into an XML Node if a policy needs it.
      *
-     * @param categoryMap
-     * @param request
+     * @param content
+     * @param categoryName
+     * @return Node
+     * @throws JSONStructureException
      */
-    private static void parseCategory(Map<?, ?> categoryMap, String categoryName,
-                                      Identifier defaultCategoryId, StdMutableRequest stdMutableRequest)
-        throws JSONStructureException {
+    private static StdContent parseContent(Object content, String categoryName) throws JSONStructureException {
+        if (content == null) {
+            return null;
+        }
+        if (!(content instanceof String)) {
+            throw new JSONStructureException("Category '" + categoryName
+                                             + "' Unable to determine what Content is " + content.getClass());
+        }
+        //
+        // Is it Base64 Encoded?
+        //
+        if (Base64.isBase64(((String)content).getBytes())) {
+            //
+            // Attempt to decode it
+            //
+            byte[] realContent = Base64.decodeBase64((String)content);
+            //
+            // Now what is it? JSON or XML? Should be XML.
+            //
+            try {
+                return deferXML(new String(realContent, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new JSONStructureException("Category '" + categoryName
+                                                 + "' Unsupported encoding in Content");
+            }
+        }
+        //
+        // No, so what is it? Should be XML escaped
+        //
+        return deferXML((String)content);
+    }
+
+    /**
+     * Read the Attribute member of a Category, which may be either a single object or an array of objects.
+     * The objects are only collected here because the CategoryId they belong to may follow them.
+     *
+     * @param parser
+     * @param categoryName
+     * @param attributeMaps
+     * @throws IOException
+     * @throws JSONStructureException
+     */
+    private static void parseAttributes(JsonParser parser, String categoryName, List<Map<?, ?>> attributeMaps)
+        throws IOException, JSONStructureException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            attributeMaps.add(jsonMapper.readValue(parser, Map.class));
+        } else if (token == JsonToken.START_ARRAY) {
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JSONStructureException("Expect Attribute content to be Map got " + token);
+                }
+                attributeMaps.add(jsonMapper.readValue(parser, Map.class));
+            }
+        } else if (token != JsonToken.VALUE_NULL) {
+            throw new JSONStructureException("Category '" + categoryName + "' saw unexpected Attribute "
+                                             + token);
+        }
+    }
+
+    /**
+     * Helper to parse all components of one Category or default Category. The parser must be positioned at
+     * the start of the Category object and is left at its end.
+     *
+     * @param parser
+     * @param categoryName
+     * @param defaultCategoryId
+     * @return
+     * @throws IOException
+     * @throws JSONStructureException
+     */
+    private static StdMutableRequestAttributes parseCategory(JsonParser parser, String categoryName,
+                                                             Identifier defaultCategoryId)
+        throws IOException, JSONStructureException {
+        Object categoryIDString = null;
+        Object xmlId = null;
+        Object content = null;
+        List<Map<?, ?>> attributeMaps = new ArrayList<Map<?, ?>>();
+        List<String> unknownMembers = new ArrayList<String>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String memberName = parser.getCurrentName();
+            parser.nextToken();
+            if ("CategoryId".equals(memberName)) {
+                categoryIDString = readValue(parser);
+            } else if ("Id".equals(memberName)) {
+                xmlId = readValue(parser);
+            } else if ("Attribute".equals(memberName)) {
+                parseAttributes(parser, categoryName, attributeMaps);
+            } else if ("Content".equals(memberName)) {
+                content = readValue(parser);
+            } else {
+                unknownMembers.add(memberName);
+                parser.skipChildren();
+            }
+        }
 
         Identifier categoryId = defaultCategoryId;
-        Object categoryIDString = ((Map<?, ?>)categoryMap).remove("CategoryId");
         if (categoryIDString == null && defaultCategoryId == null) {
             throw new JSONStructureException("Category is missing CategoryId");
         }
@@ -624,192 +834,298 @@ public class JSONRequest {
                                              + "'");
         }
 
-        // get the Id, a.k.a xmlId
-        String xmlId = (String)((Map<?, ?>)categoryMap).remove("Id");
-
-        // get the Attributes for this Category, if any
-        List<Attribute> attributeList = new ArrayList<Attribute>();
-        Object attributesMap = ((Map<?, ?>)categoryMap).remove("Attribute");
-        if (attributesMap != null) {
-            if (attributesMap instanceof ArrayList) {
-                attributeList = parseAttribute(categoryId, (ArrayList<?>)attributesMap);
-            } else if (attributesMap instanceof Map) {
-                // underlying code expects only collections of Attributes, so create a collection of one to
-                // pass this single value
-                ArrayList<Map<?, ?>> listForOne = new ArrayList<Map<?, ?>>();
-                listForOne.add((Map<?, ?>)attributesMap);
-                attributeList = parseAttribute(categoryId, listForOne);
-            } else {
-                throw new JSONStructureException("Category '" + categoryName
-                                                 + "' saw unexpected Attribute class "
-                                                 + attributesMap.getClass());
-            }
+        // the Id, a.k.a xmlId
+        if (xmlId != null && !(xmlId instanceof String)) {
+            throw new JSONStructureException("Expect '" + categoryName + "' Id to be String got "
+                                             + xmlId.getClass());
         }
 
-        // Get the Content node for this Category, if any
-        Node contentRootNode = null;
-        Object content = categoryMap.remove("Content");
-        if (content != null) {
-            if (content instanceof String) {
-                //
-                // Is it Base64 Encoded?
-                //
-                if (Base64.isBase64(((String)content).getBytes())) {
-                    //
-                    // Attempt to decode it
-                    //
-                    byte[] realContent = Base64.decodeBase64((String)content);
-                    //
-                    // Now what is it? JSON or XML? Should be XML.
-                    //
-                    try {
-                        contentRootNode = parseXML(new String(realContent, "UTF-8"));
-                    } catch (UnsupportedEncodingException e) {
-                        throw new JSONStructureException("Category '" + categoryName
-                                                         + "' Unsupported encoding in Content");
-                    }
-                } else {
-                    //
-                    // No, so what is it? Should be XML escaped
-                    //
-                    contentRootNode = parseXML((String)content);
-                }
-            } else if (content instanceof byte[]) {
-                //
-                // Should be Base64
-                //
-                if (Base64.isBase64(((String)content).getBytes())) {
-                    //
-                    // Attempt to decode it
-                    //
-                    byte[] realContent = Base64.decodeBase64((String)content);
-                    //
-                    // Now what is it? JSON or XML? Should be XML.
-                    //
-                    try {
-                        contentRootNode = parseXML(new String(realContent, "UTF-8"));
-                    } catch (UnsupportedEncodingException e) {
-                        throw new JSONStructureException("Category '" + categoryName
-                                                         + "' Unsupported encoding in Content");
-                    }
-                } else {
-                    throw new JSONStructureException("Category '" + categoryName
-                                                     + "' Content expected Base64 value");
-                }
-            } else {
-                throw new JSONStructureException("Category '" + categoryName
-                                                 + "' Unable to determine what Content is "
-                                                 + content.getClass());
-            }
+        // the Attributes for this Category, if any
+        List<Attribute> attributeList = new ArrayList<Attribute>();
+        for (Map<?, ?> attributeMap : attributeMaps) {
+            attributeList.add(parseAttribute(categoryId, attributeMap));
         }
 
-        checkUnknown(categoryName, categoryMap);
-
-        StdMutableRequestAttributes attributeCategory = new StdMutableRequestAttributes(categoryId,
-                                                                                        attributeList,
-                                                                                        contentRootNode,
-                                                                                        xmlId);
+        // the Content for this Category, if any
+        StdContent stdContent = parseContent(content, categoryName);
 
-        stdMutableRequest.add(attributeCategory);
+        checkUnknown(categoryName, unknownMembers);
 
+        return new StdMutableRequestAttributes(categoryId, attributeList, stdContent, (String)xmlId);
     }
 
     /**
      * Load the "Default Category" objects, if any. This is used for the special cases of AccessSubject,
-     * Action, Resource, and Environment
+     * Action, Resource, and Environment. The contents may be either a single object or an array of objects
+     * for Multiple Decisions.
      *
-     * @param jsonRequestMap
+     * @param parser
      * @param categoryName
      * @param categoryIdString
-     * @param stdMutableRequest
+     * @param categories
+     * @throws IOException
      * @throws JSONStructureException
      */
-    private static void parseDefaultCategory(Map<?, ?> jsonRequestMap, String categoryName,
-                                             String categoryIdString, StdMutableRequest stdMutableRequest)
-        throws JSONStructureException {
-        Object categoryMap = jsonRequestMap.remove(categoryName);
-        if (categoryMap != null) {
-            Identifier defaultIdentifier = new IdentifierImpl(categoryIdString);
-            // The contents may be either a single item (whose attributes are in a Map)
-            // or a list of items
-            if (categoryMap instanceof Map) {
-                // default category contains a single object
-                parseCategory((Map<?, ?>)categoryMap, categoryName, defaultIdentifier, stdMutableRequest);
-            } else if (categoryMap instanceof List) {
-                // Array (for Multiple Decision) of this default category - create separate element for each
-                // item in list using same CategoryId for all
-                List<?> categoryList = (List<?>)categoryMap;
-                for (Object subCategory : categoryList) {
-                    if (!(subCategory instanceof Map)) {
-                        throw new JSONStructureException(
-                                                         categoryName
-                                                             + " array can only contain objects within curly braces");
-                    }
-                    parseCategory((Map<?, ?>)subCategory, categoryName, defaultIdentifier, stdMutableRequest);
+    private static void parseDefaultCategory(JsonParser parser, String categoryName, String categoryIdString,
+                                             List<StdMutableRequestAttributes> categories)
+        throws IOException, JSONStructureException {
+        Identifier defaultIdentifier = new IdentifierImpl(categoryIdString);
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            // default category contains a single object
+            categories.add(parseCategory(parser, categoryName, defaultIdentifier));
+        } else if (token == JsonToken.START_ARRAY) {
+            // Array (for Multiple Decision) of this default category - create separate element for each
+            // item in list using same CategoryId for all
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JSONStructureException(categoryName
+                                                     + " array can only contain objects within curly braces");
                 }
-            } else {
-                // do not understand this
-                throw new JSONStructureException(
-                                                 categoryName
-                                                     + " must have one object contained within curly braces ({}) or an array of objects ([{}{}])");
+                categories.add(parseCategory(parser, categoryName, defaultIdentifier));
             }
+        } else if (token != JsonToken.VALUE_NULL) {
+            // do not understand this
+            throw new JSONStructureException(
+                                             categoryName
+                                                 + " must have one object contained within curly braces ({}) or an array of objects ([{}{}])");
         }
-
     }
 
-    //
-    // Primary interface methods
-    //
-
     /**
-     * Parse and JSON string into a {@link org.apache.openaz.xacml.api.Request} object.
+     * Add the RequestReferences of a MultiRequests object to the Request.
      *
-     * @param jsonString
-     * @return
+     * @param multiRequests
+     * @param stdMutableRequest
      * @throws JSONStructureException
      */
-    public static Request load(String jsonString) throws JSONStructureException {
-        Request request = null;
-        try (InputStream is = new ByteArrayInputStream(jsonString.getBytes("UTF-8"))) {
-            request = JSONRequest.load(is);
-        } catch (Exception ex) {
-            throw new JSONStructureException("Exception loading String Request: " + ex.getMessage(), ex);
+    private static void parseMultiRequests(Map<?, ?> multiRequests, StdMutableRequest stdMutableRequest)
+        throws JSONStructureException {
+        Object requestReferenceListObject = multiRequests.remove("RequestReference");
+        if (requestReferenceListObject == null) {
+            throw new JSONStructureException("MultiRequest must contain a RequestReference element");
+        }
+        if (!(requestReferenceListObject instanceof List)) {
+            throw new JSONStructureException("MultiRequest RequestReference must be an array");
+        }
+        List<?> requestReferenceList = (List<?>)requestReferenceListObject;
+        if (requestReferenceList.size() < 1) {
+            throw new JSONStructureException(
+                                             "MultiRequest must contain at least one element in the RequestReference list");
+        }
+
+        checkUnknown("MultiRequest", multiRequests);
+
+        for (Object requestReferenceMapObject : requestReferenceList) {
+            if (!(requestReferenceMapObject instanceof Map)) {
+                throw new JSONStructureException("MultiRequest RequestReference must be object");
+            }
+            Map<?, ?> requestReferenceMap = (Map<?, ?>)requestReferenceMapObject;
+
+            // each object within the list must contain a ReferenceId and only a ReferenceId
+            Object referenceIdListObject = requestReferenceMap.remove("ReferenceId");
+            if (referenceIdListObject == null) {
+                throw new JSONStructureException(
+                                                 "MultiRequest RequestReference list element must contain ReferenceId");
+            }
+            if (!(referenceIdListObject instanceof List)) {
+                throw new JSONStructureException("MultiRequest RequestReference ReferenceId must be an array");
+            }
+            List<?> referenceIdList = (List<?>)referenceIdListObject;
+            if (referenceIdList.size() == 0) {
+                // the spec does not disallow empty list RequestReference objects
+                continue;
+            }
+
+            checkUnknown("RequestReference", requestReferenceMap);
+
+            // create reference corresponding to RequestReference list element
+            StdMutableRequestReference requestReference = new StdMutableRequestReference();
+
+            for (Object referenceId : referenceIdList) {
+                if (!(referenceId instanceof String)) {
+                    throw new JSONStructureException("MultiRequest ReferenceId must be String, got "
+                                                     + referenceId);
+                }
+                // add attributes to the reference
+                // Since the order of the JSON is not constrained, we could process this section
+                // before the section containing attribute being referenced,
+                // so we cannot do a cross-check here to verify that the attribute reference exists.
+                // That will happen later when the PDP attempts to find the attribute.
+                StdRequestAttributesReference requestAttributesReference = new StdRequestAttributesReference(
+                                                                                                             (String)referenceId);
+                requestReference.add(requestAttributesReference);
+            }
+            stdMutableRequest.add(requestReference);
         }
-        return request;
     }
 
     /**
-     * Read a file containing the JSON description of a XACML Request and parse it into a
-     * {@link org.apache.openaz.xacml.api.Request} Object. This is only used for testing. In normal operation a
-     * Request arrives through the RESTful interface and is processed using
-     * <code>load(String jsonString)</code>.
+     * Parse the members of the Request object. The parser must be positioned at the start of the Request
+     * object and is left at its end.
      *
-     * @param fileRequest
-     * @return
+     * @param parser
+     * @param stdMutableRequest
+     * @throws IOException
      * @throws JSONStructureException
      */
-    public static Request load(File fileRequest) throws JSONStructureException {
-        Request request = null;
-        try (FileInputStream fis = new FileInputStream(fileRequest)) {
-            request = JSONRequest.load(fis);
-        } catch (Exception ex) {
-            throw new JSONStructureException("Exception loading File Request: " + ex.getMessage(), ex);
+    private static void parseRequest(JsonParser parser, StdMutableRequest stdMutableRequest)
+        throws IOException, JSONStructureException {
+
+        // TODO - ASSUME that order of members within an object does not matter (Different from XML, in JSON
+        // everything is handled as Maps so order does not matter)
+
+        //
+        // The Categories are collected as they are seen and added to the Request in a fixed order at the end:
+        // first the Category list, then each of the default Shorthand Categories.
+        //
+        List<StdMutableRequestAttributes> categories = new ArrayList<StdMutableRequestAttributes>();
+        Map<String, List<StdMutableRequestAttributes>> defaultCategories = new HashMap<String, List<StdMutableRequestAttributes>>();
+        Object returnPolicyIdList = null;
+        Object combinedDecision = null;
+        Object xPath = null;
+        List<String> unknownMembers = new ArrayList<String>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String memberName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            String[] defaultCategory = null;
+            for (String[] category : DEFAULT_CATEGORIES) {
+                if (category[0].equals(memberName)) {
+                    defaultCategory = category;
+                    break;
+                }
+            }
+            if ("Category".equals(memberName)) {
+                //
+                // Is there a Category?
+                //
+                if (token == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                if (token != JsonToken.START_ARRAY) {
+                    throw new JSONStructureException("Category must contain list of objects, not '" + token
+                                                     + "'");
+                }
+                //
+                // Iterate each Category
+                //
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new JSONStructureException(
+                                                         "Category list must contain objects contained within curly braces ({})");
+                    }
+                    categories.add(parseCategory(parser, "Category", null));
+                }
+            } else if (defaultCategory != null) {
+                //
+                // A default Shorthand Category. This may be either a single instance or an array, which
+                // allows multiple decisions to work with the Default Category objects.
+                // Example:
+                // "AccessSubject" : [ {attributes group one},
+                // {attributes group two}
+                // ]
+                //
+                List<StdMutableRequestAttributes> defaultCategoryList = new ArrayList<StdMutableRequestAttributes>();
+                parseDefaultCategory(parser, defaultCategory[0], defaultCategory[1], defaultCategoryList);
+                defaultCategories.put(defaultCategory[0], defaultCategoryList);
+            } else if ("MultiRequests".equals(memberName)) {
+                //
+                // MultiRequest
+                //
+                if (token == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JSONStructureException(
+                                                     "MultiRequests must be object structure, not single value");
+                }
+                parseMultiRequests(jsonMapper.readValue(parser, Map.class), stdMutableRequest);
+            } else if ("ReturnPolicyIdList".equals(memberName)) {
+                returnPolicyIdList = readValue(parser);
+            } else if ("CombinedDecision".equals(memberName)) {
+                combinedDecision = readValue(parser);
+            } else if ("XPathVersion".equals(memberName)) {
+                xPath = readValue(parser);
+            } else {
+                unknownMembers.add(memberName);
+                parser.skipChildren();
+            }
         }
-        return request;
+
+        for (StdMutableRequestAttributes category : categories) {
+            stdMutableRequest.add(category);
+        }
+        for (String[] defaultCategory : DEFAULT_CATEGORIES) {
+            List<StdMutableRequestAttributes> defaultCategoryList = defaultCategories.get(defaultCategory[0]);
+            if (defaultCategoryList != null) {
+                for (StdMutableRequestAttributes category : defaultCategoryList) {
+                    stdMutableRequest.add(category);
+                }
+            }
+        }
+
+        //
+        // ReturnPolicyIdList
+        //
+        // If omitted this is set to a default of false by the StdMutableRequest constructor.
+        //
+        Boolean returnPolicyIdListBoolean = makeBoolean(returnPolicyIdList, "ReturnPolicyIdList");
+        if (returnPolicyIdList != null) {
+            stdMutableRequest.setReturnPolicyIdList(returnPolicyIdListBoolean);
+        }
+
+        //
+        // CombinedDecision
+        //
+        // If omitted this is set to a default of false by the StdMutableRequest constructor.
+        //
+        Boolean combinedDecisionBoolean = makeBoolean(combinedDecision, "CombinedDecision");
+        if (combinedDecision != null) {
+            stdMutableRequest.setCombinedDecision(combinedDecisionBoolean);
+        }
+
+        //
+        // XPath
+        //
+
+        // The JSON spec says that this has a default value, implying that if it is missing in the Request
+        // we should fill it in.
+        // However the XML (DOM) version does not do that. If the value is missing it leaves the
+        // requestDefaults object blank.
+        // We are following the XML approach and ignoring the Default value for this field in the spec.
+
+        // TODO - Assume that no value for XPathVersion means "leave as null", not "fill in the default
+        // value from spec. This violates the JSON spec
+        if (xPath != null) {
+            // XPath is given in the JSON input
+            if (!(xPath instanceof String)) {
+                throw new JSONStructureException("XPathVersion not a URI passed as a String");
+            }
+            URI xPathUri = null;
+            try {
+                xPathUri = new URI(xPath.toString());
+            } catch (Exception e) {
+                throw new JSONStructureException("XPathVersion not a valid URI: '" + xPath + "'", e);
+            }
+
+            StdRequestDefaults requestDefaults = new StdRequestDefaults(xPathUri);
+            stdMutableRequest.setRequestDefaults(requestDefaults);
+        }
+
+        checkUnknown("Request", unknownMembers);
     }
 
     /**
-     * Read characters from the given <code>InputStream</code> and parse them into an XACML
-     * {@link org.apache.openaz.xacml.api.Request} object.
+     * Parse the JSON read through the given <code>JsonParser</code> into an XACML
+     * {@link org.apache.openaz.xacml.api.Request} object. The input is processed as a stream of tokens, it is
+     * never held in memory as a whole.
      *
-     * @param is
+     * @param parser
      * @return
      * @throws JSONStructureException
      */
-    public static Request load(InputStream is) throws JSONStructureException {
-
-        // TODO - ASSUME that order of members within an object does not matter (Different from XML, in JSON
-        // everything is handled as Maps so order does not matter)
+    private static Request load(JsonParser parser) throws JSONStructureException {
 
         // ensure shorthand map is set up
         if (shorthandMap == null) {
@@ -829,265 +1145,49 @@ public class JSONRequest {
         }
 
         // create a new Request object to be filled in
-        StdMutableRequest stdMutableRequest = null;
+        StdMutableRequest stdMutableRequest = new StdMutableRequest();
 
-        String json = null;
-        ObjectMapper mapper = null;
         try {
-
-            // read the inputStream into a buffer (trick found online scans entire input looking for
-            // end-of-file)
-            java.util.Scanner scanner = new java.util.Scanner(is);
-            scanner.useDelimiter("\\A");
-            json = scanner.hasNext() ? scanner.next() : "";
-            scanner.close();
-
-            mapper = new ObjectMapper().setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
-
-            // TODO - ASSUME that any duplicated component is a bad thing (probably indicating an error in the
-            // incoming JSON)
-            mapper.configure(JsonParser.Feature.STRICT_DUPLICATE_DETECTION, true);
-
-            Map<?, ?> root = mapper.readValue(json, Map.class);
-
-            //
-            // Does the request exist?
-            //
-            Map<?, ?> jsonRequestMap = (Map<?, ?>)root.remove("Request");
-            if (jsonRequestMap == null) {
-                throw new JSONStructureException("No \"Request\" property found.");
-            }
-
-            checkUnknown("Top-level message", root);
-
-            stdMutableRequest = new StdMutableRequest();
-
-            //
-            // Is there a Category?
-            //
-            Object categoryList = jsonRequestMap.remove("Category");
-            if (categoryList != null && !(categoryList instanceof List)) {
-                throw new JSONStructureException("Category must contain list of objects, not '"
-                                                 + categoryList.getClass() + "'");
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JSONStructureException("Top-level message must be a JSON object");
             }
-            if (categoryList != null) {
-                //
-                // Iterate each Category
-                //
-                Iterator<?> iter = ((List<?>)categoryList).iterator();
-                while (iter.hasNext()) {
-                    Object category = iter.next();
-                    if (!(category instanceof Map)) {
-                        throw new JSONStructureException(
-                                                         "Category list must contain objects contained within curly braces ({})");
-                    }
-
-                    parseCategory((Map<?, ?>)category, "Category", null, stdMutableRequest);
-
-                }
-            }
-
-            // The following may be either a single instance or an array. This allows multiple decisions to
-            // work with the Default Category objects.
-            // Example:
-            // "AccessSubject" : [ {attributes group one},
-            // {attributes group two}
-            // ]
-
-            //
-            // Look for default Shorthand AccessSubject
-            //
-            parseDefaultCategory(jsonRequestMap, "AccessSubject",
-                                 "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject",
-                                 stdMutableRequest);
-            //
-            // Provide backward compatibility for our PEP's
-            //
-            parseDefaultCategory(jsonRequestMap, "Subject",
-                                 "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject",
-                                 stdMutableRequest);
-
-            //
-            // Look for default Shorthand Action
-            //
-            parseDefaultCategory(jsonRequestMap, "Action",
-                                 "urn:oasis:names:tc:xacml:3.0:attribute-category:action", stdMutableRequest);
-
-            //
-            // Look for default Shorthand Resource
-            //
-            parseDefaultCategory(jsonRequestMap, "Resource",
-                                 "urn:oasis:names:tc:xacml:3.0:attribute-category:resource",
-                                 stdMutableRequest);
-
-            //
-            // Look for default Shorthand Environment
-            //
-            parseDefaultCategory(jsonRequestMap, "Environment",
-                                 "urn:oasis:names:tc:xacml:3.0:attribute-category:environment",
-                                 stdMutableRequest);
-
-            //
-            // Look for default Shorthand RecipientSubject
-            //
-            parseDefaultCategory(jsonRequestMap, "RecipientSubject",
-                                 "urn:oasis:names:tc:xacml:1.0:subject-category:recipient-subject",
-                                 stdMutableRequest);
-
-            //
-            // Look for default Shorthand IntermediarySubject
-            //
-            parseDefaultCategory(jsonRequestMap, "IntermediarySubject",
-                                 "urn:oasis:names:tc:xacml:1.0:subject-category:intermediary-subject",
-                                 stdMutableRequest);
-
-            //
-            // Look for default Shorthand Codebase
-            //
-            parseDefaultCategory(jsonRequestMap, "Codebase",
-                                 "urn:oasis:names:tc:xacml:1.0:subject-category:codebase", stdMutableRequest);
-
-            //
-            // Look for default Shorthand RequestingMachine
-            //
-            parseDefaultCategory(jsonRequestMap, "RequestingMachine",
-                                 "urn:oasis:names:tc:xacml:1.0:subject-category:requesting-machine",
-                                 stdMutableRequest);
-
-            //
-            // MultiRequest
-            //
-            Map<?, ?> multiRequests = (Map<?, ?>)jsonRequestMap.remove("MultiRequests");
-            if (multiRequests != null) {
-                if (!(multiRequests instanceof Map)) {
-                    throw new JSONStructureException(
-                                                     "MultiRequests must be object structure, not single value");
-                }
 
-                List<?> requestReferenceList = (List<?>)multiRequests.remove("RequestReference");
-                if (requestReferenceList == null) {
-                    throw new JSONStructureException("MultiRequest must contain a RequestReference element");
+            boolean foundRequest = false;
+            List<String> unknownMembers = new ArrayList<String>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String memberName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (!"Request".equals(memberName)) {
+                    unknownMembers.add(memberName);
+                    parser.skipChildren();
+                } else if (token == JsonToken.START_OBJECT) {
+                    parseRequest(parser, stdMutableRequest);
+                    foundRequest = true;
+                } else if (token != JsonToken.VALUE_NULL) {
+                    throw new JSONStructureException("\"Request\" must be an object, not '" + token + "'");
                 }
-                if (requestReferenceList.size() < 1) {
-                    throw new JSONStructureException(
-                                                     "MultiRequest must contain at least one element in the RequestReference list");
-                }
-
-                checkUnknown("MultiRequest", multiRequests);
-
-                for (Object requestReferenceMapObject : requestReferenceList) {
-                    if (!(requestReferenceMapObject instanceof Map)) {
-                        throw new JSONStructureException("MultiRequest RequestReference must be object");
-                    }
-                    Map<?, ?> requestReferenceMap = (Map<?, ?>)requestReferenceMapObject;
-
-                    // each object within the list must contain a ReferenceId and only a ReferenceId
-                    Object referenceIdListObject = requestReferenceMap.remove("ReferenceId");
-                    if (referenceIdListObject == null) {
-                        throw new JSONStructureException(
-                                                         "MultiRequest RequestReference list element must contain ReferenceId");
-                    }
-                    List<?> referenceIdList = (List<?>)referenceIdListObject;
-                    if (referenceIdList.size() == 0) {
-                        // the spec does not disallow empty list RequestReference objects
-                        continue;
-                    }
-
-                    checkUnknown("RequestReference", requestReferenceMap);
-
-                    // create reference corresponding to RequestReference list element
-                    StdMutableRequestReference requestReference = new StdMutableRequestReference();
-
-                    for (Object referenceId : referenceIdList) {
-                        // add attributes to the reference
-                        // Since the order of the JSON is not constrained, we could process this section
-                        // before the section containing attribute being referenced,
-                        // so we cannot do a cross-check here to verify that the attribute reference exists.
-                        // That will happen later when the PDP attempts to find the attribute.
-                        StdRequestAttributesReference requestAttributesReference = new StdRequestAttributesReference(
-                                                                                                                     (String)referenceId);
-                        requestReference.add(requestAttributesReference);
-                    }
-                    stdMutableRequest.add(requestReference);
-                }
-            }
-
-            //
-            // ReturnPolicyIdList
-            //
-            // If omitted this is set to a default of false by the StdMutableRequest constructor.
-            //
-            Object returnPolicyIdList = jsonRequestMap.remove("ReturnPolicyIdList");
-            Boolean returnPolicyIdListBoolean = makeBoolean(returnPolicyIdList, "ReturnPolicyIdList");
-            if (returnPolicyIdList != null) {
-                stdMutableRequest.setReturnPolicyIdList(returnPolicyIdListBoolean);
             }
 
             //
-            // CombinedDecision
-            //
-            // If omitted this is set to a default of false by the StdMutableRequest constructor.
-            //
-            Object combinedDecision = jsonRequestMap.remove("CombinedDecision");
-            Boolean combinedDecisionBoolean = makeBoolean(combinedDecision, "CombinedDecision");
-            if (combinedDecision != null) {
-                stdMutableRequest.setCombinedDecision(combinedDecisionBoolean);
-            }
-
-            //
-            // XPath
+            // Does the request exist?
             //
-
-            // The JSON spec says that this has a default value, implying that if it is missing in the Request
-            // we should fill it in.
-            // However the XML (DOM) version does not do that. If the value is missing it leaves the
-            // requestDefaults object blank.
-            // We are following the XML approach and ignoring the Default value for this field in the spec.
-
-            // TODO - Assume that no value for XPathVersion means "leave as null", not "fill in the default
-            // value from spec. This violates the JSON spec
-            Object xPath = jsonRequestMap.remove("XPathVersion");
-            if (xPath != null) {
-                // XPath is given in the JSON input
-                if (!(xPath instanceof String)) {
-                    throw new JSONStructureException("XPathVersion not a URI passed as a String");
-                }
-                URI xPathUri = null;
-                try {
-                    xPathUri = new URI(xPath.toString());
-                } catch (Exception e) {
-                    throw new JSONStructureException("XPathVersion not a valid URI: '" + xPath + "'", e);
-                }
-
-                StdRequestDefaults requestDefaults = new StdRequestDefaults(xPathUri);
-                stdMutableRequest.setRequestDefaults(requestDefaults);
+            if (!foundRequest) {
+                throw new JSONStructureException("No \"Request\" property found.");
             }
 
-            checkUnknown("Request", jsonRequestMap);
+            checkUnknown("Top-level message", unknownMembers);
 
         } catch (JsonParseException e) {
             // try to point to problem area in JSON input, if possible
             JsonLocation location = e.getLocation();
             String locationOfError = "(unavailable)";
             if (location != null && location != JsonLocation.NA) {
-                String jsonText = json;
-                if (location.getLineNr() > 1) {
-                    String[] jsonArray = jsonText.split("\\r?\\n|\\r");
-                    jsonText = jsonArray[location.getLineNr()];
-                }
-                if (location.getCharOffset() < jsonText.length()) {
-                    if (location.getCharOffset() > 0) {
-                        locationOfError = jsonText.substring((int)location.getCharOffset() - 1);
-                    }
-                    if (locationOfError.length() > 30) {
-                        locationOfError = locationOfError.substring(0, 30);
-                    }
-                }
+                locationOfError = "line " + location.getLineNr() + ", column " + location.getColumnNr();
             }
-            throw new JSONStructureException("Unable to parse JSON starting at text'" + locationOfError
-                                             + "', input was '" + json + "', exception: " + e, e);
+            throw new JSONStructureException("Unable to parse JSON at " + locationOfError + ", exception: "
+                                             + e, e);
         } catch (JsonMappingException e) {
-            throw new JSONStructureException("Unable to map JSON '" + json + "', exception: " + e, e);
+            throw new JSONStructureException("Unable to map JSON, exception: " + e, e);
         } catch (IOException e) {
             throw new JSONStructureException("Unable to read JSON input, exception: " + e, e);
         }
@@ -1096,6 +1196,88 @@ public class JSONRequest {
         return new StdRequest(stdMutableRequest);
     }
 
+    //
+    // Primary interface methods
+    //
+
+    /**
+     * Parse and JSON string into a {@link org.apache.openaz.xacml.api.Request} object.
+     *
+     * @param jsonString
+     * @return
+     * @throws JSONStructureException
+     */
+    public static Request load(String jsonString) throws JSONStructureException {
+        if (jsonString == null) {
+            throw new JSONStructureException("No JSON Request given");
+        }
+        try (JsonParser parser = jsonMapper.getFactory().createParser(jsonString)) {
+            return JSONRequest.load(parser);
+        } catch (IOException ex) {
+            throw new JSONStructureException("Exception loading String Request: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Parse the UTF-8 (or UTF-16/32, detected from the content) encoded JSON in the given byte array into a
+     * {@link org.apache.openaz.xacml.api.Request} object. This avoids decoding the bytes received from a PEP
+     * into a String first.
+     *
+     * @param jsonBytes
+     * @return
+     * @throws JSONStructureException
+     */
+    public static Request load(byte[] jsonBytes) throws JSONStructureException {
+        if (jsonBytes == null) {
+            throw new JSONStructureException("No JSON Request given");
+        }
+        try (JsonParser parser = jsonMapper.getFactory().createParser(jsonBytes)) {
+            return JSONRequest.load(parser);
+        } catch (IOException ex) {
+            throw new JSONStructureException("Exception loading Request: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Read a file containing the JSON description of a XACML Request and parse it into a
+     * {@link org.apache.openaz.xacml.api.Request} Object. This is only used for testing. In normal operation a
+     * Request arrives through the RESTful interface and is processed using
+     * <code>load(InputStream is)</code>.
+     *
+     * @param fileRequest
+     * @return
+     * @throws JSONStructureException
+     */
+    public static Request load(File fileRequest) throws JSONStructureException {
+        Request request = null;
+        try (FileInputStream fis = new FileInputStream(fileRequest)) {
+            request = JSONRequest.load(fis);
+        } catch (Exception ex) {
+            throw new JSONStructureException("Exception loading File Request: " + ex.getMessage(), ex);
+        }
+        return request;
+    }
+
+    /**
+     * Read characters from the given <code>InputStream</code> and parse them into an XACML
+     * {@link org.apache.openaz.xacml.api.Request} object. The stream is parsed as it is read and is closed
+     * when parsing is complete.
+     *
+     * @param is
+     * @return
+     * @throws JSONStructureException
+     */
+    public static Request load(InputStream is) throws JSONStructureException {
+        if (is == null) {
+            throw new JSONStructureException("No JSON Request given");
+        }
+        try (JsonParser parser = jsonMapper.getFactory().createParser(is)) {
+            return JSONRequest.load(parser);
+        } catch (IOException ex) {
+            throw new JSONStructureException("Exception loading Request: " + ex.getMessage(), ex);
+        }
+    }
+
     //
     // Generate JSON string from a Request object created by another means (e.g. XML).
     //
@@ -28,7 +28,6 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.math.BigInteger;
@@ -95,11 +94,13 @@ import org.w3c.dom.NodeList;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 
 /**
  * JSONResponse is used to convert JSON into {@link org.apache.openaz.xacml.api.Response} objects and
@@ -140,6 +141,14 @@ public class JSONResponse {
      */
     private static DataTypeFactory dataTypeFactory = null;
 
+    /*
+     * JsonFactory is thread-safe, so a single instance creates the JsonGenerators for all Responses. The
+     * generators must not close the caller's OutputStream, nor complete the JSON when a Response turns out
+     * to be invalid part way through.
+     */
+    private static final JsonFactory jsonFactory = new JsonFactory()
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET).disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+
     protected JSONResponse() {
     }
 
@@ -1136,9 +1145,6 @@ public class JSONResponse {
     public static void convert(Response response, OutputStream outputStream, boolean prettyPrint)
         throws IOException, JSONStructureException {
 
-        // TODO - ASSUME that order of members within an object does not matter (Different from XML, in JSON
-        // everything is handled as Maps so order does not matter)
-
         // TODO - ASSUME that the spec will fix inconsistency between AttributeId and Id (both are mentioned);
         // for now use "AttributeId" as it is clearer.
 
@@ -1156,569 +1162,563 @@ public class JSONResponse {
             throw new JSONStructureException("No Result in Response");
         }
 
-        String json = null;
-        ArrayList<Map<String, Object>> responses = new ArrayList<Map<String, Object>>();
-
         //
-        // Process each Result object
+        // The Response is written directly to the OutputStream as it is traversed. The members of each
+        // object are written in the same order as when the Response was first built as a tree of HashMaps,
+        // so the output seen by existing clients does not change. JSON does not give members an order, but
+        // that HashMap order has been the only one ever produced, and clients and tests that compare the
+        // text of a response depend on it. The order is therefore fixed:
         //
+        //   Result: Status, Obligations, Category, AssociatedAdvice, PolicyIdentifier, Decision
+        //   Obligation and Advice: AttributeAssignment, Id
+        //   AttributeAssignment: Category, Issuer, AttributeId, Value, DataType
+        //   PolicyIdentifier: PolicySetIdReference, PolicyIdReference
+        //   IdReference: Version, Id
+        //
+        // ResponseTest.testMemberOrder checks it.
+        //
+        JsonGenerator generator = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8);
+        if (prettyPrint) {
+            generator.useDefaultPrettyPrinter();
+        }
+        try {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("Response");
 
-        Iterator<Result> iter = response.getResults().iterator();
-        while (iter.hasNext()) {
-            Result result = iter.next();
-            Map<String, Object> responseTree = new HashMap<String, Object>();
-            if (result.getDecision() == null) {
-                throw new JSONStructureException("No Decision in Result");
-            }
-            responseTree.put("Decision", result.getDecision().toString());
-
-            if (result.getStatus() != null) {
-                // if the StatusCode object as a whole is missing it defaults to OK, but if it exists it must
-                // have an actual code value
-                if (result.getStatus().getStatusCode() == null) {
-                    throw new JSONStructureException("No Identifier given in StatusCode");
+            //
+            // Process each Result object
+            //
+            for (Result result : response.getResults()) {
+                generator.writeStartObject();
+                if (result.getDecision() == null) {
+                    throw new JSONStructureException("No Decision in Result");
                 }
-                Identifier statusCodeId = result.getStatus().getStatusCode().getStatusCodeValue();
-
-                // if there is a status code, it must agree with the decision
-                // Permit/Deny/NotAllowed must all be OK
-                // Indeterminate must not be OK
-                if (statusCodeId.equals(StdStatusCode.STATUS_CODE_OK.getStatusCodeValue()) 
-                    && !(result.getDecision() == Decision.DENY || result.getDecision() == Decision.PERMIT 
-                        || result.getDecision() == Decision.NOTAPPLICABLE)
-                    || !statusCodeId.equals(StdStatusCode.STATUS_CODE_OK.getStatusCodeValue()) 
-                        && !(result.getDecision() == Decision.INDETERMINATE
-                            || result.getDecision() == Decision.INDETERMINATE_DENY
-                            || result.getDecision() == Decision.INDETERMINATE_DENYPERMIT 
-                            || result.getDecision() == Decision.INDETERMINATE_PERMIT)) {
-                    throw new JSONStructureException("StatusCode '" + statusCodeId.stringValue()
-                                                     + "' does not match Decision '"
-                                                     + result.getDecision().toString());
+                if (result.getStatus() != null) {
+                    writeStatus(generator, result);
                 }
 
                 //
-                // Create the status
+                // Obligations
                 //
-                Map<String, Object> statusTree = new HashMap<String, Object>();
-                Map<String, Object> statusValue = new HashMap<String, Object>();
-                statusValue.put("Value", statusCodeId.stringValue());
-                addChildStatusCodes(result.getStatus().getStatusCode(), statusValue);
-                statusTree.put("StatusCode", statusValue);
-                String message = result.getStatus().getStatusMessage();
-                if (message != null) {
-                    statusTree.put("StatusMessage", message);
+                if (result.getObligations() != null && result.getObligations().size() > 0) {
+                    generator.writeArrayFieldStart("Obligations");
+                    for (Obligation ob : result.getObligations()) {
+                        if (ob.getId() == null) {
+                            throw new JSONStructureException("Obligation must have Id");
+                        }
+                        writeAttributeAssignments(generator, "Obligation", ob.getId(),
+                                                  ob.getAttributeAssignments());
+                    }
+                    generator.writeEndArray();
                 }
 
-                /*
-                 * StatusDetail - special information The XACML 3.0 core spec says that the StatusDetail field
-                 * depends on the StatusCode: StatusCode == missing-attribute => may have StatusDetail which
-                 * is a list of MissingAttributeDetail structures StatusCode == anything else => no
-                 * StatusDetail allowed This greatly simplifies handling the StatusDetail because the
-                 * MissingAttributeDetail structure is well-defined. Thus the statement in the specs (both
-                 * core and RESTful/JSON) that this can contain arbitrary XML is not correct.
-                 */
-                if (result.getStatus().getStatusDetail() != null) {
-
-                    String statusDetailXMLString = "";
-
-                    // cross-check that rules defined in XACML Core spec section 5.5.7 re: when StatusDetail
-                    // may/may-not be included have been followed
-                    if (result.getStatus().isOk()) {
-                        throw new JSONStructureException("Status '"
-                                                         + result.getStatus().getStatusCode().toString()
-                                                         + "' must not return StatusDetail");
-                    } else if (result.getStatus().getStatusCode().equals(XACML3.ID_STATUS_MISSING_ATTRIBUTE)
-                               && result.getStatus().getStatusDetail().getMissingAttributeDetails() == null) {
-                        throw new JSONStructureException(
-                                                         "Status '"
-                                                             + result.getStatus().getStatusCode().toString()
-                                                             + "' has StatusDetail without MissingAttributeDetail");
-                    } else if (result.getStatus().getStatusCode().equals(XACML3.ID_STATUS_SYNTAX_ERROR)) {
-                        throw new JSONStructureException("Status '"
-                                                         + result.getStatus().getStatusCode().toString()
-                                                         + "' must not return StatusDetail");
-                    } else if (result.getStatus().getStatusCode().equals(XACML3.ID_STATUS_PROCESSING_ERROR)) {
-                        throw new JSONStructureException("Status '"
-                                                         + result.getStatus().getStatusCode().toString()
-                                                         + "' must not return StatusDetail");
+                //
+                // Attributes
+                //
+                // (note change in name from XML to JSON spec; this is called Category in the XML)
+                //
+                if (result.getAttributes() != null && result.getAttributes().size() > 0) {
+                    // TODO - Spec changing from Attributes to Category - change is for no good reason other
+                    // than they didn't like the XML name.
+                    generator.writeArrayFieldStart("Category");
+                    for (AttributeCategory entity : result.getAttributes()) {
+                        writeCategory(generator, entity);
                     }
+                    generator.writeEndArray();
+                }
 
-                    // if included, StatusDetail is handled differently for each type of detail message and
-                    // the contents are formatted into escaped XML rather than objects
-
-                    if (result.getStatus().getStatusDetail().getMissingAttributeDetails() != null) {
-                        if (!statusCodeId.equals(XACML3.ID_STATUS_MISSING_ATTRIBUTE)) {
-                            throw new JSONStructureException(
-                                                             "MissingAttributeDetails can only be included when StatusCode is MISSING_ATTRIBUTES, not '"
-                                                                 + statusCodeId.stringValue());
-                        }
-                        // ASSUME that a list of length 0 should be treated as having no
-                        // MissingAttributeDetails and ignored
-                        if (result.getStatus().getStatusDetail().getMissingAttributeDetails().size() > 0) {
-                            // TODO - ASSUME no newlines or indentation in XML - NOTE that white-space IS
-                            // significant in XML
-                            statusDetailXMLString = "";
-
-                            for (MissingAttributeDetail mad : result.getStatus().getStatusDetail()
-                                .getMissingAttributeDetails()) {
-                                statusDetailXMLString += "<MissingAttributeDetail";
-
-                                if (mad.getCategory() == null || mad.getAttributeId() == null
-                                    || mad.getDataTypeId() == null) {
-                                    throw new JSONStructureException(
-                                                                     "MissingAttributeDetail must have Category, AttributeId and DataType");
-                                }
-                                statusDetailXMLString += " Category=\"" + mad.getCategory().stringValue()
-                                                         + "\"";
-                                statusDetailXMLString += " AttributeId=\""
-                                                         + mad.getAttributeId().stringValue() + "\"";
-                                // TODO - In this case we do NOT use the shorthand notation for the DataType
-                                // because we are generating XML and it is not clear who should will be using
-                                // it on client
-                                statusDetailXMLString += " DataType=\"" + mad.getDataTypeId().stringValue()
-                                                         + "\"";
-                                if (mad.getIssuer() != null) {
-                                    statusDetailXMLString += " Issuer=\"" + mad.getIssuer() + "\"";
-                                }
-
-                                // done with attibutes
-                                statusDetailXMLString += ">";
-
-                                // Now get Values and add as child element nodes
-                                if (mad.getAttributeValues() != null && mad.getAttributeValues().size() > 0) {
-                                    for (AttributeValue<?> av : mad.getAttributeValues()) {
-                                        statusDetailXMLString += "<AttributeValue";
-                                        statusDetailXMLString += " DataType=\"" + av.getDataTypeId() + "\">";
-                                        statusDetailXMLString += jsonOutputObject(av.getValue(), av)
-                                            .toString() + "</AttributeValue>";
-                                    }
-                                }
-
-                            }
-                            statusDetailXMLString += "</MissingAttributeDetail>";
+                //
+                // Advice
+                //
+                if (result.getAssociatedAdvice() != null && result.getAssociatedAdvice().size() > 0) {
+                    generator.writeArrayFieldStart("AssociatedAdvice");
+                    for (Advice advice : result.getAssociatedAdvice()) {
+                        if (advice.getId() == null) {
+                            throw new JSONStructureException("Advice must have Id");
                         }
-                    } else {
-                        throw new JSONStructureException(
-                                                         "Unhandled StatusDetail contents (statusDetail exists but is not MissingAttributeDetail)");
-                    }
-
-                    if (statusDetailXMLString.length() > 0) {
-                        // make sure all backslashes and double-quotes are escaped
-                        // (will only exist in string values)
-                        statusDetailXMLString = statusDetailXMLString.replace("\\", "\\\\");
-                        statusDetailXMLString = statusDetailXMLString.replace("\"", "\\\"");
-                        statusTree.put("StatusDetail", statusDetailXMLString);
+                        writeAttributeAssignments(generator, "Advice", advice.getId(),
+                                                  advice.getAttributeAssignments());
                     }
+                    generator.writeEndArray();
+                }
 
+                //
+                // PolicyIdentifier
+                //
+                // (These seem to be handled differently from the XML version where multiple PolicyIdRef and
+                // PolicySetIdRef items can be jumbled together in any order.
+                // In the XACML JSON spec (5.2.10) it says that the PolicyIdReference and PolicySetIdReference
+                // are separate groups
+                // where each group is a list of IdReferences.)
+                //
+                if (result.getPolicyIdentifiers() != null && result.getPolicyIdentifiers().size() > 0
+                    || result.getPolicySetIdentifiers() != null && result.getPolicySetIdentifiers().size() > 0) {
+                    generator.writeObjectFieldStart("PolicyIdentifier");
+                    // handle PolicyIds separately from PolicySetIds
+                    writeIdReferences(generator, "PolicySetIdReference", result.getPolicySetIdentifiers());
+                    writeIdReferences(generator, "PolicyIdReference", result.getPolicyIdentifiers());
+                    generator.writeEndObject();
                 }
 
-                responseTree.put("Status", statusTree);
+                //
+                // Decision comes last, see the order above
+                //
+                generator.writeStringField("Decision", result.getDecision().toString());
+
+                //
+                // Finished
+                //
+                generator.writeEndObject();
             }
 
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } finally {
             //
-            // Obligations
+            // Does not close the OutputStream (AUTO_CLOSE_TARGET is disabled) but forces the output
             //
-            if (result.getObligations() != null && result.getObligations().size() > 0) {
-                Iterator<Obligation> iterObs = result.getObligations().iterator();
-                List<Object> obligationCollectionList = new ArrayList<Object>();
-                while (iterObs.hasNext()) {
-                    Obligation ob = iterObs.next();
-                    Map<String, Object> obligationTree = new HashMap<String, Object>();
-                    if (ob.getId() == null) {
-                        throw new JSONStructureException("Obligation must have Id");
-                    }
-                    obligationTree.put("Id", ob.getId().stringValue());
-                    if (ob.getAttributeAssignments() != null && ob.getAttributeAssignments().size() > 0) {
-                        Iterator<AttributeAssignment> iterSetObs = ob.getAttributeAssignments().iterator();
-                        ArrayList<HashMap<String, Object>> attributes = new ArrayList<HashMap<String, Object>>();
-                        while (iterSetObs.hasNext()) {
-                            AttributeAssignment entity = iterSetObs.next();
-                            HashMap<String, Object> entityTree = new HashMap<String, Object>();
-                            if (entity.getAttributeId() == null) {
-                                throw new JSONStructureException("Obligation Attribute must have AttributeId");
-                            }
-                            entityTree.put("AttributeId", entity.getAttributeId().stringValue());
-                            if (entity.getCategory() != null) {
-                                entityTree.put("Category", entity.getCategory().stringValue());
-                            }
-                            if (entity.getIssuer() != null) {
-                                entityTree.put("Issuer", entity.getIssuer());
-                            }
-                            AttributeValue<?> value = entity.getAttributeValue();
-                            if (value == null || value.getValue() == null) {
-                                // Yes it can
-                                // throw new JSONStructureException("Obligation Attribute must have Value");
-                                entityTree.put("Value", new String(""));
-                            } else {
-                                // we are "encouraged" to us Shorthand notation for DataType, but it is not
-                                // required
-                                if (value.getDataTypeId() != null) {
-                                    //
-                                    // Don't use shorthand by default, for backwards compatibility
-                                    // to our pep's.
-                                    //
-                                    entityTree.put("DataType", value.getDataTypeId().stringValue());
-                                }
+            generator.close();
+        }
+    }
 
-                                // Internally the XPathCategory is in the AttributeValue object, but in the
-                                // JSON format it is part of the Value (handled by jsonOutputObject() )
-                                // so do not handle it here
+    /**
+     * Write the Status of a Result, checking that it is consistent with the Decision.
+     *
+     * @param generator
+     * @param result
+     * @throws IOException
+     * @throws JSONStructureException
+     */
+    private static void writeStatus(JsonGenerator generator, Result result) throws IOException,
+        JSONStructureException {
+        // if the StatusCode object as a whole is missing it defaults to OK, but if it exists it must
+        // have an actual code value
+        if (result.getStatus().getStatusCode() == null) {
+            throw new JSONStructureException("No Identifier given in StatusCode");
+        }
+        Identifier statusCodeId = result.getStatus().getStatusCode().getStatusCodeValue();
+
+        // if there is a status code, it must agree with the decision
+        // Permit/Deny/NotAllowed must all be OK
+        // Indeterminate must not be OK
+        if (statusCodeId.equals(StdStatusCode.STATUS_CODE_OK.getStatusCodeValue()) 
+            && !(result.getDecision() == Decision.DENY || result.getDecision() == Decision.PERMIT 
+                || result.getDecision() == Decision.NOTAPPLICABLE)
+            || !statusCodeId.equals(StdStatusCode.STATUS_CODE_OK.getStatusCodeValue()) 
+                && !(result.getDecision() == Decision.INDETERMINATE
+                    || result.getDecision() == Decision.INDETERMINATE_DENY
+                    || result.getDecision() == Decision.INDETERMINATE_DENYPERMIT 
+                    || result.getDecision() == Decision.INDETERMINATE_PERMIT)) {
+            throw new JSONStructureException("StatusCode '" + statusCodeId.stringValue()
+                                             + "' does not match Decision '"
+                                             + result.getDecision().toString());
+        }
 
-                                entityTree.put("Value", jsonOutputObject(value.getValue(), value));
-                            }
-                            attributes.add(entityTree);
-                        }
-                        obligationTree.put("AttributeAssignment", attributes);
-                    }
-                    obligationCollectionList.add(obligationTree);
-                }
-                responseTree.put("Obligations", obligationCollectionList);
+        /*
+         * StatusDetail - special information The XACML 3.0 core spec says that the StatusDetail field
+         * depends on the StatusCode: StatusCode == missing-attribute => may have StatusDetail which
+         * is a list of MissingAttributeDetail structures StatusCode == anything else => no
+         * StatusDetail allowed This greatly simplifies handling the StatusDetail because the
+         * MissingAttributeDetail structure is well-defined. Thus the statement in the specs (both
+         * core and RESTful/JSON) that this can contain arbitrary XML is not correct.
+         */
+        String statusDetailXMLString = "";
+        if (result.getStatus().getStatusDetail() != null) {
+
+            // cross-check that rules defined in XACML Core spec section 5.5.7 re: when StatusDetail
+            // may/may-not be included have been followed
+            if (result.getStatus().isOk()) {
+                throw new JSONStructureException("Status '"
+                                                 + result.getStatus().getStatusCode().toString()
+                                                 + "' must not return StatusDetail");
+            } else if (result.getStatus().getStatusCode().equals(XACML3.ID_STATUS_MISSING_ATTRIBUTE)
+                       && result.getStatus().getStatusDetail().getMissingAttributeDetails() == null) {
+                throw new JSONStructureException(
+                                                 "Status '"
+                                                     + result.getStatus().getStatusCode().toString()
+                                                     + "' has StatusDetail without MissingAttributeDetail");
+            } else if (result.getStatus().getStatusCode().equals(XACML3.ID_STATUS_SYNTAX_ERROR)) {
+                throw new JSONStructureException("Status '"
+                                                 + result.getStatus().getStatusCode().toString()
+                                                 + "' must not return StatusDetail");
+            } else if (result.getStatus().getStatusCode().equals(XACML3.ID_STATUS_PROCESSING_ERROR)) {
+                throw new JSONStructureException("Status '"
+                                                 + result.getStatus().getStatusCode().toString()
+                                                 + "' must not return StatusDetail");
             }
 
-            //
-            // Advice
-            //
-            if (result.getAssociatedAdvice() != null && result.getAssociatedAdvice().size() > 0) {
-                Iterator<Advice> iterAAs = result.getAssociatedAdvice().iterator();
-                List<Object> adviceCollectionList = new ArrayList<Object>();
-                while (iterAAs.hasNext()) {
-                    Advice advice = iterAAs.next();
-                    Map<String, Object> adviceTree = new HashMap<String, Object>();
-                    if (advice.getId() == null) {
-                        throw new JSONStructureException("Advice must have Id");
-                    }
-                    adviceTree.put("Id", advice.getId().stringValue());
-                    if (advice.getAttributeAssignments() != null
-                        && advice.getAttributeAssignments().size() > 0) {
-                        Iterator<AttributeAssignment> iterSetObs = advice.getAttributeAssignments()
-                            .iterator();
-                        ArrayList<HashMap<String, Object>> attributes = new ArrayList<HashMap<String, Object>>();
-                        while (iterSetObs.hasNext()) {
-                            AttributeAssignment entity = iterSetObs.next();
-                            HashMap<String, Object> entityTree = new HashMap<String, Object>();
-                            if (entity.getAttributeId() == null) {
-                                throw new JSONStructureException("Advice Attribute must have AttributeId");
-                            }
-                            entityTree.put("AttributeId", entity.getAttributeId().stringValue());
-                            if (entity.getCategory() != null) {
-                                entityTree.put("Category", entity.getCategory().stringValue());
-                            }
-                            if (entity.getIssuer() != null) {
-                                entityTree.put("Issuer", entity.getIssuer());
-                            }
-                            AttributeValue<?> value = entity.getAttributeValue();
-                            if (value == null || value.getValue() == null) {
-                                // NO - it can have a null or empty string etc.
-                                // throw new JSONStructureException("Advice Attribute must have Value");
-                                entityTree.put("Value", new String(""));
-                            } else {
-                                // we are "encouraged" to us Shorthand notation for DataType, but it is not
-                                // required
-                                if (value.getDataTypeId() != null) {
-                                    //
-                                    // Don't use shorthand by default, for backwards compatibility
-                                    // to our pep's.
-                                    //
-                                    entityTree.put("DataType", value.getDataTypeId().stringValue());
-                                }
+            // if included, StatusDetail is handled differently for each type of detail message and
+            // the contents are formatted into escaped XML rather than objects
+
+            if (result.getStatus().getStatusDetail().getMissingAttributeDetails() != null) {
+                if (!statusCodeId.equals(XACML3.ID_STATUS_MISSING_ATTRIBUTE)) {
+                    throw new JSONStructureException(
+                                                     "MissingAttributeDetails can only be included when StatusCode is MISSING_ATTRIBUTES, not '"
+                                                         + statusCodeId.stringValue());
+                }
+                // ASSUME that a list of length 0 should be treated as having no
+                // MissingAttributeDetails and ignored
+                if (result.getStatus().getStatusDetail().getMissingAttributeDetails().size() > 0) {
+                    // TODO - ASSUME no newlines or indentation in XML - NOTE that white-space IS
+                    // significant in XML
+                    StringBuilder sb = new StringBuilder();
+
+                    for (MissingAttributeDetail mad : result.getStatus().getStatusDetail()
+                        .getMissingAttributeDetails()) {
+                        sb.append("<MissingAttributeDetail");
+
+                        if (mad.getCategory() == null || mad.getAttributeId() == null
+                            || mad.getDataTypeId() == null) {
+                            throw new JSONStructureException(
+                                                             "MissingAttributeDetail must have Category, AttributeId and DataType");
+                        }
+                        sb.append(" Category=\"").append(mad.getCategory().stringValue()).append("\"");
+                        sb.append(" AttributeId=\"").append(mad.getAttributeId().stringValue()).append("\"");
+                        // TODO - In this case we do NOT use the shorthand notation for the DataType
+                        // because we are generating XML and it is not clear who should will be using
+                        // it on client
+                        sb.append(" DataType=\"").append(mad.getDataTypeId().stringValue()).append("\"");
+                        if (mad.getIssuer() != null) {
+                            sb.append(" Issuer=\"").append(mad.getIssuer()).append("\"");
+                        }
 
-                                // Internally the XPathCategory is in the AttributeValue object, but in the
-                                // JSON format it is part of the Value (handled by jsonOutputObject() )
-                                // so do not handle it here
+                        // done with attibutes
+                        sb.append(">");
 
-                                entityTree.put("Value", jsonOutputObject(value.getValue(), value));
+                        // Now get Values and add as child element nodes
+                        if (mad.getAttributeValues() != null && mad.getAttributeValues().size() > 0) {
+                            for (AttributeValue<?> av : mad.getAttributeValues()) {
+                                sb.append("<AttributeValue");
+                                sb.append(" DataType=\"").append(av.getDataTypeId()).append("\">");
+                                sb.append(jsonOutputObject(av.getValue(), av).toString())
+                                    .append("</AttributeValue>");
                             }
-                            attributes.add(entityTree);
                         }
-                        adviceTree.put("AttributeAssignment", attributes);
+
                     }
-                    adviceCollectionList.add(adviceTree);
+                    sb.append("</MissingAttributeDetail>");
+                    statusDetailXMLString = sb.toString();
                 }
-                responseTree.put("AssociatedAdvice", adviceCollectionList);
+            } else {
+                throw new JSONStructureException(
+                                                 "Unhandled StatusDetail contents (statusDetail exists but is not MissingAttributeDetail)");
             }
+        }
 
-            //
-            // Attributes
-            //
-            // (note change in name from XML to JSON spec; this is called Category in the XML)
-            //
-
-            if (result.getAttributes() != null && result.getAttributes().size() > 0) {
-                Iterator<AttributeCategory> iterAttributes = result.getAttributes().iterator();
-                ArrayList<HashMap<String, Object>> categoryArray = new ArrayList<HashMap<String, Object>>();
-                while (iterAttributes.hasNext()) {
-                    AttributeCategory entity = iterAttributes.next();
-                    HashMap<String, Object> categoryTree = new HashMap<String, Object>();
-                    categoryTree.put("CategoryId", entity.getCategory().stringValue());
-
-                    // The JSON and XML spec both imply that we can return Content here, but they do not say
-                    // so explicitly and give no indication of when to include/not-include it
-                    // Also we should be able to return the xml:Id associated with this attribute, but that
-                    // does not seem to be available in the AttributeCategory object
-                    // Note: Our choice is to not include these.
-                    // There is a question of when they would be included (since IncludeInResult is only on
-                    // the individual Attribute (singular) objects, not the Attributes),
-                    // and the Content can be quite lengthy and should not be included by default.
-                    // We could potentially return these only when at least one of the Attribute components
-                    // has IncludeInResult=true.
-                    // However the focus seems to be on returning the individual Attribute objects so the
-                    // caller can see what the response is referring to, and the Attributes (plural)
-                    // container is just re-used from the Request object without understanding that the Result
-                    // should be different or explicitly stating in the Spec what to do with those fields.
-
-                    Collection<Attribute> attrs = entity.getAttributes();
-                    if (attrs != null) {
-                        Iterator<Attribute> iterAttrs = attrs.iterator();
-                        ArrayList<HashMap<String, Object>> arrayAttributes = new ArrayList<HashMap<String, Object>>();
-                        while (iterAttrs.hasNext()) {
-                            Attribute attribute = iterAttrs.next();
-                            if (!attribute.getIncludeInResults()) {
-                                // Would this be an error? This is an internal matter and we arbitrarily
-                                // decided to just ignore it.
-                                // The attribute will not be included in the output, so the receiver won't
-                                // know that this happened.
-                                continue;
-                            }
-
-                            HashMap<String, Object> theAttribute = new HashMap<String, Object>();
-                            // TODO - no need to put this in Result because, by definition, if it is in the
-                            // result then this must be true? Since it is optional we do not want to add to
-                            // length of JSON output
-                            // theAttribute.put("IncludeInResult", true);
-
-                            if (attribute.getAttributeId() == null) {
-                                throw new JSONStructureException("Attribute must have AttributeId");
-                            }
-                            theAttribute.put("AttributeId", attribute.getAttributeId().stringValue());
-                            if (attribute.getValues() == null || attribute.getValues().size() == 0) {
-                                throw new JSONStructureException("Attribute missing required Value");
-                            }
-                            Iterator<AttributeValue<?>> valueIterator = attribute.getValues().iterator();
-
-                            // The spec talks about inferring the data type from the value and what to do if
-                            // it is a list.
-                            // However this is output from the PDP, and the attributes would have been
-                            // screened while processing the Request,
-                            // so we can assume at this point that we always have a DataType associated with
-                            // the values and that the values are
-                            // consistent with that DataType (because otherwise the Request would have been
-                            // rejected and we would never get here).
-                            // However we do need to extract the DataType from one of the Values and that is
-                            // done slightly differently
-                            // when there is one vs a list.
-                            if (attribute.getValues().size() == 1) {
-                                // exactly one value, so no need for list of values AND we know exactly what
-                                // the DataType is
-                                AttributeValue<?> attributeValue = valueIterator.next();
-                                if (attributeValue == null || attributeValue.getValue() == null) {
-                                    throw new JSONStructureException("Attribute must have value");
-                                }
-                                theAttribute.put("Value",
-                                                 jsonOutputObject(attributeValue.getValue(), attributeValue));
-                                if (attributeValue.getDataTypeId() != null) {
-                                    // we are "encouraged" to us Shorthand notation for DataType, but it is
-                                    // not required
-                                    //
-                                    // Don't use shorthand by default, for backwards compatibility
-                                    // to our pep's.
-                                    //
-                                    theAttribute
-                                        .put("DataType", attributeValue.getDataTypeId().stringValue());
-                                }
-                            } else {
-                                // there are multiple values so we have to make a list of the Values
-                                List<Object> attrValueList = new ArrayList<Object>();
-                                boolean mixedTypes = false;
-                                Identifier inferredDataTypeId = null;
-                                while (valueIterator.hasNext()) {
-                                    AttributeValue<?> attrValue = valueIterator.next();
-                                    if (attrValue == null || attrValue.getValue() == null) {
-                                        throw new JSONStructureException("Attribute in array must have value");
-                                    }
-                                    attrValueList.add(jsonOutputObject(attrValue.getValue(), attrValue));
-
-                                    // try to infer the data type
-                                    if (attrValue.getDataTypeId() != null) {
-                                        if (inferredDataTypeId == null) {
-                                            inferredDataTypeId = attrValue.getDataTypeId();
-                                        } else {
-                                            if (inferredDataTypeId.equals(DataTypes.DT_INTEGER.getId())
-                                                && attrValue.getDataTypeId().equals(DataTypes.DT_DOUBLE
-                                                                                        .getId())) {
-                                                // seeing a double anywhere in a list of integers means the
-                                                // type is double
-                                                inferredDataTypeId = attrValue.getDataTypeId();
-                                            } else if (inferredDataTypeId.equals(DataTypes.DT_DOUBLE.getId())
-                                                       && attrValue.getDataTypeId()
-                                                           .equals(DataTypes.DT_INTEGER.getId())) {
-                                                // integers are ok in a list of doubles
-                                                continue;
-                                            } else if (!inferredDataTypeId.equals(attrValue.getDataTypeId())) {
-                                                // all other combinations of types are illegal.
-                                                // Note: these attribute values were read from the client's
-                                                // Request and were assigned the appropriate DataType at that
-                                                // time.
-                                                // That DataType would have been the same for each one (e.g.
-                                                // String) so there should never be a case where
-                                                // there are multiple different types here.
-                                                // NOTE THAT IF THIS CHANGES and we want to allow mixed types,
-                                                // just replace this throws with
-                                                // mixedTypes = true;
-                                                throw new JSONStructureException(
-                                                                                 "Mixed DataTypes in Attribute values, '"
-                                                                                     + attrValue
-                                                                                         .getDataTypeId()
-                                                                                         .stringValue()
-                                                                                     + "' in list of '"
-                                                                                     + inferredDataTypeId
-                                                                                         .stringValue() + "'");
-                                            }
-                                        }
-                                    }
-                                }
-                                theAttribute.put("Value", attrValueList);
-
-                                if (inferredDataTypeId != null && !mixedTypes) {
-                                    // list is uniform and we know the type
-                                    //
-                                    // Don't use shorthand by default, for backwards compatibility
-                                    // to our pep's.
-                                    //
-                                    theAttribute.put("DataType", inferredDataTypeId.stringValue());
-                                }
-
-                            }
-
-                            if (attribute.getIssuer() != null) {
-                                theAttribute.put("Issuer", attribute.getIssuer());
-                            }
+        //
+        // Create the status
+        //
+        generator.writeObjectFieldStart("Status");
+        if (statusDetailXMLString.length() > 0) {
+            // make sure all backslashes and double-quotes are escaped
+            // (will only exist in string values)
+            statusDetailXMLString = statusDetailXMLString.replace("\\", "\\\\");
+            statusDetailXMLString = statusDetailXMLString.replace("\"", "\\\"");
+            generator.writeStringField("StatusDetail", statusDetailXMLString);
+        }
+        generator.writeFieldName("StatusCode");
+        writeStatusCode(generator, result.getStatus().getStatusCode());
+        String message = result.getStatus().getStatusMessage();
+        if (message != null) {
+            generator.writeStringField("StatusMessage", message);
+        }
+        generator.writeEndObject();
+    }
 
-                            arrayAttributes.add(theAttribute);
-                        }
-                        categoryTree.put("Attribute", arrayAttributes);
-                    }
+    /*
+     * Recursively write status codes and their sub-status codes. Note there is inconsistency in the Core and
+     * JSON specs where the Core XML says that each statusCode may contain at most 1 sub-statusCode but the
+     * text in both specs says that the statusCode may contain a sequence of statusCodes. We interpret the
+     * spec to say there is one optional sub-status code.
+     */
+    private static void writeStatusCode(JsonGenerator generator, StatusCode statusCode) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("Value", statusCode.getStatusCodeValue().stringValue());
+        if (statusCode.getChild() != null) {
+            // the spec is not clear on whether the sequence of child StatusCodes has a name or not,
+            // but since JSON components are either sequences or objects (whose components have name:value)
+            // and the parent StatusCode is an object, not a sequence, the component must be named.
+            // The only name mentioned in the the specs for this list of children is "StatusCode".
+            generator.writeFieldName("StatusCode");
+            writeStatusCode(generator, statusCode.getChild());
+        }
+        generator.writeEndObject();
+    }
 
-                    if (categoryTree.size() > 0) {
-                        categoryArray.add(categoryTree);
-                    }
+    /**
+     * Write one Obligation or Advice object with its AttributeAssignments.
+     *
+     * @param generator
+     * @param kind either "Obligation" or "Advice", used in error messages
+     * @param id
+     * @param attributeAssignments
+     * @throws IOException
+     * @throws JSONStructureException
+     */
+    private static void writeAttributeAssignments(JsonGenerator generator, String kind, Identifier id,
+                                                  Collection<AttributeAssignment> attributeAssignments)
+        throws IOException, JSONStructureException {
+        generator.writeStartObject();
+        if (attributeAssignments != null && attributeAssignments.size() > 0) {
+            generator.writeArrayFieldStart("AttributeAssignment");
+            for (AttributeAssignment entity : attributeAssignments) {
+                generator.writeStartObject();
+                if (entity.getAttributeId() == null) {
+                    throw new JSONStructureException(kind + " Attribute must have AttributeId");
                 }
-                if (categoryArray.size() > 0) {
-                    // TODO - Spec changing from Attributes to Category - change is for no good reason other
-                    // than they didn't like the XML name.
-                    responseTree.put("Category", categoryArray);
+                if (entity.getCategory() != null) {
+                    generator.writeStringField("Category", entity.getCategory().stringValue());
+                }
+                if (entity.getIssuer() != null) {
+                    generator.writeStringField("Issuer", entity.getIssuer());
+                }
+                generator.writeStringField("AttributeId", entity.getAttributeId().stringValue());
+                AttributeValue<?> value = entity.getAttributeValue();
+                if (value == null || value.getValue() == null) {
+                    // Yes it can - a null or empty string etc.
+                    generator.writeStringField("Value", "");
+                } else {
+                    // Internally the XPathCategory is in the AttributeValue object, but in the
+                    // JSON format it is part of the Value (handled by jsonOutputObject() )
+                    // so do not handle it here
+                    generator.writeFieldName("Value");
+                    writeJsonValue(generator, jsonOutputObject(value.getValue(), value));
                 }
+                // we are "encouraged" to us Shorthand notation for DataType, but it is not
+                // required
+                if (value != null && value.getValue() != null && value.getDataTypeId() != null) {
+                    //
+                    // Don't use shorthand by default, for backwards compatibility
+                    // to our pep's.
+                    //
+                    generator.writeStringField("DataType", value.getDataTypeId().stringValue());
+                }
+                generator.writeEndObject();
             }
+            generator.writeEndArray();
+        }
+        generator.writeStringField("Id", id.stringValue());
+        generator.writeEndObject();
+    }
 
-            //
-            // PolicyIdentifier
-            //
-            // (These seem to be handled differently from the XML version where multiple PolicyIdRef and
-            // PolicySetIdRef items can be jumbled together in any order.
-            // In the XACML JSON spec (5.2.10) it says that the PolicyIdReference and PolicySetIdReference are
-            // separate groups
-            // where each group is a list of IdReferences.)
-            //
-            //
-
-            if (result.getPolicyIdentifiers() != null && result.getPolicyIdentifiers().size() > 0
-                || result.getPolicySetIdentifiers() != null && result.getPolicySetIdentifiers().size() > 0) {
-
-                Map<String, Object> policyIdentifierCollectionList = new HashMap<String, Object>();
-                // handle PolicyIds separately from PolicySetIds
-                if (result.getPolicyIdentifiers() != null && result.getPolicyIdentifiers().size() > 0) {
-                    List<Object> policyIdentifierList = new ArrayList<Object>();
-                    for (IdReference idRef : result.getPolicyIdentifiers()) {
-                        if (idRef == null) {
-                            throw new JSONStructureException("PolicyIdReference with null reference");
-                        }
-                        HashMap<String, Object> entityTree = new HashMap<String, Object>();
-                        entityTree.put("Id", idRef.getId().stringValue());
-                        if (idRef.getVersion() != null) {
-                            entityTree.put("Version", idRef.getVersion().stringValue());
-                        }
+    /**
+     * Write one Category of a Result with the Attributes that are to be included in the Result.
+     *
+     * @param generator
+     * @param entity
+     * @throws IOException
+     * @throws JSONStructureException
+     */
+    private static void writeCategory(JsonGenerator generator, AttributeCategory entity) throws IOException,
+        JSONStructureException {
+        generator.writeStartObject();
+        generator.writeStringField("CategoryId", entity.getCategory().stringValue());
+
+        // The JSON and XML spec both imply that we can return Content here, but they do not say
+        // so explicitly and give no indication of when to include/not-include it
+        // Also we should be able to return the xml:Id associated with this attribute, but that
+        // does not seem to be available in the AttributeCategory object
+        // Note: Our choice is to not include these.
+        // There is a question of when they would be included (since IncludeInResult is only on
+        // the individual Attribute (singular) objects, not the Attributes),
+        // and the Content can be quite lengthy and should not be included by default.
+        // We could potentially return these only when at least one of the Attribute components
+        // has IncludeInResult=true.
+        // However the focus seems to be on returning the individual Attribute objects so the
+        // caller can see what the response is referring to, and the Attributes (plural)
+        // container is just re-used from the Request object without understanding that the Result
+        // should be different or explicitly stating in the Spec what to do with those fields.
+
+        Collection<Attribute> attrs = entity.getAttributes();
+        if (attrs != null) {
+            generator.writeArrayFieldStart("Attribute");
+            for (Attribute attribute : attrs) {
+                if (!attribute.getIncludeInResults()) {
+                    // Would this be an error? This is an internal matter and we arbitrarily
+                    // decided to just ignore it.
+                    // The attribute will not be included in the output, so the receiver won't
+                    // know that this happened.
+                    continue;
+                }
+                writeAttribute(generator, attribute);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
 
-                        policyIdentifierList.add(entityTree);
-                    }
+    /**
+     * Write one Attribute of a Result Category.
+     *
+     * @param generator
+     * @param attribute
+     * @throws IOException
+     * @throws JSONStructureException
+     */
+    private static void writeAttribute(JsonGenerator generator, Attribute attribute) throws IOException,
+        JSONStructureException {
+        // TODO - no need to put IncludeInResult in Result because, by definition, if it is in the
+        // result then this must be true? Since it is optional we do not want to add to
+        // length of JSON output
 
-                    policyIdentifierCollectionList.put("PolicyIdReference", policyIdentifierList);
+        if (attribute.getAttributeId() == null) {
+            throw new JSONStructureException("Attribute must have AttributeId");
+        }
+        if (attribute.getValues() == null || attribute.getValues().size() == 0) {
+            throw new JSONStructureException("Attribute missing required Value");
+        }
+        generator.writeStartObject();
+        if (attribute.getIssuer() != null) {
+            generator.writeStringField("Issuer", attribute.getIssuer());
+        }
+        generator.writeStringField("AttributeId", attribute.getAttributeId().stringValue());
+        Iterator<AttributeValue<?>> valueIterator = attribute.getValues().iterator();
+
+        // The spec talks about inferring the data type from the value and what to do if
+        // it is a list.
+        // However this is output from the PDP, and the attributes would have been
+        // screened while processing the Request,
+        // so we can assume at this point that we always have a DataType associated with
+        // the values and that the values are
+        // consistent with that DataType (because otherwise the Request would have been
+        // rejected and we would never get here).
+        // However we do need to extract the DataType from one of the Values and that is
+        // done slightly differently
+        // when there is one vs a list.
+        Identifier dataTypeId = null;
+        if (attribute.getValues().size() == 1) {
+            // exactly one value, so no need for list of values AND we know exactly what
+            // the DataType is
+            AttributeValue<?> attributeValue = valueIterator.next();
+            if (attributeValue == null || attributeValue.getValue() == null) {
+                throw new JSONStructureException("Attribute must have value");
+            }
+            generator.writeFieldName("Value");
+            writeJsonValue(generator, jsonOutputObject(attributeValue.getValue(), attributeValue));
+            dataTypeId = attributeValue.getDataTypeId();
+        } else {
+            // there are multiple values so we have to make a list of the Values
+            generator.writeArrayFieldStart("Value");
+            while (valueIterator.hasNext()) {
+                AttributeValue<?> attrValue = valueIterator.next();
+                if (attrValue == null || attrValue.getValue() == null) {
+                    throw new JSONStructureException("Attribute in array must have value");
                 }
-                // handle PolicySetIds
-                if (result.getPolicySetIdentifiers() != null && result.getPolicySetIdentifiers().size() > 0) {
-                    List<Object> policyIdentifierList = new ArrayList<Object>();
-                    for (IdReference idRef : result.getPolicySetIdentifiers()) {
-                        if (idRef == null) {
-                            throw new JSONStructureException("PolicySetIdReference with null reference");
-                        }
-                        HashMap<String, Object> entityTree = new HashMap<String, Object>();
-                        entityTree.put("Id", idRef.getId().stringValue());
-                        if (idRef.getVersion() != null) {
-                            entityTree.put("Version", idRef.getVersion().stringValue());
-                        }
-
-                        policyIdentifierList.add(entityTree);
+                writeJsonValue(generator, jsonOutputObject(attrValue.getValue(), attrValue));
+
+                // try to infer the data type
+                if (attrValue.getDataTypeId() != null) {
+                    if (dataTypeId == null) {
+                        dataTypeId = attrValue.getDataTypeId();
+                    } else if (dataTypeId.equals(DataTypes.DT_INTEGER.getId())
+                               && attrValue.getDataTypeId().equals(DataTypes.DT_DOUBLE.getId())) {
+                        // seeing a double anywhere in a list of integers means the
+                        // type is double
+                        dataTypeId = attrValue.getDataTypeId();
+                    } else if (dataTypeId.equals(DataTypes.DT_DOUBLE.getId())
+                               && attrValue.getDataTypeId().equals(DataTypes.DT_INTEGER.getId())) {
+                        // integers are ok in a list of doubles
+                        continue;
+                    } else if (!dataTypeId.equals(attrValue.getDataTypeId())) {
+                        // all other combinations of types are illegal.
+                        // Note: these attribute values were read from the client's
+                        // Request and were assigned the appropriate DataType at that
+                        // time.
+                        // That DataType would have been the same for each one (e.g.
+                        // String) so there should never be a case where
+                        // there are multiple different types here.
+                        throw new JSONStructureException("Mixed DataTypes in Attribute values, '"
+                                                         + attrValue.getDataTypeId().stringValue()
+                                                         + "' in list of '" + dataTypeId.stringValue()
+                                                         + "'");
                     }
-
-                    policyIdentifierCollectionList.put("PolicySetIdReference", policyIdentifierList);
                 }
-
-                responseTree.put("PolicyIdentifier", policyIdentifierCollectionList);
             }
+            generator.writeEndArray();
+        }
 
+        if (dataTypeId != null) {
+            // we are "encouraged" to us Shorthand notation for DataType, but it is
+            // not required
             //
-            // Finished
+            // Don't use shorthand by default, for backwards compatibility
+            // to our pep's.
             //
-            responses.add(responseTree);
+            generator.writeStringField("DataType", dataTypeId.stringValue());
         }
+        generator.writeEndObject();
+    }
 
-        //
-        // Create the overall response
-        //
-        Map<String, Object> theWholeResponse = new HashMap<String, Object>();
-        theWholeResponse.put("Response", responses);
-        //
-        // Create a string buffer
-        //
-        ObjectMapper mapper = new ObjectMapper().setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
-        mapper.configure(SerializationFeature.INDENT_OUTPUT, prettyPrint);
-        try (OutputStreamWriter osw = new OutputStreamWriter(outputStream)) {
-            json = mapper.writeValueAsString(theWholeResponse);
-
-            osw.write(json);
-
-            // force output
-            osw.flush();
-
-        } catch (Exception e) {
-            logger.error("Failed to write to json string: " + e.getLocalizedMessage(), e);
+    /**
+     * Write the list of PolicyIdReferences or PolicySetIdReferences, if there are any.
+     *
+     * @param generator
+     * @param fieldName
+     * @param idReferences
+     * @throws IOException
+     * @throws JSONStructureException
+     */
+    private static void writeIdReferences(JsonGenerator generator, String fieldName,
+                                          Collection<IdReference> idReferences) throws IOException,
+        JSONStructureException {
+        if (idReferences == null || idReferences.size() == 0) {
+            return;
         }
-
+        generator.writeArrayFieldStart(fieldName);
+        for (IdReference idRef : idReferences) {
+            if (idRef == null) {
+                throw new JSONStructureException(fieldName + " with null reference");
+            }
+            generator.writeStartObject();
+            if (idRef.getVersion() != null) {
+                generator.writeStringField("Version", idRef.getVersion().stringValue());
+            }
+            generator.writeStringField("Id", idRef.getId().stringValue());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
     }
 
-    /*
-     * Recursively add sub-status codes. Note there is inconsistency in the Core and JSON specs where the Core
-     * XML says that each statusCode may contain at most 1 sub-statusCode but the text in both specs says that
-     * the statusCode may contain a sequence of statusCodes. We interpret the spec to say there is one
-     * optional sub-status code.
+    /**
+     * Write an object created by <code>jsonOutputObject</code>, which is a String, Boolean, number or, for
+     * XPathExpressions, a Map of Strings and Lists.
+     *
+     * @param generator
+     * @param obj
+     * @throws IOException
+     * @throws JSONStructureException
      */
-    private static void addChildStatusCodes(StatusCode statusCode, Map<String, Object> map) {
-        if (statusCode.getChild() != null) {
-            StatusCode child = statusCode.getChild();
-            Map<String, Object> childMap = new HashMap<String, Object>();
-            childMap.put("Value", child.getStatusCodeValue().stringValue());
-            addChildStatusCodes(child, childMap);
-
-            // the spec is not clear on whether the sequence of child StatusCodes has a name or not,
-            // but since JSON components are either sequences or objects (whose components have name:value)
-            // and the parent StatusCode (represented by the map passed in) is an object, not a sequence, the
-            // component must be named.
-            // The only name mentioned in the the specs for this list of children is "StatusCode".
-            map.put("StatusCode", childMap);
+    private static void writeJsonValue(JsonGenerator generator, Object obj) throws IOException,
+        JSONStructureException {
+        if (obj instanceof String) {
+            generator.writeString((String)obj);
+        } else if (obj instanceof Boolean) {
+            generator.writeBoolean((Boolean)obj);
+        } else if (obj instanceof BigInteger) {
+            generator.writeNumber((BigInteger)obj);
+        } else if (obj instanceof Double) {
+            generator.writeNumber((Double)obj);
+        } else if (obj instanceof Map) {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)obj).entrySet()) {
+                generator.writeFieldName(entry.getKey().toString());
+                writeJsonValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (obj instanceof List) {
+            generator.writeStartArray();
+            for (Object item : (List<?>)obj) {
+                writeJsonValue(generator, item);
+            }
+            generator.writeEndArray();
+        } else {
+            throw new JSONStructureException("Unhandled output type='" + obj.getClass().getName() + "'");
         }
     }
 
     /**
      * Create the appropriate object for JSON output. This needs to be a Boolean, Integer or Double for those
-     * data types so that the ObjectMapper knows how to format the JSON text. For objects implementing
+     * data types so that they are written as JSON booleans and numbers. For objects implementing
      * stringValue we use that string. for XPathExpressions use the Path. Otherwise default to using toString.
      *
      * @param obj
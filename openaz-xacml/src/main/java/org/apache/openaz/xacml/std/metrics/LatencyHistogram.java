@@ -0,0 +1,148 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.std.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts non-negative values, typically durations in nanoseconds, in log-linear buckets in
+ * the style of HdrHistogram: every power of two is split into eight equal sub-buckets, so a bucket is never
+ * wider than 1/8th of its lower bound. Recording a value is a couple of bit operations and an atomic
+ * increment, so it is cheap enough to do on every request from any number of threads.
+ * <p>
+ * The counts are not read as an atomic snapshot. A reader that races with writers may see a count that is
+ * slightly out of step with the sum, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    public LatencyHistogram() {
+    }
+
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int)value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        return (1L << magnitude) + ((long)(subBucket + 1) << (magnitude - SUB_BUCKET_BITS));
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value the value, negative values are counted as 0
+     */
+    public void record(long value) {
+        this.counts.incrementAndGet(getBucket(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value < 0 ? 0 : value);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * @return the sum of the values recorded
+     */
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    /**
+     * Gets the number of values recorded that are less than the given power of two.
+     *
+     * @param power the exponent of the power of two, between 0 and 62
+     * @return the number of values less than <code>2^power</code>
+     */
+    public long getCountBelowPowerOfTwo(int power) {
+        if (power < 0 || power > 62) {
+            throw new IllegalArgumentException("power must be between 0 and 62: " + power);
+        }
+        int bucketLimit = getBucket(1L << power);
+        long result = 0;
+        for (int bucket = 0; bucket < bucketLimit; bucket++) {
+            result += this.counts.get(bucket);
+        }
+        return result;
+    }
+
+    /**
+     * Gets an upper bound for the value at the given quantile, accurate to the width of the bucket the value
+     * is in.
+     *
+     * @param quantile the quantile, between 0 and 1
+     * @return the upper bound of the bucket that holds the value at the quantile, or 0 if nothing has been
+     *         recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = this.counts.get(bucket);
+            total += snapshot[bucket];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(Math.min(1.0, Math.max(0.0, quantile)) * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                return getBucketUpperBound(bucket) - 1;
+            }
+        }
+        return getBucketUpperBound(BUCKETS - 1) - 1;
+    }
+
+    /**
+     * Clears all counts.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            this.counts.set(bucket, 0);
+        }
+        this.count.set(0);
+        this.sum.set(0);
+    }
+}
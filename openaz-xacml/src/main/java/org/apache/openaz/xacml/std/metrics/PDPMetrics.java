@@ -0,0 +1,337 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.std.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.std.StdContent;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+/**
+ * PDPMetrics records how long each stage of a decision takes, how long each PIP engine takes, and how many
+ * decisions of each kind were made. There is one instance per JVM, shared by the PDP engines and the REST
+ * servlet, so the numbers can be read in one place.
+ * <p>
+ * The code being measured calls {@link #start()} and hands the result to one of the record methods when it
+ * is done. Metrics are off unless they are turned on with
+ * {@link org.apache.openaz.xacml.util.XACMLProperties#PROP_METRICS} or {@link #setEnabled(boolean)}; while
+ * they are off neither does anything beyond a check of a volatile field.
+ */
+public class PDPMetrics {
+    private static final Log logger = LogFactory.getLog(PDPMetrics.class);
+
+    /**
+     * The stages of handling a decision request that are timed.
+     */
+    public enum Stage {
+        /**
+         * Parsing the request body into a <code>Request</code>
+         */
+        PARSE("parse"),
+        /**
+         * Splitting the <code>Request</code> into individual decision requests
+         */
+        REQUEST_GENERATION("request_generation"),
+        /**
+         * Finding the root policy that applies to an individual decision request
+         */
+        ROOT_POLICY("root_policy"),
+        /**
+         * Evaluating the root policy with its combining algorithms, including the PIP time
+         */
+        COMBINING("combining"),
+        /**
+         * Writing the <code>Response</code> out
+         */
+        SERIALIZATION("serialization"),
+        /**
+         * The whole of <code>PDPEngine.decide</code>
+         */
+        DECIDE("decide");
+
+        private final String label;
+
+        private Stage(String labelIn) {
+            this.label = labelIn;
+        }
+
+        public String getLabel() {
+            return this.label;
+        }
+    }
+
+    //
+    // The histogram buckets written out, as powers of two nanoseconds: from
+    // about a microsecond to about 17 seconds.
+    //
+    private static final int EXPOSED_POWER_MIN = 10;
+    private static final int EXPOSED_POWER_MAX = 34;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final PDPMetrics instance = new PDPMetrics(isEnabledByProperty());
+
+    private volatile boolean enabled;
+    private final ThreadLocal<Boolean> suppressed = new ThreadLocal<Boolean>();
+    private final LatencyHistogram[] stageHistograms = new LatencyHistogram[Stage.values().length];
+    private final ConcurrentMap<String, LatencyHistogram> pipHistograms = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final AtomicLongArray decisionCounts = new AtomicLongArray(Decision.values().length);
+    private final AtomicLong failureCount = new AtomicLong();
+
+    protected PDPMetrics(boolean enabledIn) {
+        this.enabled = enabledIn;
+        for (int i = 0; i < this.stageHistograms.length; i++) {
+            this.stageHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private static boolean isEnabledByProperty() {
+        try {
+            return Boolean.parseBoolean(XACMLProperties.getProperty(XACMLProperties.PROP_METRICS, "false"));
+        } catch (Exception e) {
+            logger.warn("Unable to read " + XACMLProperties.PROP_METRICS + ", metrics are disabled: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the <code>PDPMetrics</code> shared by the JVM
+     */
+    public static PDPMetrics getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Turns recording on or off. What has been recorded so far is kept.
+     *
+     * @param enabledIn
+     */
+    public void setEnabled(boolean enabledIn) {
+        this.enabled = enabledIn;
+    }
+
+    /**
+     * Stops recording on the current thread until {@link #endSuppress()}, for work such as an engine warm-up
+     * that should not show up in the metrics.
+     */
+    public void beginSuppress() {
+        this.suppressed.set(Boolean.TRUE);
+    }
+
+    /**
+     * Resumes recording on the current thread after {@link #beginSuppress()}.
+     */
+    public void endSuppress() {
+        this.suppressed.remove();
+    }
+
+    private boolean isRecording() {
+        return this.enabled && this.suppressed.get() == null;
+    }
+
+    /**
+     * Starts timing something.
+     *
+     * @return the value to pass to the record method once it is done
+     */
+    public long start() {
+        return this.isRecording() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time taken by a stage.
+     *
+     * @param stage the <code>Stage</code>
+     * @param startNanos the value returned by {@link #start()} when the stage began
+     */
+    public void record(Stage stage, long startNanos) {
+        if (this.isRecording()) {
+            this.stageHistograms[stage.ordinal()].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records the time taken by a call to a PIP engine.
+     *
+     * @param engineName the name of the PIP engine
+     * @param startNanos the value returned by {@link #start()} when the call began
+     */
+    public void recordPIP(String engineName, long startNanos) {
+        if (this.isRecording()) {
+            long elapsed = System.nanoTime() - startNanos;
+            String key = engineName == null ? "" : engineName;
+            LatencyHistogram histogram = this.pipHistograms.get(key);
+            if (histogram == null) {
+                LatencyHistogram histogramNew = new LatencyHistogram();
+                histogram = this.pipHistograms.putIfAbsent(key, histogramNew);
+                if (histogram == null) {
+                    histogram = histogramNew;
+                }
+            }
+            histogram.record(elapsed);
+        }
+    }
+
+    /**
+     * Counts a decision.
+     *
+     * @param decision the <code>Decision</code> of a <code>Result</code>
+     */
+    public void recordDecision(Decision decision) {
+        if (decision != null && this.isRecording()) {
+            this.decisionCounts.incrementAndGet(decision.ordinal());
+        }
+    }
+
+    /**
+     * Counts a decision that failed with an exception and so produced no <code>Result</code>.
+     */
+    public void recordFailure() {
+        if (this.isRecording()) {
+            this.failureCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param stage the <code>Stage</code>
+     * @return the <code>LatencyHistogram</code> for the stage, in nanoseconds
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return this.stageHistograms[stage.ordinal()];
+    }
+
+    /**
+     * @param engineName the name of a PIP engine
+     * @return the <code>LatencyHistogram</code> for the engine, in nanoseconds, or null if it has not been
+     *         called
+     */
+    public LatencyHistogram getPIPHistogram(String engineName) {
+        return this.pipHistograms.get(engineName);
+    }
+
+    /**
+     * @param decision the <code>Decision</code>
+     * @return the number of results with the decision
+     */
+    public long getDecisionCount(Decision decision) {
+        return this.decisionCounts.get(decision.ordinal());
+    }
+
+    /**
+     * @return the number of decisions that failed with an exception
+     */
+    public long getFailureCount() {
+        return this.failureCount.get();
+    }
+
+    /**
+     * Clears all histograms and counters.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : this.stageHistograms) {
+            histogram.reset();
+        }
+        this.pipHistograms.clear();
+        for (int i = 0; i < this.decisionCounts.length(); i++) {
+            this.decisionCounts.set(i, 0);
+        }
+        this.failureCount.set(0);
+    }
+
+    /**
+     * Writes all histograms and counters in the Prometheus text exposition format, version 0.0.4.
+     *
+     * @param appendable where to write the metrics
+     * @throws IOException
+     */
+    public void writePrometheus(Appendable appendable) throws IOException {
+        appendable.append("# HELP xacml_pdp_stage_seconds Time spent in each stage of a decision.\n");
+        appendable.append("# TYPE xacml_pdp_stage_seconds histogram\n");
+        for (Stage stage : Stage.values()) {
+            writeHistogram(appendable, "xacml_pdp_stage_seconds", "stage", stage.getLabel(),
+                           this.getHistogram(stage));
+        }
+        appendable.append("# HELP xacml_pdp_pip_seconds Time spent in each PIP engine.\n");
+        appendable.append("# TYPE xacml_pdp_pip_seconds histogram\n");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(
+                                                                                                this.pipHistograms)
+            .entrySet()) {
+            writeHistogram(appendable, "xacml_pdp_pip_seconds", "engine", entry.getKey(), entry.getValue());
+        }
+        appendable.append("# HELP xacml_pdp_decisions_total Results by decision.\n");
+        appendable.append("# TYPE xacml_pdp_decisions_total counter\n");
+        for (Decision decision : Decision.values()) {
+            appendable.append("xacml_pdp_decisions_total{decision=\"").append(decision.toString())
+                .append("\"} ").append(Long.toString(this.getDecisionCount(decision))).append('\n');
+        }
+        appendable.append("# HELP xacml_pdp_decide_failures_total Decisions that threw an exception.\n");
+        appendable.append("# TYPE xacml_pdp_decide_failures_total counter\n");
+        appendable.append("xacml_pdp_decide_failures_total ").append(Long.toString(this.getFailureCount()))
+            .append('\n');
+        appendable.append("# HELP xacml_content_deferred_total Request Content elements kept unparsed.\n");
+        appendable.append("# TYPE xacml_content_deferred_total counter\n");
+        appendable.append("xacml_content_deferred_total ").append(Long.toString(StdContent.getDeferredCount()))
+            .append('\n');
+        appendable.append("# HELP xacml_content_materialized_total Request Content elements parsed on use.\n");
+        appendable.append("# TYPE xacml_content_materialized_total counter\n");
+        appendable.append("xacml_content_materialized_total ")
+            .append(Long.toString(StdContent.getMaterializedCount())).append('\n');
+    }
+
+    private static void writeHistogram(Appendable appendable, String name, String labelName, String labelValue,
+                                       LatencyHistogram histogram) throws IOException {
+        String labels = labelName + "=\"" + escapeLabelValue(labelValue) + "\"";
+        for (int power = EXPOSED_POWER_MIN; power <= EXPOSED_POWER_MAX; power++) {
+            //
+            // Prometheus buckets count the values less than or equal to their bound.
+            // The histogram counts whole nanoseconds below 2^power, which are the
+            // ones less than or equal to 2^power - 1.
+            //
+            appendable.append(name).append("_bucket{").append(labels).append(",le=\"")
+                .append(Double.toString(((1L << power) - 1) / NANOS_PER_SECOND)).append("\"} ")
+                .append(Long.toString(histogram.getCountBelowPowerOfTwo(power))).append('\n');
+        }
+        long count = histogram.getCount();
+        appendable.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ")
+            .append(Long.toString(count)).append('\n');
+        appendable.append(name).append("_sum{").append(labels).append("} ")
+            .append(Double.toString(histogram.getSum() / NANOS_PER_SECOND)).append('\n');
+        appendable.append(name).append("_count{").append(labels).append("} ").append(Long.toString(count))
+            .append('\n');
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -24,20 +24,37 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -45,6 +62,7 @@ import org.apache.openaz.xacml.api.pap.PAPEngine;
 import org.apache.openaz.xacml.api.pap.PAPException;
 import org.apache.openaz.xacml.api.pap.PDP;
 import org.apache.openaz.xacml.api.pap.PDPGroup;
+import org.apache.openaz.xacml.api.pap.PDPPIPConfig;
 import org.apache.openaz.xacml.api.pap.PDPPolicy;
 import org.apache.openaz.xacml.api.pap.PDPStatus;
 import org.apache.openaz.xacml.util.XACMLProperties;
@@ -56,6 +74,13 @@ import com.google.common.collect.Sets;
 /**
  * This is a simple PAP engine that uses some property files and a simple directory structure in the file
  * system to manage a policy repository and set of PDP nodes.
+ * <p>
+ * Groups and PDPs are held in memory, with indexes from PDP id to group and from policy id to groups that
+ * are updated one group at a time as groups change. Changes to the repository's xacml.properties and to each
+ * group's xacml.policy.properties and xacml.pip.properties are written behind: each change is appended to a
+ * small journal straight away, and the changed files are rewritten (to a temporary file, then renamed over
+ * the old one) at most once per write-behind delay. If the PAP stops before that, the journal is replayed on
+ * the next start.
  */
 public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine {
     private static Log logger = LogFactory.getLog(StdEngine.class);
@@ -64,15 +89,46 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
     public static String PROP_PAP_GROUPS = "xacml.pap.groups";
     public static String PROP_PAP_GROUPS_DEFAULT = "xacml.pap.groups.default";
     public static String PROP_PAP_GROUPS_DEFAULT_NAME = "default";
+    public static String PROP_PAP_WRITEBEHIND_DELAY = "xacml.pap.writeBehind.delay";
+
+    public static final long DEFAULT_WRITEBEHIND_DELAY = 250;
+    private static final String JOURNAL_NAME = "xacml.journal";
+    private static final String JOURNAL_COMMIT = ".";
+    private static final String JOURNAL_FILE = "@";
+    private static final String JOURNAL_RESET = "=";
 
     protected final Path repository;
     protected Set<StdPDPGroup> groups;
+    protected final StdPAPChangeLog changeLog = new StdPAPChangeLog();
+
+    //
+    // Indexes over the groups, updated for each group that changes. The sets of groups in the policy index
+    // are replaced rather than modified, so readers can use them without locking.
+    //
+    protected final Map<String, PDP> pdpIndex = new ConcurrentHashMap<String, PDP>();
+    protected final Map<String, StdPDPGroup> pdpGroupIndex = new ConcurrentHashMap<String, StdPDPGroup>();
+    protected final Map<String, Set<PDPGroup>> policyGroupIndex =
+        new ConcurrentHashMap<String, Set<PDPGroup>>();
+    private final Object indexLock = new Object();
+    private final Map<String, Set<String>> indexedPdps = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> indexedPolicies = new HashMap<String, Set<String>>();
+
+    //
+    // Write-behind state: for each file, the contents last recorded in the journal and those waiting to be
+    // written
+    //
+    protected final long writeBehindDelay;
+    private final Object saveLock = new Object();
+    private final Map<Path, Properties> journaled = new HashMap<Path, Properties>();
+    private final Map<Path, Properties> pending = new HashMap<Path, Properties>();
+    private ScheduledExecutorService writer;
 
     public StdEngine() throws PAPException, IOException {
         //
         // Get the location in the file system of our repository
         //
         this.repository = Paths.get(XACMLProperties.getProperty(PROP_PAP_REPO));
+        this.writeBehindDelay = getWriteBehindDelay(XACMLProperties.getProperty(PROP_PAP_WRITEBEHIND_DELAY));
         //
         // Initialize
         //
@@ -84,6 +140,7 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
         // Get the location in the file system of our repository
         //
         this.repository = Paths.get(properties.getProperty(PROP_PAP_REPO));
+        this.writeBehindDelay = getWriteBehindDelay(properties.getProperty(PROP_PAP_WRITEBEHIND_DELAY));
         //
         // Initialize
         //
@@ -95,6 +152,7 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
         // Save our location
         //
         this.repository = repository;
+        this.writeBehindDelay = DEFAULT_WRITEBEHIND_DELAY;
         //
         // Initialize
         //
@@ -118,9 +176,29 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
             throw new PAPException("Repository is NOT writable: " + this.repository.toAbsolutePath());
         }
         //
+        // Apply any changes a previous run journaled but did not get to write
+        //
+        this.recoverJournal();
+        //
         // Load our groups
         //
         this.loadGroups();
+        for (StdPDPGroup group : this.groups) {
+            this.reindex(group);
+        }
+        this.journaled.put(this.getConfigurationFile(), this.getConfiguration());
+    }
+
+    private static long getWriteBehindDelay(String value) {
+        if (value == null || value.length() == 0) {
+            return DEFAULT_WRITEBEHIND_DELAY;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.error("Invalid " + PROP_PAP_WRITEBEHIND_DELAY + ": " + value);
+            return DEFAULT_WRITEBEHIND_DELAY;
+        }
     }
 
     private void loadGroups() throws PAPException {
@@ -140,10 +218,11 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
             //
             // Parse it
             //
-            this.groups = this.readProperties(this.repository, properties);
+            this.groups = newGroupSet();
+            this.groups.addAll(this.readProperties(this.repository, properties));
         } catch (IOException e) {
             logger.error("Failed to load " + file.toAbsolutePath().toString());
-            this.groups = new HashSet<StdPDPGroup>();
+            this.groups = newGroupSet();
         }
         //
         // Initialize the default group
@@ -209,6 +288,7 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
             StdPDPGroup newDefault = new StdPDPGroup(defaultId, true, "default",
                                                      "The default group where new PDP's are put.",
                                                      defaultPath);
+            newDefault.setEngine(this);
             //
             // Add it to our list
             //
@@ -261,6 +341,8 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
                     // TODO - since the original code checked for type we do also.
                     if (aGroup instanceof StdPDPGroup) {
                         ((StdPDPGroup)aGroup).setDefault(true);
+                        this.changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.UPDATE,
+                                              aGroup.getId(), null);
                         changesMade = true;
                     } else {
                         throw new IllegalArgumentException("Group in groups of unknown type '"
@@ -273,6 +355,8 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
                     // TODO - since the original code checked for type we do also.
                     if (aGroup instanceof StdPDPGroup) {
                         ((StdPDPGroup)aGroup).setDefault(false);
+                        this.changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.UPDATE,
+                                              aGroup.getId(), null);
                         changesMade = true;
                     } else {
                         throw new IllegalArgumentException("Group in groups of unknown type '"
@@ -392,8 +476,10 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
         // Ok now add it
         //
         StdPDPGroup newGroup = new StdPDPGroup(id, name, description, groupPath);
+        newGroup.setEngine(this);
         if (this.groups.add(newGroup)) {
             // save the new group in our properties and notify any listeners of the change
+            this.changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.ADD, id, null);
             groupChanged(newGroup);
         }
 
@@ -440,6 +526,7 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
         if (existingGroup == null) {
             throw new PAPException("Update found no existing group with id '" + group.getId() + "'");
         }
+        String existingId = existingGroup.getId();
 
         // We do dramatically different things when the Name changes
         // because the Name is essentially the identity of the group (as the User knows it) so when the
@@ -448,7 +535,7 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
 
             // update the disk
             try {
-                ((StdPDPGroup)group).saveGroupConfiguration();
+                this.saveGroup((StdPDPGroup)group);
             } catch (IOException e) {
                 throw new PAPException("Unable to save new configuration for '" + group.getName() + "': "
                                        + e.getMessage());
@@ -475,6 +562,7 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
             Path oldPath = existingGroup.getDirectory();
             Path newPath = Paths.get(oldPath.getParent().toString(), newId);
             ((StdPDPGroup)group).setDirectory(newPath);
+            this.releaseDirectory(oldPath);
 
             try {
                 boolean success = oldPath.toFile().renameTo(newPath.toFile());
@@ -488,7 +576,7 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
             }
             // update the disk
             try {
-                ((StdPDPGroup)group).saveGroupConfiguration();
+                this.saveGroup((StdPDPGroup)group);
             } catch (IOException e) {
                 throw new PAPException("Unable to save new configuration for '" + group.getName() + "': "
                                        + e.getMessage());
@@ -499,6 +587,21 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
             groups.add((StdPDPGroup)group);
 
         }
+        ((StdPDPGroup)group).setEngine(this);
+        this.unindex(existingGroup);
+        this.reindex((StdPDPGroup)group);
+
+        //
+        // Log what changed. A new id looks like one group going away and another arriving.
+        //
+        if (group.getId().equals(existingId)) {
+            this.changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.UPDATE, existingId, null);
+        } else {
+            this.changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.REMOVE, existingId, null);
+            this.changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.ADD, group.getId(), null);
+        }
+        this.recordPolicyChanges(group.getId(), existingGroup.getPolicies(), group.getPolicies());
+        this.recordPIPChanges(group.getId(), existingGroup.getPipConfigs(), group.getPipConfigs());
 
         // perhaps only the group changed, but if the name/id changed it may look to a listener like more than
         // one group
@@ -563,6 +666,7 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
         if (!Files.exists(groupPath)) {
             logger.warn("removeGroup " + id + " directory does not exist" + groupPath.toString());
         } else {
+            this.releaseDirectory(groupPath);
             try {
                 Files.walkFileTree(groupPath, new SimpleFileVisitor<Path>() {
 
@@ -585,6 +689,10 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
 
         // remove the group from the set of all groups
         groups.remove(group);
+        if (group instanceof StdPDPGroup) {
+            this.unindex((StdPDPGroup)group);
+        }
+        this.changeLog.record(StdPAPChange.Type.GROUP, StdPAPChange.Action.REMOVE, id, null);
 
         //
         // Save changes
@@ -595,36 +703,26 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
 
     @Override
     public PDPGroup getPDPGroup(PDP pdp) throws PAPException {
-        for (PDPGroup group : this.groups) {
-            if (group.getPdps().contains(pdp)) {
-                return group;
-            }
+        if (pdp == null || pdp.getId() == null) {
+            return null;
         }
-        return null;
+        return this.pdpGroupIndex.get(pdp.getId());
     }
 
     @Override
     public PDPGroup getPDPGroup(String pdpId) throws PAPException {
-        for (PDPGroup group : this.groups) {
-            for (PDP pdp : group.getPdps()) {
-                if (pdp.getId().equals(pdpId)) {
-                    return group;
-                }
-            }
+        if (pdpId == null) {
+            return null;
         }
-        return null;
+        return this.pdpGroupIndex.get(pdpId);
     }
 
     @Override
     public PDP getPDP(String pdpId) throws PAPException {
-        for (PDPGroup group : this.groups) {
-            for (PDP pdp : group.getPdps()) {
-                if (pdp.getId().equals(pdpId)) {
-                    return pdp;
-                }
-            }
+        if (pdpId == null) {
+            return null;
         }
-        return null;
+        return this.pdpIndex.get(pdpId);
     }
 
     @Override
@@ -647,6 +745,8 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
                 //
                 // Save the properties and notify any listeners
                 //
+                this.changeLog.record(StdPAPChange.Type.PDP, StdPAPChange.Action.ADD, group.getId(), id);
+                this.reindex((StdPDPGroup)group);
                 pdpChanged(pdp);
                 return;
             }
@@ -673,6 +773,12 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
                     //
                     // Save the configuration
                     //
+                    this.changeLog.record(StdPAPChange.Type.PDP, StdPAPChange.Action.REMOVE,
+                                          currentGroup.getId(), pdp.getId());
+                    this.changeLog.record(StdPAPChange.Type.PDP, StdPAPChange.Action.ADD, newGroup.getId(),
+                                          pdp.getId());
+                    this.reindex((StdPDPGroup)currentGroup);
+                    this.reindex((StdPDPGroup)newGroup);
                     this.doSave();
                 } else {
                     logger.error("Failed to add to new group, putting back into original group.");
@@ -702,6 +808,9 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
         currentPDP.setDescription(pdp.getDescription());
         currentPDP.setName(pdp.getName());
 
+        PDPGroup group = this.getPDPGroup(currentPDP);
+        this.changeLog.record(StdPAPChange.Type.PDP, StdPAPChange.Action.UPDATE,
+                              group == null ? null : group.getId(), pdp.getId());
         this.doSave();
     }
 
@@ -714,6 +823,9 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
         if (group instanceof StdPDPGroup) {
             boolean result = ((StdPDPGroup)group).removePDP(pdp);
             if (result) {
+                this.changeLog.record(StdPAPChange.Type.PDP, StdPAPChange.Action.REMOVE, group.getId(),
+                                      pdp.getId());
+                this.reindex((StdPDPGroup)group);
                 this.doSave();
             }
             return;
@@ -738,7 +850,11 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
             throw new NullPointerException();
         }
         if (group instanceof StdPDPGroup && this.groups.contains(group)) {
+            StdPAPChange.Action action = group.getPolicy(id) == null
+                ? StdPAPChange.Action.ADD : StdPAPChange.Action.UPDATE;
             ((StdPDPGroup)group).publishPolicy(id, name, isRoot, policy);
+            this.changeLog.record(StdPAPChange.Type.POLICY, action, group.getId(), id);
+            this.reindex((StdPDPGroup)group);
             return;
         }
         logger.warn("unknown PDP Group: " + group);
@@ -756,17 +872,134 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
             throw new NullPointerException();
         }
         if (group instanceof StdPDPGroup && this.groups.contains(group)) {
-            ((StdPDPGroup)group).removePolicy(policy);
+            if (((StdPDPGroup)group).removePolicy(policy)) {
+                this.changeLog.record(StdPAPChange.Type.POLICY, StdPAPChange.Action.REMOVE, group.getId(),
+                                      policy.getId());
+                this.reindex((StdPDPGroup)group);
+            }
             return;
         }
         logger.warn("unknown PDP Group: " + group);
         throw new PAPException("Unknown PDP Group: " + group.getId());
     }
 
+    /**
+     * Gets the log of changes made through this engine, so that notifications can name what changed and
+     * consumers can ask for only the changes since the last version they saw.
+     *
+     * @return the change log
+     */
+    public StdPAPChangeLog getChangeLog() {
+        return this.changeLog;
+    }
+
+    /**
+     * Gets the groups that contain a policy.
+     *
+     * @param policyId
+     * @return the groups, empty if no group has the policy
+     */
+    public Set<PDPGroup> getPolicyGroups(String policyId) {
+        Set<PDPGroup> groups = this.policyGroupIndex.get(policyId);
+        if (groups == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(groups);
+    }
+
+    /**
+     * Writes any configuration changes still waiting for the write-behind delay.
+     */
+    public void flush() {
+        synchronized (this.saveLock) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            Iterator<Map.Entry<Path, Properties>> iterator = this.pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Path, Properties> entry = iterator.next();
+                try {
+                    store(entry.getValue(), entry.getKey());
+                    iterator.remove();
+                } catch (IOException e) {
+                    logger.error("Failed to save " + entry.getKey() + ", will retry", e);
+                }
+            }
+            if (!this.pending.isEmpty()) {
+                this.scheduleFlush();
+                return;
+            }
+            try {
+                //
+                // Everything in the journal is now in the files
+                //
+                Files.deleteIfExists(this.getJournalFile());
+            } catch (IOException e) {
+                logger.error("Failed to delete " + this.getJournalFile(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes any pending configuration changes and stops the write-behind thread.
+     */
+    public void shutdown() {
+        this.flush();
+        synchronized (this.saveLock) {
+            if (this.writer != null) {
+                this.writer.shutdown();
+                this.writer = null;
+            }
+        }
+    }
+
     //
     // HELPER methods
     //
 
+    private void recordPolicyChanges(String groupId, Set<PDPPolicy> oldPolicies, Set<PDPPolicy> newPolicies) {
+        Map<String, PDPPolicy> old = new HashMap<String, PDPPolicy>();
+        for (PDPPolicy policy : oldPolicies) {
+            old.put(policy.getId(), policy);
+        }
+        for (PDPPolicy policy : newPolicies) {
+            PDPPolicy previous = old.remove(policy.getId());
+            if (previous == null) {
+                this.changeLog.record(StdPAPChange.Type.POLICY, StdPAPChange.Action.ADD, groupId,
+                                      policy.getId());
+            } else if (previous.isRoot() != policy.isRoot()
+                       || !String.valueOf(previous.getVersion())
+                           .equals(String.valueOf(policy.getVersion()))) {
+                this.changeLog.record(StdPAPChange.Type.POLICY, StdPAPChange.Action.UPDATE, groupId,
+                                      policy.getId());
+            }
+        }
+        for (String id : old.keySet()) {
+            this.changeLog.record(StdPAPChange.Type.POLICY, StdPAPChange.Action.REMOVE, groupId, id);
+        }
+    }
+
+    private void recordPIPChanges(String groupId, Set<PDPPIPConfig> oldConfigs,
+                                  Set<PDPPIPConfig> newConfigs) {
+        Map<String, PDPPIPConfig> old = new HashMap<String, PDPPIPConfig>();
+        for (PDPPIPConfig config : oldConfigs) {
+            old.put(config.getId(), config);
+        }
+        for (PDPPIPConfig config : newConfigs) {
+            PDPPIPConfig previous = old.remove(config.getId());
+            if (previous == null) {
+                this.changeLog.record(StdPAPChange.Type.PIP, StdPAPChange.Action.ADD, groupId,
+                                      config.getId());
+            } else if (!previous.equals(config)) {
+                this.changeLog.record(StdPAPChange.Type.PIP, StdPAPChange.Action.UPDATE, groupId,
+                                      config.getId());
+            }
+        }
+        for (String id : old.keySet()) {
+            this.changeLog.record(StdPAPChange.Type.PIP, StdPAPChange.Action.REMOVE, groupId, id);
+        }
+    }
+
     private Set<StdPDPGroup> readProperties(Path repository, Properties properties) throws PAPException {
         Set<StdPDPGroup> groups = new HashSet<StdPDPGroup>();
         //
@@ -790,6 +1023,7 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
             StdPDPGroup g = new StdPDPGroup(id.trim(), id.equals(properties
                 .getProperty(PROP_PAP_GROUPS_DEFAULT, PROP_PAP_GROUPS_DEFAULT_NAME)), properties,
                                             Paths.get(repository.toString(), id));
+            g.setEngine(this);
 
             //
             // Add it in
@@ -805,11 +1039,85 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
         return groups;
     }
 
-    private void saveConfiguration() throws PAPException, IOException {
-        //
-        // Create our properties object
-        //
-        Properties properties = new Properties() {
+    private static Set<StdPDPGroup> newGroupSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<StdPDPGroup, Boolean>());
+    }
+
+    /**
+     * Brings the indexes up to date for one group: whatever was indexed for it is dropped and, if it is still
+     * one of our groups, its PDPs and policies are indexed again.
+     */
+    private void reindex(StdPDPGroup group) {
+        synchronized (this.indexLock) {
+            this.unindex(group);
+            if (!this.groups.contains(group)) {
+                return;
+            }
+            Set<String> pdpIds = new HashSet<String>();
+            for (PDP pdp : group.getPdps()) {
+                this.pdpIndex.put(pdp.getId(), pdp);
+                this.pdpGroupIndex.put(pdp.getId(), group);
+                pdpIds.add(pdp.getId());
+            }
+            Set<String> policyIds = new HashSet<String>();
+            for (PDPPolicy policy : group.getPolicies()) {
+                Set<PDPGroup> policyGroups = new HashSet<PDPGroup>();
+                Set<PDPGroup> current = this.policyGroupIndex.get(policy.getId());
+                if (current != null) {
+                    policyGroups.addAll(current);
+                }
+                policyGroups.add(group);
+                this.policyGroupIndex.put(policy.getId(), policyGroups);
+                policyIds.add(policy.getId());
+            }
+            this.indexedPdps.put(group.getId(), pdpIds);
+            this.indexedPolicies.put(group.getId(), policyIds);
+        }
+    }
+
+    private void unindex(StdPDPGroup group) {
+        synchronized (this.indexLock) {
+            Set<String> pdpIds = this.indexedPdps.remove(group.getId());
+            if (pdpIds != null) {
+                for (String id : pdpIds) {
+                    //
+                    // The PDP may have moved to a group that was indexed first
+                    //
+                    if (group.equals(this.pdpGroupIndex.get(id))) {
+                        this.pdpIndex.remove(id);
+                        this.pdpGroupIndex.remove(id);
+                    }
+                }
+            }
+            Set<String> policyIds = this.indexedPolicies.remove(group.getId());
+            if (policyIds != null) {
+                for (String id : policyIds) {
+                    Set<PDPGroup> current = this.policyGroupIndex.get(id);
+                    if (current == null) {
+                        continue;
+                    }
+                    Set<PDPGroup> policyGroups = new HashSet<PDPGroup>(current);
+                    policyGroups.remove(group);
+                    if (policyGroups.isEmpty()) {
+                        this.policyGroupIndex.remove(id);
+                    } else {
+                        this.policyGroupIndex.put(id, policyGroups);
+                    }
+                }
+            }
+        }
+    }
+
+    private Path getConfigurationFile() {
+        return Paths.get(this.repository.toString(), "xacml.properties");
+    }
+
+    private Path getJournalFile() {
+        return Paths.get(this.repository.toString(), JOURNAL_NAME);
+    }
+
+    private static Properties newSortedProperties() {
+        return new Properties() {
             private static final long serialVersionUID = 1L;
 
             // For Debugging it is helpful for the file to be in a sorted order,
@@ -820,6 +1128,177 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
                 return Collections.enumeration(new TreeSet<Object>(super.keySet()));
             }
         };
+    }
+
+    /**
+     * Stores properties by writing them to a temporary file next to the target and renaming it over the
+     * target, so a reader never sees a half written file.
+     *
+     * @param properties
+     * @param file
+     * @throws IOException
+     */
+    static void store(Properties properties, Path file) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(),
+                                         ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(temp)) {
+                properties.store(os, "");
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Appends the difference between what the journal last recorded for some files and their new contents as
+     * one committed batch. An "@file" line names the file, relative to the repository, that the following
+     * lines change; "=" empties it, for a file the journal has not seen yet; and "+key value" or "-key" set
+     * or remove a property, everything URL encoded. The batch ends with a "." line; a batch cut short by a
+     * crash has no "." and is ignored on recovery.
+     */
+    private void appendJournal(Map<Path, Properties> files) throws IOException {
+        StringBuilder batch = new StringBuilder();
+        for (Map.Entry<Path, Properties> entry : files.entrySet()) {
+            StringBuilder changes = new StringBuilder();
+            Properties previous = this.journaled.get(entry.getKey());
+            if (previous == null) {
+                changes.append(JOURNAL_RESET).append('\n');
+                previous = new Properties();
+            }
+            Properties current = entry.getValue();
+            for (String key : current.stringPropertyNames()) {
+                String value = current.getProperty(key);
+                if (!value.equals(previous.getProperty(key))) {
+                    changes.append('+').append(URLEncoder.encode(key, "UTF-8")).append(' ')
+                        .append(URLEncoder.encode(value, "UTF-8")).append('\n');
+                }
+            }
+            for (String key : previous.stringPropertyNames()) {
+                if (current.getProperty(key) == null) {
+                    changes.append('-').append(URLEncoder.encode(key, "UTF-8")).append('\n');
+                }
+            }
+            if (changes.length() > 0) {
+                String name = this.repository.relativize(entry.getKey()).toString();
+                batch.append(JOURNAL_FILE).append(URLEncoder.encode(name, "UTF-8")).append('\n')
+                    .append(changes);
+            }
+        }
+        if (batch.length() == 0) {
+            return;
+        }
+        batch.append(JOURNAL_COMMIT).append('\n');
+        try (FileChannel channel = FileChannel.open(this.getJournalFile(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    private void recoverJournal() throws IOException {
+        Path journal = this.getJournalFile();
+        if (Files.notExists(journal)) {
+            return;
+        }
+        Map<Path, Properties> files = new HashMap<Path, Properties>();
+        int batches = 0;
+        List<String> batch = new ArrayList<String>();
+        for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            if (!JOURNAL_COMMIT.equals(line)) {
+                batch.add(line);
+                continue;
+            }
+            //
+            // A batch changes xacml.properties until it names another file
+            //
+            Properties properties = loadRecovered(files, this.getConfigurationFile());
+            for (String change : batch) {
+                int space = change.indexOf(' ');
+                if (change.startsWith(JOURNAL_FILE)) {
+                    Path file = this.repository.resolve(URLDecoder.decode(change.substring(1), "UTF-8"));
+                    properties = loadRecovered(files, file);
+                } else if (JOURNAL_RESET.equals(change)) {
+                    properties.clear();
+                } else if (change.startsWith("+") && space > 0) {
+                    properties.setProperty(URLDecoder.decode(change.substring(1, space), "UTF-8"),
+                                           URLDecoder.decode(change.substring(space + 1), "UTF-8"));
+                } else if (change.startsWith("-")) {
+                    properties.remove(URLDecoder.decode(change.substring(1), "UTF-8"));
+                }
+            }
+            batch.clear();
+            batches++;
+        }
+        if (batches > 0) {
+            logger.warn("Recovering " + batches + " unsaved configuration changes from " + journal);
+            for (Map.Entry<Path, Properties> entry : files.entrySet()) {
+                Path directory = entry.getKey().toAbsolutePath().getParent();
+                if (Files.isDirectory(directory)) {
+                    store(entry.getValue(), entry.getKey());
+                } else {
+                    //
+                    // The group was removed or renamed after the change was journaled
+                    //
+                    logger.warn("Skipping journaled changes to " + entry.getKey() + ", it no longer exists");
+                }
+            }
+        }
+        Files.delete(journal);
+    }
+
+    private static Properties loadRecovered(Map<Path, Properties> files, Path file) throws IOException {
+        Properties properties = files.get(file);
+        if (properties == null) {
+            properties = newSortedProperties();
+            if (Files.exists(file)) {
+                try (InputStream is = Files.newInputStream(file)) {
+                    properties.load(is);
+                }
+            }
+            files.put(file, properties);
+        }
+        return properties;
+    }
+
+    private void scheduleFlush() {
+        if (this.writer == null) {
+            this.writer = Executors.newSingleThreadScheduledExecutor(newThreadFactory());
+        }
+        this.writer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, Math.max(0, this.writeBehindDelay), TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "StdEngine-writer-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private Properties getConfiguration() throws PAPException {
+        //
+        // Create our properties object
+        //
+        Properties properties = newSortedProperties();
         //
         // Iterate our groups
         //
@@ -870,12 +1349,69 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
             throw new PAPException("Invalid state - no default group.");
         }
         properties.setProperty(PROP_PAP_GROUPS_DEFAULT, defaultGroup.getId());
-        //
-        // Now we can save the file
-        //
-        Path file = Paths.get(this.repository.toString(), "xacml.properties");
-        try (OutputStream os = Files.newOutputStream(file)) {
-            properties.store(os, "");
+        return properties;
+    }
+
+    private void saveConfiguration() throws PAPException, IOException {
+        synchronized (this.saveLock) {
+            this.save(Collections.singletonMap(this.getConfigurationFile(), this.getConfiguration()));
+        }
+    }
+
+    /**
+     * Saves a group's policy and PIP properties the same way as the repository's xacml.properties.
+     *
+     * @param group
+     * @throws IOException
+     */
+    void saveGroup(StdPDPGroup group) throws IOException {
+        synchronized (this.saveLock) {
+            this.save(group.getGroupConfiguration());
+        }
+    }
+
+    private void save(Map<Path, Properties> files) throws IOException {
+        synchronized (this.saveLock) {
+            if (this.writeBehindDelay <= 0) {
+                //
+                // Write through
+                //
+                for (Map.Entry<Path, Properties> entry : files.entrySet()) {
+                    store(entry.getValue(), entry.getKey());
+                    this.journaled.put(entry.getKey(), entry.getValue());
+                }
+                return;
+            }
+            //
+            // Journal the change now, write the files later
+            //
+            this.appendJournal(files);
+            this.journaled.putAll(files);
+            if (this.pending.isEmpty()) {
+                this.scheduleFlush();
+            }
+            this.pending.putAll(files);
+        }
+    }
+
+    /**
+     * Drops anything journaled or waiting to be written for a group's directory, before the directory is
+     * renamed or removed.
+     */
+    private void releaseDirectory(Path directory) {
+        synchronized (this.saveLock) {
+            Iterator<Path> iterator = this.journaled.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().startsWith(directory)) {
+                    iterator.remove();
+                }
+            }
+            iterator = this.pending.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().startsWith(directory)) {
+                    iterator.remove();
+                }
+            }
         }
     }
 
@@ -949,6 +1485,9 @@ public class StdEngine extends StdPDPItemSetChangeNotifier implements PAPEngine
         if (logger.isDebugEnabled()) {
             logger.debug("groupChanged: " + group);
         }
+        if (group instanceof StdPDPGroup) {
+            this.reindex((StdPDPGroup)group);
+        }
         this.doSave();
         this.firePDPGroupChanged(group);
     }
@@ -0,0 +1,120 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.pap;
+
+import java.io.Serializable;
+
+/**
+ * One entry in the {@link StdPAPChangeLog}: what kind of object changed, how, in which group, and the version
+ * of the repository the change produced.
+ */
+public class StdPAPChange implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        GROUP,
+        PDP,
+        POLICY,
+        PIP
+    }
+
+    public enum Action {
+        ADD,
+        UPDATE,
+        REMOVE
+    }
+
+    private long version;
+
+    private Type type;
+
+    private Action action;
+
+    private String groupId;
+
+    private String id;
+
+    public StdPAPChange(long version, Type type, Action action, String groupId, String id) {
+        this.version = version;
+        this.type = type;
+        this.action = action;
+        this.groupId = groupId;
+        this.id = id;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    public Action getAction() {
+        return this.action;
+    }
+
+    /**
+     * @return the id of the group the changed object belongs to, for a GROUP change the group itself
+     */
+    public String getGroupId() {
+        return this.groupId;
+    }
+
+    /**
+     * @return the id of the changed PDP, policy or PIP engine, null for a GROUP change
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    @Override
+    public String toString() {
+        return "StdPAPChange [version=" + this.version + ", type=" + this.type + ", action=" + this.action
+               + ", groupId=" + this.groupId + ", id=" + this.id + "]";
+    }
+
+    //
+    // Methods needed for JSON Deserialization
+    //
+    public StdPAPChange() {
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public void setAction(Action action) {
+        this.action = action;
+    }
+
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.pap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A bounded, versioned log of the changes made to a PAP repository. Every change gets the next version
+ * number, so a consumer that remembers the last version it saw can ask for only what changed since then
+ * instead of reloading every group. Versions start from the wall clock, so they keep increasing across
+ * restarts of the PAP; a consumer whose version is older than the oldest retained change, or newer than the
+ * current version, gets null back and must reload everything.
+ */
+public class StdPAPChangeLog {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int capacity;
+    private final LinkedList<StdPAPChange> changes = new LinkedList<StdPAPChange>();
+    private long version;
+    private long oldestVersion;
+
+    public StdPAPChangeLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public StdPAPChangeLog(int capacityIn) {
+        this.capacity = Math.max(1, capacityIn);
+        this.version = System.currentTimeMillis();
+        this.oldestVersion = this.version;
+    }
+
+    /**
+     * @return the version of the most recent change, or the starting version if nothing has changed yet
+     */
+    public synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Records one change and returns the version assigned to it.
+     *
+     * @param type
+     * @param action
+     * @param groupId
+     * @param id the PDP, policy or PIP engine id, null for a GROUP change
+     * @return the new version
+     */
+    public synchronized long record(StdPAPChange.Type type, StdPAPChange.Action action, String groupId,
+                                    String id) {
+        this.changes.addLast(new StdPAPChange(++this.version, type, action, groupId, id));
+        while (this.changes.size() > this.capacity) {
+            this.oldestVersion = this.changes.removeFirst().getVersion();
+        }
+        return this.version;
+    }
+
+    /**
+     * Gets the changes made after the given version, oldest first.
+     *
+     * @param since the last version the caller has seen
+     * @return the changes, empty if the caller is current, or null if the log no longer covers that version
+     */
+    public synchronized List<StdPAPChange> getChangesSince(long since) {
+        if (since < this.oldestVersion || since > this.version) {
+            return null;
+        }
+        List<StdPAPChange> result = new ArrayList<StdPAPChange>();
+        for (StdPAPChange change : this.changes) {
+            if (change.getVersion() > since) {
+                result.add(change);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Collects the distinct group ids named by a list of changes.
+     *
+     * @param changesIn
+     * @return the group ids in the order they first appear
+     */
+    public static Set<String> getGroupIds(Collection<StdPAPChange> changesIn) {
+        Set<String> ids = new LinkedHashSet<String>();
+        for (StdPAPChange change : changesIn) {
+            if (change.getGroupId() != null) {
+                ids.add(change.getGroupId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Collects the distinct ids of the objects of one type named by a list of changes.
+     *
+     * @param changesIn
+     * @param type
+     * @return the ids in the order they first appear
+     */
+    public static Set<String> getIds(Collection<StdPAPChange> changesIn, StdPAPChange.Type type) {
+        Set<String> ids = new LinkedHashSet<String>();
+        for (StdPAPChange change : changesIn) {
+            if (change.getType() == type && change.getId() != null) {
+                ids.add(change.getId());
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+
+package org.apache.openaz.xacml.std.pap;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.pap.PAPException;
+
+/**
+ * Keeps track of the last {@link StdPAPChangeLog} version a consumer of the PAP's change notifications has
+ * seen, and works out from each notification which groups it must reload. A notification that follows on
+ * from the last one names the groups that changed; if some were missed the changes since the last version
+ * seen are fetched with {@link #getChangesSince(long)}.
+ */
+public abstract class StdPAPChangeTracker {
+    private static final Log logger = LogFactory.getLog(StdPAPChangeTracker.class);
+
+    private long seenVersion = -1;
+
+    /**
+     * Parses a version sent with a change notification.
+     *
+     * @param version the version, may be null
+     * @return the version, or -1 if it is missing or not a number
+     */
+    public static long parseVersion(String version) {
+        if (version == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(version);
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring bad version '" + version + "'");
+            return -1;
+        }
+    }
+
+    /**
+     * @return the last version seen, or -1 if none has been
+     */
+    public synchronized long getSeenVersion() {
+        return this.seenVersion;
+    }
+
+    /**
+     * Works out which groups a change notification affects.
+     *
+     * @param since the version the notification was built from, or -1
+     * @param version the version the notification brings the PAP to, or -1 if the PAP keeps no change log
+     * @param groupIds the ids of the groups the notification names, may be empty
+     * @return the ids of the groups to reload, or null if all groups must be reloaded
+     */
+    public synchronized Set<String> getChangedGroupIds(long since, long version, Set<String> groupIds) {
+        long previous = this.seenVersion;
+        this.seenVersion = version;
+        if (version < 0 || previous < 0 || groupIds == null || groupIds.isEmpty()) {
+            //
+            // No change log, first notification, or only PDP statuses changed
+            //
+            return null;
+        }
+        if (since == previous) {
+            return groupIds;
+        }
+        try {
+            List<StdPAPChange> missed = this.getChangesSince(previous);
+            if (missed == null) {
+                return null;
+            }
+            Set<String> changed = new LinkedHashSet<String>(StdPAPChangeLog.getGroupIds(missed));
+            changed.addAll(groupIds);
+            return changed;
+        } catch (PAPException e) {
+            logger.warn("Unable to get the changes since " + previous + ", reloading all groups: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the changes made after the given version from the PAP.
+     *
+     * @param since the last version seen
+     * @return the changes, or null if the PAP no longer has them
+     * @throws PAPException
+     */
+    protected abstract List<StdPAPChange> getChangesSince(long since) throws PAPException;
+}
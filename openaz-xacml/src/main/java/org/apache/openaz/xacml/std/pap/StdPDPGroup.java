@@ -31,7 +31,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
@@ -77,6 +79,12 @@ public class StdPDPGroup extends StdPDPItemSetChangeNotifier implements PDPGroup
     @JsonIgnore
     private Path directory;
 
+    //
+    // The engine that writes our configuration behind, if we belong to one
+    //
+    @JsonIgnore
+    private transient StdEngine engine;
+
     public StdPDPGroup(String id, Path directory) {
         this.id = id;
         this.directory = directory;
@@ -882,9 +890,35 @@ public class StdPDPGroup extends StdPDPItemSetChangeNotifier implements PDPGroup
         this.policies = policies;
     }
 
+    void setEngine(StdEngine engine) {
+        this.engine = engine;
+    }
+
     public void saveGroupConfiguration() throws PAPException, IOException {
+        if (this.engine != null) {
+            //
+            // Let the engine journal the change and write the files behind
+            //
+            this.engine.saveGroup(this);
+            return;
+        }
+        for (Map.Entry<Path, Properties> entry : this.getGroupConfiguration().entrySet()) {
+            try {
+                StdEngine.store(entry.getValue(), entry.getKey());
+            } catch (Exception e) {
+                logger.error("Group Config save failed: " + e, e);
+                throw new PAPException("Failed to save properties file '" + entry.getKey() + "'");
+            }
+        }
+    }
 
-        // First save the Policy properties
+    /**
+     * Gets the contents of the group's xacml.policy.properties and xacml.pip.properties.
+     *
+     * @return the properties for each file
+     */
+    Map<Path, Properties> getGroupConfiguration() {
+        Map<Path, Properties> files = new LinkedHashMap<Path, Properties>();
 
         // save the lists of policies
         Properties policyProperties = this.getPolicyProperties();
@@ -893,31 +927,10 @@ public class StdPDPGroup extends StdPDPItemSetChangeNotifier implements PDPGroup
         for (PDPPolicy policy : this.policies) {
             policyProperties.put(policy.getId() + ".name", policy.getName());
         }
-
-        //
-        // Now we can save the file
-        //
-        Path file = Paths.get(this.directory.toString(), "xacml.policy.properties");
-        try (OutputStream os = Files.newOutputStream(file)) {
-            policyProperties.store(os, "");
-        } catch (Exception e) {
-            logger.error("Group Policies Config save failed: " + e, e);
-            throw new PAPException("Failed to save policy properties file '" + file + "'");
-        }
-
-        // Now save the PIP Config properties
-        Properties pipProperties = this.getPipConfigProperties();
-
-        //
-        // Now we can save the file
-        //
-        file = Paths.get(this.directory.toString(), "xacml.pip.properties");
-        try (OutputStream os = Files.newOutputStream(file)) {
-            pipProperties.store(os, "");
-        } catch (Exception e) {
-            logger.error("Group PIP Config save failed: " + e, e);
-            throw new PAPException("Failed to save pip properties file '" + file + "'");
-        }
+        files.put(Paths.get(this.directory.toString(), "xacml.policy.properties"), policyProperties);
+        files.put(Paths.get(this.directory.toString(), "xacml.pip.properties"),
+                  this.getPipConfigProperties());
+        return files;
     }
 
     //
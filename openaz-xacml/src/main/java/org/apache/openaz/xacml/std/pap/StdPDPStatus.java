@@ -23,6 +23,8 @@ package org.apache.openaz.xacml.std.pap;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.openaz.xacml.api.pap.PDPPIPConfig;
@@ -50,6 +52,8 @@ public class StdPDPStatus implements Serializable, PDPStatus {
 
     private Set<PDPPIPConfig> failedPIPConfigs = new HashSet<PDPPIPConfig>();
 
+    private Map<String, Long> loadTimes = new LinkedHashMap<String, Long>();
+
     public StdPDPStatus() {
     }
 
@@ -69,6 +73,8 @@ public class StdPDPStatus implements Serializable, PDPStatus {
         this.loadedPIPConfigs.addAll(newStatus.getLoadedPipConfigs());
         this.failedPIPConfigs.clear();
         this.failedPIPConfigs.addAll(newStatus.getFailedPipConfigs());
+        this.loadTimes.clear();
+        this.loadTimes.putAll(newStatus.getLoadTimes());
     }
 
     @Override
@@ -191,6 +197,27 @@ public class StdPDPStatus implements Serializable, PDPStatus {
         return true;
     }
 
+    /**
+     * Gets how long each phase of the last configuration load took, such as parsing the root and referenced
+     * policies, keyed by phase name in the order the phases ran.
+     *
+     * @return a <code>Map</code> of phase name to elapsed milliseconds
+     */
+    public Map<String, Long> getLoadTimes() {
+        return Collections.unmodifiableMap(this.loadTimes);
+    }
+
+    public void setLoadTimes(Map<String, Long> times) {
+        this.loadTimes = new LinkedHashMap<String, Long>();
+        if (times != null) {
+            this.loadTimes.putAll(times);
+        }
+    }
+
+    public void addLoadTime(String phase, long millis) {
+        this.loadTimes.put(phase, millis);
+    }
+
     @Override
     @JsonIgnore
     public boolean isOk() {
@@ -213,6 +240,7 @@ public class StdPDPStatus implements Serializable, PDPStatus {
         result = prime * result + loadWarnings.hashCode();
         result = prime * result + loadedPIPConfigs.hashCode();
         result = prime * result + loadedPolicies.hashCode();
+        result = prime * result + loadTimes.hashCode();
         result = prime * result + status.hashCode();
         return result;
     }
@@ -247,6 +275,9 @@ public class StdPDPStatus implements Serializable, PDPStatus {
         if (!loadedPolicies.equals(other.loadedPolicies)) {
             return false;
         }
+        if (!loadTimes.equals(other.loadTimes)) {
+            return false;
+        }
         if (status != other.status) {
             return false;
         }
@@ -258,7 +289,8 @@ public class StdPDPStatus implements Serializable, PDPStatus {
         return "StdPDPStatus [status=" + status + ", loadErrors=" + loadErrors + ", loadWarnings="
                + loadWarnings + ", loadedPolicies=" + loadedPolicies + ", loadedRootPolicies="
                + loadedRootPolicies + ", failedPolicies=" + failedPolicies + ", loadedPIPConfigs="
-               + loadedPIPConfigs + ", failedPIPConfigs=" + failedPIPConfigs + "]";
+               + loadedPIPConfigs + ", failedPIPConfigs=" + failedPIPConfigs + ", loadTimes=" + loadTimes
+               + "]";
     }
 
 }
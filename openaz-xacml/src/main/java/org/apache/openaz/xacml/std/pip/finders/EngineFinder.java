@@ -36,6 +36,7 @@ import org.apache.openaz.xacml.api.pip.PIPRequest;
 import org.apache.openaz.xacml.api.pip.PIPResponse;
 import org.apache.openaz.xacml.std.StdStatus;
 import org.apache.openaz.xacml.std.StdStatusCode;
+import org.apache.openaz.xacml.std.metrics.PDPMetrics;
 import org.apache.openaz.xacml.std.pip.StdMutablePIPResponse;
 import org.apache.openaz.xacml.std.pip.StdPIPResponse;
 
@@ -73,12 +74,14 @@ public class EngineFinder implements PIPFinder {
         throws PIPException {
         StdMutablePIPResponse pipResponse = new StdMutablePIPResponse();
         Status firstErrorStatus = null;
+        PDPMetrics metrics = PDPMetrics.getInstance();
         Iterator<List<PIPEngine>> iterPIPEngineLists = this.pipEngines.values().iterator();
         while (iterPIPEngineLists.hasNext()) {
             List<PIPEngine> listPIPEngines = iterPIPEngineLists.next();
             for (PIPEngine pipEngine : listPIPEngines) {
                 if (pipEngine != exclude) {
                     PIPResponse pipResponseEngine = null;
+                    long startNanos = metrics.start();
                     try {
                         pipResponseEngine = pipEngine.getAttributes(pipRequest, pipFinderParent);
                     } catch (Exception e) {
@@ -86,6 +89,7 @@ public class EngineFinder implements PIPFinder {
                                                                new StdStatus(
                                                                              StdStatusCode.STATUS_CODE_PROCESSING_ERROR));
                     }
+                    metrics.recordPIP(pipEngine.getName(), startNanos);
                     if (pipResponseEngine != null) {
                         if (pipResponseEngine.getStatus() == null || pipResponseEngine.getStatus().isOk()) {
                             pipResponse.addAttributes(pipResponseEngine.getAttributes());
@@ -0,0 +1,428 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.openaz.xacml.std.trace;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.Result;
+import org.apache.openaz.xacml.api.trace.ScopedTraceEngine;
+import org.apache.openaz.xacml.api.trace.TraceEvent;
+import org.apache.openaz.xacml.api.trace.Traceable;
+import org.apache.openaz.xacml.util.XACMLProperties;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Implements the {@link org.apache.openaz.xacml.api.trace.ScopedTraceEngine} interface to trace a sample of
+ * the decision requests at a cost low enough for production use. Whether a request is traced is decided once
+ * when it starts, either at random with the configured sample rate or because
+ * {@link #sampleNextRequest()} was called on the evaluating thread. <code>isTracing</code> is false for
+ * requests that are not sampled, so their evaluation creates no {@link org.apache.openaz.xacml.api.trace.TraceEvent}s
+ * at all.
+ * <p>
+ * The events of a sampled request are captured, together with their <code>System.nanoTime</code>, into
+ * arrays preallocated for each thread. The trace ids and the value summary of an event are taken when the
+ * event is traced, so the record does not depend on objects that may change or be reused after the request;
+ * the JSON is only built later. When the request ends the events are handed to a background thread that
+ * writes them as one JSON record to the <code>xacml.trace</code> log at info level. The record gives the
+ * offset of each event from the start of the request, its message, the trace id of its cause and of the
+ * cause's own cause, so that the decision tree can be rebuilt, and a summary of its value.
+ */
+public class SampledTraceEngine implements ScopedTraceEngine {
+    private static final Log logger = LogFactory.getLog(SampledTraceEngine.class);
+    private static final Log traceLogger = LogFactory.getLog("xacml.trace");
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private static final double DEFAULT_SAMPLERATE = 0.01;
+    private static final int DEFAULT_BUFFERSIZE = 1024;
+    private static final int DEFAULT_QUEUESIZE = 1024;
+    private static final int MAX_VALUE_LENGTH = 512;
+
+    private static final ThreadLocal<Boolean> sampleNext = new ThreadLocal<Boolean>();
+
+    private static SampledTraceEngine sampledTraceEngine;
+
+    private final double sampleRate;
+    private final int bufferSize;
+    private final BlockingQueue<TraceRecord> queue;
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean shutdown;
+
+    private final ThreadLocal<TraceBuffer> buffers = new ThreadLocal<TraceBuffer>() {
+        @Override
+        protected TraceBuffer initialValue() {
+            return new TraceBuffer(SampledTraceEngine.this.bufferSize);
+        }
+    };
+
+    /**
+     * The events of the request being evaluated on one thread. The arrays are allocated once per thread and
+     * reused for every request.
+     */
+    private static final class TraceBuffer {
+        private final long[] nanos;
+        private final String[] messages;
+        private final String[] causes;
+        private final String[] parents;
+        private final String[] values;
+        private int size;
+        private int droppedEvents;
+        private int depth;
+        private boolean sampled;
+        private boolean forced;
+        private long startMillis;
+        private long startNanos;
+
+        TraceBuffer(int capacity) {
+            this.nanos = new long[capacity];
+            this.messages = new String[capacity];
+            this.causes = new String[capacity];
+            this.parents = new String[capacity];
+            this.values = new String[capacity];
+        }
+
+        void add(long nanosIn, String messageIn, Traceable causeIn, Object valueIn) {
+            if (this.size == this.nanos.length) {
+                this.droppedEvents++;
+                return;
+            }
+            this.nanos[this.size] = nanosIn;
+            this.messages[this.size] = messageIn;
+            if (causeIn != null) {
+                this.causes[this.size] = causeIn.getTraceId();
+                Traceable parent = causeIn.getCause();
+                this.parents[this.size] = parent == null ? null : parent.getTraceId();
+            }
+            this.values[this.size] = valueIn == null ? null : summarize(valueIn);
+            this.size++;
+        }
+
+        TraceRecord toRecord(long endNanos) {
+            TraceRecord traceRecord = new TraceRecord(this.startMillis, this.startNanos, endNanos, this.forced,
+                                                      this.droppedEvents, Arrays.copyOf(this.nanos, this.size),
+                                                      Arrays.copyOf(this.messages, this.size),
+                                                      Arrays.copyOf(this.causes, this.size),
+                                                      Arrays.copyOf(this.parents, this.size),
+                                                      Arrays.copyOf(this.values, this.size));
+            Arrays.fill(this.messages, 0, this.size, null);
+            Arrays.fill(this.causes, 0, this.size, null);
+            Arrays.fill(this.parents, 0, this.size, null);
+            Arrays.fill(this.values, 0, this.size, null);
+            this.size = 0;
+            return traceRecord;
+        }
+    }
+
+    /**
+     * The events of a completed request, waiting to be written by the background thread.
+     */
+    private static final class TraceRecord {
+        private final long startMillis;
+        private final long startNanos;
+        private final long endNanos;
+        private final boolean forced;
+        private final int droppedEvents;
+        private final long[] nanos;
+        private final String[] messages;
+        private final String[] causes;
+        private final String[] parents;
+        private final String[] values;
+
+        TraceRecord(long startMillisIn, long startNanosIn, long endNanosIn, boolean forcedIn,
+                    int droppedEventsIn, long[] nanosIn, String[] messagesIn, String[] causesIn,
+                    String[] parentsIn, String[] valuesIn) {
+            this.startMillis = startMillisIn;
+            this.startNanos = startNanosIn;
+            this.endNanos = endNanosIn;
+            this.forced = forcedIn;
+            this.droppedEvents = droppedEventsIn;
+            this.nanos = nanosIn;
+            this.messages = messagesIn;
+            this.causes = causesIn;
+            this.parents = parentsIn;
+            this.values = valuesIn;
+        }
+    }
+
+    /**
+     * Creates a new <code>SampledTraceEngine</code> configured from the given <code>Properties</code> and
+     * starts its background writer thread.
+     *
+     * @param properties the <code>Properties</code> holding the sample rate, buffer size and queue size
+     */
+    protected SampledTraceEngine(Properties properties) {
+        this.sampleRate = getDouble(properties, XACMLProperties.PROP_TRACE_SAMPLERATE, DEFAULT_SAMPLERATE);
+        this.bufferSize = Math.max(1, getInt(properties, XACMLProperties.PROP_TRACE_BUFFERSIZE,
+                                             DEFAULT_BUFFERSIZE));
+        this.queue = new ArrayBlockingQueue<TraceRecord>(Math.max(1, getInt(properties,
+                                                                            XACMLProperties.PROP_TRACE_QUEUESIZE,
+                                                                            DEFAULT_QUEUESIZE)));
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SampledTraceEngine.this.writeRecords();
+            }
+        }, "SampledTraceEngine");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Gets the single instance of the <code>SampledTraceEngine</code>, configured from the
+     * {@link org.apache.openaz.xacml.util.XACMLProperties}.
+     *
+     * @return the single instance of the <code>SampledTraceEngine</code>.
+     */
+    public static synchronized SampledTraceEngine newInstance() {
+        if (sampledTraceEngine == null) {
+            Properties properties;
+            try {
+                properties = XACMLProperties.getProperties();
+            } catch (IOException ex) {
+                logger.warn("Unable to load XACML properties, using defaults: " + ex.getMessage());
+                properties = new Properties();
+            }
+            sampledTraceEngine = new SampledTraceEngine(properties);
+        }
+        return sampledTraceEngine;
+    }
+
+    /**
+     * Creates a new <code>SampledTraceEngine</code> configured from the given <code>Properties</code>. The
+     * caller is responsible for calling {@link #shutdown()} on it once it is no longer used.
+     *
+     * @param properties the <code>Properties</code> to configure the <code>SampledTraceEngine</code> from
+     * @return a new <code>SampledTraceEngine</code>
+     */
+    public static SampledTraceEngine newInstance(Properties properties) {
+        return new SampledTraceEngine(properties);
+    }
+
+    /**
+     * Forces the next decision request started on the current thread to be traced regardless of the sample
+     * rate, for instance because the client asked for it with a request header.
+     */
+    public static void sampleNextRequest() {
+        sampleNext.set(Boolean.TRUE);
+    }
+
+    /**
+     * Clears a {@link #sampleNextRequest()} on the current thread that was not used by a decision request,
+     * so that it does not apply to a later request on the same thread.
+     */
+    public static void clearSampleNextRequest() {
+        sampleNext.remove();
+    }
+
+    private static double getDouble(Properties properties, String name, double defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException ex) {
+            logger.warn("Invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private static int getInt(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            logger.warn("Invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private boolean sample() {
+        if (this.sampleRate <= 0) {
+            return false;
+        }
+        return this.sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < this.sampleRate;
+    }
+
+    @Override
+    public void startRequest() {
+        TraceBuffer traceBuffer = this.buffers.get();
+        if (traceBuffer.depth++ > 0) {
+            return;
+        }
+        boolean forced = sampleNext.get() != null;
+        if (forced) {
+            sampleNext.remove();
+        }
+        traceBuffer.forced = forced;
+        traceBuffer.sampled = forced || this.sample();
+        if (traceBuffer.sampled) {
+            traceBuffer.droppedEvents = 0;
+            traceBuffer.startMillis = System.currentTimeMillis();
+            traceBuffer.startNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void endRequest() {
+        TraceBuffer traceBuffer = this.buffers.get();
+        if (traceBuffer.depth == 0 || --traceBuffer.depth > 0) {
+            return;
+        }
+        if (traceBuffer.sampled) {
+            traceBuffer.sampled = false;
+            if (!this.queue.offer(traceBuffer.toRecord(System.nanoTime()))) {
+                this.droppedRecords.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void trace(TraceEvent<?> traceEvent) {
+        TraceBuffer traceBuffer = this.buffers.get();
+        if (traceBuffer.sampled) {
+            traceBuffer.add(System.nanoTime(), traceEvent.getMessage(), traceEvent.getCause(),
+                            traceEvent.getValue());
+        }
+    }
+
+    @Override
+    public boolean isTracing() {
+        return this.buffers.get().sampled;
+    }
+
+    /**
+     * Gets the number of traced requests that were not written because the queue to the background thread
+     * was full.
+     *
+     * @return the number of dropped trace records
+     */
+    public long getDroppedRecords() {
+        return this.droppedRecords.get();
+    }
+
+    /**
+     * Stops the background writer thread once the trace records already queued have been written.
+     */
+    public void shutdown() {
+        this.shutdown = true;
+        this.writerThread.interrupt();
+    }
+
+    /**
+     * Writes one formatted trace record. The default implementation logs it to the <code>xacml.trace</code>
+     * log at info level.
+     *
+     * @param traceRecord the JSON trace record
+     */
+    protected void write(String traceRecord) {
+        traceLogger.info(traceRecord);
+    }
+
+    private void writeRecords() {
+        while (true) {
+            TraceRecord traceRecord;
+            try {
+                traceRecord = this.shutdown ? this.queue.poll() : this.queue.take();
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            if (traceRecord == null) {
+                return;
+            }
+            try {
+                this.write(format(traceRecord));
+            } catch (Exception ex) {
+                logger.error("Failed to write trace record: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private static String format(TraceRecord traceRecord) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonGenerator jsonGenerator = jsonFactory.createGenerator(stringWriter);
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeNumberField("timestamp", traceRecord.startMillis);
+        jsonGenerator.writeNumberField("durationMicros", (traceRecord.endNanos - traceRecord.startNanos) / 1000);
+        jsonGenerator.writeBooleanField("forced", traceRecord.forced);
+        if (traceRecord.droppedEvents > 0) {
+            jsonGenerator.writeNumberField("droppedEvents", traceRecord.droppedEvents);
+        }
+        jsonGenerator.writeArrayFieldStart("events");
+        for (int i = 0; i < traceRecord.nanos.length; i++) {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeNumberField("offsetMicros", (traceRecord.nanos[i] - traceRecord.startNanos) / 1000);
+            jsonGenerator.writeStringField("message", traceRecord.messages[i]);
+            if (traceRecord.causes[i] != null) {
+                jsonGenerator.writeStringField("cause", traceRecord.causes[i]);
+            }
+            if (traceRecord.parents[i] != null) {
+                jsonGenerator.writeStringField("parent", traceRecord.parents[i]);
+            }
+            if (traceRecord.values[i] != null) {
+                jsonGenerator.writeStringField("value", traceRecord.values[i]);
+            }
+            jsonGenerator.writeEndObject();
+        }
+        jsonGenerator.writeEndArray();
+        jsonGenerator.writeEndObject();
+        jsonGenerator.close();
+        return stringWriter.toString();
+    }
+
+    /*
+     * Results and Responses are reduced to their decisions; anything else is written through toString,
+     * truncated so that a large Request does not swamp the record.
+     */
+    private static String summarize(Object value) {
+        if (value instanceof Result) {
+            return String.valueOf(((Result)value).getDecision());
+        } else if (value instanceof Response && ((Response)value).getResults() != null) {
+            StringBuilder stringBuilder = new StringBuilder();
+            Iterator<Result> iterResults = ((Response)value).getResults().iterator();
+            while (iterResults.hasNext()) {
+                stringBuilder.append(iterResults.next().getDecision());
+                if (iterResults.hasNext()) {
+                    stringBuilder.append(',');
+                }
+            }
+            return stringBuilder.toString();
+        }
+        String string = value.toString();
+        return string.length() > MAX_VALUE_LENGTH ? string.substring(0, MAX_VALUE_LENGTH) + "..." : string;
+    }
+}
@@ -823,7 +823,12 @@ public class XACMLPolicyScanner {
             // Parse the policy file
             //
             DocumentBuilder db = DOMUtil.getDocumentBuilder();
-            Document doc = db.parse(is);
+            Document doc;
+            try {
+                doc = db.parse(is);
+            } finally {
+                DOMUtil.releaseDocumentBuilder(db);
+            }
             //
             // Because there is no root defined in xacml,
             // find the first element
@@ -51,6 +51,13 @@ public class XACMLProperties {
     public static final String PROP_PEPENGINEFACTORY = "xacml.pepEngineFactory";
     public static final String PROP_PIPFINDERFACTORY = "xacml.pipFinderFactory";
     public static final String PROP_TRACEENGINEFACTORY = "xacml.traceEngineFactory";
+    public static final String PROP_METRICS = "xacml.metrics";
+
+    public static final String PROP_TRACE_SAMPLERATE = "xacml.trace.sampleRate";
+    public static final String PROP_TRACE_BUFFERSIZE = "xacml.trace.bufferSize";
+    public static final String PROP_TRACE_QUEUESIZE = "xacml.trace.queueSize";
+
+    public static final String PROP_CAPTURE_PIPFINDERFACTORY = "xacml.capture.pipFinderFactory";
 
     public static final String PROP_ROOTPOLICIES = "xacml.rootPolicies";
     public static final String PROP_REFERENCEDPOLICIES = "xacml.referencedPolicies";